@@ -1,12 +1,14 @@
 package org.qbicc.graph;
 
 import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Queue;
+import java.util.Set;
 import java.util.function.BiFunction;
 
 import org.qbicc.context.CompilationContext;
@@ -16,6 +18,7 @@ import org.qbicc.graph.literal.BlockLiteral;
 import org.qbicc.graph.literal.BooleanLiteral;
 import org.qbicc.graph.literal.ByteArrayLiteral;
 import org.qbicc.graph.literal.CompoundLiteral;
+import org.qbicc.graph.literal.CompressedReferenceLiteral;
 import org.qbicc.graph.literal.ConstantLiteral;
 import org.qbicc.graph.literal.ElementOfLiteral;
 import org.qbicc.graph.literal.FloatLiteral;
@@ -88,11 +91,13 @@ public interface Node {
         private final Map<BasicBlock, BlockLabel> copiedBlocks = new HashMap<>();
         private final HashMap<Node, Node> copiedNodes = new HashMap<>();
         private final HashMap<Terminator, BasicBlock> copiedTerminators = new HashMap<>();
-        private final Queue<PhiValue> phiQueue = new ArrayDeque<>();
-        private final Queue<BasicBlock> blockQueue = new ArrayDeque<>();
+        private final Queue<QueuedPhi> phiQueue = new ArrayDeque<>();
+        private final Queue<QueuedBlock> blockQueue = new ArrayDeque<>();
+        private final List<Region> regions = new ArrayList<>();
         private final Terminus terminus = new Terminus();
         private final CompilationContext ctxt;
         private final Schedule schedule;
+        private Region region;
 
         Copier(BasicBlock entryBlock, BasicBlockBuilder builder, CompilationContext ctxt,
             BiFunction<CompilationContext, NodeVisitor<Copier, Value, Node, BasicBlock, ValueHandle>, NodeVisitor<Copier, Value, Node, BasicBlock, ValueHandle>> nodeVisitorFactory
@@ -121,16 +126,23 @@ public interface Node {
          */
         public BasicBlock copyProgram() {
             BlockLabel entryCopy = copyBlock(entryBlock);
-            BasicBlock block;
-            while ((block = blockQueue.poll()) != null) {
+            QueuedBlock queuedBlock;
+            while ((queuedBlock = blockQueue.poll()) != null) {
                 // process and map all queued blocks - might enqueue more blocks or phis
-                blockBuilder.begin(copiedBlocks.get(block));
-                copyScheduledNodes(block);
+                region = queuedBlock.region();
+                try {
+                    blockBuilder.begin(blocksOf(region).get(queuedBlock.block()));
+                    copyScheduledNodes(queuedBlock.block());
+                } finally {
+                    region = null;
+                }
             }
             // now process all phis (all blocks will have been enqueued)
-            PhiValue orig;
-            while ((orig = phiQueue.poll()) != null) {
-                PhiValue copy = (PhiValue) copiedNodes.get(orig);
+            QueuedPhi queuedPhi;
+            while ((queuedPhi = phiQueue.poll()) != null) {
+                PhiValue orig = queuedPhi.phi();
+                Region phiRegion = queuedPhi.region();
+                PhiValue copy = (PhiValue) nodesOf(phiRegion).get(orig);
                 BasicBlock ourBlock = copy.getPinnedBlock();
                 // process and map all incoming values - might enqueue more blocks or phis
                 for (BasicBlock incomingBlock : orig.getPinnedBlock().getIncoming()) {
@@ -138,10 +150,18 @@ public interface Node {
                     if (incomingBlock.isReachable()) {
                         Value val = orig.getValueForInput(incomingTerminator);
                         if (val != null) {
-                            BasicBlock copiedIncomingBlock = copiedTerminators.get(incomingTerminator);
-                            // if this block is null, that means that the copied block can no longer flow into this block due to transformation
-                            if (copiedIncomingBlock != null && copiedIncomingBlock.isSucceededBy(ourBlock)) {
-                                copy.setValueForBlock(ctxt, blockBuilder.getCurrentElement(), copiedIncomingBlock, copyValue(val));
+                            if (phiRegion != null && phiRegion.blocks().contains(incomingBlock)) {
+                                setIncomingValue(copy, phiRegion, incomingTerminator, val);
+                            } else {
+                                setIncomingValue(copy, null, incomingTerminator, val);
+                                if (phiRegion == null) {
+                                    // the block may also be entered from any cloned copy of the incoming block
+                                    for (Region candidate : regions) {
+                                        if (candidate.blocks().contains(incomingBlock)) {
+                                            setIncomingValue(copy, candidate, incomingTerminator, val);
+                                        }
+                                    }
+                                }
                             }
                         }
                     }
@@ -150,6 +170,20 @@ public interface Node {
             return BlockLabel.getTargetOf(entryCopy);
         }
 
+        private void setIncomingValue(PhiValue copy, Region incomingRegion, Terminator incomingTerminator, Value val) {
+            BasicBlock copiedIncomingBlock = terminatorsOf(incomingRegion).get(incomingTerminator);
+            // if this block is null, that means that the copied block can no longer flow into this block due to transformation
+            if (copiedIncomingBlock != null && copiedIncomingBlock.isSucceededBy(copy.getPinnedBlock())) {
+                Region oldRegion = region;
+                region = incomingRegion;
+                try {
+                    copy.setValueForBlock(ctxt, blockBuilder.getCurrentElement(), copiedIncomingBlock, copyValue(val));
+                } finally {
+                    region = oldRegion;
+                }
+            }
+        }
+
         /**
          * Copy a single block. Called from any visitor that needs to reference a copy of a block from the original
          * program.  The label will not necessarily be resolved until the queue has been fully processed.
@@ -158,15 +192,82 @@ public interface Node {
          * @return the label of the copied block
          */
         public BlockLabel copyBlock(BasicBlock original) {
-            BlockLabel copy = copiedBlocks.get(original);
+            Region region = this.region;
+            if (region != null && (! region.blocks().contains(original) || region.reenter() && original == region.header())) {
+                region = null;
+            }
+            Map<BasicBlock, BlockLabel> blocks = blocksOf(region);
+            BlockLabel copy = blocks.get(original);
             if (copy == null) {
                 copy = new BlockLabel();
-                copiedBlocks.put(original, copy);
-                blockQueue.add(original);
+                blocks.put(original, copy);
+                blockQueue.add(new QueuedBlock(original, region));
             }
             return copy;
         }
 
+        /**
+         * Copy a region of the original program a second time, independently of any other copy of the same blocks.
+         * Called from any visitor that needs to duplicate a part of the program, for example to clone a loop body.
+         * <p>
+         * Within the cloned region, each node which is scheduled to a block of the region is copied again, and each
+         * branch to a block of the region refers to the cloned block; nodes which are scheduled outside of the region
+         * share their single copy, and branches which leave the region refer to the ordinary copy of the target block.
+         * Any phi which merges values from the region also receives the corresponding values from the clone.
+         * The region must be entered only through its header block.
+         *
+         * @param header the header block, which must be contained in the region
+         * @param blocks the blocks of the region
+         * @param substitutions copied values to use in place of copying each of the given original nodes within the region
+         * @param reenter {@code true} if branches to the header from within the region should refer to the ordinary copy
+         *      of the header instead of to the cloned header (for example when peeling one iteration of a loop)
+         * @return the label of the cloned header block
+         */
+        public BlockLabel copyRegion(BasicBlock header, Set<BasicBlock> blocks, Map<? extends Node, ? extends Node> substitutions, boolean reenter) {
+            Assert.checkNotNullParam("header", header);
+            Assert.checkNotNullParam("blocks", blocks);
+            Assert.checkNotNullParam("substitutions", substitutions);
+            if (! blocks.contains(header)) {
+                throw new IllegalArgumentException("Region does not contain its header");
+            }
+            Region region = new Region(header, Set.copyOf(blocks), reenter, new HashMap<>(), new HashMap<>(substitutions), new HashMap<>());
+            regions.add(region);
+            BlockLabel copy = new BlockLabel();
+            region.copiedBlocks().put(header, copy);
+            blockQueue.add(new QueuedBlock(header, region));
+            return copy;
+        }
+
+        /**
+         * Determine whether this copier is currently copying a cloned region.
+         *
+         * @return {@code true} if a region is being copied, or {@code false} otherwise
+         * @see #copyRegion(BasicBlock, Set, Map, boolean)
+         */
+        public boolean isCopyingRegion() {
+            return region != null;
+        }
+
+        private Region regionOf(Node original) {
+            Region region = this.region;
+            if (region == null || region.copiedNodes().containsKey(original) || original instanceof Unschedulable) {
+                return region;
+            }
+            return region.blocks().contains(schedule.getBlockForNode(original)) ? region : null;
+        }
+
+        private Map<BasicBlock, BlockLabel> blocksOf(Region region) {
+            return region == null ? copiedBlocks : region.copiedBlocks();
+        }
+
+        private Map<Node, Node> nodesOf(Region region) {
+            return region == null ? copiedNodes : region.copiedNodes();
+        }
+
+        private Map<Terminator, BasicBlock> terminatorsOf(Region region) {
+            return region == null ? copiedTerminators : region.copiedTerminators();
+        }
+
         public void copyScheduledNodes(BasicBlock block) {
             try {
                 // copy all nodes except the terminator which should be the last one to be copied
@@ -177,7 +278,7 @@ public interface Node {
                 }
                 copyTerminator(block.getTerminator());
             } catch (BlockEarlyTermination term) {
-                copiedTerminators.put(block.getTerminator(), term.getTerminatedBlock());
+                terminatorsOf(region).put(block.getTerminator(), term.getTerminatedBlock());
             }
         }
 
@@ -196,6 +297,8 @@ public interface Node {
         }
 
         public Value copyValue(Value original) {
+            Region region = regionOf(original);
+            Map<Node, Node> copiedNodes = nodesOf(region);
             Value copy = (Value) copiedNodes.get(original);
             if (copy == null) {
                 if (! (original instanceof Unschedulable) && schedule.getBlockForNode(original) == null) {
@@ -206,6 +309,8 @@ public interface Node {
                 ExecutableElement oldElement = blockBuilder.setCurrentElement(original.getElement());
                 Node origCallSite = original.getCallSite();
                 Node oldCallSite = origCallSite == null ? blockBuilder.getCallSite() : blockBuilder.setCallSite(copyNode(origCallSite));
+                Region oldRegion = this.region;
+                this.region = region;
                 try {
                     copy = original.accept(nodeVisitor, this);
                     copiedNodes.put(original, copy);
@@ -214,12 +319,15 @@ public interface Node {
                     blockBuilder.setBytecodeIndex(oldBci);
                     blockBuilder.setCurrentElement(oldElement);
                     blockBuilder.setCallSite(oldCallSite);
+                    this.region = oldRegion;
                 }
             }
             return copy;
         }
 
         public ValueHandle copyValueHandle(ValueHandle original) {
+            Region region = regionOf(original);
+            Map<Node, Node> copiedNodes = nodesOf(region);
             ValueHandle copy = (ValueHandle) copiedNodes.get(original);
             if (copy == null) {
                 int oldLine = blockBuilder.setLineNumber(original.getSourceLine());
@@ -227,6 +335,8 @@ public interface Node {
                 ExecutableElement oldElement = blockBuilder.setCurrentElement(original.getElement());
                 Node origCallSite = original.getCallSite();
                 Node oldCallSite = origCallSite == null ? blockBuilder.getCallSite() : blockBuilder.setCallSite(copyNode(origCallSite));
+                Region oldRegion = this.region;
+                this.region = region;
                 try {
                     copy = original.accept(nodeVisitor, this);
                     copiedNodes.put(original, copy);
@@ -235,6 +345,7 @@ public interface Node {
                     blockBuilder.setBytecodeIndex(oldBci);
                     blockBuilder.setCurrentElement(oldElement);
                     blockBuilder.setCallSite(oldCallSite);
+                    this.region = oldRegion;
                 }
             }
             return copy;
@@ -253,6 +364,8 @@ public interface Node {
         }
 
         public Node copyAction(Action original) {
+            Region region = regionOf(original);
+            Map<Node, Node> copiedNodes = nodesOf(region);
             Node copy = copiedNodes.get(original);
             if (copy == null) {
                 if (! (original instanceof Unschedulable) && schedule.getBlockForNode(original) == null) {
@@ -263,6 +376,8 @@ public interface Node {
                 ExecutableElement oldElement = blockBuilder.setCurrentElement(original.getElement());
                 Node origCallSite = original.getCallSite();
                 Node oldCallSite = origCallSite == null ? blockBuilder.getCallSite() : blockBuilder.setCallSite(copyNode(origCallSite));
+                Region oldRegion = this.region;
+                this.region = region;
                 try {
                     copy = original.accept(nodeVisitor, this);
                     copiedNodes.put(original, copy);
@@ -271,12 +386,15 @@ public interface Node {
                     blockBuilder.setBytecodeIndex(oldBci);
                     blockBuilder.setCurrentElement(oldElement);
                     blockBuilder.setCallSite(oldCallSite);
+                    this.region = oldRegion;
                 }
             }
             return copy;
         }
 
         public BasicBlock copyTerminator(Terminator original) {
+            Region region = regionOf(original);
+            Map<Terminator, BasicBlock> copiedTerminators = terminatorsOf(region);
             BasicBlock basicBlock = copiedTerminators.get(original);
             if (basicBlock == null) {
                 if (! (original instanceof Unschedulable) && schedule.getBlockForNode(original) == null) {
@@ -288,6 +406,8 @@ public interface Node {
                 ExecutableElement oldElement = blockBuilder.setCurrentElement(original.getElement());
                 Node origCallSite = original.getCallSite();
                 Node oldCallSite = origCallSite == null ? blockBuilder.getCallSite() : blockBuilder.setCallSite(copyNode(origCallSite));
+                Region oldRegion = this.region;
+                this.region = region;
                 BasicBlock block;
                 try {
                     block = original.accept(nodeVisitor, this);
@@ -298,6 +418,7 @@ public interface Node {
                     blockBuilder.setBytecodeIndex(oldBci);
                     blockBuilder.setCurrentElement(oldElement);
                     blockBuilder.setCallSite(oldCallSite);
+                    this.region = oldRegion;
                 }
                 copiedTerminators.put(original, block);
                 return block;
@@ -306,10 +427,16 @@ public interface Node {
         }
 
         public PhiValue enqueue(PhiValue originalPhi) {
-            phiQueue.add(Assert.checkNotNullParam("originalPhi", originalPhi));
+            phiQueue.add(new QueuedPhi(Assert.checkNotNullParam("originalPhi", originalPhi), region));
             return originalPhi;
         }
 
+        record Region(BasicBlock header, Set<BasicBlock> blocks, boolean reenter, Map<BasicBlock, BlockLabel> copiedBlocks, Map<Node, Node> copiedNodes, Map<Terminator, BasicBlock> copiedTerminators) {}
+
+        record QueuedBlock(BasicBlock block, Region region) {}
+
+        record QueuedPhi(PhiValue phi, Region region) {}
+
         static class Terminus implements NodeVisitor<Copier, Value, Node, BasicBlock, ValueHandle> {
             public Node visitUnknown(final Copier param, final Action node) {
                 throw Assert.unreachableCode();
@@ -379,10 +506,10 @@ public interface Node {
                     invoke = param.getBlockBuilder().invoke(param.copyValueHandle(node.getValueHandle()), param.copyValues(node.getArguments()), param.copyBlock(node.getCatchBlock()), param.copyBlock(node.getResumeTarget()));
                 } catch (BlockEarlyTermination bet) {
                     // oops, the invoke got deleted;
-                    param.copiedNodes.put(node.getReturnValue(), param.ctxt.getLiteralFactory().undefinedLiteralOfType(node.getReturnValue().getType()));
+                    param.nodesOf(param.region).put(node.getReturnValue(), param.ctxt.getLiteralFactory().undefinedLiteralOfType(node.getReturnValue().getType()));
                     throw bet;
                 }
-                param.copiedNodes.put(node.getReturnValue(), invoke);
+                param.nodesOf(param.region).put(node.getReturnValue(), invoke);
                 return param.getBlockBuilder().getTerminatedBlock();
             }
 
@@ -571,6 +698,10 @@ public interface Node {
                 return param.getBlockBuilder().elementOf(param.copyValueHandle(node.getValueHandle()), param.copyValue(node.getIndex()));
             }
 
+            public Value visit(Copier param, CompressedReferenceLiteral node) {
+                return node;
+            }
+
             public Value visit(Copier param, ElementOfLiteral node) {
                 return node;
             }
@@ -352,7 +352,7 @@ final class SimpleBasicBlockBuilder implements BasicBlockBuilder, BasicBlockBuil
     }
 
     public Value populationCount(final Value v) {
-        throw Assert.unsupported();
+        return new PopCount(callSite, element, line, bci, v, typeSystem.getSignedInteger32Type());
     }
 
     public ValueHandle lengthOf(final ValueHandle arrayHandle) {
@@ -6,6 +6,7 @@ import org.qbicc.graph.literal.BlockLiteral;
 import org.qbicc.graph.literal.BooleanLiteral;
 import org.qbicc.graph.literal.ByteArrayLiteral;
 import org.qbicc.graph.literal.CompoundLiteral;
+import org.qbicc.graph.literal.CompressedReferenceLiteral;
 import org.qbicc.graph.literal.ConstantLiteral;
 import org.qbicc.graph.literal.ElementOfLiteral;
 import org.qbicc.graph.literal.FloatLiteral;
@@ -160,6 +161,10 @@ public interface ValueVisitor<T, R> {
         return visitUnknown(param, node);
     }
 
+    default R visit(T param, CompressedReferenceLiteral node) {
+        return visitUnknown(param, node);
+    }
+
     default R visit(T param, ElementOfLiteral node) {
         return visitUnknown(param, node);
     }
@@ -495,6 +500,10 @@ public interface ValueVisitor<T, R> {
             return getDelegateValueVisitor().visit(param, node);
         }
 
+        default R visit(T param, CompressedReferenceLiteral node) {
+            return getDelegateValueVisitor().visit(param, node);
+        }
+
         default R visit(T param, ElementOfLiteral node) {
             return getDelegateValueVisitor().visit(param, node);
         }
@@ -0,0 +1,62 @@
+package org.qbicc.graph.literal;
+
+import org.qbicc.graph.ValueVisitor;
+import org.qbicc.type.IntegerType;
+
+/**
+ * A literal compressed reference, which is the offset of a program object from the heap base program object,
+ * truncated to the narrow reference type.
+ */
+public class CompressedReferenceLiteral extends Literal {
+    final Literal value;
+    final Literal base;
+    final IntegerType toType;
+
+    CompressedReferenceLiteral(final Literal value, final Literal base, final IntegerType toType) {
+        this.value = value;
+        this.base = base;
+        this.toType = toType;
+    }
+
+    public IntegerType getType() {
+        return toType;
+    }
+
+    public Literal getValue() {
+        return value;
+    }
+
+    public Literal getBase() {
+        return base;
+    }
+
+    public boolean isZero() {
+        return false;
+    }
+
+    public boolean equals(final Literal other) {
+        return other instanceof CompressedReferenceLiteral && equals((CompressedReferenceLiteral) other);
+    }
+
+    public boolean equals(final CompressedReferenceLiteral other) {
+        return other == this || other != null && toType.equals(other.toType) && value.equals(other.value) && base.equals(other.base);
+    }
+
+    public <T, R> R accept(final ValueVisitor<T, R> visitor, final T param) {
+        return visitor.visit(param, this);
+    }
+
+    public int hashCode() { return (value.hashCode() * 19 + base.hashCode()) * 19 + toType.hashCode(); }
+
+    @Override
+    public StringBuilder toString(StringBuilder b) {
+        b.append("compressed").append("(");
+        value.toString(b);
+        b.append(" from ");
+        base.toString(b);
+        b.append(" to ");
+        toType.toString(b);
+        b.append(')');
+        return b;
+    }
+}
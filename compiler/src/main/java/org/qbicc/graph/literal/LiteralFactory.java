@@ -76,6 +76,8 @@ public interface LiteralFactory {
 
     Literal elementOfLiteral(Literal value, Literal index);
 
+    Literal compressedReferenceLiteral(Literal value, Literal base, IntegerType toType);
+
     static LiteralFactory create(TypeSystem typeSystem) {
         return new LiteralFactory() {
             private final BooleanLiteral TRUE = new BooleanLiteral(typeSystem.getBooleanType(), true);
@@ -250,6 +252,14 @@ public interface LiteralFactory {
                     throw new IllegalArgumentException("Invalid input type: " + inputType);
                 }
             }
+
+            @Override
+            public Literal compressedReferenceLiteral(Literal value, Literal base, IntegerType toType) {
+                Assert.checkNotNullParam("value", value);
+                Assert.checkNotNullParam("base", base);
+                Assert.checkNotNullParam("toType", toType);
+                return new CompressedReferenceLiteral(value, base, toType);
+            }
         };
     }
 }
@@ -41,6 +41,33 @@ public interface Schedule {
      */
     List<Node> getNodesForBlock(BasicBlock block);
 
+    /**
+     * Get the immediate dominator of the given basic block.
+     *
+     * @param block the basic block to look up (must not be {@code null})
+     * @return the immediate dominator of the block, or {@code null} if the block is the entry block or is not reachable
+     */
+    BasicBlock getImmediateDominator(BasicBlock block);
+
+    /**
+     * Determine whether one basic block dominates another.  Every block dominates itself.
+     *
+     * @param dominator the possibly dominating block (must not be {@code null})
+     * @param block the possibly dominated block (must not be {@code null})
+     * @return {@code true} if every path from the entry block to {@code block} passes through {@code dominator}
+     */
+    default boolean dominates(BasicBlock dominator, BasicBlock block) {
+        Assert.checkNotNullParam("dominator", dominator);
+        BasicBlock current = Assert.checkNotNullParam("block", block);
+        while (current != null) {
+            if (current == dominator) {
+                return true;
+            }
+            current = getImmediateDominator(current);
+        }
+        return false;
+    }
+
     /**
      * Create a schedule for the method whose entry block is the given block.
      *
@@ -78,7 +105,16 @@ public interface Schedule {
             finalMapping.put(entry.getKey(), entry.getValue().block);
             blockToNodesMap.computeIfAbsent(entry.getValue().block, k -> new ArrayList<>()).add(entry.getKey());
         }
+        Map<BasicBlock, BasicBlock> immediateDominators = new HashMap<>(allBlocks.length);
+        for (BlockInfo block : allBlocks) {
+            if (block.dominator != 0) {
+                immediateDominators.put(block.block, allBlocks[block.dominator - 1].block);
+            }
+        }
         return new Schedule() {
+            public BasicBlock getImmediateDominator(final BasicBlock block) {
+                return immediateDominators.get(Assert.checkNotNullParam("block", block));
+            }
             public BasicBlock getBlockForNode(final Node node) {
                 Assert.assertFalse(node instanceof Unschedulable);
                 return finalMapping.get(Assert.checkNotNullParam("node", node));
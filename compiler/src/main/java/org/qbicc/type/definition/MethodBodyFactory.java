@@ -7,4 +7,24 @@ import org.qbicc.type.definition.element.ExecutableElement;
  */
 public interface MethodBodyFactory {
     MethodBody createMethodBody(int index, ExecutableElement element);
+
+    /**
+     * Get the minimum source line number of the body with the given index, without creating the body.
+     *
+     * @param index the body index
+     * @return the minimum line number, or 1 if it is not known
+     */
+    default int getMinimumLineNumber(int index) {
+        return 1;
+    }
+
+    /**
+     * Get the maximum source line number of the body with the given index, without creating the body.
+     *
+     * @param index the body index
+     * @return the maximum line number, or 1 if it is not known
+     */
+    default int getMaximumLineNumber(int index) {
+        return 1;
+    }
 }
@@ -167,6 +167,7 @@ final class ClassFileImpl extends AbstractBufferBacked implements ClassFile, Enc
         }
         int fieldsCnt = scanBuf.getShort() & 0xffff;
         int[] fieldOffsets = new int[fieldsCnt];
+        // the attribute offsets of each field and method are only computed when the attributes are first examined
         int[][] fieldAttributeOffsets = new int[fieldsCnt][];
         for (int i = 0; i < fieldsCnt; i ++) {
             fieldOffsets[i] = scanBuf.position();
@@ -175,9 +176,7 @@ final class ClassFileImpl extends AbstractBufferBacked implements ClassFile, Enc
             scanBuf.getShort(); // descriptor index
             // skip attributes
             int attrCnt = scanBuf.getShort() & 0xffff;
-            fieldAttributeOffsets[i] = new int[attrCnt];
             for (int j = 0; j < attrCnt; j ++) {
-                fieldAttributeOffsets[i][j] = scanBuf.position();
                 scanBuf.getShort(); // name index
                 int size = scanBuf.getInt();
                 scanBuf.position(scanBuf.position() + size);
@@ -191,11 +190,9 @@ final class ClassFileImpl extends AbstractBufferBacked implements ClassFile, Enc
             int methodAccess = scanBuf.getShort() & 0xffff;
             scanBuf.getShort(); // name index
             scanBuf.getShort(); // descriptor index
-            // skip attributes - except for code (for now)
+            // skip attributes
             int attrCnt = scanBuf.getShort() & 0xffff;
-            methodAttributeOffsets[i] = new int[attrCnt];
             for (int j = 0; j < attrCnt; j ++) {
-                methodAttributeOffsets[i][j] = scanBuf.position();
                 scanBuf.getShort(); // name index
                 int size = scanBuf.getInt();
                 scanBuf.position(scanBuf.position() + size);
@@ -506,15 +503,15 @@ final class ClassFileImpl extends AbstractBufferBacked implements ClassFile, Enc
     }
 
     public int getFieldAttributeCount(final int idx) throws IndexOutOfBoundsException {
-        return fieldAttributeOffsets[idx].length;
+        return getShort(fieldOffsets[idx] + 6);
     }
 
     public boolean fieldAttributeNameEquals(final int fieldIdx, final int attrIdx, final String expected) throws IndexOutOfBoundsException {
-        return utf8ConstantEquals(getShort(fieldAttributeOffsets[fieldIdx][attrIdx]), expected);
+        return utf8ConstantEquals(getShort(getFieldAttributeOffset(fieldIdx, attrIdx)), expected);
     }
 
     public int getFieldRawAttributeByte(final int fieldIdx, final int attrIdx, final int offset) throws IndexOutOfBoundsException {
-        int base = fieldAttributeOffsets[fieldIdx][attrIdx];
+        int base = getFieldAttributeOffset(fieldIdx, attrIdx);
         if (offset >= getInt(base + 2)) {
             throw new IndexOutOfBoundsException(offset);
         }
@@ -522,7 +519,7 @@ final class ClassFileImpl extends AbstractBufferBacked implements ClassFile, Enc
     }
 
     public int getFieldRawAttributeShort(final int fieldIdx, final int attrIdx, final int offset) throws IndexOutOfBoundsException {
-        int base = fieldAttributeOffsets[fieldIdx][attrIdx];
+        int base = getFieldAttributeOffset(fieldIdx, attrIdx);
         if (offset >= getInt(base + 2) - 1) {
             throw new IndexOutOfBoundsException(offset);
         }
@@ -530,7 +527,7 @@ final class ClassFileImpl extends AbstractBufferBacked implements ClassFile, Enc
     }
 
     public int getFieldRawAttributeInt(final int fieldIdx, final int attrIdx, final int offset) throws IndexOutOfBoundsException {
-        int base = fieldAttributeOffsets[fieldIdx][attrIdx];
+        int base = getFieldAttributeOffset(fieldIdx, attrIdx);
         if (offset >= getInt(base + 2) - 3) {
             throw new IndexOutOfBoundsException(offset);
         }
@@ -538,7 +535,7 @@ final class ClassFileImpl extends AbstractBufferBacked implements ClassFile, Enc
     }
 
     public long getFieldRawAttributeLong(final int fieldIdx, final int attrIdx, final int offset) throws IndexOutOfBoundsException {
-        int base = fieldAttributeOffsets[fieldIdx][attrIdx];
+        int base = getFieldAttributeOffset(fieldIdx, attrIdx);
         if (offset >= getInt(base + 2) - 7) {
             throw new IndexOutOfBoundsException(offset);
         }
@@ -546,12 +543,37 @@ final class ClassFileImpl extends AbstractBufferBacked implements ClassFile, Enc
     }
 
     public ByteBuffer getFieldRawAttributeContent(final int fieldIdx, final int attrIdx) throws IndexOutOfBoundsException {
-        int base = fieldAttributeOffsets[fieldIdx][attrIdx];
+        int base = getFieldAttributeOffset(fieldIdx, attrIdx);
         return slice(base + 6, getInt(base + 2));
     }
 
     public int getFieldAttributeContentLength(final int fieldIdx, final int attrIdx) throws IndexOutOfBoundsException {
-        return getInt(fieldAttributeOffsets[fieldIdx][attrIdx] + 2);
+        return getInt(getFieldAttributeOffset(fieldIdx, attrIdx) + 2);
+    }
+
+    private int getFieldAttributeOffset(final int fieldIdx, final int attrIdx) throws IndexOutOfBoundsException {
+        return getMemberAttributeOffsets(fieldAttributeOffsets, fieldOffsets, fieldIdx)[attrIdx];
+    }
+
+    private int getMethodAttributeOffset(final int methodIdx, final int attrIdx) throws IndexOutOfBoundsException {
+        return getMemberAttributeOffsets(methodAttributeOffsets, methodOffsets, methodIdx)[attrIdx];
+    }
+
+    private int[] getMemberAttributeOffsets(final int[][] attributeOffsets, final int[] memberOffsets, final int idx) {
+        int[] offsets = getVolatile(attributeOffsets, idx);
+        if (offsets != null) {
+            return offsets;
+        }
+        // field_info and method_info have the same layout
+        int pos = memberOffsets[idx] + 6;
+        int attrCnt = getShort(pos);
+        offsets = attrCnt == 0 ? NO_INTS : new int[attrCnt];
+        pos += 2;
+        for (int i = 0; i < attrCnt; i ++) {
+            offsets[i] = pos;
+            pos += 6 + getInt(pos + 2);
+        }
+        return setIfNull(attributeOffsets, idx, offsets);
     }
 
     public int getMethodCount() {
@@ -571,15 +593,15 @@ final class ClassFileImpl extends AbstractBufferBacked implements ClassFile, Enc
     }
 
     public int getMethodAttributeCount(final int idx) throws IndexOutOfBoundsException {
-        return methodAttributeOffsets[idx].length;
+        return getShort(methodOffsets[idx] + 6);
     }
 
     public boolean methodAttributeNameEquals(final int methodIdx, final int attrIdx, final String expected) throws IndexOutOfBoundsException {
-        return utf8ConstantEquals(getShort(methodAttributeOffsets[methodIdx][attrIdx]), expected);
+        return utf8ConstantEquals(getShort(getMethodAttributeOffset(methodIdx, attrIdx)), expected);
     }
 
     public int getMethodRawAttributeByte(final int methodIdx, final int attrIdx, final int offset) throws IndexOutOfBoundsException {
-        int base = methodAttributeOffsets[methodIdx][attrIdx];
+        int base = getMethodAttributeOffset(methodIdx, attrIdx);
         if (offset >= getInt(base + 2)) {
             throw new IndexOutOfBoundsException(offset);
         }
@@ -587,7 +609,7 @@ final class ClassFileImpl extends AbstractBufferBacked implements ClassFile, Enc
     }
 
     public int getMethodRawAttributeShort(final int methodIdx, final int attrIdx, final int offset) throws IndexOutOfBoundsException {
-        int base = methodAttributeOffsets[methodIdx][attrIdx];
+        int base = getMethodAttributeOffset(methodIdx, attrIdx);
         if (offset >= getInt(base + 2) - 1) {
             throw new IndexOutOfBoundsException(offset);
         }
@@ -595,7 +617,7 @@ final class ClassFileImpl extends AbstractBufferBacked implements ClassFile, Enc
     }
 
     public int getMethodRawAttributeInt(final int methodIdx, final int attrIdx, final int offset) throws IndexOutOfBoundsException {
-        int base = methodAttributeOffsets[methodIdx][attrIdx];
+        int base = getMethodAttributeOffset(methodIdx, attrIdx);
         if (offset >= getInt(base + 2) - 3) {
             throw new IndexOutOfBoundsException(offset);
         }
@@ -603,7 +625,7 @@ final class ClassFileImpl extends AbstractBufferBacked implements ClassFile, Enc
     }
 
     public long getMethodRawAttributeLong(final int methodIdx, final int attrIdx, final int offset) throws IndexOutOfBoundsException {
-        int base = methodAttributeOffsets[methodIdx][attrIdx];
+        int base = getMethodAttributeOffset(methodIdx, attrIdx);
         if (offset >= getInt(base + 2) - 7) {
             throw new IndexOutOfBoundsException(offset);
         }
@@ -611,12 +633,12 @@ final class ClassFileImpl extends AbstractBufferBacked implements ClassFile, Enc
     }
 
     public ByteBuffer getMethodRawAttributeContent(final int methodIdx, final int attrIdx) throws IndexOutOfBoundsException {
-        int base = methodAttributeOffsets[methodIdx][attrIdx];
+        int base = getMethodAttributeOffset(methodIdx, attrIdx);
         return slice(base + 6, getInt(base + 2));
     }
 
     public int getMethodAttributeContentLength(final int methodIdx, final int attrIdx) throws IndexOutOfBoundsException {
-        return getInt(methodAttributeOffsets[methodIdx][attrIdx] + 2);
+        return getInt(getMethodAttributeOffset(methodIdx, attrIdx) + 2);
     }
 
     public int getAttributeCount() {
@@ -827,8 +849,8 @@ final class ClassFileImpl extends AbstractBufferBacked implements ClassFile, Enc
         int cnt = getFieldAttributeCount(index);
         for (int i = 0; i < cnt; i ++) {
             if (fieldAttributeNameEquals(index, i, "RuntimeVisibleAnnotations")) {
-                ByteBuffer data = getFieldRawAttributeContent(index, i);
-                builder.setVisibleAnnotations(Annotation.parseList(this, ctxt, data));
+                // only needed for reflection
+                builder.setVisibleAnnotations(new LazyAnnotationList(this, ctxt, getFieldRawAttributeContent(index, i)));
             } else if (fieldAttributeNameEquals(index, i, "RuntimeInvisibleAnnotations")) {
                 ByteBuffer data = getFieldRawAttributeContent(index, i);
                 builder.setInvisibleAnnotations(Annotation.parseList(this, ctxt, data));
@@ -917,12 +939,8 @@ final class ClassFileImpl extends AbstractBufferBacked implements ClassFile, Enc
             int attrCount = getMethodAttributeCount(index);
             for (int i = 0; i < attrCount; i ++) {
                 if (methodAttributeNameEquals(index, i, "Code")) {
+                    // the line number range is computed from the code attribute on demand
                     builder.setMethodBodyFactory(this, index);
-
-                    LineNumberTable lnt = LineNumberTable.createForCodeAttribute(this, getMethodRawAttributeContent(index, i));
-                    builder.setMinimumLineNumber(lnt.getMinimumLineNumber());
-                    builder.setMaximumLineNumber(lnt.getMaximumLineNumber());
-
                     break;
                 }
             }
@@ -942,12 +960,8 @@ final class ClassFileImpl extends AbstractBufferBacked implements ClassFile, Enc
         int attrCount = getMethodAttributeCount(index);
         for (int i = 0; i < attrCount; i ++) {
             if (methodAttributeNameEquals(index, i, "Code")) {
+                // the line number range is computed from the code attribute on demand
                 builder.setMethodBodyFactory(this, index);
-
-                LineNumberTable lnt = LineNumberTable.createForCodeAttribute(this, getMethodRawAttributeContent(index, i));
-                builder.setMinimumLineNumber(lnt.getMinimumLineNumber());
-                builder.setMaximumLineNumber(lnt.getMaximumLineNumber());
-
                 break;
             }
         }
@@ -965,12 +979,8 @@ final class ClassFileImpl extends AbstractBufferBacked implements ClassFile, Enc
             int attrCount = getMethodAttributeCount(index);
             for (int i = 0; i < attrCount; i ++) {
                 if (methodAttributeNameEquals(index, i, "Code")) {
+                    // the line number range is computed from the code attribute on demand
                     builder.setMethodBodyFactory(this, index);
-
-                    LineNumberTable lnt = LineNumberTable.createForCodeAttribute(this, getMethodRawAttributeContent(index, i));
-                    builder.setMinimumLineNumber(lnt.getMinimumLineNumber());
-                    builder.setMaximumLineNumber(lnt.getMaximumLineNumber());
-
                     break;
                 }
             }
@@ -1089,8 +1099,8 @@ final class ClassFileImpl extends AbstractBufferBacked implements ClassFile, Enc
         int cnt = getMethodAttributeCount(index);
         for (int i = 0; i < cnt; i ++) {
             if (methodAttributeNameEquals(index, i, "RuntimeVisibleAnnotations")) {
-                ByteBuffer data = getMethodRawAttributeContent(index, i);
-                builder.setVisibleAnnotations(Annotation.parseList(this, ctxt, data));
+                // only needed for reflection
+                builder.setVisibleAnnotations(new LazyAnnotationList(this, ctxt, getMethodRawAttributeContent(index, i)));
             } else if (methodAttributeNameEquals(index, i, "RuntimeInvisibleAnnotations")) {
                 ByteBuffer data = getMethodRawAttributeContent(index, i);
                 builder.setInvisibleAnnotations(Annotation.parseList(this, ctxt, data));
@@ -1194,6 +1204,29 @@ final class ClassFileImpl extends AbstractBufferBacked implements ClassFile, Enc
         return newVal;
     }
 
+    public int getMinimumLineNumber(final int index) {
+        LineNumberTable lnt = getLineNumberTable(index);
+        return lnt == null ? 1 : lnt.getMinimumLineNumber();
+    }
+
+    public int getMaximumLineNumber(final int index) {
+        LineNumberTable lnt = getLineNumberTable(index);
+        return lnt == null ? 1 : lnt.getMaximumLineNumber();
+    }
+
+    private LineNumberTable getLineNumberTable(final int index) {
+        if (index == -1) {
+            return null;
+        }
+        int attrCount = getMethodAttributeCount(index);
+        for (int i = 0; i < attrCount; i ++) {
+            if (methodAttributeNameEquals(index, i, "Code")) {
+                return LineNumberTable.createForCodeAttribute(this, getMethodRawAttributeContent(index, i));
+            }
+        }
+        return null;
+    }
+
     public MethodBody createMethodBody(final int index, final ExecutableElement element) {
         ByteBuffer codeAttr = null;
         int attrCount = getMethodAttributeCount(index);
@@ -0,0 +1,48 @@
+package org.qbicc.type.definition.classfile;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+import org.qbicc.context.ClassContext;
+import org.qbicc.type.annotation.Annotation;
+
+/**
+ * A list of annotations which is parsed from the content of its attribute on first access.  This is used for
+ * annotations which are usually only examined for the few elements which are reachable at run time.
+ */
+final class LazyAnnotationList extends AbstractList<Annotation> implements RandomAccess {
+    private final ClassFile classFile;
+    private final ClassContext ctxt;
+    private final ByteBuffer data;
+    private volatile List<Annotation> list;
+
+    LazyAnnotationList(final ClassFile classFile, final ClassContext ctxt, final ByteBuffer data) {
+        this.classFile = classFile;
+        this.ctxt = ctxt;
+        this.data = data;
+    }
+
+    private List<Annotation> getList() {
+        List<Annotation> list = this.list;
+        if (list == null) {
+            synchronized (this) {
+                list = this.list;
+                if (list == null) {
+                    this.list = list = Annotation.parseList(classFile, ctxt, data.duplicate());
+                }
+            }
+        }
+        return list;
+    }
+
+    public Annotation get(final int index) {
+        return getList().get(index);
+    }
+
+    public int size() {
+        // the annotation count is the first item of the attribute
+        return data.getShort(data.position()) & 0xffff;
+    }
+}
@@ -17,8 +17,9 @@ public final class InitializerElement extends BasicElement implements Executable
     final int methodBodyFactoryIndex;
     volatile MethodBody previousMethodBody;
     volatile MethodBody methodBody;
-    final int minimumLineNumber;
-    final int maximumLineNumber;
+    // zero if not yet known
+    int minimumLineNumber;
+    int maximumLineNumber;
     boolean inProgress;
     volatile int lowerIndex;
 
@@ -99,10 +100,20 @@ public final class InitializerElement extends BasicElement implements Executable
     }
 
     public int getMinimumLineNumber() {
+        int minimumLineNumber = this.minimumLineNumber;
+        if (minimumLineNumber == 0) {
+            MethodBodyFactory factory = methodBodyFactory;
+            this.minimumLineNumber = minimumLineNumber = factory == null ? 1 : factory.getMinimumLineNumber(methodBodyFactoryIndex);
+        }
         return minimumLineNumber;
     }
 
     public int getMaximumLineNumber() {
+        int maximumLineNumber = this.maximumLineNumber;
+        if (maximumLineNumber == 0) {
+            MethodBodyFactory factory = methodBodyFactory;
+            this.maximumLineNumber = maximumLineNumber = factory == null ? 1 : factory.getMaximumLineNumber(methodBodyFactoryIndex);
+        }
         return maximumLineNumber;
     }
 
@@ -175,8 +186,9 @@ public final class InitializerElement extends BasicElement implements Executable
     static final class BuilderImpl extends BasicElement.BuilderImpl implements Builder {
         MethodBodyFactory methodBodyFactory;
         int methodBodyFactoryIndex;
-        int minimumLineNumber = 1;
-        int maximumLineNumber = 1;
+        // computed by the method body factory if not given
+        int minimumLineNumber;
+        int maximumLineNumber;
 
         BuilderImpl() {}
 
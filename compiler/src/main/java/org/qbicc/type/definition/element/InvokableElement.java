@@ -32,8 +32,9 @@ public abstract class InvokableElement extends AnnotatedElement implements Execu
     final int methodBodyFactoryIndex;
     volatile MethodBody previousMethodBody;
     volatile MethodBody methodBody;
-    final int minimumLineNumber;
-    final int maximumLineNumber;
+    // zero if not yet known
+    int minimumLineNumber;
+    int maximumLineNumber;
     boolean inProgress;
 
     InvokableElement() {
@@ -160,10 +161,20 @@ public abstract class InvokableElement extends AnnotatedElement implements Execu
     }
 
     public int getMinimumLineNumber() {
+        int minimumLineNumber = this.minimumLineNumber;
+        if (minimumLineNumber == 0) {
+            MethodBodyFactory factory = methodBodyFactory;
+            this.minimumLineNumber = minimumLineNumber = factory == null ? 1 : factory.getMinimumLineNumber(methodBodyFactoryIndex);
+        }
         return minimumLineNumber;
     }
 
     public int getMaximumLineNumber() {
+        int maximumLineNumber = this.maximumLineNumber;
+        if (maximumLineNumber == 0) {
+            MethodBodyFactory factory = methodBodyFactory;
+            this.maximumLineNumber = maximumLineNumber = factory == null ? 1 : factory.getMaximumLineNumber(methodBodyFactoryIndex);
+        }
         return maximumLineNumber;
     }
 
@@ -284,8 +295,9 @@ public abstract class InvokableElement extends AnnotatedElement implements Execu
         TypeAnnotationList returnInvisibleTypeAnnotations = TypeAnnotationList.empty();
         MethodBodyFactory methodBodyFactory;
         int methodBodyFactoryIndex;
-        int minimumLineNumber = 1;
-        int maximumLineNumber = 1;
+        // computed by the method body factory if not given
+        int minimumLineNumber;
+        int maximumLineNumber;
         FunctionType type;
 
         BuilderImpl(MethodDescriptor descriptor) {
@@ -9,9 +9,11 @@ import java.io.InputStreamReader;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.util.Set;
 import java.util.jar.JarFile;
 
 import io.smallrye.common.constraint.Assert;
+import io.smallrye.common.os.OS;
 import org.qbicc.type.definition.ByteBufferInputStream;
 
 /**
@@ -38,6 +40,24 @@ public abstract class ClassPathElement implements Closeable {
      */
     public abstract Resource getResource(String name) throws IOException;
 
+    /**
+     * Get the package paths of this element.  A package path is the name of a directory which directly contains at
+     * least one resource, relative to the root of the element and without a trailing slash; resources at the root of
+     * the element have the empty package path.  Every resource which can be found using {@link #getResource} is in
+     * one of the returned package paths.
+     * <p>
+     * The result may be expensive to compute, so callers should compute it at most once.
+     *
+     * @return the set of package paths (not {@code null})
+     * @throws IOException if the contents of the element could not be listed
+     */
+    public abstract Set<String> getPackagePaths() throws IOException;
+
+    static String packagePathOf(String name) {
+        int idx = name.lastIndexOf('/');
+        return idx == -1 ? "" : name.substring(0, idx);
+    }
+
     /**
      * Get a class path element for the given directory path.
      *
@@ -58,6 +78,13 @@ public abstract class ClassPathElement implements Closeable {
      */
     public static ClassPathElement forJarFile(Path path) throws IOException {
         Assert.checkNotNullParam("path", path);
+        if (OS.current() != OS.WINDOWS) {
+            // mapping the file would keep it locked on Windows
+            MappedJarClassPathElement element = MappedJarClassPathElement.open(path);
+            if (element != null) {
+                return element;
+            }
+        }
         return new JarFileClassPathElement(new JarFile(path.toFile()));
     }
 
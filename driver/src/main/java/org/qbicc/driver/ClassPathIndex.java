@@ -0,0 +1,98 @@
+package org.qbicc.driver;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.smallrye.common.constraint.Assert;
+import org.jboss.logging.Logger;
+
+/**
+ * An index of the class roots of a class path by package path.  A resource lookup only consults the class roots which
+ * contain the package of the resource, in class path order, so that a miss in every other root costs nothing.
+ * <p>
+ * Class roots whose contents cannot be listed are consulted for every lookup.
+ */
+final class ClassPathIndex {
+    private static final Logger log = Logger.getLogger("org.qbicc.driver");
+
+    private final Map<String, List<Root>> roots;
+    private final List<Root> unindexed;
+
+    /**
+     * Construct a new instance.
+     *
+     * @param items the class path items, in order (must not be {@code null})
+     */
+    ClassPathIndex(List<ClassPathItem> items) {
+        Assert.checkNotNullParam("items", items);
+        Map<String, List<Root>> roots = new HashMap<>();
+        List<Root> unindexed = new ArrayList<>();
+        for (ClassPathItem item : items) {
+            for (ClassPathElement element : item.classRoots()) {
+                Root root = new Root(item, element);
+                try {
+                    for (String packagePath : element.getPackagePaths()) {
+                        // a new package is also present (as far as we know) in every unindexed root seen so far
+                        roots.computeIfAbsent(packagePath, p -> new ArrayList<>(unindexed)).add(root);
+                    }
+                } catch (IOException e) {
+                    log.debugf(e, "Failed to index class path element \"%s\"", element.getName());
+                    unindexed.add(root);
+                    for (List<Root> list : roots.values()) {
+                        list.add(root);
+                    }
+                }
+            }
+        }
+        for (Map.Entry<String, List<Root>> entry : roots.entrySet()) {
+            entry.setValue(List.copyOf(entry.getValue()));
+        }
+        this.roots = roots;
+        this.unindexed = List.copyOf(unindexed);
+    }
+
+    /**
+     * Find the first resource with the given name.
+     *
+     * @param name the resource name (must not be {@code null})
+     * @return the resource or {@link ClassPathElement#NON_EXISTENT} if no resource is found (not {@code null})
+     * @throws IOException if an error occurs while loading the resource
+     */
+    ClassPathElement.Resource findResource(String name) throws IOException {
+        for (Root root : rootsFor(name)) {
+            ClassPathElement.Resource resource = root.element().getResource(name);
+            if (resource != ClassPathElement.NON_EXISTENT) {
+                return resource;
+            }
+        }
+        return ClassPathElement.NON_EXISTENT;
+    }
+
+    /**
+     * Get the class path items which might contain a resource with the given name, in order.  Each item is
+     * returned at most once.
+     *
+     * @param name the resource name (must not be {@code null})
+     * @return the list of candidate items (not {@code null})
+     */
+    List<ClassPathItem> findItems(String name) {
+        List<Root> list = rootsFor(name);
+        List<ClassPathItem> items = new ArrayList<>(list.size());
+        for (Root root : list) {
+            if (items.isEmpty() || items.get(items.size() - 1) != root.item()) {
+                items.add(root.item());
+            }
+        }
+        return items;
+    }
+
+    private List<Root> rootsFor(String name) {
+        Assert.checkNotNullParam("name", name);
+        return roots.getOrDefault(ClassPathElement.packagePathOf(name), unindexed);
+    }
+
+    record Root(ClassPathItem item, ClassPathElement element) {}
+}
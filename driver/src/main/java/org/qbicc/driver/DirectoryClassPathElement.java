@@ -1,13 +1,18 @@
 package org.qbicc.driver;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitOption;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Set;
+import java.util.stream.Stream;
 
 import io.smallrye.common.os.OS;
 
@@ -27,6 +32,31 @@ final class DirectoryClassPathElement extends ClassPathElement {
         return ! Files.exists(resourcePath) ? NON_EXISTENT : new Resource(FileChannel.open(resourcePath, Set.of(StandardOpenOption.READ)));
     }
 
+    public Set<String> getPackagePaths() throws IOException {
+        Set<String> paths = new HashSet<>();
+        try (Stream<Path> stream = Files.walk(baseDir, FileVisitOption.FOLLOW_LINKS)) {
+            Iterator<Path> iterator = stream.iterator();
+            while (iterator.hasNext()) {
+                Path path = iterator.next();
+                if (Files.isRegularFile(path)) {
+                    StringBuilder b = new StringBuilder();
+                    for (Path segment : baseDir.relativize(path.getParent())) {
+                        if (! segment.toString().isEmpty()) {
+                            if (b.length() > 0) {
+                                b.append('/');
+                            }
+                            b.append(segment);
+                        }
+                    }
+                    paths.add(b.toString());
+                }
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return paths;
+    }
+
     public void close() {
         // no operation
     }
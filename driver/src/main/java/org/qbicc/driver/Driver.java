@@ -33,6 +33,7 @@ import org.qbicc.graph.literal.LiteralFactory;
 import org.qbicc.interpreter.Vm;
 import org.qbicc.machine.arch.Platform;
 import org.qbicc.machine.object.ObjectFileProvider;
+import org.qbicc.machine.probe.ProbeCache;
 import org.qbicc.machine.tool.CToolChain;
 import org.qbicc.tool.llvm.LlvmToolChain;
 import org.qbicc.type.TypeSystem;
@@ -55,6 +56,7 @@ public class Driver implements Closeable {
     public static final AttachmentKey<CToolChain> C_TOOL_CHAIN_KEY = new AttachmentKey<>();
     public static final AttachmentKey<LlvmToolChain> LLVM_TOOL_KEY = new AttachmentKey<>();
     public static final AttachmentKey<ObjectFileProvider> OBJ_PROVIDER_TOOL_KEY = new AttachmentKey<>();
+    public static final AttachmentKey<ProbeCache> PROBE_CACHE_KEY = new AttachmentKey<>();
 
     final BaseDiagnosticContext initialContext;
     final CompilationContextImpl compilationContext;
@@ -85,6 +87,7 @@ public class Driver implements Closeable {
     final List<Consumer<? super CompilationContext>> postGenerateHooks;
     final Map<String, BootModule> bootModules;
     final List<ClassPathItem> bootClassPath;
+    final ClassPathIndex bootClassPathIndex;
     final Path outputDir;
     final float threadsPerCpu;
     final long stackSize;
@@ -97,6 +100,9 @@ public class Driver implements Closeable {
         initialContext.putAttachment(C_TOOL_CHAIN_KEY, Assert.checkNotNullParam("builder.toolChain", builder.toolChain));
         initialContext.putAttachment(LLVM_TOOL_KEY, Assert.checkNotNullParam("builder.llvmToolChain", builder.llvmToolChain));
         initialContext.putAttachment(OBJ_PROVIDER_TOOL_KEY, Assert.checkNotNullParam("builder.objectFileProvider", builder.objectFileProvider));
+        if (builder.probeCache != null) {
+            initialContext.putAttachment(PROBE_CACHE_KEY, builder.probeCache);
+        }
         // type system
         final TypeSystem typeSystem = builder.typeSystem;
         final LiteralFactory literalFactory = LiteralFactory.create(typeSystem);
@@ -105,6 +111,7 @@ public class Driver implements Closeable {
         Map<String, BootModule> bootModules = new HashMap<>();
 
         this.bootClassPath = List.copyOf(builder.bootClassPath);
+        this.bootClassPathIndex = new ClassPathIndex(bootClassPath);
         for (ClassPathItem item : bootClassPath) {
             // open all bootstrap JARs (MR bootstrap JARs not supported)
             try (ClassPathElement.Resource moduleInfo = item.findResource(MODULE_INFO)) {
@@ -233,51 +240,45 @@ public class Driver implements Closeable {
     private DefinedTypeDefinition defaultFinder(ClassContext classContext, String name) {
         String fileName = name + ".class";
         ByteBuffer buffer;
-        for (ClassPathItem item : bootClassPath) {
-            try (ClassPathElement.Resource resource = item.findResource(fileName)) {
-                if (resource == ClassPathElement.NON_EXISTENT) {
-                    continue;
-                }
-                buffer = resource.getBuffer();
-                ClassFile classFile = ClassFile.of(classContext, buffer);
-                DefinedTypeDefinition.Builder builder = classContext.newTypeBuilder();
-                classFile.accept(builder);
-                DefinedTypeDefinition def = builder.build();
-                classContext.defineClass(name, def);
-                return def;
-            } catch (Exception e) {
-                log.warnf(e, "An exception was thrown while loading class \"%s\" from the bootstrap loader", name);
-                classContext.getCompilationContext().warning("Failed to load class \"%s\" from the bootstrap loader due to an exception: %s", name, e);
+        try (ClassPathElement.Resource resource = bootClassPathIndex.findResource(fileName)) {
+            if (resource == ClassPathElement.NON_EXISTENT) {
                 return null;
             }
+            buffer = resource.getBuffer();
+            ClassFile classFile = ClassFile.of(classContext, buffer);
+            DefinedTypeDefinition.Builder builder = classContext.newTypeBuilder();
+            classFile.accept(builder);
+            DefinedTypeDefinition def = builder.build();
+            classContext.defineClass(name, def);
+            return def;
+        } catch (Exception e) {
+            log.warnf(e, "An exception was thrown while loading class \"%s\" from the bootstrap loader", name);
+            classContext.getCompilationContext().warning("Failed to load class \"%s\" from the bootstrap loader due to an exception: %s", name, e);
+            return null;
         }
-        return null;
     }
 
     private byte[] defaultResourceFinder(ClassContext classContext, String name) {
         ByteBuffer buffer;
-        for (ClassPathItem item : bootClassPath) {
-            try (ClassPathElement.Resource resource = item.findResource(name)) {
-                if (resource == ClassPathElement.NON_EXISTENT) {
-                    continue;
-                }
-                buffer = resource.getBuffer();
-                byte[] bytes = new byte[buffer.remaining()];
-                buffer.get(bytes);
-                return bytes;
-            } catch (Exception e) {
-                log.warnf(e, "An exception was thrown while loading resource \"%s\" from the bootstrap loader", name);
-                classContext.getCompilationContext().warning("Failed to load resource \"%s\" from the bootstrap loader due to an exception: %s", name, e);
+        try (ClassPathElement.Resource resource = bootClassPathIndex.findResource(name)) {
+            if (resource == ClassPathElement.NON_EXISTENT) {
                 return null;
             }
+            buffer = resource.getBuffer();
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            return bytes;
+        } catch (Exception e) {
+            log.warnf(e, "An exception was thrown while loading resource \"%s\" from the bootstrap loader", name);
+            classContext.getCompilationContext().warning("Failed to load resource \"%s\" from the bootstrap loader due to an exception: %s", name, e);
+            return null;
         }
-        return null;
     }
 
     private List<byte[]> defaultResourcesFinder(final ClassContext classContext, final String name) {
         ByteBuffer buffer;
         ArrayList<byte[]> list = new ArrayList<>();
-        for (ClassPathItem item : bootClassPath) {
+        for (ClassPathItem item : bootClassPathIndex.findItems(name)) {
             try (ClassPathElement.Resource resource = item.findResource(name)) {
                 if (resource == ClassPathElement.NON_EXISTENT) {
                     continue;
@@ -652,6 +653,7 @@ public class Driver implements Closeable {
         CToolChain toolChain;
         LlvmToolChain llvmToolChain;
         ObjectFileProvider objectFileProvider;
+        ProbeCache probeCache;
 
         float threadsPerCpu = 2.0f;
         // 16 MB is the default stack size
@@ -823,6 +825,21 @@ public class Driver implements Closeable {
             return this;
         }
 
+        public ProbeCache getProbeCache() {
+            return probeCache;
+        }
+
+        /**
+         * Set the persistent cache to use for C probe results.
+         *
+         * @param probeCache the probe cache, or {@code null} to always run probes
+         * @return this builder
+         */
+        public Builder setProbeCache(final ProbeCache probeCache) {
+            this.probeCache = probeCache;
+            return this;
+        }
+
         public float getThreadsPerCpu() {
             return threadsPerCpu;
         }
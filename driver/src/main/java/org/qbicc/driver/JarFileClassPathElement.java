@@ -3,6 +3,9 @@ package org.qbicc.driver;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 
@@ -22,6 +25,18 @@ final class JarFileClassPathElement extends ClassPathElement {
         return jarEntry == null ? NON_EXISTENT : new Resource(jarEntry);
     }
 
+    public Set<String> getPackagePaths() {
+        Set<String> paths = new HashSet<>();
+        Enumeration<JarEntry> entries = jarFile.entries();
+        while (entries.hasMoreElements()) {
+            JarEntry entry = entries.nextElement();
+            if (! entry.isDirectory()) {
+                paths.add(packagePathOf(entry.getName()));
+            }
+        }
+        return paths;
+    }
+
     public void close() throws IOException {
         jarFile.close();
     }
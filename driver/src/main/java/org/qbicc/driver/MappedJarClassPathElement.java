@@ -0,0 +1,201 @@
+package org.qbicc.driver;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * A JAR file class path element which maps the whole archive into memory.  The central directory is read once when
+ * the element is opened.  Resources which are stored without compression are returned as read-only slices of the
+ * mapping; compressed resources are inflated directly from the mapping into a buffer of the exact size.
+ * <p>
+ * Archives which need ZIP64 extensions, or which are too large to be mapped as a single buffer, are not supported by
+ * this class.
+ */
+final class MappedJarClassPathElement extends ClassPathElement {
+    private static final int END_SIG = 0x06054b50;
+    private static final int END_SIZE = 22;
+    private static final int CEN_SIG = 0x02014b50;
+    private static final int CEN_SIZE = 46;
+    private static final int LOC_SIG = 0x04034b50;
+    private static final int LOC_SIZE = 30;
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+    // the upper bound of the pool size is the number of threads that inflate concurrently
+    private static final ConcurrentLinkedQueue<Inflater> inflaters = new ConcurrentLinkedQueue<>();
+
+    private final String name;
+    private final MappedByteBuffer archive;
+    private final Map<String, Entry> entries;
+
+    private MappedJarClassPathElement(final String name, final MappedByteBuffer archive, final Map<String, Entry> entries) {
+        this.name = name;
+        this.archive = archive;
+        this.entries = entries;
+    }
+
+    /**
+     * Open the given archive.
+     *
+     * @param path the path of the archive (must not be {@code null})
+     * @return the class path element, or {@code null} if the archive cannot be handled by this class
+     * @throws IOException if the archive could not be read or is not valid
+     */
+    static MappedJarClassPathElement open(Path path) throws IOException {
+        final MappedByteBuffer archive;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                return null;
+            }
+            // the mapping remains valid after the channel is closed
+            archive = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        archive.order(ByteOrder.LITTLE_ENDIAN);
+        final int end = findEnd(archive);
+        if (end == -1) {
+            throw new ZipException("No end of central directory found in " + path);
+        }
+        final int count = Short.toUnsignedInt(archive.getShort(end + 10));
+        final long cenSize = Integer.toUnsignedLong(archive.getInt(end + 12));
+        final long cenOffset = Integer.toUnsignedLong(archive.getInt(end + 16));
+        if (count == 0xffff || cenSize == 0xffff_ffffL || cenOffset == 0xffff_ffffL) {
+            // ZIP64
+            return null;
+        }
+        if (cenOffset + cenSize > end) {
+            throw new ZipException("Invalid central directory in " + path);
+        }
+        final Map<String, Entry> entries = new HashMap<>(count);
+        int pos = (int) cenOffset;
+        for (int i = 0; i < count; i ++) {
+            if (pos + CEN_SIZE > end || archive.getInt(pos) != CEN_SIG) {
+                throw new ZipException("Invalid central directory entry in " + path);
+            }
+            final int flags = Short.toUnsignedInt(archive.getShort(pos + 8));
+            final int method = Short.toUnsignedInt(archive.getShort(pos + 10));
+            final long compressedSize = Integer.toUnsignedLong(archive.getInt(pos + 20));
+            final long size = Integer.toUnsignedLong(archive.getInt(pos + 24));
+            final int nameLen = Short.toUnsignedInt(archive.getShort(pos + 28));
+            final int extraLen = Short.toUnsignedInt(archive.getShort(pos + 30));
+            final int commentLen = Short.toUnsignedInt(archive.getShort(pos + 32));
+            final long localOffset = Integer.toUnsignedLong(archive.getInt(pos + 42));
+            if ((flags & 1) != 0 || compressedSize == 0xffff_ffffL || size == 0xffff_ffffL || localOffset == 0xffff_ffffL) {
+                // encrypted or ZIP64
+                return null;
+            }
+            final byte[] nameBytes = new byte[nameLen];
+            archive.get(pos + CEN_SIZE, nameBytes);
+            final String entryName = new String(nameBytes, StandardCharsets.UTF_8);
+            if (! entryName.endsWith("/")) {
+                // the first entry wins, like JarFile
+                entries.putIfAbsent(entryName, new Entry(method, (int) compressedSize, (int) size, (int) localOffset));
+            }
+            pos += CEN_SIZE + nameLen + extraLen + commentLen;
+        }
+        return new MappedJarClassPathElement(path.toString(), archive, entries);
+    }
+
+    private static int findEnd(ByteBuffer archive) {
+        // the end record is followed by a comment of at most 64K
+        final int limit = Math.max(0, archive.limit() - END_SIZE - 0xffff);
+        for (int pos = archive.limit() - END_SIZE; pos >= limit; pos --) {
+            if (archive.getInt(pos) == END_SIG && pos + END_SIZE + Short.toUnsignedInt(archive.getShort(pos + 20)) == archive.limit()) {
+                return pos;
+            }
+        }
+        return -1;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public ClassPathElement.Resource getResource(final String name) {
+        Entry entry = entries.get(name);
+        return entry == null ? NON_EXISTENT : new Resource(entry);
+    }
+
+    public Set<String> getPackagePaths() {
+        Set<String> paths = new HashSet<>();
+        for (String name : entries.keySet()) {
+            paths.add(packagePathOf(name));
+        }
+        return paths;
+    }
+
+    public void close() {
+        // the mapping is released when it is no longer referenced
+    }
+
+    record Entry(int method, int compressedSize, int size, int localOffset) {}
+
+    final class Resource extends ClassPathElement.Resource {
+        private final Entry entry;
+
+        Resource(final Entry entry) {
+            this.entry = entry;
+        }
+
+        public ByteBuffer getBuffer() throws IOException {
+            final int loc = entry.localOffset();
+            if (loc + LOC_SIZE > archive.limit() || archive.getInt(loc) != LOC_SIG) {
+                throw new ZipException("Invalid local header in " + name);
+            }
+            final int start = loc + LOC_SIZE + Short.toUnsignedInt(archive.getShort(loc + 26)) + Short.toUnsignedInt(archive.getShort(loc + 28));
+            if (start + entry.compressedSize() > archive.limit()) {
+                throw new ZipException("Truncated entry in " + name);
+            }
+            final ByteBuffer data = archive.slice(start, entry.compressedSize()).asReadOnlyBuffer();
+            switch (entry.method()) {
+                case STORED: {
+                    return data;
+                }
+                case DEFLATED: {
+                    final byte[] bytes = new byte[entry.size()];
+                    Inflater inflater = inflaters.poll();
+                    if (inflater == null) {
+                        inflater = new Inflater(true);
+                    }
+                    try {
+                        inflater.setInput(data);
+                        int cnt = 0;
+                        while (cnt < bytes.length) {
+                            int res = inflater.inflate(bytes, cnt, bytes.length - cnt);
+                            if (res == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                                throw new ZipException("Truncated compressed entry in " + name);
+                            }
+                            cnt += res;
+                        }
+                    } catch (DataFormatException e) {
+                        throw new ZipException("Invalid compressed entry in " + name + ": " + e.getMessage());
+                    } finally {
+                        inflater.reset();
+                        inflaters.offer(inflater);
+                    }
+                    return ByteBuffer.wrap(bytes);
+                }
+                default: {
+                    throw new ZipException("Unsupported compression method " + entry.method() + " in " + name);
+                }
+            }
+        }
+
+        public void close() {
+            // no operation
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package org.qbicc.driver;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Resolve every class of the test class path with and without the package index.
+ */
+public class TestClassPathIndex {
+    static List<ClassPathItem> items;
+    static List<String> names;
+
+    @BeforeAll
+    public static void openClassPath() throws IOException {
+        items = new ArrayList<>();
+        names = new ArrayList<>();
+        for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            Path path = Path.of(entry);
+            if (Files.isDirectory(path)) {
+                items.add(new ClassPathItem(entry, List.of(ClassPathElement.forDirectory(path)), List.of()));
+            } else if (entry.endsWith(".jar") && Files.isRegularFile(path)) {
+                try (JarFile jarFile = new JarFile(path.toFile())) {
+                    jarFile.stream().map(JarEntry::getName).filter(n -> n.endsWith(".class")).forEach(names::add);
+                }
+                items.add(new ClassPathItem(entry, List.of(ClassPathElement.forJarFile(path)), List.of()));
+            }
+        }
+        // plus some misses
+        for (int i = 0; i < 100; i ++) {
+            names.add("org/qbicc/driver/DoesNotExist" + i + ".class");
+            names.add("does/not/Exist" + i + ".class");
+        }
+    }
+
+    @AfterAll
+    public static void closeClassPath() {
+        for (ClassPathItem item : items) {
+            item.close();
+        }
+    }
+
+    @Test
+    public void testSameResults() throws IOException {
+        ClassPathIndex index = new ClassPathIndex(items);
+        for (String name : names) {
+            try (ClassPathElement.Resource expected = findLinear(name); ClassPathElement.Resource actual = index.findResource(name)) {
+                if (expected == ClassPathElement.NON_EXISTENT) {
+                    assertSame(ClassPathElement.NON_EXISTENT, actual, name);
+                } else {
+                    assertEquals(expected.getBuffer(), actual.getBuffer(), name);
+                }
+            }
+        }
+    }
+
+    private static ClassPathElement.Resource findLinear(String name) throws IOException {
+        for (ClassPathItem item : items) {
+            ClassPathElement.Resource resource = item.findResource(name);
+            if (resource != ClassPathElement.NON_EXISTENT) {
+                return resource;
+            }
+        }
+        return ClassPathElement.NON_EXISTENT;
+    }
+}
@@ -0,0 +1,56 @@
+package org.qbicc.driver;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Read every class of the JARs on the test class path using the mapped and the stream based JAR class path elements.
+ */
+public class TestJarReading {
+    static List<Path> jars;
+
+    @BeforeAll
+    public static void findJars() {
+        jars = new ArrayList<>();
+        for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            Path path = Path.of(entry);
+            if (entry.endsWith(".jar") && Files.isRegularFile(path)) {
+                jars.add(path);
+            }
+        }
+    }
+
+    @Test
+    public void testSameContent() throws IOException {
+        for (Path jar : jars) {
+            try (ClassPathElement mapped = MappedJarClassPathElement.open(jar)) {
+                assertNotNull(mapped, jar.toString());
+                try (ClassPathElement streamed = new JarFileClassPathElement(new JarFile(jar.toFile()))) {
+                    for (String name : classNames(jar)) {
+                        try (ClassPathElement.Resource expected = streamed.getResource(name); ClassPathElement.Resource actual = mapped.getResource(name)) {
+                            assertEquals(expected.getBuffer(), actual.getBuffer(), name);
+                        }
+                    }
+                    assertSame(ClassPathElement.NON_EXISTENT, mapped.getResource("does/not/Exist.class"));
+                }
+            }
+        }
+    }
+
+    private static List<String> classNames(Path jar) throws IOException {
+        try (JarFile jarFile = new JarFile(jar.toFile())) {
+            return jarFile.stream().map(JarEntry::getName).filter(n -> n.endsWith(".class")).toList();
+        }
+    }
+}
@@ -0,0 +1,102 @@
+//DEPS org.qbicc:qbicc-driver:0.4.0-SNAPSHOT
+//JAVA 17+
+//
+// Class path lookup benchmark, which compares resolving classes with the package index of the boot class path with
+// searching each class path item in turn.  Unlike the other examples, it runs on the JVM; it is in the driver package
+// because the index is internal to the driver.
+//
+// Run the benchmark with jbang (0.65.1+), optionally giving the JARs and directories of the class path to search (the
+// default is the class path of the benchmark itself):
+// $ jbang examples/driver/bench/ClassPathLookup.java
+// $ jbang examples/driver/bench/ClassPathLookup.java ~/.m2/repository/org/qbicc/rt/*/*/*.jar
+//
+package org.qbicc.driver;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * Look up every class of the class path, plus some misses, with and without the index, and print the best time of
+ * several rounds for each.
+ */
+public class ClassPathLookup {
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws IOException {
+        String[] entries = args.length > 0 ? args : System.getProperty("java.class.path").split(File.pathSeparator);
+        List<ClassPathItem> items = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        for (String entry : entries) {
+            Path path = Path.of(entry);
+            if (Files.isDirectory(path)) {
+                items.add(new ClassPathItem(entry, List.of(ClassPathElement.forDirectory(path)), List.of()));
+            } else if (entry.endsWith(".jar") && Files.isRegularFile(path)) {
+                try (JarFile jarFile = new JarFile(path.toFile())) {
+                    jarFile.stream().map(JarEntry::getName).filter(n -> n.endsWith(".class")).forEach(names::add);
+                }
+                items.add(new ClassPathItem(entry, List.of(ClassPathElement.forJarFile(path)), List.of()));
+            }
+        }
+        for (int i = 0; i < 100; i ++) {
+            names.add("org/qbicc/driver/DoesNotExist" + i + ".class");
+            names.add("does/not/Exist" + i + ".class");
+        }
+        System.out.printf("Class path has %d items and %d class names%n", Integer.valueOf(items.size()), Integer.valueOf(names.size()));
+
+        try {
+            long start = System.nanoTime();
+            ClassPathIndex index = new ClassPathIndex(items);
+            long indexTime = System.nanoTime() - start;
+            long linearTime = Long.MAX_VALUE;
+            long indexedTime = Long.MAX_VALUE;
+            for (int i = 0; i < ROUNDS; i ++) {
+                start = System.nanoTime();
+                int linearFound = 0;
+                for (String name : names) {
+                    try (ClassPathElement.Resource resource = findLinear(items, name)) {
+                        if (resource != ClassPathElement.NON_EXISTENT) {
+                            linearFound ++;
+                        }
+                    }
+                }
+                linearTime = Math.min(linearTime, System.nanoTime() - start);
+                start = System.nanoTime();
+                int indexedFound = 0;
+                for (String name : names) {
+                    try (ClassPathElement.Resource resource = index.findResource(name)) {
+                        if (resource != ClassPathElement.NON_EXISTENT) {
+                            indexedFound ++;
+                        }
+                    }
+                }
+                indexedTime = Math.min(indexedTime, System.nanoTime() - start);
+                if (linearFound != indexedFound) {
+                    throw new IllegalStateException("The index found " + indexedFound + " classes instead of " + linearFound);
+                }
+            }
+            System.out.printf("Building the index took %d us%n", Long.valueOf(indexTime / 1000));
+            System.out.printf("Linear lookup of all names took %d us (best of %d)%n", Long.valueOf(linearTime / 1000), Integer.valueOf(ROUNDS));
+            System.out.printf("Indexed lookup of all names took %d us (best of %d)%n", Long.valueOf(indexedTime / 1000), Integer.valueOf(ROUNDS));
+        } finally {
+            for (ClassPathItem item : items) {
+                item.close();
+            }
+        }
+    }
+
+    private static ClassPathElement.Resource findLinear(List<ClassPathItem> items, String name) throws IOException {
+        for (ClassPathItem item : items) {
+            ClassPathElement.Resource resource = item.findResource(name);
+            if (resource != ClassPathElement.NON_EXISTENT) {
+                return resource;
+            }
+        }
+        return ClassPathElement.NON_EXISTENT;
+    }
+}
@@ -0,0 +1,95 @@
+//DEPS org.qbicc:qbicc-driver:0.4.0-SNAPSHOT
+//JAVA 17+
+//
+// JAR reading benchmark, which compares reading classes from a mapped JAR file with reading them through
+// java.util.jar.JarFile.  Unlike the other examples, it runs on the JVM; it is in the driver package because the class
+// path elements are internal to the driver.
+//
+// Run the benchmark with jbang (0.65.1+), optionally giving the JARs to read (the default is the JARs of the class path
+// of the benchmark itself):
+// $ jbang examples/driver/bench/JarReading.java
+// $ jbang examples/driver/bench/JarReading.java ~/.m2/repository/org/qbicc/rt/*/*/*.jar
+//
+package org.qbicc.driver;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * Read every class of each JAR with both class path elements, and print the best time and allocation of several
+ * rounds for each.
+ */
+public class JarReading {
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws IOException {
+        String[] entries = args.length > 0 ? args : System.getProperty("java.class.path").split(File.pathSeparator);
+        List<Path> jars = new ArrayList<>();
+        List<List<String>> names = new ArrayList<>();
+        for (String entry : entries) {
+            Path path = Path.of(entry);
+            if (entry.endsWith(".jar") && Files.isRegularFile(path)) {
+                jars.add(path);
+                names.add(classNames(path));
+            }
+        }
+        long[] streamed = { Long.MAX_VALUE, Long.MAX_VALUE };
+        long[] mapped = { Long.MAX_VALUE, Long.MAX_VALUE };
+        long checksum = 0;
+        for (int round = 0; round < ROUNDS; round ++) {
+            // time, allocated bytes, and a checksum so the reads are not optimized away
+            long[] result = { 0, 0, 0 };
+            for (int i = 0; i < jars.size(); i ++) {
+                readAll(new JarFileClassPathElement(new JarFile(jars.get(i).toFile())), names.get(i), result);
+            }
+            streamed[0] = Math.min(streamed[0], result[0]);
+            streamed[1] = Math.min(streamed[1], result[1]);
+            result[0] = result[1] = 0;
+            for (int i = 0; i < jars.size(); i ++) {
+                MappedJarClassPathElement element = MappedJarClassPathElement.open(jars.get(i));
+                if (element == null) {
+                    throw new IllegalStateException("Cannot map " + jars.get(i));
+                }
+                readAll(element, names.get(i), result);
+            }
+            mapped[0] = Math.min(mapped[0], result[0]);
+            mapped[1] = Math.min(mapped[1], result[1]);
+            checksum += result[2];
+        }
+        System.out.printf("Read classes from %d JARs (best of %d, checksum %d)%n", Integer.valueOf(jars.size()), Integer.valueOf(ROUNDS), Long.valueOf(checksum));
+        System.out.printf(" JarFile: %d us, %d KiB allocated%n", Long.valueOf(streamed[0] / 1000), Long.valueOf(streamed[1] / 1024));
+        System.out.printf(" Mapped:  %d us, %d KiB allocated%n", Long.valueOf(mapped[0] / 1000), Long.valueOf(mapped[1] / 1024));
+    }
+
+    private static void readAll(ClassPathElement element, List<String> names, long[] result) throws IOException {
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long id = Thread.currentThread().getId();
+        long allocated = bean.getThreadAllocatedBytes(id);
+        long start = System.nanoTime();
+        try (element) {
+            for (String name : names) {
+                try (ClassPathElement.Resource resource = element.getResource(name)) {
+                    ByteBuffer buffer = resource.getBuffer();
+                    // touch the content
+                    result[2] += buffer.get(buffer.limit() - 1);
+                }
+            }
+        }
+        result[0] += System.nanoTime() - start;
+        result[1] += bean.getThreadAllocatedBytes(id) - allocated;
+    }
+
+    private static List<String> classNames(Path jar) throws IOException {
+        try (JarFile jarFile = new JarFile(jar.toFile())) {
+            return jarFile.stream().map(JarEntry::getName).filter(n -> n.endsWith(".class")).toList();
+        }
+    }
+}
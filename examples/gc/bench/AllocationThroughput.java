@@ -0,0 +1,92 @@
+// Allocation benchmark, which measures the allocation throughput and the pause times of a collector.
+//
+// Compile the example with jbang (0.65.1+):
+// $ jbang build --java=17 examples/gc/bench/AllocationThroughput.java
+//
+// Build one native executable with each collector:
+// $ jbang org.qbicc:qbicc-main:0.4.0-SNAPSHOT --gc semispace --boot-path-append-file $(jbang info classpath examples/gc/bench/AllocationThroughput.java) --output-path /tmp/semispace gc.bench.AllocationThroughput
+// $ jbang org.qbicc:qbicc-main:0.4.0-SNAPSHOT --gc generational --boot-path-append-file $(jbang info classpath examples/gc/bench/AllocationThroughput.java) --output-path /tmp/generational gc.bench.AllocationThroughput
+// $ jbang org.qbicc:qbicc-main:0.4.0-SNAPSHOT --gc none --boot-path-append-file $(jbang info classpath examples/gc/bench/AllocationThroughput.java) --output-path /tmp/nogc gc.bench.AllocationThroughput
+//
+// Run the executables and compare the timings; the optional argument is the size of the live set in objects
+// $ /tmp/semispace/a.out 100000
+// $ /tmp/generational/a.out 100000
+// $ /tmp/nogc/a.out 100000
+//
+// Without a collector, the process keeps every object, so keep the number of rounds small enough for the memory of the
+// machine.
+//
+package gc.bench;
+
+/**
+ * Allocate short lived objects while keeping a live set of a fixed size reachable.  Each round replaces a part of the
+ * live set, so that a copying collector has to copy a realistic amount of data.  The longest time between two
+ * consecutive batches of allocations approximates the longest pause.
+ */
+public class AllocationThroughput {
+    private static final int ROUNDS = 20;
+    private static final int BATCHES = 10_000;
+    private static final int BATCH_SIZE = 100;
+
+    private final Node[] live;
+    private int next;
+    private long checksum;
+
+    AllocationThroughput(int liveObjects) {
+        live = new Node[liveObjects];
+    }
+
+    public static void main(String[] args) {
+        int liveObjects = args.length == 0 ? 100_000 : Integer.parseInt(args[0]);
+        AllocationThroughput bench = new AllocationThroughput(liveObjects);
+        long maxGap = 0;
+        long totalNanos = 0;
+        long totalObjects = 0;
+        for (int round = 0; round < ROUNDS; round ++) {
+            long start = System.nanoTime();
+            long last = start;
+            for (int batch = 0; batch < BATCHES; batch ++) {
+                bench.allocate(BATCH_SIZE);
+                long now = System.nanoTime();
+                maxGap = Math.max(maxGap, now - last);
+                last = now;
+            }
+            totalNanos += last - start;
+            totalObjects += (long) BATCHES * BATCH_SIZE;
+            System.out.println("round " + round + ": " + (last - start) / 1_000_000 + " ms");
+        }
+        System.out.println("allocated " + totalObjects + " objects at " + totalObjects * 1_000 / Math.max(totalNanos, 1) + " objects per microsecond");
+        System.out.println("longest pause between batches: " + maxGap / 1_000 + " us");
+        System.out.println("checksum " + bench.checksum);
+    }
+
+    private void allocate(int count) {
+        Node[] live = this.live;
+        for (int i = 0; i < count; i ++) {
+            // most objects die young
+            Node temp = new Node(i, null);
+            Node node = new Node(temp.value + 1, new int[4]);
+            checksum += node.value + node.payload.length;
+            if ((i & 15) == 0) {
+                // some survive and replace an older part of the live set
+                node.next = live[next];
+                if (node.next != null) {
+                    node.next = node.next.next;
+                }
+                live[next] = node;
+                next = next + 1 == live.length ? 0 : next + 1;
+            }
+        }
+    }
+
+    static final class Node {
+        final int value;
+        final int[] payload;
+        Node next;
+
+        Node(int value, int[] payload) {
+            this.value = value;
+            this.payload = payload;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+// Numeric intrinsics benchmark, which compares the bit manipulation and floating point methods which are mapped to
+// LLVM intrinsics with equivalent plain Java code, which is compiled as written.
+//
+// Compile the example with jbang (0.65.1+):
+// $ jbang build --java=17 examples/math/bench/NumericIntrinsics.java
+//
+// Build a native executable:
+// $ jbang org.qbicc:qbicc-main:0.4.0-SNAPSHOT --boot-path-append-file $(jbang info classpath examples/math/bench/NumericIntrinsics.java) --output-path /tmp/intrinsics math.bench.NumericIntrinsics
+//
+// Run the executable; each line gives the time per call of the intrinsic and of the plain Java code
+// $ /tmp/intrinsics/a.out
+//
+// Running the same class on the JVM gives a reference for the timings:
+// $ jbang examples/math/bench/NumericIntrinsics.java
+//
+package math.bench;
+
+import java.util.function.LongUnaryOperator;
+
+/**
+ * Measure the time per call of each intrinsic against a plain Java implementation of the same operation.
+ */
+public class NumericIntrinsics {
+    private static final int ITERATIONS = 10_000_000;
+    private static final int ROUNDS = 5;
+
+    // keeps the results alive so that the loops are not removed
+    static long sink;
+
+    public static void main(String[] args) {
+        compare("bitCount", x -> Long.bitCount(x), NumericIntrinsics::bitCount);
+        compare("numberOfLeadingZeros", x -> Long.numberOfLeadingZeros(x), NumericIntrinsics::numberOfLeadingZeros);
+        compare("numberOfTrailingZeros", x -> Long.numberOfTrailingZeros(x), NumericIntrinsics::numberOfTrailingZeros);
+        compare("reverseBytes", Long::reverseBytes, NumericIntrinsics::reverseBytes);
+        compare("rotateLeft", x -> Long.rotateLeft(x, (int) x), x -> x << x | x >>> -x);
+        compare("sqrt", x -> (long) Math.sqrt(x), x -> (long) sqrt(x));
+        compare("fma", x -> (long) Math.fma(x, 0.5, 1.0), x -> (long) (x * 0.5 + 1.0));
+        System.out.println("(" + sink + ")");
+    }
+
+    private static void compare(String name, LongUnaryOperator intrinsic, LongUnaryOperator plain) {
+        long intrinsicNanos = best(intrinsic);
+        long plainNanos = best(plain);
+        System.out.println(name + ": " + (double) intrinsicNanos / ITERATIONS + " ns intrinsic, " + (double) plainNanos / ITERATIONS + " ns plain");
+    }
+
+    private static long best(LongUnaryOperator op) {
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round ++) {
+            long start = System.nanoTime();
+            long acc = 0;
+            for (long i = 0; i < ITERATIONS; i ++) {
+                acc += op.applyAsLong(i * 0x9E3779B97F4A7C15L);
+            }
+            best = Math.min(best, System.nanoTime() - start);
+            sink += acc;
+        }
+        return best;
+    }
+
+    static long bitCount(long x) {
+        long count = 0;
+        while (x != 0) {
+            x &= x - 1;
+            count ++;
+        }
+        return count;
+    }
+
+    static long numberOfLeadingZeros(long x) {
+        long count = 0;
+        for (long bit = Long.MIN_VALUE; bit != 0 && (x & bit) == 0; bit >>>= 1) {
+            count ++;
+        }
+        return count;
+    }
+
+    static long numberOfTrailingZeros(long x) {
+        long count = 0;
+        for (long bit = 1; bit != 0 && (x & bit) == 0; bit <<= 1) {
+            count ++;
+        }
+        return count;
+    }
+
+    static long reverseBytes(long x) {
+        long result = 0;
+        for (int i = 0; i < 8; i ++) {
+            result = result << 8 | x & 0xff;
+            x >>>= 8;
+        }
+        return result;
+    }
+
+    /* Newton's method, to about the precision of a double */
+    static double sqrt(double x) {
+        if (x <= 0) {
+            return 0;
+        }
+        double r = x;
+        for (int i = 0; i < 64; i ++) {
+            double next = 0.5 * (r + x / r);
+            if (next == r) {
+                break;
+            }
+            r = next;
+        }
+        return r;
+    }
+}
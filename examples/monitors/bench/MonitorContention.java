@@ -0,0 +1,116 @@
+// Monitor contention benchmark, which compares the futex based object monitors with the pthread mutex based ones.
+//
+// Compile the example with jbang (0.65.1+):
+// $ jbang build --java=17 examples/monitors/bench/MonitorContention.java
+//
+// Build one native executable with each monitor implementation:
+// $ jbang org.qbicc:qbicc-main:0.4.0-SNAPSHOT --boot-path-append-file $(jbang info classpath examples/monitors/bench/MonitorContention.java) --output-path /tmp/futex monitors.bench.MonitorContention
+// $ jbang org.qbicc:qbicc-main:0.4.0-SNAPSHOT --no-futex-monitors --boot-path-append-file $(jbang info classpath examples/monitors/bench/MonitorContention.java) --output-path /tmp/pthread monitors.bench.MonitorContention
+//
+// Run the executables and compare the timings
+// $ /tmp/futex/a.out
+// $ /tmp/pthread/a.out --no-hand-off
+//
+// The pthread build must skip the hand-off phase, because its wait and notify do nothing.
+//
+package monitors.bench;
+
+/**
+ * Measure the cost of {@code synchronized} under increasing contention, and of handing a token back and forth
+ * between two threads with {@code wait} and {@code notify}.
+ */
+public class MonitorContention {
+    private static final int ITERATIONS = 1_000_000;
+    private static final int HAND_OFFS = 100_000;
+
+    private final Object lock = new Object();
+    private long counter;
+
+    public static void main(String[] args) throws InterruptedException {
+        boolean handOff = args.length == 0 || ! args[0].equals("--no-hand-off");
+        for (int threads = 1; threads <= 8; threads *= 2) {
+            MonitorContention bench = new MonitorContention();
+            long start = System.nanoTime();
+            bench.contend(threads);
+            long elapsed = System.nanoTime() - start;
+            if (bench.counter != (long) threads * ITERATIONS) {
+                throw new IllegalStateException("Lost updates");
+            }
+            System.out.println(threads + " threads: " + elapsed / (threads * (long) ITERATIONS) + " ns per monitor enter/exit");
+        }
+        if (handOff) {
+            MonitorContention bench = new MonitorContention();
+            long start = System.nanoTime();
+            bench.handOff();
+            long elapsed = System.nanoTime() - start;
+            System.out.println("hand-off: " + elapsed / HAND_OFFS + " ns per wait/notify round trip");
+        }
+    }
+
+    private void contend(int threads) throws InterruptedException {
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i ++) {
+            workers[i] = new Incrementer(this);
+            workers[i].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+    }
+
+    private void handOff() throws InterruptedException {
+        Thread ponger = new Ponger(this);
+        ponger.start();
+        synchronized (lock) {
+            for (int i = 0; i < HAND_OFFS; i ++) {
+                // odd values belong to the ponger
+                counter ++;
+                lock.notify();
+                while ((counter & 1) != 0) {
+                    lock.wait();
+                }
+            }
+        }
+        ponger.join();
+    }
+
+    static final class Incrementer extends Thread {
+        private final MonitorContention bench;
+
+        Incrementer(MonitorContention bench) {
+            this.bench = bench;
+        }
+
+        public void run() {
+            for (int i = 0; i < ITERATIONS; i ++) {
+                synchronized (bench.lock) {
+                    bench.counter ++;
+                }
+            }
+        }
+    }
+
+    static final class Ponger extends Thread {
+        private final MonitorContention bench;
+
+        Ponger(MonitorContention bench) {
+            this.bench = bench;
+        }
+
+        public void run() {
+            synchronized (bench.lock) {
+                for (int i = 0; i < HAND_OFFS; i ++) {
+                    while ((bench.counter & 1) == 0) {
+                        try {
+                            bench.lock.wait();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                    bench.counter ++;
+                    bench.lock.notify();
+                }
+            }
+        }
+    }
+}
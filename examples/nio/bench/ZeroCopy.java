@@ -0,0 +1,185 @@
+// Zero copy benchmark, which compares FileChannel.transferTo with copying through a heap buffer.
+//
+// Compile the example with jbang (0.65.1+):
+// $ jbang build --java=17 examples/nio/bench/ZeroCopy.java
+//
+// Build the native executable in /tmp/output with:
+// $ jbang org.qbicc:qbicc-main:0.4.0-SNAPSHOT --boot-path-append-file $(jbang info classpath examples/nio/bench/ZeroCopy.java) --output-path /tmp/output nio.bench.ZeroCopy
+//
+// Run the executable, optionally giving the size of the test file in MiB (the default is 256)
+// $ /tmp/output/a.out 1024
+//
+package nio.bench;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Copy a large local file to another file and over a loopback socket, once with {@code transferTo}, which uses
+ * {@code sendfile}, and once through a heap buffer.  A final phase compares a gathering write of several buffers
+ * with writing them one by one.
+ */
+public class ZeroCopy {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int GATHER_BUFFERS = 8;
+    private static final int GATHER_ROUNDS = 100_000;
+
+    public static void main(String[] args) throws Exception {
+        long size = (args.length == 0 ? 256 : Long.parseLong(args[0])) * 1024 * 1024;
+        Path dir = Files.createTempDirectory("zero-copy");
+        Path source = dir.resolve("source");
+        Path target = dir.resolve("target");
+        try {
+            createFile(source, size);
+            report("file to file, transferTo", size, fileToFile(source, target, true));
+            report("file to file, heap buffer", size, fileToFile(source, target, false));
+            report("file to socket, transferTo", size, fileToSocket(source, true));
+            report("file to socket, heap buffer", size, fileToSocket(source, false));
+            long gatherBytes = (long) GATHER_ROUNDS * GATHER_BUFFERS * 512;
+            report("gathering write", gatherBytes, writeToFile(target, true));
+            report("separate writes", gatherBytes, writeToFile(target, false));
+        } finally {
+            Files.deleteIfExists(source);
+            Files.deleteIfExists(target);
+            Files.delete(dir);
+        }
+    }
+
+    private static void report(String name, long bytes, long nanos) {
+        System.out.println(name + ": " + bytes * 1_000_000_000L / Math.max(nanos, 1) / (1024 * 1024) + " MiB/s");
+    }
+
+    private static void createFile(Path path, long size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        for (int i = 0; i < BUFFER_SIZE; i ++) {
+            buffer.put((byte) i);
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (long written = 0; written < size; written += BUFFER_SIZE) {
+                buffer.clear();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+        }
+    }
+
+    private static long fileToFile(Path source, Path target, boolean zeroCopy) throws IOException {
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long start = System.nanoTime();
+            long copied = zeroCopy ? transfer(in, out) : copy(in, out);
+            long elapsed = System.nanoTime() - start;
+            check(copied, in.size());
+            return elapsed;
+        }
+    }
+
+    private static long fileToSocket(Path source, boolean zeroCopy) throws Exception {
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            Sink sink = new Sink(SocketChannel.open(server.getLocalAddress()));
+            sink.start();
+            try (SocketChannel out = server.accept(); FileChannel in = FileChannel.open(source, StandardOpenOption.READ)) {
+                long start = System.nanoTime();
+                long copied = zeroCopy ? transfer(in, out) : copy(in, out);
+                out.shutdownOutput();
+                sink.join();
+                long elapsed = System.nanoTime() - start;
+                check(copied, in.size());
+                check(sink.received, in.size());
+                return elapsed;
+            }
+        }
+    }
+
+    private static long writeToFile(Path target, boolean gather) throws IOException {
+        ByteBuffer[] buffers = new ByteBuffer[GATHER_BUFFERS];
+        for (int i = 0; i < GATHER_BUFFERS; i ++) {
+            buffers[i] = ByteBuffer.allocateDirect(512);
+        }
+        try (FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long start = System.nanoTime();
+            for (int round = 0; round < GATHER_ROUNDS; round ++) {
+                for (ByteBuffer buffer : buffers) {
+                    buffer.clear();
+                }
+                if (gather) {
+                    while (buffers[GATHER_BUFFERS - 1].hasRemaining()) {
+                        out.write(buffers);
+                    }
+                } else {
+                    for (ByteBuffer buffer : buffers) {
+                        while (buffer.hasRemaining()) {
+                            out.write(buffer);
+                        }
+                    }
+                }
+            }
+            return System.nanoTime() - start;
+        }
+    }
+
+    private static long transfer(FileChannel in, WritableByteChannel out) throws IOException {
+        long size = in.size();
+        long position = 0;
+        while (position < size) {
+            position += in.transferTo(position, size - position, out);
+        }
+        return position;
+    }
+
+    private static long copy(FileChannel in, WritableByteChannel out) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        long copied = 0;
+        while (in.read(buffer) != -1) {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                copied += out.write(buffer);
+            }
+            buffer.clear();
+        }
+        return copied;
+    }
+
+    private static void check(long actual, long expected) {
+        if (actual != expected) {
+            throw new IllegalStateException("Copied " + actual + " bytes instead of " + expected);
+        }
+    }
+
+    static final class Sink extends Thread {
+        private final SocketChannel channel;
+        volatile long received;
+
+        Sink(SocketChannel channel) {
+            super("sink");
+            this.channel = channel;
+        }
+
+        @Override
+        public void run() {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            long total = 0;
+            try (SocketChannel channel = this.channel) {
+                int n;
+                while ((n = channel.read(buffer)) != -1) {
+                    total += n;
+                    buffer.clear();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            received = total;
+        }
+    }
+}
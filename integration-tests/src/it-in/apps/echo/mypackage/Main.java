@@ -0,0 +1,130 @@
+package mypackage;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+
+/**
+ * A loopback echo server driven by a {@link Selector}, with a client which measures the round trip latency and the
+ * throughput of the server.  The first line of output is deterministic; the timings follow it.
+ */
+public class Main {
+    private static final int MESSAGES = 10_000;
+    private static final int MESSAGE_SIZE = 64;
+
+    public static void main(String[] args) throws Exception {
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        server.configureBlocking(false);
+        Selector selector = Selector.open();
+        server.register(selector, SelectionKey.OP_ACCEPT);
+        EchoServer echoServer = new EchoServer(selector, server);
+        echoServer.start();
+
+        SocketChannel client = SocketChannel.open(server.getLocalAddress());
+        client.socket().setTcpNoDelay(true);
+        ByteBuffer out = ByteBuffer.allocate(MESSAGE_SIZE);
+        ByteBuffer in = ByteBuffer.allocate(MESSAGE_SIZE);
+        long maxNanos = 0;
+        long start = System.nanoTime();
+        int echoed = 0;
+        for (int i = 0; i < MESSAGES; i ++) {
+            out.clear();
+            while (out.hasRemaining()) {
+                out.put((byte) (i + out.position()));
+            }
+            out.flip();
+            long sent = System.nanoTime();
+            while (out.hasRemaining()) {
+                client.write(out);
+            }
+            in.clear();
+            while (in.hasRemaining()) {
+                if (client.read(in) == -1) {
+                    throw new IOException("Server closed the connection");
+                }
+            }
+            maxNanos = Math.max(maxNanos, System.nanoTime() - sent);
+            in.flip();
+            out.flip();
+            if (in.equals(out)) {
+                echoed ++;
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        client.close();
+        echoServer.shutdown();
+        echoServer.join();
+        server.close();
+
+        System.out.println("echoed " + echoed + " messages");
+        System.out.println("average round trip: " + elapsed / MESSAGES + " ns, maximum: " + maxNanos + " ns");
+        System.out.println("throughput: " + (long) MESSAGES * 1_000_000_000L / Math.max(elapsed, 1) + " messages/s");
+    }
+
+    static final class EchoServer extends Thread {
+        private final Selector selector;
+        private final ServerSocketChannel server;
+        private final ByteBuffer buffer = ByteBuffer.allocate(4096);
+        private volatile boolean running = true;
+
+        EchoServer(Selector selector, ServerSocketChannel server) {
+            super("echo-server");
+            this.selector = selector;
+            this.server = server;
+        }
+
+        void shutdown() {
+            running = false;
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    selector.select();
+                    Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                    while (iterator.hasNext()) {
+                        SelectionKey key = iterator.next();
+                        iterator.remove();
+                        if (key.isAcceptable()) {
+                            SocketChannel channel = server.accept();
+                            if (channel != null) {
+                                channel.configureBlocking(false);
+                                channel.socket().setTcpNoDelay(true);
+                                channel.register(selector, SelectionKey.OP_READ);
+                            }
+                        } else if (key.isReadable()) {
+                            echo(key);
+                        }
+                    }
+                }
+                selector.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        private void echo(SelectionKey key) throws IOException {
+            SocketChannel channel = (SocketChannel) key.channel();
+            buffer.clear();
+            if (channel.read(buffer) == -1) {
+                key.cancel();
+                channel.close();
+                return;
+            }
+            buffer.flip();
+            // the client waits for each echo before sending more, so the socket buffer never fills up
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+}
@@ -0,0 +1,75 @@
+import static org.qbicc.runtime.CNative.*;
+
+public class CompressedReferences {
+    @extern
+    public static native int putchar(int arg);
+
+    static final class Node {
+        final int id;
+        Node next;
+        Node other;
+        String name;
+
+        Node(int id) {
+            this.id = id;
+        }
+    }
+
+    // built while the image is built, so it is serialized into the initial heap with compressed fields
+    static final Node INITIAL = buildInitial();
+
+    static Node buildInitial() {
+        Node first = new Node(1);
+        Node second = new Node(2);
+        first.next = second;
+        first.name = "first";
+        second.other = first;
+        // second.next and second.name stay null, and first.other is never written
+        return first;
+    }
+
+    public static void main(String[] args) {
+        // null is the zero offset, both for fields which were never written and for fields which were cleared
+        Node node = new Node(3);
+        boolean ok = node.next == null && node.other == null && node.name == null;
+        node.next = node;
+        ok &= node.next == node;
+        node.next = null;
+        ok &= node.next == null;
+        ok &= INITIAL.other == null && INITIAL.next.next == null && INITIAL.next.name == null;
+        putchar(ok ? '_' : 'F');
+
+        // the fields of the initial heap refer to other objects of the initial heap
+        Node second = INITIAL.next;
+        putchar(INITIAL.id == 1 && second.id == 2 && second.other == INITIAL && INITIAL.name.equals("first") ? '_' : 'F');
+
+        // an object of the initial heap can refer to one which was allocated at run time, and the other way around
+        Node fresh = new Node(4);
+        fresh.other = INITIAL;
+        second.next = fresh;
+        putchar(second.next.id == 4 && second.next.other == INITIAL && INITIAL.next.next == fresh ? '_' : 'F');
+        second.next = null;
+
+        // every allocation is above the initial heap and within the range of a 32-bit offset from it
+        long base = refToPtr(INITIAL).longValue();
+        Node head = null;
+        ok = true;
+        for (int i = 0; i < 100000; i ++) {
+            Node n = new Node(i);
+            n.next = head;
+            n.name = String.valueOf(i);
+            long address = refToPtr(n).longValue();
+            ok &= address > base && address - base < 0x1_0000_0000L;
+            head = n;
+        }
+        putchar(ok ? '_' : 'F');
+
+        // and they are linked correctly through their compressed fields
+        ok = true;
+        for (int i = 99999; i >= 0; i --) {
+            ok &= head.id == i && head.name.equals(String.valueOf(i));
+            head = head.next;
+        }
+        putchar(ok && head == null ? '_' : 'F');
+    }
+}
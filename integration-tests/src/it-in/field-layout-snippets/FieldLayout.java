@@ -0,0 +1,85 @@
+import static org.qbicc.runtime.CNative.*;
+
+public class FieldLayout {
+    @extern
+    public static native int putchar(int arg);
+
+    // declared smallest first, so packing by size moves every field
+    static class Mixed {
+        boolean z;
+        byte b;
+        char c;
+        short s;
+        int i;
+        float f;
+        long l;
+        double d;
+        Object o;
+        // written but never read, so it is omitted
+        int writeOnly;
+        // neither written nor read
+        long unused;
+
+        Mixed(int seed) {
+            z = (seed & 1) != 0;
+            b = (byte) seed;
+            c = (char) (seed + 'a');
+            s = (short) (seed * 3);
+            i = seed * 1000;
+            f = seed + 0.5f;
+            l = seed * 1_000_000_000L;
+            d = seed + 0.25;
+            o = this;
+            writeOnly = -1;
+        }
+
+        boolean check(int seed) {
+            return z == ((seed & 1) != 0) && b == (byte) seed && c == (char) (seed + 'a') && s == (short) (seed * 3)
+                && i == seed * 1000 && f == seed + 0.5f && l == seed * 1_000_000_000L && d == seed + 0.25 && o == this;
+        }
+    }
+
+    // the fields of the superclass must keep their offsets in the subclass
+    static final class Sub extends Mixed {
+        byte extra;
+        int writeOnlyToo;
+        long hot;
+
+        Sub(int seed) {
+            super(seed);
+            extra = (byte) -seed;
+            writeOnlyToo = seed;
+        }
+    }
+
+    // built while the image is built, so it is serialized into the initial heap with the optimized layout
+    static final Sub INITIAL = new Sub(7);
+
+    public static void main(String[] args) {
+        putchar(INITIAL.check(7) && INITIAL.extra == (byte) -7 ? '_' : 'F');
+
+        // the omitted stores must not clobber their neighbours
+        Mixed[] objects = new Mixed[64];
+        for (int i = 0; i < objects.length; i ++) {
+            objects[i] = (i & 1) == 0 ? new Mixed(i) : new Sub(i);
+        }
+        boolean ok = true;
+        for (int i = 0; i < objects.length; i ++) {
+            Mixed m = objects[i];
+            m.writeOnly = Integer.MAX_VALUE;
+            ok &= m.check(i);
+            if (m instanceof Sub sub) {
+                sub.writeOnlyToo = Integer.MIN_VALUE;
+                ok &= sub.extra == (byte) -i;
+            }
+        }
+        putchar(ok ? '_' : 'F');
+
+        // the most accessed field is ordered first
+        Sub sub = new Sub(3);
+        for (int i = 0; i < 1000; i ++) {
+            sub.hot += sub.i;
+        }
+        putchar(sub.hot == 3_000_000L && sub.check(3) ? '_' : 'F');
+    }
+}
@@ -0,0 +1,69 @@
+import static org.qbicc.runtime.CNative.*;
+
+public class AllocatingThreads {
+    @extern
+    public static native int putchar(int arg);
+
+    static final int THREADS = 4;
+
+    static final class Node {
+        final int value;
+        final String text;
+        Node next;
+
+        Node(int value, Node next) {
+            this.value = value;
+            this.next = next;
+            text = String.valueOf(value);
+        }
+    }
+
+    /* each thread keeps a list of its own alive while it and the others allocate garbage */
+    static final class Worker extends Thread {
+        private final int seed;
+        Object sink;
+        boolean ok;
+
+        Worker(int seed) {
+            this.seed = seed;
+        }
+
+        public void run() {
+            Node list = null;
+            for (int i = 0; i < 1000; i ++) {
+                list = new Node(seed * 1000 + i, list);
+            }
+            boolean result = true;
+            for (int round = 0; round < 4; round ++) {
+                for (int i = 0; i < 16 * 1024; i ++) {
+                    sink = new byte[1024];
+                }
+                result &= check(list, seed);
+            }
+            ok = result;
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        Worker[] workers = new Worker[THREADS];
+        for (int i = 0; i < THREADS; i ++) {
+            workers[i] = new Worker(i + 1);
+            workers[i].start();
+        }
+        for (int i = 0; i < THREADS; i ++) {
+            workers[i].join();
+            putchar(workers[i].ok ? '_' : 'F');
+        }
+    }
+
+    static boolean check(Node list, int seed) {
+        Node node = list;
+        for (int i = 999; i >= 0; i --) {
+            if (node == null || node.value != seed * 1000 + i || ! node.text.equals(String.valueOf(node.value))) {
+                return false;
+            }
+            node = node.next;
+        }
+        return node == null;
+    }
+}
@@ -0,0 +1,131 @@
+import static org.qbicc.runtime.CNative.*;
+
+public class BlockedThreads {
+    @extern
+    public static native int putchar(int arg);
+
+    @extern
+    public static native int pipe(fd_pair_ptr fds);
+
+    @extern
+    public static native long read(int fd, cell_ptr buf, long count);
+
+    @extern
+    public static native long write(int fd, cell_ptr buf, long count);
+
+    @extern
+    public static native int usleep(int usec);
+
+    @internal
+    public static final class fd_pair extends object {
+        public c_int read_fd;
+        public c_int write_fd;
+    }
+
+    public static final class fd_pair_ptr extends ptr<fd_pair> {}
+
+    @internal
+    public static final class cell extends object {
+        public c_int value;
+    }
+
+    public static final class cell_ptr extends ptr<cell> {}
+
+    static Object sink;
+    static volatile boolean stop;
+
+    static final class Box {
+        final int id;
+        final String name;
+
+        Box(int id) {
+            this.id = id;
+            name = String.valueOf(id);
+        }
+
+        boolean check(int expected) {
+            return id == expected && name.equals(String.valueOf(expected));
+        }
+    }
+
+    /* blocks in read until the main thread writes to the pipe, which it only does after collecting */
+    static final class Reader extends Thread {
+        private final int fd;
+        boolean ok;
+
+        Reader(int fd) {
+            this.fd = fd;
+        }
+
+        public void run() {
+            Box box = new Box(1);
+            cell buf = auto();
+            long n = read(fd, addr_of(buf), sizeof(buf).longValue());
+            ok = n == sizeof(buf).longValue() && buf.value.intValue() == 42 && box.check(1);
+        }
+    }
+
+    /* sleeps in native code until the main thread is done collecting */
+    static final class Sleeper extends Thread {
+        boolean ok;
+
+        public void run() {
+            Box box = new Box(2);
+            while (! stop) {
+                usleep(1000);
+            }
+            ok = box.check(2);
+        }
+    }
+
+    /* loops without allocating or calling native code until the main thread is done collecting */
+    static final class Spinner extends Thread {
+        boolean ok;
+        long spins;
+
+        public void run() {
+            Box box = new Box(3);
+            long n = 0;
+            while (! stop) {
+                n ++;
+            }
+            spins = n;
+            ok = box.check(3);
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        fd_pair fds = auto();
+        if (pipe(addr_of(fds)) != 0) {
+            putchar('F');
+            return;
+        }
+        Reader reader = new Reader(fds.read_fd.intValue());
+        Sleeper sleeper = new Sleeper();
+        Spinner spinner = new Spinner();
+        reader.start();
+        sleeper.start();
+        spinner.start();
+        Box box = new Box(0);
+        // collect while the other threads are blocked or spinning
+        churn(32);
+        putchar(box.check(0) ? '_' : 'F');
+        cell buf = auto();
+        buf.value = word(42);
+        write(fds.write_fd.intValue(), addr_of(buf), sizeof(buf).longValue());
+        stop = true;
+        reader.join();
+        sleeper.join();
+        spinner.join();
+        putchar(reader.ok ? '_' : 'F');
+        putchar(sleeper.ok ? '_' : 'F');
+        putchar(spinner.ok ? '_' : 'F');
+    }
+
+    /* allocates the given number of MiB of garbage, which forces collections */
+    static void churn(int mib) {
+        for (int i = 0; i < mib * 1024; i ++) {
+            sink = new byte[1024];
+        }
+    }
+}
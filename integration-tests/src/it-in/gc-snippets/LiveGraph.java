@@ -0,0 +1,94 @@
+import static org.qbicc.runtime.CNative.*;
+
+public class LiveGraph {
+    @extern
+    public static native int putchar(int arg);
+
+    static final int NODES = 200;
+
+    static final class Node {
+        final int id;
+        final String name;
+        final int[] data;
+        Node next;
+        Node[] links;
+
+        Node(int id) {
+            this.id = id;
+            name = String.valueOf(id);
+            data = new int[id % 17 + 1];
+            for (int i = 0; i < data.length; i ++) {
+                data[i] = id * i;
+            }
+        }
+    }
+
+    // the graph is only reachable from static fields
+    static Node head;
+    static Node[] index;
+    static String[] names;
+    static Object sink;
+
+    public static void main(String[] args) {
+        build();
+        long before = refToPtr(head).longValue();
+        for (int round = 0; round < 4; round ++) {
+            churn(64);
+            putchar(check() ? '_' : 'F');
+        }
+        putchar(' ');
+        // a collection copies every live object, so the head cannot still be where it was allocated
+        putchar(refToPtr(head).longValue() != before ? 'M' : 'F');
+    }
+
+    static void build() {
+        index = new Node[NODES];
+        names = new String[NODES];
+        Node prev = null;
+        for (int i = NODES - 1; i >= 0; i --) {
+            Node node = new Node(i);
+            node.next = prev;
+            index[i] = node;
+            names[i] = new StringBuilder().append("node-").append(i).toString();
+            prev = node;
+        }
+        head = prev;
+        // links in both directions, so that the graph has cycles
+        for (int i = 0; i < NODES; i ++) {
+            index[i].links = new Node[] { index[(i + 1) % NODES], index[(i + NODES - 1) % NODES], index[i] };
+        }
+    }
+
+    static boolean check() {
+        Node node = head;
+        for (int i = 0; i < NODES; i ++) {
+            if (node == null || node != index[i] || node.id != i || ! node.name.equals(String.valueOf(i))) {
+                return false;
+            }
+            if (node.data.length != i % 17 + 1) {
+                return false;
+            }
+            for (int j = 0; j < node.data.length; j ++) {
+                if (node.data[j] != i * j) {
+                    return false;
+                }
+            }
+            Node[] links = node.links;
+            if (links.length != 3 || links[0].id != (i + 1) % NODES || links[1].id != (i + NODES - 1) % NODES || links[2] != node) {
+                return false;
+            }
+            if (! names[i].startsWith("node-") || ! names[i].substring(5).equals(node.name)) {
+                return false;
+            }
+            node = node.next;
+        }
+        return node == null;
+    }
+
+    /* allocates the given number of MiB of garbage, which forces collections */
+    static void churn(int mib) {
+        for (int i = 0; i < mib * 1024; i ++) {
+            sink = new byte[1024];
+        }
+    }
+}
@@ -0,0 +1,107 @@
+import static org.qbicc.runtime.CNative.*;
+
+public class OldToYoung {
+    @extern
+    public static native int putchar(int arg);
+
+    static final int ROUNDS = 8;
+    static final int SLOTS = 64;
+    static final int COPIED = 32;
+
+    static final class Holder {
+        final int id;
+        final String name;
+        Holder next;
+
+        Holder(int id) {
+            this.id = id;
+            name = String.valueOf(id);
+        }
+
+        boolean check(int expected) {
+            return id == expected && name.equals(String.valueOf(expected));
+        }
+    }
+
+    // these are promoted by the first collections, and then only refer to young objects through their cards
+    static Holder[] slots;
+    static Holder[] copies;
+    static Holder chain;
+    // larger than the large object size, so it is allocated directly in the old generation
+    static Holder[] large;
+
+    static Object[] window;
+    static Object sink;
+
+    public static void main(String[] args) {
+        slots = new Holder[SLOTS];
+        copies = new Holder[COPIED * 2];
+        chain = new Holder(-1);
+        large = new Holder[1 << 18];
+        window = new Object[4096];
+        for (int i = 0; i < COPIED; i ++) {
+            copies[i] = new Holder(-2 - i);
+        }
+        churn(32);
+
+        for (int round = 0; round < ROUNDS; round ++) {
+            // stores of young objects into old objects
+            for (int i = 0; i < SLOTS; i ++) {
+                slots[i] = new Holder(round * SLOTS + i);
+            }
+            Holder link = new Holder(round);
+            link.next = chain.next;
+            chain.next = link;
+            large[round * 1000] = new Holder(round * 1000);
+
+            // a bulk copy of young objects into the second half of an old array
+            Holder[] young = new Holder[COPIED];
+            for (int i = 0; i < COPIED; i ++) {
+                young[i] = new Holder(10000 + round * COPIED + i);
+            }
+            System.arraycopy(young, 0, copies, COPIED, COPIED);
+            young = null;
+
+            // enough to cause several minor collections, and to fill the old generation with dead objects over time
+            churn(64);
+            putchar(check(round) ? '_' : 'F');
+        }
+        putchar(' ');
+
+        boolean ok = true;
+        for (int i = 0; i < large.length; i ++) {
+            Holder holder = large[i];
+            if (i % 1000 == 0 && i / 1000 < ROUNDS) {
+                ok &= holder != null && holder.check(i);
+            } else {
+                ok &= holder == null;
+            }
+        }
+        putchar(ok ? '_' : 'F');
+    }
+
+    static boolean check(int round) {
+        boolean ok = true;
+        for (int i = 0; i < SLOTS; i ++) {
+            ok &= slots[i].check(round * SLOTS + i);
+        }
+        for (int i = 0; i < COPIED; i ++) {
+            ok &= copies[i].check(-2 - i) && copies[COPIED + i].check(10000 + round * COPIED + i);
+        }
+        Holder link = chain.next;
+        for (int i = round; i >= 0; i --) {
+            ok &= link != null && link.check(i);
+            link = link == null ? null : link.next;
+        }
+        return ok && link == null && chain.check(-1);
+    }
+
+    /* allocates the given number of MiB, keeping the most recent 4 MiB alive so that they are promoted */
+    static void churn(int mib) {
+        for (int i = 0; i < mib * 1024; i ++) {
+            Object garbage = new byte[1024];
+            window[i % window.length] = garbage;
+            sink = garbage;
+        }
+    }
+}
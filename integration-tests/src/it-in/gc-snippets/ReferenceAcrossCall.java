@@ -0,0 +1,81 @@
+import static org.qbicc.runtime.CNative.*;
+
+public class ReferenceAcrossCall {
+    @extern
+    public static native int putchar(int arg);
+
+    static Object sink;
+
+    static final class Pair {
+        final int id;
+        final Pair other;
+        final long[] values;
+
+        Pair(int id, Pair other) {
+            this.id = id;
+            this.other = other;
+            values = new long[] { id, -id, (long) id << 32 };
+        }
+
+        boolean check(int expected) {
+            return id == expected && values[0] == expected && values[1] == -expected && values[2] == (long) expected << 32;
+        }
+    }
+
+    interface Action {
+        Pair run(Pair pair);
+    }
+
+    static final class Churner implements Action {
+        public Pair run(Pair pair) {
+            churn(32);
+            return pair;
+        }
+    }
+
+    public static void main(String[] args) {
+        // locals in the caller which are only used after the callee collects
+        Pair local = new Pair(1, new Pair(2, null));
+        String text = String.valueOf(12345);
+        int[] array = { 3, 4, 5 };
+        churn(32);
+        putchar(local.check(1) && local.other.check(2) && text.equals("12345") && array[2] == 5 ? '_' : 'F');
+
+        // references in every frame of a recursion which collects at the bottom
+        putchar(nested(6) ? '_' : 'F');
+
+        // an argument which is returned by a virtual call which collects
+        Action action = new Churner();
+        Pair argument = new Pair(7, null);
+        Pair returned = action.run(argument);
+        putchar(returned == argument && returned.check(7) ? '_' : 'F');
+
+        // a reference which is live in a loop around the call
+        Pair kept = new Pair(8, local);
+        boolean ok = true;
+        for (int i = 0; i < 4; i ++) {
+            churn(8);
+            ok &= kept.check(8) && kept.other == local && local.check(1);
+        }
+        putchar(ok ? '_' : 'F');
+    }
+
+    static boolean nested(int depth) {
+        Pair mine = new Pair(depth, null);
+        boolean ok;
+        if (depth == 0) {
+            churn(32);
+            ok = true;
+        } else {
+            ok = nested(depth - 1);
+        }
+        return ok && mine.check(depth);
+    }
+
+    /* allocates the given number of MiB of garbage, which forces collections */
+    static void churn(int mib) {
+        for (int i = 0; i < mib * 1024; i ++) {
+            sink = new byte[1024];
+        }
+    }
+}
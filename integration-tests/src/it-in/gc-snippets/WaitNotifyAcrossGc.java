@@ -0,0 +1,95 @@
+import static org.qbicc.runtime.CNative.*;
+
+public class WaitNotifyAcrossGc {
+    @extern
+    public static native int putchar(int arg);
+
+    static Object sink;
+
+    static final class Box {
+        final int id;
+        final String name;
+        final int[] data;
+
+        Box(int id) {
+            this.id = id;
+            name = String.valueOf(id);
+            data = new int[] { id, id * 2, id * 3 };
+        }
+
+        boolean check(int expected) {
+            return id == expected && name.equals(String.valueOf(expected)) && data[0] == id && data[1] == id * 2 && data[2] == id * 3;
+        }
+    }
+
+    /* a one-slot buffer; whichever thread waits in it holds references on its stack while the other collects */
+    static final class Slot {
+        private Box box;
+
+        synchronized void put(Box box) throws InterruptedException {
+            while (this.box != null) {
+                wait();
+            }
+            this.box = box;
+            notifyAll();
+        }
+
+        synchronized Box take() throws InterruptedException {
+            while (box == null) {
+                wait();
+            }
+            Box result = box;
+            box = null;
+            notifyAll();
+            return result;
+        }
+    }
+
+    static final class Consumer extends Thread {
+        private final Slot slot;
+        boolean ok = true;
+
+        Consumer(Slot slot) {
+            this.slot = slot;
+        }
+
+        public void run() {
+            try {
+                Box previous = new Box(-1);
+                for (int i = 0; i < 5; i ++) {
+                    Box box = slot.take();
+                    ok &= box.check(i) && previous.check(i - 1);
+                    // collect while the producer is waiting for the slot to empty
+                    churn(32);
+                    ok &= box.check(i) && previous.check(i - 1);
+                    previous = box;
+                }
+            } catch (InterruptedException e) {
+                ok = false;
+            }
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        Slot slot = new Slot();
+        Consumer consumer = new Consumer(slot);
+        consumer.start();
+        for (int i = 0; i < 5; i ++) {
+            Box box = new Box(i);
+            // collect while the consumer is waiting for the slot to fill
+            churn(32);
+            slot.put(box);
+            putchar(box.check(i) ? '_' : 'F');
+        }
+        consumer.join();
+        putchar(' ');
+        putchar(consumer.ok ? '_' : 'F');
+    }
+
+    /* allocates the given number of MiB of garbage, which forces collections */
+    static void churn(int mib) {
+        for (int i = 0; i < mib * 1024; i ++) {
+            sink = new byte[1024];
+        }
+    }
+}
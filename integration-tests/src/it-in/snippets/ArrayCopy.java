@@ -0,0 +1,49 @@
+import static org.qbicc.runtime.CNative.*;
+
+public class ArrayCopy {
+    @extern
+    public static native int putchar(int arg);
+
+    static void testOverlap() {
+        int[] data = { 0, 1, 2, 3, 4, 5, 6, 7 };
+        System.arraycopy(data, 0, data, 2, 6);
+        putchar(data[2] == 0 && data[7] == 5 ? 'Y' : 'N');
+        System.arraycopy(data, 2, data, 0, 6);
+        putchar(data[0] == 0 && data[5] == 5 ? 'Y' : 'N');
+    }
+
+    static void testBounds() {
+        byte[] src = new byte[4];
+        byte[] dest = new byte[4];
+        try {
+            System.arraycopy(src, 2, dest, 0, 3);
+            putchar('N');
+        } catch (ArrayIndexOutOfBoundsException e) {
+            putchar('Y');
+        }
+    }
+
+    static void testStoreCheck() {
+        Object[] src = { "a", "b", Integer.valueOf(1), "c" };
+        String[] dest = new String[4];
+        try {
+            System.arraycopy(src, 0, dest, 0, 4);
+            putchar('N');
+        } catch (ArrayStoreException e) {
+            putchar(dest[0] == src[0] && dest[1] == src[1] && dest[2] == null ? 'Y' : 'N');
+        }
+    }
+
+    static void testGeneric(Object src, Object dest) {
+        System.arraycopy(src, 1, dest, 0, 2);
+        putchar(((char[]) dest)[0] == 'b' && ((char[]) dest)[1] == 'c' ? 'Y' : 'N');
+    }
+
+    public static void main(String[] args) {
+        testOverlap();
+        testBounds();
+        testStoreCheck();
+        testGeneric(new char[] { 'a', 'b', 'c' }, new char[2]);
+        putchar('\n');
+    }
+}
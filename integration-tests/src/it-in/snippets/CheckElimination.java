@@ -0,0 +1,85 @@
+import static org.qbicc.runtime.CNative.*;
+
+public class CheckElimination {
+    @extern
+    public static native int putchar(int arg);
+
+    public static void main(String[] args) {
+        int[] a = new int[] { 1, 2, 3, 4 };
+
+        putchar(sum(a) == 10 ? '_' : 'F');
+        putchar(sumAfterLengthTest(a) == 1 ? '_' : 'F');
+        putchar(' ');
+
+        // the checks which cannot be proven redundant must still fail
+        try {
+            sumInclusive(a);
+            putchar('F');
+        } catch (ArrayIndexOutOfBoundsException e) {
+            putchar('_');
+        }
+        try {
+            sum(null);
+            putchar('F');
+        } catch (NullPointerException e) {
+            putchar('_');
+        }
+        try {
+            divideAll(a, 0);
+            putchar('F');
+        } catch (ArithmeticException e) {
+            putchar('_');
+        }
+        putchar(' ');
+
+        // NaN is not equal to itself, so comparisons of a floating point value with itself must not be folded
+        double zero = a[0] - 1;
+        double nan = zero / zero;
+        putchar(Double.isNaN(0.0 / 0.0) ? '_' : 'F');
+        putchar(Double.isNaN(nan) ? '_' : 'F');
+        putchar(Float.isNaN((float) nan) ? '_' : 'F');
+        putchar(Double.isNaN(zero) ? 'F' : '_');
+        putchar(isSelfEqual(nan) ? 'F' : '_');
+        putchar(isSelfLessOrEqual(nan) ? 'F' : '_');
+        putchar(isSelfEqual(zero) ? '_' : 'F');
+    }
+
+    static boolean isSelfEqual(double d) {
+        return d == d;
+    }
+
+    static boolean isSelfLessOrEqual(double d) {
+        return d <= d;
+    }
+
+    static int sum(int[] a) {
+        int total = 0;
+        for (int i = 0; i < a.length; i ++) {
+            total += a[i];
+        }
+        return total;
+    }
+
+    static int sumAfterLengthTest(int[] a) {
+        if (a.length > 0) {
+            return a[0];
+        }
+        return 0;
+    }
+
+    static int sumInclusive(int[] a) {
+        int total = 0;
+        for (int i = 0; i <= a.length; i ++) {
+            total += a[i];
+        }
+        return total;
+    }
+
+    static int divideAll(int[] a, int d) {
+        int total = 0;
+        for (int i = 0; i < a.length; i ++) {
+            total += a[i] / d;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,78 @@
+import static org.qbicc.runtime.CNative.*;
+
+public class EscapeAnalysis {
+    @extern
+    public static native int putchar(int arg);
+
+    static Point escaped;
+
+    static final class Point {
+        int x;
+        int y;
+
+        Point(int x, int y) {
+            this.x = x;
+            this.y = y;
+        }
+
+        int sum() {
+            return x + y;
+        }
+    }
+
+    static final class Box {
+        int value;
+    }
+
+    public static void main(String[] args) {
+        scalarReplaced();
+        putchar(' ');
+
+        stackAllocatedInLoop();
+        putchar(' ');
+
+        passedToCallee();
+        putchar(' ');
+
+        escapesToStatic();
+    }
+
+    static void scalarReplaced() {
+        Box box = new Box();
+        putchar(box.value == 0 ? '_' : 'F');
+        box.value = 7;
+        putchar(box.value == 7 ? '_' : 'F');
+        // the constructor only stores its parameters, so the point is replaced by them
+        Point p = new Point(3, 4);
+        putchar(p.x == 3 && p.y == 4 ? '_' : 'F');
+    }
+
+    static void stackAllocatedInLoop() {
+        int total = 0;
+        for (int i = 0; i < 10; i ++) {
+            Point p = new Point(i, i);
+            total += p.sum();
+        }
+        putchar(total == 90 ? '_' : 'F');
+    }
+
+    static void passedToCallee() {
+        Point p = new Point(3, 4);
+        putchar(lengthSquared(p) == 25 ? '_' : 'F');
+    }
+
+    // the point is passed as an argument, so it cannot be scalar replaced in the caller
+    static int lengthSquared(Point p) {
+        return p.x * p.x + p.y * p.y;
+    }
+
+    static void escapesToStatic() {
+        for (int i = 0; i < 2; i ++) {
+            Point p = new Point(i, 1);
+            if (i == 0) {
+                escaped = p;
+            }
+        }
+        putchar(escaped.x == 0 ? '_' : 'F');
+    }
+}
@@ -0,0 +1,122 @@
+import static org.qbicc.runtime.CNative.*;
+
+public class InitCheckElimination {
+    @extern
+    public static native int putchar(int arg);
+
+    static class A {
+        static int value;
+        static {
+            putchar('A');
+            value = 1;
+        }
+    }
+
+    static class B {
+        static int value;
+        static {
+            putchar('B');
+            value = 2;
+        }
+    }
+
+    static class C {
+        static int value;
+        static {
+            putchar('C');
+            value = 3;
+        }
+    }
+
+    static class D {
+        static int value;
+        static {
+            putchar('D');
+            value = 4;
+        }
+    }
+
+    static class E {
+        static int value;
+        static {
+            putchar('E');
+            value = 5;
+        }
+    }
+
+    public static void main(String[] args) {
+        // the only caller initializes A, so the check for A in the callee is redundant, but not the one for B
+        putchar('1');
+        putchar(readA() == 4 ? '_' : 'F');
+        putchar(' ');
+
+        // one caller initializes C before the call and one does not, so the check in the callee must be kept
+        putchar('2');
+        putchar('[');
+        int c = readC();
+        putchar(']');
+        putchar(c + readCAfterC() == 9 ? '_' : 'F');
+        putchar(' ');
+
+        // a recursive call does not initialize D before recursing, so the check must be kept
+        putchar('3');
+        putchar('[');
+        int d = countDown(3);
+        putchar(']');
+        putchar(d == 4 ? '_' : 'F');
+        putchar(' ');
+
+        // mutual recursion which is entered from a caller which initialized E and from one which did not
+        putchar('4');
+        putchar('[');
+        int e = even(4);
+        putchar(']');
+        putchar(e + evenAfterE() == 10 ? '_' : 'F');
+        putchar(' ');
+
+        // each initializer ran exactly once, and its side effects are visible
+        putchar(A.value + B.value + C.value + D.value + E.value == 15 ? '_' : 'F');
+    }
+
+    static int readA() {
+        int a = A.value;
+        return a + readAAndB();
+    }
+
+    static int readAAndB() {
+        return A.value + B.value;
+    }
+
+    static int readC() {
+        return C.value;
+    }
+
+    static int readCAfterC() {
+        int c = C.value;
+        return c + readC();
+    }
+
+    static int countDown(int n) {
+        if (n == 0) {
+            return D.value;
+        }
+        return countDown(n - 1);
+    }
+
+    static int even(int n) {
+        if (n == 0) {
+            return 0;
+        }
+        return odd(n - 1);
+    }
+
+    static int odd(int n) {
+        int e = E.value;
+        return n == 0 ? e : even(n - 1);
+    }
+
+    static int evenAfterE() {
+        int e = E.value;
+        return e - even(2) + odd(0);
+    }
+}
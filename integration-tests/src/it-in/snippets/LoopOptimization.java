@@ -0,0 +1,58 @@
+import static org.qbicc.runtime.CNative.*;
+
+public class LoopOptimization {
+    @extern
+    public static native int putchar(int arg);
+
+    static class Box {
+        int value;
+
+        Box(int value) {
+            this.value = value;
+        }
+    }
+
+    static class Holder {
+        static Box box = new Box(Integer.parseInt("3"));
+    }
+
+    public static void main(String[] args) {
+        int[] a = new int[] { 1, 2, 3, 4 };
+
+        // the branch on the invariant flag is unswitched
+        putchar(sumOrCount(a, false) == 10 ? '_' : 'F');
+        putchar(sumOrCount(a, true) == 4 ? '_' : 'F');
+        putchar(sumOrCount(new int[0], false) == 0 ? '_' : 'F');
+        putchar(' ');
+
+        // the first iteration of the loop is peeled
+        putchar(scale(a) == 30 ? '_' : 'F');
+        Holder.box = null;
+        try {
+            scale(a);
+            putchar('F');
+        } catch (NullPointerException e) {
+            putchar('_');
+        }
+    }
+
+    static int sumOrCount(int[] a, boolean count) {
+        int total = 0;
+        for (int i = 0; i < a.length; i ++) {
+            if (count) {
+                total ++;
+            } else {
+                total += a[i];
+            }
+        }
+        return total;
+    }
+
+    static int scale(int[] a) {
+        int total = 0;
+        for (int i = 0; i < a.length; i ++) {
+            total += a[i] * Holder.box.value;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,144 @@
+import static org.qbicc.runtime.CNative.*;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class MemoryForwarding {
+    @extern
+    public static native int putchar(int arg);
+
+    static final class Cell {
+        int value;
+        int other;
+        volatile boolean flag;
+    }
+
+    // keep the cells on the heap, so that their fields are not scalar replaced
+    static Cell cell = new Cell();
+    static Cell otherCell = new Cell();
+    static final AtomicInteger counter = new AtomicInteger();
+
+    public static void main(String[] args) throws InterruptedException {
+        putchar(diamond(cell, true) == 3 ? '_' : 'F');
+        putchar(diamond(cell, false) == 4 ? '_' : 'F');
+        putchar(diamondPhi(cell, true) == 10 ? '_' : 'F');
+        putchar(diamondPhi(cell, false) == 20 ? '_' : 'F');
+        putchar(' ');
+
+        putchar(loopClobbered(cell, 5) == 10 ? '_' : 'F');
+        putchar(loopInvariant(cell, 5) == 35 ? '_' : 'F');
+        putchar(' ');
+
+        putchar(acrossCall(cell) == 2 ? '_' : 'F');
+        putchar(aliasedStore(cell, cell) == 5 ? '_' : 'F');
+        putchar(aliasedStore(cell, otherCell) == 1 ? '_' : 'F');
+        int[] array = new int[1];
+        putchar(aliasedElement(array, array) == 2 ? '_' : 'F');
+        putchar(' ');
+
+        putchar(spinOnVolatile(cell) ? '_' : 'F');
+        putchar(spinOnAtomic() ? '_' : 'F');
+    }
+
+    static int diamond(Cell c, boolean b) {
+        c.value = 1;
+        if (b) {
+            c.other = 2;
+        } else {
+            c.other = 3;
+        }
+        // value is known on both edges, other is known on each edge with a different value
+        return c.value + c.other;
+    }
+
+    static int diamondPhi(Cell c, boolean b) {
+        if (b) {
+            c.value = 10;
+        } else {
+            c.value = 20;
+        }
+        return c.value;
+    }
+
+    static int loopClobbered(Cell c, int n) {
+        c.value = 0;
+        for (int i = 0; i < n; i ++) {
+            // the value stored before the loop must not reach this load along the back edge
+            c.value = c.value + i;
+        }
+        return c.value;
+    }
+
+    static int loopInvariant(Cell c, int n) {
+        c.other = 7;
+        int total = 0;
+        for (int i = 0; i < n; i ++) {
+            total += c.other;
+        }
+        return total;
+    }
+
+    static int acrossCall(Cell c) {
+        c.value = 1;
+        bump(c);
+        return c.value;
+    }
+
+    static void bump(Cell c) {
+        c.value ++;
+    }
+
+    static int aliasedStore(Cell a, Cell b) {
+        a.value = 1;
+        b.value = 5;
+        return a.value;
+    }
+
+    static int aliasedElement(int[] a, int[] b) {
+        a[0] = 1;
+        b[0] = 2;
+        return a[0];
+    }
+
+    /* each read of the flag must be a new load, or the loop never ends */
+    static boolean spinOnVolatile(Cell c) throws InterruptedException {
+        c.flag = false;
+        Thread setter = new Setter(c);
+        setter.start();
+        while (! c.flag) {
+            Thread.onSpinWait();
+        }
+        setter.join();
+        return true;
+    }
+
+    static boolean spinOnAtomic() throws InterruptedException {
+        Thread incrementer = new Incrementer();
+        incrementer.start();
+        int seen = counter.get();
+        while (counter.get() < 10) {
+            Thread.onSpinWait();
+        }
+        incrementer.join();
+        return seen <= 10 && counter.get() == 10;
+    }
+
+    static final class Setter extends Thread {
+        private final Cell cell;
+
+        Setter(Cell cell) {
+            this.cell = cell;
+        }
+
+        public void run() {
+            cell.flag = true;
+        }
+    }
+
+    static final class Incrementer extends Thread {
+        public void run() {
+            for (int i = 0; i < 10; i ++) {
+                counter.incrementAndGet();
+            }
+        }
+    }
+}
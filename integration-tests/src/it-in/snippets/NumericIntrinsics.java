@@ -0,0 +1,94 @@
+import static org.qbicc.runtime.CNative.*;
+
+public class NumericIntrinsics {
+    @extern
+    public static native int putchar(int arg);
+
+    static final int ITERATIONS = 100000;
+
+    static int slowLeadingZeros(long v, int bits) {
+        int n = 0;
+        for (int i = bits - 1; i >= 0 && (v & (1L << i)) == 0; i--) {
+            n++;
+        }
+        return n;
+    }
+
+    static int slowTrailingZeros(long v, int bits) {
+        int n = 0;
+        for (int i = 0; i < bits && (v & (1L << i)) == 0; i++) {
+            n++;
+        }
+        return n;
+    }
+
+    static int slowBitCount(long v) {
+        int n = 0;
+        for (int i = 0; i < 64; i++) {
+            n += (int) (v >>> i) & 1;
+        }
+        return n;
+    }
+
+    static void testBits() {
+        boolean ok = true;
+        int x = 0x12345678;
+        for (int i = 0; i < ITERATIONS; i++) {
+            x = x * 1103515245 + 12345;
+            int v = x >>> (i & 31);
+            long lv = ((long) x << 32 | i) >>> (i & 63);
+            ok &= Integer.numberOfLeadingZeros(v) == slowLeadingZeros(v & 0xFFFFFFFFL, 32);
+            ok &= Integer.numberOfTrailingZeros(v) == slowTrailingZeros(v & 0xFFFFFFFFL, 32);
+            ok &= Long.numberOfLeadingZeros(lv) == slowLeadingZeros(lv, 64);
+            ok &= Long.numberOfTrailingZeros(lv) == slowTrailingZeros(lv, 64);
+            ok &= Integer.bitCount(v) == slowBitCount(v & 0xFFFFFFFFL);
+            ok &= Long.bitCount(lv) == slowBitCount(lv);
+        }
+        putchar(ok ? 'Y' : 'N');
+    }
+
+    static void testBytesAndRotates() {
+        boolean ok = Integer.reverseBytes(0x01020304) == 0x04030201;
+        ok &= Long.reverseBytes(0x0102030405060708L) == 0x0807060504030201L;
+        ok &= Short.reverseBytes((short) 0x0102) == (short) 0x0201;
+        ok &= Character.reverseBytes((char) 0xAB12) == (char) 0x12AB;
+        ok &= Integer.reverse(1) == Integer.MIN_VALUE;
+        ok &= Long.reverse(1L) == Long.MIN_VALUE;
+        int r = 0x80000001;
+        for (int i = 0; i < ITERATIONS; i++) {
+            int d = i - 50000;
+            ok &= Integer.rotateLeft(r, d) == (r << d | r >>> -d);
+            ok &= Integer.rotateRight(r, d) == (r >>> d | r << -d);
+            ok &= Long.rotateLeft(0x8000000000000001L, d) == (0x8000000000000001L << d | 0x8000000000000001L >>> -d);
+        }
+        putchar(ok ? 'Y' : 'N');
+    }
+
+    static void testFloatingPoint() {
+        boolean ok = true;
+        double sum = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            double sq = Math.sqrt((double) i * i);
+            ok &= sq == i;
+            sum = Math.fma(sq, 0.5, sum);
+        }
+        ok &= sum == (double) (ITERATIONS - 1) * ITERATIONS / 4;
+        ok &= Math.floor(-1.5) == -2.0 && Math.ceil(-1.5) == -1.0;
+        ok &= Math.rint(2.5) == 2.0 && Math.rint(3.5) == 4.0;
+        ok &= Math.abs(-0.0f) == 0.0f && 1 / Math.abs(-0.0) > 0;
+        ok &= Math.copySign(3.0, -0.0) == -3.0;
+        // a NaN sign is positive for StrictMath, whatever its sign bit
+        ok &= StrictMath.copySign(3.0, Double.longBitsToDouble(0xfff8000000000000L)) == 3.0;
+        ok &= StrictMath.copySign(3.0f, Float.intBitsToFloat(0xffc00000)) == 3.0f;
+        ok &= StrictMath.sqrt(2.0) == Math.sqrt(2.0);
+        ok &= Math.fma(2.0f, 3.0f, 1.0f) == 7.0f;
+        putchar(ok ? 'Y' : 'N');
+    }
+
+    public static void main(String[] args) {
+        testBits();
+        testBytesAndRotates();
+        testFloatingPoint();
+        putchar('\n');
+    }
+}
@@ -0,0 +1,78 @@
+import static org.qbicc.runtime.CNative.*;
+
+public class StackAllocationZeroing {
+    @extern
+    public static native int putchar(int arg);
+
+    /* stores a only on some paths, so a must still be zeroed */
+    static final class Conditional {
+        int a;
+        int b;
+
+        Conditional(boolean set, int v) {
+            if (set) {
+                a = v;
+            }
+            b = v;
+        }
+    }
+
+    /* reads a before storing it, so a must still be zeroed */
+    static final class ReadFirst {
+        int a;
+        int b;
+
+        ReadFirst(int v) {
+            b = a + v;
+            a = v;
+        }
+    }
+
+    /* passes this out before storing its fields, so they must still be zeroed */
+    static final class PassesThis {
+        int a;
+        int b;
+        int observed;
+
+        PassesThis(int v) {
+            observed = peek(this);
+            a = v;
+            b = v;
+        }
+    }
+
+    static int peek(PassesThis p) {
+        return p.a + p.b;
+    }
+
+    public static void main(String[] args) {
+        // each loop leaves garbage in its object, so a reused slot which is not zeroed shows up in the next iteration
+        boolean ok = true;
+        for (int i = 0; i < 4; i ++) {
+            Conditional c = new Conditional(i % 2 == 0, i + 1);
+            ok &= c.a == (i % 2 == 0 ? i + 1 : 0) && c.b == i + 1;
+            c.a = 99;
+            c.b = 99;
+        }
+        putchar(ok ? '_' : 'F');
+
+        ok = true;
+        for (int i = 0; i < 4; i ++) {
+            ReadFirst r = new ReadFirst(i + 1);
+            ok &= r.a == i + 1 && r.b == i + 1;
+            r.a = 99;
+            r.b = 99;
+        }
+        putchar(ok ? '_' : 'F');
+
+        ok = true;
+        for (int i = 0; i < 4; i ++) {
+            PassesThis p = new PassesThis(i + 1);
+            ok &= p.observed == 0 && p.a == i + 1;
+            p.a = 99;
+            p.b = 99;
+            p.observed = 99;
+        }
+        putchar(ok ? '_' : 'F');
+    }
+}
@@ -0,0 +1,78 @@
+import static org.qbicc.runtime.CNative.*;
+
+import java.util.Arrays;
+
+public class StringArrayIntrinsics {
+    @extern
+    public static native int putchar(int arg);
+
+    static String make(char c, int len) {
+        char[] chars = new char[len];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+
+    static void testStrings() {
+        String a = make('x', 1000) + "y";
+        String b = make('x', 1000) + "y";
+        String c = make('x', 1000) + "z";
+        boolean ok = a.equals(b) && ! a.equals(c) && ! a.equals(make('x', 1000));
+        ok &= a.hashCode() == b.hashCode() && a.hashCode() != c.hashCode();
+        int h = 0;
+        for (int i = 0; i < a.length(); i ++) {
+            h = 31 * h + a.charAt(i);
+        }
+        ok &= a.hashCode() == h;
+        ok &= a.indexOf('y') == 1000 && a.indexOf('y', 1001) == -1 && a.indexOf('x', 999) == 999 && a.indexOf(0x178) == -1;
+        ok &= a.compareTo(c) < 0 && c.compareTo(a) > 0 && a.compareTo(b) == 0;
+        putchar(ok ? 'Y' : 'N');
+    }
+
+    static void testFill() {
+        byte[] bytes = new byte[100];
+        Arrays.fill(bytes, 10, 20, (byte) 7);
+        boolean ok = bytes[9] == 0 && bytes[10] == 7 && bytes[19] == 7 && bytes[20] == 0;
+        int[] ints = new int[100];
+        Arrays.fill(ints, 3);
+        Arrays.fill(ints, 50, 100, 0);
+        ok &= ints[0] == 3 && ints[49] == 3 && ints[50] == 0 && ints[99] == 0;
+        boolean[] bools = new boolean[10];
+        Arrays.fill(bools, true);
+        ok &= bools[0] && bools[9];
+        try {
+            Arrays.fill(bytes, 20, 10, (byte) 1);
+            ok = false;
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            Arrays.fill(ints, 90, 101, 1);
+            ok = false;
+        } catch (ArrayIndexOutOfBoundsException e) {
+            // expected
+        }
+        putchar(ok ? 'Y' : 'N');
+    }
+
+    static void testMismatch() {
+        long[] a = new long[1000];
+        long[] b = new long[1000];
+        for (int i = 0; i < a.length; i ++) {
+            a[i] = b[i] = i * 31L;
+        }
+        boolean ok = Arrays.equals(a, b) && Arrays.mismatch(a, b) == -1;
+        b[777] = -1;
+        ok &= ! Arrays.equals(a, b) && Arrays.mismatch(a, b) == 777 && Arrays.compare(a, b) > 0;
+        char[] x = "hello, world".toCharArray();
+        char[] y = "hello, there".toCharArray();
+        ok &= Arrays.mismatch(x, y) == 7 && Arrays.equals(x, 0, 7, y, 0, 7);
+        putchar(ok ? 'Y' : 'N');
+    }
+
+    public static void main(String[] args) {
+        testStrings();
+        testFill();
+        testMismatch();
+        putchar('\n');
+    }
+}
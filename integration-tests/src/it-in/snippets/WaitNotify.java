@@ -0,0 +1,219 @@
+import static org.qbicc.runtime.CNative.*;
+
+public class WaitNotify {
+    @extern
+    public static native int putchar(int arg);
+
+    public static void main(String[] args) throws InterruptedException {
+        handOff();
+        putchar(' ');
+
+        notifyAll3();
+        putchar(' ');
+
+        timedWait();
+        putchar(' ');
+
+        notOwner();
+        putchar(' ');
+
+        nestedWait();
+        putchar(' ');
+
+        interruptedWait();
+    }
+
+    /* a one-slot buffer, which only works if wait and notify do */
+    static void handOff() throws InterruptedException {
+        Slot slot = new Slot();
+        Consumer consumer = new Consumer(slot);
+        consumer.start();
+        for (int i = 0; i < 10; i ++) {
+            slot.put(i);
+        }
+        consumer.join();
+    }
+
+    static final class Consumer extends Thread {
+        private final Slot slot;
+
+        Consumer(Slot slot) {
+            this.slot = slot;
+        }
+
+        public void run() {
+            for (int i = 0; i < 10; i ++) {
+                putchar('0' + slot.take());
+            }
+        }
+    }
+
+    static final class Slot {
+        private boolean full;
+        private int value;
+
+        synchronized void put(int value) throws InterruptedException {
+            while (full) {
+                wait();
+            }
+            this.value = value;
+            full = true;
+            notifyAll();
+        }
+
+        synchronized int take() {
+            while (! full) {
+                try {
+                    wait();
+                } catch (InterruptedException ignored) {
+                }
+            }
+            full = false;
+            notifyAll();
+            return value;
+        }
+    }
+
+    static final Object gate = new Object();
+    static int waiting;
+    static int released;
+    static boolean open;
+
+    static void notifyAll3() throws InterruptedException {
+        Thread[] threads = new Thread[3];
+        for (int i = 0; i < threads.length; i ++) {
+            threads[i] = new Waiter();
+            threads[i].start();
+        }
+        synchronized (gate) {
+            while (waiting < threads.length) {
+                gate.wait();
+            }
+            open = true;
+            gate.notifyAll();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        putchar('0' + released);
+    }
+
+    static final class Waiter extends Thread {
+        public void run() {
+            synchronized (gate) {
+                waiting ++;
+                gate.notifyAll();
+                while (! open) {
+                    try {
+                        gate.wait();
+                    } catch (InterruptedException ignored) {
+                    }
+                }
+                released ++;
+            }
+        }
+    }
+
+    static void timedWait() throws InterruptedException {
+        Object lock = new Object();
+        synchronized (lock) {
+            // nobody notifies, so this must time out
+            lock.wait(20);
+        }
+        putchar('T');
+    }
+
+    static void notOwner() throws InterruptedException {
+        Object lock = new Object();
+        try {
+            lock.wait();
+            putchar('F');
+        } catch (IllegalMonitorStateException e) {
+            putchar('I');
+        }
+        try {
+            lock.notify();
+            putchar('F');
+        } catch (IllegalMonitorStateException e) {
+            putchar('I');
+        }
+    }
+
+    /* waiting releases every level of a recursive lock, and restores it afterwards */
+    static void nestedWait() throws InterruptedException {
+        Object lock = new Object();
+        Notifier notifier = new Notifier(lock);
+        synchronized (lock) {
+            synchronized (lock) {
+                notifier.start();
+                lock.wait(10_000);
+            }
+            // still held once
+            lock.notify();
+        }
+        notifier.join();
+        putchar('R');
+    }
+
+    static final class Notifier extends Thread {
+        private final Object lock;
+
+        Notifier(Object lock) {
+            this.lock = lock;
+        }
+
+        public void run() {
+            synchronized (lock) {
+                lock.notify();
+            }
+        }
+    }
+
+    /* an interrupt ends a wait which nobody would ever notify, and one which has not started yet */
+    static void interruptedWait() throws InterruptedException {
+        Object lock = new Object();
+        Sleeper sleeper = new Sleeper(lock);
+        synchronized (lock) {
+            sleeper.start();
+            while (! sleeper.ready) {
+                lock.wait();
+            }
+        }
+        // the sleeper only releases the lock by waiting
+        sleeper.interrupt();
+        sleeper.join();
+        Thread.currentThread().interrupt();
+        synchronized (lock) {
+            try {
+                lock.wait();
+                putchar('F');
+            } catch (InterruptedException e) {
+                putchar(Thread.currentThread().isInterrupted() ? 'F' : 'P');
+            }
+        }
+    }
+
+    static final class Sleeper extends Thread {
+        private final Object lock;
+        boolean ready;
+
+        Sleeper(Object lock) {
+            this.lock = lock;
+        }
+
+        public void run() {
+            synchronized (lock) {
+                ready = true;
+                lock.notify();
+                try {
+                    for (;;) {
+                        lock.wait();
+                    }
+                } catch (InterruptedException e) {
+                    // the interrupt status is cleared when the exception is thrown
+                    putchar(isInterrupted() ? 'F' : 'X');
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package org.qbicc.tests.integration;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ArgumentsSource;
+import org.qbicc.tests.integration.utils.CompressedRefsSnippetsJUnitProvider;
+import org.qbicc.tests.integration.utils.SnippetsJUnitProvider;
+
+/**
+ * All snippets are compiled with compressed references and run like they
+ * are without them, along with the snippets of the compressed-refs-snippets
+ * directory, which check the compressed encoding itself.
+ */
+@Tag("compressed-refs-snippets")
+public class CompressedRefsSnippetsTest {
+
+    @BeforeAll
+    static void setUpHandler() {
+        SnippetsTest.setUpHandler();
+    }
+
+    @ParameterizedTest
+    @ArgumentsSource(SnippetsJUnitProvider.class)
+    void compileAndRunSnippet(final Path snippet, final Pattern outputPattern) throws IOException, InterruptedException {
+        SnippetsTest.compileAndRun("compressed-refs/snippets", snippet, outputPattern, builder -> builder.setCompressedRefs(true));
+    }
+
+    @ParameterizedTest
+    @ArgumentsSource(CompressedRefsSnippetsJUnitProvider.class)
+    void compileAndRunCompressedRefsSnippet(final Path snippet, final Pattern outputPattern) throws IOException, InterruptedException {
+        SnippetsTest.compileAndRun("compressed-refs/compressed-refs-snippets", snippet, outputPattern, builder -> builder.setCompressedRefs(true));
+    }
+}
@@ -0,0 +1,43 @@
+package org.qbicc.tests.integration;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ArgumentsSource;
+import org.qbicc.tests.integration.utils.FieldLayoutSnippetsJUnitProvider;
+import org.qbicc.tests.integration.utils.SnippetsJUnitProvider;
+
+/**
+ * All snippets are compiled with unread fields omitted and the remaining
+ * fields packed and ordered by access frequency, and run like they are
+ * with the default layout, along with the snippets of the
+ * field-layout-snippets directory, which check the layout itself.
+ */
+@Tag("field-layout-snippets")
+public class FieldLayoutSnippetsTest {
+
+    @BeforeAll
+    static void setUpHandler() {
+        SnippetsTest.setUpHandler();
+    }
+
+    @ParameterizedTest
+    @ArgumentsSource(SnippetsJUnitProvider.class)
+    void compileAndRunSnippet(final Path snippet, final Pattern outputPattern) throws IOException, InterruptedException {
+        SnippetsTest.compileAndRun("field-layout/snippets", snippet, outputPattern, builder -> builder
+            .setOptFieldLayout(true)
+            .setOptHotFields(true));
+    }
+
+    @ParameterizedTest
+    @ArgumentsSource(FieldLayoutSnippetsJUnitProvider.class)
+    void compileAndRunFieldLayoutSnippet(final Path snippet, final Pattern outputPattern) throws IOException, InterruptedException {
+        SnippetsTest.compileAndRun("field-layout/field-layout-snippets", snippet, outputPattern, builder -> builder
+            .setOptFieldLayout(true)
+            .setOptHotFields(true));
+    }
+}
@@ -0,0 +1,38 @@
+package org.qbicc.tests.integration;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ArgumentsSource;
+import org.qbicc.tests.integration.utils.GcSnippetsJUnitProvider;
+
+/**
+ * All .java classes found in the gc-snippets directory are compiled with
+ * each copying collector and run like the other snippets.  Each snippet
+ * allocates enough to force several collections, and checks that the
+ * objects it keeps alive survive them.
+ */
+@Tag("gc-snippets")
+public class GcSnippetsTest {
+
+    @BeforeAll
+    static void setUpHandler() {
+        SnippetsTest.setUpHandler();
+    }
+
+    @ParameterizedTest
+    @ArgumentsSource(GcSnippetsJUnitProvider.class)
+    void compileAndRunSemiSpace(final Path snippet, final Pattern outputPattern) throws IOException, InterruptedException {
+        SnippetsTest.compileAndRun("gc-snippets/semispace", snippet, outputPattern, builder -> builder.setGc("semispace"));
+    }
+
+    @ParameterizedTest
+    @ArgumentsSource(GcSnippetsJUnitProvider.class)
+    void compileAndRunGenerational(final Path snippet, final Pattern outputPattern) throws IOException, InterruptedException {
+        SnippetsTest.compileAndRun("gc-snippets/generational", snippet, outputPattern, builder -> builder.setGc("generational"));
+    }
+}
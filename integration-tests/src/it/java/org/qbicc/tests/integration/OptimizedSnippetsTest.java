@@ -0,0 +1,34 @@
+package org.qbicc.tests.integration;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ArgumentsSource;
+import org.qbicc.tests.integration.utils.SnippetsJUnitProvider;
+
+/**
+ * All snippets are compiled with the optimizations which are off by
+ * default, and run like they are without them.
+ */
+@Tag("optimized-snippets")
+public class OptimizedSnippetsTest {
+
+    @BeforeAll
+    static void setUpHandler() {
+        SnippetsTest.setUpHandler();
+    }
+
+    @ParameterizedTest
+    @ArgumentsSource(SnippetsJUnitProvider.class)
+    void compileAndRunSnippet(final Path snippet, final Pattern outputPattern) throws IOException, InterruptedException {
+        SnippetsTest.compileAndRun("optimized/snippets", snippet, outputPattern, builder -> builder
+            .setOptEscapeAnalysis(true)
+            .setOptCheckElimination(true)
+            .setOptInitChecks(true)
+            .setOptLoops(true));
+    }
+}
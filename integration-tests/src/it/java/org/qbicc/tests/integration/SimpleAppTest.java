@@ -1,11 +1,18 @@
 package org.qbicc.tests.integration;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Handler;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.jboss.logmanager.formatters.PatternFormatter;
 import org.jboss.logmanager.handlers.ConsoleHandler;
@@ -67,6 +74,49 @@ public class SimpleAppTest {
         assertEquals("hello world", stdOut.toString().trim());
     }
 
+    @Test
+    public void helloWorldBitcode() throws IOException, InterruptedException {
+        String appName = "helloworld";
+        Path appPath = Path.of(TestConstants.BASE_DIR).resolve("examples").resolve(appName);
+        Path targetPath = Path.of(".").resolve("target");
+        Path baseOutputPath = targetPath.resolve("it").resolve(appName + "-bitcode");
+        Path outputPath = baseOutputPath.resolve("classes");
+        Path nativeOutputPath = baseOutputPath.resolve("native");
+        Path source = appPath.resolve("hello/world/Main.java");
+        String mainClass = "hello.world.Main";
+        Path outputExecutable = nativeOutputPath.resolve("a.out");
+
+        // Build via javac
+        boolean compilationResult = Javac.compile(outputPath, source, LOGGER);
+
+        assertTrue(compilationResult, "Compilation should succeed.");
+
+        DiagnosticContext diagnosticContext = Qbicc.build(outputPath, nativeOutputPath, mainClass, LOGGER, builder -> builder
+            .setLlvmBitcode(true)
+            .setKeepIr(true));
+
+        assertEquals(0, diagnosticContext.errors(), "Native image creation should generate no errors.");
+
+        // every module written by qbicc must be accepted by the LLVM tools as it is
+        List<Path> modules;
+        try (Stream<Path> stream = Files.walk(nativeOutputPath)) {
+            modules = stream.filter(p -> p.toString().endsWith(".bc") && ! p.toString().endsWith("_opt.bc")).collect(Collectors.toList());
+        }
+        assertFalse(modules.isEmpty(), "Bitcode modules should have been written.");
+        for (Path module : modules) {
+            String disassembly = runTool("llvm-dis", "-o", "-", module.toString());
+            assertTrue(disassembly.contains("define "), "Module " + module + " should define functions.");
+            runTool("llvm-bcanalyzer", "-verify", module.toString());
+        }
+
+        StringBuilder stdOut = new StringBuilder();
+        StringBuilder stdErr = new StringBuilder();
+        NativeExecutable.run(appName, outputExecutable, stdOut, stdErr, LOGGER);
+
+        assertTrue(stdErr.toString().isBlank(), "Native image execution should produce no error. " + stdErr);
+        assertEquals("hello world", stdOut.toString().trim());
+    }
+
     @Test
     public void branches() throws IOException {
         String appName = "branches";
@@ -96,4 +146,45 @@ public class SimpleAppTest {
         assertEquals("1 1", stdOut.toString().trim());
     }
 
+    @Test
+    public void echo() throws IOException {
+        String appName = "echo";
+        Path appPath = Path.of(".").resolve("src/it-in/apps").resolve(appName);
+        Path targetPath = Path.of(".").resolve("target");
+        Path baseOutputPath = targetPath.resolve("it").resolve(appName);
+        Path outputPath = baseOutputPath.resolve("classes");
+        Path nativeOutputPath = baseOutputPath.resolve("native");
+        Path source = appPath.resolve("mypackage/Main.java");
+        String mainClass = "mypackage.Main";
+        Path outputExecutable = nativeOutputPath.resolve("a.out");
+
+        // Build via javac
+        boolean compilationResult = Javac.compile(outputPath, source, LOGGER);
+
+        assertTrue(compilationResult, "Compilation should succeed.");
+
+        DiagnosticContext diagnosticContext = Qbicc.build(outputPath, nativeOutputPath, mainClass, LOGGER);
+
+        assertEquals(0, diagnosticContext.errors(), "Native image creation should generate no errors.");
+
+        StringBuilder stdOut = new StringBuilder();
+        StringBuilder stdErr = new StringBuilder();
+        NativeExecutable.run(appName, outputExecutable, stdOut, stdErr, LOGGER);
+
+        assertTrue(stdErr.toString().isBlank(), "Native image execution should produce no error. " + stdErr);
+        // the remaining lines hold the timings, which vary from run to run
+        String[] lines = stdOut.toString().trim().split("\\R");
+        assertEquals("echoed 10000 messages", lines[0]);
+        for (int i = 1; i < lines.length; i ++) {
+            LOGGER.info(lines[i]);
+        }
+    }
+
+    private static String runTool(String... command) throws IOException, InterruptedException {
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        assertTrue(process.waitFor(60, TimeUnit.SECONDS), command[0] + " should finish.");
+        assertEquals(0, process.exitValue(), command[0] + " failed on " + command[command.length - 1] + ":\n" + output);
+        return output;
+    }
 }
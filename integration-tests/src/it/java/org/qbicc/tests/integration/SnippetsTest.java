@@ -5,6 +5,7 @@ import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.function.Consumer;
 import java.util.logging.Handler;
 import java.util.regex.Pattern;
 
@@ -13,6 +14,7 @@ import org.jboss.logmanager.handlers.ConsoleHandler;
 import org.junit.jupiter.api.BeforeAll;
 import org.qbicc.context.DiagnosticContext;
 import org.qbicc.machine.tool.ToolExecutionFailureException;
+import org.qbicc.main.Main;
 import org.qbicc.tests.integration.utils.Javac;
 import org.qbicc.tests.integration.utils.NativeExecutable;
 import org.qbicc.tests.integration.utils.Qbicc;
@@ -46,10 +48,14 @@ public class SnippetsTest {
     @ParameterizedTest
     @ArgumentsSource(SnippetsJUnitProvider.class)
     void compileAndRunSnippet(final Path snippet, final Pattern outputPattern) throws IOException, InterruptedException {
+        compileAndRun("snippets", snippet, outputPattern, builder -> {});
+    }
+
+    static void compileAndRun(final String variant, final Path snippet, final Pattern outputPattern, final Consumer<Main.Builder> options) throws IOException, InterruptedException {
         final String snippetName = snippet.getFileName().toString().replace(".java", "");
 
         Path targetPath = Path.of(".").resolve("target");
-        Path baseOutputPath = targetPath.resolve("it/snippets").resolve(snippetName);
+        Path baseOutputPath = targetPath.resolve("it").resolve(variant).resolve(snippetName);
         Path classOutputPath = baseOutputPath.resolve("classes");
         Path nativeOutputPath = baseOutputPath.resolve("native");
         Path outputExecutable = nativeOutputPath.resolve("a.out");
@@ -59,7 +65,7 @@ public class SnippetsTest {
 
         assertTrue(compilationResult, "Compilation should succeed.");
 
-        DiagnosticContext diagnosticContext = Qbicc.build(classOutputPath, nativeOutputPath, snippetName, LOGGER);
+        DiagnosticContext diagnosticContext = Qbicc.build(classOutputPath, nativeOutputPath, snippetName, LOGGER, options);
 
         assertEquals(0, diagnosticContext.errors(), "Native image creation should generate no errors.");
 
@@ -0,0 +1,11 @@
+package org.qbicc.tests.integration.utils;
+
+/**
+ * Scans the integration-tests/compressed-refs-snippets directory, which holds
+ * the snippets that only pass with compressed references.
+ */
+public class CompressedRefsSnippetsJUnitProvider extends SnippetsJUnitProvider {
+    public CompressedRefsSnippetsJUnitProvider() {
+        super("compressed-refs-snippets");
+    }
+}
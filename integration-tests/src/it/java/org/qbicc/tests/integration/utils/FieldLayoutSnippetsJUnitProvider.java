@@ -0,0 +1,11 @@
+package org.qbicc.tests.integration.utils;
+
+/**
+ * Scans the integration-tests/field-layout-snippets directory, which holds
+ * the snippets that check the optimized field layout itself.
+ */
+public class FieldLayoutSnippetsJUnitProvider extends SnippetsJUnitProvider {
+    public FieldLayoutSnippetsJUnitProvider() {
+        super("field-layout-snippets");
+    }
+}
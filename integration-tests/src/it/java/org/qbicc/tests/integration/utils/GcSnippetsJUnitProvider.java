@@ -0,0 +1,11 @@
+package org.qbicc.tests.integration.utils;
+
+/**
+ * Scans the integration-tests/gc-snippets directory, which holds the snippets
+ * that exercise the collectors.
+ */
+public class GcSnippetsJUnitProvider extends SnippetsJUnitProvider {
+    public GcSnippetsJUnitProvider() {
+        super("gc-snippets");
+    }
+}
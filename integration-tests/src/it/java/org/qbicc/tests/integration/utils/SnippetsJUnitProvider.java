@@ -22,8 +22,8 @@ import static org.qbicc.tests.integration.utils.TestConstants.BASE_DIR;
 import static org.junit.jupiter.api.Assertions.fail;
 
 /**
- * Scans integration-tests/snippets directory recursively looking for
- * all .java files. Each .java file must have a corresponding .pattern file
+ * Scans integration-tests/snippets directory (or another directory of
+ * snippets) recursively looking for all .java files. Each .java file must have a corresponding .pattern file
  * with the expected output of the .java program.
  * The content of the .pattern file is compiled into java.util.regex.Pattern.
  */
@@ -33,8 +33,12 @@ public class SnippetsJUnitProvider implements ArgumentsProvider {
     private final List<Arguments> snippets = new ArrayList<>();
 
     public SnippetsJUnitProvider() {
+        this("snippets");
+    }
+
+    protected SnippetsJUnitProvider(String directory) {
         final Path rootPath = FileSystems.getDefault()
-            .getPath(BASE_DIR, "integration-tests", "src", "it-in", "snippets");
+            .getPath(BASE_DIR, "integration-tests", "src", "it-in", directory);
         try {
             Files.walkFileTree(rootPath, new SimpleFileVisitor<>() {
                 @Override
@@ -1897,11 +1897,13 @@ final strictfp class Frame implements ActionVisitor<VmThreadImpl, Void>, ValueVi
     public Object visit(VmThreadImpl param, OffsetOfField node) {
         FieldElement fieldElement = node.getFieldElement();
         CompilationContext ctxt = element.getEnclosingType().getContext().getCompilationContext();
-        Layout layout = Layout.get(ctxt);
+        Layout layout = Layout.getForInterpreter(ctxt);
         LayoutInfo layoutInfo;
         if (fieldElement.isStatic()) {
             layoutInfo = layout.getStaticLayoutInfo(fieldElement.getEnclosingType());
         } else {
+            // the offset may be retained in the initial heap
+            fieldElement.setModifierFlags(ClassFile.I_ACC_PINNED);
             layoutInfo = layout.getInstanceLayoutInfo(fieldElement.getEnclosingType());
         }
         return Long.valueOf(layoutInfo == null ? 0 : layoutInfo.getMember(fieldElement).getOffset());
@@ -2342,7 +2344,7 @@ final strictfp class Frame implements ActionVisitor<VmThreadImpl, Void>, ValueVi
                     CompilationContext ctxt = frame.element.getEnclosingType().getContext().getCompilationContext();
                     CoreClasses coreClasses = CoreClasses.get(ctxt);
                     FieldElement field = coreClasses.getArrayContentField(physicalBound);
-                    Layout interpLayout = Layout.get(ctxt);
+                    Layout interpLayout = Layout.getForInterpreter(ctxt);
                     int fieldOffset = interpLayout.getInstanceLayoutInfo(field.getEnclosingType()).getMember(field).getOffset();
                     ArrayType contentType = (ArrayType)field.getType();
                     return node.getValueHandle().accept(this, frame) + fieldOffset + index * contentType.getElementSize();
@@ -2365,7 +2367,7 @@ final strictfp class Frame implements ActionVisitor<VmThreadImpl, Void>, ValueVi
         @Override
         public long visit(Frame frame, InstanceFieldOf node) {
             CompilationContext ctxt = frame.element.getEnclosingType().getContext().getCompilationContext();
-            Layout layout = Layout.get(ctxt);
+            Layout layout = Layout.getForInterpreter(ctxt);
             FieldElement field = node.getVariableElement();
             LayoutInfo layoutInfo = layout.getInstanceLayoutInfo(field.getEnclosingType());
             try {
@@ -2399,7 +2401,7 @@ final strictfp class Frame implements ActionVisitor<VmThreadImpl, Void>, ValueVi
         @Override
         public long visit(Frame frame, StaticField node) {
             CompilationContext ctxt = frame.element.getEnclosingType().getContext().getCompilationContext();
-            Layout layout = Layout.get(ctxt);
+            Layout layout = Layout.getForInterpreter(ctxt);
             FieldElement field = node.getVariableElement();
             LayoutInfo layoutInfo = layout.getStaticLayoutInfo(field.getEnclosingType());
             if (layoutInfo == null) {
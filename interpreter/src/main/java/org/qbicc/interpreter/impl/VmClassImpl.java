@@ -106,8 +106,8 @@ class VmClassImpl extends VmObjectImpl implements VmClass {
         ClassContext classContext = typeDefinition.getContext();
         classLoader = (VmClassLoaderImpl) classContext.getClassLoader();
         CompilationContext ctxt = classContext.getCompilationContext();
-        layoutInfo = typeDefinition.isInterface() ? null : Layout.get(ctxt).getInstanceLayoutInfo(typeDefinition);
-        staticLayoutInfo = Layout.get(ctxt).getStaticLayoutInfo(typeDefinition);
+        layoutInfo = typeDefinition.isInterface() ? null : Layout.getForInterpreter(ctxt).getInstanceLayoutInfo(typeDefinition);
+        staticLayoutInfo = Layout.getForInterpreter(ctxt).getStaticLayoutInfo(typeDefinition);
         staticMemory = staticLayoutInfo == null ? vmImpl.allocate(0) : vmImpl.allocate((int) staticLayoutInfo.getCompoundType().getSize());
         initializeConstantStaticFields();
     }
@@ -128,14 +128,14 @@ class VmClassImpl extends VmObjectImpl implements VmClass {
 
     VmClassImpl(final VmImpl vm, final ClassContext classContext, @SuppressWarnings("unused") Class<VmClassClassImpl> classClassOnly) {
         // special ctor for Class.class, where getClass() == Class.class
-        super(vm, VmClassImpl.class, Layout.get(classContext.getCompilationContext()).getInstanceLayoutInfo(classContext.findDefinedType("java/lang/Class").load()));
+        super(vm, VmClassImpl.class, Layout.getForInterpreter(classContext.getCompilationContext()).getInstanceLayoutInfo(classContext.findDefinedType("java/lang/Class").load()));
         this.vm = vm;
         typeDefinition = classContext.findDefinedType("java/lang/Class").load();
         protectionDomain = null;
         classLoader = null;
         CompilationContext ctxt = classContext.getCompilationContext();
-        layoutInfo = Layout.get(ctxt).getInstanceLayoutInfo(typeDefinition);
-        staticLayoutInfo = Layout.get(ctxt).getStaticLayoutInfo(typeDefinition);
+        layoutInfo = Layout.getForInterpreter(ctxt).getInstanceLayoutInfo(typeDefinition);
+        staticLayoutInfo = Layout.getForInterpreter(ctxt).getStaticLayoutInfo(typeDefinition);
         staticMemory = staticLayoutInfo == null ? vm.allocate(0) : vm.allocate((int) staticLayoutInfo.getCompoundType().getSize());
         superClass = new VmClassImpl(vm, (VmClassClassImpl) this, classContext.findDefinedType("java/lang/Object").load(), null);
         initializeConstantStaticFields();
@@ -401,7 +401,7 @@ class VmClassImpl extends VmObjectImpl implements VmClass {
     public int indexOfStatic(FieldElement field) throws IllegalArgumentException {
         LoadedTypeDefinition loaded = field.getEnclosingType().load();
         CompilationContext ctxt = loaded.getContext().getCompilationContext();
-        LayoutInfo layoutInfo = Layout.get(ctxt).getStaticLayoutInfo(loaded);
+        LayoutInfo layoutInfo = Layout.getForInterpreter(ctxt).getStaticLayoutInfo(loaded);
         if (layoutInfo != null) {
             CompoundType.Member member = layoutInfo.getMember(field);
             if (member != null) {
@@ -49,11 +49,14 @@ import org.qbicc.machine.arch.Platform;
 import org.qbicc.plugin.coreclasses.CoreClasses;
 import org.qbicc.plugin.layout.Layout;
 import org.qbicc.plugin.layout.LayoutInfo;
+import org.qbicc.type.ArrayObjectType;
 import org.qbicc.type.ClassObjectType;
 import org.qbicc.type.CompoundType;
 import org.qbicc.type.FloatType;
 import org.qbicc.type.IntegerType;
+import org.qbicc.type.ObjectType;
 import org.qbicc.type.Primitive;
+import org.qbicc.type.ReferenceArrayObjectType;
 import org.qbicc.type.UnsignedIntegerType;
 import org.qbicc.type.WordType;
 import org.qbicc.type.definition.DefinedTypeDefinition;
@@ -178,7 +181,7 @@ public final class VmImpl implements Vm {
         stringClass = new VmStringClassImpl(this, stringDef);
         FieldElement coderField = stringDef.findField("coder");
         FieldElement valueField = stringDef.findField("value");
-        Layout layout = Layout.get(ctxt);
+        Layout layout = Layout.getForInterpreter(ctxt);
         LayoutInfo stringLayout = layout.getInstanceLayoutInfo(stringDef);
         stringCoderOffset = stringLayout.getMember(coderField).getOffset();
         stringValueOffset = stringLayout.getMember(valueField).getOffset();
@@ -494,6 +497,20 @@ public final class VmImpl implements Vm {
                 return clazz;
             });
 
+            // VM
+            VmClassImpl vmClass = bootstrapClassLoader.loadClass("org/qbicc/runtime/main/VM");
+            ClassContext bootstrapContext = ctxt.getBootstrapClassContext();
+            ClassTypeDescriptor objectDesc = ClassTypeDescriptor.synthesize(bootstrapContext, "java/lang/Object");
+            MethodDescriptor arraycopyDesc = MethodDescriptor.synthesize(bootstrapContext, BaseTypeDescriptor.V, List.of(
+                objectDesc, BaseTypeDescriptor.I, objectDesc, BaseTypeDescriptor.I, BaseTypeDescriptor.I
+            ));
+
+            // the run time implementation works on native memory, so copy the interpreter memory directly instead
+            vmClass.registerInvokable("arraycopy", arraycopyDesc, (thread, target, args) -> {
+                arraycopy(args.get(0), ((Integer) args.get(1)).intValue(), args.get(2), ((Integer) args.get(3)).intValue(), ((Integer) args.get(4)).intValue());
+                return null;
+            });
+
             // ObjectModel
             VmClassImpl compIntr = bootstrapClassLoader.loadClass("org/qbicc/runtime/main/CompilerIntrinsics");
 
@@ -522,7 +539,7 @@ public final class VmImpl implements Vm {
                     throw new Thrown(errorClass.newInstance("Invalid argument to objectFieldOffset0"));
                 }
                 field.setModifierFlags(ClassFile.I_ACC_PINNED);
-                LayoutInfo layoutInfo = Layout.get(ctxt).getInstanceLayoutInfo(clazzDef);
+                LayoutInfo layoutInfo = Layout.getForInterpreter(ctxt).getInstanceLayoutInfo(clazzDef);
                 CompoundType.Member member = layoutInfo.getMember(field);
                 if (member == null) {
                     throw new Thrown(errorClass.newInstance("Internal error"));
@@ -538,7 +555,7 @@ public final class VmImpl implements Vm {
                     throw new Thrown(errorClass.newInstance("Invalid argument to objectFieldOffset1"));
                 }
                 field.setModifierFlags(ClassFile.I_ACC_PINNED);
-                LayoutInfo layoutInfo = Layout.get(ctxt).getInstanceLayoutInfo(clazzDef);
+                LayoutInfo layoutInfo = Layout.getForInterpreter(ctxt).getInstanceLayoutInfo(clazzDef);
                 CompoundType.Member member = layoutInfo.getMember(field);
                 if (member == null) {
                     throw new Thrown(errorClass.newInstance("Internal error"));
@@ -795,7 +812,8 @@ public final class VmImpl implements Vm {
                     if (field.isStatic()) {
                         throw new Thrown(threadImpl.getVM().errorClass.newInstance("Wrong field kind"));
                     } else {
-                        layoutInfo = Layout.get(ctxt).getInstanceLayoutInfo(field.getEnclosingType());
+                        field.setModifierFlags(ClassFile.I_ACC_PINNED);
+                        layoutInfo = Layout.getForInterpreter(ctxt).getInstanceLayoutInfo(field.getEnclosingType());
                     }
                     return Long.valueOf(layoutInfo.getMember(field).getOffset());
                 } else {
@@ -1022,6 +1040,49 @@ public final class VmImpl implements Vm {
         return mainThreadGroup;
     }
 
+    private void arraycopy(Object srcObj, int srcPos, Object destObj, int destPos, int length) {
+        if (srcObj == null || destObj == null) {
+            throw newThrown("java/lang/NullPointerException");
+        }
+        if (! (srcObj instanceof VmArrayImpl src) || ! (destObj instanceof VmArrayImpl dest)) {
+            throw newThrown("java/lang/ArrayStoreException");
+        }
+        ArrayObjectType srcType = src.getObjectType();
+        ArrayObjectType destType = dest.getObjectType();
+        boolean refs = srcType instanceof ReferenceArrayObjectType;
+        if (refs != destType instanceof ReferenceArrayObjectType || ! refs && ! srcType.equals(destType)) {
+            throw newThrown("java/lang/ArrayStoreException");
+        }
+        if (srcPos < 0 || destPos < 0 || length < 0 || length > src.getLength() - srcPos || length > dest.getLength() - destPos) {
+            throw newThrown("java/lang/ArrayIndexOutOfBoundsException");
+        }
+        int count = length;
+        if (refs && ! srcType.isSubtypeOf(destType)) {
+            // check each element; the elements before the first failure are still copied
+            ObjectType elementType = ((ReferenceArrayObjectType) destType).getElementObjectType();
+            for (count = 0; count < length; count ++) {
+                VmObject item = src.getMemory().loadRef(src.getArrayElementOffset(srcPos + count), SinglePlain);
+                if (item != null && ! item.getObjectType().isSubtypeOf(elementType)) {
+                    break;
+                }
+            }
+        }
+        if (count > 0) {
+            int srcOffset = src.getArrayElementOffset(srcPos);
+            dest.getMemory().storeMemory(dest.getArrayElementOffset(destPos), src.getMemory(), srcOffset, src.getArrayElementOffset(srcPos + count) - srcOffset);
+        }
+        if (count < length) {
+            throw newThrown("java/lang/ArrayStoreException");
+        }
+    }
+
+    private Thrown newThrown(String className) {
+        VmClassImpl clazz = bootstrapClassLoader.loadClass(className);
+        VmThrowable throwable = manuallyInitialize((VmThrowable) clazz.newInstance());
+        ((VmThreadImpl) Vm.requireCurrentThread()).setThrown(throwable);
+        return new Thrown(throwable);
+    }
+
     private VmObject createMainThreadGroup() {
         // Create the System ThreadGroup
         VmClassImpl threadGroupClass = bootstrapClassLoader.loadClass("java/lang/ThreadGroup");
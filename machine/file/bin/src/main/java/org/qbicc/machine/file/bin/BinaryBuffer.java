@@ -17,7 +17,8 @@ public interface BinaryBuffer extends AutoCloseable {
         try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
             final long s = channel.size();
             if (s > 0x7FFF_FFFF) {
-                throw new IllegalArgumentException("Large files not yet supported");
+                // too large for a single mapping
+                return new WindowedMappedBinaryBuffer(channel);
             }
             return overBuffer(channel.map(FileChannel.MapMode.READ_ONLY, 0, s));
         }
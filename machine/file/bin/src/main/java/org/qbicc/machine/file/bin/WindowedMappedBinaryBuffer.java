@@ -0,0 +1,166 @@
+package org.qbicc.machine.file.bin;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+
+/**
+ * A read-only binary buffer over a file which is too large to be mapped as a single buffer.  The file is mapped in
+ * fixed-size windows; each window overlaps the next one by a small amount, so that any primitive value (and most
+ * small slices) can be read from a single window.
+ */
+final class WindowedMappedBinaryBuffer implements BinaryBuffer {
+    // 1GB per window
+    private static final int WINDOW_BITS = 30;
+    private static final long WINDOW_SIZE = 1L << WINDOW_BITS;
+    private static final long WINDOW_MASK = WINDOW_SIZE - 1;
+    private static final int OVERLAP = 1 << 16;
+
+    private final MappedByteBuffer[] windows;
+    private final long size;
+    private ByteOrder byteOrder = ByteOrder.BIG_ENDIAN;
+
+    WindowedMappedBinaryBuffer(final FileChannel channel) throws IOException {
+        final long size = channel.size();
+        final int cnt = Math.toIntExact((size + WINDOW_MASK) >>> WINDOW_BITS);
+        final MappedByteBuffer[] windows = new MappedByteBuffer[cnt];
+        for (int i = 0; i < cnt; i ++) {
+            final long start = (long) i << WINDOW_BITS;
+            windows[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(WINDOW_SIZE + OVERLAP, size - start));
+        }
+        this.windows = windows;
+        this.size = size;
+    }
+
+    private ByteBuffer window(long offset, int length) {
+        if (offset < 0 || offset + length > size) {
+            throw new IndexOutOfBoundsException(offset);
+        }
+        return windows[(int) (offset >>> WINDOW_BITS)];
+    }
+
+    private static int index(long offset) {
+        return (int) (offset & WINDOW_MASK);
+    }
+
+    public ByteOrder getByteOrder() {
+        return byteOrder;
+    }
+
+    public ByteOrder setByteOrder(final ByteOrder newOrder) {
+        final ByteOrder oldOrder = byteOrder;
+        for (MappedByteBuffer window : windows) {
+            window.order(newOrder);
+        }
+        byteOrder = newOrder;
+        return oldOrder;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public long growBy(final long amount) {
+        throw new UnsupportedOperationException();
+    }
+
+    public void growTo(final long newSize) {
+        throw new UnsupportedOperationException();
+    }
+
+    public int getInt(final long offset) {
+        return window(offset, 4).getInt(index(offset));
+    }
+
+    public void putInt(final long offset, final int value) {
+        throw new ReadOnlyBufferException();
+    }
+
+    public short getShort(final long offset) {
+        return window(offset, 2).getShort(index(offset));
+    }
+
+    public void putShort(final long offset, final short value) {
+        throw new ReadOnlyBufferException();
+    }
+
+    public byte getByte(final long offset) {
+        return window(offset, 1).get(index(offset));
+    }
+
+    public void putByte(final long offset, final byte value) {
+        throw new ReadOnlyBufferException();
+    }
+
+    public long getLong(final long offset) {
+        return window(offset, 8).getLong(index(offset));
+    }
+
+    public void putLong(final long offset, final long value) {
+        throw new ReadOnlyBufferException();
+    }
+
+    public void getBytes(long offset, final byte[] b, int off, int len) {
+        while (len > 0) {
+            final int idx = index(offset);
+            final int cnt = (int) Math.min(len, WINDOW_SIZE - idx);
+            window(offset, cnt).get(idx, b, off, cnt);
+            offset += cnt;
+            off += cnt;
+            len -= cnt;
+        }
+    }
+
+    public void putBytes(final long offset, final byte[] b, final int off, final int len) {
+        throw new ReadOnlyBufferException();
+    }
+
+    public void putBytes(final long position, final BinaryBuffer buf, final long offset, final long size) {
+        throw new ReadOnlyBufferException();
+    }
+
+    public void writeTo(long position, final ByteBuffer targetBuf) {
+        while (targetBuf.hasRemaining()) {
+            final int idx = index(position);
+            final int cnt = (int) Math.min(targetBuf.remaining(), WINDOW_SIZE - idx);
+            targetBuf.put(window(position, cnt).duplicate().position(idx).limit(idx + cnt));
+            position += cnt;
+        }
+    }
+
+    public void writeTo(final GatheringByteChannel channel) throws IOException {
+        writeTo(channel, 0, size);
+    }
+
+    public void writeTo(final GatheringByteChannel channel, long offset, long cnt) throws IOException {
+        while (cnt > 0) {
+            final int idx = index(offset);
+            final int len = (int) Math.min(cnt, WINDOW_SIZE - idx);
+            final ByteBuffer b = window(offset, len).duplicate().position(idx).limit(idx + len);
+            while (b.hasRemaining()) {
+                channel.write(b);
+            }
+            offset += len;
+            cnt -= len;
+        }
+    }
+
+    public ByteBuffer getBuffer(final long offset, final long size) {
+        final int idx = index(offset);
+        if (idx + size <= WINDOW_SIZE + OVERLAP) {
+            final ByteBuffer window = window(offset, Math.toIntExact(size));
+            return window.duplicate().position(idx).limit((int) (idx + size)).slice().order(byteOrder);
+        }
+        // spans more than one window; make a copy
+        final ByteBuffer copy = ByteBuffer.allocate(Math.toIntExact(size));
+        writeTo(offset, copy);
+        return copy.flip().order(byteOrder);
+    }
+
+    public void close() {
+    }
+}
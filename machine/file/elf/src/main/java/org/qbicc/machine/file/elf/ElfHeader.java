@@ -18,7 +18,7 @@ public abstract class ElfHeader {
     final ArrayList<ElfSymbolTableEntry> staticSymbols = new ArrayList<>(0);
     final ArrayList<ElfSymbolTableEntry> dynamicSymbols = new ArrayList<>(0);
     final Map<String, ArrayList<ElfRelocationTableEntry>> relocationEntries = new HashMap<>();
-    final Map<String, ElfSymbolTableEntry> symbolCache = new HashMap<>();
+    Map<String, ElfSymbolTableEntry> symbolIndex;
     final MappedBitSet<Elf.Flag> flags;
 
     ElfHeader(final BinaryBuffer backingBuffer, final long flagsOffset) {
@@ -389,21 +389,28 @@ public abstract class ElfHeader {
     }
 
     public ElfSymbolTableEntry findSymbol(String symbolName) {
-        // todo: support SHT_HASH
-        ElfSymbolTableEntry entry = symbolCache.get(symbolName);
-        if (entry != null) {
-            return entry;
+        Map<String, ElfSymbolTableEntry> symbolIndex = this.symbolIndex;
+        if (symbolIndex == null) {
+            this.symbolIndex = symbolIndex = indexSymbols();
         }
-        int idx = 0;
-        for (;;) {
-            entry = getSymbolTableEntry(idx++, false);
-            if (entry == null) {
-                return null;
-            } else if (entry.nameEquals(symbolName)) {
-                symbolCache.put(entry.getName(), entry);
-                return entry;
-            }
+        return symbolIndex.get(symbolName);
+    }
+
+    private Map<String, ElfSymbolTableEntry> indexSymbols() {
+        // SHT_HASH and SHT_GNU_HASH only cover the dynamic symbols, so index the static symbol table in one pass
+        final ElfSectionHeaderEntry symtab = getSectionHeaderTableEntry(Elf.Section.Type.Std.SYM_TAB);
+        if (symtab == null || symtab.getFixedEntrySize() == 0) {
+            return Map.of();
+        }
+        final int cnt = Math.toIntExact(symtab.getSize() / symtab.getFixedEntrySize());
+        final Map<String, ElfSymbolTableEntry> index = new HashMap<>(cnt + (cnt >> 1));
+        staticSymbols.ensureCapacity(cnt);
+        for (int idx = 0; idx < cnt; idx ++) {
+            final ElfSymbolTableEntry entry = getSymbolTableEntry(idx, false);
+            // the first symbol with a given name wins
+            index.putIfAbsent(entry.getName(), entry);
         }
+        return index;
     }
 
     public ElfSymbolTableEntry findSymbol(int index) {
@@ -2,6 +2,7 @@ package org.qbicc.machine.llvm;
 
 import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStream;
 
 import org.qbicc.machine.llvm.debuginfo.DIBasicType;
 import org.qbicc.machine.llvm.debuginfo.DICompileUnit;
@@ -56,6 +57,16 @@ public interface Module {
 
     void writeTo(BufferedWriter output) throws IOException;
 
+    /**
+     * Write this module to the given stream in the LLVM bitcode format.  The output can be read by the LLVM tools
+     * in place of the textual form written by {@link #writeTo(BufferedWriter)}, without having to be parsed.
+     *
+     * @param output the output stream (must not be {@code null})
+     * @throws IOException if writing to the stream failed
+     * @throws UnsupportedOperationException if the module contains a construct which cannot be expressed as bitcode
+     */
+    void writeBitcodeTo(OutputStream output) throws IOException;
+
     static Module newModule() {
         return LLVM.newModule();
     }
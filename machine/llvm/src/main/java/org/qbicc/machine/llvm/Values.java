@@ -40,6 +40,14 @@ public final class Values {
         return LLVM.ptrtointConstant(value, fromType, toType);
     }
 
+    public static LLValue truncConstant(LLValue value, LLValue fromType, LLValue toType) {
+        return LLVM.truncConstant(value, fromType, toType);
+    }
+
+    public static LLValue subConstant(LLValue type, LLValue lhs, LLValue rhs) {
+        return LLVM.subConstant(type, lhs, rhs);
+    }
+
     public static DIExpression diExpression() {
         return LLVM.diExpression();
     }
@@ -245,11 +245,7 @@ abstract class AbstractFunction extends AbstractMetable implements Function {
         }
 
         public LLValue asValue() {
-            return new AbstractValue() {
-                public Appendable appendTo(final Appendable target) throws IOException {
-                    return target.append('%').append(name);
-                }
-            };
+            return new ParameterValue(this);
         }
 
         public Appendable appendTo(final Appendable target) throws IOException {
@@ -268,4 +264,16 @@ abstract class AbstractFunction extends AbstractMetable implements Function {
             return target;
         }
     }
+
+    static final class ParameterValue extends AbstractValue {
+        final ParameterImpl parameter;
+
+        ParameterValue(final ParameterImpl parameter) {
+            this.parameter = parameter;
+        }
+
+        public Appendable appendTo(final Appendable target) throws IOException {
+            return target.append('%').append(parameter.name);
+        }
+    }
 }
@@ -41,4 +41,12 @@ abstract class AbstractMetadataNode extends AbstractCommentable implements Metad
     public MetadataNode comment(final String comment) {
         return (MetadataNode)super.comment(comment);
     }
+
+    String getName() {
+        return name;
+    }
+
+    int getIndex() {
+        return index;
+    }
 }
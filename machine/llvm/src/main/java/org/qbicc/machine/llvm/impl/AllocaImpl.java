@@ -62,4 +62,20 @@ final class AllocaImpl extends AbstractYieldingInstruction implements Alloca {
         }
         return target;
     }
+
+    AbstractValue getType() {
+        return type;
+    }
+
+    AbstractValue getNumElementsType() {
+        return numElementsType;
+    }
+
+    AbstractValue getNumElements() {
+        return numElements;
+    }
+
+    AbstractValue getAlign() {
+        return align;
+    }
 }
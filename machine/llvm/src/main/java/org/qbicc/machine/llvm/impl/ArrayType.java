@@ -17,4 +17,12 @@ final class ArrayType extends AbstractValue {
     public Appendable appendTo(final Appendable target) throws IOException {
         return elementType.appendTo(target.append('[').append(Integer.toString(dimension)).append(" x ")).append(']');
     }
+
+    int getDimension() {
+        return dimension;
+    }
+
+    AbstractValue getElementType() {
+        return elementType;
+    }
 }
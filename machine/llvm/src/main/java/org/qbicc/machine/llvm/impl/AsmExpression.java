@@ -29,4 +29,16 @@ final class AsmExpression extends AbstractValue {
         appendEscapedString(target, constraints);
         return target;
     }
+
+    String getAssembly() {
+        return instruction;
+    }
+
+    String getConstraints() {
+        return constraints;
+    }
+
+    Set<AsmFlag> getFlags() {
+        return flags;
+    }
 }
@@ -0,0 +1,2476 @@
+package org.qbicc.machine.llvm.impl;
+
+import static org.qbicc.machine.llvm.impl.BitstreamWriter.Abbrev.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.qbicc.machine.llvm.AddressNaming;
+import org.qbicc.machine.llvm.AsmFlag;
+import org.qbicc.machine.llvm.CallingConvention;
+import org.qbicc.machine.llvm.DllStorageClass;
+import org.qbicc.machine.llvm.FastMathFlag;
+import org.qbicc.machine.llvm.LLValue;
+import org.qbicc.machine.llvm.Linkage;
+import org.qbicc.machine.llvm.RuntimePreemption;
+import org.qbicc.machine.llvm.ThreadLocalStorageModel;
+import org.qbicc.machine.llvm.Visibility;
+import org.qbicc.machine.llvm.debuginfo.DIEncoding;
+import org.qbicc.machine.llvm.debuginfo.DIFlags;
+import org.qbicc.machine.llvm.debuginfo.DIOpcode;
+import org.qbicc.machine.llvm.debuginfo.DISPFlags;
+import org.qbicc.machine.llvm.debuginfo.DITag;
+import org.qbicc.machine.llvm.impl.BitstreamWriter.Abbrev;
+import org.qbicc.machine.llvm.op.OrderingConstraint;
+
+/**
+ * A writer which encodes a module in the LLVM bitcode format, so that the LLVM tools do not have to parse the textual
+ * assembly form of the module again.
+ * <p>
+ * The module is walked twice.  The first walk only enumerates the types, constants, metadata, and attribute lists
+ * which are referenced by the module; the second walk writes the records using the numbering of the first walk.  Only
+ * the constructs which can be expressed with this API are supported; typed pointers are written as such, and no
+ * value symbol table is written because every global value is named through the string table.
+ *
+ * @see <a href="https://llvm.org/docs/BitCodeFormat.html">LLVM Bitcode File Format</a>
+ */
+final class BitcodeWriter {
+    // block IDs
+    private static final int MODULE_BLOCK_ID = 8;
+    private static final int PARAMATTR_BLOCK_ID = 9;
+    private static final int PARAMATTR_GROUP_BLOCK_ID = 10;
+    private static final int CONSTANTS_BLOCK_ID = 11;
+    private static final int FUNCTION_BLOCK_ID = 12;
+    private static final int IDENTIFICATION_BLOCK_ID = 13;
+    private static final int METADATA_BLOCK_ID = 15;
+    private static final int METADATA_ATTACHMENT_ID = 16;
+    private static final int TYPE_BLOCK_ID_NEW = 17;
+    private static final int METADATA_KIND_BLOCK_ID = 22;
+    private static final int STRTAB_BLOCK_ID = 23;
+    private static final int SYNC_SCOPE_NAMES_BLOCK_ID = 26;
+
+    // identification, module, and string table records
+    private static final int IDENTIFICATION_CODE_STRING = 1;
+    private static final int IDENTIFICATION_CODE_EPOCH = 2;
+    private static final int MODULE_CODE_VERSION = 1;
+    private static final int MODULE_CODE_SECTIONNAME = 5;
+    private static final int MODULE_CODE_GLOBALVAR = 7;
+    private static final int MODULE_CODE_FUNCTION = 8;
+    private static final int MODULE_CODE_GCNAME = 11;
+    private static final int STRTAB_BLOB = 1;
+    private static final int SYNC_SCOPE_NAME = 1;
+
+    // attribute records
+    private static final int PARAMATTR_CODE_ENTRY = 2;
+    private static final int PARAMATTR_GRP_CODE_ENTRY = 3;
+
+    // type records
+    private static final int TYPE_CODE_NUMENTRY = 1;
+    private static final int TYPE_CODE_VOID = 2;
+    private static final int TYPE_CODE_FLOAT = 3;
+    private static final int TYPE_CODE_DOUBLE = 4;
+    private static final int TYPE_CODE_LABEL = 5;
+    private static final int TYPE_CODE_OPAQUE = 6;
+    private static final int TYPE_CODE_INTEGER = 7;
+    private static final int TYPE_CODE_POINTER = 8;
+    private static final int TYPE_CODE_HALF = 10;
+    private static final int TYPE_CODE_ARRAY = 11;
+    private static final int TYPE_CODE_VECTOR = 12;
+    private static final int TYPE_CODE_FP128 = 14;
+    private static final int TYPE_CODE_METADATA = 16;
+    private static final int TYPE_CODE_STRUCT_ANON = 18;
+    private static final int TYPE_CODE_STRUCT_NAME = 19;
+    private static final int TYPE_CODE_STRUCT_NAMED = 20;
+    private static final int TYPE_CODE_FUNCTION = 21;
+    private static final int TYPE_CODE_TOKEN = 22;
+
+    // constant records
+    private static final int CST_CODE_SETTYPE = 1;
+    private static final int CST_CODE_NULL = 2;
+    private static final int CST_CODE_UNDEF = 3;
+    private static final int CST_CODE_INTEGER = 4;
+    private static final int CST_CODE_WIDE_INTEGER = 5;
+    private static final int CST_CODE_FLOAT = 6;
+    private static final int CST_CODE_AGGREGATE = 7;
+    private static final int CST_CODE_STRING = 8;
+    private static final int CST_CODE_CSTRING = 9;
+    private static final int CST_CODE_CE_BINOP = 10;
+    private static final int CST_CODE_CE_CAST = 11;
+    private static final int CST_CODE_CE_GEP = 12;
+    private static final int CST_CODE_DATA = 22;
+    private static final int CST_CODE_INLINEASM_OLD2 = 23;
+    private static final int CST_CODE_POISON = 26;
+    private static final int CST_CODE_INLINEASM = 30;
+
+    // metadata records
+    private static final int METADATA_VALUE = 2;
+    private static final int METADATA_NODE = 3;
+    private static final int METADATA_NAME = 4;
+    private static final int METADATA_DISTINCT_NODE = 5;
+    private static final int METADATA_KIND = 6;
+    private static final int METADATA_LOCATION = 7;
+    private static final int METADATA_NAMED_NODE = 10;
+    private static final int METADATA_ATTACHMENT = 11;
+    private static final int METADATA_SUBRANGE = 13;
+    private static final int METADATA_BASIC_TYPE = 15;
+    private static final int METADATA_FILE = 16;
+    private static final int METADATA_DERIVED_TYPE = 17;
+    private static final int METADATA_COMPOSITE_TYPE = 18;
+    private static final int METADATA_SUBROUTINE_TYPE = 19;
+    private static final int METADATA_COMPILE_UNIT = 20;
+    private static final int METADATA_SUBPROGRAM = 21;
+    private static final int METADATA_LOCAL_VAR = 28;
+    private static final int METADATA_EXPRESSION = 29;
+    private static final int METADATA_STRINGS = 35;
+    private static final int METADATA_GLOBAL_DECL_ATTACHMENT = 36;
+
+    // function records
+    private static final int FUNC_CODE_DECLAREBLOCKS = 1;
+    private static final int FUNC_CODE_INST_BINOP = 2;
+    private static final int FUNC_CODE_INST_CAST = 3;
+    private static final int FUNC_CODE_INST_RET = 10;
+    private static final int FUNC_CODE_INST_BR = 11;
+    private static final int FUNC_CODE_INST_SWITCH = 12;
+    private static final int FUNC_CODE_INST_INVOKE = 13;
+    private static final int FUNC_CODE_INST_UNREACHABLE = 15;
+    private static final int FUNC_CODE_INST_PHI = 16;
+    private static final int FUNC_CODE_INST_ALLOCA = 19;
+    private static final int FUNC_CODE_INST_LOAD = 20;
+    private static final int FUNC_CODE_INST_VAARG = 23;
+    private static final int FUNC_CODE_INST_EXTRACTVAL = 26;
+    private static final int FUNC_CODE_INST_INSERTVAL = 27;
+    private static final int FUNC_CODE_INST_CMP2 = 28;
+    private static final int FUNC_CODE_INST_VSELECT = 29;
+    private static final int FUNC_CODE_DEBUG_LOC_AGAIN = 33;
+    private static final int FUNC_CODE_INST_CALL = 34;
+    private static final int FUNC_CODE_DEBUG_LOC = 35;
+    private static final int FUNC_CODE_INST_FENCE = 36;
+    private static final int FUNC_CODE_INST_ATOMICRMW = 38;
+    private static final int FUNC_CODE_INST_LOADATOMIC = 41;
+    private static final int FUNC_CODE_INST_GEP = 43;
+    private static final int FUNC_CODE_INST_STORE = 44;
+    private static final int FUNC_CODE_INST_STOREATOMIC = 45;
+    private static final int FUNC_CODE_INST_CMPXCHG = 46;
+    private static final int FUNC_CODE_INST_LANDINGPAD = 47;
+    private static final int FUNC_CODE_INST_UNOP = 56;
+
+    private static final int CALL_EXPLICIT_TYPE = 1 << 15;
+    private static final int INVOKE_EXPLICIT_TYPE = 1 << 13;
+    private static final int ALLOCA_EXPLICIT_TYPE = 1 << 6;
+    private static final long ATTRIBUTE_FUNCTION_INDEX = 0xffff_ffffL;
+
+    private static final Map<String, Integer> ENUM_ATTRIBUTES = Map.ofEntries(
+        Map.entry("alwaysinline", Integer.valueOf(2)),
+        Map.entry("byval", Integer.valueOf(3)),
+        Map.entry("inlinehint", Integer.valueOf(4)),
+        Map.entry("inreg", Integer.valueOf(5)),
+        Map.entry("minsize", Integer.valueOf(6)),
+        Map.entry("naked", Integer.valueOf(7)),
+        Map.entry("nest", Integer.valueOf(8)),
+        Map.entry("noalias", Integer.valueOf(9)),
+        Map.entry("nobuiltin", Integer.valueOf(10)),
+        Map.entry("nocapture", Integer.valueOf(11)),
+        Map.entry("noduplicate", Integer.valueOf(12)),
+        Map.entry("noimplicitfloat", Integer.valueOf(13)),
+        Map.entry("noinline", Integer.valueOf(14)),
+        Map.entry("nonlazybind", Integer.valueOf(15)),
+        Map.entry("noredzone", Integer.valueOf(16)),
+        Map.entry("noreturn", Integer.valueOf(17)),
+        Map.entry("nounwind", Integer.valueOf(18)),
+        Map.entry("optsize", Integer.valueOf(19)),
+        Map.entry("readnone", Integer.valueOf(20)),
+        Map.entry("readonly", Integer.valueOf(21)),
+        Map.entry("returned", Integer.valueOf(22)),
+        Map.entry("returns_twice", Integer.valueOf(23)),
+        Map.entry("signext", Integer.valueOf(24)),
+        Map.entry("ssp", Integer.valueOf(26)),
+        Map.entry("sspreq", Integer.valueOf(27)),
+        Map.entry("sspstrong", Integer.valueOf(28)),
+        Map.entry("sret", Integer.valueOf(29)),
+        Map.entry("uwtable", Integer.valueOf(33)),
+        Map.entry("zeroext", Integer.valueOf(34)),
+        Map.entry("builtin", Integer.valueOf(35)),
+        Map.entry("cold", Integer.valueOf(36)),
+        Map.entry("optnone", Integer.valueOf(37)),
+        Map.entry("nonnull", Integer.valueOf(39)),
+        Map.entry("convergent", Integer.valueOf(43)),
+        Map.entry("argmemonly", Integer.valueOf(45)),
+        Map.entry("norecurse", Integer.valueOf(48)),
+        Map.entry("writeonly", Integer.valueOf(52)),
+        Map.entry("speculatable", Integer.valueOf(53)),
+        Map.entry("willreturn", Integer.valueOf(61)),
+        Map.entry("nofree", Integer.valueOf(62)),
+        Map.entry("nosync", Integer.valueOf(63)),
+        Map.entry("noundef", Integer.valueOf(68)),
+        Map.entry("mustprogress", Integer.valueOf(70))
+    );
+
+    private static final Map<String, Integer> INT_ATTRIBUTES = Map.of(
+        "align", Integer.valueOf(1),
+        "alignstack", Integer.valueOf(25),
+        "dereferenceable", Integer.valueOf(41),
+        "dereferenceable_or_null", Integer.valueOf(42)
+    );
+
+    private static final Map<String, Integer> SOURCE_LANGUAGES = Map.ofEntries(
+        Map.entry("DW_LANG_C89", Integer.valueOf(0x01)),
+        Map.entry("DW_LANG_C", Integer.valueOf(0x02)),
+        Map.entry("DW_LANG_C_plus_plus", Integer.valueOf(0x04)),
+        Map.entry("DW_LANG_Java", Integer.valueOf(0x0b)),
+        Map.entry("DW_LANG_C99", Integer.valueOf(0x0c)),
+        Map.entry("DW_LANG_ObjC", Integer.valueOf(0x10)),
+        Map.entry("DW_LANG_C_plus_plus_03", Integer.valueOf(0x19)),
+        Map.entry("DW_LANG_C_plus_plus_11", Integer.valueOf(0x1a)),
+        Map.entry("DW_LANG_Rust", Integer.valueOf(0x1c)),
+        Map.entry("DW_LANG_C11", Integer.valueOf(0x1d)),
+        Map.entry("DW_LANG_C_plus_plus_14", Integer.valueOf(0x21))
+    );
+
+    private final ModuleImpl module;
+    // null during the enumeration walk
+    private BitstreamWriter out;
+    private boolean frozen;
+    private long[] rec = new long[64];
+    private int recLen;
+
+    // types
+    private final Map<String, Integer> typeIds = new HashMap<>();
+    private final IdentityHashMap<AbstractValue, Integer> typeIdCache = new IdentityHashMap<>();
+    private final List<AbstractValue> types = new ArrayList<>();
+    private final Set<String> typesInProgress = new HashSet<>();
+    private int typeBits;
+
+    // module-level values: global variables, then functions, then constants
+    private final List<GlobalImpl> globals = new ArrayList<>();
+    private final List<AbstractFunction> functions = new ArrayList<>();
+    private final Map<String, Integer> globalIds = new HashMap<>();
+    private final int[] nameOffsets;
+    private final byte[] strtab;
+    private final Map<ConstantKey, Integer> constantIds = new HashMap<>();
+    private final IdentityHashMap<AbstractValue, Integer> expressionConstantIds = new IdentityHashMap<>();
+    private final List<Constant> constants = new ArrayList<>();
+    private int numModuleValues;
+
+    // attributes, sections, GC names, and synchronization scopes
+    private final Map<AttributeGroup, Integer> attributeGroupIds = new LinkedHashMap<>();
+    private final Map<List<Integer>, Integer> attributeListIds = new LinkedHashMap<>();
+    private final Map<String, Integer> sectionIds = new LinkedHashMap<>();
+    private final Map<String, Integer> gcIds = new LinkedHashMap<>();
+    private final Map<String, Integer> syncScopeIds = new LinkedHashMap<>();
+
+    // metadata
+    private final Map<String, Integer> mdStringIds = new LinkedHashMap<>();
+    private final List<Object> mdNodes = new ArrayList<>();
+    private final Map<Object, Integer> mdNodeIds = new HashMap<>();
+    private final Map<Integer, AbstractMetadataNode> mdByIndex = new HashMap<>();
+    private final Map<String, Integer> mdKindIds = new LinkedHashMap<>();
+    private final IdentityHashMap<FunctionDefinitionImpl, Map<LocalMetadata, Integer>> functionMetadata = new IdentityHashMap<>();
+
+    // abbreviations
+    private int constantsSetTypeAbbrev;
+    private int constantsIntegerAbbrev;
+    private int constantsCastAbbrev;
+    private int constantsNullAbbrev;
+    private int functionLoadAbbrev;
+    private int functionBinopAbbrev;
+    private int functionBinopFlagsAbbrev;
+    private int functionCastAbbrev;
+    private int functionRetVoidAbbrev;
+    private int functionRetValAbbrev;
+    private int functionUnreachableAbbrev;
+    private int functionGepAbbrev;
+
+    // the current function
+    private FunctionDefinitionImpl function;
+    private Map<LocalMetadata, Integer> localMetadata;
+    private final IdentityHashMap<Object, Integer> localIds = new IdentityHashMap<>();
+    private final IdentityHashMap<BasicBlockImpl, Integer> blockIds = new IdentityHashMap<>();
+    private final List<long[]> attachments = new ArrayList<>();
+    private int instId;
+    private int instIndex;
+    private long[] lastLoc;
+
+    BitcodeWriter(final ModuleImpl module) {
+        this.module = module;
+        ByteArrayOutputStream names = new ByteArrayOutputStream();
+        for (Emittable item : module.getGlobals()) {
+            GlobalImpl global = (GlobalImpl) item;
+            addGlobalValue(globalName(global));
+            globals.add(global);
+        }
+        for (Emittable item : module.getFunctions()) {
+            AbstractFunction function = (AbstractFunction) item;
+            addGlobalValue(function.name);
+            functions.add(function);
+        }
+        nameOffsets = new int[globalIds.size()];
+        int i = 0;
+        for (GlobalImpl global : globals) {
+            nameOffsets[i++] = names.size();
+            names.writeBytes(globalName(global).getBytes(StandardCharsets.UTF_8));
+        }
+        for (AbstractFunction function : functions) {
+            nameOffsets[i++] = names.size();
+            names.writeBytes(function.name.getBytes(StandardCharsets.UTF_8));
+        }
+        strtab = names.toByteArray();
+        for (Emittable item : module.getMeta()) {
+            AbstractMetadataNode node = (AbstractMetadataNode) item;
+            mdByIndex.put(Integer.valueOf(node.getIndex()), node);
+        }
+    }
+
+    private void addGlobalValue(String name) {
+        if (globalIds.putIfAbsent(name, Integer.valueOf(globalIds.size())) != null) {
+            throw new IllegalStateException("Duplicate global value @" + name);
+        }
+    }
+
+    private static String globalName(GlobalImpl global) {
+        AbstractValue lvalue = global.lvalue;
+        if (lvalue instanceof NamedGlobalValueOf named) {
+            return named.getName();
+        } else if (lvalue instanceof GlobalValueOf) {
+            return lvalue.toString().substring(1);
+        } else {
+            throw new IllegalStateException("Global has no name");
+        }
+    }
+
+    void writeTo(OutputStream os) throws IOException {
+        enumerate();
+        out = new BitstreamWriter();
+        out.emit('B', 8);
+        out.emit('C', 8);
+        out.emit(0x0, 4);
+        out.emit(0xC, 4);
+        out.emit(0xE, 4);
+        out.emit(0xD, 4);
+        writeIdentificationBlock();
+        writeModuleBlock();
+        writeStrtabBlock();
+        out.writeTo(os);
+    }
+
+    // enumeration
+
+    private void enumerate() {
+        // register the module-level nodes first so that they keep their relative order
+        for (Emittable item : module.getMeta()) {
+            mdNode(item);
+        }
+        mdKindId("dbg");
+        writeGlobalVarRecords();
+        writeFunctionRecords();
+        for (AbstractFunction function : functions) {
+            if (function instanceof FunctionDefinitionImpl definition) {
+                writeFunctionBlock(definition);
+            }
+        }
+        writeMetadataRecords();
+        frozen = true;
+        numModuleValues = globalIds.size() + constants.size();
+        typeBits = Math.max(1, 32 - Integer.numberOfLeadingZeros(types.size()));
+    }
+
+    private void checkNotFrozen() {
+        if (frozen) {
+            throw new IllegalStateException("Item was not enumerated");
+        }
+    }
+
+    // records
+
+    private void push(long val) {
+        if (recLen == rec.length) {
+            rec = Arrays.copyOf(rec, recLen << 1);
+        }
+        rec[recLen++] = val;
+    }
+
+    private void pushString(String str) {
+        pushBytes(str.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void pushBytes(byte[] bytes) {
+        for (byte b : bytes) {
+            push(b & 0xff);
+        }
+    }
+
+    private void emitRecord(int code) {
+        if (out != null) {
+            out.emitRecord(code, rec, recLen);
+        }
+        recLen = 0;
+    }
+
+    /**
+     * Emit the current record with the given abbreviation, or unabbreviated if the abbreviation ID is -1.
+     */
+    private void emitRecord(int abbrevId, int code) {
+        if (out != null) {
+            if (abbrevId == -1) {
+                out.emitRecord(code, rec, recLen);
+            } else {
+                out.emitRecord(abbrevId, code, rec, recLen, null);
+            }
+        }
+        recLen = 0;
+    }
+
+    private void enterBlock(int blockId, int abbrevWidth) {
+        if (out != null) {
+            out.enterBlock(blockId, abbrevWidth);
+        }
+    }
+
+    private void exitBlock() {
+        if (out != null) {
+            out.exitBlock();
+        }
+    }
+
+    private static long signRotate(long val) {
+        return val >= 0 ? val << 1 : -val << 1 | 1;
+    }
+
+    private static int log2Plus1(int alignment) {
+        return alignment == 0 ? 0 : Integer.numberOfTrailingZeros(alignment) + 1;
+    }
+
+    // top level blocks
+
+    private void writeIdentificationBlock() {
+        out.enterBlock(IDENTIFICATION_BLOCK_ID, 5);
+        int stringAbbrev = out.defineAbbrev(Abbrev.of(literal(IDENTIFICATION_CODE_STRING), array(), char6()));
+        int epochAbbrev = out.defineAbbrev(Abbrev.of(literal(IDENTIFICATION_CODE_EPOCH), vbr(6)));
+        pushString("qbicc");
+        emitRecord(stringAbbrev, IDENTIFICATION_CODE_STRING);
+        push(0);
+        emitRecord(epochAbbrev, IDENTIFICATION_CODE_EPOCH);
+        out.exitBlock();
+    }
+
+    private void writeModuleBlock() {
+        out.enterBlock(MODULE_BLOCK_ID, 3);
+        // relative value IDs, names in the string table
+        push(2);
+        emitRecord(MODULE_CODE_VERSION);
+        writeBlockInfoBlock();
+        writeAttributeGroupBlock();
+        writeAttributeBlock();
+        writeTypeBlock();
+        for (String section : sectionIds.keySet()) {
+            pushString(section);
+            emitRecord(MODULE_CODE_SECTIONNAME);
+        }
+        for (String gc : gcIds.keySet()) {
+            pushString(gc);
+            emitRecord(MODULE_CODE_GCNAME);
+        }
+        writeGlobalVarRecords();
+        writeFunctionRecords();
+        writeModuleConstantsBlock();
+        writeMetadataKindBlock();
+        out.enterBlock(METADATA_BLOCK_ID, 3);
+        writeMetadataRecords();
+        out.exitBlock();
+        writeSyncScopeNamesBlock();
+        for (AbstractFunction function : functions) {
+            if (function instanceof FunctionDefinitionImpl definition) {
+                writeFunctionBlock(definition);
+            }
+        }
+        out.exitBlock();
+    }
+
+    private void writeStrtabBlock() {
+        out.enterBlock(STRTAB_BLOCK_ID, 3);
+        int blobAbbrev = out.defineAbbrev(Abbrev.of(literal(STRTAB_BLOB), blob()));
+        out.emitRecord(blobAbbrev, STRTAB_BLOB, rec, 0, strtab);
+        out.exitBlock();
+    }
+
+    private void writeBlockInfoBlock() {
+        out.enterBlock(BitstreamWriter.BLOCKINFO_BLOCK_ID, 2);
+        constantsSetTypeAbbrev = out.defineBlockInfoAbbrev(CONSTANTS_BLOCK_ID, Abbrev.of(literal(CST_CODE_SETTYPE), fixed(typeBits)));
+        constantsIntegerAbbrev = out.defineBlockInfoAbbrev(CONSTANTS_BLOCK_ID, Abbrev.of(literal(CST_CODE_INTEGER), vbr(8)));
+        constantsCastAbbrev = out.defineBlockInfoAbbrev(CONSTANTS_BLOCK_ID, Abbrev.of(literal(CST_CODE_CE_CAST), fixed(4), fixed(typeBits), vbr(8)));
+        constantsNullAbbrev = out.defineBlockInfoAbbrev(CONSTANTS_BLOCK_ID, Abbrev.of(literal(CST_CODE_NULL)));
+        functionLoadAbbrev = out.defineBlockInfoAbbrev(FUNCTION_BLOCK_ID, Abbrev.of(literal(FUNC_CODE_INST_LOAD), vbr(6), fixed(typeBits), vbr(4), fixed(1)));
+        functionBinopAbbrev = out.defineBlockInfoAbbrev(FUNCTION_BLOCK_ID, Abbrev.of(literal(FUNC_CODE_INST_BINOP), vbr(6), vbr(6), fixed(4)));
+        functionBinopFlagsAbbrev = out.defineBlockInfoAbbrev(FUNCTION_BLOCK_ID, Abbrev.of(literal(FUNC_CODE_INST_BINOP), vbr(6), vbr(6), fixed(4), fixed(8)));
+        functionCastAbbrev = out.defineBlockInfoAbbrev(FUNCTION_BLOCK_ID, Abbrev.of(literal(FUNC_CODE_INST_CAST), vbr(6), fixed(typeBits), fixed(4)));
+        functionRetVoidAbbrev = out.defineBlockInfoAbbrev(FUNCTION_BLOCK_ID, Abbrev.of(literal(FUNC_CODE_INST_RET)));
+        functionRetValAbbrev = out.defineBlockInfoAbbrev(FUNCTION_BLOCK_ID, Abbrev.of(literal(FUNC_CODE_INST_RET), vbr(6)));
+        functionUnreachableAbbrev = out.defineBlockInfoAbbrev(FUNCTION_BLOCK_ID, Abbrev.of(literal(FUNC_CODE_INST_UNREACHABLE)));
+        functionGepAbbrev = out.defineBlockInfoAbbrev(FUNCTION_BLOCK_ID, Abbrev.of(literal(FUNC_CODE_INST_GEP), fixed(1), fixed(typeBits), array(), vbr(6)));
+        out.exitBlock();
+    }
+
+    // attributes
+
+    private void writeAttributeGroupBlock() {
+        if (attributeGroupIds.isEmpty()) {
+            return;
+        }
+        out.enterBlock(PARAMATTR_GROUP_BLOCK_ID, 3);
+        for (Map.Entry<AttributeGroup, Integer> entry : attributeGroupIds.entrySet()) {
+            AttributeGroup group = entry.getKey();
+            push(entry.getValue().intValue());
+            push(group.index());
+            for (String attribute : group.attributes()) {
+                pushAttribute(attribute);
+            }
+            emitRecord(PARAMATTR_GRP_CODE_ENTRY);
+        }
+        out.exitBlock();
+    }
+
+    private void writeAttributeBlock() {
+        if (attributeListIds.isEmpty()) {
+            return;
+        }
+        out.enterBlock(PARAMATTR_BLOCK_ID, 3);
+        for (List<Integer> list : attributeListIds.keySet()) {
+            for (Integer group : list) {
+                push(group.intValue());
+            }
+            emitRecord(PARAMATTR_CODE_ENTRY);
+        }
+        out.exitBlock();
+    }
+
+    private void pushAttribute(String attribute) {
+        if (attribute.startsWith("\"")) {
+            int end = attribute.indexOf('"', 1);
+            String key = unquote(attribute.substring(0, end + 1));
+            if (end + 1 < attribute.length() && attribute.charAt(end + 1) == '=') {
+                push(4);
+                pushString(key);
+                push(0);
+                pushString(unquote(attribute.substring(end + 2)));
+            } else {
+                push(3);
+                pushString(key);
+            }
+            push(0);
+            return;
+        }
+        int paren = attribute.indexOf('(');
+        int space = attribute.indexOf(' ');
+        if (paren != -1 || space != -1) {
+            String name;
+            String value;
+            if (paren != -1 && attribute.endsWith(")")) {
+                name = attribute.substring(0, paren);
+                value = attribute.substring(paren + 1, attribute.length() - 1);
+            } else if (space != -1) {
+                name = attribute.substring(0, space);
+                value = attribute.substring(space + 1);
+            } else {
+                throw new UnsupportedOperationException("Unsupported attribute " + attribute);
+            }
+            Integer kind = INT_ATTRIBUTES.get(name);
+            if (kind == null) {
+                throw new UnsupportedOperationException("Unsupported attribute " + attribute);
+            }
+            push(1);
+            push(kind.intValue());
+            push(Long.parseLong(value.trim()));
+            return;
+        }
+        Integer kind = ENUM_ATTRIBUTES.get(attribute);
+        if (kind == null) {
+            throw new UnsupportedOperationException("Unsupported attribute " + attribute);
+        }
+        push(0);
+        push(kind.intValue());
+    }
+
+    private static String unquote(String quoted) {
+        if (quoted.length() < 2 || quoted.charAt(0) != '"' || quoted.charAt(quoted.length() - 1) != '"') {
+            throw new UnsupportedOperationException("Unsupported attribute string " + quoted);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (int i = 1; i < quoted.length() - 1; i ++) {
+            char c = quoted.charAt(i);
+            if (c == '\\') {
+                bytes.write(Integer.parseInt(quoted.substring(i + 1, i + 3), 16));
+                i += 2;
+            } else {
+                bytes.write(c);
+            }
+        }
+        return bytes.toString(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Get the attribute list ID for the given attributes, registering the list if needed.
+     *
+     * @param fnAttributes the function attributes
+     * @param retAttributes the return value attributes
+     * @param paramAttributes the parameter attributes, in parameter order
+     * @return the attribute list ID, or 0 if there are no attributes
+     */
+    private int attributeListId(List<AbstractValue> fnAttributes, List<AbstractValue> retAttributes, List<List<AbstractValue>> paramAttributes) {
+        List<Integer> groups = new ArrayList<>();
+        addAttributeGroup(groups, ATTRIBUTE_FUNCTION_INDEX, fnAttributes);
+        addAttributeGroup(groups, 0, retAttributes);
+        for (int i = 0; i < paramAttributes.size(); i ++) {
+            addAttributeGroup(groups, i + 1, paramAttributes.get(i));
+        }
+        if (groups.isEmpty()) {
+            return 0;
+        }
+        Integer id = attributeListIds.get(groups);
+        if (id == null) {
+            checkNotFrozen();
+            id = Integer.valueOf(attributeListIds.size() + 1);
+            attributeListIds.put(groups, id);
+        }
+        return id.intValue();
+    }
+
+    private void addAttributeGroup(List<Integer> groups, long index, List<AbstractValue> attributes) {
+        if (attributes.isEmpty()) {
+            return;
+        }
+        List<String> strings = new ArrayList<>(attributes.size());
+        for (AbstractValue attribute : attributes) {
+            strings.add(attribute.toString());
+        }
+        AttributeGroup group = new AttributeGroup(index, strings);
+        Integer id = attributeGroupIds.get(group);
+        if (id == null) {
+            checkNotFrozen();
+            // validate the attributes while enumerating
+            for (String attribute : strings) {
+                pushAttribute(attribute);
+            }
+            recLen = 0;
+            id = Integer.valueOf(attributeGroupIds.size() + 1);
+            attributeGroupIds.put(group, id);
+        }
+        groups.add(id);
+    }
+
+    // types
+
+    private static String typeKey(AbstractValue type) {
+        return type instanceof MetadataType ? "metadata" : type.toString();
+    }
+
+    private int typeId(AbstractValue type) {
+        Integer id = typeIdCache.get(type);
+        if (id == null) {
+            String key = typeKey(type);
+            id = typeIds.get(key);
+            if (id == null) {
+                checkNotFrozen();
+                registerType(type, key);
+                id = typeIds.get(key);
+                if (id == null) {
+                    throw new IllegalStateException("Type " + key + " is still being registered");
+                }
+            }
+            typeIdCache.put(type, id);
+        }
+        return id.intValue();
+    }
+
+    private void registerType(AbstractValue type) {
+        registerType(type, typeKey(type));
+    }
+
+    private void registerType(AbstractValue type, String key) {
+        if (typeIds.containsKey(key)) {
+            return;
+        }
+        if (type instanceof IdentifiedTypeImpl.Ref ref) {
+            // named structures may be referenced before they are defined, which allows cycles
+            if (! typesInProgress.add(key)) {
+                return;
+            }
+            AbstractValue body = ref.definition().getType();
+            if (body instanceof StructTypeImpl struct) {
+                for (AbstractValue member : structMembers(struct)) {
+                    registerType(member);
+                }
+            } else if (body != null) {
+                throw new UnsupportedOperationException("Identified type " + key + " is not a structure");
+            }
+            typesInProgress.remove(key);
+        } else if (type instanceof PointerTo pointer) {
+            registerType(pointer.getType());
+        } else if (type instanceof ArrayType array) {
+            registerType(array.getElementType());
+        } else if (type instanceof VectorOf vector) {
+            registerType(vector.getElementType());
+        } else if (type instanceof FunctionType fnType) {
+            registerType((AbstractValue) fnType.returnType);
+            for (LLValue argType : fnType.getArgTypes()) {
+                registerType((AbstractValue) argType);
+            }
+        } else if (type instanceof StructTypeImpl struct) {
+            for (AbstractValue member : structMembers(struct)) {
+                registerType(member);
+            }
+        } else if (type instanceof SingleWord word) {
+            if (simpleTypeCode(word.getName()) == -1) {
+                throw new UnsupportedOperationException("Unsupported type " + word.getName());
+            }
+        } else if (! (type instanceof MetadataType)) {
+            throw new UnsupportedOperationException("Unsupported type " + key);
+        }
+        typeIds.put(key, Integer.valueOf(types.size()));
+        types.add(type);
+    }
+
+    private static List<AbstractValue> structMembers(StructTypeImpl struct) {
+        List<AbstractValue> members = new ArrayList<>(struct.members.size());
+        for (int i = 0; i < struct.members.size(); i ++) {
+            if (! struct.literalPaddingMember(struct.memberNames.get(i))) {
+                members.add(struct.members.get(i));
+            }
+        }
+        return members;
+    }
+
+    private static int simpleTypeCode(String name) {
+        return switch (name) {
+            case "void" -> TYPE_CODE_VOID;
+            case "half" -> TYPE_CODE_HALF;
+            case "float" -> TYPE_CODE_FLOAT;
+            case "double" -> TYPE_CODE_DOUBLE;
+            case "fp128" -> TYPE_CODE_FP128;
+            case "label" -> TYPE_CODE_LABEL;
+            case "token" -> TYPE_CODE_TOKEN;
+            default -> intWidth(name) > 0 ? TYPE_CODE_INTEGER : -1;
+        };
+    }
+
+    private static int intWidth(String name) {
+        if (name.length() < 2 || name.charAt(0) != 'i') {
+            return -1;
+        }
+        for (int i = 1; i < name.length(); i ++) {
+            char c = name.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+        }
+        return Integer.parseInt(name.substring(1));
+    }
+
+    private static int intWidth(AbstractValue type) {
+        return type instanceof SingleWord word ? intWidth(word.getName()) : -1;
+    }
+
+    private static boolean isVoid(LLValue type) {
+        return type instanceof SingleWord word && word.getName().equals("void");
+    }
+
+    private void writeTypeBlock() {
+        out.enterBlock(TYPE_BLOCK_ID_NEW, 4);
+        int pointerAbbrev = out.defineAbbrev(Abbrev.of(literal(TYPE_CODE_POINTER), fixed(typeBits), literal(0)));
+        int functionAbbrev = out.defineAbbrev(Abbrev.of(literal(TYPE_CODE_FUNCTION), fixed(1), array(), fixed(typeBits)));
+        int structAnonAbbrev = out.defineAbbrev(Abbrev.of(literal(TYPE_CODE_STRUCT_ANON), fixed(1), array(), fixed(typeBits)));
+        int structNameAbbrev = out.defineAbbrev(Abbrev.of(literal(TYPE_CODE_STRUCT_NAME), array(), char6()));
+        int structNamedAbbrev = out.defineAbbrev(Abbrev.of(literal(TYPE_CODE_STRUCT_NAMED), fixed(1), array(), fixed(typeBits)));
+        int arrayAbbrev = out.defineAbbrev(Abbrev.of(literal(TYPE_CODE_ARRAY), vbr(8), fixed(typeBits)));
+        push(types.size());
+        emitRecord(TYPE_CODE_NUMENTRY);
+        for (AbstractValue type : types) {
+            if (type instanceof IdentifiedTypeImpl.Ref ref) {
+                IdentifiedTypeImpl definition = ref.definition();
+                pushString(definition.getName());
+                emitRecord(isChar6(definition.getName()) ? structNameAbbrev : -1, TYPE_CODE_STRUCT_NAME);
+                if (definition.getType() == null) {
+                    push(0);
+                    emitRecord(TYPE_CODE_OPAQUE);
+                } else {
+                    push(0);
+                    for (AbstractValue member : structMembers((StructTypeImpl) definition.getType())) {
+                        push(typeId(member));
+                    }
+                    emitRecord(structNamedAbbrev, TYPE_CODE_STRUCT_NAMED);
+                }
+            } else if (type instanceof PointerTo pointer) {
+                push(typeId(pointer.getType()));
+                push(pointer.getAddrSpace());
+                emitRecord(pointer.getAddrSpace() == 0 ? pointerAbbrev : -1, TYPE_CODE_POINTER);
+            } else if (type instanceof ArrayType array) {
+                push(array.getDimension());
+                push(typeId(array.getElementType()));
+                emitRecord(arrayAbbrev, TYPE_CODE_ARRAY);
+            } else if (type instanceof VectorOf vector) {
+                push(vector.getDimension());
+                push(typeId(vector.getElementType()));
+                if (vector.isVscale()) {
+                    push(1);
+                }
+                emitRecord(TYPE_CODE_VECTOR);
+            } else if (type instanceof FunctionType fnType) {
+                push(fnType.isVariadic() ? 1 : 0);
+                push(typeId((AbstractValue) fnType.returnType));
+                for (LLValue argType : fnType.getArgTypes()) {
+                    push(typeId((AbstractValue) argType));
+                }
+                emitRecord(functionAbbrev, TYPE_CODE_FUNCTION);
+            } else if (type instanceof StructTypeImpl struct) {
+                push(0);
+                for (AbstractValue member : structMembers(struct)) {
+                    push(typeId(member));
+                }
+                emitRecord(structAnonAbbrev, TYPE_CODE_STRUCT_ANON);
+            } else if (type instanceof MetadataType) {
+                emitRecord(TYPE_CODE_METADATA);
+            } else {
+                String name = ((SingleWord) type).getName();
+                int code = simpleTypeCode(name);
+                if (code == TYPE_CODE_INTEGER) {
+                    push(intWidth(name));
+                }
+                emitRecord(code);
+            }
+        }
+        out.exitBlock();
+    }
+
+    private static boolean isChar6(String str) {
+        for (int i = 0; i < str.length(); i ++) {
+            if (! BitstreamWriter.isChar6(str.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // values
+
+    private int valueId(AbstractValue value, AbstractValue type) {
+        if (value instanceof LocalValueOf || value instanceof NamedLocalValueOf) {
+            return localValueId(value.getInstruction());
+        } else if (value instanceof AbstractFunction.ParameterValue parameter) {
+            return localValueId(parameter.parameter);
+        } else if (value instanceof NamedGlobalValueOf global) {
+            return globalId(global.getName());
+        } else if (value instanceof GlobalValueOf) {
+            return globalId(value.toString().substring(1));
+        } else {
+            return constantId(value, type);
+        }
+    }
+
+    private int globalId(String name) {
+        Integer id = globalIds.get(name);
+        if (id == null) {
+            throw new IllegalStateException("Undefined global value @" + name);
+        }
+        return id.intValue();
+    }
+
+    private int localValueId(Object local) {
+        Integer id = localIds.get(local);
+        if (id == null) {
+            throw new IllegalStateException("Value is not defined in the current function");
+        }
+        return id.intValue();
+    }
+
+    private static Object localOf(AbstractValue value) {
+        if (value instanceof LocalValueOf || value instanceof NamedLocalValueOf) {
+            return value.getInstruction();
+        } else if (value instanceof AbstractFunction.ParameterValue parameter) {
+            return parameter.parameter;
+        } else {
+            return null;
+        }
+    }
+
+    // constants
+
+    private int constantId(AbstractValue value, AbstractValue type) {
+        boolean expression = value instanceof BitcastConstant || value instanceof AddrspacecastConstant
+            || value instanceof IntToPtrConstant || value instanceof PtrToIntConstant || value instanceof TruncConstant
+            || value instanceof SubConstant || value instanceof GetElementPtrConstant;
+        if (expression) {
+            Integer id = expressionConstantIds.get(value);
+            if (id != null) {
+                return id.intValue();
+            }
+        }
+        int typeId = typeId(type);
+        Object key;
+        if (value instanceof IntConstant c) {
+            key = Long.valueOf(c.value);
+        } else if (value instanceof LongConstant c) {
+            key = Long.valueOf(c.value);
+        } else if (value instanceof FloatConstant c) {
+            key = Double.valueOf(c.value);
+        } else if (value instanceof DoubleConstant c) {
+            key = Double.valueOf(c.value);
+        } else if (value instanceof SingleWord word) {
+            key = word.getName();
+        } else if (expression || value instanceof AsmExpression) {
+            key = value.toString();
+        } else if (value instanceof ArrayImpl || value instanceof StructImpl || value instanceof ByteArrayImpl) {
+            key = new Identity(value);
+        } else {
+            throw new UnsupportedOperationException("Unsupported constant " + value);
+        }
+        ConstantKey constantKey = new ConstantKey(typeId, key);
+        Integer id = constantIds.get(constantKey);
+        if (id == null) {
+            checkNotFrozen();
+            registerConstantOperands(value);
+            id = Integer.valueOf(globalIds.size() + constants.size());
+            constants.add(new Constant(value, type, typeId));
+            constantIds.put(constantKey, id);
+        }
+        if (expression) {
+            expressionConstantIds.put(value, id);
+        }
+        return id.intValue();
+    }
+
+    private void registerConstantOperands(AbstractValue value) {
+        if (value instanceof ArrayImpl array) {
+            for (AbstractValue item : array.values) {
+                valueId(item, array.elementType);
+            }
+        } else if (value instanceof StructImpl struct) {
+            for (int i = 0; i < struct.getPairs().size(); i += 2) {
+                valueId(struct.getPairs().get(i + 1), struct.getPairs().get(i));
+            }
+        } else if (value instanceof BitcastConstant c) {
+            registerCast((AbstractValue) c.value, (AbstractValue) c.fromType);
+        } else if (value instanceof AddrspacecastConstant c) {
+            registerCast((AbstractValue) c.value, (AbstractValue) c.fromType);
+        } else if (value instanceof IntToPtrConstant c) {
+            registerCast((AbstractValue) c.value, (AbstractValue) c.fromType);
+        } else if (value instanceof PtrToIntConstant c) {
+            registerCast((AbstractValue) c.value, (AbstractValue) c.fromType);
+        } else if (value instanceof TruncConstant c) {
+            registerCast((AbstractValue) c.value, (AbstractValue) c.fromType);
+        } else if (value instanceof SubConstant c) {
+            valueId((AbstractValue) c.lhs, (AbstractValue) c.type);
+            valueId((AbstractValue) c.rhs, (AbstractValue) c.type);
+        } else if (value instanceof GetElementPtrConstant gep) {
+            typeId((AbstractValue) gep.getType());
+            valueId((AbstractValue) gep.getPointer(), (AbstractValue) gep.getPtrType());
+            for (GetElementPtrConstant.ArgImpl arg : gepArgs(gep)) {
+                valueId(arg.index, arg.type);
+            }
+        }
+    }
+
+    private void registerCast(AbstractValue value, AbstractValue fromType) {
+        typeId(fromType);
+        valueId(value, fromType);
+    }
+
+    private static List<GetElementPtrConstant.ArgImpl> gepArgs(GetElementPtrConstant gep) {
+        List<GetElementPtrConstant.ArgImpl> args = new ArrayList<>();
+        for (GetElementPtrConstant.ArgImpl arg = gep.lastArg; arg != null; arg = arg.prev) {
+            args.add(arg);
+        }
+        Collections.reverse(args);
+        return args;
+    }
+
+    private void writeModuleConstantsBlock() {
+        if (constants.isEmpty()) {
+            return;
+        }
+        out.enterBlock(CONSTANTS_BLOCK_ID, 4);
+        int string8Abbrev = out.defineAbbrev(Abbrev.of(literal(CST_CODE_STRING), array(), fixed(8)));
+        int cstring8Abbrev = out.defineAbbrev(Abbrev.of(literal(CST_CODE_CSTRING), array(), fixed(8)));
+        int cstring7Abbrev = out.defineAbbrev(Abbrev.of(literal(CST_CODE_CSTRING), array(), fixed(7)));
+        int cstring6Abbrev = out.defineAbbrev(Abbrev.of(literal(CST_CODE_CSTRING), array(), char6()));
+        int lastTypeId = -1;
+        for (Constant constant : constants) {
+            if (constant.typeId() != lastTypeId) {
+                push(constant.typeId());
+                emitRecord(constantsSetTypeAbbrev, CST_CODE_SETTYPE);
+                lastTypeId = constant.typeId();
+            }
+            AbstractValue value = constant.value();
+            AbstractValue type = constant.type();
+            if (value instanceof ByteArrayImpl bytes) {
+                byte[] contents = bytes.contents;
+                if (contents.length == 0) {
+                    emitRecord(constantsNullAbbrev, CST_CODE_NULL);
+                    continue;
+                }
+                boolean cstring = contents[contents.length - 1] == 0;
+                int len = cstring ? contents.length - 1 : contents.length;
+                boolean char6 = true;
+                boolean char7 = true;
+                for (int i = 0; i < len; i ++) {
+                    int b = contents[i] & 0xff;
+                    push(b);
+                    char6 &= BitstreamWriter.isChar6(b);
+                    char7 &= b < 128;
+                }
+                if (! cstring) {
+                    emitRecord(string8Abbrev, CST_CODE_STRING);
+                } else {
+                    emitRecord(char6 ? cstring6Abbrev : char7 ? cstring7Abbrev : cstring8Abbrev, CST_CODE_CSTRING);
+                }
+            } else {
+                writeConstant(value, type);
+            }
+        }
+        out.exitBlock();
+    }
+
+    private void writeConstant(AbstractValue value, AbstractValue type) {
+        if (value instanceof IntConstant || value instanceof LongConstant) {
+            long val = value instanceof IntConstant c ? c.value : ((LongConstant) value).value;
+            writeIntegerConstant(val, type);
+        } else if (value instanceof FloatConstant || value instanceof DoubleConstant) {
+            double val = value instanceof FloatConstant c ? c.value : ((DoubleConstant) value).value;
+            String name = type instanceof SingleWord word ? word.getName() : "";
+            if (name.equals("float")) {
+                push(Float.floatToRawIntBits((float) val) & 0xffff_ffffL);
+            } else if (name.equals("double")) {
+                push(Double.doubleToRawLongBits(val));
+            } else {
+                throw new UnsupportedOperationException("Unsupported floating point constant of type " + type);
+            }
+            emitRecord(CST_CODE_FLOAT);
+        } else if (value instanceof SingleWord word) {
+            switch (word.getName()) {
+                case "true" -> writeIntegerConstant(1, type);
+                case "false" -> writeIntegerConstant(0, type);
+                case "null", "zeroinitializer" -> emitRecord(constantsNullAbbrev, CST_CODE_NULL);
+                case "undef" -> emitRecord(CST_CODE_UNDEF);
+                case "poison" -> emitRecord(CST_CODE_POISON);
+                default -> throw new UnsupportedOperationException("Unsupported constant " + word.getName());
+            }
+        } else if (value instanceof ArrayImpl array) {
+            if (array.values.isEmpty()) {
+                emitRecord(constantsNullAbbrev, CST_CODE_NULL);
+            } else if (isDataArray(array)) {
+                int width = intWidth(array.elementType);
+                for (AbstractValue item : array.values) {
+                    if (item instanceof IntConstant c) {
+                        push(width == 64 ? c.value : c.value & ((1L << width) - 1));
+                    } else if (item instanceof LongConstant c) {
+                        push(width == 64 ? c.value : c.value & ((1L << width) - 1));
+                    } else if (item instanceof FloatConstant c) {
+                        push(width == 32 || ((SingleWord) array.elementType).getName().equals("float") ? Float.floatToRawIntBits(c.value) & 0xffff_ffffL : Double.doubleToRawLongBits(c.value));
+                    } else {
+                        double val = ((DoubleConstant) item).value;
+                        push(((SingleWord) array.elementType).getName().equals("float") ? Float.floatToRawIntBits((float) val) & 0xffff_ffffL : Double.doubleToRawLongBits(val));
+                    }
+                }
+                emitRecord(CST_CODE_DATA);
+            } else {
+                for (AbstractValue item : array.values) {
+                    push(valueId(item, array.elementType));
+                }
+                emitRecord(CST_CODE_AGGREGATE);
+            }
+        } else if (value instanceof StructImpl struct) {
+            if (struct.getPairs().isEmpty()) {
+                emitRecord(constantsNullAbbrev, CST_CODE_NULL);
+            } else {
+                for (int i = 0; i < struct.getPairs().size(); i += 2) {
+                    push(valueId(struct.getPairs().get(i + 1), struct.getPairs().get(i)));
+                }
+                emitRecord(CST_CODE_AGGREGATE);
+            }
+        } else if (value instanceof BitcastConstant c) {
+            writeCastConstant(11, (AbstractValue) c.value, (AbstractValue) c.fromType);
+        } else if (value instanceof AddrspacecastConstant c) {
+            writeCastConstant(12, (AbstractValue) c.value, (AbstractValue) c.fromType);
+        } else if (value instanceof IntToPtrConstant c) {
+            writeCastConstant(10, (AbstractValue) c.value, (AbstractValue) c.fromType);
+        } else if (value instanceof PtrToIntConstant c) {
+            writeCastConstant(9, (AbstractValue) c.value, (AbstractValue) c.fromType);
+        } else if (value instanceof TruncConstant c) {
+            writeCastConstant(0, (AbstractValue) c.value, (AbstractValue) c.fromType);
+        } else if (value instanceof SubConstant c) {
+            // binary opcode 1 is sub
+            push(1);
+            push(valueId((AbstractValue) c.lhs, (AbstractValue) c.type));
+            push(valueId((AbstractValue) c.rhs, (AbstractValue) c.type));
+            emitRecord(CST_CODE_CE_BINOP);
+        } else if (value instanceof GetElementPtrConstant gep) {
+            push(typeId((AbstractValue) gep.getType()));
+            push(typeId((AbstractValue) gep.getPtrType()));
+            push(valueId((AbstractValue) gep.getPointer(), (AbstractValue) gep.getPtrType()));
+            for (GetElementPtrConstant.ArgImpl arg : gepArgs(gep)) {
+                push(typeId(arg.type));
+                push(valueId(arg.index, arg.type));
+            }
+            emitRecord(CST_CODE_CE_GEP);
+        } else if (value instanceof AsmExpression asm) {
+            Set<AsmFlag> flags = asm.getFlags();
+            boolean unwind = flags.contains(AsmFlag.UNWIND);
+            push((flags.contains(AsmFlag.SIDE_EFFECT) ? 1 : 0)
+                | (flags.contains(AsmFlag.ALIGN_STACK) ? 2 : 0)
+                | (flags.contains(AsmFlag.INTEL_DIALECT) ? 4 : 0)
+                | (unwind ? 8 : 0));
+            byte[] instruction = asm.getAssembly().getBytes(StandardCharsets.UTF_8);
+            push(instruction.length);
+            pushBytes(instruction);
+            byte[] constraints = asm.getConstraints().getBytes(StandardCharsets.UTF_8);
+            push(constraints.length);
+            pushBytes(constraints);
+            emitRecord(unwind ? CST_CODE_INLINEASM : CST_CODE_INLINEASM_OLD2);
+        } else {
+            throw new UnsupportedOperationException("Unsupported constant " + value);
+        }
+    }
+
+    private void writeIntegerConstant(long val, AbstractValue type) {
+        int width = intWidth(type);
+        if (width == -1) {
+            if (val == 0) {
+                emitRecord(constantsNullAbbrev, CST_CODE_NULL);
+                return;
+            }
+            throw new UnsupportedOperationException("Unsupported integer constant of type " + type);
+        }
+        if (width <= 64) {
+            // sign extend from the type width so that negative values are encoded compactly
+            int shift = 64 - width;
+            push(signRotate(val << shift >> shift));
+            emitRecord(constantsIntegerAbbrev, CST_CODE_INTEGER);
+        } else {
+            push(signRotate(val));
+            for (int i = 1; i < (width + 63) >> 6; i ++) {
+                push(signRotate(val < 0 ? -1 : 0));
+            }
+            emitRecord(CST_CODE_WIDE_INTEGER);
+        }
+    }
+
+    private void writeCastConstant(int opcode, AbstractValue value, AbstractValue fromType) {
+        push(opcode);
+        push(typeId(fromType));
+        push(valueId(value, fromType));
+        emitRecord(constantsCastAbbrev, CST_CODE_CE_CAST);
+    }
+
+    private static boolean isDataArray(ArrayImpl array) {
+        if (! (array.elementType instanceof SingleWord word)) {
+            return false;
+        }
+        boolean floating = word.getName().equals("float") || word.getName().equals("double");
+        int width = intWidth(word.getName());
+        if (! floating && width != 8 && width != 16 && width != 32 && width != 64) {
+            return false;
+        }
+        for (AbstractValue item : array.values) {
+            boolean ok = floating ? item instanceof FloatConstant || item instanceof DoubleConstant : item instanceof IntConstant || item instanceof LongConstant;
+            if (! ok) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // global values
+
+    private void writeGlobalVarRecords() {
+        int i = 0;
+        for (GlobalImpl global : globals) {
+            push(nameOffsets[i]);
+            push(globalName(global).getBytes(StandardCharsets.UTF_8).length);
+            push(typeId(global.type));
+            push((long) global.addressSpace << 2 | 2 | (global.constant ? 1 : 0));
+            push(global.value == null ? 0 : valueId(global.value, global.type) + 1);
+            push(global.appending ? 2 : encodeLinkage(global.linkage));
+            push(log2Plus1(global.alignment));
+            push(global.section == null ? 0 : sectionId(global.section));
+            push(encodeVisibility(global.visibility));
+            push(encodeThreadLocal(global.threadLocalStorageModel));
+            push(encodeAddressNaming(global.addressNaming));
+            push(0);
+            push(encodeDllStorageClass(global.dllStorageClass));
+            push(0);
+            push(0);
+            push(global.preemption == RuntimePreemption.LOCAL ? 1 : 0);
+            emitRecord(MODULE_CODE_GLOBALVAR);
+            i ++;
+        }
+    }
+
+    private void writeFunctionRecords() {
+        int i = globals.size();
+        for (AbstractFunction function : functions) {
+            FunctionDefinitionImpl definition = function instanceof FunctionDefinitionImpl d ? d : null;
+            List<AbstractFunction.ParameterImpl> params = parameters(function);
+            List<LLValue> argTypes = new ArrayList<>(params.size());
+            List<List<AbstractValue>> paramAttributes = new ArrayList<>(params.size());
+            for (AbstractFunction.ParameterImpl param : params) {
+                argTypes.add(param.type);
+                paramAttributes.add(param.attributes);
+            }
+            push(nameOffsets[i]);
+            push(function.name.getBytes(StandardCharsets.UTF_8).length);
+            push(typeId(new FunctionType(function.returnType.type, argTypes, function.variadic)));
+            push(encodeCallingConvention(function.callingConvention));
+            push(definition == null ? 1 : 0);
+            push(encodeLinkage(function.linkage));
+            push(attributeListId(function.attributes, function.returnType.attributes, paramAttributes));
+            push(log2Plus1(function.alignment));
+            push(definition == null || definition.section == null ? 0 : sectionId(definition.section));
+            push(encodeVisibility(function.visibility));
+            push(definition == null || definition.getGc() == null ? 0 : gcId(definition.getGc()));
+            push(encodeAddressNaming(function.addressNaming));
+            push(0);
+            push(encodeDllStorageClass(function.dllStorageClass));
+            push(0);
+            push(0);
+            push(definition == null || definition.getPersonalityValue() == null ? 0 : valueId(definition.getPersonalityValue(), definition.getPersonalityType()) + 1);
+            push(definition != null && definition.preemption == RuntimePreemption.LOCAL ? 1 : 0);
+            push(function.addressSpace);
+            emitRecord(MODULE_CODE_FUNCTION);
+            i ++;
+        }
+    }
+
+    private static List<AbstractFunction.ParameterImpl> parameters(AbstractFunction function) {
+        List<AbstractFunction.ParameterImpl> params = new ArrayList<>();
+        for (AbstractFunction.ParameterImpl param = function.lastParam; param != null; param = param.prev) {
+            params.add(param);
+        }
+        Collections.reverse(params);
+        return params;
+    }
+
+    private int sectionId(String section) {
+        return namedId(sectionIds, section);
+    }
+
+    private int gcId(String gc) {
+        return namedId(gcIds, gc);
+    }
+
+    private int namedId(Map<String, Integer> ids, String name) {
+        Integer id = ids.get(name);
+        if (id == null) {
+            checkNotFrozen();
+            id = Integer.valueOf(ids.size() + 1);
+            ids.put(name, id);
+        }
+        return id.intValue();
+    }
+
+    private static int encodeLinkage(Linkage linkage) {
+        return switch (linkage) {
+            case EXTERNAL -> 0;
+            case APPENDING -> 2;
+            case INTERNAL -> 3;
+            case EXTERN_WEAK -> 7;
+            case COMMON -> 8;
+            case PRIVATE -> 9;
+            case AVAILABLE_EXTERNALLY -> 12;
+            case WEAK -> 16;
+            case WEAK_ODR -> 17;
+            case LINK_ONCE -> 18;
+            case LINK_ONCE_ODR -> 19;
+        };
+    }
+
+    private static int encodeVisibility(Visibility visibility) {
+        return switch (visibility) {
+            case DEFAULT -> 0;
+            case HIDDEN -> 1;
+            case PROTECTED -> 2;
+        };
+    }
+
+    private static int encodeDllStorageClass(DllStorageClass dllStorageClass) {
+        return switch (dllStorageClass) {
+            case NONE -> 0;
+            case IMPORT -> 1;
+            case EXPORT -> 2;
+        };
+    }
+
+    private static int encodeAddressNaming(AddressNaming addressNaming) {
+        return switch (addressNaming) {
+            case NAMED -> 0;
+            case UNNAMED -> 1;
+            case LOCAL_UNNAMED -> 2;
+        };
+    }
+
+    private static int encodeThreadLocal(ThreadLocalStorageModel model) {
+        if (model == null) {
+            return 0;
+        }
+        return switch (model) {
+            case GENERAL_DYNAMIC -> 1;
+            case LOCAL_DYNAMIC -> 2;
+            case INITIAL_EXEC -> 3;
+            case LOCAL_EXEC -> 4;
+        };
+    }
+
+    private static int encodeCallingConvention(CallingConvention cc) {
+        return switch (cc) {
+            case C -> 0;
+            case FAST -> 8;
+            case COLD -> 9;
+            case CC_10 -> 10;
+            case CC_11 -> 11;
+            case WEBKIT_JS -> 12;
+            case ANYREG -> 13;
+            case PRESERVE_MOST -> 14;
+            case PRESERVE_ALL -> 15;
+            case SWIFT -> 16;
+            case CXX_FAST_TLS -> 17;
+            case TAIL -> 18;
+            case CFGUARD_CHECK -> 19;
+        };
+    }
+
+    private static int encodeOrdering(OrderingConstraint ordering) {
+        return ordering.ordinal() + 1;
+    }
+
+    private int syncScopeId(String syncScope) {
+        if (syncScope == null) {
+            // system
+            return 1;
+        } else if (syncScope.equals("singlethread")) {
+            return 0;
+        }
+        Integer id = syncScopeIds.get(syncScope);
+        if (id == null) {
+            checkNotFrozen();
+            id = Integer.valueOf(syncScopeIds.size() + 2);
+            syncScopeIds.put(syncScope, id);
+        }
+        return id.intValue();
+    }
+
+    private void writeSyncScopeNamesBlock() {
+        if (syncScopeIds.isEmpty()) {
+            return;
+        }
+        out.enterBlock(SYNC_SCOPE_NAMES_BLOCK_ID, 2);
+        pushString("singlethread");
+        emitRecord(SYNC_SCOPE_NAME);
+        emitRecord(SYNC_SCOPE_NAME);
+        for (String name : syncScopeIds.keySet()) {
+            pushString(name);
+            emitRecord(SYNC_SCOPE_NAME);
+        }
+        out.exitBlock();
+    }
+
+    // metadata
+
+    private int mdString(String str) {
+        if (str == null) {
+            return -1;
+        }
+        Integer id = mdStringIds.get(str);
+        if (id == null) {
+            checkNotFrozen();
+            id = Integer.valueOf(mdStringIds.size());
+            mdStringIds.put(str, id);
+        }
+        return id.intValue();
+    }
+
+    private int mdNode(Object node) {
+        Integer index = mdNodeIds.get(node);
+        if (index == null) {
+            checkNotFrozen();
+            index = Integer.valueOf(mdNodes.size());
+            mdNodes.add(node);
+            mdNodeIds.put(node, index);
+        }
+        // strings are numbered before nodes
+        return mdStringIds.size() + index.intValue();
+    }
+
+    private int mdCount() {
+        return mdStringIds.size() + mdNodes.size();
+    }
+
+    /**
+     * Get the metadata ID of a module-level metadata operand.
+     *
+     * @param value the operand value, or {@code null} for none
+     * @param type the type of a value operand, or {@code null} if the operand must be metadata
+     * @return the metadata ID, or -1 if the operand is {@code null}
+     */
+    private int mdRef(AbstractValue value, AbstractValue type) {
+        if (value == null) {
+            return -1;
+        } else if (value instanceof MetadataNodeRef ref) {
+            AbstractMetadataNode node = mdByIndex.get(Integer.valueOf(ref.getIndex()));
+            if (node == null) {
+                throw new IllegalStateException("Undefined metadata node !" + ref.getIndex());
+            }
+            return mdNode(node);
+        } else if (value instanceof MetadataString str) {
+            return mdString(str.getValue());
+        } else if (value instanceof DIExpressionImpl.AsValue expression) {
+            return mdNode(expression.expression());
+        } else if (type == null || type instanceof MetadataType) {
+            throw new UnsupportedOperationException("Unsupported metadata operand " + value);
+        } else {
+            return mdNode(new ValueMetadata(typeId(type), valueId(value, type)));
+        }
+    }
+
+    private int mdKindId(String name) {
+        Integer id = mdKindIds.get(name);
+        if (id == null) {
+            checkNotFrozen();
+            id = Integer.valueOf(mdKindIds.size());
+            mdKindIds.put(name, id);
+        }
+        return id.intValue();
+    }
+
+    private void writeMetadataKindBlock() {
+        out.enterBlock(METADATA_KIND_BLOCK_ID, 3);
+        for (Map.Entry<String, Integer> entry : mdKindIds.entrySet()) {
+            push(entry.getValue().intValue());
+            pushString(entry.getKey());
+            emitRecord(METADATA_KIND);
+        }
+        out.exitBlock();
+    }
+
+    private void writeMetadataRecords() {
+        if (out != null && ! mdStringIds.isEmpty()) {
+            BitstreamWriter lengths = new BitstreamWriter();
+            ByteArrayOutputStream chars = new ByteArrayOutputStream();
+            for (String str : mdStringIds.keySet()) {
+                byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+                lengths.emitVBR(bytes.length, 6);
+                chars.writeBytes(bytes);
+            }
+            lengths.alignTo32();
+            byte[] offsets = lengths.toByteArray();
+            byte[] blob = Arrays.copyOf(offsets, offsets.length + chars.size());
+            System.arraycopy(chars.toByteArray(), 0, blob, offsets.length, chars.size());
+            int stringsAbbrev = out.defineAbbrev(Abbrev.of(literal(METADATA_STRINGS), vbr(6), vbr(6), blob()));
+            push(mdStringIds.size());
+            push(offsets.length);
+            out.emitRecord(stringsAbbrev, METADATA_STRINGS, rec, recLen, blob);
+            recLen = 0;
+        }
+        // the list may grow while the operands of the nodes are enumerated
+        for (int i = 0; i < mdNodes.size(); i ++) {
+            writeMetadataNode(mdNodes.get(i));
+        }
+        for (Emittable item : module.getNamedMeta()) {
+            MetadataTupleImpl tuple = (MetadataTupleImpl) item;
+            pushString(tuple.getName());
+            emitRecord(METADATA_NAME);
+            for (MetadataTupleImpl.Element element : tupleElements(tuple)) {
+                push(mdRef(element.value, element.type));
+            }
+            emitRecord(METADATA_NAMED_NODE);
+        }
+        int i = 0;
+        for (GlobalImpl global : globals) {
+            writeGlobalAttachment(i++, global);
+        }
+        for (AbstractFunction function : functions) {
+            if (! (function instanceof FunctionDefinitionImpl)) {
+                writeGlobalAttachment(i, function);
+            }
+            i ++;
+        }
+    }
+
+    private void writeGlobalAttachment(int valueId, AbstractMetable item) {
+        if (item.lastMetaItem == null) {
+            return;
+        }
+        push(valueId);
+        for (AbstractMetable.MetaItem metaItem : metaItems(item)) {
+            push(mdKindId(metaItem.name));
+            push(mdRef(metaItem.metaValue, null));
+        }
+        emitRecord(METADATA_GLOBAL_DECL_ATTACHMENT);
+    }
+
+    private static List<AbstractMetable.MetaItem> metaItems(AbstractMetable item) {
+        List<AbstractMetable.MetaItem> items = new ArrayList<>();
+        for (AbstractMetable.MetaItem metaItem = item.lastMetaItem; metaItem != null; metaItem = metaItem.prev) {
+            items.add(metaItem);
+        }
+        Collections.reverse(items);
+        return items;
+    }
+
+    private static List<MetadataTupleImpl.Element> tupleElements(MetadataTupleImpl tuple) {
+        List<MetadataTupleImpl.Element> elements = new ArrayList<>();
+        for (MetadataTupleImpl.Element element = tuple.getLastElement(); element != null; element = element.prev) {
+            elements.add(element);
+        }
+        Collections.reverse(elements);
+        return elements;
+    }
+
+    private void pushMdOrNull(AbstractValue value) {
+        push(mdRef(value, null) + 1);
+    }
+
+    private void pushMdStringOrNull(String str) {
+        push(mdString(str) + 1);
+    }
+
+    private void writeMetadataNode(Object node) {
+        if (node instanceof ValueMetadata value) {
+            push(value.typeId());
+            push(value.valueId());
+            emitRecord(METADATA_VALUE);
+        } else if (node instanceof MetadataTupleImpl tuple) {
+            for (MetadataTupleImpl.Element element : tupleElements(tuple)) {
+                push(mdRef(element.value, element.type) + 1);
+            }
+            emitRecord(METADATA_NODE);
+        } else if (node instanceof DIExpressionImpl expression) {
+            List<DIExpressionImpl.Arg> args = new ArrayList<>();
+            for (DIExpressionImpl.Arg arg = expression.lastArg; arg != null; arg = arg.prev) {
+                args.add(arg);
+            }
+            Collections.reverse(args);
+            // version 3
+            push(3 << 1);
+            for (DIExpressionImpl.Arg arg : args) {
+                if (arg instanceof DIExpressionImpl.IntArg intArg) {
+                    push(intArg.val);
+                } else {
+                    Enum<?> val = ((DIExpressionImpl.EnumArg) arg).val;
+                    push(val instanceof DIOpcode op ? encodeOpcode(op) : encodeEncoding((DIEncoding) val));
+                }
+            }
+            emitRecord(METADATA_EXPRESSION);
+        } else if (node instanceof DILocationImpl location) {
+            push(location.isDistinct() ? 1 : 0);
+            push(location.getLine());
+            push(location.getColumn());
+            push(mdRef(location.getScope(), null));
+            pushMdOrNull(location.getInlinedAt());
+            push(0);
+            emitRecord(METADATA_LOCATION);
+        } else if (node instanceof DIFileImpl file) {
+            push(0);
+            pushMdStringOrNull(file.getFilename());
+            pushMdStringOrNull(file.getDirectory());
+            emitRecord(METADATA_FILE);
+        } else if (node instanceof DICompileUnitImpl unit) {
+            Integer language = SOURCE_LANGUAGES.get(unit.getLanguage());
+            if (language == null) {
+                throw new UnsupportedOperationException("Unsupported source language " + unit.getLanguage());
+            }
+            push(1);
+            push(language.intValue());
+            pushMdOrNull(unit.getFile());
+            pushMdStringOrNull(unit.getProducer());
+            push(unit.isOptimized() ? 1 : 0);
+            pushMdStringOrNull(unit.getFlags());
+            push(unit.getRuntimeVersion());
+            pushMdStringOrNull(unit.getSplitDebugFilename());
+            push(unit.getEmissionKind().ordinal());
+            pushMdOrNull(unit.getEnums());
+            pushMdOrNull(unit.getRetainedTypes());
+            // subprograms
+            push(0);
+            pushMdOrNull(unit.getGlobals());
+            pushMdOrNull(unit.getImports());
+            // DWO ID
+            push(0);
+            pushMdOrNull(unit.getMacros());
+            emitRecord(METADATA_COMPILE_UNIT);
+        } else if (node instanceof DISubprogramImpl subprogram) {
+            // distinct, has unit, has subprogram flags
+            push(1 | 2 | 4);
+            pushMdOrNull(subprogram.getScope());
+            pushMdStringOrNull(subprogram.getName());
+            pushMdStringOrNull(subprogram.getLinkageName());
+            pushMdOrNull(subprogram.getFile());
+            push(subprogram.getLine());
+            pushMdOrNull(subprogram.getType());
+            push(subprogram.getScopeLine());
+            pushMdOrNull(subprogram.getContainingType());
+            long spFlags = subprogram.getVirtuality().ordinal() | encodeSPFlags(subprogram.getSpFlags());
+            if (subprogram.isLocal()) {
+                spFlags |= 4;
+            }
+            if (subprogram.isDefinition()) {
+                spFlags |= 8;
+            }
+            if (subprogram.isOptimized()) {
+                spFlags |= 16;
+            }
+            push(spFlags);
+            push(subprogram.getVirtualIndex());
+            push(encodeFlags(subprogram.getFlags()));
+            pushMdOrNull(subprogram.getUnit());
+            pushMdOrNull(subprogram.getTemplateParams());
+            pushMdOrNull(subprogram.getDeclaration());
+            pushMdOrNull(subprogram.getRetainedNodes());
+            // this adjustment
+            push(0);
+            pushMdOrNull(subprogram.getThrownTypes());
+            emitRecord(METADATA_SUBPROGRAM);
+        } else if (node instanceof DISubrangeImpl subrange) {
+            // version 0: constant count and lower bound
+            push(0);
+            push(subrange.getCount());
+            push(0);
+            emitRecord(METADATA_SUBRANGE);
+        } else if (node instanceof DIBasicTypeImpl basicType) {
+            push(0);
+            // DW_TAG_base_type
+            push(0x24);
+            pushMdStringOrNull(basicType.getName());
+            push(basicType.getSize());
+            push(basicType.getAlign());
+            push(encodeEncoding(basicType.getEncoding()));
+            push(0);
+            emitRecord(METADATA_BASIC_TYPE);
+        } else if (node instanceof DIDerivedTypeImpl derivedType) {
+            push(0);
+            push(encodeTag(derivedType.getTag()));
+            pushMdStringOrNull(derivedType.getName());
+            pushMdOrNull(derivedType.getFile());
+            push(derivedType.getLine());
+            // scope
+            push(0);
+            pushMdOrNull(derivedType.getBaseType());
+            push(derivedType.getSize());
+            push(derivedType.getAlign());
+            push(derivedType.getOffset());
+            push(encodeFlags(derivedType.getFlags()));
+            // extra data
+            push(0);
+            emitRecord(METADATA_DERIVED_TYPE);
+        } else if (node instanceof DICompositeTypeImpl compositeType) {
+            // not used in an old type reference
+            push(2);
+            push(encodeTag(compositeType.getTag()));
+            pushMdStringOrNull(compositeType.getName());
+            pushMdOrNull(compositeType.getFile());
+            push(compositeType.getLine());
+            // scope
+            push(0);
+            pushMdOrNull(compositeType.getBaseType());
+            push(compositeType.getSize());
+            push(compositeType.getAlign());
+            // offset
+            push(0);
+            push(encodeFlags(compositeType.getFlags()));
+            pushMdOrNull(compositeType.getElements());
+            // runtime language, vtable holder, template parameters, identifier
+            push(0);
+            push(0);
+            push(0);
+            push(0);
+            emitRecord(METADATA_COMPOSITE_TYPE);
+        } else if (node instanceof DISubroutineTypeImpl subroutineType) {
+            push(2);
+            // flags
+            push(0);
+            pushMdOrNull(subroutineType.getTypes());
+            // calling convention
+            push(0);
+            emitRecord(METADATA_SUBROUTINE_TYPE);
+        } else if (node instanceof DILocalVariableImpl variable) {
+            // has alignment
+            push(2);
+            pushMdOrNull(variable.getScope());
+            pushMdStringOrNull(variable.getName());
+            pushMdOrNull(variable.getFile());
+            push(variable.getLine());
+            pushMdOrNull(variable.getType());
+            push(variable.getArgument() == -1 ? 0 : variable.getArgument());
+            push(encodeFlags(variable.getFlags()));
+            push(variable.getAlign());
+            emitRecord(METADATA_LOCAL_VAR);
+        } else {
+            throw new UnsupportedOperationException("Unsupported metadata node " + node);
+        }
+    }
+
+    private static int encodeTag(DITag tag) {
+        return switch (tag) {
+            case Member -> 0x0d;
+            case PointerType -> 0x0f;
+            case ReferenceType -> 0x10;
+            case Typedef -> 0x16;
+            case Inheritance -> 0x1c;
+            case PtrToMemberType -> 0x1f;
+            case ConstType -> 0x26;
+            case Friend -> 0x2a;
+            case VolatileType -> 0x35;
+            case RestrictType -> 0x37;
+            case AtomicType -> 0x47;
+            case ArrayType -> 0x01;
+            case ClassType -> 0x02;
+            case EnumerationType -> 0x04;
+            case StructureType -> 0x13;
+            case UnionType -> 0x17;
+        };
+    }
+
+    private static int encodeEncoding(DIEncoding encoding) {
+        // DW_ATE_address is 1 and the rest follow in order
+        return encoding.ordinal() + 1;
+    }
+
+    private static int encodeOpcode(DIOpcode opcode) {
+        return switch (opcode) {
+            case Deref -> 0x06;
+            case Plus -> 0x22;
+            case Minus -> 0x1c;
+            case PlusUConst -> 0x23;
+            case Fragment -> 0x1000;
+            case Convert -> 0x1001;
+            case TagOffset -> 0x1002;
+            case Swap -> 0x16;
+            case XDeref -> 0x18;
+            case StackValue -> 0x9f;
+            case EntryValue -> 0x1003;
+            case Arg -> 0x1005;
+            case PushObjectAddress -> 0x97;
+            case Over -> 0x14;
+            case ImplicitPointer -> 0x1004;
+        };
+    }
+
+    private static long encodeFlags(EnumSet<DIFlags> flags) {
+        long bits = 0;
+        for (DIFlags flag : flags) {
+            bits |= switch (flag) {
+                case Private -> 1;
+                case Protected -> 2;
+                case Public -> 3;
+                case FwdDecl -> 1 << 2;
+                case AppleBlock -> 1 << 3;
+                case Virtual -> 1 << 5;
+                case Artificial -> 1 << 6;
+                case Explicit -> 1 << 7;
+                case Prototyped -> 1 << 8;
+                case ObjcClassComplete -> 1 << 9;
+                case ObjectPointer -> 1 << 10;
+                case Vector -> 1 << 11;
+                case StaticMember -> 1 << 12;
+                case LValueReference -> 1 << 13;
+                case RValueReference -> 1 << 14;
+                case ExportSymbols -> 1 << 15;
+                case SingleInheritance -> 1 << 16;
+                case MultipleInheritance -> 2 << 16;
+                case VirtualInheritance -> 3 << 16;
+                case IntroducedVirtual -> 1 << 18;
+                case BitField -> 1 << 19;
+                case NoReturn -> 1 << 20;
+                case TypePassByValue -> 1 << 22;
+                case TypePassByReference -> 1 << 23;
+                case EnumClass -> 1 << 24;
+                case Thunk -> 1 << 25;
+                case NonTrivial -> 1 << 26;
+                case BigEndian -> 1 << 27;
+                case LittleEndian -> 1 << 28;
+                case AllCallsDescribed -> 1 << 29;
+            };
+        }
+        return bits;
+    }
+
+    private static long encodeSPFlags(EnumSet<DISPFlags> flags) {
+        long bits = 0;
+        for (DISPFlags flag : flags) {
+            bits |= switch (flag) {
+                case LocalToUnit -> 1 << 2;
+                case Definition -> 1 << 3;
+                case Optimized -> 1 << 4;
+                case Pure -> 1 << 5;
+                case Elemental -> 1 << 6;
+                case Recursive -> 1 << 7;
+                case MainSubprogram -> 1 << 8;
+                case Deleted -> 1 << 9;
+                case ObjCDirect -> 1 << 11;
+            };
+        }
+        return bits;
+    }
+
+    // functions
+
+    private void writeFunctionBlock(FunctionDefinitionImpl definition) {
+        function = definition;
+        localMetadata = functionMetadata.computeIfAbsent(definition, k -> new LinkedHashMap<>());
+        localIds.clear();
+        blockIds.clear();
+        attachments.clear();
+        int nextId = numModuleValues;
+        for (AbstractFunction.ParameterImpl param : parameters(definition)) {
+            localIds.put(param, Integer.valueOf(nextId++));
+        }
+        List<BasicBlockImpl> blocks = new ArrayList<>();
+        for (BasicBlockImpl block = definition.lastBlock; block != null; block = block.prev) {
+            if (! block.phis.isEmpty() || ! block.items.isEmpty() || block.terminator != null) {
+                if (block.terminator == null) {
+                    throw new IllegalStateException("Basic block not terminated");
+                }
+                blocks.add(block);
+            }
+        }
+        Collections.reverse(blocks);
+        instId = nextId;
+        for (BasicBlockImpl block : blocks) {
+            blockIds.put(block, Integer.valueOf(blockIds.size()));
+            for (List<AbstractEmittable> list : List.of(block.phis, block.items)) {
+                for (AbstractEmittable item : list) {
+                    if (yieldsValue(item)) {
+                        localIds.put(item, Integer.valueOf(nextId++));
+                    }
+                }
+            }
+            if (yieldsValue(block.terminator)) {
+                localIds.put(block.terminator, Integer.valueOf(nextId++));
+            }
+        }
+        enterBlock(FUNCTION_BLOCK_ID, 4);
+        push(blocks.size());
+        emitRecord(FUNC_CODE_DECLAREBLOCKS);
+        if (out != null && ! localMetadata.isEmpty()) {
+            out.enterBlock(METADATA_BLOCK_ID, 3);
+            for (LocalMetadata md : localMetadata.keySet()) {
+                push(md.typeId());
+                push(localValueId(md.local()));
+                emitRecord(METADATA_VALUE);
+            }
+            out.exitBlock();
+        }
+        instIndex = 0;
+        lastLoc = null;
+        for (BasicBlockImpl block : blocks) {
+            for (List<AbstractEmittable> list : List.of(block.phis, block.items)) {
+                for (AbstractEmittable item : list) {
+                    writeInstruction(item);
+                }
+            }
+            writeInstruction(block.terminator);
+        }
+        writeFunctionAttachmentBlock(definition);
+        exitBlock();
+        function = null;
+        localMetadata = null;
+    }
+
+    private void writeFunctionAttachmentBlock(FunctionDefinitionImpl definition) {
+        if (definition.lastMetaItem == null && attachments.isEmpty()) {
+            return;
+        }
+        enterBlock(METADATA_ATTACHMENT_ID, 3);
+        if (definition.lastMetaItem != null) {
+            for (AbstractMetable.MetaItem metaItem : metaItems(definition)) {
+                push(mdKindId(metaItem.name));
+                push(mdRef(metaItem.metaValue, null));
+            }
+            emitRecord(METADATA_ATTACHMENT);
+        }
+        for (long[] attachment : attachments) {
+            for (long val : attachment) {
+                push(val);
+            }
+            emitRecord(METADATA_ATTACHMENT);
+        }
+        exitBlock();
+    }
+
+    private boolean yieldsValue(AbstractEmittable item) {
+        if (item instanceof CallImpl call) {
+            return ! isVoid(callType(call.type, call.lastArg == null ? List.of() : callArgTypes(call)).returnType);
+        } else if (item instanceof InvokeImpl invoke) {
+            return ! isVoid(callType(invoke.type, invoke.lastArg == null ? List.of() : invokeArgTypes(invoke)).returnType);
+        } else if (item instanceof AssignmentImpl) {
+            throw new UnsupportedOperationException("Assignments cannot be expressed as bitcode");
+        } else {
+            return item instanceof AbstractYieldingInstruction;
+        }
+    }
+
+    private static FunctionType callType(AbstractValue type, List<LLValue> argTypes) {
+        return type instanceof FunctionType fnType ? fnType : new FunctionType(type, argTypes, false);
+    }
+
+    private static List<LLValue> callArgTypes(CallImpl call) {
+        List<LLValue> types = new ArrayList<>();
+        for (CallImpl.ArgImpl arg = call.lastArg; arg != null; arg = arg.prev) {
+            types.add(arg.type);
+        }
+        Collections.reverse(types);
+        return types;
+    }
+
+    private static List<LLValue> invokeArgTypes(InvokeImpl invoke) {
+        List<LLValue> types = new ArrayList<>();
+        for (InvokeImpl.ArgImpl arg = invoke.lastArg; arg != null; arg = arg.prev) {
+            types.add(arg.type);
+        }
+        Collections.reverse(types);
+        return types;
+    }
+
+    private int blockId(BasicBlockImpl block) {
+        Integer id = blockIds.get(block);
+        if (id == null) {
+            throw new IllegalStateException("Basic block is not part of the current function");
+        }
+        return id.intValue();
+    }
+
+    /**
+     * Push a value operand relative to the current instruction.
+     */
+    private void pushValue(AbstractValue value, AbstractValue type) {
+        push(instId - valueId(value, type) & 0xffff_ffffL);
+    }
+
+    /**
+     * Push a value operand relative to the current instruction, followed by its type if it is a forward reference.
+     *
+     * @return {@code true} if the type was pushed
+     */
+    private boolean pushValueAndType(AbstractValue value, AbstractValue type) {
+        int id = valueId(value, type);
+        push(instId - id & 0xffff_ffffL);
+        if (id >= instId) {
+            push(typeId(type));
+            return true;
+        }
+        return false;
+    }
+
+    private void pushMetadataOperand(AbstractValue value, AbstractValue type) {
+        Object local = localOf(value);
+        int id;
+        if (local != null) {
+            LocalMetadata key = new LocalMetadata(typeId(type), local);
+            Integer index = localMetadata.get(key);
+            if (index == null) {
+                checkNotFrozen();
+                index = Integer.valueOf(localMetadata.size());
+                localMetadata.put(key, index);
+            }
+            id = mdCount() + index.intValue();
+        } else {
+            id = mdRef(value, type);
+        }
+        push(instId - id & 0xffff_ffffL);
+    }
+
+    private static long intValue(AbstractValue value) {
+        if (value instanceof IntConstant c) {
+            return c.value;
+        } else if (value instanceof LongConstant c) {
+            return c.value;
+        } else {
+            throw new UnsupportedOperationException("Expected an integer constant but got " + value);
+        }
+    }
+
+    private static int encodeFastMathFlags(Set<FastMathFlag> flags) {
+        int bits = 0;
+        for (FastMathFlag flag : flags) {
+            bits |= switch (flag) {
+                case nnan -> 1 << 1;
+                case ninf -> 1 << 2;
+                case nsz -> 1 << 3;
+                case arcp -> 1 << 4;
+                case contract -> 1 << 5;
+                case afn -> 1 << 6;
+                case reassoc -> 1 << 7;
+            };
+        }
+        return bits;
+    }
+
+    private static int binaryOpcode(AbstractBinary binary) {
+        if (binary instanceof AddImpl || binary instanceof FAddImpl) {
+            return 0;
+        } else if (binary instanceof SubImpl || binary instanceof FSubImpl) {
+            return 1;
+        } else if (binary instanceof MulImpl || binary instanceof FMulImpl) {
+            return 2;
+        } else if (binary instanceof UdivImpl) {
+            return 3;
+        } else if (binary instanceof SdivImpl || binary instanceof FDivImpl) {
+            return 4;
+        } else if (binary instanceof URemImpl) {
+            return 5;
+        } else if (binary instanceof SRemImpl || binary instanceof FRemImpl) {
+            return 6;
+        } else if (binary instanceof ShlImpl) {
+            return 7;
+        } else if (binary instanceof LshrImpl) {
+            return 8;
+        } else if (binary instanceof AshrImpl) {
+            return 9;
+        } else if (binary instanceof AndImpl) {
+            return 10;
+        } else if (binary instanceof OrImpl) {
+            return 11;
+        } else if (binary instanceof XorImpl) {
+            return 12;
+        } else {
+            throw new UnsupportedOperationException("Unsupported binary instruction " + binary.getClass().getSimpleName());
+        }
+    }
+
+    private static int castOpcode(AbstractCastInstruction cast) {
+        if (cast instanceof TruncImpl) {
+            return 0;
+        } else if (cast instanceof ZExtImpl) {
+            return 1;
+        } else if (cast instanceof SExtImpl) {
+            return 2;
+        } else if (cast instanceof FPToUI) {
+            return 3;
+        } else if (cast instanceof FPToSI) {
+            return 4;
+        } else if (cast instanceof UIToFP) {
+            return 5;
+        } else if (cast instanceof SIToFP) {
+            return 6;
+        } else if (cast instanceof FTruncImpl) {
+            return 7;
+        } else if (cast instanceof FPExtImpl) {
+            return 8;
+        } else if (cast instanceof PtrToInt) {
+            return 9;
+        } else if (cast instanceof IntToPtr) {
+            return 10;
+        } else if (cast instanceof BitCastImpl) {
+            return 11;
+        } else if (cast instanceof AddrSpaceCast) {
+            return 12;
+        } else {
+            throw new UnsupportedOperationException("Unsupported cast instruction " + cast.getClass().getSimpleName());
+        }
+    }
+
+    private void writeInstruction(AbstractEmittable item) {
+        if (item instanceof FCmpImpl cmp) {
+            pushValueAndType(cmp.arg1, cmp.type);
+            pushValue(cmp.arg2, cmp.type);
+            push(switch (cmp.getCond()) {
+                case oeq -> 1;
+                case ogt -> 2;
+                case oge -> 3;
+                case olt -> 4;
+                case ole -> 5;
+                case one -> 6;
+                case ord -> 7;
+                case uno -> 8;
+                case ueq -> 9;
+                case ugt -> 10;
+                case uge -> 11;
+                case ult -> 12;
+                case ule -> 13;
+                case une -> 14;
+            });
+            int flags = encodeFastMathFlags(cmp.flags);
+            if (flags != 0) {
+                push(flags);
+            }
+            emitRecord(FUNC_CODE_INST_CMP2);
+        } else if (item instanceof IcmpImpl cmp) {
+            pushValueAndType(cmp.arg1, cmp.type);
+            pushValue(cmp.arg2, cmp.type);
+            push(switch (cmp.getCond()) {
+                case eq -> 32;
+                case ne -> 33;
+                case ugt -> 34;
+                case uge -> 35;
+                case ult -> 36;
+                case ule -> 37;
+                case sgt -> 38;
+                case sge -> 39;
+                case slt -> 40;
+                case sle -> 41;
+            });
+            emitRecord(FUNC_CODE_INST_CMP2);
+        } else if (item instanceof AbstractBinary binary) {
+            boolean forward = pushValueAndType(binary.arg1, binary.type);
+            pushValue(binary.arg2, binary.type);
+            push(binaryOpcode(binary));
+            int flags = 0;
+            if (binary instanceof AbstractNuwNswBinary nuwNsw) {
+                flags = (nuwNsw.nuw ? 1 : 0) | (nuwNsw.nsw ? 2 : 0);
+            } else if (binary instanceof AbstractExactBinary exact) {
+                flags = exact.exact ? 1 : 0;
+            } else if (binary instanceof AbstractFastMathBinary fastMath) {
+                flags = encodeFastMathFlags(fastMath.flags);
+            }
+            if (flags != 0) {
+                push(flags);
+                emitRecord(forward ? -1 : functionBinopFlagsAbbrev, FUNC_CODE_INST_BINOP);
+            } else {
+                emitRecord(forward ? -1 : functionBinopAbbrev, FUNC_CODE_INST_BINOP);
+            }
+        } else if (item instanceof FNegImpl neg) {
+            pushValueAndType(neg.arg, neg.type);
+            // FNEG
+            push(0);
+            int flags = encodeFastMathFlags(neg.flags);
+            if (flags != 0) {
+                push(flags);
+            }
+            emitRecord(FUNC_CODE_INST_UNOP);
+        } else if (item instanceof AbstractCastInstruction cast) {
+            boolean forward = pushValueAndType(cast.value, cast.type);
+            push(typeId(cast.toType));
+            push(castOpcode(cast));
+            emitRecord(forward ? -1 : functionCastAbbrev, FUNC_CODE_INST_CAST);
+        } else if (item instanceof LoadImpl load) {
+            boolean forward = pushValueAndType(load.pointer, load.pointeeType);
+            push(typeId(load.type));
+            push(log2Plus1(load.alignment));
+            push(load.volatile_ ? 1 : 0);
+            if (load.constraint != null) {
+                push(encodeOrdering(load.constraint));
+                push(syncScopeId(load.syncScope));
+                emitRecord(FUNC_CODE_INST_LOADATOMIC);
+            } else {
+                emitRecord(forward ? -1 : functionLoadAbbrev, FUNC_CODE_INST_LOAD);
+            }
+        } else if (item instanceof StoreImpl store) {
+            pushValueAndType(store.pointer, store.pointeeType);
+            pushValueAndType(store.value, store.type);
+            push(log2Plus1(store.alignment));
+            push(store.volatile_ ? 1 : 0);
+            if (store.constraint != null) {
+                push(encodeOrdering(store.constraint));
+                push(syncScopeId(store.syncScope));
+                emitRecord(FUNC_CODE_INST_STOREATOMIC);
+            } else {
+                emitRecord(FUNC_CODE_INST_STORE);
+            }
+        } else if (item instanceof CmpAndSwapImpl cmpxchg) {
+            pushValueAndType(cmpxchg.getPointer(), cmpxchg.getPointerType());
+            pushValueAndType(cmpxchg.getExpect(), cmpxchg.getType());
+            pushValue(cmpxchg.getUpdate(), cmpxchg.getType());
+            push(cmpxchg.isVolatile() ? 1 : 0);
+            push(encodeOrdering(cmpxchg.getSuccessOrdering()));
+            push(syncScopeId(cmpxchg.getSyncScope()));
+            push(encodeOrdering(cmpxchg.getFailureOrdering()));
+            push(cmpxchg.isWeak() ? 1 : 0);
+            emitRecord(FUNC_CODE_INST_CMPXCHG);
+        } else if (item instanceof AtomicRmwImpl rmw) {
+            pushValueAndType(rmw.pointer, rmw.pointeeType);
+            pushValue(rmw.value, rmw.type);
+            push(rmw.operation.ordinal());
+            push(rmw.volatile_ ? 1 : 0);
+            push(encodeOrdering(rmw.constraint));
+            push(syncScopeId(rmw.syncScope));
+            emitRecord(FUNC_CODE_INST_ATOMICRMW);
+        } else if (item instanceof FenceImpl fence) {
+            push(encodeOrdering(fence.ordering));
+            push(syncScopeId(fence.syncScope));
+            emitRecord(FUNC_CODE_INST_FENCE);
+        } else if (item instanceof AllocaImpl alloca) {
+            AbstractValue countType = alloca.getNumElementsType() == null ? (AbstractValue) LLVM.i32 : alloca.getNumElementsType();
+            AbstractValue count = alloca.getNumElements() == null ? (AbstractValue) LLVM.intConstant(1) : alloca.getNumElements();
+            push(typeId(alloca.getType()));
+            push(typeId(countType));
+            push(valueId(count, countType));
+            push(log2Plus1(alloca.getAlign() == null ? 0 : (int) intValue(alloca.getAlign())) | ALLOCA_EXPLICIT_TYPE);
+            emitRecord(FUNC_CODE_INST_ALLOCA);
+        } else if (item instanceof GetElementPtrImpl gep) {
+            push(0);
+            push(typeId(gep.getType()));
+            boolean forward = pushValueAndType(gep.getPointer(), gep.getPtrType());
+            List<GetElementPtrImpl.ArgImpl> args = new ArrayList<>();
+            for (GetElementPtrImpl.ArgImpl arg = gep.lastArg; arg != null; arg = arg.prev) {
+                args.add(arg);
+            }
+            Collections.reverse(args);
+            for (GetElementPtrImpl.ArgImpl arg : args) {
+                forward |= pushValueAndType(arg.index, arg.type);
+            }
+            emitRecord(forward ? -1 : functionGepAbbrev, FUNC_CODE_INST_GEP);
+        } else if (item instanceof SelectImpl select) {
+            pushValueAndType(select.getTrueValue(), select.getValueType());
+            pushValue(select.getFalseValue(), select.getValueType());
+            pushValueAndType(select.getCond(), select.getCondType());
+            int flags = encodeFastMathFlags(select.flags);
+            if (flags != 0) {
+                push(flags);
+            }
+            emitRecord(FUNC_CODE_INST_VSELECT);
+        } else if (item instanceof PhiImpl phi) {
+            if (phi.getLastItem() == null) {
+                // an empty phi is emitted as an undefined value
+                AbstractValue undef = (AbstractValue) LLVM.UNDEF;
+                pushValueAndType(undef, phi.getType());
+                pushValue(undef, phi.getType());
+                pushValueAndType((AbstractValue) LLVM.TRUE, (AbstractValue) LLVM.i1);
+                emitRecord(FUNC_CODE_INST_VSELECT);
+            } else {
+                push(typeId(phi.getType()));
+                List<PhiImpl.Item> items = new ArrayList<>();
+                for (PhiImpl.Item phiItem = phi.getLastItem(); phiItem != null; phiItem = phiItem.getPrev()) {
+                    items.add(phiItem);
+                }
+                Collections.reverse(items);
+                for (PhiImpl.Item phiItem : items) {
+                    push(signRotate(instId - valueId(phiItem.getData(), phi.getType())));
+                    push(blockId(phiItem.getIncoming()));
+                }
+                emitRecord(FUNC_CODE_INST_PHI);
+            }
+        } else if (item instanceof ExtractValueImpl extract) {
+            pushValueAndType(extract.getAggregate(), extract.getAggregateType());
+            pushIndices(extract.lastArg == null ? List.of() : extractIndices(extract));
+            emitRecord(FUNC_CODE_INST_EXTRACTVAL);
+        } else if (item instanceof InsertValueImpl insert) {
+            pushValueAndType(insert.getAggregate(), insert.getAggregateType());
+            pushValueAndType(insert.getInsert(), insert.getInsertType());
+            pushIndices(insert.lastArg == null ? List.of() : insertIndices(insert));
+            emitRecord(FUNC_CODE_INST_INSERTVAL);
+        } else if (item instanceof CallImpl call) {
+            writeCall(call);
+        } else if (item instanceof InvokeImpl invoke) {
+            writeInvoke(invoke);
+        } else if (item instanceof LandingPadImpl landingPad) {
+            push(typeId(landingPad.getResultType()));
+            push(landingPad.cleanup ? 1 : 0);
+            List<LandingPadImpl.Clause> clauses = new ArrayList<>();
+            for (LandingPadImpl.Clause clause = landingPad.last; clause != null; clause = clause.getPrev()) {
+                clauses.add(clause);
+            }
+            Collections.reverse(clauses);
+            push(clauses.size());
+            for (LandingPadImpl.Clause clause : clauses) {
+                push(clause instanceof LandingPadImpl.Catch ? 0 : 1);
+                pushValueAndType(clause.getValue(), clause.getType());
+            }
+            emitRecord(FUNC_CODE_INST_LANDINGPAD);
+        } else if (item instanceof VaArg vaArg) {
+            push(typeId(vaArg.getVaListType()));
+            pushValue(vaArg.getVaList(), vaArg.getVaListType());
+            push(typeId(vaArg.getOutputType()));
+            emitRecord(FUNC_CODE_INST_VAARG);
+        } else if (item instanceof VoidReturn) {
+            emitRecord(functionRetVoidAbbrev, FUNC_CODE_INST_RET);
+        } else if (item instanceof ValueReturn ret) {
+            boolean forward = pushValueAndType(ret.getVal(), ret.getType());
+            emitRecord(forward ? -1 : functionRetValAbbrev, FUNC_CODE_INST_RET);
+        } else if (item instanceof UnconditionalBranchImpl br) {
+            push(blockId(br.getDest()));
+            emitRecord(FUNC_CODE_INST_BR);
+        } else if (item instanceof ConditionalBranchImpl br) {
+            push(blockId(br.getIfTrue()));
+            push(blockId(br.getIfFalse()));
+            pushValue(br.getCond(), (AbstractValue) LLVM.i1);
+            emitRecord(FUNC_CODE_INST_BR);
+        } else if (item instanceof SwitchImpl sw) {
+            push(typeId(sw.getType()));
+            pushValue(sw.getValue(), sw.getType());
+            push(blockId(sw.getDefaultTarget()));
+            List<SwitchImpl.CaseImpl> cases = new ArrayList<>();
+            for (SwitchImpl.CaseImpl c = sw.getLastCase(); c != null; c = c.prev) {
+                cases.add(c);
+            }
+            Collections.reverse(cases);
+            for (SwitchImpl.CaseImpl c : cases) {
+                push(valueId(c.value, sw.getType()));
+                push(blockId(c.target));
+            }
+            emitRecord(FUNC_CODE_INST_SWITCH);
+        } else if (item instanceof Unreachable) {
+            emitRecord(functionUnreachableAbbrev, FUNC_CODE_INST_UNREACHABLE);
+        } else {
+            throw new UnsupportedOperationException("Unsupported instruction " + item.getClass().getSimpleName());
+        }
+        if (localIds.containsKey(item)) {
+            instId ++;
+        }
+        writeInstructionMetadata((AbstractMetable) item);
+        instIndex ++;
+    }
+
+    private void pushIndices(List<AbstractValue> indices) {
+        for (AbstractValue index : indices) {
+            push(intValue(index));
+        }
+    }
+
+    private static List<AbstractValue> extractIndices(ExtractValueImpl extract) {
+        List<AbstractValue> indices = new ArrayList<>();
+        for (ExtractValueImpl.ArgImpl arg = extract.lastArg; arg != null; arg = arg.prev) {
+            indices.add(arg.index);
+        }
+        Collections.reverse(indices);
+        return indices;
+    }
+
+    private static List<AbstractValue> insertIndices(InsertValueImpl insert) {
+        List<AbstractValue> indices = new ArrayList<>();
+        for (InsertValueImpl.ArgImpl arg = insert.lastArg; arg != null; arg = arg.prev) {
+            indices.add(arg.index);
+        }
+        Collections.reverse(indices);
+        return indices;
+    }
+
+    private void writeCall(CallImpl call) {
+        List<CallImpl.ArgImpl> args = new ArrayList<>();
+        for (CallImpl.ArgImpl arg = call.lastArg; arg != null; arg = arg.prev) {
+            args.add(arg);
+        }
+        Collections.reverse(args);
+        List<List<AbstractValue>> argAttributes = new ArrayList<>(args.size());
+        List<AbstractValue> argTypes = new ArrayList<>(args.size());
+        List<AbstractValue> argValues = new ArrayList<>(args.size());
+        for (CallImpl.ArgImpl arg : args) {
+            argAttributes.add(arg.attributes);
+            argTypes.add(arg.type);
+            argValues.add(arg.value);
+        }
+        FunctionType fnType = callType(call.type, List.copyOf(argTypes));
+        push(attributeListId(call.attributes, call.returns.attributes, argAttributes));
+        int flags = encodeFastMathFlags(call.flags);
+        push((long) encodeCallingConvention(call.cconv) << 1
+            | (call.tailType == org.qbicc.machine.llvm.TailType.tail ? 1 : 0)
+            | (call.tailType == org.qbicc.machine.llvm.TailType.musttail ? 1 << 14 : 0)
+            | CALL_EXPLICIT_TYPE
+            | (flags != 0 ? 1 << 17 : 0));
+        if (flags != 0) {
+            push(flags);
+        }
+        push(typeId(fnType));
+        pushValueAndType(call.function, new PointerTo(fnType, call.addressSpace));
+        pushArguments(fnType, argTypes, argValues);
+        emitRecord(FUNC_CODE_INST_CALL);
+    }
+
+    private void writeInvoke(InvokeImpl invoke) {
+        List<InvokeImpl.ArgImpl> args = new ArrayList<>();
+        for (InvokeImpl.ArgImpl arg = invoke.lastArg; arg != null; arg = arg.prev) {
+            args.add(arg);
+        }
+        Collections.reverse(args);
+        List<List<AbstractValue>> argAttributes = new ArrayList<>(args.size());
+        List<AbstractValue> argTypes = new ArrayList<>(args.size());
+        List<AbstractValue> argValues = new ArrayList<>(args.size());
+        for (InvokeImpl.ArgImpl arg : args) {
+            argAttributes.add(arg.attributes);
+            argTypes.add(arg.type);
+            argValues.add(arg.value);
+        }
+        FunctionType fnType = callType(invoke.type, List.copyOf(argTypes));
+        push(attributeListId(invoke.attributes, invoke.returns.attributes, argAttributes));
+        push(encodeCallingConvention(invoke.cconv) | INVOKE_EXPLICIT_TYPE);
+        push(blockId(invoke.normal));
+        push(blockId(invoke.unwind));
+        push(typeId(fnType));
+        pushValueAndType(invoke.function, new PointerTo(fnType, invoke.addressSpace));
+        pushArguments(fnType, argTypes, argValues);
+        emitRecord(FUNC_CODE_INST_INVOKE);
+    }
+
+    private void pushArguments(FunctionType fnType, List<AbstractValue> argTypes, List<AbstractValue> argValues) {
+        int fixed = fnType.getArgTypes().size();
+        for (int i = 0; i < argValues.size(); i ++) {
+            AbstractValue type = argTypes.get(i);
+            AbstractValue value = argValues.get(i);
+            if (type instanceof MetadataType metadataType) {
+                pushMetadataOperand(value, metadataType.getType());
+            } else if (i < fixed) {
+                pushValue(value, type);
+            } else {
+                pushValueAndType(value, type);
+            }
+        }
+    }
+
+    private void writeInstructionMetadata(AbstractMetable item) {
+        if (item.lastMetaItem == null) {
+            return;
+        }
+        List<Long> other = new ArrayList<>();
+        for (AbstractMetable.MetaItem metaItem : metaItems(item)) {
+            if (metaItem.name.equals("dbg") && metaItem.metaValue instanceof MetadataNodeRef ref
+                && mdByIndex.get(Integer.valueOf(ref.getIndex())) instanceof DILocationImpl location) {
+                long[] loc = {
+                    location.getLine(),
+                    location.getColumn(),
+                    mdRef(location.getScope(), null) + 1,
+                    mdRef(location.getInlinedAt(), null) + 1,
+                };
+                if (Arrays.equals(loc, lastLoc)) {
+                    emitRecord(FUNC_CODE_DEBUG_LOC_AGAIN);
+                } else {
+                    for (long val : loc) {
+                        push(val);
+                    }
+                    emitRecord(FUNC_CODE_DEBUG_LOC);
+                    lastLoc = loc;
+                }
+            } else {
+                other.add(Long.valueOf(mdKindId(metaItem.name)));
+                other.add(Long.valueOf(mdRef(metaItem.metaValue, null)));
+            }
+        }
+        if (! other.isEmpty()) {
+            long[] attachment = new long[other.size() + 1];
+            attachment[0] = instIndex;
+            for (int i = 0; i < other.size(); i ++) {
+                attachment[i + 1] = other.get(i).longValue();
+            }
+            attachments.add(attachment);
+        }
+    }
+
+    record Constant(AbstractValue value, AbstractValue type, int typeId) {}
+
+    record ConstantKey(int typeId, Object key) {}
+
+    record AttributeGroup(long index, List<String> attributes) {}
+
+    record ValueMetadata(int typeId, int valueId) {}
+
+    record LocalMetadata(int typeId, Object local) {}
+
+    /**
+     * A key which compares its value by identity.
+     */
+    record Identity(Object value) {
+        public boolean equals(Object obj) {
+            return obj instanceof Identity other && value == other.value;
+        }
+
+        public int hashCode() {
+            return System.identityHashCode(value);
+        }
+    }
+}
@@ -0,0 +1,325 @@
+package org.qbicc.machine.llvm.impl;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A writer for the LLVM bitstream container format.  The stream is built in memory so that the length of each block
+ * can be filled in when the block is closed.
+ *
+ * @see <a href="https://llvm.org/docs/BitCodeFormat.html">LLVM Bitcode File Format</a>
+ */
+final class BitstreamWriter {
+    static final int END_BLOCK = 0;
+    static final int ENTER_SUBBLOCK = 1;
+    static final int DEFINE_ABBREV = 2;
+    static final int UNABBREV_RECORD = 3;
+    static final int FIRST_APPLICATION_ABBREV = 4;
+
+    static final int BLOCKINFO_BLOCK_ID = 0;
+    static final int BLOCKINFO_CODE_SETBID = 1;
+
+    private static final int ENCODING_FIXED = 1;
+    private static final int ENCODING_VBR = 2;
+    private static final int ENCODING_ARRAY = 3;
+    private static final int ENCODING_CHAR6 = 4;
+    private static final int ENCODING_BLOB = 5;
+
+    private byte[] buf = new byte[8192];
+    private int len;
+    private long cur;
+    private int curBits;
+    private int abbrevWidth = 2;
+    private List<Abbrev> abbrevs = new ArrayList<>();
+    private final ArrayDeque<Block> blocks = new ArrayDeque<>();
+    private final Map<Integer, List<Abbrev>> blockInfo = new HashMap<>();
+    private int blockInfoCurrentId = -1;
+
+    BitstreamWriter() {
+    }
+
+    // primitives
+
+    void emit(long val, int width) {
+        if (width > 32) {
+            emit(val & 0xffff_ffffL, 32);
+            emit(val >>> 32, width - 32);
+            return;
+        }
+        if (width == 0) {
+            return;
+        }
+        cur |= (val & (-1L >>> (64 - width))) << curBits;
+        curBits += width;
+        if (curBits >= 32) {
+            writeWord((int) cur);
+            cur >>>= 32;
+            curBits -= 32;
+        }
+    }
+
+    void emitVBR(long val, int width) {
+        final long threshold = 1L << (width - 1);
+        while (Long.compareUnsigned(val, threshold) >= 0) {
+            emit((val & (threshold - 1)) | threshold, width);
+            val >>>= width - 1;
+        }
+        emit(val, width);
+    }
+
+    void alignTo32() {
+        if (curBits > 0) {
+            emit(0, 32 - curBits);
+        }
+    }
+
+    private void writeWord(int word) {
+        if (len + 4 > buf.length) {
+            buf = Arrays.copyOf(buf, buf.length << 1);
+        }
+        buf[len] = (byte) word;
+        buf[len + 1] = (byte) (word >> 8);
+        buf[len + 2] = (byte) (word >> 16);
+        buf[len + 3] = (byte) (word >> 24);
+        len += 4;
+    }
+
+    private void writeBytes(byte[] bytes) {
+        // only called when the stream is aligned
+        for (byte b : bytes) {
+            emit(b & 0xff, 8);
+        }
+        alignTo32();
+    }
+
+    // blocks
+
+    void enterBlock(int blockId, int newAbbrevWidth) {
+        emit(ENTER_SUBBLOCK, abbrevWidth);
+        emitVBR(blockId, 8);
+        emitVBR(newAbbrevWidth, 4);
+        alignTo32();
+        int lengthPos = len;
+        // placeholder for the block length in words
+        writeWord(0);
+        blocks.push(new Block(abbrevWidth, abbrevs, lengthPos));
+        abbrevWidth = newAbbrevWidth;
+        List<Abbrev> inherited = blockInfo.get(Integer.valueOf(blockId));
+        abbrevs = inherited == null ? new ArrayList<>() : new ArrayList<>(inherited);
+    }
+
+    void exitBlock() {
+        emit(END_BLOCK, abbrevWidth);
+        alignTo32();
+        Block block = blocks.pop();
+        int words = (len - block.lengthPos) / 4 - 1;
+        buf[block.lengthPos] = (byte) words;
+        buf[block.lengthPos + 1] = (byte) (words >> 8);
+        buf[block.lengthPos + 2] = (byte) (words >> 16);
+        buf[block.lengthPos + 3] = (byte) (words >> 24);
+        abbrevWidth = block.abbrevWidth;
+        abbrevs = block.abbrevs;
+    }
+
+    // abbreviations
+
+    /**
+     * Define an abbreviation in the current block.
+     *
+     * @param abbrev the abbreviation
+     * @return the abbreviation ID
+     */
+    int defineAbbrev(Abbrev abbrev) {
+        emitAbbrevDefinition(abbrev);
+        abbrevs.add(abbrev);
+        return FIRST_APPLICATION_ABBREV + abbrevs.size() - 1;
+    }
+
+    /**
+     * Define an abbreviation for every block with the given ID which is entered afterwards.  The current block must be
+     * the block info block; the record which selects the block ID is emitted as needed.
+     *
+     * @param blockId the block ID
+     * @param abbrev the abbreviation
+     * @return the abbreviation ID
+     */
+    int defineBlockInfoAbbrev(int blockId, Abbrev abbrev) {
+        if (blockId != blockInfoCurrentId) {
+            emitRecord(BLOCKINFO_CODE_SETBID, blockId);
+            blockInfoCurrentId = blockId;
+        }
+        emitAbbrevDefinition(abbrev);
+        List<Abbrev> list = blockInfo.computeIfAbsent(Integer.valueOf(blockId), k -> new ArrayList<>());
+        list.add(abbrev);
+        return FIRST_APPLICATION_ABBREV + list.size() - 1;
+    }
+
+    private void emitAbbrevDefinition(Abbrev abbrev) {
+        emit(DEFINE_ABBREV, abbrevWidth);
+        emitVBR(abbrev.ops.length, 5);
+        for (long op : abbrev.ops) {
+            int encoding = (int) (op >>> 32);
+            if (encoding == 0) {
+                // literal
+                emit(1, 1);
+                emitVBR(op, 8);
+            } else {
+                emit(0, 1);
+                emit(encoding, 3);
+                if (encoding == ENCODING_FIXED || encoding == ENCODING_VBR) {
+                    emitVBR(op & 0xffff_ffffL, 5);
+                }
+            }
+        }
+    }
+
+    // records
+
+    void emitRecord(int code, long[] vals, int cnt) {
+        emit(UNABBREV_RECORD, abbrevWidth);
+        emitVBR(code, 6);
+        emitVBR(cnt, 6);
+        for (int i = 0; i < cnt; i ++) {
+            emitVBR(vals[i], 6);
+        }
+    }
+
+    void emitRecord(int code, long... vals) {
+        emitRecord(code, vals, vals.length);
+    }
+
+    /**
+     * Emit a record using an abbreviation.  The record code is the first abbreviation operand.  If the abbreviation
+     * ends with an array, the remaining values are the array elements.  If the abbreviation ends with a blob, the
+     * given bytes are the blob.
+     *
+     * @param abbrevId the abbreviation ID
+     * @param code the record code
+     * @param vals the record values
+     * @param cnt the number of record values
+     * @param blob the blob content, or {@code null} if the abbreviation has no blob
+     */
+    void emitRecord(int abbrevId, int code, long[] vals, int cnt, byte[] blob) {
+        Abbrev abbrev = abbrevs.get(abbrevId - FIRST_APPLICATION_ABBREV);
+        emit(abbrevId, abbrevWidth);
+        long[] ops = abbrev.ops;
+        // the value index, where -1 is the code
+        int idx = -1;
+        for (int i = 0; i < ops.length; i ++) {
+            long op = ops[i];
+            int encoding = (int) (op >>> 32);
+            if (encoding == 0) {
+                // literal; nothing to emit
+                idx ++;
+            } else if (encoding == ENCODING_ARRAY) {
+                long elemOp = ops[++i];
+                emitVBR(cnt - idx, 6);
+                for (; idx < cnt; idx ++) {
+                    emitScalar(elemOp, vals[idx]);
+                }
+            } else if (encoding == ENCODING_BLOB) {
+                emitVBR(blob.length, 6);
+                alignTo32();
+                writeBytes(blob);
+            } else {
+                emitScalar(op, idx == -1 ? code : vals[idx]);
+                idx ++;
+            }
+        }
+    }
+
+    private void emitScalar(long op, long val) {
+        switch ((int) (op >>> 32)) {
+            case ENCODING_FIXED -> emit(val, (int) op);
+            case ENCODING_VBR -> emitVBR(val, (int) op);
+            case ENCODING_CHAR6 -> emit(encodeChar6((int) val), 6);
+            default -> throw new IllegalStateException();
+        }
+    }
+
+    static boolean isChar6(int c) {
+        return 'a' <= c && c <= 'z' || 'A' <= c && c <= 'Z' || '0' <= c && c <= '9' || c == '.' || c == '_';
+    }
+
+    private static int encodeChar6(int c) {
+        if ('a' <= c && c <= 'z') {
+            return c - 'a';
+        } else if ('A' <= c && c <= 'Z') {
+            return c - 'A' + 26;
+        } else if ('0' <= c && c <= '9') {
+            return c - '0' + 52;
+        } else if (c == '.') {
+            return 62;
+        } else if (c == '_') {
+            return 63;
+        } else {
+            throw new IllegalArgumentException("Not a char6 character");
+        }
+    }
+
+    // output
+
+    void writeTo(OutputStream os) throws IOException {
+        checkComplete();
+        os.write(buf, 0, len);
+    }
+
+    byte[] toByteArray() {
+        checkComplete();
+        return Arrays.copyOf(buf, len);
+    }
+
+    private void checkComplete() {
+        if (curBits != 0 || ! blocks.isEmpty()) {
+            throw new IllegalStateException("Bitstream is not complete");
+        }
+    }
+
+    /**
+     * An abbreviation definition.  Each operand is encoded as a {@code long} whose upper half holds the encoding
+     * (zero for a literal) and whose lower half holds the encoding width or literal value.
+     */
+    static final class Abbrev {
+        final long[] ops;
+
+        private Abbrev(long[] ops) {
+            this.ops = ops;
+        }
+
+        static Abbrev of(long... ops) {
+            return new Abbrev(ops);
+        }
+
+        static long literal(int value) {
+            return value;
+        }
+
+        static long fixed(int width) {
+            return (long) ENCODING_FIXED << 32 | width;
+        }
+
+        static long vbr(int width) {
+            return (long) ENCODING_VBR << 32 | width;
+        }
+
+        static long array() {
+            return (long) ENCODING_ARRAY << 32;
+        }
+
+        static long char6() {
+            return (long) ENCODING_CHAR6 << 32;
+        }
+
+        static long blob() {
+            return (long) ENCODING_BLOB << 32;
+        }
+    }
+
+    record Block(int abbrevWidth, List<Abbrev> abbrevs, int lengthPos) {}
+}
@@ -118,4 +118,44 @@ final class CmpAndSwapImpl extends AbstractYieldingInstruction implements CmpAnd
     private void space(Appendable target) throws IOException {
         target.append(' ');
     }
+
+    AbstractValue getPointerType() {
+        return pointerType;
+    }
+
+    AbstractValue getType() {
+        return type;
+    }
+
+    AbstractValue getPointer() {
+        return pointer;
+    }
+
+    AbstractValue getExpect() {
+        return expect;
+    }
+
+    AbstractValue getUpdate() {
+        return update;
+    }
+
+    OrderingConstraint getSuccessOrdering() {
+        return successOrdering;
+    }
+
+    OrderingConstraint getFailureOrdering() {
+        return failureOrdering;
+    }
+
+    boolean isWeak() {
+        return weak;
+    }
+
+    boolean isVolatile() {
+        return isVolatile;
+    }
+
+    String getSyncScope() {
+        return syncScope;
+    }
 }
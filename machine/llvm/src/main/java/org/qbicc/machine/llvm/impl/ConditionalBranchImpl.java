@@ -32,4 +32,16 @@ final class ConditionalBranchImpl extends AbstractBranch {
         ifFalse.appendTo(target);
         return appendTrailer(target);
     }
+
+    AbstractValue getCond() {
+        return cond;
+    }
+
+    BasicBlockImpl getIfTrue() {
+        return ifTrue;
+    }
+
+    BasicBlockImpl getIfFalse() {
+        return ifFalse;
+    }
 }
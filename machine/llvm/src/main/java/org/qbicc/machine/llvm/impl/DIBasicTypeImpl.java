@@ -62,4 +62,28 @@ public class DIBasicTypeImpl extends AbstractMetadataNode implements DIBasicType
     public DIBasicType comment(final String comment) {
         return (DIBasicType) super.comment(comment);
     }
+
+    DIEncoding getEncoding() {
+        return encoding;
+    }
+
+    long getSize() {
+        return size;
+    }
+
+    int getAlign() {
+        return align;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    AbstractValue getFile() {
+        return file;
+    }
+
+    int getLine() {
+        return line;
+    }
 }
@@ -144,4 +144,56 @@ final class DICompileUnitImpl extends AbstractMetadataNode implements DICompileU
     public DICompileUnit comment(final String comment) {
         return (DICompileUnit) super.comment(comment);
     }
+
+    String getLanguage() {
+        return language;
+    }
+
+    AbstractValue getFile() {
+        return file;
+    }
+
+    String getProducer() {
+        return producer;
+    }
+
+    boolean isOptimized() {
+        return isOptimized;
+    }
+
+    String getFlags() {
+        return flags;
+    }
+
+    int getRuntimeVersion() {
+        return runtimeVersion;
+    }
+
+    String getSplitDebugFilename() {
+        return splitDebugFilename;
+    }
+
+    DebugEmissionKind getEmissionKind() {
+        return emissionKind;
+    }
+
+    AbstractValue getEnums() {
+        return enums;
+    }
+
+    AbstractValue getRetainedTypes() {
+        return retainedTypes;
+    }
+
+    AbstractValue getGlobals() {
+        return globals;
+    }
+
+    AbstractValue getImports() {
+        return imports;
+    }
+
+    AbstractValue getMacros() {
+        return macros;
+    }
 }
@@ -102,4 +102,40 @@ public class DICompositeTypeImpl extends AbstractMetadataNode implements DICompo
     public DICompositeType comment(final String comment) {
         return (DICompositeType) super.comment(comment);
     }
+
+    DITag getTag() {
+        return tag;
+    }
+
+    long getSize() {
+        return size;
+    }
+
+    int getAlign() {
+        return align;
+    }
+
+    AbstractValue getElements() {
+        return elements;
+    }
+
+    AbstractValue getBaseType() {
+        return baseType;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    EnumSet<DIFlags> getFlags() {
+        return flags;
+    }
+
+    AbstractValue getFile() {
+        return file;
+    }
+
+    int getLine() {
+        return line;
+    }
 }
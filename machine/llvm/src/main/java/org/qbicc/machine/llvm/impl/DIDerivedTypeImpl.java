@@ -102,4 +102,40 @@ public class DIDerivedTypeImpl extends AbstractMetadataNode implements DIDerived
     public DIDerivedType comment(final String comment) {
         return (DIDerivedType) super.comment(comment);
     }
+
+    DITag getTag() {
+        return tag;
+    }
+
+    long getSize() {
+        return size;
+    }
+
+    int getAlign() {
+        return align;
+    }
+
+    AbstractValue getBaseType() {
+        return baseType;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    EnumSet<DIFlags> getFlags() {
+        return flags;
+    }
+
+    long getOffset() {
+        return offset;
+    }
+
+    AbstractValue getFile() {
+        return file;
+    }
+
+    int getLine() {
+        return line;
+    }
 }
@@ -60,6 +60,10 @@ final class DIExpressionImpl extends AbstractMetadataNode implements DIExpressio
     }
 
     final class AsValue extends AbstractValue {
+        DIExpressionImpl expression() {
+            return DIExpressionImpl.this;
+        }
+
         @Override
         public Appendable appendTo(Appendable target) throws IOException {
             target.append("!DIExpression(");
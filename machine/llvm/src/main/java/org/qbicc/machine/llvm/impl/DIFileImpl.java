@@ -29,4 +29,12 @@ final class DIFileImpl extends AbstractMetadataNode implements DIFile {
     public DIFile comment(final String comment) {
         return (DIFile) super.comment(comment);
     }
+
+    String getFilename() {
+        return filename;
+    }
+
+    String getDirectory() {
+        return directory;
+    }
 }
@@ -77,4 +77,36 @@ final class DILocalVariableImpl extends AbstractMetadataNode implements DILocalV
         this.flags = Assert.checkNotNullParam("flags", flags);
         return this;
     }
+
+    String getName() {
+        return name;
+    }
+
+    AbstractValue getType() {
+        return type;
+    }
+
+    AbstractValue getScope() {
+        return scope;
+    }
+
+    AbstractValue getFile() {
+        return file;
+    }
+
+    int getLine() {
+        return line;
+    }
+
+    int getAlign() {
+        return align;
+    }
+
+    int getArgument() {
+        return argument;
+    }
+
+    EnumSet<DIFlags> getFlags() {
+        return flags;
+    }
 }
@@ -52,4 +52,24 @@ public class DILocationImpl extends AbstractMetadataNode implements DILocation {
         this.distinct = distinct;
         return this;
     }
+
+    int getLine() {
+        return line;
+    }
+
+    int getColumn() {
+        return column;
+    }
+
+    AbstractValue getScope() {
+        return scope;
+    }
+
+    AbstractValue getInlinedAt() {
+        return inlinedAt;
+    }
+
+    boolean isDistinct() {
+        return distinct;
+    }
 }
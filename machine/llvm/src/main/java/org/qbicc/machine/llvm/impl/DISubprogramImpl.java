@@ -204,4 +204,84 @@ public class DISubprogramImpl extends AbstractMetadataNode implements DISubprogr
     public DISubprogram comment(final String comment) {
         return (DISubprogram) super.comment(comment);
     }
+
+    String getName() {
+        return name;
+    }
+
+    String getLinkageName() {
+        return linkageName;
+    }
+
+    AbstractValue getScope() {
+        return scope;
+    }
+
+    AbstractValue getFile() {
+        return file;
+    }
+
+    int getLine() {
+        return line;
+    }
+
+    AbstractValue getType() {
+        return type;
+    }
+
+    boolean isLocal() {
+        return isLocal;
+    }
+
+    boolean isDefinition() {
+        return isDefinition;
+    }
+
+    int getScopeLine() {
+        return scopeLine;
+    }
+
+    AbstractValue getContainingType() {
+        return containingType;
+    }
+
+    Virtuality getVirtuality() {
+        return virtuality;
+    }
+
+    int getVirtualIndex() {
+        return virtualIndex;
+    }
+
+    EnumSet<DIFlags> getFlags() {
+        return flags;
+    }
+
+    EnumSet<DISPFlags> getSpFlags() {
+        return spFlags;
+    }
+
+    boolean isOptimized() {
+        return isOptimized;
+    }
+
+    AbstractValue getUnit() {
+        return unit;
+    }
+
+    AbstractValue getTemplateParams() {
+        return templateParams;
+    }
+
+    AbstractValue getDeclaration() {
+        return declaration;
+    }
+
+    AbstractValue getRetainedNodes() {
+        return retainedNodes;
+    }
+
+    AbstractValue getThrownTypes() {
+        return thrownTypes;
+    }
 }
@@ -25,4 +25,8 @@ final class DISubrangeImpl extends AbstractMetadataNode implements DISubrange {
     public DISubrange comment(String comment) {
         return (DISubrange) super.comment(comment);
     }
+
+    long getCount() {
+        return count;
+    }
 }
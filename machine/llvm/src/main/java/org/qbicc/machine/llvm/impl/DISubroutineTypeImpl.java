@@ -23,4 +23,8 @@ public class DISubroutineTypeImpl extends AbstractMetadataNode implements DISubr
     public DISubroutineType comment(final String comment) {
         return (DISubroutineType) super.comment(comment);
     }
+
+    AbstractValue getTypes() {
+        return types;
+    }
 }
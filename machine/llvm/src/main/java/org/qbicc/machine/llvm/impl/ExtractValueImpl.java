@@ -65,4 +65,12 @@ final class ExtractValueImpl extends AbstractYieldingInstruction implements Extr
             return target;
         }
     }
+
+    AbstractValue getAggregateType() {
+        return aggregateType;
+    }
+
+    AbstractValue getAggregate() {
+        return aggregate;
+    }
 }
@@ -15,4 +15,8 @@ final class FCmpImpl extends AbstractFastMathBinary {
     public Appendable appendTo(final Appendable target) throws IOException {
         return appendTrailer(appendMathFlags(super.appendTo(target).append("fcmp")).append(' ').append(cond.name()));
     }
+
+    FloatCondition getCond() {
+        return cond;
+    }
 }
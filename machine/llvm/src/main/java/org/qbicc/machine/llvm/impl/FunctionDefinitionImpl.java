@@ -187,4 +187,16 @@ final class FunctionDefinitionImpl extends AbstractFunction implements FunctionD
     int nextLocalId() {
         return localCounter++;
     }
+
+    String getGc() {
+        return gc;
+    }
+
+    AbstractValue getPersonalityType() {
+        return personalityType;
+    }
+
+    AbstractValue getPersonalityValue() {
+        return personalityValue;
+    }
 }
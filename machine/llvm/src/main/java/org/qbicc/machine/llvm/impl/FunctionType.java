@@ -40,4 +40,12 @@ final class FunctionType extends AbstractValue {
         target.append(')');
         return target;
     }
+
+    List<LLValue> getArgTypes() {
+        return argTypes;
+    }
+
+    boolean isVariadic() {
+        return variadic;
+    }
 }
@@ -49,7 +49,7 @@ final class GetElementPtrConstant extends AbstractValue {
         return target;
     }
 
-    private static final class ArgImpl extends AbstractEmittable {
+    static final class ArgImpl extends AbstractEmittable {
         final boolean inRange;
         final AbstractValue type;
         final AbstractValue index;
@@ -79,4 +79,16 @@ final class GetElementPtrConstant extends AbstractValue {
             return target;
         }
     }
+
+    LLValue getType() {
+        return type;
+    }
+
+    LLValue getPtrType() {
+        return ptrType;
+    }
+
+    LLValue getPointer() {
+        return pointer;
+    }
 }
\ No newline at end of file
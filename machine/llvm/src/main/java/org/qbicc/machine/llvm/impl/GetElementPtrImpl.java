@@ -85,4 +85,16 @@ final class GetElementPtrImpl extends AbstractYieldingInstruction implements Get
             return target;
         }
     }
+
+    AbstractValue getType() {
+        return type;
+    }
+
+    AbstractValue getPtrType() {
+        return ptrType;
+    }
+
+    AbstractValue getPointer() {
+        return pointer;
+    }
 }
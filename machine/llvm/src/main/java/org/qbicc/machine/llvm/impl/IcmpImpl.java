@@ -15,4 +15,8 @@ final class IcmpImpl extends AbstractBinary {
     public Appendable appendTo(final Appendable target) throws IOException {
         return appendTrailer(super.appendTo(target).append("icmp").append(' ').append(cond.name()));
     }
+
+    IntCondition getCond() {
+        return cond;
+    }
 }
@@ -38,9 +38,21 @@ final class IdentifiedTypeImpl extends AbstractCommentable implements Identified
         return (IdentifiedType) super.comment(comment);
     }
 
-    private final class Ref extends AbstractValue {
+    final class Ref extends AbstractValue {
+        IdentifiedTypeImpl definition() {
+            return IdentifiedTypeImpl.this;
+        }
+
         public Appendable appendTo(Appendable target) throws IOException {
             return target.append('%').append(name);
         }
     }
+
+    String getName() {
+        return name;
+    }
+
+    AbstractValue getType() {
+        return type;
+    }
 }
@@ -77,4 +77,20 @@ final class InsertValueImpl extends AbstractYieldingInstruction implements Extra
             return target;
         }
     }
+
+    AbstractValue getAggregateType() {
+        return aggregateType;
+    }
+
+    AbstractValue getAggregate() {
+        return aggregate;
+    }
+
+    AbstractValue getInsertType() {
+        return insertType;
+    }
+
+    AbstractValue getInsert() {
+        return insert;
+    }
 }
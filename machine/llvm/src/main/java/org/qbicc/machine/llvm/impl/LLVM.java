@@ -106,6 +106,14 @@ public final class LLVM {
         return new PtrToIntConstant(val, fromType, toType);
     }
 
+    public static LLValue truncConstant(LLValue val, LLValue fromType, LLValue toType) {
+        return new TruncConstant(val, fromType, toType);
+    }
+
+    public static LLValue subConstant(LLValue type, LLValue lhs, LLValue rhs) {
+        return new SubConstant(type, lhs, rhs);
+    }
+
     public static DIExpression diExpression() {
         return new DIExpressionImpl();
     }
@@ -87,6 +87,18 @@ final class LandingPadImpl extends AbstractYieldingInstruction implements Landin
             value.appendTo(target);
             return target;
         }
+
+        Clause getPrev() {
+            return prev;
+        }
+
+        AbstractValue getType() {
+            return type;
+        }
+
+        AbstractValue getValue() {
+            return value;
+        }
     }
 
     static final class Catch extends Clause {
@@ -109,4 +121,8 @@ final class LandingPadImpl extends AbstractYieldingInstruction implements Landin
         }
     }
 
+
+    AbstractValue getResultType() {
+        return resultType;
+    }
 }
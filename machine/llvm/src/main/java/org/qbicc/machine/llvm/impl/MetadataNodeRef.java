@@ -14,4 +14,8 @@ public class MetadataNodeRef extends AbstractValue {
         appendDecimal(target, index);
         return target;
     }
+
+    int getIndex() {
+        return index;
+    }
 }
@@ -13,4 +13,8 @@ final class MetadataString extends AbstractValue {
         target.append('!');
         return appendEscapedString(target, value);
     }
+
+    String getValue() {
+        return value;
+    }
 }
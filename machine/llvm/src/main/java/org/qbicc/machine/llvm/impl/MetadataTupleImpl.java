@@ -68,4 +68,8 @@ final class MetadataTupleImpl extends AbstractMetadataNode implements MetadataTu
             return target;
         }
     }
+
+    Element getLastElement() {
+        return lastElement;
+    }
 }
@@ -17,4 +17,8 @@ public class MetadataType extends AbstractValue {
         }
         return target;
     }
+
+    AbstractValue getType() {
+        return type;
+    }
 }
@@ -2,6 +2,7 @@ package org.qbicc.machine.llvm.impl;
 
 import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -204,4 +205,29 @@ final class ModuleImpl implements Module {
         writeItems(namedMeta, output, false);
         writeItems(meta, output, false);
     }
+
+    public void writeBitcodeTo(final OutputStream output) throws IOException {
+        Assert.checkNotNullParam("output", output);
+        new BitcodeWriter(this).writeTo(output);
+    }
+
+    List<Emittable> getTypes() {
+        return types;
+    }
+
+    List<Emittable> getGlobals() {
+        return globals;
+    }
+
+    List<Emittable> getFunctions() {
+        return functions;
+    }
+
+    List<Emittable> getNamedMeta() {
+        return namedMeta;
+    }
+
+    List<Emittable> getMeta() {
+        return meta;
+    }
 }
@@ -4,13 +4,19 @@ import java.io.IOException;
 
 final class NamedGlobalValueOf extends AbstractValue {
     private final String name;
+    private final String quotedName;
 
     NamedGlobalValueOf(String name) {
         super();
-        this.name = LLVM.needsQuotes(name) ? LLVM.quoteString(name) : name;
+        this.name = name;
+        this.quotedName = LLVM.needsQuotes(name) ? LLVM.quoteString(name) : name;
     }
 
     public Appendable appendTo(final Appendable target) throws IOException {
-        return target.append('@').append(name);
+        return target.append('@').append(quotedName);
+    }
+
+    String getName() {
+        return name;
     }
 }
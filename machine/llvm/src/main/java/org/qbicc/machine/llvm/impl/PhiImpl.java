@@ -84,5 +84,25 @@ final class PhiImpl extends AbstractYieldingInstruction implements Phi {
             incoming.appendTo(target);
             return target.append(' ').append(']');
         }
+
+        Item getPrev() {
+            return prev;
+        }
+
+        AbstractValue getData() {
+            return data;
+        }
+
+        BasicBlockImpl getIncoming() {
+            return incoming;
+        }
+    }
+
+    AbstractValue getType() {
+        return type;
+    }
+
+    Item getLastItem() {
+        return lastItem;
     }
 }
@@ -34,4 +34,12 @@ final class PointerTo extends AbstractValue {
     public int hashCode() {
         return Objects.hash(type, addrSpace);
     }
+
+    AbstractValue getType() {
+        return type;
+    }
+
+    int getAddrSpace() {
+        return addrSpace;
+    }
 }
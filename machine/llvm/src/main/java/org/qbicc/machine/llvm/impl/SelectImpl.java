@@ -61,4 +61,24 @@ final class SelectImpl extends AbstractYieldingInstruction implements Select {
         falseValue.appendTo(target);
         return appendTrailer(target);
     }
+
+    AbstractValue getCondType() {
+        return condType;
+    }
+
+    AbstractValue getCond() {
+        return cond;
+    }
+
+    AbstractValue getValueType() {
+        return valueType;
+    }
+
+    AbstractValue getTrueValue() {
+        return trueValue;
+    }
+
+    AbstractValue getFalseValue() {
+        return falseValue;
+    }
 }
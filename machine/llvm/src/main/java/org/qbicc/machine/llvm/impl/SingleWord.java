@@ -31,4 +31,8 @@ final class SingleWord extends AbstractValue {
     public int hashCode() {
         return Objects.hash(name);
     }
+
+    String getName() {
+        return name;
+    }
 }
@@ -44,4 +44,8 @@ final class StructImpl extends AbstractValue implements Struct {
         target.append('}');
         return target;
     }
+
+    ArrayList<AbstractValue> getPairs() {
+        return pairs;
+    }
 }
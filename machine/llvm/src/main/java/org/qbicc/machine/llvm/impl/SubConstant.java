@@ -0,0 +1,30 @@
+package org.qbicc.machine.llvm.impl;
+
+import java.io.IOException;
+
+import org.qbicc.machine.llvm.LLValue;
+
+final class SubConstant extends AbstractValue {
+    final LLValue type;
+    final LLValue lhs;
+    final LLValue rhs;
+
+    SubConstant(LLValue type, LLValue lhs, LLValue rhs) {
+        this.type = type;
+        this.lhs = lhs;
+        this.rhs = rhs;
+    }
+
+    public Appendable appendTo(Appendable target) throws IOException {
+        target.append("sub (");
+        ((AbstractValue)type).appendTo(target);
+        target.append(" ");
+        ((AbstractValue)lhs).appendTo(target);
+        target.append(", ");
+        ((AbstractValue)type).appendTo(target);
+        target.append(" ");
+        ((AbstractValue)rhs).appendTo(target);
+        target.append(")");
+        return target;
+    }
+}
@@ -84,4 +84,20 @@ final class SwitchImpl extends AbstractInstruction implements Switch {
             return target;
         }
     }
+
+    AbstractValue getType() {
+        return type;
+    }
+
+    AbstractValue getValue() {
+        return value;
+    }
+
+    BasicBlockImpl getDefaultTarget() {
+        return defaultTarget;
+    }
+
+    CaseImpl getLastCase() {
+        return lastCase;
+    }
 }
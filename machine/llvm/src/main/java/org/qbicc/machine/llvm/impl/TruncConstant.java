@@ -0,0 +1,28 @@
+package org.qbicc.machine.llvm.impl;
+
+import java.io.IOException;
+
+import org.qbicc.machine.llvm.LLValue;
+
+final class TruncConstant extends AbstractValue {
+    final LLValue value;
+    final LLValue fromType;
+    final LLValue toType;
+
+    TruncConstant(LLValue value, LLValue fromType, LLValue toType) {
+        this.value = value;
+        this.fromType = fromType;
+        this.toType = toType;
+    }
+
+    public Appendable appendTo(Appendable target) throws IOException {
+        target.append("trunc (");
+        ((AbstractValue)fromType).appendTo(target);
+        target.append(" ");
+        ((AbstractValue)value).appendTo(target);
+        target.append(" to ");
+        ((AbstractValue)toType).appendTo(target);
+        target.append(")");
+        return target;
+    }
+}
@@ -13,4 +13,8 @@ final class UnconditionalBranchImpl extends AbstractBranch {
     public Appendable appendTo(final Appendable target) throws IOException {
         return appendTrailer(dest.appendTo(super.appendTo(target).append(' ').append("label").append(' ')));
     }
+
+    BasicBlockImpl getDest() {
+        return dest;
+    }
 }
@@ -24,4 +24,16 @@ final class VaArg extends AbstractYieldingInstruction {
         outputType.appendTo(target);
         return super.appendTrailer(target);
     }
+
+    AbstractValue getVaListType() {
+        return vaListType;
+    }
+
+    AbstractValue getVaList() {
+        return vaList;
+    }
+
+    AbstractValue getOutputType() {
+        return outputType;
+    }
 }
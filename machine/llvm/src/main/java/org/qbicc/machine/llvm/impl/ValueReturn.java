@@ -16,4 +16,12 @@ final class ValueReturn extends AbstractReturn {
     public Appendable appendTo(final Appendable target) throws IOException {
         return appendTrailer(val.appendTo(type.appendTo(super.appendTo(target).append(' ')).append(' ')));
     }
+
+    AbstractValue getType() {
+        return type;
+    }
+
+    AbstractValue getVal() {
+        return val;
+    }
 }
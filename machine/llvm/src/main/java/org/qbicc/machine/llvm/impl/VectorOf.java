@@ -23,4 +23,16 @@ final class VectorOf extends AbstractValue {
         }
         return elementType.appendTo(target.append(Integer.toString(dimension)).append(" x ")).append('>');
     }
+
+    int getDimension() {
+        return dimension;
+    }
+
+    AbstractValue getElementType() {
+        return elementType;
+    }
+
+    boolean isVscale() {
+        return vscale;
+    }
 }
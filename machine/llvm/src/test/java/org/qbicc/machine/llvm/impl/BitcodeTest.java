@@ -0,0 +1,295 @@
+package org.qbicc.machine.llvm.impl;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.qbicc.machine.llvm.Types.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+import org.qbicc.machine.llvm.FunctionDefinition;
+import org.qbicc.machine.llvm.IntCondition;
+import org.qbicc.machine.llvm.LLBasicBlock;
+import org.qbicc.machine.llvm.LLBuilder;
+import org.qbicc.machine.llvm.LLValue;
+import org.qbicc.machine.llvm.Linkage;
+import org.qbicc.machine.llvm.Module;
+import org.qbicc.machine.llvm.Values;
+import org.qbicc.machine.llvm.debuginfo.DebugEmissionKind;
+import org.qbicc.machine.llvm.op.Call;
+import org.qbicc.machine.llvm.op.Phi;
+
+/**
+ * Check that modules are written as well-formed bitcode, and that {@code llvm-dis} and {@code llvm-bcanalyzer} accept
+ * it if they are installed.
+ */
+public class BitcodeTest {
+    @Test
+    public void testStructure() throws IOException {
+        byte[] bitcode = bitcode(createModule());
+        assertEquals('B', bitcode[0]);
+        assertEquals('C', bitcode[1]);
+        assertEquals((byte) 0xC0, bitcode[2]);
+        assertEquals((byte) 0xDE, bitcode[3]);
+        assertEquals(0, bitcode.length % 4);
+        Reader reader = new Reader(bitcode);
+        List<Integer> topLevel = reader.readTopLevel();
+        assertEquals(List.of(Integer.valueOf(13), Integer.valueOf(8), Integer.valueOf(23)), topLevel);
+        // one function block per definition
+        assertEquals(2, reader.blockCounts.getOrDefault(Integer.valueOf(12), Integer.valueOf(0)).intValue());
+        String strtab = new String(reader.blob, StandardCharsets.UTF_8);
+        assertTrue(strtab.contains("main"));
+        assertTrue(strtab.contains("counter"));
+        assertTrue(strtab.contains("abs"));
+        assertTrue(strtab.contains("distance"));
+    }
+
+    @Test
+    public void testDisassemble() throws Exception {
+        String output = runTool("llvm-dis", "-o", "-");
+        assertTrue(output.contains("define i32 @main"), output);
+    }
+
+    @Test
+    public void testVerify() throws Exception {
+        runTool("llvm-bcanalyzer", "-verify");
+    }
+
+    /**
+     * Run an LLVM tool on the bitcode of the test module, and return its output.  The test is skipped if the tool is
+     * not installed, unless the {@code qbicc.test.require-llvm-tools} property is set, as it is in CI.
+     */
+    private static String runTool(String... command) throws Exception {
+        Path bc = Files.createTempFile("qbicc-", ".bc");
+        try {
+            Files.write(bc, bitcode(createModule()));
+            List<String> args = new ArrayList<>(List.of(command));
+            args.add(bc.toString());
+            Process process;
+            try {
+                process = new ProcessBuilder(args).redirectErrorStream(true).start();
+            } catch (IOException e) {
+                if (Boolean.getBoolean("qbicc.test.require-llvm-tools")) {
+                    throw e;
+                }
+                Assumptions.assumeTrue(false, command[0] + " is not available");
+                return null;
+            }
+            String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+            assertTrue(process.waitFor(30, TimeUnit.SECONDS));
+            assertEquals(0, process.exitValue(), output);
+            return output;
+        } finally {
+            Files.deleteIfExists(bc);
+        }
+    }
+
+    private static byte[] bitcode(Module module) throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        module.writeBitcodeTo(os);
+        return os.toByteArray();
+    }
+
+    private static Module createModule() {
+        final Module module = Module.newModule();
+        LLValue file = module.diFile("Test.java", "/tmp").asRef();
+        LLValue unit = module.diCompileUnit("DW_LANG_Java", file, DebugEmissionKind.FullDebug).asRef();
+        LLValue fnType = module.diSubroutineType(module.metadataTuple().elem(null, null).asRef()).asRef();
+        LLValue subprogram = module.diSubprogram("abs", fnType, unit).location(file, 1, 1).asRef();
+
+        LLValue counter = module.global(i64).value(Values.intConstant(-5)).linkage(Linkage.INTERNAL).asGlobal("counter");
+        module.constant(array(3, i8)).value(Values.byteArray("hi\0".getBytes(StandardCharsets.US_ASCII))).asGlobal("greeting");
+        // a 32-bit offset between two globals, as used by compressed references
+        LLValue distance = Values.subConstant(i64, Values.ptrtointConstant(Values.global("greeting"), ptrTo(array(3, i8)), i64), Values.ptrtointConstant(counter, ptrTo(i64), i64));
+        module.constant(i32).value(Values.truncConstant(distance, i64, i32)).asGlobal("distance");
+
+        // i32 abs(i32 x), with a forward reference through a phi
+        FunctionDefinition abs = module.define("abs");
+        abs.returns(i32);
+        LLValue x = abs.param(i32).name("x").asValue();
+        abs.meta("dbg", subprogram);
+        LLBuilder builder = LLBuilder.newBuilder(abs.getRootBlock());
+        builder.setDebugLocation(module.diLocation(2, 3, subprogram, null).asRef());
+        LLBasicBlock negative = abs.createBlock();
+        LLBasicBlock done = abs.createBlock();
+        LLValue isNegative = builder.icmp(IntCondition.slt, i32, x, Values.ZERO).asLocal();
+        builder.br(isNegative, negative, done);
+        builder.moveToBlock(negative);
+        LLValue negated = builder.sub(i32, Values.ZERO, x).asLocal();
+        builder.br(done);
+        builder.moveToBlock(done);
+        Phi phi = builder.phi(i32);
+        phi.item(x, abs.getRootBlock());
+        phi.item(negated, negative);
+        builder.ret(i32, phi.asLocal());
+
+        // i32 main()
+        FunctionDefinition main = module.define("main");
+        main.returns(i32);
+        builder = LLBuilder.newBuilder(main.getRootBlock());
+        LLValue loaded = builder.load(ptrTo(i64), i64, counter).align(8).asLocal();
+        LLValue truncated = builder.trunc(i64, loaded, i32).asLocal();
+        Call call = builder.call(function(i32, List.of(i32), false), Values.global("abs"));
+        call.arg(i32, truncated);
+        call.asLocal();
+        builder.ret(i32, Values.ZERO);
+        return module;
+    }
+
+    /**
+     * A minimal bitstream reader which checks the framing of blocks, abbreviations, and records.
+     */
+    static final class Reader {
+        private final byte[] data;
+        private long pos = 32;
+        final Map<Integer, Integer> blockCounts = new HashMap<>();
+        private final Map<Integer, List<long[]>> blockInfo = new HashMap<>();
+        byte[] blob;
+
+        Reader(byte[] data) {
+            this.data = data;
+        }
+
+        List<Integer> readTopLevel() {
+            List<Integer> ids = new ArrayList<>();
+            while (pos < data.length * 8L) {
+                assertEquals(1, read(2), "expected a block");
+                ids.add(Integer.valueOf(readBlock(2)));
+            }
+            return ids;
+        }
+
+        private int readBlock(int outerWidth) {
+            int blockId = (int) readVBR(8);
+            int width = (int) readVBR(4);
+            align();
+            long words = read(32);
+            long end = pos + words * 32;
+            blockCounts.merge(Integer.valueOf(blockId), Integer.valueOf(1), Integer::sum);
+            List<long[]> abbrevs = new ArrayList<>(blockInfo.getOrDefault(Integer.valueOf(blockId), List.of()));
+            int currentInfoId = -1;
+            for (;;) {
+                int abbrevId = (int) read(width);
+                if (abbrevId == 0) {
+                    align();
+                    assertEquals(end, pos, "block length mismatch");
+                    return blockId;
+                } else if (abbrevId == 1) {
+                    readBlock(width);
+                } else if (abbrevId == 2) {
+                    long[] abbrev = readAbbrev();
+                    if (blockId == 0) {
+                        blockInfo.computeIfAbsent(Integer.valueOf(currentInfoId), k -> new ArrayList<>()).add(abbrev);
+                    } else {
+                        abbrevs.add(abbrev);
+                    }
+                } else if (abbrevId == 3) {
+                    long code = readVBR(6);
+                    long cnt = readVBR(6);
+                    long first = -1;
+                    for (long i = 0; i < cnt; i ++) {
+                        long val = readVBR(6);
+                        if (i == 0) {
+                            first = val;
+                        }
+                    }
+                    if (blockId == 0 && code == 1) {
+                        currentInfoId = (int) first;
+                    }
+                } else {
+                    readAbbreviatedRecord(abbrevs.get(abbrevId - 4), blockId);
+                }
+            }
+        }
+
+        // each operand is encoded as { literal?, encoding-or-value, width }
+        private long[] readAbbrev() {
+            int cnt = (int) readVBR(5);
+            long[] ops = new long[cnt * 2];
+            for (int i = 0; i < cnt; i ++) {
+                if (read(1) == 1) {
+                    ops[i * 2] = -1;
+                    ops[i * 2 + 1] = readVBR(8);
+                } else {
+                    int encoding = (int) read(3);
+                    ops[i * 2] = encoding;
+                    if (encoding == 1 || encoding == 2) {
+                        ops[i * 2 + 1] = readVBR(5);
+                    }
+                }
+            }
+            return ops;
+        }
+
+        private void readAbbreviatedRecord(long[] ops, int blockId) {
+            for (int i = 0; i < ops.length; i += 2) {
+                int encoding = (int) ops[i];
+                if (encoding == 3) {
+                    long cnt = readVBR(6);
+                    i += 2;
+                    for (long j = 0; j < cnt; j ++) {
+                        readScalar((int) ops[i], ops[i + 1]);
+                    }
+                } else if (encoding == 5) {
+                    int len = (int) readVBR(6);
+                    align();
+                    byte[] bytes = new byte[len];
+                    for (int j = 0; j < len; j ++) {
+                        bytes[j] = (byte) read(8);
+                    }
+                    align();
+                    if (blockId == 23) {
+                        blob = bytes;
+                    }
+                } else if (encoding != -1) {
+                    readScalar(encoding, ops[i + 1]);
+                }
+            }
+        }
+
+        private void readScalar(int encoding, long width) {
+            switch (encoding) {
+                case 1 -> read((int) width);
+                case 2 -> readVBR((int) width);
+                case 4 -> read(6);
+                default -> fail("invalid scalar encoding " + encoding);
+            }
+        }
+
+        private long read(int width) {
+            long val = 0;
+            for (int i = 0; i < width; i ++) {
+                assertTrue(pos < data.length * 8L, "read past the end");
+                long bit = (data[(int) (pos >>> 3)] >>> (pos & 7)) & 1;
+                val |= bit << i;
+                pos ++;
+            }
+            return val;
+        }
+
+        private long readVBR(int width) {
+            long val = 0;
+            int shift = 0;
+            long piece;
+            do {
+                piece = read(width);
+                val |= (piece & ((1L << (width - 1)) - 1)) << shift;
+                shift += width - 1;
+            } while ((piece & (1L << (width - 1))) != 0);
+            return val;
+        }
+
+        private void align() {
+            pos = (pos + 31) & ~31L;
+        }
+    }
+}
@@ -1,6 +1,10 @@
 package org.qbicc.machine.probe;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
@@ -71,11 +75,51 @@ public final class CProbe {
      * @throws IOException if communications with or execution of the compiler failed
      */
     public Result run(CToolChain toolChain, ObjectFileProvider objectFileProvider, DiagnosticContext errorReporter) throws IOException {
-        final CCompilerInvoker inv = toolChain.newCompilerInvoker();
+        return run(toolChain, objectFileProvider, null, errorReporter);
+    }
+
+    /**
+     * Run the probe, using the given cache to avoid running the compiler if the same probe was already run with the
+     * same tool chain.  A cached compilation failure is only used if there is no error reporter, because the errors
+     * of the failed compilation are not cached.
+     *
+     * @param toolChain the C tool chain to use (must not be {@code null})
+     * @param objectFileProvider the object file provider to use (must not be {@code null})
+     * @param cache the probe cache to use, or {@code null} to always run the probe
+     * @param errorReporter the context to report errors to, or {@code null} to skip error reporting
+     * @return the result, or {@code null} if the compilation failed
+     * @throws IOException if communications with or execution of the compiler failed
+     */
+    public Result run(CToolChain toolChain, ObjectFileProvider objectFileProvider, ProbeCache cache, DiagnosticContext errorReporter) throws IOException {
         StringBuilder b = new StringBuilder();
         for (Step item : items) {
             item.appendTo(b);
         }
+        String key = null;
+        if (cache != null) {
+            key = cache.keyOf(toolChain, objectFileProvider.getObjectType(), b);
+            byte[] content = cache.load(key);
+            if (content != null) {
+                try (DataInputStream is = new DataInputStream(new ByteArrayInputStream(content))) {
+                    if (is.readBoolean()) {
+                        if (errorReporter == null) {
+                            cache.accepted();
+                            return null;
+                        }
+                        // run it again to report the errors
+                        cache.rejected();
+                    } else {
+                        Result result = readResult(is);
+                        cache.accepted();
+                        return result;
+                    }
+                } catch (IOException e) {
+                    // damaged or mismatched entry; run the probe
+                    cache.rejected();
+                }
+            }
+        }
+        final CCompilerInvoker inv = toolChain.newCompilerInvoker();
         inv.setSource(InputSource.from(b));
         final Path path = Files.createTempFile("qbicc-probe-", "." + objectFileProvider.getObjectType().objectSuffix());
         try (Closeable c = ProbeUtil.deleting(path)) {
@@ -96,6 +140,9 @@ public final class CProbe {
             try {
                 inv.invoke();
             } catch (CompilationFailureException e) {
+                if (cache != null) {
+                    cache.store(key, new byte[] { 1 });
+                }
                 // no result
                 return null;
             }
@@ -145,11 +192,120 @@ public final class CProbe {
                     typeInfos.put(type, info);
                     memberInfos.put(type, memberInfo);
                 }
-                return new Result(typeInfos, memberInfos, functionInfos, constantInfos, byteOrder);
+                Result result = new Result(typeInfos, memberInfos, functionInfos, constantInfos, byteOrder);
+                if (cache != null) {
+                    cache.store(key, writeResult(result));
+                }
+                return result;
             }
         }
     }
 
+    private byte[] writeResult(Result result) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (DataOutputStream os = new DataOutputStream(bos)) {
+            // not a failure
+            os.writeBoolean(false);
+            os.writeBoolean(result.byteOrder == ByteOrder.BIG_ENDIAN);
+            os.writeInt(constants.size());
+            for (String name : constants) {
+                ConstantInfo info = result.constantInfos.get(name);
+                os.writeBoolean(info.defined);
+                if (info.value == null) {
+                    os.writeInt(-1);
+                } else {
+                    os.writeInt(info.value.length);
+                    os.write(info.value);
+                }
+                os.writeBoolean(info.signed);
+                os.writeBoolean(info.unsigned);
+                os.writeBoolean(info.floating);
+                os.writeBoolean(info.bool);
+            }
+            os.writeInt(functionNames.size());
+            for (String name : functionNames) {
+                os.writeUTF(result.functionInfos.get(name).resolvedName);
+            }
+            os.writeInt(types.size());
+            for (Type type : types) {
+                writeTypeInfo(os, result.typeInfos.get(type));
+                Map<String, Type.Info> memberInfo = result.memberInfos.get(type);
+                for (String memberName : type.getMembers()) {
+                    writeTypeInfo(os, memberInfo.get(memberName));
+                }
+            }
+        }
+        return bos.toByteArray();
+    }
+
+    private static void writeTypeInfo(DataOutputStream os, Type.Info info) throws IOException {
+        os.writeLong(info.size);
+        os.writeLong(info.align);
+        os.writeLong(info.offset);
+        os.writeBoolean(info.signed);
+        os.writeBoolean(info.unsigned);
+        os.writeBoolean(info.floating);
+    }
+
+    private Result readResult(DataInputStream is) throws IOException {
+        ByteOrder byteOrder = is.readBoolean() ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+        int cnt = constants.size();
+        checkCount(is, cnt);
+        final Map<String, ConstantInfo> constantInfos = new HashMap<>(cnt);
+        for (String name : constants) {
+            boolean defined = is.readBoolean();
+            int size = is.readInt();
+            byte[] value = null;
+            if (size >= 0) {
+                value = new byte[size];
+                is.readFully(value);
+            }
+            boolean signed = is.readBoolean();
+            boolean unsigned = is.readBoolean();
+            boolean floating = is.readBoolean();
+            boolean bool = is.readBoolean();
+            constantInfos.put(name, new ConstantInfo(defined, value, name, byteOrder, signed, unsigned, floating, bool));
+        }
+        cnt = functionNames.size();
+        checkCount(is, cnt);
+        final Map<String, FunctionInfo> functionInfos = new HashMap<>(cnt);
+        for (String name : functionNames) {
+            functionInfos.put(name, new FunctionInfo(is.readUTF()));
+        }
+        cnt = types.size();
+        checkCount(is, cnt);
+        final Map<Type, Type.Info> typeInfos = new HashMap<>(cnt);
+        final Map<Type, Map<String, Type.Info>> memberInfos = new HashMap<>();
+        for (Type type : types) {
+            typeInfos.put(type, readTypeInfo(is));
+            Map<String, Type.Info> memberInfo = new HashMap<>(type.getMembers().size());
+            for (String memberName : type.getMembers()) {
+                memberInfo.put(memberName, readTypeInfo(is));
+            }
+            memberInfos.put(type, memberInfo);
+        }
+        if (is.read() != -1) {
+            throw new IOException("Trailing data in probe cache entry");
+        }
+        return new Result(typeInfos, memberInfos, functionInfos, constantInfos, byteOrder);
+    }
+
+    private static Type.Info readTypeInfo(DataInputStream is) throws IOException {
+        long size = is.readLong();
+        long align = is.readLong();
+        long offset = is.readLong();
+        boolean signed = is.readBoolean();
+        boolean unsigned = is.readBoolean();
+        boolean floating = is.readBoolean();
+        return new Type.Info(size, align, offset, signed, unsigned, floating);
+    }
+
+    private static void checkCount(DataInputStream is, int expected) throws IOException {
+        if (is.readInt() != expected) {
+            throw new IOException("Probe cache entry does not match the probe");
+        }
+    }
+
 
     public static final class Builder {
         private final List<Step> items = new ArrayList<>();
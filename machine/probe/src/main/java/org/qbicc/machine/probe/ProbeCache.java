@@ -0,0 +1,164 @@
+package org.qbicc.machine.probe;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.smallrye.common.constraint.Assert;
+import org.qbicc.machine.arch.ObjectType;
+import org.qbicc.machine.tool.CToolChain;
+
+/**
+ * A persistent cache of probe results.  Each entry is keyed by a hash of the generated probe source along with the
+ * identity of the tool chain and the object file type which were used to run it, so a change to any of these results
+ * in a cache miss.  The contents of included headers are not part of the key; the cache directory should be cleared
+ * if the target headers change without a change to the tool chain version.
+ * <p>
+ * Entries are written atomically, so a cache directory may be shared between concurrent builds.
+ */
+public final class ProbeCache {
+    private static final int MAGIC = 0x51504331; // QPC1
+    // bump this if the entry format or the probe code generation changes incompatibly
+    private static final int VERSION = 1;
+    private static final String SUFFIX = ".probe";
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final Path directory;
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+
+    /**
+     * Construct a new instance.  The directory is created on first use if it does not exist.
+     *
+     * @param directory the cache directory (must not be {@code null})
+     */
+    public ProbeCache(final Path directory) {
+        this.directory = Assert.checkNotNullParam("directory", directory);
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Get the number of probes which were satisfied from this cache.
+     *
+     * @return the number of cache hits
+     */
+    public int getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Get the number of probes which had to be run because no usable cache entry was found.
+     *
+     * @return the number of cache misses
+     */
+    public int getMisses() {
+        return misses.get();
+    }
+
+    String keyOf(CToolChain toolChain, ObjectType objectType, CharSequence source) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        update(digest, Integer.toString(VERSION));
+        update(digest, toolChain.getImplementationName());
+        update(digest, toolChain.getVersion());
+        update(digest, toolChain.getPlatform().toString());
+        update(digest, objectType.getName());
+        update(digest, source);
+        final byte[] hash = digest.digest();
+        final StringBuilder b = new StringBuilder(hash.length << 1);
+        for (byte v : hash) {
+            b.append(HEX[(v >> 4) & 0xf]).append(HEX[v & 0xf]);
+        }
+        return b.toString();
+    }
+
+    private static void update(MessageDigest digest, CharSequence str) {
+        digest.update(StandardCharsets.UTF_8.encode(String.valueOf(str)));
+        // separator, so that adjacent strings cannot run together
+        digest.update((byte) 0);
+    }
+
+    /**
+     * Load the entry with the given key.
+     *
+     * @param key the entry key
+     * @return the entry content, or {@code null} if there is no usable entry
+     */
+    byte[] load(String key) {
+        final byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(directory.resolve(key + SUFFIX));
+        } catch (IOException e) {
+            // missing or unreadable
+            misses.incrementAndGet();
+            return null;
+        }
+        final ByteBuffer buf = ByteBuffer.wrap(bytes);
+        if (bytes.length < 8 || buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+            misses.incrementAndGet();
+            return null;
+        }
+        return Arrays.copyOfRange(bytes, 8, bytes.length);
+    }
+
+    /**
+     * Record that a loaded entry turned out to be unusable.
+     */
+    void rejected() {
+        misses.incrementAndGet();
+    }
+
+    /**
+     * Record that a loaded entry was used.
+     */
+    void accepted() {
+        hits.incrementAndGet();
+    }
+
+    /**
+     * Store an entry.  Failure to write the entry is not reported, since the cache is only an optimization.
+     *
+     * @param key the entry key
+     * @param content the entry content
+     */
+    void store(String key, byte[] content) {
+        Path tmp = null;
+        try {
+            Files.createDirectories(directory);
+            tmp = Files.createTempFile(directory, key, ".tmp");
+            final ByteBuffer buf = ByteBuffer.allocate(8 + content.length);
+            buf.putInt(MAGIC).putInt(VERSION).put(content);
+            Files.write(tmp, buf.array());
+            final Path target = directory.resolve(key + SUFFIX);
+            try {
+                Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            tmp = null;
+        } catch (IOException ignored) {
+        } finally {
+            if (tmp != null) {
+                try {
+                    Files.deleteIfExists(tmp);
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+}
@@ -2,8 +2,11 @@ package org.qbicc.machine.probe;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Iterator;
 import java.util.List;
+import java.util.stream.Stream;
 
 import org.qbicc.machine.arch.ObjectType;
 import org.qbicc.machine.arch.Platform;
@@ -96,4 +99,44 @@ public class TestProbes {
         assertTrue(result.getConstantInfo("INT8_MAX").isDefined());
         assertEquals(Byte.MAX_VALUE, result.getConstantInfo("INT8_MAX").getValueAsInt());
     }
+
+    @Test
+    public void testCachedProbe() throws Exception {
+        final CProbe.Type struct_iovec = CProbe.Type.builder()
+            .setName("iovec")
+            .setQualifier(Qualifier.STRUCT)
+            .addMember("iov_base")
+            .addMember("iov_len")
+            .build();
+        final CProbe probe = CProbe.builder()
+            .define("_DEFAULT_SOURCE")
+            .include("<sys/uio.h>")
+            .include("<stdint.h>")
+            .probeType(struct_iovec)
+            .probeConstant("INT8_MAX")
+            .build();
+        final Path dir = Files.createTempDirectory("qbicc-probe-cache-");
+        try {
+            final ProbeCache cache = new ProbeCache(dir);
+            final CProbe.Result first = probe.run(compiler, objectFileProvider, cache, null);
+            assertNotNull(first);
+            assertEquals(0, cache.getHits());
+            assertEquals(1, cache.getMisses());
+            final CProbe.Result second = probe.run(compiler, objectFileProvider, cache, null);
+            assertNotNull(second);
+            assertEquals(1, cache.getHits());
+            assertEquals(first.getByteOrder(), second.getByteOrder());
+            assertEquals(first.getTypeInfo(struct_iovec).getSize(), second.getTypeInfo(struct_iovec).getSize());
+            assertEquals(first.getTypeInfo(struct_iovec).getAlign(), second.getTypeInfo(struct_iovec).getAlign());
+            assertEquals(first.getTypeInfoOfMember(struct_iovec, "iov_len").getOffset(), second.getTypeInfoOfMember(struct_iovec, "iov_len").getOffset());
+            assertEquals(Byte.MAX_VALUE, second.getConstantInfo("INT8_MAX").getValueAsInt());
+        } finally {
+            try (Stream<Path> stream = Files.list(dir)) {
+                for (Path path : (Iterable<Path>) stream::iterator) {
+                    Files.delete(path);
+                }
+            }
+            Files.delete(dir);
+        }
+    }
 }
@@ -44,9 +44,11 @@ import org.qbicc.driver.plugin.DriverPlugin;
 import org.qbicc.interpreter.Vm;
 import org.qbicc.interpreter.VmThread;
 import org.qbicc.interpreter.impl.VmImpl;
+import org.qbicc.machine.arch.OS;
 import org.qbicc.machine.arch.Platform;
 import org.qbicc.machine.object.ObjectFileProvider;
 import org.qbicc.machine.probe.CProbe;
+import org.qbicc.machine.probe.ProbeCache;
 import org.qbicc.machine.tool.CToolChain;
 import org.qbicc.plugin.constants.ConstantBasicBlockBuilder;
 import org.qbicc.plugin.conversion.MethodCallFixupBasicBlockBuilder;
@@ -55,16 +57,27 @@ import org.qbicc.plugin.core.CoreAnnotationTypeBuilder;
 import org.qbicc.plugin.coreclasses.ArrayLengthBasicBlockBuilder;
 import org.qbicc.plugin.coreclasses.BasicHeaderManualInitializer;
 import org.qbicc.plugin.coreclasses.CoreClasses;
+import org.qbicc.plugin.correctness.CheckEliminatingVisitor;
+import org.qbicc.plugin.correctness.InitCheckElementHandler;
+import org.qbicc.plugin.correctness.InitCheckEliminatingVisitor;
 import org.qbicc.plugin.correctness.RuntimeChecksBasicBlockBuilder;
 import org.qbicc.plugin.correctness.StaticChecksBasicBlockBuilder;
 import org.qbicc.plugin.dispatch.DevirtualizingBasicBlockBuilder;
 import org.qbicc.plugin.dispatch.DispatchTableBuilder;
 import org.qbicc.plugin.dispatch.DispatchTableEmitter;
 import org.qbicc.plugin.dot.DotGenerator;
+import org.qbicc.plugin.gc.generational.CardMarkingBasicBlockBuilder;
+import org.qbicc.plugin.gc.generational.GenerationalSetupHook;
+import org.qbicc.plugin.gc.nogc.NoGc;
 import org.qbicc.plugin.gc.nogc.NoGcBasicBlockBuilder;
 import org.qbicc.plugin.gc.nogc.NoGcMultiNewArrayBasicBlockBuilder;
 import org.qbicc.plugin.gc.nogc.NoGcSetupHook;
+import org.qbicc.plugin.gc.nogc.NoGcStackAllocationVisitor;
 import org.qbicc.plugin.gc.nogc.NoGcTypeSystemConfigurator;
+import org.qbicc.plugin.gc.semispace.SafepointPollVisitor;
+import org.qbicc.plugin.gc.semispace.SemiSpaceBasicBlockBuilder;
+import org.qbicc.plugin.gc.semispace.SemiSpaceSetupHook;
+import org.qbicc.plugin.gc.semispace.SemiSpaceTableEmitter;
 import org.qbicc.plugin.instanceofcheckcast.InstanceOfCheckCastBasicBlockBuilder;
 import org.qbicc.plugin.instanceofcheckcast.SupersDisplayBuilder;
 import org.qbicc.plugin.instanceofcheckcast.SupersDisplayEmitter;
@@ -75,7 +88,9 @@ import org.qbicc.plugin.llvm.LLVMIntrinsics;
 import org.qbicc.plugin.lowering.BooleanAccessCopier;
 import org.qbicc.plugin.lowering.LocalVariableFindingBasicBlockBuilder;
 import org.qbicc.plugin.lowering.LocalVariableLoweringBasicBlockBuilder;
+import org.qbicc.plugin.layout.CompressedReferences;
 import org.qbicc.plugin.layout.ObjectAccessLoweringBuilder;
+import org.qbicc.plugin.layout.OmittedFieldCopier;
 import org.qbicc.plugin.linker.LinkStage;
 import org.qbicc.plugin.llvm.LLVMCompatibleBasicBlockBuilder;
 import org.qbicc.plugin.llvm.LLVMCompileStage;
@@ -101,12 +116,19 @@ import org.qbicc.plugin.native_.NativeTypeResolver;
 import org.qbicc.plugin.native_.NativeXtorLoweringElementHandler;
 import org.qbicc.plugin.native_.PointerBasicBlockBuilder;
 import org.qbicc.plugin.native_.PointerTypeResolver;
+import org.qbicc.plugin.native_.SafepointNativeCallBasicBlockBuilder;
 import org.qbicc.plugin.native_.StructMemberAccessBasicBlockBuilder;
 import org.qbicc.plugin.objectmonitor.ObjectMonitorBasicBlockBuilder;
+import org.qbicc.plugin.objectmonitor.ObjectMonitorSetupHook;
+import org.qbicc.plugin.opt.EscapeAnalysisElementHandler;
+import org.qbicc.plugin.opt.EscapeAnalysisVisitor;
 import org.qbicc.plugin.opt.GotoRemovingVisitor;
+import org.qbicc.plugin.opt.InitializationAnalysisElementHandler;
 import org.qbicc.plugin.opt.InitializedStaticFieldBasicBlockBuilder;
 import org.qbicc.plugin.opt.InliningBasicBlockBuilder;
 import org.qbicc.plugin.opt.LocalMemoryTrackingBasicBlockBuilder;
+import org.qbicc.plugin.opt.LoopOptimizer;
+import org.qbicc.plugin.opt.MemoryTrackingVisitor;
 import org.qbicc.plugin.opt.PhiOptimizerVisitor;
 import org.qbicc.plugin.opt.SimpleOptBasicBlockBuilder;
 import org.qbicc.plugin.patcher.AccessorBasicBlockBuilder;
@@ -114,9 +136,11 @@ import org.qbicc.plugin.patcher.AccessorTypeBuilder;
 import org.qbicc.plugin.patcher.Patcher;
 import org.qbicc.plugin.patcher.PatcherResolverBasicBlockBuilder;
 import org.qbicc.plugin.patcher.PatcherTypeResolver;
+import org.qbicc.plugin.reachability.FieldLayoutOptimizer;
 import org.qbicc.plugin.reachability.ReachabilityBlockBuilder;
 import org.qbicc.plugin.reachability.ReachabilityInfo;
 import org.qbicc.plugin.reflection.Reflection;
+import org.qbicc.plugin.serialization.BuildtimeHeap;
 import org.qbicc.plugin.serialization.ClassObjectSerializer;
 import org.qbicc.plugin.serialization.MethodDataStringsSerializer;
 import org.qbicc.plugin.serialization.ObjectLiteralSerializingVisitor;
@@ -141,32 +165,56 @@ public class Main implements Callable<DiagnosticContext> {
     private final List<ClassPathEntry> bootPaths;
     private final List<ClassPathEntry> appPaths;
     private final Path outputPath;
+    private final Path probeCachePath;
     private final Consumer<Iterable<Diagnostic>> diagnosticsHandler;
     private final String mainClass;
     private final String gc;
     private final boolean isPie;
+    private final boolean keepIr;
+    private final boolean llvmBitcode;
     private final GraphGenConfig graphGenConfig;
     private final boolean optMemoryTracking;
+    private final boolean optEscapeAnalysis;
+    private final boolean optCheckElimination;
+    private final boolean optInitChecks;
+    private final boolean optLoops;
     private final boolean optPhis;
     private final boolean optGotos;
     private final boolean optInlining;
+    private final boolean optFieldLayout;
+    private final boolean optHotFields;
     private final Platform platform;
     private final boolean smallTypeIds;
+    private final boolean compressedRefs;
+    private final boolean futexMonitors;
+    private final boolean nogcArena;
 
     Main(Builder builder) {
         outputPath = builder.outputPath;
+        probeCachePath = builder.probeCachePath;
         diagnosticsHandler = builder.diagnosticsHandler;
         // todo: this becomes optional
         mainClass = Assert.checkNotNullParam("builder.mainClass", builder.mainClass);
         gc = builder.gc;
         isPie = builder.isPie;
+        keepIr = builder.keepIr;
+        llvmBitcode = builder.llvmBitcode;
         graphGenConfig = builder.graphGenConfig;
         optMemoryTracking = builder.optMemoryTracking;
+        optEscapeAnalysis = builder.optEscapeAnalysis;
+        optCheckElimination = builder.optCheckElimination;
+        optInitChecks = builder.optInitChecks;
+        optLoops = builder.optLoops;
         optInlining = builder.optInlining;
+        optFieldLayout = builder.optFieldLayout;
+        optHotFields = builder.optHotFields;
         optPhis = builder.optPhis;
         optGotos = builder.optGotos;
         platform = builder.platform;
         smallTypeIds = builder.smallTypeIds;
+        compressedRefs = builder.compressedRefs;
+        futexMonitors = builder.futexMonitors;
+        nogcArena = builder.nogcArena;
         ArrayList<ClassPathEntry> bootPaths = new ArrayList<>(builder.bootPathsPrepend.size() + 6 + builder.bootPathsAppend.size());
         bootPaths.addAll(builder.bootPathsPrepend);
         // add core things
@@ -180,6 +228,12 @@ public class Main implements Callable<DiagnosticContext> {
         if (nogc) {
             bootPaths.add(getCoreComponent("qbicc-runtime-gc-nogc"));
         }
+        if (gc.equals("semispace") || gc.equals("generational")) {
+            bootPaths.add(getCoreComponent("qbicc-runtime-gc-semispace"));
+        }
+        if (gc.equals("generational")) {
+            bootPaths.add(getCoreComponent("qbicc-runtime-gc-generational"));
+        }
         bootPaths.add(ClassPathEntry.ofClassLibraries(builder.classLibVersion));
         bootPaths.addAll(builder.bootPathsAppend);
         this.bootPaths = bootPaths;
@@ -202,9 +256,22 @@ public class Main implements Callable<DiagnosticContext> {
         final Driver.Builder builder = Driver.builder();
         builder.setInitialContext(initialContext);
         boolean nogc = gc.equals("none");
+        boolean semispace = gc.equals("semispace");
+        boolean generational = gc.equals("generational");
+        // the generational GC shares the tables and the allocation lowering of the semispace GC
+        boolean copying = semispace || generational;
+        if (compressedRefs && ! nogc) {
+            initialContext.error("Compressed references are only supported without GC (--gc none)");
+        }
+        if (copying && platform.getOs() != OS.LINUX) {
+            // the safepoints of the copying collectors block on futexes
+            initialContext.error("The copying collectors are only supported on Linux");
+        }
         int errors = initialContext.errors();
         if (errors == 0) {
             builder.setOutputDirectory(outputPath);
+            ProbeCache probeCache = probeCachePath == null ? null : new ProbeCache(probeCachePath);
+            builder.setProbeCache(probeCache);
             // process the class paths
             try {
                 resolveClassPath(initialContext, builder::addBootClassPathItem, bootPaths);
@@ -261,7 +328,7 @@ public class Main implements Callable<DiagnosticContext> {
                     // execute
                     CProbe probe = probeBuilder.build();
                     try {
-                        CProbe.Result probeResult = probe.run(toolChain, objectFileProvider, initialContext);
+                        CProbe.Result probeResult = probe.run(toolChain, objectFileProvider, probeCache, initialContext);
                         if (probeResult == null) {
                             initialContext.error("Type system probe compiler execution failed");
                         } else {
@@ -296,7 +363,7 @@ public class Main implements Callable<DiagnosticContext> {
                             tsBuilder.setTypeIdSize((int) probeResult.getTypeInfo(type_id_type).getSize());
                             tsBuilder.setTypeIdAlignment((int) probeResult.getTypeInfo(type_id_type).getAlign());
                             tsBuilder.setEndianness(probeResult.getByteOrder());
-                            if (nogc) {
+                            if (nogc || copying) {
                                 new NoGcTypeSystemConfigurator().accept(tsBuilder);
                             }
                             builder.setTypeSystem(tsBuilder.build());
@@ -371,25 +438,47 @@ public class Main implements Callable<DiagnosticContext> {
                                 builder.addPreHook(Phase.ADD, Reflection::get);
                                 builder.addPreHook(Phase.ADD, ThrowExceptionHelper::get);
                                 builder.addPreHook(Phase.ADD, new VMHelpersSetupHook());
+                                builder.addPreHook(Phase.ADD, new ObjectMonitorSetupHook(futexMonitors));
                                 builder.addPreHook(Phase.ADD, compilationContext -> {
                                     Vm vm = compilationContext.getVm();
                                     VmThread initThread = vm.newThread("initialization", vm.getMainThreadGroup(), false,  Thread.currentThread().getPriority());
                                     vm.doAttached(initThread, vm::initialize);
                                 });
                                 builder.addPreHook(Phase.ADD, new AddMainClassHook());
+                                if (compressedRefs) {
+                                    builder.addPreHook(Phase.ADD, CompressedReferences::enable);
+                                }
                                 if (nogc) {
-                                    builder.addPreHook(Phase.ADD, new NoGcSetupHook());
+                                    builder.addPreHook(Phase.ADD, new NoGcSetupHook(nogcArena));
+                                }
+                                if (semispace) {
+                                    builder.addPreHook(Phase.ADD, new SemiSpaceSetupHook());
+                                }
+                                if (generational) {
+                                    builder.addPreHook(Phase.ADD, new GenerationalSetupHook());
                                 }
                                 builder.addPreHook(Phase.ADD, ReachabilityInfo::forceCoreClassesReachable);
                                 builder.addElementHandler(Phase.ADD, new ElementBodyCreator());
+                                if (optLoops) {
+                                    builder.addElementHandler(Phase.ADD, new LoopOptimizer());
+                                }
+                                if (optEscapeAnalysis) {
+                                    builder.addElementHandler(Phase.ADD, new EscapeAnalysisElementHandler());
+                                }
+                                if (optInitChecks) {
+                                    builder.addElementHandler(Phase.ADD, new InitCheckElementHandler());
+                                }
                                 builder.addElementHandler(Phase.ADD, new ElementVisitorAdapter(new DotGenerator(Phase.ADD, graphGenConfig)));
                                 builder.addElementHandler(Phase.ADD, new ElementInitializer());
                                 builder.addBuilderFactory(Phase.ADD, BuilderStage.TRANSFORM, IntrinsicBasicBlockBuilder::createForAddPhase);
-                                if (nogc) {
+                                if (nogc || copying) {
                                     builder.addBuilderFactory(Phase.ADD, BuilderStage.TRANSFORM, NoGcMultiNewArrayBasicBlockBuilder::new);
                                 }
                                 builder.addBuilderFactory(Phase.ADD, BuilderStage.TRANSFORM, PatcherResolverBasicBlockBuilder::createIfNeeded);
                                 builder.addBuilderFactory(Phase.ADD, BuilderStage.TRANSFORM, ClassLoadingBasicBlockBuilder::new);
+                                if (copying) {
+                                    builder.addBuilderFactory(Phase.ADD, BuilderStage.TRANSFORM, SafepointNativeCallBasicBlockBuilder::new);
+                                }
                                 builder.addBuilderFactory(Phase.ADD, BuilderStage.TRANSFORM, NativeBasicBlockBuilder::new);
                                 builder.addBuilderFactory(Phase.ADD, BuilderStage.TRANSFORM, MemberResolvingBasicBlockBuilder::new);
                                 builder.addBuilderFactory(Phase.ADD, BuilderStage.TRANSFORM, AccessorBasicBlockBuilder::new);
@@ -417,20 +506,36 @@ public class Main implements Callable<DiagnosticContext> {
                                 builder.addPreHook(Phase.ANALYZE, new VMHelpersSetupHook());
                                 builder.addPreHook(Phase.ANALYZE, ReachabilityInfo::forceCoreClassesReachable);
                                 builder.addElementHandler(Phase.ANALYZE, new ElementBodyCopier());
+                                if (nogc && optEscapeAnalysis && ! compressedRefs) {
+                                    builder.addElementHandler(Phase.ANALYZE, new InitializationAnalysisElementHandler());
+                                }
                                 builder.addElementHandler(Phase.ANALYZE, new ElementVisitorAdapter(new DotGenerator(Phase.ANALYZE, graphGenConfig)));
+                                if (copying) {
+                                    // first, so that it sees the back edges before any other copier rewrites them
+                                    builder.addCopyFactory(Phase.ANALYZE, SafepointPollVisitor::new);
+                                }
                                 if (optGotos) {
                                     builder.addCopyFactory(Phase.ANALYZE, GotoRemovingVisitor::new);
                                 }
                                 if (optPhis) {
                                     builder.addCopyFactory(Phase.ANALYZE, PhiOptimizerVisitor::new);
                                 }
+                                if (optEscapeAnalysis) {
+                                    builder.addCopyFactory(Phase.ANALYZE, EscapeAnalysisVisitor::new);
+                                }
+                                if (optMemoryTracking) {
+                                    builder.addCopyFactory(Phase.ANALYZE, MemoryTrackingVisitor::new);
+                                }
+                                if (optCheckElimination) {
+                                    builder.addCopyFactory(Phase.ANALYZE, CheckEliminatingVisitor::new);
+                                }
+                                if (optInitChecks) {
+                                    builder.addCopyFactory(Phase.ANALYZE, InitCheckEliminatingVisitor::new);
+                                }
                                 builder.addBuilderFactory(Phase.ANALYZE, BuilderStage.TRANSFORM, IntrinsicBasicBlockBuilder::createForAnalyzePhase);
                                 builder.addBuilderFactory(Phase.ANALYZE, BuilderStage.TRANSFORM, InitializedStaticFieldBasicBlockBuilder::new);
                                 builder.addBuilderFactory(Phase.ANALYZE, BuilderStage.TRANSFORM, ThreadLocalBasicBlockBuilder::new);
                                 builder.addBuilderFactory(Phase.ANALYZE, BuilderStage.TRANSFORM, DevirtualizingBasicBlockBuilder::new);
-                                if (optMemoryTracking) {
-                                    builder.addBuilderFactory(Phase.ANALYZE, BuilderStage.TRANSFORM, LocalMemoryTrackingBasicBlockBuilder::new);
-                                }
                                 builder.addBuilderFactory(Phase.ANALYZE, BuilderStage.CORRECT, NumericalConversionBasicBlockBuilder::new);
                                 builder.addBuilderFactory(Phase.ANALYZE, BuilderStage.OPTIMIZE, SimpleOptBasicBlockBuilder::new);
                                 if (optInlining) {
@@ -441,6 +546,9 @@ public class Main implements Callable<DiagnosticContext> {
                                 builder.addBuilderFactory(Phase.ANALYZE, BuilderStage.INTEGRITY, StaticChecksBasicBlockBuilder::new);
 
                                 builder.addPostHook(Phase.ANALYZE, ReachabilityInfo::reportStats);
+                                if (optFieldLayout || compressedRefs) {
+                                    builder.addPostHook(Phase.ANALYZE, new FieldLayoutOptimizer(optFieldLayout, optHotFields));
+                                }
                                 // todo: restore when adapted for run time initializers
                                 //builder.addPostHook(Phase.ANALYZE, new ClassInitializerRegister());
                                 builder.addPostHook(Phase.ANALYZE, new DispatchTableBuilder());
@@ -456,14 +564,23 @@ public class Main implements Callable<DiagnosticContext> {
                                 if (optPhis) {
                                     builder.addCopyFactory(Phase.LOWER, PhiOptimizerVisitor::new);
                                 }
+                                if (optFieldLayout) {
+                                    builder.addCopyFactory(Phase.LOWER, OmittedFieldCopier::new);
+                                }
                                 builder.addCopyFactory(Phase.LOWER, BooleanAccessCopier::new);
                                 builder.addCopyFactory(Phase.LOWER, ObjectLiteralSerializingVisitor::new);
+                                if (nogc && optEscapeAnalysis && ! compressedRefs) {
+                                    builder.addCopyFactory(Phase.LOWER, NoGcStackAllocationVisitor::new);
+                                }
 
                                 builder.addBuilderFactory(Phase.LOWER, BuilderStage.TRANSFORM, ThrowLoweringBasicBlockBuilder::new);
                                 builder.addBuilderFactory(Phase.LOWER, BuilderStage.TRANSFORM, DevirtualizingBasicBlockBuilder::new);
                                 if (nogc) {
                                     builder.addBuilderFactory(Phase.LOWER, BuilderStage.TRANSFORM, NoGcBasicBlockBuilder::new);
                                 }
+                                if (copying) {
+                                    builder.addBuilderFactory(Phase.LOWER, BuilderStage.TRANSFORM, SemiSpaceBasicBlockBuilder::new);
+                                }
                                 builder.addBuilderFactory(Phase.LOWER, BuilderStage.TRANSFORM, IntrinsicBasicBlockBuilder::createForLowerPhase);
                                 builder.addBuilderFactory(Phase.LOWER, BuilderStage.TRANSFORM, InvocationLoweringBasicBlockBuilder::new);
                                 builder.addBuilderFactory(Phase.LOWER, BuilderStage.TRANSFORM, LocalVariableLoweringBasicBlockBuilder::new);
@@ -471,6 +588,9 @@ public class Main implements Callable<DiagnosticContext> {
                                 builder.addBuilderFactory(Phase.LOWER, BuilderStage.TRANSFORM, InstanceOfCheckCastBasicBlockBuilder::new);
                                 // todo: restore when adapted for run time initializers
                                 //builder.addBuilderFactory(Phase.LOWER, BuilderStage.TRANSFORM, LowerClassInitCheckBlockBuilder::new);
+                                if (generational) {
+                                    builder.addBuilderFactory(Phase.LOWER, BuilderStage.TRANSFORM, CardMarkingBasicBlockBuilder::new);
+                                }
                                 builder.addBuilderFactory(Phase.LOWER, BuilderStage.TRANSFORM, ObjectAccessLoweringBuilder::new);
                                 builder.addBuilderFactory(Phase.LOWER, BuilderStage.TRANSFORM, ObjectMonitorBasicBlockBuilder::new);
                                 builder.addBuilderFactory(Phase.LOWER, BuilderStage.TRANSFORM, LLVMCompatibleBasicBlockBuilder::new);
@@ -482,15 +602,25 @@ public class Main implements Callable<DiagnosticContext> {
                                 // MethodDataStringsSerializer should be the last BBB in the list
                                 builder.addBuilderFactory(Phase.LOWER, BuilderStage.TRANSFORM, MethodDataStringsSerializer::new);
                                 builder.addBuilderFactory(Phase.LOWER, BuilderStage.INTEGRITY, StaticChecksBasicBlockBuilder::new);
+                                builder.addPostHook(Phase.LOWER, BuildtimeHeap::reportStats);
+                                if (nogc) {
+                                    builder.addPostHook(Phase.LOWER, NoGc::reportStats);
+                                }
 
                                 builder.addPreHook(Phase.GENERATE, new SupersDisplayEmitter());
                                 builder.addPreHook(Phase.GENERATE, new DispatchTableEmitter());
-                                builder.addPreHook(Phase.GENERATE, new LLVMGenerator(isPie ? 2 : 0, isPie ? 2 : 0));
+                                builder.addPreHook(Phase.GENERATE, new LLVMGenerator(isPie ? 2 : 0, isPie ? 2 : 0, keepIr, llvmBitcode));
 
                                 builder.addPostHook(Phase.GENERATE, new DotGenerator(Phase.GENERATE, graphGenConfig));
-                                builder.addPostHook(Phase.GENERATE, new LLVMCompileStage(isPie));
-                                builder.addPostHook(Phase.GENERATE, new MethodDataEmitter());
-                                builder.addPostHook(Phase.GENERATE, new LLVMDefaultModuleCompileStage(isPie));
+                                if (keepIr) {
+                                    builder.addPostHook(Phase.GENERATE, new LLVMCompileStage(isPie));
+                                }
+                                if (copying) {
+                                    builder.addPostHook(Phase.GENERATE, new SemiSpaceTableEmitter());
+                                }
+                                // a moving collector needs the stack maps to find its roots
+                                builder.addPostHook(Phase.GENERATE, new MethodDataEmitter(copying));
+                                builder.addPostHook(Phase.GENERATE, new LLVMDefaultModuleCompileStage(isPie, keepIr, llvmBitcode));
                                 builder.addPostHook(Phase.GENERATE, new LinkStage(isPie));
 
                                 CompilationContext ctxt;
@@ -542,6 +672,7 @@ public class Main implements Callable<DiagnosticContext> {
             .prependBootPaths(optionsProcessor.prependedBootPathEntries)
             .addAppPaths(optionsProcessor.appPathEntries)
             .setOutputPath(optionsProcessor.outputPath)
+            .setProbeCachePath(optionsProcessor.probeCachePath)
             .setMainClass(optionsProcessor.mainClass)
             .setDiagnosticsHandler(diagnostics -> {
                 for (Diagnostic diagnostic : diagnostics) {
@@ -555,11 +686,22 @@ public class Main implements Callable<DiagnosticContext> {
             })
             .setGc(optionsProcessor.gc.toString())
             .setIsPie(optionsProcessor.isPie)
+            .setKeepIr(optionsProcessor.keepIr)
+            .setLlvmBitcode(optionsProcessor.llvmBitcode)
             .setOptMemoryTracking(optionsProcessor.optArgs.optMemoryTracking)
+            .setOptEscapeAnalysis(optionsProcessor.optArgs.optEscapeAnalysis)
+            .setOptCheckElimination(optionsProcessor.optArgs.optCheckElimination)
+            .setOptInitChecks(optionsProcessor.optArgs.optInitChecks)
+            .setOptLoops(optionsProcessor.optArgs.optLoops)
             .setOptInlining(optionsProcessor.optArgs.optInlining)
+            .setOptFieldLayout(optionsProcessor.optArgs.optFieldLayout)
+            .setOptHotFields(optionsProcessor.optArgs.optHotFields)
             .setOptGotos(optionsProcessor.optArgs.optGotos)
             .setOptPhis(optionsProcessor.optArgs.optPhis)
             .setSmallTypeIds(optionsProcessor.smallTypeIds)
+            .setCompressedRefs(optionsProcessor.compressedRefs)
+            .setFutexMonitors(optionsProcessor.futexMonitors)
+            .setNogcArena(optionsProcessor.nogcArena)
             .setGraphGenConfig(optionsProcessor.graphGenConfig);
         Platform platform = optionsProcessor.platform;
         if (platform != null) {
@@ -593,6 +735,8 @@ public class Main implements Callable<DiagnosticContext> {
     private static final class CommandLineProcessor {
         private enum GCType {
             NONE("none"),
+            SEMISPACE("semispace"),
+            GENERATIONAL("generational"),
             ;
             private final String gcType;
 
@@ -639,6 +783,8 @@ public class Main implements Callable<DiagnosticContext> {
 
         @CommandLine.Option(names = "--output-path", description = "Specify directory where the executable is placed")
         private Path outputPath;
+        @CommandLine.Option(names = "--probe-cache-path", description = "Specify directory where C probe results are cached between builds")
+        private Path probeCachePath;
         @CommandLine.Option(names = "--debug")
         private boolean debug;
         @CommandLine.Option(names = "--debug-vtables")
@@ -655,6 +801,10 @@ public class Main implements Callable<DiagnosticContext> {
         private boolean debugInterpreter;
         @CommandLine.Option(names = "--gc", defaultValue = "none", description = "Type of GC to use. Valid values: ${COMPLETION-CANDIDATES}")
         private GCType gc;
+        @CommandLine.Option(names = "--keep-ir", description = "Keep the intermediate LLVM IR, bitcode, and assembly files instead of piping them between the tools")
+        private boolean keepIr;
+        @CommandLine.Option(names = "--llvm-bitcode", description = "Hand the generated modules to LLVM as bitcode instead of textual IR")
+        private boolean llvmBitcode;
         @CommandLine.Option(names = "--method-data-stats")
         private boolean methodDataStats;
         @CommandLine.Option(names = "--pie", negatable = true, defaultValue = "false", description = "[Disable|Enable] generation of position independent executable")
@@ -663,10 +813,21 @@ public class Main implements Callable<DiagnosticContext> {
         private Platform platform;
         @CommandLine.Option(names = "--string-pool-stats")
         private boolean stringPoolStats;
+        @CommandLine.Option(names = "--loop-opt-stats")
+        private boolean loopOptStats;
 
         @CommandLine.Option(names = "--small-type-ids", negatable = true, defaultValue = "false", description = "Use narrow (16-bit) type ID values if true, wide (32-bit) type ID values if false")
         private boolean smallTypeIds;
 
+        @CommandLine.Option(names = "--compressed-refs", negatable = true, defaultValue = "false", description = "Store eligible reference fields as 32-bit offsets from the heap base if true, as full pointers if false")
+        private boolean compressedRefs;
+
+        @CommandLine.Option(names = "--futex-monitors", negatable = true, defaultValue = "true", description = "Implement object monitors on futexes when targeting Linux if true, on pthread mutexes if false")
+        private boolean futexMonitors;
+
+        @CommandLine.Option(names = "--nogc-arena", negatable = true, defaultValue = "true", description = "Allocate from a pre-zeroed arena of memory mappings without GC if true, from the system heap if false")
+        private boolean nogcArena;
+
         @CommandLine.Parameters(index="0", arity="1", description = "Application main class")
         private String mainClass;
 
@@ -695,10 +856,22 @@ public class Main implements Callable<DiagnosticContext> {
         }
 
         static class OptArgs {
-            @CommandLine.Option(names = "--opt-memory-tracking", negatable = true, defaultValue = "false", description = "Enable/disable redundant store/load tracking and elimination")
+            @CommandLine.Option(names = "--no-opt-memory-tracking", negatable = true, defaultValue = "true", description = "Enable/disable redundant store/load tracking and elimination")
             boolean optMemoryTracking;
+            @CommandLine.Option(names = "--opt-escape-analysis", negatable = true, defaultValue = "false", description = "Enable/disable escape analysis, scalar replacement and stack allocation")
+            boolean optEscapeAnalysis;
+            @CommandLine.Option(names = "--opt-check-elimination", negatable = true, defaultValue = "false", description = "Enable/disable elimination of redundant null, bounds and division checks")
+            boolean optCheckElimination;
+            @CommandLine.Option(names = "--opt-init-checks", negatable = true, defaultValue = "false", description = "Enable/disable elimination of redundant class initialization checks")
+            boolean optInitChecks;
+            @CommandLine.Option(names = "--opt-loops", negatable = true, defaultValue = "false", description = "Enable/disable loop unswitching and peeling")
+            boolean optLoops;
             @CommandLine.Option(names = "--opt-inlining", negatable = true, defaultValue = "false", description = "Enable/disable inliner")
             boolean optInlining;
+            @CommandLine.Option(names = "--opt-field-layout", negatable = true, defaultValue = "false", description = "Enable/disable omission of unread instance fields and size-ordered field packing")
+            boolean optFieldLayout;
+            @CommandLine.Option(names = "--opt-hot-fields", negatable = true, defaultValue = "false", description = "Enable/disable ordering of instance fields by access frequency (requires --opt-field-layout)")
+            boolean optHotFields;
             @CommandLine.Option(names = "--no-opt-phis", negatable = true, defaultValue = "true", description = "Enable/disable `phi` elimination")
             boolean optPhis;
             @CommandLine.Option(names = "--no-opt-gotos", negatable = true, defaultValue = "true", description = "Enable/disable `goto` elimination")
@@ -745,6 +918,9 @@ public class Main implements Callable<DiagnosticContext> {
             if (stringPoolStats) {
                 Logger.getLogger("org.qbicc.plugin.stringpool.stats").setLevel(Level.DEBUG);
             }
+            if (loopOptStats) {
+                Logger.getLogger("org.qbicc.plugin.opt.loops.stats").setLevel(Level.DEBUG);
+            }
             if (outputPath == null) {
                 outputPath = Path.of(System.getProperty("java.io.tmpdir"), "qbicc-output-" + Integer.toHexString(ThreadLocalRandom.current().nextInt()));
             }
@@ -776,18 +952,30 @@ public class Main implements Callable<DiagnosticContext> {
         private final List<ClassPathEntry> appPaths = new ArrayList<>();
         private String classLibVersion = MainProperties.CLASSLIB_DEFAULT_VERSION;
         private Path outputPath;
+        private Path probeCachePath;
         private Consumer<Iterable<Diagnostic>> diagnosticsHandler = diagnostics -> {};
         private Platform platform = Platform.HOST_PLATFORM;
         private String mainClass;
         private String gc = "none";
         // TODO Detect whether the system uses PIEs by default and match that if possible
         private boolean isPie = false;
-        private boolean optMemoryTracking = false;
+        private boolean keepIr = false;
+        private boolean llvmBitcode = false;
+        private boolean optMemoryTracking = true;
+        private boolean optEscapeAnalysis = false;
+        private boolean optCheckElimination = false;
+        private boolean optInitChecks = false;
+        private boolean optLoops = false;
         private boolean optInlining = false;
+        private boolean optFieldLayout = false;
+        private boolean optHotFields = false;
         private boolean optPhis = true;
         private boolean optGotos = true;
         private GraphGenConfig graphGenConfig;
         private boolean smallTypeIds = false;
+        private boolean compressedRefs = false;
+        private boolean futexMonitors = true;
+        private boolean nogcArena = true;
 
         Builder() {}
 
@@ -839,6 +1027,11 @@ public class Main implements Callable<DiagnosticContext> {
             return this;
         }
 
+        public Builder setProbeCachePath(Path path) {
+            this.probeCachePath = path;
+            return this;
+        }
+
         public Builder setPlatform(Platform platform) {
             Assert.checkNotNullParam("platform", platform);
             this.platform = platform;
@@ -867,6 +1060,16 @@ public class Main implements Callable<DiagnosticContext> {
             return this;
         }
 
+        public Builder setKeepIr(boolean keepIr) {
+            this.keepIr = keepIr;
+            return this;
+        }
+
+        public Builder setLlvmBitcode(boolean llvmBitcode) {
+            this.llvmBitcode = llvmBitcode;
+            return this;
+        }
+
         public Builder setGraphGenConfig(GraphGenConfig graphGenConfig) {
             Assert.checkNotNullParam("graphGenConfig", graphGenConfig);
             this.graphGenConfig = graphGenConfig;
@@ -878,11 +1081,41 @@ public class Main implements Callable<DiagnosticContext> {
             return this;
         }
 
+        public Builder setOptEscapeAnalysis(boolean optEscapeAnalysis) {
+            this.optEscapeAnalysis = optEscapeAnalysis;
+            return this;
+        }
+
+        public Builder setOptCheckElimination(boolean optCheckElimination) {
+            this.optCheckElimination = optCheckElimination;
+            return this;
+        }
+
+        public Builder setOptInitChecks(boolean optInitChecks) {
+            this.optInitChecks = optInitChecks;
+            return this;
+        }
+
+        public Builder setOptLoops(boolean optLoops) {
+            this.optLoops = optLoops;
+            return this;
+        }
+
         public Builder setOptInlining(boolean optInlining) {
             this.optInlining = optInlining;
             return this;
         }
 
+        public Builder setOptFieldLayout(boolean optFieldLayout) {
+            this.optFieldLayout = optFieldLayout;
+            return this;
+        }
+
+        public Builder setOptHotFields(boolean optHotFields) {
+            this.optHotFields = optHotFields;
+            return this;
+        }
+
         public Builder setOptPhis(boolean optPhis) {
             this.optPhis = optPhis;
             return this;
@@ -898,6 +1131,21 @@ public class Main implements Callable<DiagnosticContext> {
             return this;
         }
 
+        public Builder setCompressedRefs(boolean compressedRefs) {
+            this.compressedRefs = compressedRefs;
+            return this;
+        }
+
+        public Builder setFutexMonitors(boolean futexMonitors) {
+            this.futexMonitors = futexMonitors;
+            return this;
+        }
+
+        public Builder setNogcArena(boolean nogcArena) {
+            this.nogcArena = nogcArena;
+            return this;
+        }
+
         public Main build() {
             return new Main(this);
         }
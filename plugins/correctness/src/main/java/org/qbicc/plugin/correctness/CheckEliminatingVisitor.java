@@ -0,0 +1,430 @@
+package org.qbicc.plugin.correctness;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.qbicc.context.CompilationContext;
+import org.qbicc.graph.Add;
+import org.qbicc.graph.BasicBlock;
+import org.qbicc.graph.BlockEntry;
+import org.qbicc.graph.If;
+import org.qbicc.graph.InstanceFieldOf;
+import org.qbicc.graph.IsEq;
+import org.qbicc.graph.IsGe;
+import org.qbicc.graph.IsGt;
+import org.qbicc.graph.IsLe;
+import org.qbicc.graph.IsLt;
+import org.qbicc.graph.IsNe;
+import org.qbicc.graph.Load;
+import org.qbicc.graph.Node;
+import org.qbicc.graph.NodeVisitor;
+import org.qbicc.graph.NotNull;
+import org.qbicc.graph.PhiValue;
+import org.qbicc.graph.ReferenceHandle;
+import org.qbicc.graph.Terminator;
+import org.qbicc.graph.Value;
+import org.qbicc.graph.ValueHandle;
+import org.qbicc.graph.literal.IntegerLiteral;
+import org.qbicc.graph.literal.NullLiteral;
+import org.qbicc.plugin.coreclasses.CoreClasses;
+import org.qbicc.type.BooleanType;
+import org.qbicc.type.IntegerType;
+import org.qbicc.type.NullableType;
+import org.qbicc.type.SignedIntegerType;
+import org.qbicc.type.ValueType;
+import org.qbicc.type.definition.element.FieldElement;
+
+/**
+ * A copying visitor which removes the null, array bounds, and division checks injected by
+ * {@link RuntimeChecksBasicBlockBuilder} (and any other conditional branch) when the outcome of the condition is
+ * implied by the branches that dominate it.
+ * <p>
+ * Facts are collected from the conditions of dominating {@link If} nodes.  Since every fact is about SSA values,
+ * a fact which holds on entry to a loop header still holds at the end of each of its back edges, so only the forward
+ * edges of a block need to be intersected.  Loop induction variables which start non-negative and are incremented by
+ * one below some bound are known to be non-negative, which removes the lower bound check in loops such as
+ * {@code for (i = 0; i < a.length; i ++) a[i]}.
+ */
+public class CheckEliminatingVisitor implements NodeVisitor.Delegating<Node.Copier, Value, Node, BasicBlock, ValueHandle> {
+    private final CompilationContext ctxt;
+    private final NodeVisitor<Node.Copier, Value, Node, BasicBlock, ValueHandle> delegate;
+    private final FieldElement arrayLengthField;
+    private final Map<BasicBlock, Set<Fact>> facts = new HashMap<>();
+    private final Map<BasicBlock, BasicBlock> dominators = new HashMap<>();
+    private final Map<BasicBlock, Integer> order = new HashMap<>();
+    private boolean analyzed;
+
+    public CheckEliminatingVisitor(final CompilationContext ctxt, final NodeVisitor<Node.Copier, Value, Node, BasicBlock, ValueHandle> delegate) {
+        this.ctxt = ctxt;
+        this.delegate = delegate;
+        this.arrayLengthField = CoreClasses.get(ctxt).getArrayLengthField();
+    }
+
+    public NodeVisitor<Node.Copier, Value, Node, BasicBlock, ValueHandle> getDelegateNodeVisitor() {
+        return delegate;
+    }
+
+    public Node visit(final Node.Copier param, final BlockEntry node) {
+        if (! analyzed) {
+            // the first block to be copied is the entry block
+            analyzed = true;
+            analyze(node.getPinnedBlock());
+        }
+        return NodeVisitor.Delegating.super.visit(param, node);
+    }
+
+    public BasicBlock visit(final Node.Copier param, final If node) {
+        Set<Fact> blockFacts = facts.get(node.getTerminatedBlock());
+        if (blockFacts != null && node.getTrueBranch() != node.getFalseBranch()) {
+            Fact ifTrue = toFact(node.getCondition(), true);
+            if (ifTrue != null) {
+                BasicBlock target = null;
+                if (implies(blockFacts, ifTrue)) {
+                    target = node.getTrueBranch();
+                } else if (implies(blockFacts, toFact(node.getCondition(), false))) {
+                    target = node.getFalseBranch();
+                }
+                if (target != null) {
+                    param.copyNode(node.getDependency());
+                    return param.getBlockBuilder().goto_(param.copyBlock(target));
+                }
+            }
+        }
+        return NodeVisitor.Delegating.super.visit(param, node);
+    }
+
+    // analysis
+
+    private void analyze(BasicBlock entryBlock) {
+        List<BasicBlock> rpo = new ArrayList<>();
+        postOrder(entryBlock, new HashSet<>(), rpo);
+        Collections.reverse(rpo);
+        for (int i = 0; i < rpo.size(); i ++) {
+            order.put(rpo.get(i), Integer.valueOf(i));
+        }
+        computeDominators(rpo);
+        for (BasicBlock block : rpo) {
+            facts.put(block, computeFacts(block, entryBlock));
+        }
+    }
+
+    private static void postOrder(BasicBlock block, Set<BasicBlock> visited, List<BasicBlock> result) {
+        if (visited.add(block)) {
+            Terminator terminator = block.getTerminator();
+            int cnt = terminator.getSuccessorCount();
+            for (int i = 0; i < cnt; i ++) {
+                postOrder(terminator.getSuccessor(i), visited, result);
+            }
+            result.add(block);
+        }
+    }
+
+    private void computeDominators(List<BasicBlock> rpo) {
+        // Cooper, Harvey & Kennedy, "A Simple, Fast Dominance Algorithm"
+        BasicBlock entryBlock = rpo.get(0);
+        dominators.put(entryBlock, entryBlock);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = 1; i < rpo.size(); i ++) {
+                BasicBlock block = rpo.get(i);
+                BasicBlock newIdom = null;
+                for (BasicBlock pred : block.getIncoming()) {
+                    if (dominators.containsKey(pred)) {
+                        newIdom = newIdom == null ? pred : intersect(pred, newIdom);
+                    }
+                }
+                if (newIdom != null && dominators.get(block) != newIdom) {
+                    dominators.put(block, newIdom);
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    private BasicBlock intersect(BasicBlock b1, BasicBlock b2) {
+        while (b1 != b2) {
+            while (order.get(b1).intValue() > order.get(b2).intValue()) {
+                b1 = dominators.get(b1);
+            }
+            while (order.get(b2).intValue() > order.get(b1).intValue()) {
+                b2 = dominators.get(b2);
+            }
+        }
+        return b1;
+    }
+
+    private boolean dominates(BasicBlock dominator, BasicBlock block) {
+        for (;;) {
+            if (block == dominator) {
+                return true;
+            }
+            BasicBlock idom = dominators.get(block);
+            if (idom == null || idom == block) {
+                return false;
+            }
+            block = idom;
+        }
+    }
+
+    private boolean isBackEdge(BasicBlock from, BasicBlock to) {
+        // the loop info from the original builder identifies the candidate edges; irreducible ones are rejected
+        return from.getLoops().contains(new BasicBlock.Loop(to, from)) && dominates(to, from);
+    }
+
+    private Set<Fact> computeFacts(BasicBlock block, BasicBlock entryBlock) {
+        if (block == entryBlock) {
+            return Set.of();
+        }
+        Set<Fact> result = null;
+        int blockOrder = order.get(block).intValue();
+        for (BasicBlock pred : block.getIncoming()) {
+            Integer predOrder = order.get(pred);
+            if (predOrder == null) {
+                // unreachable
+                continue;
+            }
+            if (isBackEdge(pred, block)) {
+                // every fact which holds here holds at the end of the back edge as well
+                continue;
+            }
+            if (predOrder.intValue() >= blockOrder) {
+                // retreating edge which is not a proper loop; give up
+                return Set.of();
+            }
+            Set<Fact> out = outFacts(pred, block);
+            if (result == null) {
+                result = new HashSet<>(out);
+            } else {
+                result.retainAll(out);
+            }
+        }
+        return result == null ? Set.of() : result;
+    }
+
+    private Set<Fact> outFacts(BasicBlock from, BasicBlock to) {
+        Set<Fact> fromFacts = facts.getOrDefault(from, Set.of());
+        if (from.getTerminator() instanceof If if_ && if_.getTrueBranch() != if_.getFalseBranch()) {
+            Fact fact = toFact(if_.getCondition(), if_.getTrueBranch() == to);
+            if (fact != null) {
+                Set<Fact> out = new HashSet<>(fromFacts);
+                out.add(fact);
+                return out;
+            }
+        }
+        return fromFacts;
+    }
+
+    // facts
+
+    enum Kind {
+        EQ,
+        NE,
+        LT,
+        LE,
+    }
+
+    record Fact(Kind kind, Object left, Object right) {}
+
+    /**
+     * A stand-in for any load of the length of the given array; array lengths never change.
+     */
+    record ArrayLength(Value array) {}
+
+    private Fact toFact(Value cond, boolean truth) {
+        if (cond instanceof IsEq eq) {
+            return new Fact(truth ? Kind.EQ : Kind.NE, key(eq.getLeftInput()), key(eq.getRightInput()));
+        } else if (cond instanceof IsNe ne) {
+            return new Fact(truth ? Kind.NE : Kind.EQ, key(ne.getLeftInput()), key(ne.getRightInput()));
+        } else if (cond instanceof IsLt lt && isSigned(lt.getLeftInput())) {
+            return truth ? new Fact(Kind.LT, key(lt.getLeftInput()), key(lt.getRightInput())) : new Fact(Kind.LE, key(lt.getRightInput()), key(lt.getLeftInput()));
+        } else if (cond instanceof IsLe le && isSigned(le.getLeftInput())) {
+            return truth ? new Fact(Kind.LE, key(le.getLeftInput()), key(le.getRightInput())) : new Fact(Kind.LT, key(le.getRightInput()), key(le.getLeftInput()));
+        } else if (cond instanceof IsGt gt && isSigned(gt.getLeftInput())) {
+            return truth ? new Fact(Kind.LT, key(gt.getRightInput()), key(gt.getLeftInput())) : new Fact(Kind.LE, key(gt.getLeftInput()), key(gt.getRightInput()));
+        } else if (cond instanceof IsGe ge && isSigned(ge.getLeftInput())) {
+            return truth ? new Fact(Kind.LE, key(ge.getRightInput()), key(ge.getLeftInput())) : new Fact(Kind.LT, key(ge.getLeftInput()), key(ge.getRightInput()));
+        } else {
+            return null;
+        }
+    }
+
+    private static boolean isSigned(Value value) {
+        return value.getType() instanceof SignedIntegerType;
+    }
+
+    private Object key(Value value) {
+        if (value instanceof Load load && load.getValueHandle() instanceof InstanceFieldOf field
+            && field.getVariableElement() == arrayLengthField && field.getValueHandle() instanceof ReferenceHandle rh) {
+            Value array = rh.getReferenceValue();
+            while (array instanceof NotNull nn) {
+                array = nn.getInput();
+            }
+            return new ArrayLength(array);
+        }
+        return value;
+    }
+
+    private boolean implies(Set<Fact> facts, Fact fact) {
+        if (facts.contains(fact)) {
+            return true;
+        }
+        Object left = fact.left();
+        Object right = fact.right();
+        switch (fact.kind()) {
+            case EQ: {
+                return left.equals(right) && isReflexive(left) || facts.contains(new Fact(Kind.EQ, right, left));
+            }
+            case NE: {
+                if (facts.contains(new Fact(Kind.NE, right, left))) {
+                    return true;
+                }
+                if (right instanceof NullLiteral && left instanceof Value value && ! value.isNullable()
+                    || left instanceof NullLiteral && right instanceof Value value2 && ! value2.isNullable()) {
+                    return true;
+                }
+                if (left instanceof IntegerLiteral l1 && right instanceof IntegerLiteral l2) {
+                    return l1.longValue() != l2.longValue();
+                }
+                return facts.contains(new Fact(Kind.LT, left, right)) || facts.contains(new Fact(Kind.LT, right, left))
+                    || isZero(right) && isPositive(facts, left) || isZero(left) && isPositive(facts, right);
+            }
+            case LT: {
+                if (left instanceof IntegerLiteral l1 && right instanceof IntegerLiteral l2) {
+                    return l1.longValue() < l2.longValue();
+                }
+                return false;
+            }
+            case LE: {
+                if (left instanceof IntegerLiteral l1 && right instanceof IntegerLiteral l2) {
+                    return l1.longValue() <= l2.longValue();
+                }
+                if (facts.contains(new Fact(Kind.LT, left, right)) || left.equals(right) && isReflexive(left)) {
+                    return true;
+                }
+                return isZero(left) && isNonNegative(facts, right, new HashSet<>());
+            }
+            default: {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Determine whether a value always compares equal to itself.  This is not the case for floating point values, as
+     * {@code NaN} is not equal to anything; for instance {@code Double.isNaN} is a comparison of a value with itself.
+     */
+    private static boolean isReflexive(Object key) {
+        if (key instanceof Value value) {
+            ValueType type = value.getType();
+            return type instanceof IntegerType || type instanceof BooleanType || type instanceof NullableType;
+        }
+        // array lengths
+        return true;
+    }
+
+    private static boolean isZero(Object key) {
+        return key instanceof IntegerLiteral literal && literal.longValue() == 0;
+    }
+
+    private static boolean isPositive(Set<Fact> facts, Object key) {
+        if (key instanceof IntegerLiteral literal) {
+            return literal.longValue() > 0;
+        }
+        for (Fact fact : facts) {
+            if (fact.right().equals(key) && fact.left() instanceof IntegerLiteral bound) {
+                if (fact.kind() == Kind.LT && bound.longValue() >= 0 || fact.kind() == Kind.LE && bound.longValue() > 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean isNonNegative(Set<Fact> facts, Object key, Set<PhiValue> visited) {
+        if (key instanceof IntegerLiteral literal) {
+            return literal.longValue() >= 0;
+        }
+        if (key instanceof ArrayLength) {
+            return true;
+        }
+        for (Fact fact : facts) {
+            if (fact.right().equals(key) && fact.left() instanceof IntegerLiteral bound) {
+                if (fact.kind() == Kind.LE && bound.longValue() >= 0 || fact.kind() == Kind.LT && bound.longValue() >= -1) {
+                    return true;
+                }
+            }
+        }
+        if (key instanceof PhiValue phi && visited.add(phi)) {
+            return isNonNegativeInductionVariable(phi, visited);
+        }
+        return false;
+    }
+
+    /**
+     * Determine whether the given phi is non-negative on every incoming edge.  Values entering from outside the loop
+     * must be non-negative; values entering along a back edge must be the phi plus zero or one, computed where the phi
+     * is known to be less than some other value (so that the increment cannot overflow).
+     */
+    private boolean isNonNegativeInductionVariable(PhiValue phi, Set<PhiValue> visited) {
+        BasicBlock header = phi.getPinnedBlock();
+        if (! order.containsKey(header)) {
+            return false;
+        }
+        boolean any = false;
+        for (BasicBlock pred : header.getIncoming()) {
+            if (! order.containsKey(pred)) {
+                continue;
+            }
+            Value value = phi.getValueForInput(pred.getTerminator());
+            if (value == null) {
+                continue;
+            }
+            any = true;
+            Set<Fact> predFacts = outFacts(pred, header);
+            if (isBackEdge(pred, header)) {
+                if (! isBoundedIncrement(predFacts, phi, value)) {
+                    return false;
+                }
+            } else if (! isNonNegative(predFacts, key(value), visited)) {
+                return false;
+            }
+        }
+        return any;
+    }
+
+    private static boolean isBoundedIncrement(Set<Fact> facts, PhiValue phi, Value value) {
+        if (value == phi) {
+            return true;
+        }
+        if (! (value instanceof Add add)) {
+            return false;
+        }
+        IntegerLiteral step;
+        if (add.getLeftInput() == phi && add.getRightInput() instanceof IntegerLiteral literal) {
+            step = literal;
+        } else if (add.getRightInput() == phi && add.getLeftInput() instanceof IntegerLiteral literal) {
+            step = literal;
+        } else {
+            return false;
+        }
+        if (step.longValue() == 0) {
+            return true;
+        }
+        if (step.longValue() != 1) {
+            return false;
+        }
+        for (Fact fact : facts) {
+            if (fact.kind() == Kind.LT && fact.left() == phi) {
+                // phi < x <= MAX_VALUE, so phi + 1 cannot overflow
+                return true;
+            }
+        }
+        return false;
+    }
+}
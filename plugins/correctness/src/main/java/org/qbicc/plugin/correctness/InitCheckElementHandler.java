@@ -0,0 +1,21 @@
+package org.qbicc.plugin.correctness;
+
+import java.util.function.Consumer;
+
+import org.qbicc.type.definition.element.ExecutableElement;
+
+/**
+ * An element consumer which records the initialization check summary of the element body, if any.
+ */
+public final class InitCheckElementHandler implements Consumer<ExecutableElement> {
+    /**
+     * Construct a new instance.
+     */
+    public InitCheckElementHandler() {
+    }
+
+    @Override
+    public void accept(ExecutableElement executableElement) {
+        InitChecks.get(executableElement.getEnclosingType().getContext().getCompilationContext()).summarize(executableElement);
+    }
+}
@@ -0,0 +1,34 @@
+package org.qbicc.plugin.correctness;
+
+import org.qbicc.context.CompilationContext;
+import org.qbicc.graph.BasicBlock;
+import org.qbicc.graph.InitCheck;
+import org.qbicc.graph.Node;
+import org.qbicc.graph.NodeVisitor;
+import org.qbicc.graph.Value;
+import org.qbicc.graph.ValueHandle;
+
+/**
+ * A copying visitor which removes the class initialization checks which are found to be redundant by
+ * {@link InitChecks}.
+ */
+public class InitCheckEliminatingVisitor implements NodeVisitor.Delegating<Node.Copier, Value, Node, BasicBlock, ValueHandle> {
+    private final NodeVisitor<Node.Copier, Value, Node, BasicBlock, ValueHandle> delegate;
+    private final InitChecks initChecks;
+
+    public InitCheckEliminatingVisitor(final CompilationContext ctxt, final NodeVisitor<Node.Copier, Value, Node, BasicBlock, ValueHandle> delegate) {
+        this.delegate = delegate;
+        this.initChecks = InitChecks.get(ctxt);
+    }
+
+    public NodeVisitor<Node.Copier, Value, Node, BasicBlock, ValueHandle> getDelegateNodeVisitor() {
+        return delegate;
+    }
+
+    public Node visit(final Node.Copier param, final InitCheck node) {
+        if (initChecks.isRedundant(param.getBlockBuilder().getRootElement(), node)) {
+            return param.copyNode(node.getDependency());
+        }
+        return NodeVisitor.Delegating.super.visit(param, node);
+    }
+}
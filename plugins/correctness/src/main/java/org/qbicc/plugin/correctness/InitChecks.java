@@ -0,0 +1,325 @@
+package org.qbicc.plugin.correctness;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.qbicc.context.AttachmentKey;
+import org.qbicc.context.CompilationContext;
+import org.qbicc.graph.BasicBlock;
+import org.qbicc.graph.BlockEntry;
+import org.qbicc.graph.Call;
+import org.qbicc.graph.CallNoReturn;
+import org.qbicc.graph.CallNoSideEffects;
+import org.qbicc.graph.InitCheck;
+import org.qbicc.graph.Invoke;
+import org.qbicc.graph.InvokeNoReturn;
+import org.qbicc.graph.Node;
+import org.qbicc.graph.OrderedNode;
+import org.qbicc.graph.StaticMethodElementHandle;
+import org.qbicc.graph.TailCall;
+import org.qbicc.graph.TailInvoke;
+import org.qbicc.graph.Terminator;
+import org.qbicc.graph.ValueHandle;
+import org.qbicc.graph.schedule.Schedule;
+import org.qbicc.type.definition.MethodBody;
+import org.qbicc.type.definition.element.ExecutableElement;
+import org.qbicc.type.definition.element.InitializerElement;
+import org.qbicc.type.definition.element.MethodElement;
+
+/**
+ * Initialization state information used to remove redundant {@link InitCheck} nodes.
+ * <p>
+ * A summary is computed for each method body once it is final (at the end of the {@code ADD} phase).  Within a body,
+ * an initializer is known to have run at some point if every forward path from the entry block passes through a check
+ * for it; since initialization can never be undone, facts which hold on entry to a loop header also hold at the end of
+ * each of its back edges.  Any check for an initializer which is already known to have run is redundant.
+ * <p>
+ * The summary also records the initializers which are known to have run at each direct call site of a static method.
+ * The set of initializers which have run on entry to a static method is the intersection of the sets at all of its
+ * call sites (including, transitively, the set on entry to each caller).  Static methods whose address is taken, and
+ * the run time support methods (which may be called by code that is only generated after the summaries are computed),
+ * are not considered.
+ */
+public final class InitChecks {
+    private static final AttachmentKey<InitChecks> KEY = new AttachmentKey<>();
+    private static final String RUNTIME_PACKAGE = "org/qbicc/runtime/";
+
+    private final Map<ExecutableElement, Set<InitCheck>> redundantChecks = new ConcurrentHashMap<>();
+    private final Map<MethodElement, List<CallSite>> callSites = new ConcurrentHashMap<>();
+    private final Set<MethodElement> escapedMethods = ConcurrentHashMap.newKeySet();
+    private volatile Map<ExecutableElement, Set<InitializerElement>> resolvedEntries;
+
+    private InitChecks() {}
+
+    public static InitChecks get(CompilationContext ctxt) {
+        return ctxt.computeAttachmentIfAbsent(KEY, InitChecks::new);
+    }
+
+    void summarize(ExecutableElement element) {
+        if (element.hasMethodBody()) {
+            new Summarizer(element, element.getMethodBody()).summarize();
+        }
+    }
+
+    /**
+     * Determine whether the given check, which must be a node of the summarized body of the given element, is
+     * redundant.  A check is redundant if it is dominated by another check for the same initializer, if the
+     * initializer is known to have run on entry to the method, or if it appears in the body of the initializer itself.
+     *
+     * @param element the element whose body contains the check
+     * @param node the check node
+     * @return {@code true} if the check may be removed
+     */
+    public boolean isRedundant(ExecutableElement element, InitCheck node) {
+        InitializerElement initializer = node.getInitializerElement();
+        if (initializer == element) {
+            return true;
+        }
+        Set<InitCheck> redundant = redundantChecks.get(element);
+        if (redundant != null && redundant.contains(node)) {
+            return true;
+        }
+        return getInitializedOnEntry(element).contains(initializer);
+    }
+
+    /**
+     * Get the initializers which are known to have run on entry to the given element.
+     *
+     * @param element the element
+     * @return the set of initializers (not {@code null})
+     */
+    public Set<InitializerElement> getInitializedOnEntry(ExecutableElement element) {
+        Set<InitializerElement> entry = resolveEntries().get(element);
+        return entry == null ? Set.of() : entry;
+    }
+
+    private boolean isCandidate(ExecutableElement element) {
+        return element instanceof MethodElement method && method.isStatic() && ! escapedMethods.contains(method)
+            && ! method.getEnclosingType().getInternalName().startsWith(RUNTIME_PACKAGE) && callSites.containsKey(method);
+    }
+
+    private Map<ExecutableElement, Set<InitializerElement>> resolveEntries() {
+        Map<ExecutableElement, Set<InitializerElement>> entries = resolvedEntries;
+        if (entries == null) {
+            synchronized (this) {
+                entries = resolvedEntries;
+                if (entries == null) {
+                    resolvedEntries = entries = solveEntries();
+                }
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Solve the entry sets of all candidate methods at once.  The sets only ever shrink, so starting from "everything"
+     * (represented by an absent entry) and recomputing the callees of each method whose set changed reaches the
+     * greatest fixed point, even if the call graph has cycles.  Only a cycle which is never entered from outside, and so
+     * is never run, keeps "everything"; its methods are reported as having nothing initialized on entry.  The summaries
+     * must all be complete before this is called.
+     */
+    private Map<ExecutableElement, Set<InitializerElement>> solveEntries() {
+        Map<ExecutableElement, List<MethodElement>> callees = new HashMap<>();
+        ArrayDeque<MethodElement> worklist = new ArrayDeque<>();
+        for (Map.Entry<MethodElement, List<CallSite>> entry : callSites.entrySet()) {
+            MethodElement callee = entry.getKey();
+            if (isCandidate(callee)) {
+                worklist.add(callee);
+                synchronized (entry.getValue()) {
+                    for (CallSite site : entry.getValue()) {
+                        callees.computeIfAbsent(site.caller(), c -> new ArrayList<>()).add(callee);
+                    }
+                }
+            }
+        }
+        Map<ExecutableElement, Set<InitializerElement>> entries = new HashMap<>();
+        Set<MethodElement> queued = new HashSet<>(worklist);
+        while (! worklist.isEmpty()) {
+            MethodElement method = worklist.poll();
+            queued.remove(method);
+            Set<InitializerElement> result = null;
+            boolean everything = true;
+            for (CallSite site : callSites.get(method)) {
+                ExecutableElement caller = site.caller();
+                Set<InitializerElement> callerEntry = entries.get(caller);
+                if (callerEntry == null && isCandidate(caller)) {
+                    // not solved yet, so it is still "everything"
+                    continue;
+                }
+                everything = false;
+                Set<InitializerElement> known = new HashSet<>(site.initialized());
+                if (caller instanceof InitializerElement initializer) {
+                    // the caller is running the initializer, so it counts as initialized for this thread
+                    known.add(initializer);
+                }
+                if (callerEntry != null) {
+                    known.addAll(callerEntry);
+                }
+                if (result == null) {
+                    result = known;
+                } else {
+                    result.retainAll(known);
+                }
+            }
+            if (everything) {
+                continue;
+            }
+            Set<InitializerElement> old = entries.get(method);
+            if (old == null || ! old.equals(result)) {
+                entries.put(method, Set.copyOf(result));
+                for (MethodElement callee : callees.getOrDefault(method, List.of())) {
+                    if (queued.add(callee)) {
+                        worklist.add(callee);
+                    }
+                }
+            }
+        }
+        return entries;
+    }
+
+    private void addCallSite(MethodElement callee, ExecutableElement caller, Set<InitializerElement> initialized) {
+        List<CallSite> list = callSites.computeIfAbsent(callee, m -> Collections.synchronizedList(new ArrayList<>()));
+        list.add(new CallSite(caller, Set.copyOf(initialized)));
+    }
+
+    /**
+     * A direct call site of a static method, along with the initializers which are known to have run at that site.
+     */
+    record CallSite(ExecutableElement caller, Set<InitializerElement> initialized) {}
+
+    final class Summarizer {
+        private final ExecutableElement element;
+        private final MethodBody body;
+        private final Schedule schedule;
+        private final Map<BasicBlock, Integer> order = new HashMap<>();
+        private final Map<BasicBlock, Set<InitializerElement>> entryFacts = new HashMap<>();
+        private final Map<BasicBlock, Set<InitializerElement>> exitFacts = new HashMap<>();
+        private final Set<InitCheck> redundant = new HashSet<>();
+        private final Set<Node> calls = new HashSet<>();
+
+        Summarizer(ExecutableElement element, MethodBody body) {
+            this.element = element;
+            this.body = body;
+            this.schedule = body.getSchedule();
+        }
+
+        void summarize() {
+            BasicBlock entryBlock = body.getEntryBlock();
+            List<BasicBlock> rpo = new ArrayList<>();
+            postOrder(entryBlock, new HashSet<>(), rpo);
+            Collections.reverse(rpo);
+            for (int i = 0; i < rpo.size(); i ++) {
+                order.put(rpo.get(i), Integer.valueOf(i));
+            }
+            for (BasicBlock block : rpo) {
+                Set<InitializerElement> known = block == entryBlock ? new HashSet<>() : computeEntryFacts(block);
+                entryFacts.put(block, Set.copyOf(known));
+                for (Node node : schedule.getNodesForBlock(block)) {
+                    if (node instanceof CallNoSideEffects call) {
+                        // not ordered with respect to the checks of this block
+                        addCall(call, call.getValueHandle(), known);
+                    }
+                }
+                for (Node node : orderedNodesOf(block)) {
+                    if (node instanceof InitCheck check) {
+                        if (! known.add(check.getInitializerElement())) {
+                            redundant.add(check);
+                        }
+                    } else if (node instanceof Call || node instanceof CallNoReturn || node instanceof TailCall
+                        || node instanceof Invoke || node instanceof InvokeNoReturn || node instanceof TailInvoke) {
+                        addCall(node, node.getValueHandle(), known);
+                    }
+                }
+                exitFacts.put(block, known);
+                for (Node node : schedule.getNodesForBlock(block)) {
+                    if (node.hasValueHandleDependency() && ! calls.contains(node)) {
+                        ValueHandle handle = node.getValueHandle();
+                        if (handle instanceof StaticMethodElementHandle smeh) {
+                            // address taken; the call sites of this method cannot all be known
+                            escapedMethods.add(smeh.getExecutable());
+                        }
+                    }
+                }
+            }
+            if (! redundant.isEmpty()) {
+                redundantChecks.put(element, Set.copyOf(redundant));
+            }
+        }
+
+        private void addCall(Node node, ValueHandle target, Set<InitializerElement> known) {
+            calls.add(node);
+            if (target instanceof StaticMethodElementHandle smeh) {
+                addCallSite(smeh.getExecutable(), element, known);
+            }
+        }
+
+        private List<Node> orderedNodesOf(BasicBlock block) {
+            List<Node> nodes = new ArrayList<>();
+            Node node = block.getTerminator();
+            while (! (node instanceof BlockEntry)) {
+                nodes.add(node);
+                node = ((OrderedNode) node).getDependency();
+            }
+            Collections.reverse(nodes);
+            return nodes;
+        }
+
+        private Set<InitializerElement> computeEntryFacts(BasicBlock block) {
+            Set<InitializerElement> result = null;
+            int blockOrder = order.get(block).intValue();
+            for (BasicBlock pred : block.getIncoming()) {
+                Integer predOrder = order.get(pred);
+                if (predOrder == null) {
+                    // unreachable
+                    continue;
+                }
+                if (predOrder.intValue() >= blockOrder) {
+                    if (schedule.dominates(block, pred)) {
+                        // back edge; every fact which holds here holds at the end of the back edge as well
+                        continue;
+                    }
+                    // retreating edge which is not a proper loop; give up
+                    return new HashSet<>();
+                }
+                // a check in the block which ends with an invocation might itself be the source of the exception
+                Set<InitializerElement> out = isExceptionEdge(pred.getTerminator(), block) ? entryFacts.get(pred) : exitFacts.get(pred);
+                if (result == null) {
+                    result = new HashSet<>(out);
+                } else {
+                    result.retainAll(out);
+                }
+            }
+            return result == null ? new HashSet<>() : result;
+        }
+    }
+
+    private static boolean isExceptionEdge(Terminator terminator, BasicBlock to) {
+        if (terminator instanceof Invoke invoke) {
+            return invoke.getCatchBlock() == to;
+        } else if (terminator instanceof InvokeNoReturn invoke) {
+            return invoke.getCatchBlock() == to;
+        } else if (terminator instanceof TailInvoke invoke) {
+            return invoke.getCatchBlock() == to;
+        } else {
+            return false;
+        }
+    }
+
+    private static void postOrder(BasicBlock block, Set<BasicBlock> visited, List<BasicBlock> result) {
+        if (visited.add(block)) {
+            Terminator terminator = block.getTerminator();
+            int cnt = terminator.getSuccessorCount();
+            for (int i = 0; i < cnt; i ++) {
+                postOrder(terminator.getSuccessor(i), visited, result);
+            }
+            result.add(block);
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package org.qbicc.plugin.gc.generational;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import org.qbicc.context.CompilationContext;
+import org.qbicc.graph.BasicBlockBuilder;
+import org.qbicc.graph.BlockLabel;
+import org.qbicc.graph.CmpAndSwap;
+import org.qbicc.graph.DelegatingBasicBlockBuilder;
+import org.qbicc.graph.ElementOf;
+import org.qbicc.graph.Executable;
+import org.qbicc.graph.InstanceFieldOf;
+import org.qbicc.graph.MemberOf;
+import org.qbicc.graph.Node;
+import org.qbicc.graph.PointerHandle;
+import org.qbicc.graph.ReferenceHandle;
+import org.qbicc.graph.StackAllocation;
+import org.qbicc.graph.Value;
+import org.qbicc.graph.ValueHandle;
+import org.qbicc.graph.atomic.ReadAccessMode;
+import org.qbicc.graph.atomic.WriteAccessMode;
+import org.qbicc.graph.literal.Literal;
+import org.qbicc.graph.literal.LiteralFactory;
+import org.qbicc.plugin.gc.semispace.SemiSpace;
+import org.qbicc.type.ReferenceType;
+import org.qbicc.type.TypeSystem;
+import org.qbicc.type.UnsignedIntegerType;
+import org.qbicc.type.WordType;
+import org.qbicc.type.definition.element.ExecutableElement;
+
+/**
+ * Emit the card marking write barrier of the generational GC after each store of a reference into the heap.  The
+ * barrier marks the card of the slot if the slot lies in the old generation; the range check also covers the nursery,
+ * the initial heap and the pinned objects, whose slots are never marked.
+ * <p>
+ * The barrier is elided for stores of literals, which are never in the nursery, and for stores into an object which
+ * was allocated in the same block with no call in between.  Such an object is in the nursery, or else its cards were
+ * marked when it was allocated, and no collection can take place before the store.
+ */
+public class CardMarkingBasicBlockBuilder extends DelegatingBasicBlockBuilder {
+    private final CompilationContext ctxt;
+    private final Set<ExecutableElement> allocators;
+    // the allocated objects, and the values derived from them, which no safepoint was reached since
+    private final Set<Value> fresh = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    public CardMarkingBasicBlockBuilder(final CompilationContext ctxt, final BasicBlockBuilder delegate) {
+        super(delegate);
+        this.ctxt = ctxt;
+        SemiSpace semiSpace = SemiSpace.get(ctxt);
+        allocators = Set.of(semiSpace.getAllocateMethod(), semiSpace.getAllocatePinnedMethod(), semiSpace.getAllocateTypedMethod());
+    }
+
+    @Override
+    public Node store(ValueHandle handle, Value value, WriteAccessMode accessMode) {
+        Node store = super.store(handle, value, accessMode);
+        if (value.getType() instanceof ReferenceType && ! (value instanceof Literal) && needsBarrier(handle)) {
+            markCard(handle);
+        }
+        return store;
+    }
+
+    @Override
+    public Value getAndSet(ValueHandle target, Value update, ReadAccessMode readMode, WriteAccessMode writeMode) {
+        Value result = super.getAndSet(target, update, readMode, writeMode);
+        if (update.getType() instanceof ReferenceType && ! (update instanceof Literal) && needsBarrier(target)) {
+            markCard(target);
+        }
+        return result;
+    }
+
+    @Override
+    public Value cmpAndSwap(ValueHandle target, Value expect, Value update, ReadAccessMode readMode, WriteAccessMode writeMode, CmpAndSwap.Strength strength) {
+        Value result = super.cmpAndSwap(target, expect, update, readMode, writeMode, strength);
+        // marking the card when the exchange fails is harmless
+        if (update.getType() instanceof ReferenceType && ! (update instanceof Literal) && needsBarrier(target)) {
+            markCard(target);
+        }
+        return result;
+    }
+
+    @Override
+    public Value call(ValueHandle target, List<Value> arguments) {
+        // the callee may reach a safepoint, after which no object is fresh
+        fresh.clear();
+        Value result = super.call(target, arguments);
+        if (target instanceof Executable executable && allocators.contains(executable.getExecutable())) {
+            fresh.add(result);
+        }
+        return result;
+    }
+
+    @Override
+    public Value callNoSideEffects(ValueHandle target, List<Value> arguments) {
+        fresh.clear();
+        return super.callNoSideEffects(target, arguments);
+    }
+
+    @Override
+    public Node monitorEnter(Value obj) {
+        fresh.clear();
+        return super.monitorEnter(obj);
+    }
+
+    @Override
+    public Node monitorExit(Value obj) {
+        fresh.clear();
+        return super.monitorExit(obj);
+    }
+
+    @Override
+    public Node begin(BlockLabel blockLabel) {
+        // the block may be reached by a path which reaches a safepoint
+        fresh.clear();
+        return super.begin(blockLabel);
+    }
+
+    @Override
+    public Value notNull(Value v) {
+        return derive(v, super.notNull(v));
+    }
+
+    @Override
+    public Value bitCast(Value value, WordType toType) {
+        return derive(value, super.bitCast(value, toType));
+    }
+
+    @Override
+    public Value valueConvert(Value value, WordType toType) {
+        return derive(value, super.valueConvert(value, toType));
+    }
+
+    private Value derive(Value input, Value output) {
+        if (fresh.contains(input)) {
+            fresh.add(output);
+        }
+        return output;
+    }
+
+    /**
+     * Determine whether a store to the given handle needs a barrier: the handle must refer to memory other than the
+     * stack or the static fields, which are roots anyway, and not to an object which is fresh.
+     */
+    private boolean needsBarrier(ValueHandle handle) {
+        ValueHandle root = handle;
+        for (;;) {
+            if (root instanceof MemberOf memberOf) {
+                root = memberOf.getValueHandle();
+            } else if (root instanceof ElementOf elementOf) {
+                root = elementOf.getValueHandle();
+            } else if (root instanceof InstanceFieldOf instanceFieldOf) {
+                root = instanceFieldOf.getValueHandle();
+            } else {
+                break;
+            }
+        }
+        if (root instanceof PointerHandle pointerHandle) {
+            Value pointer = pointerHandle.getPointerValue();
+            return ! (pointer instanceof StackAllocation) && ! fresh.contains(pointer);
+        } else if (root instanceof ReferenceHandle referenceHandle) {
+            return ! fresh.contains(referenceHandle.getReferenceValue());
+        } else {
+            // global and local variables
+            return false;
+        }
+    }
+
+    /**
+     * Mark the card of the slot if it lies in the old generation:
+     * {@code index = (slot - heapBase) >>> CARD_SHIFT; if (index < cardCount) cardTable[index] = 1;}.
+     */
+    private void markCard(ValueHandle handle) {
+        BasicBlockBuilder fb = getFirstBuilder();
+        Generational generational = Generational.get(ctxt);
+        TypeSystem ts = ctxt.getTypeSystem();
+        LiteralFactory lf = ctxt.getLiteralFactory();
+        UnsignedIntegerType u8 = ts.getUnsignedInteger8Type();
+        UnsignedIntegerType u64 = ts.getUnsignedInteger64Type();
+
+        Value slot = fb.valueConvert(fb.addressOf(handle), u64);
+        Value heapBase = fb.bitCast(fb.load(fb.staticField(generational.getHeapBaseField())), u64);
+        Value index = fb.shr(fb.sub(slot, heapBase), lf.literalOf(u64, Generational.CARD_SHIFT));
+        Value cardCount = fb.bitCast(fb.load(fb.staticField(generational.getCardCountField())), u64);
+
+        BlockLabel mark = new BlockLabel();
+        BlockLabel resume = new BlockLabel();
+        if_(fb.isLt(index, cardCount), mark, resume);
+        // the barrier does not reach a safepoint, so the fresh objects stay fresh
+        super.begin(mark);
+        Value cardTable = fb.valueConvert(fb.load(fb.staticField(generational.getCardTableField())), u8.getPointer());
+        fb.store(fb.pointerHandle(cardTable, index), lf.literalOf(u8, 1));
+        goto_(resume);
+        super.begin(resume);
+    }
+}
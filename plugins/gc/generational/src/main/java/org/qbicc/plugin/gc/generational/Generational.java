@@ -0,0 +1,116 @@
+package org.qbicc.plugin.gc.generational;
+
+import org.qbicc.context.AttachmentKey;
+import org.qbicc.context.ClassContext;
+import org.qbicc.context.CompilationContext;
+import org.qbicc.type.definition.DefinedTypeDefinition;
+import org.qbicc.type.definition.LoadedTypeDefinition;
+import org.qbicc.type.definition.element.FieldElement;
+import org.qbicc.type.definition.element.MethodElement;
+
+/**
+ * The precise stop-the-world generational copying GC.  It shares the object layout tables and the allocation lowering
+ * of the semispace GC, and adds a card marking write barrier, which reads the static fields of the run time helpers
+ * which describe the card table.
+ */
+public final class Generational {
+    public static final String HELPERS = "org/qbicc/runtime/gc/generational/GenerationalHelpers";
+
+    /**
+     * The log2 of the number of bytes covered by a card; this must match {@code GenerationalHelpers}.
+     */
+    static final int CARD_SHIFT = 9;
+
+    private static final AttachmentKey<Generational> KEY = new AttachmentKey<>();
+
+    private final FieldElement heapBaseField;
+    private final FieldElement cardCountField;
+    private final FieldElement cardTableField;
+    private final MethodElement referenceArrayWrittenMethod;
+
+    private Generational(final CompilationContext ctxt) {
+        ClassContext classContext = ctxt.getBootstrapClassContext();
+        DefinedTypeDefinition defined = classContext.findDefinedType(HELPERS);
+        if (defined == null) {
+            throw new IllegalStateException("The generational GC runtime classes are not present in the bootstrap class path");
+        }
+        LoadedTypeDefinition helpers = defined.load();
+        heapBaseField = findField(helpers, "heapBase");
+        cardCountField = findField(helpers, "cardCount");
+        cardTableField = findField(helpers, "cardTable");
+        int index = helpers.findMethodIndex(e -> e.getName().equals("referenceArrayWritten"));
+        if (index == -1) {
+            throw new IllegalStateException("Required method \"referenceArrayWritten\" is missing from the generational GC helpers");
+        }
+        referenceArrayWrittenMethod = helpers.getMethod(index);
+    }
+
+    private static FieldElement findField(LoadedTypeDefinition type, String name) {
+        FieldElement field = type.findField(name);
+        if (field == null) {
+            throw new IllegalStateException("Required field \"" + name + "\" is missing from the generational GC helpers");
+        }
+        return field;
+    }
+
+    /**
+     * Set up the generational GC.  This must be done before the first phase begins.
+     *
+     * @param ctxt the compilation context (must not be {@code null})
+     * @return the generational GC (not {@code null})
+     */
+    public static Generational create(CompilationContext ctxt) {
+        return ctxt.computeAttachmentIfAbsent(KEY, () -> new Generational(ctxt));
+    }
+
+    /**
+     * Get the generational GC.
+     *
+     * @param ctxt the compilation context (must not be {@code null})
+     * @return the generational GC (not {@code null})
+     * @throws IllegalStateException if the generational GC was not set up
+     */
+    public static Generational get(CompilationContext ctxt) {
+        Generational generational = ctxt.getAttachment(KEY);
+        if (generational == null) {
+            throw new IllegalStateException("The generational GC was not set up");
+        }
+        return generational;
+    }
+
+    /**
+     * Get the field which holds the base address of the old generation, which is also the address of the first card.
+     *
+     * @return the field
+     */
+    public FieldElement getHeapBaseField() {
+        return heapBaseField;
+    }
+
+    /**
+     * Get the field which holds the number of cards, which is zero until the heap is reserved.
+     *
+     * @return the field
+     */
+    public FieldElement getCardCountField() {
+        return cardCountField;
+    }
+
+    /**
+     * Get the field which holds the address of the card table.
+     *
+     * @return the field
+     */
+    public FieldElement getCardTableField() {
+        return cardTableField;
+    }
+
+    /**
+     * Get the run time method which marks the cards of a range of a reference array which was written in bulk.
+     *
+     * @return the method
+     */
+    public MethodElement getReferenceArrayWrittenMethod() {
+        return referenceArrayWrittenMethod;
+    }
+}
@@ -0,0 +1,42 @@
+package org.qbicc.plugin.gc.generational;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.qbicc.context.ClassContext;
+import org.qbicc.context.CompilationContext;
+import org.qbicc.driver.Phase;
+import org.qbicc.plugin.gc.semispace.SemiSpaceSetupHook;
+import org.qbicc.plugin.intrinsics.Intrinsics;
+import org.qbicc.plugin.intrinsics.StaticIntrinsic;
+import org.qbicc.type.definition.element.MethodElement;
+import org.qbicc.type.descriptor.ArrayTypeDescriptor;
+import org.qbicc.type.descriptor.BaseTypeDescriptor;
+import org.qbicc.type.descriptor.ClassTypeDescriptor;
+import org.qbicc.type.descriptor.MethodDescriptor;
+
+/**
+ * Set up the generational GC on top of the semispace GC tables and allocation lowering, and route the notifications of
+ * bulk reference array writes to the card table.
+ */
+public class GenerationalSetupHook implements Consumer<CompilationContext> {
+    public GenerationalSetupHook() {}
+
+    public void accept(final CompilationContext ctxt) {
+        new SemiSpaceSetupHook(Generational.HELPERS).accept(ctxt);
+        Generational generational = Generational.create(ctxt);
+        MethodElement written = generational.getReferenceArrayWrittenMethod();
+        ctxt.registerEntryPoint(written);
+
+        Intrinsics intrinsics = Intrinsics.get(ctxt);
+        ClassContext classContext = ctxt.getBootstrapClassContext();
+        ClassTypeDescriptor ciDesc = ClassTypeDescriptor.synthesize(classContext, "org/qbicc/runtime/main/CompilerIntrinsics");
+        ClassTypeDescriptor objDesc = ClassTypeDescriptor.synthesize(classContext, "java/lang/Object");
+        MethodDescriptor writtenDesc = MethodDescriptor.synthesize(classContext, BaseTypeDescriptor.V, List.of(ArrayTypeDescriptor.of(classContext, objDesc), BaseTypeDescriptor.I, BaseTypeDescriptor.I));
+
+        // this replaces the no-op which is registered for the lower phase
+        StaticIntrinsic referenceArrayWritten = (builder, target, arguments) ->
+            builder.call(builder.staticMethod(written, written.getDescriptor(), written.getType()), arguments);
+        intrinsics.registerIntrinsic(Phase.ANALYZE, ciDesc, "referenceArrayWritten", writtenDesc, referenceArrayWritten);
+    }
+}
@@ -1,7 +1,11 @@
 package org.qbicc.plugin.gc.nogc;
 
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.logging.Logger;
 import org.qbicc.context.AttachmentKey;
 import org.qbicc.context.CompilationContext;
+import org.qbicc.plugin.layout.CompressedReferences;
 import org.qbicc.type.ClassObjectType;
 import org.qbicc.context.ClassContext;
 import org.qbicc.type.definition.DefinedTypeDefinition;
@@ -9,16 +13,23 @@ import org.qbicc.type.definition.LoadedTypeDefinition;
 import org.qbicc.type.definition.element.MethodElement;
 
 /**
- *
+ * The no-op GC, which allocates objects from the system heap or from a pre-zeroed arena and never frees them.
  */
 public final class NoGc {
+    private static final Logger LOGGER = Logger.getLogger("org.qbicc.plugin.gc.nogc");
+
     private final CompilationContext ctxt;
+    private final boolean preZeroed;
+    private final AtomicLong allocationSites = new AtomicLong();
+    private final AtomicLong zeroedSites = new AtomicLong();
+    private final AtomicLong zeroedBytes = new AtomicLong();
+    private final AtomicLong elidedBytes = new AtomicLong();
     private final MethodElement allocateMethod;
     private final MethodElement copyMethod;
     private final MethodElement zeroMethod;
     private final ClassObjectType stackObjectType;
 
-    private NoGc(final CompilationContext ctxt) {
+    private NoGc(final CompilationContext ctxt, final boolean arena) {
         this.ctxt = ctxt;
         ClassContext classContext = ctxt.getBootstrapClassContext();
         DefinedTypeDefinition defined = classContext.findDefinedType("org/qbicc/runtime/gc/nogc/NoGcHelpers");
@@ -26,7 +37,19 @@ public final class NoGc {
             throw runtimeMissing();
         }
         LoadedTypeDefinition loaded = defined.load();
-        int index = loaded.findMethodIndex(e -> e.getName().equals("allocate"));
+        // objects must be allocated near the heap base if references may be compressed
+        String allocateName;
+        if (CompressedReferences.isEnabled(ctxt)) {
+            allocateName = "allocateCompressed";
+            preZeroed = true;
+        } else if (arena) {
+            allocateName = "allocateZeroed";
+            preZeroed = true;
+        } else {
+            allocateName = "allocate";
+            preZeroed = false;
+        }
+        int index = loaded.findMethodIndex(e -> e.getName().equals(allocateName));
         if (index == -1) {
             throw methodMissing();
         }
@@ -59,8 +82,69 @@ public final class NoGc {
 
     private static final AttachmentKey<NoGc> KEY = new AttachmentKey<>();
 
+    /**
+     * Set up the no-op GC.  This must be done before the first phase begins.
+     *
+     * @param ctxt the compilation context (must not be {@code null})
+     * @param arena {@code true} to allocate from a pre-zeroed arena, or {@code false} to allocate from the system heap
+     * @return the no-op GC (not {@code null})
+     */
+    public static NoGc create(CompilationContext ctxt, boolean arena) {
+        return ctxt.computeAttachmentIfAbsent(KEY, () -> new NoGc(ctxt, arena));
+    }
+
+    /**
+     * Get the no-op GC.
+     *
+     * @param ctxt the compilation context (must not be {@code null})
+     * @return the no-op GC (not {@code null})
+     * @throws IllegalStateException if the no-op GC was not set up
+     */
     public static NoGc get(CompilationContext ctxt) {
-        return ctxt.computeAttachmentIfAbsent(KEY, () -> new NoGc(ctxt));
+        NoGc noGc = ctxt.getAttachment(KEY);
+        if (noGc == null) {
+            throw new IllegalStateException("The no-op GC was not set up");
+        }
+        return noGc;
+    }
+
+    /**
+     * Determine whether heap allocations are known to be zero already, because they come from fresh memory mappings.
+     *
+     * @return {@code true} if heap allocations need not be zeroed, or {@code false} if they must be
+     */
+    public boolean isPreZeroed() {
+        return preZeroed;
+    }
+
+    /**
+     * Record whether the storage of an allocation site is explicitly zeroed.
+     *
+     * @param zeroed {@code true} if the storage is zeroed, or {@code false} if the zeroing was elided
+     * @param size the size of the allocation in bytes, or {@code -1} if it is not fixed
+     */
+    void recordAllocationSite(boolean zeroed, long size) {
+        allocationSites.incrementAndGet();
+        if (zeroed) {
+            zeroedSites.incrementAndGet();
+        }
+        if (size > 0) {
+            (zeroed ? zeroedBytes : elidedBytes).addAndGet(size);
+        }
+    }
+
+    /**
+     * Log how many allocation sites zero their storage explicitly.  The byte counts only cover allocations of a fixed
+     * size, and are counted once per site.
+     *
+     * @param ctxt the compilation context (must not be {@code null})
+     */
+    public static void reportStats(CompilationContext ctxt) {
+        NoGc noGc = get(ctxt);
+        long sites = noGc.allocationSites.get();
+        long zeroed = noGc.zeroedSites.get();
+        LOGGER.infof("Zeroing was elided at %d of %d allocation sites, avoiding %d of %d bytes of memset per execution of the fixed-size sites",
+            Long.valueOf(sites - zeroed), Long.valueOf(sites), Long.valueOf(noGc.elidedBytes.get()), Long.valueOf(noGc.elidedBytes.get() + noGc.zeroedBytes.get()));
     }
 
     public MethodElement getAllocateMethod() {
@@ -11,6 +11,7 @@ import org.qbicc.graph.literal.LiteralFactory;
 import org.qbicc.graph.literal.TypeLiteral;
 import org.qbicc.plugin.coreclasses.BasicHeaderInitializer;
 import org.qbicc.plugin.coreclasses.CoreClasses;
+import org.qbicc.plugin.layout.CompressedReferences;
 import org.qbicc.plugin.layout.Layout;
 import org.qbicc.plugin.layout.LayoutInfo;
 import org.qbicc.type.ClassObjectType;
@@ -35,25 +36,36 @@ public class NoGcBasicBlockBuilder extends DelegatingBasicBlockBuilder {
     }
 
     @Override
-    public Value new_(final ClassObjectType type, final Value typeId, final Value size, final Value align) {
+    public Value new_(final ClassObjectType type, final Value typeId, Value size, Value align) {
         NoGc noGc = NoGc.get(ctxt);
         LiteralFactory lf = ctxt.getLiteralFactory();
         Value ptrVal = null;
         if (typeId instanceof TypeLiteral tl && tl.getValue() instanceof ClassObjectType cot) {
+            Layout layout = Layout.get(ctxt);
+            CompoundType compoundType = layout.getInstanceLayoutInfo(cot.getDefinition()).getCompoundType();
+            if (layout.isOptimized()) {
+                // the size was computed with the interpreter layout
+                size = lf.literalOf(compoundType.getSize());
+                align = lf.literalOf(compoundType.getAlign());
+            }
             // We can only even attempt stack allocation if the typeId is a literal (ie, known precisely at compile time).
-            if (cot.isSubtypeOf(noGc.getStackObjectType()) /*|| objectDoesNotEscape && objectIsSmallEnough */) {
-                CompoundType compoundType = Layout.get(ctxt).getInstanceLayoutInfo(cot.getDefinition()).getCompoundType();
+            // Other non-escaping allocations are stack allocated by NoGcStackAllocationVisitor.
+            // Compressed references cannot refer to the stack.
+            if (cot.isSubtypeOf(noGc.getStackObjectType()) && ! CompressedReferences.isEnabled(ctxt)) {
                 ptrVal = stackAllocate(compoundType, lf.literalOf(1), align);
             }
         }
+        boolean zero = ptrVal != null || ! noGc.isPreZeroed();
         if (ptrVal == null) {
-            MethodElement method = noGc.getAllocateMethod();
-            ptrVal = notNull(call(staticMethod(method, method.getDescriptor(), method.getType()), List.of(size, align)));
+            ptrVal = allocate(size, align);
         }
 
-        // zero initialize the allocated storage
-        MethodElement method = noGc.getZeroMethod();
-        call(staticMethod(method, method.getDescriptor(), method.getType()), List.of(ptrVal, size));
+        // zero initialize the allocated storage, unless it is fresh from the arena
+        if (zero) {
+            MethodElement method = noGc.getZeroMethod();
+            call(staticMethod(method, method.getDescriptor(), method.getType()), List.of(ptrVal, size));
+        }
+        noGc.recordAllocationSite(zero, size instanceof IntegerLiteral il ? il.longValue() : -1);
 
         Value oop = valueConvert(ptrVal, type.getReference());
         BasicHeaderInitializer.initializeObjectHeader(ctxt, this, referenceHandle(oop), typeId);
@@ -95,11 +107,25 @@ public class NoGcBasicBlockBuilder extends DelegatingBasicBlockBuilder {
         Value realSize = add(baseSize, elementShift == 0 ? size : shl(size, lf.literalOf((IntegerType)size.getType(), elementShift)));
 
         // Allocate and zero-initialize the storage
-        MethodElement method1 = noGc.getAllocateMethod();
-        Value ptrVal = notNull(call(staticMethod(method1, method1.getDescriptor(), method1.getType()), List.of(realSize, align)));
-        MethodElement method = noGc.getZeroMethod();
-        call(staticMethod(method, method.getDescriptor(), method.getType()), List.of(ptrVal, realSize));
+        Value ptrVal = allocate(realSize, align);
+        if (! noGc.isPreZeroed()) {
+            MethodElement method = noGc.getZeroMethod();
+            call(staticMethod(method, method.getDescriptor(), method.getType()), List.of(ptrVal, realSize));
+        }
+        noGc.recordAllocationSite(! noGc.isPreZeroed(), -1);
 
         return ptrVal;
     }
+
+    private Value allocate(Value size, Value align) {
+        MethodElement method = NoGc.get(ctxt).getAllocateMethod();
+        List<Value> args;
+        if (CompressedReferences.isEnabled(ctxt)) {
+            Value heapBase = bitCast(CompressedReferences.get(ctxt).getHeapBaseAddress(this), ctxt.getTypeSystem().getSignedInteger64Type());
+            args = List.of(heapBase, size, align);
+        } else {
+            args = List.of(size, align);
+        }
+        return notNull(call(staticMethod(method, method.getDescriptor(), method.getType()), args));
+    }
 }
@@ -9,7 +9,14 @@ import org.qbicc.type.definition.element.InitializerElement;
  *
  */
 public class NoGcSetupHook implements Consumer<CompilationContext> {
+    private final boolean arena;
+
+    public NoGcSetupHook(boolean arena) {
+        this.arena = arena;
+    }
+
     public void accept(final CompilationContext ctxt) {
+        NoGc.create(ctxt, arena);
         ctxt.registerEntryPoint(NoGc.get(ctxt).getAllocateMethod());
         ctxt.registerEntryPoint(NoGc.get(ctxt).getCopyMethod());
         ctxt.registerEntryPoint(NoGc.get(ctxt).getZeroMethod());
@@ -0,0 +1,112 @@
+package org.qbicc.plugin.gc.nogc;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.qbicc.context.CompilationContext;
+import org.qbicc.graph.BasicBlock;
+import org.qbicc.graph.BasicBlockBuilder;
+import org.qbicc.graph.BlockEntry;
+import org.qbicc.graph.New;
+import org.qbicc.graph.Node;
+import org.qbicc.graph.NodeVisitor;
+import org.qbicc.graph.Value;
+import org.qbicc.graph.ValueHandle;
+import org.qbicc.graph.literal.LiteralFactory;
+import org.qbicc.plugin.coreclasses.BasicHeaderInitializer;
+import org.qbicc.plugin.coreclasses.CoreClasses;
+import org.qbicc.plugin.layout.Layout;
+import org.qbicc.plugin.layout.LayoutInfo;
+import org.qbicc.plugin.opt.EscapeAnalysis;
+import org.qbicc.plugin.opt.InitializationAnalysis;
+import org.qbicc.type.CompoundType;
+import org.qbicc.type.definition.element.ExecutableElement;
+import org.qbicc.type.definition.element.FieldElement;
+import org.qbicc.type.definition.element.MethodElement;
+
+/**
+ * A copying visitor which allocates non-escaping objects on the stack instead of the heap.
+ * <p>
+ * The storage for each such allocation is reserved once in the entry block, so that an allocation inside of a loop
+ * does not grow the stack on every iteration; it is re-zeroed each time the allocation is reached, unless
+ * {@link InitializationAnalysis} shows that every field is stored before the object may be observed.
+ */
+public class NoGcStackAllocationVisitor implements NodeVisitor.Delegating<Node.Copier, Value, Node, BasicBlock, ValueHandle> {
+    // each slot stays reserved for the whole frame, so larger objects are left on the heap to keep frames small
+    private static final long MAX_STACK_ALLOCATION_SIZE = 256;
+
+    private final CompilationContext ctxt;
+    private final NodeVisitor<Node.Copier, Value, Node, BasicBlock, ValueHandle> delegate;
+    private Map<New, Value> slots;
+
+    public NoGcStackAllocationVisitor(final CompilationContext ctxt, final NodeVisitor<Node.Copier, Value, Node, BasicBlock, ValueHandle> delegate) {
+        this.ctxt = ctxt;
+        this.delegate = delegate;
+    }
+
+    public NodeVisitor<Node.Copier, Value, Node, BasicBlock, ValueHandle> getDelegateNodeVisitor() {
+        return delegate;
+    }
+
+    public Node visit(final Node.Copier param, final BlockEntry node) {
+        Node copy = NodeVisitor.Delegating.super.visit(param, node);
+        if (slots == null) {
+            // the first block to be copied is the entry block
+            slots = new HashMap<>();
+            BasicBlockBuilder bb = param.getBlockBuilder();
+            LiteralFactory lf = ctxt.getLiteralFactory();
+            Layout layout = Layout.get(ctxt);
+            for (New allocation : EscapeAnalysis.get(ctxt).getStackAllocations(bb.getRootElement())) {
+                CompoundType compoundType = layout.getInstanceLayoutInfo(allocation.getClassObjectType().getDefinition()).getCompoundType();
+                if (compoundType.getSize() <= MAX_STACK_ALLOCATION_SIZE) {
+                    slots.put(allocation, bb.stackAllocate(compoundType, lf.literalOf(1), lf.literalOf(compoundType.getAlign())));
+                }
+            }
+        }
+        return copy;
+    }
+
+    public Value visit(final Node.Copier param, final New node) {
+        Value ptrVal = slots == null ? null : slots.get(node);
+        if (ptrVal == null) {
+            return NodeVisitor.Delegating.super.visit(param, node);
+        }
+        param.copyNode(node.getDependency());
+        BasicBlockBuilder bb = param.getBlockBuilder();
+
+        // zero initialize the storage, which may have been used by a previous iteration, unless every field is
+        // stored before the object may be observed
+        Layout layout = Layout.get(ctxt);
+        LayoutInfo info = layout.getInstanceLayoutInfo(node.getClassObjectType().getDefinition());
+        boolean zero = ! isFullyInitialized(bb.getRootElement(), node, info);
+        if (zero) {
+            Value size = param.copyValue(node.getSize());
+            if (layout.isOptimized()) {
+                // the size was computed with the interpreter layout
+                size = ctxt.getLiteralFactory().literalOf(info.getCompoundType().getSize());
+            }
+            MethodElement method = NoGc.get(ctxt).getZeroMethod();
+            bb.call(bb.staticMethod(method, method.getDescriptor(), method.getType()), List.of(ptrVal, size));
+        }
+        NoGc.get(ctxt).recordAllocationSite(zero, info.getCompoundType().getSize());
+
+        Value oop = bb.valueConvert(ptrVal, node.getClassObjectType().getReference());
+        BasicHeaderInitializer.initializeObjectHeader(ctxt, bb, bb.referenceHandle(oop), param.copyValue(node.getTypeId()));
+        return oop;
+    }
+
+    private boolean isFullyInitialized(ExecutableElement element, New node, LayoutInfo info) {
+        CoreClasses coreClasses = CoreClasses.get(ctxt);
+        Set<FieldElement> initialized = InitializationAnalysis.get(ctxt).getInitializedFields(element, node);
+        for (FieldElement field : info.getFieldsMap().keySet()) {
+            // the header fields are always stored when the object is allocated
+            if (! initialized.contains(field) && field != coreClasses.getObjectTypeIdField() && field != coreClasses.getObjectNativeObjectMonitorField()) {
+                return false;
+            }
+        }
+        // any padding remains uninitialized, but it is never read
+        return true;
+    }
+}
@@ -0,0 +1,96 @@
+package org.qbicc.plugin.gc.semispace;
+
+import java.util.List;
+
+import org.qbicc.context.CompilationContext;
+import org.qbicc.graph.BasicBlock;
+import org.qbicc.graph.BasicBlockBuilder;
+import org.qbicc.graph.BlockEntry;
+import org.qbicc.graph.Goto;
+import org.qbicc.graph.If;
+import org.qbicc.graph.Invoke;
+import org.qbicc.graph.Node;
+import org.qbicc.graph.NodeVisitor;
+import org.qbicc.graph.Switch;
+import org.qbicc.graph.Terminator;
+import org.qbicc.graph.Value;
+import org.qbicc.graph.ValueHandle;
+import org.qbicc.graph.schedule.Schedule;
+import org.qbicc.type.definition.element.ExecutableElement;
+import org.qbicc.type.definition.element.FunctionElement;
+import org.qbicc.type.definition.element.MethodElement;
+
+/**
+ * A copying visitor which polls for a safepoint on every back edge, so that a thread which loops without allocating
+ * or calling a native function does not hold up a collection forever.  A back edge is an edge to a block which
+ * dominates the block it comes from.
+ * <p>
+ * The run time does not poll, because it must not stop while it manipulates the heap or the thread registry, and
+ * neither do functions, which may be called from native code while the thread is safe.
+ */
+public class SafepointPollVisitor implements NodeVisitor.Delegating<Node.Copier, Value, Node, BasicBlock, ValueHandle> {
+    private final NodeVisitor<Node.Copier, Value, Node, BasicBlock, ValueHandle> delegate;
+    private final MethodElement pollMethod;
+    private Schedule schedule;
+
+    public SafepointPollVisitor(final CompilationContext ctxt, final NodeVisitor<Node.Copier, Value, Node, BasicBlock, ValueHandle> delegate) {
+        this.delegate = delegate;
+        this.pollMethod = SemiSpace.get(ctxt).getPollMethod();
+    }
+
+    public NodeVisitor<Node.Copier, Value, Node, BasicBlock, ValueHandle> getDelegateNodeVisitor() {
+        return delegate;
+    }
+
+    public Node visit(final Node.Copier param, final BlockEntry node) {
+        if (schedule == null) {
+            // the first block to be copied is the entry block
+            schedule = Schedule.forMethod(node.getPinnedBlock());
+        }
+        return NodeVisitor.Delegating.super.visit(param, node);
+    }
+
+    public BasicBlock visit(final Node.Copier param, final Goto node) {
+        poll(param, node);
+        return NodeVisitor.Delegating.super.visit(param, node);
+    }
+
+    public BasicBlock visit(final Node.Copier param, final If node) {
+        poll(param, node);
+        return NodeVisitor.Delegating.super.visit(param, node);
+    }
+
+    public BasicBlock visit(final Node.Copier param, final Switch node) {
+        poll(param, node);
+        return NodeVisitor.Delegating.super.visit(param, node);
+    }
+
+    public BasicBlock visit(final Node.Copier param, final Invoke node) {
+        poll(param, node);
+        return NodeVisitor.Delegating.super.visit(param, node);
+    }
+
+    private void poll(Node.Copier param, Terminator terminator) {
+        BasicBlockBuilder builder = param.getBlockBuilder();
+        if (isBackEdge(terminator) && mayPoll(builder.getRootElement())) {
+            // the poll comes after everything else in the block
+            param.copyNode(terminator.getDependency());
+            builder.call(builder.staticMethod(pollMethod, pollMethod.getDescriptor(), pollMethod.getType()), List.of());
+        }
+    }
+
+    private boolean isBackEdge(Terminator terminator) {
+        BasicBlock block = terminator.getTerminatedBlock();
+        int cnt = terminator.getSuccessorCount();
+        for (int i = 0; i < cnt; i ++) {
+            if (schedule.dominates(terminator.getSuccessor(i), block)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean mayPoll(ExecutableElement element) {
+        return ! (element instanceof FunctionElement) && ! element.getEnclosingType().getInternalName().startsWith("org/qbicc/runtime/");
+    }
+}
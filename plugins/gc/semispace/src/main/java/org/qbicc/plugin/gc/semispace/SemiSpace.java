@@ -0,0 +1,211 @@
+package org.qbicc.plugin.gc.semispace;
+
+import org.qbicc.context.AttachmentKey;
+import org.qbicc.context.ClassContext;
+import org.qbicc.context.CompilationContext;
+import org.qbicc.object.Section;
+import org.qbicc.type.ClassObjectType;
+import org.qbicc.type.CompoundType;
+import org.qbicc.type.TypeSystem;
+import org.qbicc.type.ValueType;
+import org.qbicc.type.definition.DefinedTypeDefinition;
+import org.qbicc.type.definition.LoadedTypeDefinition;
+import org.qbicc.type.definition.element.ExecutableElement;
+import org.qbicc.type.definition.element.GlobalVariableElement;
+import org.qbicc.type.definition.element.MethodElement;
+import org.qbicc.type.descriptor.BaseTypeDescriptor;
+import org.qbicc.type.generic.BaseTypeSignature;
+
+/**
+ * The precise stop-the-world semispace copying GC.  Besides the allocation entry points of the run time helpers, this
+ * holds the types of the object layout tables which tell the collector where the references are.  Other copying
+ * collectors share the tables and the allocation lowering by supplying their own helpers class.
+ */
+public final class SemiSpace {
+    public static final String HELPERS = "org/qbicc/runtime/gc/semispace/SemiSpaceHelpers";
+    public static final String TABLES = "org/qbicc/runtime/gc/semispace/SemiSpaceTables";
+    public static final String QBICC_GC_TABLES = "qbicc_gc_tables";
+    public static final String SAFEPOINT = "org/qbicc/runtime/main/Safepoint";
+
+    // these must match the flags of SemiSpaceTables
+    static final int FLAG_ARRAY = 1;
+    static final int FLAG_REF_ARRAY = 2;
+    static final int FLAG_PINNED = 4;
+
+    private static final AttachmentKey<SemiSpace> KEY = new AttachmentKey<>();
+
+    private final CompilationContext ctxt;
+    private final LoadedTypeDefinition helpers;
+    private final MethodElement allocateMethod;
+    private final MethodElement allocatePinnedMethod;
+    private final MethodElement allocateTypedMethod;
+    private final MethodElement pollMethod;
+    private final ClassObjectType threadType;
+    private final CompoundType typeInfoType;
+    private final CompoundType tablesType;
+    private final GlobalVariableElement tables;
+
+    private SemiSpace(final CompilationContext ctxt, final String helpersName) {
+        this.ctxt = ctxt;
+        ClassContext classContext = ctxt.getBootstrapClassContext();
+        DefinedTypeDefinition defined = classContext.findDefinedType(helpersName);
+        if (defined == null) {
+            throw runtimeMissing(helpersName);
+        }
+        helpers = defined.load();
+        allocateMethod = findMethod(helpers, "allocate");
+        allocatePinnedMethod = findMethod(helpers, "allocatePinned");
+        allocateTypedMethod = findMethod(helpers, "allocateTyped");
+        DefinedTypeDefinition safepoint = classContext.findDefinedType(SAFEPOINT);
+        if (safepoint == null) {
+            throw runtimeMissing(SAFEPOINT);
+        }
+        pollMethod = findMethod(safepoint.load(), "poll");
+        threadType = classContext.findDefinedType("java/lang/Thread").load().getClassType();
+
+        TypeSystem ts = ctxt.getTypeSystem();
+        ValueType uint8Type = ts.getUnsignedInteger8Type();
+        ValueType uint16Type = ts.getUnsignedInteger16Type();
+        ValueType uint32Type = ts.getUnsignedInteger32Type();
+        ValueType uint64Type = ts.getUnsignedInteger64Type();
+
+        typeInfoType = CompoundType.builder(ts)
+            .setTag(CompoundType.Tag.STRUCT)
+            .setName("qbicc_gc_type_info")
+            .setOverallAlignment(uint32Type.getAlign())
+            .addNextMember("instanceSize", uint32Type)
+            .addNextMember("refIndex", uint32Type)
+            .addNextMember("refCount", uint16Type)
+            .addNextMember("elementShift", uint8Type)
+            .addNextMember("flags", uint8Type)
+            .build();
+
+        tablesType = CompoundType.builder(ts)
+            .setTag(CompoundType.Tag.STRUCT)
+            .setName("qbicc_gc_table_data")
+            .setOverallAlignment(ts.getPointerAlignment())
+            .addNextMember("typeInfo", uint8Type.getPointer())
+            .addNextMember("refOffsets", uint32Type.getPointer())
+            .addNextMember("staticRoots", uint64Type.getPointer())
+            .addNextMember("heapObjects", uint64Type.getPointer())
+            .addNextMember("typeCount", uint32Type)
+            .addNextMember("staticRootCount", uint32Type)
+            .addNextMember("heapObjectCount", uint32Type)
+            .addNextMember("typeIdOffset", uint32Type)
+            .addNextMember("typeIdSize", uint32Type)
+            .addNextMember("monitorOffset", uint32Type)
+            .addNextMember("arrayLengthOffset", uint32Type)
+            .addNextMember("refArrayContentOffset", uint32Type)
+            .build();
+
+        GlobalVariableElement.Builder builder = GlobalVariableElement.builder(QBICC_GC_TABLES, BaseTypeDescriptor.V);
+        builder.setType(tablesType);
+        builder.setEnclosingType(ctxt.getDefaultTypeDefinition().load());
+        builder.setSignature(BaseTypeSignature.V);
+        tables = builder.build();
+    }
+
+    private static MethodElement findMethod(LoadedTypeDefinition type, String name) {
+        int index = type.findMethodIndex(e -> e.getName().equals(name));
+        if (index == -1) {
+            throw new IllegalStateException("Required method \"" + name + "\" is missing from the GC helpers " + type.getInternalName());
+        }
+        return type.getMethod(index);
+    }
+
+    private static IllegalStateException runtimeMissing(String helpersName) {
+        return new IllegalStateException("The GC runtime class " + helpersName + " is not present in the bootstrap class path");
+    }
+
+    /**
+     * Set up the semispace GC.  This must be done before the first phase begins.
+     *
+     * @param ctxt the compilation context (must not be {@code null})
+     * @return the semispace GC (not {@code null})
+     */
+    public static SemiSpace create(CompilationContext ctxt) {
+        return create(ctxt, HELPERS);
+    }
+
+    /**
+     * Set up the semispace GC with other run time helpers, which must have the same allocation entry points.  This
+     * must be done before the first phase begins.
+     *
+     * @param ctxt the compilation context (must not be {@code null})
+     * @param helpersName the internal name of the run time helpers class (must not be {@code null})
+     * @return the semispace GC (not {@code null})
+     */
+    public static SemiSpace create(CompilationContext ctxt, String helpersName) {
+        return ctxt.computeAttachmentIfAbsent(KEY, () -> new SemiSpace(ctxt, helpersName));
+    }
+
+    /**
+     * Get the semispace GC.
+     *
+     * @param ctxt the compilation context (must not be {@code null})
+     * @return the semispace GC (not {@code null})
+     * @throws IllegalStateException if the semispace GC was not set up
+     */
+    public static SemiSpace get(CompilationContext ctxt) {
+        SemiSpace semiSpace = ctxt.getAttachment(KEY);
+        if (semiSpace == null) {
+            throw new IllegalStateException("The semispace GC was not set up");
+        }
+        return semiSpace;
+    }
+
+    public LoadedTypeDefinition getHelpers() {
+        return helpers;
+    }
+
+    public MethodElement getAllocateMethod() {
+        return allocateMethod;
+    }
+
+    public MethodElement getAllocatePinnedMethod() {
+        return allocatePinnedMethod;
+    }
+
+    public MethodElement getAllocateTypedMethod() {
+        return allocateTypedMethod;
+    }
+
+    /**
+     * Get the method which reaches a safepoint if a collector is waiting for the world to stop.
+     *
+     * @return the poll method
+     */
+    public MethodElement getPollMethod() {
+        return pollMethod;
+    }
+
+    /**
+     * Get the type of {@code Thread}.  Threads are referred to from native memory, so they are pinned.
+     *
+     * @return the thread type
+     */
+    public ClassObjectType getThreadType() {
+        return threadType;
+    }
+
+    /**
+     * Get the type of an entry of the type table, which is indexed by type ID.
+     *
+     * @return the type information type
+     */
+    public CompoundType getTypeInfoType() {
+        return typeInfoType;
+    }
+
+    public CompoundType getTablesType() {
+        return tablesType;
+    }
+
+    public GlobalVariableElement getAndRegisterTables(ExecutableElement originalElement) {
+        if (originalElement != null && ! tables.getEnclosingType().equals(originalElement.getEnclosingType())) {
+            Section section = ctxt.getImplicitSection(originalElement.getEnclosingType());
+            section.declareData(null, tables.getName(), tables.getType());
+        }
+        return tables;
+    }
+}
@@ -0,0 +1,103 @@
+package org.qbicc.plugin.gc.semispace;
+
+import java.util.List;
+
+import org.qbicc.context.CompilationContext;
+import org.qbicc.graph.BasicBlockBuilder;
+import org.qbicc.graph.DelegatingBasicBlockBuilder;
+import org.qbicc.graph.Value;
+import org.qbicc.graph.literal.IntegerLiteral;
+import org.qbicc.graph.literal.LiteralFactory;
+import org.qbicc.graph.literal.TypeLiteral;
+import org.qbicc.plugin.coreclasses.BasicHeaderInitializer;
+import org.qbicc.plugin.coreclasses.CoreClasses;
+import org.qbicc.plugin.layout.Layout;
+import org.qbicc.plugin.layout.LayoutInfo;
+import org.qbicc.type.ClassObjectType;
+import org.qbicc.type.CompoundType;
+import org.qbicc.type.IntegerType;
+import org.qbicc.type.PrimitiveArrayObjectType;
+import org.qbicc.type.ReferenceArrayObjectType;
+import org.qbicc.type.definition.LoadedTypeDefinition;
+import org.qbicc.type.definition.element.MethodElement;
+
+/**
+ * Lower allocations to calls to the semispace GC allocator.  The allocator returns zeroed storage, so only the header
+ * is initialized here.
+ */
+public class SemiSpaceBasicBlockBuilder extends DelegatingBasicBlockBuilder {
+    private final CompilationContext ctxt;
+    private final CoreClasses coreClasses;
+
+    public SemiSpaceBasicBlockBuilder(final CompilationContext ctxt, final BasicBlockBuilder delegate) {
+        super(delegate);
+        this.ctxt = ctxt;
+        this.coreClasses = CoreClasses.get(ctxt);
+    }
+
+    @Override
+    public Value new_(final ClassObjectType type, final Value typeId, Value size, Value align) {
+        SemiSpace semiSpace = SemiSpace.get(ctxt);
+        LiteralFactory lf = ctxt.getLiteralFactory();
+        Value ptrVal;
+        if (typeId instanceof TypeLiteral tl && tl.getValue() instanceof ClassObjectType cot) {
+            Layout layout = Layout.get(ctxt);
+            if (layout.isOptimized()) {
+                // the size was computed with the interpreter layout
+                CompoundType compoundType = layout.getInstanceLayoutInfo(cot.getDefinition()).getCompoundType();
+                size = lf.literalOf(compoundType.getSize());
+                align = lf.literalOf(compoundType.getAlign());
+            }
+            boolean pinned = cot.isSubtypeOf(semiSpace.getThreadType());
+            ptrVal = allocate(pinned ? semiSpace.getAllocatePinnedMethod() : semiSpace.getAllocateMethod(), List.of(size, align));
+        } else {
+            // the allocator decides whether the object is pinned
+            IntegerType s32 = ctxt.getTypeSystem().getSignedInteger32Type();
+            Value typeIdValue = typeId.getType().getSize() < s32.getSize() ? extend(typeId, s32) : valueConvert(typeId, s32);
+            ptrVal = allocate(semiSpace.getAllocateTypedMethod(), List.of(typeIdValue, size, align));
+        }
+
+        Value oop = valueConvert(ptrVal, type.getReference());
+        BasicHeaderInitializer.initializeObjectHeader(ctxt, this, referenceHandle(oop), typeId);
+        return oop;
+    }
+
+    @Override
+    public Value newArray(final PrimitiveArrayObjectType arrayType, Value size) {
+        LoadedTypeDefinition ltd = coreClasses.getArrayContentField(arrayType).getEnclosingType().load();
+        CompoundType compoundType = Layout.get(ctxt).getInstanceLayoutInfo(ltd).getCompoundType();
+        Value ptrVal = allocateArray(compoundType, size, arrayType.getElementType().getSize());
+        Value oop = valueConvert(ptrVal, arrayType.getReference());
+        BasicHeaderInitializer.initializeArrayHeader(ctxt, this, referenceHandle(oop), ctxt.getLiteralFactory().literalOfType(ltd.getClassType()), size);
+        return oop;
+    }
+
+    @Override
+    public Value newReferenceArray(final ReferenceArrayObjectType arrayType, Value elemTypeId, Value dimensions, Value size) {
+        Layout layout = Layout.get(ctxt);
+        LayoutInfo info = layout.getInstanceLayoutInfo(coreClasses.getRefArrayContentField().getEnclosingType());
+        CompoundType compoundType = info.getCompoundType();
+        Value ptrVal = allocateArray(compoundType, size, ctxt.getTypeSystem().getReferenceSize());
+        Value oop = valueConvert(ptrVal, arrayType.getReference());
+        BasicHeaderInitializer.initializeRefArrayHeader(ctxt, this, referenceHandle(oop), elemTypeId, dimensions, size);
+        return oop;
+    }
+
+    private Value allocateArray(CompoundType compoundType, Value size, long elementSize) {
+        LiteralFactory lf = ctxt.getLiteralFactory();
+        IntegerLiteral align = lf.literalOf(compoundType.getAlign());
+        IntegerLiteral baseSize = lf.literalOf(compoundType.getSize());
+        IntegerType sizeType = (IntegerType) size.getType();
+        if (sizeType.getMinBits() < 64) {
+            size = extend(size, ctxt.getTypeSystem().getSignedInteger64Type());
+        }
+        assert Long.bitCount(elementSize) == 1;
+        int elementShift = Long.numberOfTrailingZeros(elementSize);
+        Value realSize = add(baseSize, elementShift == 0 ? size : shl(size, lf.literalOf((IntegerType)size.getType(), elementShift)));
+        return allocate(SemiSpace.get(ctxt).getAllocateMethod(), List.of(realSize, align));
+    }
+
+    private Value allocate(MethodElement method, List<Value> args) {
+        return notNull(call(staticMethod(method, method.getDescriptor(), method.getType()), args));
+    }
+}
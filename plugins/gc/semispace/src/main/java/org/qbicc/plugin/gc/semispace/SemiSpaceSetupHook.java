@@ -0,0 +1,122 @@
+package org.qbicc.plugin.gc.semispace;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.qbicc.context.ClassContext;
+import org.qbicc.context.CompilationContext;
+import org.qbicc.driver.Phase;
+import org.qbicc.graph.GlobalVariable;
+import org.qbicc.graph.Value;
+import org.qbicc.graph.ValueHandle;
+import org.qbicc.plugin.intrinsics.Intrinsics;
+import org.qbicc.plugin.intrinsics.StaticIntrinsic;
+import org.qbicc.plugin.intrinsics.core.CoreIntrinsics;
+import org.qbicc.type.CompoundType;
+import org.qbicc.type.IntegerType;
+import org.qbicc.type.definition.element.InitializerElement;
+import org.qbicc.type.descriptor.BaseTypeDescriptor;
+import org.qbicc.type.descriptor.ClassTypeDescriptor;
+import org.qbicc.type.descriptor.MethodDescriptor;
+
+/**
+ * Set up the semispace GC, and register the intrinsics which read its tables.
+ */
+public class SemiSpaceSetupHook implements Consumer<CompilationContext> {
+    private final String helpersName;
+
+    public SemiSpaceSetupHook() {
+        this(SemiSpace.HELPERS);
+    }
+
+    /**
+     * Construct a new instance which uses other run time helpers.
+     *
+     * @param helpersName the internal name of the run time helpers class (must not be {@code null})
+     */
+    public SemiSpaceSetupHook(String helpersName) {
+        this.helpersName = helpersName;
+    }
+
+    public void accept(final CompilationContext ctxt) {
+        SemiSpace semiSpace = SemiSpace.create(ctxt, helpersName);
+        // the world is stopped at safepoints to move objects
+        CoreIntrinsics.enableSafepoints(ctxt);
+        ctxt.registerEntryPoint(semiSpace.getAllocateMethod());
+        ctxt.registerEntryPoint(semiSpace.getAllocatePinnedMethod());
+        ctxt.registerEntryPoint(semiSpace.getAllocateTypedMethod());
+        // loops poll for safepoints, which is only added in the analyze phase
+        ctxt.registerEntryPoint(semiSpace.getPollMethod());
+
+        // the static methods are entry points, so the initializer must be one too
+        InitializerElement clinit = semiSpace.getHelpers().getInitializer();
+        if (clinit != null) {
+            ctxt.registerEntryPoint(clinit);
+        }
+
+        registerTableIntrinsics(ctxt, semiSpace);
+    }
+
+    private static void registerTableIntrinsics(CompilationContext ctxt, SemiSpace semiSpace) {
+        Intrinsics intrinsics = Intrinsics.get(ctxt);
+        ClassContext classContext = ctxt.getBootstrapClassContext();
+
+        ClassTypeDescriptor tablesDesc = ClassTypeDescriptor.synthesize(classContext, SemiSpace.TABLES);
+
+        MethodDescriptor voidToIntDesc = MethodDescriptor.synthesize(classContext, BaseTypeDescriptor.I, List.of());
+        MethodDescriptor intToIntDesc = MethodDescriptor.synthesize(classContext, BaseTypeDescriptor.I, List.of(BaseTypeDescriptor.I));
+        MethodDescriptor intToLongDesc = MethodDescriptor.synthesize(classContext, BaseTypeDescriptor.J, List.of(BaseTypeDescriptor.I));
+
+        CompoundType tablesType = semiSpace.getTablesType();
+        CompoundType typeInfoType = semiSpace.getTypeInfoType();
+        IntegerType s32 = ctxt.getTypeSystem().getSignedInteger32Type();
+
+        for (String memberName : List.of("typeCount", "staticRootCount", "heapObjectCount", "typeIdOffset", "typeIdSize", "monitorOffset", "arrayLengthOffset", "refArrayContentOffset")) {
+            StaticIntrinsic getTablesMember = (builder, target, arguments) -> {
+                GlobalVariable tables = (GlobalVariable) builder.globalVariable(semiSpace.getAndRegisterTables(builder.getCurrentElement()));
+                return builder.load(builder.memberOf(tables, tablesType.getMember(memberName)));
+            };
+
+            String name = "get" + Character.toUpperCase(memberName.charAt(0)) + memberName.substring(1);
+            intrinsics.registerIntrinsic(Phase.LOWER, tablesDesc, name, voidToIntDesc, getTablesMember);
+        }
+
+        for (String memberName : List.of("instanceSize", "refIndex", "refCount", "elementShift", "flags")) {
+            StaticIntrinsic getTypeInfoMember = (builder, target, arguments) -> {
+                GlobalVariable tables = (GlobalVariable) builder.globalVariable(semiSpace.getAndRegisterTables(builder.getCurrentElement()));
+                Value tablePointer = builder.load(builder.memberOf(tables, tablesType.getMember("typeInfo")));
+
+                ValueHandle typeInfoHandle = builder.pointerHandle(builder.bitCast(tablePointer, typeInfoType.getPointer()), arguments.get(0));
+                Value value = builder.load(builder.memberOf(typeInfoHandle, typeInfoType.getMember(memberName)));
+                return value.getType().getSize() < 4 ? builder.extend(value, s32) : value;
+            };
+
+            String name = "get" + Character.toUpperCase(memberName.charAt(0)) + memberName.substring(1);
+            intrinsics.registerIntrinsic(Phase.LOWER, tablesDesc, name, intToIntDesc, getTypeInfoMember);
+        }
+
+        StaticIntrinsic getRefOffset = (builder, target, arguments) -> {
+            GlobalVariable tables = (GlobalVariable) builder.globalVariable(semiSpace.getAndRegisterTables(builder.getCurrentElement()));
+            Value tablePointer = builder.load(builder.memberOf(tables, tablesType.getMember("refOffsets")));
+            return builder.load(builder.pointerHandle(tablePointer, arguments.get(0)));
+        };
+
+        intrinsics.registerIntrinsic(Phase.LOWER, tablesDesc, "getRefOffset", intToIntDesc, getRefOffset);
+
+        StaticIntrinsic getStaticRoot = (builder, target, arguments) -> {
+            GlobalVariable tables = (GlobalVariable) builder.globalVariable(semiSpace.getAndRegisterTables(builder.getCurrentElement()));
+            Value tablePointer = builder.load(builder.memberOf(tables, tablesType.getMember("staticRoots")));
+            return builder.load(builder.pointerHandle(tablePointer, arguments.get(0)));
+        };
+
+        intrinsics.registerIntrinsic(Phase.LOWER, tablesDesc, "getStaticRoot", intToLongDesc, getStaticRoot);
+
+        StaticIntrinsic getHeapObject = (builder, target, arguments) -> {
+            GlobalVariable tables = (GlobalVariable) builder.globalVariable(semiSpace.getAndRegisterTables(builder.getCurrentElement()));
+            Value tablePointer = builder.load(builder.memberOf(tables, tablesType.getMember("heapObjects")));
+            return builder.load(builder.pointerHandle(tablePointer, arguments.get(0)));
+        };
+
+        intrinsics.registerIntrinsic(Phase.LOWER, tablesDesc, "getHeapObject", intToLongDesc, getHeapObject);
+    }
+}
@@ -0,0 +1,200 @@
+package org.qbicc.plugin.gc.semispace;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+import org.jboss.logging.Logger;
+import org.qbicc.context.CompilationContext;
+import org.qbicc.graph.literal.Literal;
+import org.qbicc.graph.literal.LiteralFactory;
+import org.qbicc.graph.literal.ProgramObjectLiteral;
+import org.qbicc.object.Data;
+import org.qbicc.object.DataDeclaration;
+import org.qbicc.object.Section;
+import org.qbicc.plugin.coreclasses.CoreClasses;
+import org.qbicc.plugin.instanceofcheckcast.SupersDisplayTables;
+import org.qbicc.plugin.layout.Layout;
+import org.qbicc.plugin.layout.LayoutInfo;
+import org.qbicc.plugin.lowering.Lowering;
+import org.qbicc.plugin.reachability.ReachabilityInfo;
+import org.qbicc.plugin.serialization.BuildtimeHeap;
+import org.qbicc.type.ArrayType;
+import org.qbicc.type.ClassObjectType;
+import org.qbicc.type.CompoundType;
+import org.qbicc.type.IntegerType;
+import org.qbicc.type.ReferenceArrayObjectType;
+import org.qbicc.type.ReferenceType;
+import org.qbicc.type.TypeSystem;
+import org.qbicc.type.WordType;
+import org.qbicc.type.definition.LoadedTypeDefinition;
+
+/**
+ * Emit the object layout tables of the semispace GC: the size and reference field offsets of every type, the addresses
+ * of the static fields which hold references, and the addresses of the objects of the initial heap which hold
+ * references.  This must run after the initial heap and the statics are final, and before the default module is
+ * compiled.
+ */
+public class SemiSpaceTableEmitter implements Consumer<CompilationContext> {
+    private static final Logger slog = Logger.getLogger("org.qbicc.plugin.gc.semispace.stats");
+
+    public SemiSpaceTableEmitter() {}
+
+    public void accept(final CompilationContext ctxt) {
+        SemiSpace semiSpace = SemiSpace.get(ctxt);
+        TypeSystem ts = ctxt.getTypeSystem();
+        LiteralFactory lf = ctxt.getLiteralFactory();
+        Layout layout = Layout.get(ctxt);
+        CoreClasses coreClasses = CoreClasses.get(ctxt);
+        Section section = ctxt.getImplicitSection(ctxt.getDefaultTypeDefinition());
+        CompoundType typeInfoType = semiSpace.getTypeInfoType();
+        IntegerType uint32Type = ts.getUnsignedInteger32Type();
+        IntegerType uint64Type = ts.getUnsignedInteger64Type();
+
+        // types
+        Set<LoadedTypeDefinition> types = new LinkedHashSet<>();
+        ReachabilityInfo.get(ctxt).visitReachableTypes(types::add);
+        LoadedTypeDefinition refArrayType = coreClasses.getReferenceArrayTypeDefinition();
+        Set<LoadedTypeDefinition> arrayTypes = new HashSet<>();
+        for (String arrayType : List.of("[Z", "[B", "[S", "[C", "[I", "[F", "[J", "[D", "[ref")) {
+            arrayTypes.add(coreClasses.getArrayLoadedTypeDefinition(arrayType));
+        }
+        types.addAll(arrayTypes);
+        int typeCount = SupersDisplayTables.get(ctxt).get_number_of_typeids();
+        Literal[] typeInfoLiterals = new Literal[typeCount];
+        List<Literal> refOffsetLiterals = new ArrayList<>();
+        Literal emptyTypeInfo = lf.zeroInitializerLiteralOfType(typeInfoType);
+        for (int i = 0; i < typeCount; i++) {
+            typeInfoLiterals[i] = emptyTypeInfo;
+        }
+        ClassObjectType threadType = semiSpace.getThreadType();
+        for (LoadedTypeDefinition type : types) {
+            if (type.isInterface()) {
+                continue;
+            }
+            CompoundType compoundType = layout.getInstanceLayoutInfo(type).getCompoundType();
+            int refIndex = refOffsetLiterals.size();
+            for (CompoundType.Member member : compoundType.getMembers()) {
+                if (member.getType() instanceof ReferenceType) {
+                    refOffsetLiterals.add(lf.literalOf(uint32Type, member.getOffset()));
+                }
+            }
+            int flags = 0;
+            int elementShift = 0;
+            if (arrayTypes.contains(type)) {
+                flags |= SemiSpace.FLAG_ARRAY;
+                if (type == refArrayType) {
+                    flags |= SemiSpace.FLAG_REF_ARRAY;
+                }
+                // the content is the trailing member, which has no elements of its own
+                for (CompoundType.Member member : compoundType.getMembers()) {
+                    if (member.getType() instanceof ArrayType arrayType) {
+                        elementShift = Long.numberOfTrailingZeros(arrayType.getElementType().getSize());
+                    }
+                }
+            }
+            if (type.getClassType().isSubtypeOf(threadType)) {
+                flags |= SemiSpace.FLAG_PINNED;
+            }
+            HashMap<CompoundType.Member, Literal> valueMap = new HashMap<>();
+            valueMap.put(typeInfoType.getMember("instanceSize"), lf.literalOf(uint32Type, compoundType.getSize()));
+            valueMap.put(typeInfoType.getMember("refIndex"), lf.literalOf(uint32Type, refIndex));
+            valueMap.put(typeInfoType.getMember("refCount"), lf.literalOf((IntegerType) typeInfoType.getMember("refCount").getType(), refOffsetLiterals.size() - refIndex));
+            valueMap.put(typeInfoType.getMember("elementShift"), lf.literalOf((IntegerType) typeInfoType.getMember("elementShift").getType(), elementShift));
+            valueMap.put(typeInfoType.getMember("flags"), lf.literalOf((IntegerType) typeInfoType.getMember("flags").getType(), flags));
+            typeInfoLiterals[type.getTypeId()] = lf.literalOf(typeInfoType, valueMap);
+        }
+
+        // static fields
+        // sorted for a reproducible image
+        Map<String, Literal> staticRoots = new TreeMap<>();
+        Lowering.get(ctxt).visitStaticsGlobals((type, global) -> {
+            CompoundType staticsType = (CompoundType) global.getType();
+            Literal globalLiteral = null;
+            for (CompoundType.Member member : staticsType.getMembers()) {
+                if (member.getType() instanceof ReferenceType) {
+                    if (globalLiteral == null) {
+                        DataDeclaration decl = section.declareData(null, global.getName(), staticsType);
+                        globalLiteral = lf.bitcastLiteral(lf.literalOf(decl), uint64Type.getPointer());
+                    }
+                    // references are word sized and aligned
+                    Literal slot = lf.elementOfLiteral(globalLiteral, lf.literalOf(member.getOffset() / uint64Type.getSize()));
+                    staticRoots.put(global.getName() + '#' + member.getName(), lf.valueConvertLiteral(slot, uint64Type));
+                }
+            }
+        });
+        List<Literal> staticRootLiterals = new ArrayList<>(staticRoots.values());
+
+        // initial heap objects
+        List<ProgramObjectLiteral> heapObjects = new ArrayList<>();
+        BuildtimeHeap.get(ctxt).visitSerializedObjects((objectType, literal) -> {
+            if (objectType instanceof ReferenceArrayObjectType) {
+                heapObjects.add(literal);
+            } else if (objectType instanceof ClassObjectType cot) {
+                for (CompoundType.Member member : layout.getInstanceLayoutInfo(cot.getDefinition()).getCompoundType().getMembers()) {
+                    if (member.getType() instanceof ReferenceType) {
+                        heapObjects.add(literal);
+                        break;
+                    }
+                }
+            }
+        });
+        heapObjects.sort(Comparator.comparing(ProgramObjectLiteral::getName));
+        List<Literal> heapObjectLiterals = new ArrayList<>(heapObjects.size());
+        for (ProgramObjectLiteral literal : heapObjects) {
+            DataDeclaration decl = section.declareData(literal.getProgramObject());
+            decl.setAddrspace(1);
+            heapObjectLiterals.add(lf.valueConvertLiteral(lf.literalOf(decl), uint64Type));
+        }
+
+        // the object header
+        LayoutInfo objectLayout = layout.getInstanceLayoutInfo(coreClasses.getObjectTypeDefinition());
+        CompoundType.Member typeIdMember = objectLayout.getMember(coreClasses.getObjectTypeIdField());
+        CompoundType.Member monitorMember = objectLayout.getMember(coreClasses.getObjectNativeObjectMonitorField());
+        if (monitorMember.getType().getSize() != uint64Type.getSize()) {
+            ctxt.error("The semispace GC requires a word sized object monitor slot to forward objects");
+            return;
+        }
+        LayoutInfo arrayLayout = layout.getInstanceLayoutInfo(coreClasses.getArrayLengthField().getEnclosingType());
+        CompoundType.Member lengthMember = arrayLayout.getMember(coreClasses.getArrayLengthField());
+        LayoutInfo refArrayLayout = layout.getInstanceLayoutInfo(refArrayType);
+        CompoundType.Member contentMember = refArrayLayout.getMember(coreClasses.getRefArrayContentField());
+
+        Data typeInfoData = section.addData(null, "qbicc_gc_type_info_table", lf.literalOf(ts.getArrayType(typeInfoType, typeInfoLiterals.length), List.of(typeInfoLiterals)));
+        Data refOffsetData = section.addData(null, "qbicc_gc_ref_offset_table", lf.literalOf(ts.getArrayType(uint32Type, refOffsetLiterals.size()), refOffsetLiterals));
+        Data staticRootData = section.addData(null, "qbicc_gc_static_root_table", lf.literalOf(ts.getArrayType(uint64Type, staticRootLiterals.size()), staticRootLiterals));
+        Data heapObjectData = section.addData(null, "qbicc_gc_heap_object_table", lf.literalOf(ts.getArrayType(uint64Type, heapObjectLiterals.size()), heapObjectLiterals));
+
+        CompoundType tablesType = semiSpace.getTablesType();
+        HashMap<CompoundType.Member, Literal> valueMap = new HashMap<>();
+        putPointer(lf, valueMap, tablesType.getMember("typeInfo"), lf.literalOf(typeInfoData));
+        putPointer(lf, valueMap, tablesType.getMember("refOffsets"), lf.literalOf(refOffsetData));
+        putPointer(lf, valueMap, tablesType.getMember("staticRoots"), lf.literalOf(staticRootData));
+        putPointer(lf, valueMap, tablesType.getMember("heapObjects"), lf.literalOf(heapObjectData));
+        valueMap.put(tablesType.getMember("typeCount"), lf.literalOf(uint32Type, typeCount));
+        valueMap.put(tablesType.getMember("staticRootCount"), lf.literalOf(uint32Type, staticRootLiterals.size()));
+        valueMap.put(tablesType.getMember("heapObjectCount"), lf.literalOf(uint32Type, heapObjectLiterals.size()));
+        valueMap.put(tablesType.getMember("typeIdOffset"), lf.literalOf(uint32Type, typeIdMember.getOffset()));
+        valueMap.put(tablesType.getMember("typeIdSize"), lf.literalOf(uint32Type, typeIdMember.getType().getSize()));
+        valueMap.put(tablesType.getMember("monitorOffset"), lf.literalOf(uint32Type, monitorMember.getOffset()));
+        valueMap.put(tablesType.getMember("arrayLengthOffset"), lf.literalOf(uint32Type, lengthMember.getOffset()));
+        valueMap.put(tablesType.getMember("refArrayContentOffset"), lf.literalOf(uint32Type, contentMember.getOffset()));
+        section.addData(null, SemiSpace.QBICC_GC_TABLES, lf.literalOf(tablesType, valueMap));
+
+        slog.debugf("qbicc_gc_type_info_table entry count: %d", typeCount);
+        slog.debugf("qbicc_gc_ref_offset_table entry count: %d", refOffsetLiterals.size());
+        slog.debugf("qbicc_gc_static_root_table entry count: %d", staticRootLiterals.size());
+        slog.debugf("qbicc_gc_heap_object_table entry count: %d", heapObjectLiterals.size());
+    }
+
+    private static void putPointer(LiteralFactory lf, Map<CompoundType.Member, Literal> valueMap, CompoundType.Member member, Literal value) {
+        valueMap.put(member, lf.bitcastLiteral(value, (WordType) member.getType()));
+    }
+}
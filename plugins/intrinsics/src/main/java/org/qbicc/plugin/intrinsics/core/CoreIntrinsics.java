@@ -6,6 +6,7 @@ import java.util.Collections;
 import java.util.List;
 
 import org.jboss.logging.Logger;
+import org.qbicc.context.AttachmentKey;
 import org.qbicc.context.ClassContext;
 import org.qbicc.context.CompilationContext;
 import org.qbicc.driver.Driver;
@@ -40,7 +41,6 @@ import org.qbicc.interpreter.VmString;
 import org.qbicc.machine.probe.CProbe;
 import org.qbicc.plugin.coreclasses.CoreClasses;
 import org.qbicc.plugin.coreclasses.RuntimeMethodFinder;
-import org.qbicc.plugin.gc.nogc.NoGc;
 import org.qbicc.plugin.instanceofcheckcast.SupersDisplayTables;
 import org.qbicc.plugin.intrinsics.InstanceIntrinsic;
 import org.qbicc.plugin.intrinsics.Intrinsics;
@@ -57,8 +57,10 @@ import org.qbicc.type.FloatType;
 import org.qbicc.type.IntegerType;
 import org.qbicc.type.InterfaceObjectType;
 import org.qbicc.type.NullableType;
+import org.qbicc.type.PhysicalObjectType;
 import org.qbicc.type.PointerType;
 import org.qbicc.type.Primitive;
+import org.qbicc.type.PrimitiveArrayObjectType;
 import org.qbicc.type.ReferenceArrayObjectType;
 import org.qbicc.type.ReferenceType;
 import org.qbicc.type.SignedIntegerType;
@@ -85,6 +87,18 @@ import static org.qbicc.graph.atomic.AccessModes.*;
 public final class CoreIntrinsics {
     public static final Logger log = Logger.getLogger("org.qbicc.plugin.intrinsics");
 
+    private static final AttachmentKey<Boolean> SAFEPOINTS_KEY = new AttachmentKey<>();
+
+    /**
+     * Make the threads of the program take part in safepoints.  Collectors which stop the world call this when they
+     * are set up.
+     *
+     * @param ctxt the compilation context (must not be {@code null})
+     */
+    public static void enableSafepoints(CompilationContext ctxt) {
+        ctxt.putAttachment(SAFEPOINTS_KEY, Boolean.TRUE);
+    }
+
     public static void register(CompilationContext ctxt) {
         CNativeIntrinsics.register(ctxt);
         registerEmptyNativeInitMethods(ctxt);
@@ -94,6 +108,8 @@ public final class CoreIntrinsics {
         registerJavaLangInvokeMethodHandleIntrinsics(ctxt);
         registerJavaLangStringIntrinsics(ctxt);
         registerJavaLangStringUTF16Intrinsics(ctxt);
+        registerJavaLangStringLatin1Intrinsics(ctxt);
+        registerJavaUtilArraysIntrinsics(ctxt);
         registerJavaLangSystemIntrinsics(ctxt);
         registerJavaLangStackTraceElementInstrinsics(ctxt);
         registerJavaLangThreadIntrinsics(ctxt);
@@ -433,7 +449,7 @@ public final class CoreIntrinsics {
 
         CProbe probe = CProbe.builder().build();
         try {
-            CProbe.Result result = probe.run(ctxt.getAttachment(Driver.C_TOOL_CHAIN_KEY), ctxt.getAttachment(Driver.OBJ_PROVIDER_TOOL_KEY), ctxt);
+            CProbe.Result result = probe.run(ctxt.getAttachment(Driver.C_TOOL_CHAIN_KEY), ctxt.getAttachment(Driver.OBJ_PROVIDER_TOOL_KEY), ctxt.getAttachment(Driver.PROBE_CACHE_KEY), ctxt);
             if (result == null) {
                 ctxt.error("Failed to probe target endianness (no exception)");
             } else {
@@ -447,6 +463,62 @@ public final class CoreIntrinsics {
         }
     }
 
+    // The bulk operations below are only substituted in ANALYZE, because the build time interpreter cannot run the
+    // native memory routines that their replacements rely on.
+
+    public static void registerJavaLangStringLatin1Intrinsics(CompilationContext ctxt) {
+        Intrinsics intrinsics = Intrinsics.get(ctxt);
+        ClassContext classContext = ctxt.getBootstrapClassContext();
+
+        ClassTypeDescriptor jlsl1Desc = ClassTypeDescriptor.synthesize(classContext, "java/lang/StringLatin1");
+        ClassTypeDescriptor arraySupportDesc = ClassTypeDescriptor.synthesize(classContext, "org/qbicc/runtime/main/ArraySupport");
+        ArrayTypeDescriptor byteArrayDesc = ArrayTypeDescriptor.of(classContext, BaseTypeDescriptor.B);
+
+        MethodDescriptor byteArrayByteArrayToBool = MethodDescriptor.synthesize(classContext, BaseTypeDescriptor.Z, List.of(byteArrayDesc, byteArrayDesc));
+        MethodDescriptor byteArrayToInt = MethodDescriptor.synthesize(classContext, BaseTypeDescriptor.I, List.of(byteArrayDesc));
+        MethodDescriptor byteArrayIntIntToInt = MethodDescriptor.synthesize(classContext, BaseTypeDescriptor.I, List.of(byteArrayDesc, BaseTypeDescriptor.I, BaseTypeDescriptor.I));
+
+        StaticIntrinsic redirect = redirectTo(arraySupportDesc);
+
+        intrinsics.registerIntrinsic(Phase.ANALYZE, jlsl1Desc, "equals", byteArrayByteArrayToBool, redirect);
+        intrinsics.registerIntrinsic(Phase.ANALYZE, jlsl1Desc, "hashCode", byteArrayToInt, redirect);
+        intrinsics.registerIntrinsic(Phase.ANALYZE, jlsl1Desc, "indexOf", byteArrayIntIntToInt, redirect);
+    }
+
+    public static void registerJavaUtilArraysIntrinsics(CompilationContext ctxt) {
+        Intrinsics intrinsics = Intrinsics.get(ctxt);
+        ClassContext classContext = ctxt.getBootstrapClassContext();
+
+        ClassTypeDescriptor arraysDesc = ClassTypeDescriptor.synthesize(classContext, "java/util/Arrays");
+        ClassTypeDescriptor arraysSupportDesc = ClassTypeDescriptor.synthesize(classContext, "jdk/internal/util/ArraysSupport");
+        ClassTypeDescriptor arraySupportDesc = ClassTypeDescriptor.synthesize(classContext, "org/qbicc/runtime/main/ArraySupport");
+
+        StaticIntrinsic redirect = redirectTo(arraySupportDesc);
+
+        // floating point arrays are excluded because their comparisons are not bitwise
+        for (BaseTypeDescriptor elementDesc : List.of(BaseTypeDescriptor.Z, BaseTypeDescriptor.B, BaseTypeDescriptor.C, BaseTypeDescriptor.S, BaseTypeDescriptor.I, BaseTypeDescriptor.J)) {
+            ArrayTypeDescriptor arrayDesc = ArrayTypeDescriptor.of(classContext, elementDesc);
+
+            MethodDescriptor fillDesc = MethodDescriptor.synthesize(classContext, BaseTypeDescriptor.V, List.of(arrayDesc, elementDesc));
+            MethodDescriptor fillRangeDesc = MethodDescriptor.synthesize(classContext, BaseTypeDescriptor.V, List.of(arrayDesc, BaseTypeDescriptor.I, BaseTypeDescriptor.I, elementDesc));
+            MethodDescriptor mismatchDesc = MethodDescriptor.synthesize(classContext, BaseTypeDescriptor.I, List.of(arrayDesc, arrayDesc, BaseTypeDescriptor.I));
+            MethodDescriptor mismatchRangeDesc = MethodDescriptor.synthesize(classContext, BaseTypeDescriptor.I, List.of(arrayDesc, BaseTypeDescriptor.I, arrayDesc, BaseTypeDescriptor.I, BaseTypeDescriptor.I));
+
+            intrinsics.registerIntrinsic(Phase.ANALYZE, arraysDesc, "fill", fillDesc, redirect);
+            intrinsics.registerIntrinsic(Phase.ANALYZE, arraysDesc, "fill", fillRangeDesc, redirect);
+            // Arrays.equals, Arrays.mismatch and Arrays.compare are all implemented in terms of these
+            intrinsics.registerIntrinsic(Phase.ANALYZE, arraysSupportDesc, "mismatch", mismatchDesc, redirect);
+            intrinsics.registerIntrinsic(Phase.ANALYZE, arraysSupportDesc, "mismatch", mismatchRangeDesc, redirect);
+        }
+    }
+
+    private static StaticIntrinsic redirectTo(ClassTypeDescriptor owner) {
+        return (builder, target, arguments) -> {
+            MethodElement method = target.getExecutable();
+            return builder.call(builder.staticMethod(owner, method.getName(), method.getDescriptor()), arguments);
+        };
+    }
+
     public static void registerJavaLangSystemIntrinsics(CompilationContext ctxt) {
         Intrinsics intrinsics = Intrinsics.get(ctxt);
         ClassContext classContext = ctxt.getBootstrapClassContext();
@@ -503,7 +575,26 @@ public final class CoreIntrinsics {
         StaticIntrinsic arraycopy = (builder, target, arguments) ->
             builder.call(builder.staticMethod(vmDesc, "arraycopy", target.getExecutable().getDescriptor()), arguments);
 
+        // once the array types are statically known, call the typed copy directly and skip the dispatch;
+        // this is deferred until ANALYZE so that the interpreter only ever sees the generic entry point
+        StaticIntrinsic typedArraycopy = (builder, target, arguments) -> {
+            ArrayTypeDescriptor srcArrayDesc = getArrayCopyTypeDescriptor(classContext, arguments.get(0));
+            ArrayTypeDescriptor destArrayDesc = getArrayCopyTypeDescriptor(classContext, arguments.get(2));
+            if (srcArrayDesc == null || ! srcArrayDesc.equals(destArrayDesc)) {
+                return null;
+            }
+            MethodDescriptor copyDesc = MethodDescriptor.synthesize(classContext, BaseTypeDescriptor.V, List.of(
+                srcArrayDesc,
+                BaseTypeDescriptor.I,
+                srcArrayDesc,
+                BaseTypeDescriptor.I,
+                BaseTypeDescriptor.I
+            ));
+            return builder.call(builder.staticMethod(vmDesc, "arraycopy", copyDesc), arguments);
+        };
+
         intrinsics.registerIntrinsic(systemDesc, "arraycopy", arraycopyDesc, arraycopy);
+        intrinsics.registerIntrinsic(Phase.ANALYZE, vmDesc, "arraycopy", arraycopyDesc, typedArraycopy);
 
         // identity hash code
 
@@ -645,6 +736,9 @@ public final class CoreIntrinsics {
 
         /* private native void setPriority0(int newPriority); */
         intrinsics.registerIntrinsic(jltDesc, "setPriority0", voidIntDesc, nopInstance);
+
+        /* private static native void clearInterruptEvent(); (only has an effect on Windows) */
+        intrinsics.registerIntrinsic(jltDesc, "clearInterruptEvent", voidDesc, nopStatic);
     }
 
     public static void registerJavaLangThrowableIntrinsics(CompilationContext ctxt) {
@@ -741,6 +835,7 @@ public final class CoreIntrinsics {
         CompoundType gmdType = mdTypes.getGlobalMethodDataType();
         CompoundType minfoType = mdTypes.getMethodInfoType();
         CompoundType scInfoType = mdTypes.getSourceCodeInfoType();
+        CompoundType fnInfoType = mdTypes.getFunctionInfoType();
 
         StaticIntrinsic getInstructionListSize = (builder, target, arguments) -> {
             GlobalVariable gmdVariable = (GlobalVariable) builder.globalVariable(mdTypes.getAndRegisterGlobalMethodData(builder.getCurrentElement()));
@@ -749,13 +844,74 @@ public final class CoreIntrinsics {
 
         intrinsics.registerIntrinsic(Phase.LOWER, mdDesc, "getInstructionListSize", voidToIntDesc, getInstructionListSize);
 
-        StaticIntrinsic getInstructionAddress = (builder, target, arguments) -> {
+        StaticIntrinsic getFunctionListSize = (builder, target, arguments) -> {
             GlobalVariable gmdVariable = (GlobalVariable) builder.globalVariable(mdTypes.getAndRegisterGlobalMethodData(builder.getCurrentElement()));
-            Value tablePointer = builder.load(builder.memberOf(gmdVariable, gmdType.getMember("instructionTable")));
+            return builder.load(builder.memberOf(gmdVariable, gmdType.getMember("functionTableSize")));
+        };
+
+        intrinsics.registerIntrinsic(Phase.LOWER, mdDesc, "getFunctionListSize", voidToIntDesc, getFunctionListSize);
+
+        StaticIntrinsic getFunctionAddress = (builder, target, arguments) -> {
+            GlobalVariable gmdVariable = (GlobalVariable) builder.globalVariable(mdTypes.getAndRegisterGlobalMethodData(builder.getCurrentElement()));
+            Value tablePointer = builder.load(builder.memberOf(gmdVariable, gmdType.getMember("functionTable")));
+
+            ValueHandle fnInfoHandle = builder.pointerHandle(builder.bitCast(tablePointer, fnInfoType.getPointer()), arguments.get(0));
+            return builder.load(builder.memberOf(fnInfoHandle, fnInfoType.getMember("address")));
+        };
+
+        intrinsics.registerIntrinsic(Phase.LOWER, mdDesc, "getFunctionAddress", intToLongDesc, getFunctionAddress);
+
+        StaticIntrinsic getFunctionInstructionIndex = (builder, target, arguments) -> {
+            GlobalVariable gmdVariable = (GlobalVariable) builder.globalVariable(mdTypes.getAndRegisterGlobalMethodData(builder.getCurrentElement()));
+            Value tablePointer = builder.load(builder.memberOf(gmdVariable, gmdType.getMember("functionTable")));
+
+            ValueHandle fnInfoHandle = builder.pointerHandle(builder.bitCast(tablePointer, fnInfoType.getPointer()), arguments.get(0));
+            return builder.load(builder.memberOf(fnInfoHandle, fnInfoType.getMember("instructionIndex")));
+        };
+
+        intrinsics.registerIntrinsic(Phase.LOWER, mdDesc, "getFunctionInstructionIndex", intToIntDesc, getFunctionInstructionIndex);
+
+        StaticIntrinsic getFunctionOffsetIndex = (builder, target, arguments) -> {
+            GlobalVariable gmdVariable = (GlobalVariable) builder.globalVariable(mdTypes.getAndRegisterGlobalMethodData(builder.getCurrentElement()));
+            Value tablePointer = builder.load(builder.memberOf(gmdVariable, gmdType.getMember("functionTable")));
+
+            ValueHandle fnInfoHandle = builder.pointerHandle(builder.bitCast(tablePointer, fnInfoType.getPointer()), arguments.get(0));
+            return builder.load(builder.memberOf(fnInfoHandle, fnInfoType.getMember("offsetIndex")));
+        };
+
+        intrinsics.registerIntrinsic(Phase.LOWER, mdDesc, "getFunctionOffsetIndex", intToIntDesc, getFunctionOffsetIndex);
+
+        StaticIntrinsic getInstructionOffsetByte = (builder, target, arguments) -> {
+            GlobalVariable gmdVariable = (GlobalVariable) builder.globalVariable(mdTypes.getAndRegisterGlobalMethodData(builder.getCurrentElement()));
+            Value tablePointer = builder.load(builder.memberOf(gmdVariable, gmdType.getMember("instructionOffsetTable")));
+            return builder.extend(builder.load(builder.pointerHandle(tablePointer, arguments.get(0))), ctxt.getTypeSystem().getSignedInteger32Type());
+        };
+
+        intrinsics.registerIntrinsic(Phase.LOWER, mdDesc, "getInstructionOffsetByte", intToIntDesc, getInstructionOffsetByte);
+
+        StaticIntrinsic getGcRootIndex = (builder, target, arguments) -> {
+            GlobalVariable gmdVariable = (GlobalVariable) builder.globalVariable(mdTypes.getAndRegisterGlobalMethodData(builder.getCurrentElement()));
+            Value tablePointer = builder.load(builder.memberOf(gmdVariable, gmdType.getMember("gcRootIndexTable")));
             return builder.load(builder.pointerHandle(tablePointer, arguments.get(0)));
         };
 
-        intrinsics.registerIntrinsic(Phase.LOWER, mdDesc, "getInstructionAddress", intToLongDesc, getInstructionAddress);
+        intrinsics.registerIntrinsic(Phase.LOWER, mdDesc, "getGcRootIndex", intToIntDesc, getGcRootIndex);
+
+        CompoundType gcRootType = mdTypes.getGcRootType();
+        for (String memberName : List.of("baseRegister", "baseOffset", "derivedRegister", "derivedOffset")) {
+            StaticIntrinsic getGcRootMember = (builder, target, arguments) -> {
+                GlobalVariable gmdVariable = (GlobalVariable) builder.globalVariable(mdTypes.getAndRegisterGlobalMethodData(builder.getCurrentElement()));
+                Value tablePointer = builder.load(builder.memberOf(gmdVariable, gmdType.getMember("gcRootTable")));
+
+                ValueHandle gcRootHandle = builder.pointerHandle(builder.bitCast(tablePointer, gcRootType.getPointer()), arguments.get(0));
+                Value value = builder.load(builder.memberOf(gcRootHandle, gcRootType.getMember(memberName)));
+                // registers are unsigned 16-bit numbers
+                return value.getType().getSize() < 4 ? builder.extend(value, ctxt.getTypeSystem().getSignedInteger32Type()) : value;
+            };
+
+            String name = "getGcRoot" + Character.toUpperCase(memberName.charAt(0)) + memberName.substring(1);
+            intrinsics.registerIntrinsic(Phase.LOWER, mdDesc, name, intToIntDesc, getGcRootMember);
+        }
 
         StaticIntrinsic getSourceCodeInfoIndex = (builder, target, arguments) -> {
             GlobalVariable gmdVariable = (GlobalVariable) builder.globalVariable(mdTypes.getAndRegisterGlobalMethodData(builder.getCurrentElement()));
@@ -855,6 +1011,16 @@ public final class CoreIntrinsics {
 
         intrinsics.registerIntrinsic(Phase.LOWER, mdDesc, "getModifiers", intToIntDesc, getModifiers);
 
+        StaticIntrinsic getFlags = (builder, target, arguments) -> {
+            GlobalVariable gmdVariable = (GlobalVariable) builder.globalVariable(mdTypes.getAndRegisterGlobalMethodData(builder.getCurrentElement()));
+            Value tablePointer = builder.load(builder.memberOf(gmdVariable, gmdType.getMember("methodInfoTable")));
+
+            ValueHandle minfoHandle = builder.pointerHandle(builder.bitCast(tablePointer, minfoType.getPointer()), arguments.get(0));
+            return builder.load(builder.memberOf(minfoHandle, minfoType.getMember("flags")));
+        };
+
+        intrinsics.registerIntrinsic(Phase.LOWER, mdDesc, "getFlags", intToIntDesc, getFlags);
+
         String methodDataClass = "org/qbicc/runtime/stackwalk/MethodData";
         MethodElement getLineNumberElement = methodFinder.getMethod(methodDataClass, "getLineNumber");
         MethodElement getMethodInfoIndexElement = methodFinder.getMethod(methodDataClass, "getMethodInfoIndex");
@@ -939,19 +1105,54 @@ public final class CoreIntrinsics {
         intrinsics.registerIntrinsic(integerDesc, "remainderUnsigned", binaryIntDesc, remainderUnsigned);
         intrinsics.registerIntrinsic(longDesc, "remainderUnsigned", binaryLongDesc, remainderUnsigned);
 
-        /* LLVM backend doesn't understand ror and rol, so avoid generating them
+        // the rotation distance is always an int, but the graph nodes expect both operands to have the same type
         StaticIntrinsic ror = (builder, target, arguments) ->
-            builder.ror(arguments.get(0), arguments.get(1));
+            builder.ror(arguments.get(0), widenShiftDistance(builder, arguments.get(0), arguments.get(1)));
 
         StaticIntrinsic rol = (builder, target, arguments) ->
-            builder.rol(arguments.get(0), arguments.get(1));
+            builder.rol(arguments.get(0), widenShiftDistance(builder, arguments.get(0), arguments.get(1)));
 
         intrinsics.registerIntrinsic(integerDesc, "rotateRight", binaryIntDesc, ror);
         intrinsics.registerIntrinsic(longDesc, "rotateRight", longIntDesc, ror);
 
         intrinsics.registerIntrinsic(integerDesc, "rotateLeft", binaryIntDesc, rol);
         intrinsics.registerIntrinsic(longDesc, "rotateLeft", longIntDesc, rol);
-        */
+
+        // unary bit operations
+
+        MethodDescriptor charToCharDesc = MethodDescriptor.synthesize(classContext, BaseTypeDescriptor.C, List.of(BaseTypeDescriptor.C));
+        MethodDescriptor intToIntDesc = MethodDescriptor.synthesize(classContext, BaseTypeDescriptor.I, List.of(BaseTypeDescriptor.I));
+        MethodDescriptor longToIntDesc = MethodDescriptor.synthesize(classContext, BaseTypeDescriptor.I, List.of(BaseTypeDescriptor.J));
+        MethodDescriptor longToLongDesc = MethodDescriptor.synthesize(classContext, BaseTypeDescriptor.J, List.of(BaseTypeDescriptor.J));
+        MethodDescriptor shortToShortDesc = MethodDescriptor.synthesize(classContext, BaseTypeDescriptor.S, List.of(BaseTypeDescriptor.S));
+
+        StaticIntrinsic numberOfLeadingZeros = (builder, target, arguments) ->
+            builder.countLeadingZeros(arguments.get(0));
+        StaticIntrinsic numberOfTrailingZeros = (builder, target, arguments) ->
+            builder.countTrailingZeros(arguments.get(0));
+        StaticIntrinsic bitCount = (builder, target, arguments) ->
+            builder.populationCount(arguments.get(0));
+        StaticIntrinsic reverseBytes = (builder, target, arguments) ->
+            builder.byteSwap(arguments.get(0));
+        StaticIntrinsic reverse = (builder, target, arguments) ->
+            builder.bitReverse(arguments.get(0));
+
+        intrinsics.registerIntrinsic(integerDesc, "numberOfLeadingZeros", intToIntDesc, numberOfLeadingZeros);
+        intrinsics.registerIntrinsic(longDesc, "numberOfLeadingZeros", longToIntDesc, numberOfLeadingZeros);
+
+        intrinsics.registerIntrinsic(integerDesc, "numberOfTrailingZeros", intToIntDesc, numberOfTrailingZeros);
+        intrinsics.registerIntrinsic(longDesc, "numberOfTrailingZeros", longToIntDesc, numberOfTrailingZeros);
+
+        intrinsics.registerIntrinsic(integerDesc, "bitCount", intToIntDesc, bitCount);
+        intrinsics.registerIntrinsic(longDesc, "bitCount", longToIntDesc, bitCount);
+
+        intrinsics.registerIntrinsic(characterDesc, "reverseBytes", charToCharDesc, reverseBytes);
+        intrinsics.registerIntrinsic(shortDesc, "reverseBytes", shortToShortDesc, reverseBytes);
+        intrinsics.registerIntrinsic(integerDesc, "reverseBytes", intToIntDesc, reverseBytes);
+        intrinsics.registerIntrinsic(longDesc, "reverseBytes", longToLongDesc, reverseBytes);
+
+        intrinsics.registerIntrinsic(integerDesc, "reverse", intToIntDesc, reverse);
+        intrinsics.registerIntrinsic(longDesc, "reverse", longToLongDesc, reverse);
 
         StaticIntrinsic compare = (builder, target, arguments) ->
             builder.cmp(arguments.get(0), arguments.get(1));
@@ -1000,6 +1201,11 @@ public final class CoreIntrinsics {
         intrinsics.registerIntrinsic(doubleDesc, "longBitsToDouble", longToDoubleMethodDesc, longBitsToDouble);
     }
 
+    private static Value widenShiftDistance(BasicBlockBuilder builder, Value value, Value distance) {
+        IntegerType valueType = (IntegerType) value.getType();
+        return distance.getType().equals(valueType) ? distance : builder.extend(distance, valueType);
+    }
+
     static Value asUnsigned(BasicBlockBuilder builder, Value value) {
         IntegerType type = (IntegerType) value.getType();
         return builder.bitCast(value, type.asUnsigned());
@@ -1021,16 +1227,50 @@ public final class CoreIntrinsics {
 
         intrinsics.registerIntrinsic(Phase.ADD, objDesc, "getClass", getClassDesc, getClassIntrinsic);
 
-        // TODO: replace this do nothing stub of notifyAll with real implementation
-        MethodDescriptor notifyAllDesc = MethodDescriptor.synthesize(classContext, BaseTypeDescriptor.V, List.of());
-        InstanceIntrinsic notifyAllIntrinsic = (builder, instance, target, arguments) -> 
-            ctxt.getLiteralFactory().zeroInitializerLiteralOfType(ctxt.getTypeSystem().getVoidType()); // Do nothing
-        intrinsics.registerIntrinsic(objDesc, "notifyAll", notifyAllDesc, notifyAllIntrinsic);
+        // wait, notify, and notifyAll are registered by the object monitor plugin
+    }
 
-        // stub - public final native void wait(long timeoutMillis)
-        MethodDescriptor waitDesc = MethodDescriptor.synthesize(classContext, BaseTypeDescriptor.V, List.of(BaseTypeDescriptor.J));
-        InstanceIntrinsic wait = (builder, instance, target, arguments) -> ctxt.getLiteralFactory().zeroInitializerLiteralOfType(target.getExecutable().getType().getReturnType());
-        intrinsics.registerIntrinsic(objDesc, "wait", waitDesc, wait);
+    /**
+     * Get the descriptor of the typed {@code VM.arraycopy} variant which accepts the given array value, if its
+     * array type is statically known.
+     *
+     * @param classContext the class context
+     * @param value the array argument
+     * @return the array type descriptor, or {@code null} if the value is not statically known to be an array
+     */
+    private static ArrayTypeDescriptor getArrayCopyTypeDescriptor(ClassContext classContext, Value value) {
+        if (! (value.getType() instanceof ReferenceType rt)) {
+            return null;
+        }
+        PhysicalObjectType upperBound = rt.getUpperBound();
+        if (upperBound instanceof ReferenceArrayObjectType) {
+            return ArrayTypeDescriptor.of(classContext, ClassTypeDescriptor.synthesize(classContext, "java/lang/Object"));
+        } else if (upperBound instanceof PrimitiveArrayObjectType pat) {
+            TypeSystem ts = classContext.getCompilationContext().getTypeSystem();
+            WordType elementType = pat.getElementType();
+            BaseTypeDescriptor elementDesc;
+            if (elementType.equals(ts.getSignedInteger8Type())) {
+                elementDesc = BaseTypeDescriptor.B;
+            } else if (elementType.equals(ts.getSignedInteger16Type())) {
+                elementDesc = BaseTypeDescriptor.S;
+            } else if (elementType.equals(ts.getUnsignedInteger16Type())) {
+                elementDesc = BaseTypeDescriptor.C;
+            } else if (elementType.equals(ts.getSignedInteger32Type())) {
+                elementDesc = BaseTypeDescriptor.I;
+            } else if (elementType.equals(ts.getSignedInteger64Type())) {
+                elementDesc = BaseTypeDescriptor.J;
+            } else if (elementType.equals(ts.getFloat32Type())) {
+                elementDesc = BaseTypeDescriptor.F;
+            } else if (elementType.equals(ts.getFloat64Type())) {
+                elementDesc = BaseTypeDescriptor.D;
+            } else if (elementType.equals(ts.getBooleanType())) {
+                elementDesc = BaseTypeDescriptor.Z;
+            } else {
+                return null;
+            }
+            return ArrayTypeDescriptor.of(classContext, elementDesc);
+        }
+        return null;
     }
 
     static void registerOrgQbiccCompilerIntrinsics(final CompilationContext ctxt) {
@@ -1070,14 +1310,23 @@ public final class CoreIntrinsics {
             Value size32 = builder.load(builder.instanceFieldOf(builder.referenceHandle(cls), coreClasses.getClassInstanceSizeField()));
             Value size = builder.extend(size32, ctxt.getTypeSystem().getSignedInteger64Type());
 
-            // TODO: This is a kludge in multiple ways:
-            //  1. We should not directly call a NoGc method here.
-            //  2. We are overwriting the object header fields initialized by new when doing the copy
-            //     (to make sure we copy any instance fields that have been assigned to use the padding bytes in the basic object header).
-            MethodElement method = NoGc.get(ctxt).getCopyMethod();
+            // TODO: This is a kludge:
+            //  We are overwriting the object header fields initialized by new when doing the copy
+            //  (to make sure we copy any instance fields that have been assigned to use the padding bytes in the basic object header).
+            MethodElement method = RuntimeMethodFinder.get(ctxt).getMethod("copyInstanceFields");
             return builder.call(builder.staticMethod(method, method.getDescriptor(), method.getType()), List.of(dst, src, size));
         };
         intrinsics.registerIntrinsic(Phase.LOWER, ciDesc, "copyInstanceFields", copyDesc, copy);
+
+        // collectors with a write barrier register an earlier intrinsic for this
+        MethodDescriptor writtenDesc = MethodDescriptor.synthesize(classContext, BaseTypeDescriptor.V, List.of(ArrayTypeDescriptor.of(classContext, objDesc), BaseTypeDescriptor.I, BaseTypeDescriptor.I));
+        StaticIntrinsic written = (builder, target, arguments) -> ctxt.getLiteralFactory().zeroInitializerLiteralOfType(ctxt.getTypeSystem().getVoidType());
+        intrinsics.registerIntrinsic(Phase.LOWER, ciDesc, "referenceArrayWritten", writtenDesc, written);
+
+        // this is folded while methods are added, so that the safepoint code is only reachable when it is enabled
+        MethodDescriptor emptyToBool = MethodDescriptor.synthesize(classContext, BaseTypeDescriptor.Z, List.of());
+        StaticIntrinsic hasSafepoints = (builder, target, arguments) -> ctxt.getLiteralFactory().literalOf(ctxt.getAttachmentOrDefault(SAFEPOINTS_KEY, Boolean.FALSE).booleanValue());
+        intrinsics.registerIntrinsic(Phase.ADD, ciDesc, "hasSafepoints", emptyToBool, hasSafepoints);
     }
 
     static void registerOrgQbiccObjectModelIntrinsics(final CompilationContext ctxt) {
@@ -1143,6 +1392,14 @@ public final class CoreIntrinsics {
         };
         intrinsics.registerIntrinsic(Phase.LOWER, ciDesc, "lengthOf", objIntDesc, lengthOf);
 
+        MethodDescriptor emptyToIntDesc = MethodDescriptor.synthesize(classContext, BaseTypeDescriptor.I, List.of());
+
+        StaticIntrinsic getReferenceSize = (builder, target, arguments) -> lf.literalOf(ctxt.getTypeSystem().getReferenceSize());
+        intrinsics.registerIntrinsic(Phase.LOWER, ciDesc, "getReferenceSize", emptyToIntDesc, getReferenceSize);
+
+        StaticIntrinsic getBooleanSize = (builder, target, arguments) -> lf.literalOf((int) ctxt.getTypeSystem().getBooleanType().getSize());
+        intrinsics.registerIntrinsic(Phase.LOWER, ciDesc, "getBooleanSize", emptyToIntDesc, getBooleanSize);
+
         StaticIntrinsic maxSubClassId = (builder, target, arguments) -> {
             GlobalVariableElement typeIdGlobal = tables.getAndRegisterGlobalTypeIdArray(builder.getCurrentElement());
             ValueHandle typeIdStruct = builder.elementOf(builder.globalVariable(typeIdGlobal), arguments.get(0));
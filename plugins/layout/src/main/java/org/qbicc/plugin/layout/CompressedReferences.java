@@ -0,0 +1,134 @@
+package org.qbicc.plugin.layout;
+
+import org.qbicc.context.AttachmentKey;
+import org.qbicc.context.CompilationContext;
+import org.qbicc.graph.BasicBlockBuilder;
+import org.qbicc.graph.Value;
+import org.qbicc.graph.literal.Literal;
+import org.qbicc.graph.literal.LiteralFactory;
+import org.qbicc.graph.literal.NullLiteral;
+import org.qbicc.object.DataDeclaration;
+import org.qbicc.type.ReferenceType;
+import org.qbicc.type.TypeSystem;
+import org.qbicc.type.UnsignedIntegerType;
+
+/**
+ * The compressed reference mode.  When it is enabled, reference fields of the target layout may be stored as 32-bit
+ * offsets from the heap base, which is a symbol that precedes the initial heap.  Every object which may be referenced
+ * from a compressed field must therefore be located within 4 GiB above the heap base.  The offset is not shifted,
+ * because the initial heap must be expressible as link-time constants.  The zero offset is occupied by the heap base
+ * itself and represents {@code null}.
+ */
+public final class CompressedReferences {
+    /**
+     * The name of the heap base symbol.
+     */
+    public static final String HEAP_BASE = "qbicc_compressed_heap_base";
+
+    private static final AttachmentKey<CompressedReferences> KEY = new AttachmentKey<>();
+
+    private final CompilationContext ctxt;
+    private final UnsignedIntegerType narrowType;
+    private final UnsignedIntegerType wideType;
+
+    private CompressedReferences(final CompilationContext ctxt) {
+        this.ctxt = ctxt;
+        TypeSystem ts = ctxt.getTypeSystem();
+        narrowType = ts.getUnsignedInteger32Type();
+        wideType = ts.getUnsignedInteger64Type();
+    }
+
+    /**
+     * Enable compressed references.  This must be done before the first phase begins.
+     *
+     * @param ctxt the compilation context (must not be {@code null})
+     */
+    public static void enable(CompilationContext ctxt) {
+        ctxt.computeAttachmentIfAbsent(KEY, () -> new CompressedReferences(ctxt));
+    }
+
+    /**
+     * Determine whether compressed references are enabled.
+     *
+     * @param ctxt the compilation context (must not be {@code null})
+     * @return {@code true} if compressed references are enabled, or {@code false} otherwise
+     */
+    public static boolean isEnabled(CompilationContext ctxt) {
+        return ctxt.getAttachment(KEY) != null;
+    }
+
+    /**
+     * Get the compressed reference mode.
+     *
+     * @param ctxt the compilation context (must not be {@code null})
+     * @return the compressed reference mode (not {@code null})
+     * @throws IllegalStateException if compressed references are not enabled
+     */
+    public static CompressedReferences get(CompilationContext ctxt) {
+        CompressedReferences compressedReferences = ctxt.getAttachment(KEY);
+        if (compressedReferences == null) {
+            throw new IllegalStateException("Compressed references are not enabled");
+        }
+        return compressedReferences;
+    }
+
+    /**
+     * Get the type of a compressed reference in memory.
+     *
+     * @return the narrow reference type (not {@code null})
+     */
+    public UnsignedIntegerType getNarrowType() {
+        return narrowType;
+    }
+
+    /**
+     * Get the type of the heap base symbol, which also reserves the zero offset.
+     *
+     * @return the heap base type (not {@code null})
+     */
+    public UnsignedIntegerType getHeapBaseType() {
+        return wideType;
+    }
+
+    /**
+     * Get the address of the heap base as a word, declaring the symbol in the section of the current element.
+     *
+     * @param fb the block builder (must not be {@code null})
+     * @return the heap base address (not {@code null})
+     */
+    public Value getHeapBaseAddress(BasicBlockBuilder fb) {
+        DataDeclaration decl = ctxt.getImplicitSection(fb.getRootElement()).declareData(null, HEAP_BASE, wideType);
+        return fb.valueConvert(ctxt.getLiteralFactory().literalOf(decl), wideType);
+    }
+
+    /**
+     * Compress a reference value.
+     *
+     * @param fb the block builder (must not be {@code null})
+     * @param reference the reference value (must not be {@code null})
+     * @return the compressed reference (not {@code null})
+     */
+    public Value encode(BasicBlockBuilder fb, Value reference) {
+        LiteralFactory lf = ctxt.getLiteralFactory();
+        Literal zero = lf.literalOf(narrowType, 0);
+        if (reference instanceof NullLiteral) {
+            return zero;
+        }
+        Value offset = fb.truncate(fb.sub(fb.valueConvert(reference, wideType), getHeapBaseAddress(fb)), narrowType);
+        return fb.select(fb.isEq(reference, lf.nullLiteralOfType((ReferenceType) reference.getType())), zero, offset);
+    }
+
+    /**
+     * Decompress a reference value.
+     *
+     * @param fb the block builder (must not be {@code null})
+     * @param narrow the compressed reference (must not be {@code null})
+     * @param type the type of the decompressed reference (must not be {@code null})
+     * @return the reference value (not {@code null})
+     */
+    public Value decode(BasicBlockBuilder fb, Value narrow, ReferenceType type) {
+        LiteralFactory lf = ctxt.getLiteralFactory();
+        Value reference = fb.valueConvert(fb.add(getHeapBaseAddress(fb), fb.extend(narrow, wideType)), type);
+        return fb.select(fb.isEq(narrow, lf.literalOf(narrowType, 0)), lf.nullLiteralOfType(type), reference);
+    }
+}
@@ -1,11 +1,15 @@
 package org.qbicc.plugin.layout;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.BitSet;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
 
 import io.smallrye.common.constraint.Assert;
 import org.qbicc.context.AttachmentKey;
@@ -22,21 +26,58 @@ import org.qbicc.type.definition.LoadedTypeDefinition;
 import org.qbicc.type.definition.element.FieldElement;
 
 /**
- *
+ * The memory layout of objects.  There are two layouts: the interpreter layout, which contains every instance field
+ * and is used for objects which exist at build time, and the target layout, which is used by the generated program.
+ * The two are the same unless an optimized target layout is installed using
+ * {@link #installOptimizedLayout(CompilationContext, Predicate, Predicate, ToIntFunction, Predicate)}.
  */
 public final class Layout {
     private static final AttachmentKey<Layout> KEY = new AttachmentKey<>();
+    private static final AttachmentKey<Layout> TARGET_KEY = new AttachmentKey<>();
 
     private final Map<LoadedTypeDefinition, LayoutInfo> instanceLayouts = new ConcurrentHashMap<>();
     private final Map<LoadedTypeDefinition, LayoutInfo> staticLayouts = new ConcurrentHashMap<>();
     private final Map<ObjectType, LayoutInfo> arrayLayouts = new ConcurrentHashMap<>();
     private final CompilationContext ctxt;
+    // the following are only set on an optimized layout
+    private final Layout interpreterLayout;
+    private final Predicate<FieldElement> retainField;
+    private final Predicate<LoadedTypeDefinition> preserveLayout;
+    private final ToIntFunction<FieldElement> fieldHotness;
+    private final Predicate<FieldElement> compressReference;
 
     private Layout(final CompilationContext ctxt) {
+        this(ctxt, null, null, null, null, null);
+    }
+
+    private Layout(final CompilationContext ctxt, final Layout interpreterLayout, final Predicate<FieldElement> retainField, final Predicate<LoadedTypeDefinition> preserveLayout, final ToIntFunction<FieldElement> fieldHotness, final Predicate<FieldElement> compressReference) {
         this.ctxt = ctxt;
+        this.interpreterLayout = interpreterLayout;
+        this.retainField = retainField;
+        this.preserveLayout = preserveLayout;
+        this.fieldHotness = fieldHotness;
+        this.compressReference = compressReference;
     }
 
+    /**
+     * Get the target layout, which is the layout of objects in the generated program.
+     *
+     * @param ctxt the compilation context (must not be {@code null})
+     * @return the target layout (not {@code null})
+     */
     public static Layout get(CompilationContext ctxt) {
+        Layout layout = ctxt.getAttachment(TARGET_KEY);
+        return layout != null ? layout : getForInterpreter(ctxt);
+    }
+
+    /**
+     * Get the interpreter layout, which is the layout of objects which are created at build time.  Every instance
+     * field has a member in this layout.
+     *
+     * @param ctxt the compilation context (must not be {@code null})
+     * @return the interpreter layout (not {@code null})
+     */
+    public static Layout getForInterpreter(CompilationContext ctxt) {
         Layout layout = ctxt.getAttachment(KEY);
         if (layout == null) {
             layout = new Layout(ctxt);
@@ -48,6 +89,60 @@ public final class Layout {
         return layout;
     }
 
+    /**
+     * Install an optimized target layout.  Instance fields which are not retained are omitted from the target layout,
+     * and the remaining fields are allocated from largest to smallest (or from hottest to coldest, if a hotness function is
+     * given) to minimize padding.  Types whose layout is preserved are laid out exactly like the interpreter layout;
+     * this must be used for types whose field offsets may have been observed at build time.  Since a layout depends on
+     * the layout of the superclass, the preserved types must include the superclasses of every preserved type.
+     * Reference fields of types which are not preserved may be stored as {@linkplain CompressedReferences compressed
+     * references}, which must be enabled in that case.
+     * The optimized layout must be installed before any target layout information is requested for code generation.
+     *
+     * @param ctxt the compilation context (must not be {@code null})
+     * @param retainField the predicate which determines whether an instance field is retained (must not be {@code null})
+     * @param preserveLayout the predicate which determines whether a type keeps the interpreter layout (must not be {@code null})
+     * @param fieldHotness the function which gives the relative access frequency of a field, or {@code null} to order by size only
+     * @param compressReference the predicate which determines whether a reference field is compressed, or {@code null} to compress no fields
+     * @return the installed layout (not {@code null})
+     */
+    public static Layout installOptimizedLayout(CompilationContext ctxt, Predicate<FieldElement> retainField, Predicate<LoadedTypeDefinition> preserveLayout, ToIntFunction<FieldElement> fieldHotness, Predicate<FieldElement> compressReference) {
+        Assert.checkNotNullParam("retainField", retainField);
+        Assert.checkNotNullParam("preserveLayout", preserveLayout);
+        if (compressReference != null && ! CompressedReferences.isEnabled(ctxt)) {
+            throw new IllegalStateException("Compressed references are not enabled");
+        }
+        Layout layout = new Layout(ctxt, getForInterpreter(ctxt), retainField, preserveLayout, fieldHotness, compressReference);
+        if (ctxt.putAttachmentIfAbsent(TARGET_KEY, layout) != null) {
+            throw new IllegalStateException("An optimized layout was already installed");
+        }
+        return layout;
+    }
+
+    /**
+     * Determine whether this layout omits instance fields.
+     *
+     * @return {@code true} if this is an optimized target layout, or {@code false} if all instance fields are present
+     */
+    public boolean isOptimized() {
+        return interpreterLayout != null;
+    }
+
+    /**
+     * Determine whether the given instance field is stored as a compressed reference in this layout.
+     *
+     * @param field the field (must not be {@code null})
+     * @return {@code true} if the field is present and holds a compressed reference, or {@code false} otherwise
+     */
+    public boolean isCompressedReference(FieldElement field) {
+        if (compressReference == null || field.isStatic() || ! (field.getType() instanceof ReferenceType)) {
+            return false;
+        }
+        CompoundType.Member member = getInstanceLayoutInfo(field.getEnclosingType()).getMember(field);
+        // preserved types keep full references
+        return member != null && ! (member.getType() instanceof ReferenceType);
+    }
+
     /**
      * Get the layout info for a reference array which is narrowed to the given type.
      *
@@ -95,6 +190,11 @@ public final class Layout {
         if (layoutInfo != null) {
             return layoutInfo;
         }
+        if (interpreterLayout != null && preserveLayout.test(validated)) {
+            layoutInfo = interpreterLayout.getInstanceLayoutInfo(validated);
+            LayoutInfo appearing = instanceLayouts.putIfAbsent(validated, layoutInfo);
+            return appearing != null ? appearing : layoutInfo;
+        }
         // ignore super class layout for native types
         LoadedTypeDefinition superClass = validated.getSuperClass();
         LayoutInfo superLayout;
@@ -113,12 +213,7 @@ public final class Layout {
         int cnt = validated.getFieldCount();
         Map<FieldElement, CompoundType.Member> fieldToMember = superLayout == null ? new HashMap<>(cnt) : new HashMap<>(superLayout.getFieldsMap());
         FieldElement trailingArray = null;
-        for (int i = 0; i < cnt; i ++) {
-            // todo: skip unused fields?
-            FieldElement field = validated.getField(i);
-            if (field.isStatic()) {
-                continue;
-            }
+        for (FieldElement field : getInstanceFieldsInAllocationOrder(validated)) {
             if (field.getType().getSize() == 0) {
                 Assert.assertTrue(trailingArray == null); // At most one trailing array per type!
                 trailingArray = field; // defer until all other fields are allocated
@@ -150,6 +245,27 @@ public final class Layout {
         return appearing != null ? appearing : layoutInfo;
     }
 
+    private List<FieldElement> getInstanceFieldsInAllocationOrder(LoadedTypeDefinition type) {
+        int cnt = type.getFieldCount();
+        List<FieldElement> fields = new ArrayList<>(cnt);
+        for (int i = 0; i < cnt; i ++) {
+            FieldElement field = type.getField(i);
+            if (! field.isStatic() && (retainField == null || retainField.test(field))) {
+                fields.add(field);
+            }
+        }
+        if (interpreterLayout != null) {
+            // allocating large fields first leaves fewer holes; the sort is stable so the declaration order breaks ties
+            Comparator<FieldElement> bySize = Comparator.comparingLong(f -> getMemberType(f).getSize());
+            if (fieldHotness == null) {
+                fields.sort(bySize.reversed());
+            } else {
+                fields.sort(Comparator.comparingInt(fieldHotness).thenComparing(bySize).reversed());
+            }
+        }
+        return fields;
+    }
+
     /**
      * Compute the static layout information of the given type.
      *
@@ -157,6 +273,10 @@ public final class Layout {
      * @return the layout info, or {@code null} if there are no static fields
      */
     public LayoutInfo getStaticLayoutInfo(DefinedTypeDefinition type) {
+        if (interpreterLayout != null) {
+            // static fields are never omitted
+            return interpreterLayout.getStaticLayoutInfo(type);
+        }
         LoadedTypeDefinition loaded = type.load();
         LayoutInfo layoutInfo = staticLayouts.get(loaded);
         if (layoutInfo != null) {
@@ -204,9 +324,16 @@ public final class Layout {
         }
     }
 
+    private ValueType getMemberType(FieldElement field) {
+        if (compressReference != null && ! field.isStatic() && field.getType() instanceof ReferenceType && compressReference.test(field)) {
+            return CompressedReferences.get(ctxt).getNarrowType();
+        }
+        return widenBoolean(field.getType());
+    }
+
     private CompoundType.Member computeMember(final BitSet allocated, final FieldElement field) {
         TypeSystem ts = ctxt.getTypeSystem();
-        ValueType fieldType = widenBoolean(field.getType());
+        ValueType fieldType = getMemberType(field);
         int size = (int) fieldType.getSize();
         int align = fieldType.getAlign();
         int idx;
@@ -1,11 +1,19 @@
 package org.qbicc.plugin.layout;
 
+import java.util.IdentityHashMap;
+import java.util.Map;
+
 import org.qbicc.context.CompilationContext;
 import org.qbicc.graph.BasicBlockBuilder;
+import org.qbicc.graph.BlockEarlyTermination;
+import org.qbicc.graph.CmpAndSwap;
 import org.qbicc.graph.DelegatingBasicBlockBuilder;
+import org.qbicc.graph.Node;
 import org.qbicc.graph.Value;
 import org.qbicc.graph.ValueHandle;
 import org.qbicc.graph.ValueHandleVisitor;
+import org.qbicc.graph.atomic.ReadAccessMode;
+import org.qbicc.graph.atomic.WriteAccessMode;
 import org.qbicc.plugin.coreclasses.CoreClasses;
 import org.qbicc.type.ArrayObjectType;
 import org.qbicc.type.CompoundType;
@@ -24,6 +32,8 @@ import org.qbicc.type.definition.element.FieldElement;
  */
 public class ObjectAccessLoweringBuilder extends DelegatingBasicBlockBuilder implements ValueHandleVisitor<Void, ValueHandle> {
     private final CompilationContext ctxt;
+    // handles to compressed reference fields, mapped to the type of the field
+    private final Map<ValueHandle, ReferenceType> compressedHandles = new IdentityHashMap<>();
 
     public ObjectAccessLoweringBuilder(final CompilationContext ctxt, final BasicBlockBuilder delegate) {
         super(delegate);
@@ -105,7 +115,53 @@ public class ObjectAccessLoweringBuilder extends DelegatingBasicBlockBuilder imp
         BasicBlockBuilder fb = getFirstBuilder();
         Layout layout = Layout.get(ctxt);
         LayoutInfo layoutInfo = layout.getInstanceLayoutInfo(field.getEnclosingType());
-        return fb.memberOf(instance, layoutInfo.getMember(field));
+        CompoundType.Member member = layoutInfo.getMember(field);
+        if (member == null) {
+            // stores to omitted fields are removed by the copier, so this field is read after all
+            ctxt.error(getLocation(), "Field \"%s\" of %s was omitted from the object layout but is accessed", field.getName(), field.getEnclosingType().getInternalName());
+            throw new BlockEarlyTermination(unreachable());
+        }
+        ValueHandle handle = fb.memberOf(instance, member);
+        if (layout.isCompressedReference(field)) {
+            compressedHandles.put(handle, (ReferenceType) field.getType());
+        }
+        return handle;
+    }
+
+    @Override
+    public Value load(ValueHandle handle, ReadAccessMode accessMode) {
+        ReferenceType type = compressedHandles.get(handle);
+        if (type != null) {
+            return CompressedReferences.get(ctxt).decode(getFirstBuilder(), super.load(handle, accessMode), type);
+        }
+        return super.load(handle, accessMode);
+    }
+
+    @Override
+    public Node store(ValueHandle handle, Value value, WriteAccessMode accessMode) {
+        if (compressedHandles.containsKey(handle)) {
+            return super.store(handle, CompressedReferences.get(ctxt).encode(getFirstBuilder(), value), accessMode);
+        }
+        return super.store(handle, value, accessMode);
+    }
+
+    @Override
+    public Value getAndSet(ValueHandle target, Value update, ReadAccessMode readMode, WriteAccessMode writeMode) {
+        checkNotCompressed(target);
+        return super.getAndSet(target, update, readMode, writeMode);
+    }
+
+    @Override
+    public Value cmpAndSwap(ValueHandle target, Value expect, Value update, ReadAccessMode readMode, WriteAccessMode writeMode, CmpAndSwap.Strength strength) {
+        checkNotCompressed(target);
+        return super.cmpAndSwap(target, expect, update, readMode, writeMode, strength);
+    }
+
+    private void checkNotCompressed(ValueHandle target) {
+        if (compressedHandles.containsKey(target)) {
+            // the reachability analysis keeps atomically updated fields uncompressed
+            ctxt.error(getLocation(), "Atomic update of a compressed reference field");
+        }
     }
 
     @Override
@@ -0,0 +1,42 @@
+package org.qbicc.plugin.layout;
+
+import org.qbicc.context.CompilationContext;
+import org.qbicc.graph.BasicBlock;
+import org.qbicc.graph.InstanceFieldOf;
+import org.qbicc.graph.Node;
+import org.qbicc.graph.NodeVisitor;
+import org.qbicc.graph.Store;
+import org.qbicc.graph.Value;
+import org.qbicc.graph.ValueHandle;
+import org.qbicc.type.definition.element.FieldElement;
+
+/**
+ * A copier which removes stores to instance fields that were omitted from the target layout because they are never
+ * read.
+ */
+public final class OmittedFieldCopier implements NodeVisitor.Delegating<Node.Copier, Value, Node, BasicBlock, ValueHandle> {
+    private final CompilationContext ctxt;
+    private final NodeVisitor<Node.Copier, Value, Node, BasicBlock, ValueHandle> delegate;
+
+    public OmittedFieldCopier(CompilationContext ctxt, NodeVisitor<Node.Copier, Value, Node, BasicBlock, ValueHandle> delegate) {
+        this.ctxt = ctxt;
+        this.delegate = delegate;
+    }
+
+    @Override
+    public NodeVisitor<Node.Copier, Value, Node, BasicBlock, ValueHandle> getDelegateNodeVisitor() {
+        return delegate;
+    }
+
+    @Override
+    public Node visit(Node.Copier param, Store node) {
+        if (node.getValueHandle() instanceof InstanceFieldOf ifo) {
+            FieldElement field = ifo.getVariableElement();
+            if (Layout.get(ctxt).getInstanceLayoutInfo(field.getEnclosingType()).getMember(field) == null) {
+                param.copyNode(node.getDependency());
+                return param.getBlockBuilder().nop();
+            }
+        }
+        return getDelegateNodeVisitor().visit(param, node);
+    }
+}
@@ -118,6 +118,27 @@ public class LLVMCompatibleBasicBlockBuilder extends DelegatingBasicBlockBuilder
         return getFirstBuilder().callNoSideEffects(pointerHandle(lf.literalOf(declaration)), List.of(v));
     }
 
+    @Override
+    public Value rol(Value v1, Value v2) {
+        return funnelShift("llvm.fshl.i", v1, v2);
+    }
+
+    @Override
+    public Value ror(Value v1, Value v2) {
+        return funnelShift("llvm.fshr.i", v1, v2);
+    }
+
+    private Value funnelShift(String funcPrefix, Value v, Value distance) {
+        TypeSystem tps = ctxt.getTypeSystem();
+        IntegerType inputType = (IntegerType) v.getType();
+        FunctionType functionType = tps.getFunctionType(inputType, inputType, inputType, inputType);
+        // a funnel shift of a value with itself is a rotate; the distance is taken modulo the bit width
+        String functionName = funcPrefix + inputType.getMinBits();
+        FunctionDeclaration declaration = ctxt.getImplicitSection(getRootElement()).declareFunction(null, functionName, functionType);
+        final LiteralFactory lf = ctxt.getLiteralFactory();
+        return getFirstBuilder().callNoSideEffects(pointerHandle(lf.literalOf(declaration)), List.of(v, v, distance));
+    }
+
     @Override
     public Value bitReverse(Value v) {
         TypeSystem tps = ctxt.getTypeSystem();
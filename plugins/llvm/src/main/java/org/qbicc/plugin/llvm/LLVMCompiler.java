@@ -3,6 +3,7 @@ package org.qbicc.plugin.llvm;
 import org.qbicc.context.CompilationContext;
 import org.qbicc.context.Location;
 import org.qbicc.driver.Driver;
+import org.qbicc.machine.llvm.Module;
 import org.qbicc.machine.tool.CCompilerInvoker;
 import org.qbicc.machine.tool.CToolChain;
 import org.qbicc.machine.tool.ToolMessageHandler;
@@ -15,16 +16,35 @@ import org.qbicc.tool.llvm.OptInvoker;
 import org.qbicc.tool.llvm.OptPass;
 import org.qbicc.tool.llvm.OutputFormat;
 import org.qbicc.tool.llvm.RelocationModel;
+import org.qbicc.type.definition.DefinedTypeDefinition;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 
 public class LLVMCompiler {
     private final LlcInvoker llcInvoker;
     private final OptInvoker optInvoker;
     private final CCompilerInvoker ccInvoker;
+    private final boolean bitcode;
 
     public LLVMCompiler(CompilationContext context, boolean isPie) {
+        this(context, isPie, false);
+    }
+
+    /**
+     * Construct a new instance.
+     *
+     * @param context the compilation context
+     * @param isPie {@code true} to generate position independent code
+     * @param bitcode {@code true} to hand in-memory modules to {@code opt} as bitcode, or {@code false} to use the
+     *      textual IR
+     */
+    public LLVMCompiler(CompilationContext context, boolean isPie, boolean bitcode) {
+        this.bitcode = bitcode;
         llcInvoker = createLlcInvoker(context, isPie);
         optInvoker = createOptInvoker(context);
         ccInvoker = createCCompilerInvoker(context);
@@ -34,7 +54,7 @@ public class LLVMCompiler {
         CToolChain cToolChain = context.getAttachment(Driver.C_TOOL_CHAIN_KEY);
 
         String moduleName = modulePath.getFileName().toString();
-        if (moduleName.endsWith(".ll")) {
+        if (moduleName.endsWith(".ll") || moduleName.endsWith(".bc")) {
             String baseName = moduleName.substring(0, moduleName.length() - 3);
             String optBitCodeName = baseName + "_opt.bc";
             String assemblyName = baseName + ".s";
@@ -71,20 +91,73 @@ public class LLVMCompiler {
             }
 
             // now compile it
-            ccInvoker.setSource(InputSource.from(assemblyPath));
-            ccInvoker.setOutputPath(objectPath);
-            try {
-                ccInvoker.invoke();
-            } catch (IOException e) {
-                context.error("Compiler invocation has failed for %s: %s", modulePath, e.toString());
-                return;
-            }
-            Linker.get(context).addObjectFilePath(objectPath);
+            assemble(context, InputSource.from(assemblyPath), objectPath, modulePath);
         } else {
             context.warning("Ignoring unknown module file name \"%s\"", modulePath);
         }
     }
 
+    /**
+     * Compile the given module without writing any intermediate files.  The module is written directly into the
+     * input of {@code opt}, whose output is piped into {@code llc}; the resultant assembly is then piped into the
+     * C compiler.
+     *
+     * @param context the compilation context
+     * @param def the type definition of the module
+     * @param module the module to compile
+     */
+    public void compileModule(final CompilationContext context, DefinedTypeDefinition def, Module module) {
+        CToolChain cToolChain = context.getAttachment(Driver.C_TOOL_CHAIN_KEY);
+        Path objectPath = context.getOutputFile(def, cToolChain.getPlatform().getObjectType().objectSuffix());
+        try {
+            Path parent = objectPath.getParent();
+            if (! Files.exists(parent)) {
+                Files.createDirectories(parent);
+            }
+        } catch (IOException e) {
+            context.error("Failed to create output directory for \"%s\": %s", objectPath, e.getMessage());
+            return;
+        }
+        StringBuilder assembly = new StringBuilder();
+        llcInvoker.setSource(InputSource.empty());
+        llcInvoker.setDestination(OutputDestination.of(assembly, StandardCharsets.UTF_8));
+        if (bitcode) {
+            optInvoker.setSource(InputSource.from(Module::writeBitcodeTo, module));
+        } else {
+            optInvoker.setSource(InputSource.from(LLVMCompiler::writeModule, module, StandardCharsets.UTF_8));
+        }
+        optInvoker.setDestination(llcInvoker.invokerAsDestination());
+        int errCnt = context.errors();
+        try {
+            optInvoker.invoke();
+        } catch (IOException e) {
+            if (errCnt == context.errors()) {
+                // whatever the problem was, it wasn't reported, so add an additional error here
+                context.error(Location.builder().setSourceFilePath(objectPath.toString()).build(), "`opt` | `llc` invocation has failed: %s", e.toString());
+            }
+            return;
+        }
+        assemble(context, InputSource.from(assembly), objectPath, objectPath);
+    }
+
+    private void assemble(final CompilationContext context, InputSource source, Path objectPath, Path modulePath) {
+        ccInvoker.setSource(source);
+        ccInvoker.setOutputPath(objectPath);
+        try {
+            ccInvoker.invoke();
+        } catch (IOException e) {
+            context.error("Compiler invocation has failed for %s: %s", modulePath, e.toString());
+            return;
+        }
+        Linker.get(context).addObjectFilePath(objectPath);
+    }
+
+    private static void writeModule(Module module, Writer writer) throws IOException {
+        BufferedWriter bufferedWriter = new BufferedWriter(writer);
+        module.writeTo(bufferedWriter);
+        bufferedWriter.flush();
+    }
+
     private static CCompilerInvoker createCCompilerInvoker(CompilationContext context) {
         CToolChain cToolChain = context.getAttachment(Driver.C_TOOL_CHAIN_KEY);
         if (cToolChain == null) {
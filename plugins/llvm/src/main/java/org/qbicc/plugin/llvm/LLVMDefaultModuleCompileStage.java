@@ -1,22 +1,32 @@
 package org.qbicc.plugin.llvm;
 
 import org.qbicc.context.CompilationContext;
+import org.qbicc.object.ProgramModule;
 
 import java.nio.file.Path;
 import java.util.function.Consumer;
 
 public class LLVMDefaultModuleCompileStage implements Consumer<CompilationContext> {
     private final boolean isPie;
+    private final boolean keepIr;
+    private final boolean bitcode;
 
-    public LLVMDefaultModuleCompileStage(boolean isPie) {
+    public LLVMDefaultModuleCompileStage(boolean isPie, boolean keepIr, boolean bitcode) {
         this.isPie = isPie;
+        this.keepIr = keepIr;
+        this.bitcode = bitcode;
     }
 
     @Override
     public void accept(CompilationContext context) {
-        LLVMModuleGenerator generator = new LLVMModuleGenerator(context, isPie ? 2 : 0, isPie ? 2 : 0);
-        Path modulePath = generator.processProgramModule(context.getProgramModule(context.getDefaultTypeDefinition()));
-        LLVMCompiler compiler = new LLVMCompiler(context, isPie);
-        compiler.compileModule(context, modulePath);
+        LLVMModuleGenerator generator = new LLVMModuleGenerator(context, isPie ? 2 : 0, isPie ? 2 : 0, bitcode);
+        ProgramModule programModule = context.getProgramModule(context.getDefaultTypeDefinition());
+        LLVMCompiler compiler = new LLVMCompiler(context, isPie, bitcode);
+        if (keepIr) {
+            Path modulePath = generator.processProgramModule(programModule);
+            compiler.compileModule(context, modulePath);
+        } else {
+            compiler.compileModule(context, programModule.getTypeDefinition(), generator.generateModule(programModule));
+        }
     }
 }
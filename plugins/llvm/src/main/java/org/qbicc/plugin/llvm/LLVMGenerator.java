@@ -47,17 +47,31 @@ import io.smallrye.common.constraint.Assert;
 public class LLVMGenerator implements Consumer<CompilationContext>, ValueVisitor<CompilationContext, LLValue> {
     private final int picLevel;
     private final int pieLevel;
+    private final boolean keepIr;
+    private final boolean bitcode;
 
-    public LLVMGenerator(final int picLevel, final int pieLevel) {
+    /**
+     * Construct a new instance.
+     *
+     * @param picLevel the PIC level, or 0 for non-PIC
+     * @param pieLevel the PIE level, or 0 for non-PIE
+     * @param keepIr {@code true} to write each module to an IR file which is compiled later by
+     *      {@link LLVMCompileStage}, or {@code false} to compile each module directly without any intermediate files
+     * @param bitcode {@code true} to hand modules to LLVM as bitcode, or {@code false} to use the textual IR
+     */
+    public LLVMGenerator(final int picLevel, final int pieLevel, final boolean keepIr, final boolean bitcode) {
         this.picLevel = picLevel;
         this.pieLevel = pieLevel;
+        this.keepIr = keepIr;
+        this.bitcode = bitcode;
     }
 
     public void accept(final CompilationContext compilationContext) {
-        LLVMModuleGenerator generator = new LLVMModuleGenerator(compilationContext, picLevel, pieLevel);
+        LLVMModuleGenerator generator = new LLVMModuleGenerator(compilationContext, picLevel, pieLevel, bitcode);
         List<ProgramModule> allProgramModules = compilationContext.getAllProgramModules();
         Iterator<ProgramModule> iterator = allProgramModules.iterator();
         compilationContext.runParallelTask(ctxt -> {
+            LLVMCompiler compiler = keepIr ? null : new LLVMCompiler(ctxt, pieLevel != 0, bitcode);
             for (;;) {
                 ProgramModule programModule;
                 synchronized (iterator) {
@@ -66,9 +80,13 @@ public class LLVMGenerator implements Consumer<CompilationContext>, ValueVisitor
                     }
                     programModule = iterator.next();
                 }
-                Path outputFile = generator.processProgramModule(programModule);
-                LLVMState llvmState = ctxt.computeAttachmentIfAbsent(LLVMState.KEY, LLVMState::new);
-                llvmState.addModulePath(outputFile);
+                if (compiler == null) {
+                    Path outputFile = generator.processProgramModule(programModule);
+                    LLVMState llvmState = ctxt.computeAttachmentIfAbsent(LLVMState.KEY, LLVMState::new);
+                    llvmState.addModulePath(outputFile);
+                } else {
+                    compiler.compileModule(ctxt, programModule.getTypeDefinition(), generator.generateModule(programModule));
+                }
             }
         });
     }
@@ -1,10 +1,12 @@
 package org.qbicc.plugin.llvm;
 
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.List;
 
 import org.qbicc.context.ClassContext;
 import org.qbicc.context.CompilationContext;
+import org.qbicc.driver.Phase;
 import org.qbicc.graph.AsmHandle;
 import org.qbicc.graph.BasicBlockBuilder;
 import org.qbicc.graph.BlockEarlyTermination;
@@ -21,8 +23,10 @@ import org.qbicc.graph.literal.ObjectLiteral;
 import org.qbicc.graph.literal.StringLiteral;
 import org.qbicc.graph.literal.TypeLiteral;
 import org.qbicc.interpreter.VmString;
+import org.qbicc.object.FunctionDeclaration;
 import org.qbicc.plugin.intrinsics.Intrinsics;
 import org.qbicc.plugin.intrinsics.StaticIntrinsic;
+import org.qbicc.type.FloatType;
 import org.qbicc.type.FunctionType;
 import org.qbicc.type.TypeSystem;
 import org.qbicc.type.ValueType;
@@ -154,6 +158,63 @@ public final class LLVMIntrinsics {
         };
 
         intrinsics.registerIntrinsic(stdArgDesc, "va_arg", vaListClassToThing, saVaArg);
+
+        registerMathIntrinsics(ctxt);
+    }
+
+    /**
+     * Map the floating point operations of {@code Math} and {@code StrictMath} which are exactly specified
+     * (and thus identical in both classes) to the corresponding LLVM intrinsic functions.  {@code copySign} is only
+     * mapped for {@code Math}, because the {@code StrictMath} variant differs for NaN sign arguments.
+     *
+     * @param ctxt the compilation context
+     */
+    private static void registerMathIntrinsics(CompilationContext ctxt) {
+        Intrinsics intrinsics = Intrinsics.get(ctxt);
+        ClassContext classContext = ctxt.getBootstrapClassContext();
+
+        ClassTypeDescriptor mathDesc = ClassTypeDescriptor.synthesize(classContext, "java/lang/Math");
+        ClassTypeDescriptor strictDesc = ClassTypeDescriptor.synthesize(classContext, "java/lang/StrictMath");
+
+        MethodDescriptor floatToFloat = MethodDescriptor.synthesize(classContext, BaseTypeDescriptor.F, List.of(BaseTypeDescriptor.F));
+        MethodDescriptor doubleToDouble = MethodDescriptor.synthesize(classContext, BaseTypeDescriptor.D, List.of(BaseTypeDescriptor.D));
+        MethodDescriptor floatFloatToFloat = MethodDescriptor.synthesize(classContext, BaseTypeDescriptor.F, List.of(BaseTypeDescriptor.F, BaseTypeDescriptor.F));
+        MethodDescriptor doubleDoubleToDouble = MethodDescriptor.synthesize(classContext, BaseTypeDescriptor.D, List.of(BaseTypeDescriptor.D, BaseTypeDescriptor.D));
+        MethodDescriptor floatFloatFloatToFloat = MethodDescriptor.synthesize(classContext, BaseTypeDescriptor.F, List.of(BaseTypeDescriptor.F, BaseTypeDescriptor.F, BaseTypeDescriptor.F));
+        MethodDescriptor doubleDoubleDoubleToDouble = MethodDescriptor.synthesize(classContext, BaseTypeDescriptor.D, List.of(BaseTypeDescriptor.D, BaseTypeDescriptor.D, BaseTypeDescriptor.D));
+
+        StaticIntrinsic sqrt = llvmMathIntrinsic(ctxt, "llvm.sqrt");
+        StaticIntrinsic fabs = llvmMathIntrinsic(ctxt, "llvm.fabs");
+        StaticIntrinsic floor = llvmMathIntrinsic(ctxt, "llvm.floor");
+        StaticIntrinsic ceil = llvmMathIntrinsic(ctxt, "llvm.ceil");
+        StaticIntrinsic rint = llvmMathIntrinsic(ctxt, "llvm.rint");
+        StaticIntrinsic copySign = llvmMathIntrinsic(ctxt, "llvm.copysign");
+        StaticIntrinsic fma = llvmMathIntrinsic(ctxt, "llvm.fma");
+
+        for (ClassTypeDescriptor desc : List.of(mathDesc, strictDesc)) {
+            intrinsics.registerIntrinsic(Phase.LOWER, desc, "sqrt", doubleToDouble, sqrt);
+            intrinsics.registerIntrinsic(Phase.LOWER, desc, "abs", floatToFloat, fabs);
+            intrinsics.registerIntrinsic(Phase.LOWER, desc, "abs", doubleToDouble, fabs);
+            intrinsics.registerIntrinsic(Phase.LOWER, desc, "floor", doubleToDouble, floor);
+            intrinsics.registerIntrinsic(Phase.LOWER, desc, "ceil", doubleToDouble, ceil);
+            intrinsics.registerIntrinsic(Phase.LOWER, desc, "rint", doubleToDouble, rint);
+            intrinsics.registerIntrinsic(Phase.LOWER, desc, "fma", floatFloatFloatToFloat, fma);
+            intrinsics.registerIntrinsic(Phase.LOWER, desc, "fma", doubleDoubleDoubleToDouble, fma);
+        }
+        // StrictMath treats a NaN sign argument as positive, which llvm.copysign does not
+        intrinsics.registerIntrinsic(Phase.LOWER, mathDesc, "copySign", floatFloatToFloat, copySign);
+        intrinsics.registerIntrinsic(Phase.LOWER, mathDesc, "copySign", doubleDoubleToDouble, copySign);
+    }
+
+    private static StaticIntrinsic llvmMathIntrinsic(CompilationContext ctxt, String funcPrefix) {
+        return (builder, target, arguments) -> {
+            TypeSystem ts = ctxt.getTypeSystem();
+            FloatType type = (FloatType) arguments.get(0).getType();
+            FunctionType functionType = ts.getFunctionType(type, Collections.nCopies(arguments.size(), type).toArray(ValueType[]::new));
+            String functionName = funcPrefix + ".f" + type.getMinBits();
+            FunctionDeclaration declaration = ctxt.getImplicitSection(builder.getRootElement()).declareFunction(null, functionName, functionType);
+            return builder.callNoSideEffects(builder.pointerHandle(ctxt.getLiteralFactory().literalOf(declaration)), arguments);
+        };
     }
 
     // flag values must match the LLVM runtime API class.
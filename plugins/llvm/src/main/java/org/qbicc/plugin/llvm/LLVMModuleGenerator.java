@@ -42,6 +42,7 @@ import org.qbicc.type.definition.element.ExecutableElement;
 
 import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
@@ -52,16 +53,45 @@ final class LLVMModuleGenerator {
     private final CompilationContext context;
     private final int picLevel;
     private final int pieLevel;
+    private final boolean bitcode;
 
-    LLVMModuleGenerator(final CompilationContext context, final int picLevel, final int pieLevel) {
+    LLVMModuleGenerator(final CompilationContext context, final int picLevel, final int pieLevel, final boolean bitcode) {
         this.context = context;
         this.picLevel = picLevel;
         this.pieLevel = pieLevel;
+        this.bitcode = bitcode;
     }
 
     public Path processProgramModule(final ProgramModule programModule) {
         DefinedTypeDefinition def = programModule.getTypeDefinition();
-        Path outputFile = context.getOutputFile(def, "ll");
+        Path outputFile = context.getOutputFile(def, bitcode ? "bc" : "ll");
+        final Module module = generateModule(programModule);
+        try {
+            Path parent = outputFile.getParent();
+            if (! Files.exists(parent)) {
+                Files.createDirectories(parent);
+            }
+            if (bitcode) {
+                try (OutputStream os = Files.newOutputStream(outputFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                    module.writeBitcodeTo(os);
+                }
+            } else {
+                try (BufferedWriter writer = Files.newBufferedWriter(outputFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                    module.writeTo(writer);
+                }
+            }
+        } catch (IOException e) {
+            context.error("Failed to write \"%s\": %s", outputFile, e.getMessage());
+            try {
+                Files.deleteIfExists(outputFile);
+            } catch (IOException e2) {
+                context.warning("Failed to clean \"%s\": %s", outputFile, e.getMessage());
+            }
+        }
+        return outputFile;
+    }
+
+    Module generateModule(final ProgramModule programModule) {
         final Module module = Module.newModule();
         final LLVMModuleNodeVisitor moduleVisitor = new LLVMModuleNodeVisitor(module, context);
         final LLVMModuleDebugInfo debugInfo = new LLVMModuleDebugInfo(module, context);
@@ -179,23 +209,7 @@ final class LLVMModuleGenerator {
                 }
             }
         }
-        try {
-            Path parent = outputFile.getParent();
-            if (! Files.exists(parent)) {
-                Files.createDirectories(parent);
-            }
-            try (BufferedWriter writer = Files.newBufferedWriter(outputFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
-                module.writeTo(writer);
-            }
-        } catch (IOException e) {
-            context.error("Failed to write \"%s\": %s", outputFile, e.getMessage());
-            try {
-                Files.deleteIfExists(outputFile);
-            } catch (IOException e2) {
-                context.warning("Failed to clean \"%s\": %s", outputFile, e.getMessage());
-            }
-        }
-        return outputFile;
+        return module;
     }
 
     private void processXtors(final List<GlobalXtor> xtors, final String xtorName, Module module, LLVMModuleNodeVisitor moduleVisitor) {
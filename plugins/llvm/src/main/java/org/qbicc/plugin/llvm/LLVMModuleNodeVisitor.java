@@ -20,6 +20,7 @@ import org.qbicc.graph.literal.BitCastLiteral;
 import org.qbicc.graph.literal.BooleanLiteral;
 import org.qbicc.graph.literal.ByteArrayLiteral;
 import org.qbicc.graph.literal.CompoundLiteral;
+import org.qbicc.graph.literal.CompressedReferenceLiteral;
 import org.qbicc.graph.literal.ElementOfLiteral;
 import org.qbicc.graph.literal.FloatLiteral;
 import org.qbicc.graph.literal.IntegerLiteral;
@@ -312,6 +313,13 @@ final class LLVMModuleNodeVisitor implements ValueVisitor<Void, LLValue> {
         return struct;
     }
 
+    public LLValue visit(final Void param, final CompressedReferenceLiteral node) {
+        // a difference of two symbols in the same section is resolved by the assembler
+        LLValue value = Values.ptrtointConstant(map(node.getValue()), map(node.getValue().getType()), i64);
+        LLValue base = Values.ptrtointConstant(map(node.getBase()), map(node.getBase().getType()), i64);
+        return Values.truncConstant(Values.subConstant(i64, value, base), i64, map(node.getType()));
+    }
+
     public LLValue visit(final Void param, final ElementOfLiteral node) {
         PointerType pointerType = (PointerType) node.getType();
         return Values.gepConstant(map(pointerType.getPointeeType()), map(pointerType), map(node.getValue()), map(node.getIndex().getType()), map(node.getIndex()));
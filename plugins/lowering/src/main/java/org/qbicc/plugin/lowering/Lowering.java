@@ -5,6 +5,7 @@ import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
 
 import org.qbicc.context.AttachmentKey;
 import org.qbicc.context.ClassContext;
@@ -132,6 +133,14 @@ public class Lowering {
         return global;
     }
 
+    /**
+     * Visit the statics global of every type whose static fields were used so far.
+     *
+     * @param visitor the visitor (must not be {@code null})
+     */
+    public void visitStaticsGlobals(BiConsumer<LoadedTypeDefinition, GlobalVariableElement> visitor) {
+        globals.forEach(visitor);
+    }
 
     LinkedHashSet<LocalVariableElement> createUsedVariableSet(ExecutableElement element) {
         final LinkedHashSet<LocalVariableElement> set = new LinkedHashSet<>();
@@ -25,6 +25,9 @@ public class VMHelpersSetupHook implements Consumer<CompilationContext> {
         ctxt.enqueue(methodFinder.getMethod("getClassFromTypeId"));
         ctxt.enqueue(methodFinder.getMethod("getSuperClass"));
 
+        // Object.clone
+        ctxt.enqueue(methodFinder.getMethod("copyInstanceFields"));
+
         // Helpers to create and throw common runtime exceptions
         ctxt.registerEntryPoint(methodFinder.getMethod("raiseAbstractMethodError"));
         ctxt.registerEntryPoint(methodFinder.getMethod("raiseArithmeticException"));
@@ -36,10 +39,6 @@ public class VMHelpersSetupHook implements Consumer<CompilationContext> {
         ctxt.registerEntryPoint(methodFinder.getMethod("raiseNullPointerException"));
         ctxt.registerEntryPoint(methodFinder.getMethod("raiseUnsatisfiedLinkError"));
 
-        // Object monitors
-        ctxt.enqueue(methodFinder.getMethod("monitorEnter"));
-        ctxt.enqueue(methodFinder.getMethod("monitorExit"));
-
         // class initialization
         ctxt.enqueue(methodFinder.getMethod("initializeClass"));
 
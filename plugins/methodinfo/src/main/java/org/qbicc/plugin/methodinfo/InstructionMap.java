@@ -6,11 +6,13 @@ final class InstructionMap {
     private int offset;
     private int sourceCodeIndex;
     private ExecutableElement function;
+    private int[] gcRoots;
 
-    InstructionMap(int offset, int sourceCodeIndex, ExecutableElement element) {
+    InstructionMap(int offset, int sourceCodeIndex, ExecutableElement element, int[] gcRoots) {
         this.offset = offset;
         this.sourceCodeIndex = sourceCodeIndex;
         this.function = element;
+        this.gcRoots = gcRoots;
     }
     public int getOffset() {
         return offset;
@@ -23,4 +25,14 @@ final class InstructionMap {
     public ExecutableElement getFunction() {
         return function;
     }
+
+    /**
+     * Get the GC roots of the instruction, as a sequence of base register, base offset, derived register, and derived
+     * offset for each root.
+     *
+     * @return the GC roots (not {@code null})
+     */
+    public int[] getGcRoots() {
+        return gcRoots;
+    }
 }
@@ -9,6 +9,7 @@ import org.qbicc.graph.literal.Literal;
 import org.qbicc.graph.literal.LiteralFactory;
 import org.qbicc.graph.literal.ProgramObjectLiteral;
 import org.qbicc.interpreter.Vm;
+import org.qbicc.machine.llvm.stackmap.LocationType;
 import org.qbicc.machine.llvm.stackmap.StackMap;
 import org.qbicc.machine.llvm.stackmap.StackMapVisitor;
 import org.qbicc.machine.object.ObjectFile;
@@ -19,18 +20,22 @@ import org.qbicc.object.Function;
 import org.qbicc.object.Section;
 import org.qbicc.plugin.linker.Linker;
 import org.qbicc.plugin.serialization.BuildtimeHeap;
+import org.qbicc.type.ClassObjectType;
 import org.qbicc.type.CompoundType;
+import org.qbicc.type.IntegerType;
 import org.qbicc.type.ReferenceType;
 import org.qbicc.type.TypeSystem;
 import org.qbicc.type.ValueType;
 import org.qbicc.type.WordType;
 import org.qbicc.type.definition.LoadedTypeDefinition;
+import org.qbicc.type.definition.classfile.ClassFile;
 import org.qbicc.type.definition.element.ConstructorElement;
 import org.qbicc.type.definition.element.ExecutableElement;
 import org.qbicc.type.definition.element.FunctionElement;
 import org.qbicc.type.definition.element.InitializerElement;
 import org.qbicc.type.definition.element.MethodElement;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.file.Path;
@@ -45,6 +50,9 @@ import java.util.stream.IntStream;
 
 public class MethodDataEmitter implements Consumer<CompilationContext> {
     private static final Logger slog = Logger.getLogger("org.qbicc.plugin.methodinfo.stats");
+    private static final int[] NO_GC_ROOTS = new int[0];
+
+    private final boolean emitGcRoots;
 
     // fields for accumulating stats
     private int methodInfoTableCount;
@@ -53,8 +61,26 @@ public class MethodDataEmitter implements Consumer<CompilationContext> {
     private int sourceCodeInfoTableSize;
     private int sourceCodeIndexListCount;
     private int sourceCodeIndexListSize;
-    private int instructionListCount;
-    private int instructionListSize;
+    private int functionTableCount;
+    private int functionTableSize;
+    private int instructionOffsetTableCount;
+    private int instructionOffsetTableSize;
+    private int gcRootTableCount;
+    private int gcRootTableSize;
+
+    public MethodDataEmitter() {
+        this(false);
+    }
+
+    /**
+     * Construct a new instance.
+     *
+     * @param emitGcRoots {@code true} to also emit the stack slots which hold references at each call site, which is
+     *      required by collectors that move objects
+     */
+    public MethodDataEmitter(boolean emitGcRoots) {
+        this.emitGcRoots = emitGcRoots;
+    }
 
     private int createMethodInfo(CompilationContext ctxt, MethodData methodData, ExecutableElement element) {
         String methodName = "";
@@ -83,7 +109,24 @@ public class MethodDataEmitter implements Consumer<CompilationContext> {
         ProgramObjectLiteral mdLiteral = btHeap.getSerializedVmObject(vm.intern(methodDesc));
         Assert.assertNotNull(mdLiteral);
 
-        return methodData.add(new MethodInfo(fnLiteral, mnLiteral, mdLiteral, typeId, element.getModifiers()));
+        return methodData.add(new MethodInfo(fnLiteral, mnLiteral, mdLiteral, typeId, element.getModifiers(), getFlags(ctxt, element, methodName)));
+    }
+
+    /**
+     * Precompute the stack walking flags of the method, so that frames can be skipped without comparing names at run time.
+     */
+    private int getFlags(CompilationContext ctxt, ExecutableElement element, String methodName) {
+        int flags = 0;
+        if (element.hasAllModifiersOf(ClassFile.I_ACC_HIDDEN)) {
+            flags |= MethodInfo.FLAG_HIDDEN;
+        }
+        if (methodName.equals("<init>") || methodName.equals("fillInStackTrace")) {
+            ClassObjectType throwable = ctxt.getBootstrapClassContext().findDefinedType("java/lang/Throwable").load().getClassType();
+            if (element.getEnclosingType().load().getType() instanceof ClassObjectType classType && classType.isSubtypeOf(throwable)) {
+                flags |= MethodInfo.FLAG_EXCEPTION_INIT;
+            }
+        }
+        return flags;
     }
 
     private int createSourceCodeInfo(CompilationContext ctxt, MethodData methodData, ExecutableElement element, int lineNumber, int bcIndex, int inlinedAtIndex) {
@@ -142,7 +185,7 @@ public class MethodDataEmitter implements Consumer<CompilationContext> {
                 int instructionOffset = record.getOffset();
                 Node node = callSiteInfo.getNodeForStatepointId((int)spId);
                 int scIndex = createSourceCodeInfo(ctxt, methodData, node);
-                methodData.add(index, new InstructionMap(instructionOffset, scIndex, getRootMethodOfInlineSequence(node)));
+                methodData.add(index, new InstructionMap(instructionOffset, scIndex, getRootMethodOfInlineSequence(node), record.getGcRoots()));
             }
         });
 
@@ -185,12 +228,14 @@ public class MethodDataEmitter implements Consumer<CompilationContext> {
             Literal mdLiteral = castHeapSymbolTo(ctxt, minfo.getMethodDescSymbolLiteral(), jlsRef);
             Literal typeIdLiteral = lf.literalOf(minfo.getTypeId());
             Literal modifiersLiteral = lf.literalOf(minfo.getModifiers());
+            Literal flagsLiteral = lf.literalOf(minfo.getFlags());
 
             valueMap.put(methodInfoType.getMember("fileName"), fnLiteral);
             valueMap.put(methodInfoType.getMember("methodName"), mnLiteral);
             valueMap.put(methodInfoType.getMember("methodDesc"), mdLiteral);
             valueMap.put(methodInfoType.getMember("typeId"), typeIdLiteral);
             valueMap.put(methodInfoType.getMember("modifiers"), modifiersLiteral);
+            valueMap.put(methodInfoType.getMember("flags"), flagsLiteral);
             return lf.literalOf(methodInfoType, valueMap);
         }).toArray(Literal[]::new);
 
@@ -240,34 +285,135 @@ public class MethodDataEmitter implements Consumer<CompilationContext> {
         return lf.literalOf(data);
     }
 
-    Literal emitInstructionList(CompilationContext ctxt, InstructionMap[] imapList) {
+    /**
+     * Find the first instruction of each function in the instruction list, which is sorted by function.
+     *
+     * @return the index of the first instruction of each function, followed by the size of the instruction list
+     */
+    private int[] findFunctionStarts(InstructionMap[] imapList) {
+        IntStream.Builder builder = IntStream.builder();
+        for (int i = 0; i < imapList.length; i++) {
+            if (i == 0 || imapList[i].getFunction() != imapList[i - 1].getFunction()) {
+                builder.add(i);
+            }
+        }
+        builder.add(imapList.length);
+        return builder.build().toArray();
+    }
+
+    /**
+     * Emit the instruction offsets of each function as a stream of unsigned LEB128 values, each of which is the distance
+     * from the previous instruction of the function (or from the start of the function for its first instruction).
+     *
+     * @return the index of the first byte of each function in the stream
+     */
+    private int[] encodeInstructionOffsets(InstructionMap[] imapList, int[] functionStarts, ByteArrayOutputStream stream) {
+        int[] offsetIndexes = new int[functionStarts.length - 1];
+        for (int fn = 0; fn < offsetIndexes.length; fn++) {
+            offsetIndexes[fn] = stream.size();
+            int previous = 0;
+            for (int i = functionStarts[fn]; i < functionStarts[fn + 1]; i++) {
+                int offset = imapList[i].getOffset();
+                int delta = offset - previous;
+                if (delta < 0) {
+                    throw new IllegalStateException("Instruction offsets are not sorted");
+                }
+                while ((delta & ~0x7f) != 0) {
+                    stream.write(delta & 0x7f | 0x80);
+                    delta >>>= 7;
+                }
+                stream.write(delta);
+                previous = offset;
+            }
+        }
+        return offsetIndexes;
+    }
+
+    Literal emitFunctionTable(CompilationContext ctxt, InstructionMap[] imapList, int[] functionStarts, int[] offsetIndexes) {
         TypeSystem ts = ctxt.getTypeSystem();
         LiteralFactory lf = ctxt.getLiteralFactory();
         Section section = ctxt.getImplicitSection(ctxt.getDefaultTypeDefinition());
-        ValueType uint64Type = ts.getUnsignedInteger64Type();
+        MethodDataTypes mdTypes = MethodDataTypes.get(ctxt);
 
-        Literal[] instructionLiterals = IntStream.range(0, imapList.length)
+        CompoundType functionInfoType = mdTypes.getFunctionInfoType();
+
+        Literal[] functionLiterals = IntStream.range(0, offsetIndexes.length)
             .parallel()
-            .mapToObj(i -> {
-                Function function = ctxt.getExactFunction(imapList[i].getFunction());
-                Literal functionCastLiteral = lf.bitcastLiteral(lf.literalOf(function), ts.getUnsignedInteger8Type().getPointer());
-                Literal instructionAddrLiteral = lf.valueConvertLiteral(lf.elementOfLiteral(functionCastLiteral, lf.literalOf(imapList[i].getOffset())), ts.getUnsignedInteger64Type());
+            .mapToObj(fn -> {
+                int firstIndex = functionStarts[fn];
+                Function function = ctxt.getExactFunction(imapList[firstIndex].getFunction());
                 section.declareFunction(null, function.getName(), function.getValueType());
-                return instructionAddrLiteral;
+                Literal functionCastLiteral = lf.bitcastLiteral(lf.literalOf(function), ts.getUnsignedInteger8Type().getPointer());
+                HashMap<CompoundType.Member, Literal> valueMap = new HashMap<>();
+                valueMap.put(functionInfoType.getMember("address"), lf.valueConvertLiteral(functionCastLiteral, ts.getUnsignedInteger64Type()));
+                valueMap.put(functionInfoType.getMember("instructionIndex"), lf.literalOf(firstIndex));
+                valueMap.put(functionInfoType.getMember("offsetIndex"), lf.literalOf(offsetIndexes[fn]));
+                return lf.literalOf(functionInfoType, valueMap);
             }).toArray(Literal[]::new);
 
-        instructionListCount += instructionLiterals.length;
-        instructionListSize += instructionListCount * uint64Type.getSize();
+        functionTableCount += functionLiterals.length;
+        functionTableSize += functionLiterals.length * functionInfoType.getSize();
+
+        Data data = defineData(ctxt, "qbicc_function_table", lf.literalOf(ts.getArrayType(functionInfoType, functionLiterals.length), List.of(functionLiterals)));
+        return lf.literalOf(data);
+    }
+
+    Literal emitInstructionOffsetTable(CompilationContext ctxt, byte[] offsets) {
+        TypeSystem ts = ctxt.getTypeSystem();
+        LiteralFactory lf = ctxt.getLiteralFactory();
 
-        Data data = defineData(ctxt, "qbicc_instruction_table", lf.literalOf(ts.getArrayType(uint64Type, instructionLiterals.length), List.of(instructionLiterals)));
+        instructionOffsetTableCount += offsets.length;
+        instructionOffsetTableSize += offsets.length;
+
+        Data data = defineData(ctxt, "qbicc_instruction_offset_table", lf.literalOf(ts.getArrayType(ts.getUnsignedInteger8Type(), offsets.length), offsets));
         return lf.literalOf(data);
     }
 
+    /**
+     * Emit the GC roots of every instruction.  The index table holds the index of the first root of each instruction,
+     * followed by the total number of roots, so that the roots of instruction {@code i} are the entries from
+     * {@code index[i]} up to {@code index[i + 1]}.
+     */
+    Literal[] emitGcRootTables(CompilationContext ctxt, InstructionMap[] imapList) {
+        TypeSystem ts = ctxt.getTypeSystem();
+        LiteralFactory lf = ctxt.getLiteralFactory();
+        MethodDataTypes mdTypes = MethodDataTypes.get(ctxt);
+        CompoundType gcRootType = mdTypes.getGcRootType();
+        ValueType uint32Type = ts.getUnsignedInteger32Type();
+        ValueType uint16Type = ts.getUnsignedInteger16Type();
+
+        Literal[] indexLiterals = new Literal[imapList.length + 1];
+        List<Literal> rootLiterals = new ArrayList<>();
+        for (int i = 0; i < imapList.length; i++) {
+            indexLiterals[i] = lf.literalOf(rootLiterals.size());
+            int[] roots = imapList[i].getGcRoots();
+            for (int j = 0; j < roots.length; j += 4) {
+                HashMap<CompoundType.Member, Literal> valueMap = new HashMap<>();
+                valueMap.put(gcRootType.getMember("baseRegister"), lf.literalOf((IntegerType) uint16Type, roots[j]));
+                valueMap.put(gcRootType.getMember("baseOffset"), lf.literalOf(roots[j + 1]));
+                valueMap.put(gcRootType.getMember("derivedRegister"), lf.literalOf((IntegerType) uint16Type, roots[j + 2]));
+                valueMap.put(gcRootType.getMember("derivedOffset"), lf.literalOf(roots[j + 3]));
+                rootLiterals.add(lf.literalOf(gcRootType, valueMap));
+            }
+        }
+        indexLiterals[imapList.length] = lf.literalOf(rootLiterals.size());
+
+        gcRootTableCount += rootLiterals.size();
+        gcRootTableSize += rootLiterals.size() * gcRootType.getSize() + indexLiterals.length * uint32Type.getSize();
+
+        Data indexData = defineData(ctxt, "qbicc_gc_root_index_table", lf.literalOf(ts.getArrayType(uint32Type, indexLiterals.length), List.of(indexLiterals)));
+        Data rootData = defineData(ctxt, "qbicc_gc_root_table", lf.literalOf(ts.getArrayType(gcRootType, rootLiterals.size()), rootLiterals));
+        return new Literal[] { lf.literalOf(indexData), lf.literalOf(rootData) };
+    }
+
     void emitGlobalMethodData(CompilationContext ctxt,
                               ProgramObjectLiteral minfoTable,
                               ProgramObjectLiteral scInfoTable,
                               ProgramObjectLiteral scIndexTable,
-                              ProgramObjectLiteral instructionTable,
+                              ProgramObjectLiteral functionTable,
+                              ProgramObjectLiteral instructionOffsetTable,
+                              Literal[] gcRootTables,
+                              int functionTableSize,
                               int instructionTableSize) {
         LiteralFactory lf = ctxt.getLiteralFactory();
         TypeSystem ts = ctxt.getTypeSystem();
@@ -285,9 +431,19 @@ public class MethodDataEmitter implements Consumer<CompilationContext> {
         member = mdhType.getMember("sourceCodeIndexTable");
         valueMap.put(member, lf.bitcastLiteral(scIndexTable, (WordType) member.getType()));
 
-        member = mdhType.getMember("instructionTable");
-        valueMap.put(member, lf.bitcastLiteral(instructionTable, (WordType) member.getType()));
+        member = mdhType.getMember("functionTable");
+        valueMap.put(member, lf.bitcastLiteral(functionTable, (WordType) member.getType()));
 
+        member = mdhType.getMember("instructionOffsetTable");
+        valueMap.put(member, lf.bitcastLiteral(instructionOffsetTable, (WordType) member.getType()));
+
+        member = mdhType.getMember("gcRootIndexTable");
+        valueMap.put(member, gcRootTables == null ? lf.zeroInitializerLiteralOfType(member.getType()) : lf.bitcastLiteral(gcRootTables[0], (WordType) member.getType()));
+
+        member = mdhType.getMember("gcRootTable");
+        valueMap.put(member, gcRootTables == null ? lf.zeroInitializerLiteralOfType(member.getType()) : lf.bitcastLiteral(gcRootTables[1], (WordType) member.getType()));
+
+        valueMap.put(mdhType.getMember("functionTableSize"), lf.literalOf(functionTableSize));
         valueMap.put(mdhType.getMember("instructionTableSize"), lf.literalOf(instructionTableSize));
 
         Literal mdhLiteral = lf.literalOf(mdhType, valueMap);
@@ -297,9 +453,15 @@ public class MethodDataEmitter implements Consumer<CompilationContext> {
     public void emitMethodData(CompilationContext ctxt, MethodData methodData) {
         ProgramObjectLiteral minfoTableSymbol = (ProgramObjectLiteral) emitMethodInfoTable(ctxt, methodData.getMethodInfoTable());
         ProgramObjectLiteral scInfoTableSymbol = (ProgramObjectLiteral) emitSourceCodeInfoTable(ctxt, methodData.getSourceCodeInfoTable());
-        ProgramObjectLiteral scIndexTableSymbol = (ProgramObjectLiteral) emitSourceCodeIndexList(ctxt, methodData.getInstructionMapList());
-        ProgramObjectLiteral instructionTableSymbol = (ProgramObjectLiteral) emitInstructionList(ctxt, methodData.getInstructionMapList());
-        emitGlobalMethodData(ctxt, minfoTableSymbol, scInfoTableSymbol, scIndexTableSymbol, instructionTableSymbol, methodData.getInstructionMapList().length);
+        InstructionMap[] imapList = methodData.getInstructionMapList();
+        ProgramObjectLiteral scIndexTableSymbol = (ProgramObjectLiteral) emitSourceCodeIndexList(ctxt, imapList);
+        int[] functionStarts = findFunctionStarts(imapList);
+        ByteArrayOutputStream offsets = new ByteArrayOutputStream();
+        int[] offsetIndexes = encodeInstructionOffsets(imapList, functionStarts, offsets);
+        ProgramObjectLiteral functionTableSymbol = (ProgramObjectLiteral) emitFunctionTable(ctxt, imapList, functionStarts, offsetIndexes);
+        ProgramObjectLiteral instructionOffsetTableSymbol = (ProgramObjectLiteral) emitInstructionOffsetTable(ctxt, offsets.toByteArray());
+        Literal[] gcRootTables = emitGcRoots ? emitGcRootTables(ctxt, imapList) : null;
+        emitGlobalMethodData(ctxt, minfoTableSymbol, scInfoTableSymbol, scIndexTableSymbol, functionTableSymbol, instructionOffsetTableSymbol, gcRootTables, offsetIndexes.length, imapList.length);
     }
 
     private void displayStats() {
@@ -311,8 +473,14 @@ public class MethodDataEmitter implements Consumer<CompilationContext> {
         slog.debugf("qbicc_source_code_info_table size: %d bytes", sourceCodeInfoTableSize);
         slog.debugf("qbicc_source_code_index_list entry count: %d", sourceCodeIndexListCount);
         slog.debugf("qbicc_source_code_index_list size: %d bytes", sourceCodeIndexListSize);
-        slog.debugf("qbicc_instruction_list entry count: %d", instructionListCount);
-        slog.debugf("qbicc_instruction_list size: %d bytes", instructionListSize);
+        slog.debugf("qbicc_function_table entry count: %d", functionTableCount);
+        slog.debugf("qbicc_function_table size: %d bytes", functionTableSize);
+        slog.debugf("qbicc_instruction_offset_table entry count: %d", instructionOffsetTableCount);
+        slog.debugf("qbicc_instruction_offset_table size: %d bytes", instructionOffsetTableSize);
+        if (emitGcRoots) {
+            slog.debugf("qbicc_gc_root_table entry count: %d", gcRootTableCount);
+            slog.debugf("qbicc_gc_root_table size: %d bytes", gcRootTableSize);
+        }
     }
 
     @Override
@@ -327,6 +495,7 @@ public class MethodDataEmitter implements Consumer<CompilationContext> {
         private final int functionIndex;
         private final int offset;
         private final long statepoindId;
+        private int[] gcRoots = NO_GC_ROOTS;
 
         StackMapRecord(final int objectFileIndex, final int functionIndex, final int offset, final long statepoindId) {
             this.objectFileIndex = objectFileIndex;
@@ -337,6 +506,7 @@ public class MethodDataEmitter implements Consumer<CompilationContext> {
 
         long getStatepoindId() { return statepoindId; }
         int getOffset() { return offset; }
+        int[] getGcRoots() { return gcRoots; }
 
         @Override
         public int hashCode() {
@@ -375,10 +545,40 @@ public class MethodDataEmitter implements Consumer<CompilationContext> {
 
     private final class StackMapRecordCollector {
         CompilationContext context;
+        private final int[] unsupportedLocations = { 0 };
         StackMapRecordCollector(CompilationContext context) {
             this.context = context;
         }
 
+        /**
+         * Decode the GC roots of a statepoint record.  The first three locations are constants which hold the calling
+         * convention, the flags, and the number of deoptimization locations which follow them; the remaining
+         * locations are pairs of a base pointer and a (possibly identical) derived pointer.
+         */
+        private int[] decodeGcRoots(LocationType[] types, int[] regNums, long[] data) {
+            if (types.length < 3 || types[2] != LocationType.Constant) {
+                return NO_GC_ROOTS;
+            }
+            int first = 3 + (int) data[2];
+            IntStream.Builder builder = IntStream.builder();
+            for (int base = first; base + 1 < types.length; base += 2) {
+                int derived = base + 1;
+                if (types[base] == LocationType.Constant && types[derived] == LocationType.Constant) {
+                    // a constant (null) reference
+                    continue;
+                }
+                if (types[base] != LocationType.Indirect || types[derived] != LocationType.Indirect) {
+                    synchronized (unsupportedLocations) {
+                        unsupportedLocations[0]++;
+                    }
+                    continue;
+                }
+                builder.add(regNums[base]).add((int) data[base]).add(regNums[derived]).add((int) data[derived]);
+            }
+            int[] roots = builder.build().toArray();
+            return roots.length == 0 ? NO_GC_ROOTS : roots;
+        }
+
         public List<StackMapRecord> collect() {
             Linker linker = Linker.get(context);
             List<StackMapRecord> recordList = new ArrayList<>();
@@ -404,12 +604,34 @@ public class MethodDataEmitter implements Consumer<CompilationContext> {
                             ByteBuffer stackMapData = stackMapSection.getSectionContent();
                             StackMap.parse(stackMapData, new StackMapVisitor() {
                                 private long currentFnIndex;
+                                private StackMapRecord currentRecord;
+                                private LocationType[] types;
+                                private int[] regNums;
+                                private long[] data;
                                 public void startFunction(long fnIndex, long address, long stackSize, long recordCount) {
                                     currentFnIndex = fnIndex;
                                 }
                                 public void startRecord(long recIndex, long patchPointId, long offset, int locCnt, int liveOutCnt) {
+                                    currentRecord = new StackMapRecord(objFileIndex, (int)currentFnIndex, (int) offset, patchPointId);
+                                    if (emitGcRoots) {
+                                        types = new LocationType[locCnt];
+                                        regNums = new int[locCnt];
+                                        data = new long[locCnt];
+                                    }
                                     synchronized (recordList) {
-                                        recordList.add(new StackMapRecord(objFileIndex, (int)currentFnIndex, (int) offset, patchPointId));
+                                        recordList.add(currentRecord);
+                                    }
+                                }
+                                public void location(int locIndex, LocationType type, int size, int regNum, long data) {
+                                    if (emitGcRoots) {
+                                        this.types[locIndex] = type;
+                                        this.regNums[locIndex] = regNum;
+                                        this.data[locIndex] = data;
+                                    }
+                                }
+                                public void endRecord(long recIndex) {
+                                    if (emitGcRoots) {
+                                        currentRecord.gcRoots = decodeGcRoots(types, regNums, data);
                                     }
                                 }
                             });
@@ -419,6 +641,9 @@ public class MethodDataEmitter implements Consumer<CompilationContext> {
                     }
                 }
             });
+            if (unsupportedLocations[0] > 0) {
+                context.error("Found %d GC roots which are not spilled to the stack; moving objects is not supported", Integer.valueOf(unsupportedLocations[0]));
+            }
             // sort the list based on the object file index, function index and the instruction offset
             recordList.sort(StackMapRecord::compareTo);
             return recordList;
@@ -25,6 +25,8 @@ public class MethodDataTypes {
 
     private CompoundType methodInfoType;
     private CompoundType sourceCodeInfoType;
+    private CompoundType functionInfoType;
+    private CompoundType gcRootType;
     private CompoundType globalMethodDataType;
 
     public MethodDataTypes(final CompilationContext ctxt) {
@@ -33,7 +35,9 @@ public class MethodDataTypes {
         LoadedTypeDefinition jls = ctxt.getBootstrapClassContext().findDefinedType("java/lang/String").load();
         ReferenceType jlsRef = jls.getType().getReference();
         ValueType uint8Type = ts.getUnsignedInteger8Type();
+        ValueType uint16Type = ts.getUnsignedInteger16Type();
         ValueType uint32Type = ts.getUnsignedInteger32Type();
+        ValueType sint32Type = ts.getSignedInteger32Type();
         ValueType uint64Type = ts.getUnsignedInteger64Type();
 
         methodInfoType = CompoundType.builder(ts)
@@ -45,6 +49,7 @@ public class MethodDataTypes {
             .addNextMember("methodDesc", jlsRef)
             .addNextMember("typeId", ts.getUnsignedInteger32Type())
             .addNextMember("modifiers", ts.getUnsignedInteger32Type())
+            .addNextMember("flags", ts.getUnsignedInteger32Type())
             .build();
 
         sourceCodeInfoType = CompoundType.builder(ts)
@@ -57,6 +62,25 @@ public class MethodDataTypes {
             .addNextMember("inlinedAtIndex", uint32Type)
             .build();
 
+        functionInfoType = CompoundType.builder(ts)
+            .setTag(CompoundType.Tag.STRUCT)
+            .setName("qbicc_function_info")
+            .setOverallAlignment(uint64Type.getAlign())
+            .addNextMember("address", uint64Type)
+            .addNextMember("instructionIndex", uint32Type)
+            .addNextMember("offsetIndex", uint32Type)
+            .build();
+
+        gcRootType = CompoundType.builder(ts)
+            .setTag(CompoundType.Tag.STRUCT)
+            .setName("qbicc_gc_root")
+            .setOverallAlignment(uint32Type.getAlign())
+            .addNextMember("baseOffset", sint32Type)
+            .addNextMember("derivedOffset", sint32Type)
+            .addNextMember("baseRegister", uint16Type)
+            .addNextMember("derivedRegister", uint16Type)
+            .build();
+
         globalMethodDataType = CompoundType.builder(ts)
             .setTag(CompoundType.Tag.STRUCT)
             .setName("qbicc_method_data")
@@ -64,7 +88,11 @@ public class MethodDataTypes {
             .addNextMember("methodInfoTable", uint8Type.getPointer())
             .addNextMember("sourceCodeInfoTable", uint8Type.getPointer())
             .addNextMember("sourceCodeIndexTable", uint32Type.getPointer())
-            .addNextMember("instructionTable", uint64Type.getPointer())
+            .addNextMember("functionTable", uint8Type.getPointer())
+            .addNextMember("instructionOffsetTable", uint8Type.getPointer())
+            .addNextMember("gcRootIndexTable", uint32Type.getPointer())
+            .addNextMember("gcRootTable", uint8Type.getPointer())
+            .addNextMember("functionTableSize", uint32Type)
             .addNextMember("instructionTableSize", uint32Type)
             .build();
 
@@ -104,6 +132,20 @@ public class MethodDataTypes {
         return sourceCodeInfoType;
     }
 
+    public CompoundType getFunctionInfoType() {
+        return functionInfoType;
+    }
+
+    /**
+     * Get the type of a GC root entry.  Each entry describes a stack slot which holds a reference at a call site, and
+     * the slot which holds the base object of that reference; both are given as an offset from a DWARF register.
+     *
+     * @return the GC root type
+     */
+    public CompoundType getGcRootType() {
+        return gcRootType;
+    }
+
     public CompoundType getGlobalMethodDataType() {
         return globalMethodDataType;
     }
@@ -5,18 +5,31 @@ import java.util.Objects;
 import org.qbicc.graph.literal.ProgramObjectLiteral;
 
 final class MethodInfo {
+    // keep in sync with org.qbicc.runtime.stackwalk.MethodData
+    /**
+     * The method is always omitted from stack traces.
+     */
+    static final int FLAG_HIDDEN = 1 << 0;
+    /**
+     * The method is a constructor or {@code fillInStackTrace} of a throwable class, which is omitted from the
+     * stack trace of an instance of that class if it is the top frame.
+     */
+    static final int FLAG_EXCEPTION_INIT = 1 << 1;
+
     private ProgramObjectLiteral fileNameSymbolLiteral;
     private ProgramObjectLiteral methodNameSymbolLiteral;
     private ProgramObjectLiteral methodDescSymbolLiteral;
     private int typeId;
     private int modifiers;
+    private int flags;
 
-    MethodInfo(ProgramObjectLiteral fileSymbolLiteral, ProgramObjectLiteral methodSymbolLiteral, ProgramObjectLiteral methodDescSymbolLiteral, int typeId, int modifiers) {
+    MethodInfo(ProgramObjectLiteral fileSymbolLiteral, ProgramObjectLiteral methodSymbolLiteral, ProgramObjectLiteral methodDescSymbolLiteral, int typeId, int modifiers, int flags) {
         this.fileNameSymbolLiteral = fileSymbolLiteral;
         this.methodNameSymbolLiteral = methodSymbolLiteral;
         this.methodDescSymbolLiteral = methodDescSymbolLiteral;
         this.typeId = typeId;
         this.modifiers = modifiers;
+        this.flags = flags;
     }
 
     public boolean equals(Object other) {
@@ -27,7 +40,8 @@ final class MethodInfo {
             && Objects.equals(methodNameSymbolLiteral, that.methodNameSymbolLiteral)
             && Objects.equals(methodDescSymbolLiteral, that.methodDescSymbolLiteral)
             && typeId == that.typeId
-            && modifiers == that.modifiers;
+            && modifiers == that.modifiers
+            && flags == that.flags;
     }
 
     ProgramObjectLiteral getFileNameSymbolLiteral() {
@@ -48,8 +62,10 @@ final class MethodInfo {
 
     int getModifiers() { return modifiers; }
 
+    int getFlags() { return flags; }
+
     @Override
     public int hashCode() {
-        return Objects.hash(fileNameSymbolLiteral, methodDescSymbolLiteral, methodDescSymbolLiteral, typeId, modifiers);
+        return Objects.hash(fileNameSymbolLiteral, methodDescSymbolLiteral, methodDescSymbolLiteral, typeId, modifiers, flags);
     }
 }
@@ -1,11 +1,11 @@
 package org.qbicc.plugin.native_;
 
-import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.qbicc.context.ClassContext;
 import org.qbicc.context.CompilationContext;
 import org.qbicc.context.Location;
-import org.qbicc.driver.Driver;
 import org.qbicc.graph.BasicBlockBuilder;
 import org.qbicc.graph.CastValue;
 import org.qbicc.graph.DelegatingBasicBlockBuilder;
@@ -77,45 +77,39 @@ public class ConstantDefiningBasicBlockBuilder extends DelegatingBasicBlockBuild
         ClassContext classContext = fieldElement.getEnclosingType().getContext();
         /* Capture location during the ADD phase since constants are defined lazily. */
         Location location = getLocation();
-        constants.registerConstant(fieldElement, () -> {
-            CProbe.Builder builder = CProbe.builder();
-            // get the element's info
-            String name = fieldElement.getName();
-            // process enclosing type first
-            ProbeUtils.ProbeProcessor pp = new ProbeUtils.ProbeProcessor(classContext, fieldElement.getEnclosingType());
-            for (Annotation annotation : fieldElement.getEnclosingType().getInvisibleAnnotations()) {
-                pp.processAnnotation(annotation);
+        // get the element's info
+        String name = fieldElement.getName();
+        List<ProbeUtils.Directive> directives = new ArrayList<>();
+        // process enclosing type first
+        ProbeUtils.ProbeProcessor pp = new ProbeUtils.ProbeProcessor(classContext, fieldElement.getEnclosingType());
+        for (Annotation annotation : fieldElement.getEnclosingType().getInvisibleAnnotations()) {
+            pp.processAnnotation(annotation);
+        }
+        pp.appendDirectivesTo(directives);
+        // now process the annotated member so it can override
+        pp = new ProbeUtils.ProbeProcessor(classContext, fieldElement);
+        for (Annotation annotation : fieldElement.getInvisibleAnnotations()) {
+            ClassTypeDescriptor desc = annotation.getDescriptor();
+            if (pp.processAnnotation(annotation)) {
+                continue;
             }
-            pp.accept(builder);
-            // now process the annotated member so it can override
-            pp = new ProbeUtils.ProbeProcessor(classContext, fieldElement);
-            for (Annotation annotation : fieldElement.getInvisibleAnnotations()) {
-                ClassTypeDescriptor desc = annotation.getDescriptor();
-                if (pp.processAnnotation(annotation)) {
-                    continue;
-                }
-                if (desc.getPackageName().equals(Native.NATIVE_PKG) && desc.getClassName().equals(Native.ANN_NAME)) {
-                    name = ((StringAnnotationValue) annotation.getValue("value")).getString();
-                }
+            if (desc.getPackageName().equals(Native.NATIVE_PKG) && desc.getClassName().equals(Native.ANN_NAME)) {
+                name = ((StringAnnotationValue) annotation.getValue("value")).getString();
             }
-            pp.accept(builder);
-            // todo: recursively process enclosing types (requires InnerClasses support)
-            builder.probeConstant(name, location.getSourceFilePath(), location.getLineNumber());
-            // run the probe
-            CProbe probe = builder.build();
+        }
+        pp.appendDirectivesTo(directives);
+        // todo: recursively process enclosing types (requires InnerClasses support)
+        // the probe is shared with the other constants which use the same directives
+        ProbeBatcher batcher = ProbeBatcher.get(ctxt);
+        String constantName = name;
+        batcher.registerConstant(directives, constantName, location.getSourceFilePath(), location.getLineNumber());
+        constants.registerConstant(fieldElement, () -> {
             LiteralFactory lf = ctxt.getLiteralFactory();
-            CProbe.Result result;
-            try {
-                result = probe.run(ctxt.getAttachment(Driver.C_TOOL_CHAIN_KEY), ctxt.getAttachment(Driver.OBJ_PROVIDER_TOOL_KEY), null);
-                if (result == null) {
-                    // constant is undefined
-                    return lf.undefinedLiteralOfType(fieldElement.getType());
-                }
-            } catch (IOException e) {
-                // constant is undefined either way
+            CProbe.ConstantInfo constantInfo = batcher.getConstantInfo(directives, constantName);
+            if (constantInfo == null) {
+                // constant is undefined
                 return lf.undefinedLiteralOfType(fieldElement.getType());
             }
-            CProbe.ConstantInfo constantInfo = result.getConstantInfo(name);
             // compute the type and raw value
             return constantInfo.getValueAsLiteralOfType(ctxt.getTypeSystem(), lf, fieldElement.getType());
         });
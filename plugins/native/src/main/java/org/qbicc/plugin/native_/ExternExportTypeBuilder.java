@@ -290,7 +290,7 @@ public class ExternExportTypeBuilder implements DefinedTypeDefinition.Builder.De
                 CProbe probe = builder.build();
                 CProbe.Result result;
                 try {
-                    result = probe.run(ctxt.getAttachment(Driver.C_TOOL_CHAIN_KEY), ctxt.getAttachment(Driver.OBJ_PROVIDER_TOOL_KEY), null);
+                    result = probe.run(ctxt.getAttachment(Driver.C_TOOL_CHAIN_KEY), ctxt.getAttachment(Driver.OBJ_PROVIDER_TOOL_KEY), ctxt.getAttachment(Driver.PROBE_CACHE_KEY), null);
                     if (result == null) {
                         return null;
                     }
@@ -24,6 +24,7 @@ import org.qbicc.plugin.core.ConditionEvaluation;
 import org.qbicc.plugin.layout.LayoutInfo;
 import org.qbicc.plugin.linker.Linker;
 import org.qbicc.type.CompoundType;
+import org.qbicc.type.FunctionType;
 import org.qbicc.type.TypeSystem;
 import org.qbicc.type.ValueType;
 import org.qbicc.type.annotation.Annotation;
@@ -78,6 +79,8 @@ final class NativeInfo {
     final Set<InitializerElement> initializers = ConcurrentHashMap.newKeySet();
     final Map<DefinedTypeDefinition, List<FunctionAndPriority>> globalCtors = new ConcurrentHashMap<>();
     final Map<DefinedTypeDefinition, List<FunctionAndPriority>> globalDtors = new ConcurrentHashMap<>();
+    final Map<String, Map<FunctionType, FunctionElement>> safepointWrappers = new ConcurrentHashMap<>();
+    final Map<FunctionElement, ExternalFunctionInfo> safepointWrapped = new ConcurrentHashMap<>();
 
     private NativeInfo(final CompilationContext ctxt) {
         this.ctxt = ctxt;
@@ -217,7 +220,7 @@ final class NativeInfo {
                             pb.probeType(probeType);
                             CProbe probe = pb.build();
                             try {
-                                CProbe.Result result = probe.run(ctxt.getAttachment(Driver.C_TOOL_CHAIN_KEY), ctxt.getAttachment(Driver.OBJ_PROVIDER_TOOL_KEY), ctxt);
+                                CProbe.Result result = probe.run(ctxt.getAttachment(Driver.C_TOOL_CHAIN_KEY), ctxt.getAttachment(Driver.OBJ_PROVIDER_TOOL_KEY), ctxt.getAttachment(Driver.PROBE_CACHE_KEY), ctxt);
                                 if (result != null) {
                                     CProbe.Type.Info typeInfo = result.getTypeInfo(probeType);
                                     long size = typeInfo.getSize();
@@ -0,0 +1,136 @@
+package org.qbicc.plugin.native_;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jboss.logging.Logger;
+import org.qbicc.context.AttachmentKey;
+import org.qbicc.context.CompilationContext;
+import org.qbicc.driver.Driver;
+import org.qbicc.machine.probe.CProbe;
+
+/**
+ * A collector of constant probe requests.  Constants which are probed under the same preprocessor directives are
+ * resolved together by a single compilation the first time that any one of them is needed.  A compilation failure
+ * (typically a reference to a symbol which does not exist on the target) is narrowed down by splitting the batch, so
+ * that every constant ends up with the same result that it would get from a probe of its own.
+ */
+final class ProbeBatcher {
+    private static final Logger log = Logger.getLogger("org.qbicc.plugin.native_.probe.stats");
+    private static final AttachmentKey<ProbeBatcher> KEY = new AttachmentKey<>();
+
+    private final CompilationContext ctxt;
+    private final Map<List<ProbeUtils.Directive>, Batch> batches = new ConcurrentHashMap<>();
+
+    private ProbeBatcher(final CompilationContext ctxt) {
+        this.ctxt = ctxt;
+    }
+
+    static ProbeBatcher get(final CompilationContext ctxt) {
+        return ctxt.computeAttachmentIfAbsent(KEY, () -> new ProbeBatcher(ctxt));
+    }
+
+    /**
+     * Register a constant to be probed along with any other constant that uses the same directives.
+     *
+     * @param directives the preprocessor directives of the probe
+     * @param name the constant name
+     * @param sourceFile the source file name where the constant is declared (may be {@code null})
+     * @param line the source line number or 0 if none
+     */
+    void registerConstant(List<ProbeUtils.Directive> directives, String name, String sourceFile, int line) {
+        getBatch(directives).register(name, sourceFile, line);
+    }
+
+    /**
+     * Get the information for a constant, probing it (and all other pending constants of its batch) if needed.
+     *
+     * @param directives the preprocessor directives of the probe
+     * @param name the constant name
+     * @return the constant information, or {@code null} if the probe of the constant failed
+     */
+    CProbe.ConstantInfo getConstantInfo(List<ProbeUtils.Directive> directives, String name) {
+        return getBatch(directives).getConstantInfo(name);
+    }
+
+    private Batch getBatch(List<ProbeUtils.Directive> directives) {
+        return batches.computeIfAbsent(List.copyOf(directives), Batch::new);
+    }
+
+    record Request(String sourceFile, int line) {}
+
+    final class Batch {
+        private final List<ProbeUtils.Directive> directives;
+        private final Map<String, Request> pending = new LinkedHashMap<>();
+        private final Map<String, CProbe.ConstantInfo> resolved = new HashMap<>();
+        private final Set<String> failed = new HashSet<>();
+
+        Batch(final List<ProbeUtils.Directive> directives) {
+            this.directives = directives;
+        }
+
+        synchronized void register(String name, String sourceFile, int line) {
+            if (! resolved.containsKey(name) && ! failed.contains(name)) {
+                pending.putIfAbsent(name, new Request(sourceFile, line));
+            }
+        }
+
+        synchronized CProbe.ConstantInfo getConstantInfo(String name) {
+            CProbe.ConstantInfo info = resolved.get(name);
+            if (info != null || failed.contains(name)) {
+                return info;
+            }
+            pending.putIfAbsent(name, new Request(null, 0));
+            Map<String, Request> requests = new LinkedHashMap<>(pending);
+            pending.clear();
+            int compilations = run(List.copyOf(requests.keySet()), requests);
+            if (log.isDebugEnabled()) {
+                log.debugf("Probed %d constants with %d compilations for %s", Integer.valueOf(requests.size()), Integer.valueOf(compilations), directives);
+            }
+            return resolved.get(name);
+        }
+
+        /**
+         * Probe the given constants in one compilation, splitting the list on failure.
+         *
+         * @param names the constant names
+         * @param requests the request for each constant name
+         * @return the number of compilations that were needed
+         */
+        private int run(List<String> names, Map<String, Request> requests) {
+            CProbe.Builder builder = CProbe.builder();
+            ProbeUtils.applyDirectives(directives, builder);
+            for (String name : names) {
+                Request request = requests.get(name);
+                builder.probeConstant(name, request.sourceFile(), request.line());
+            }
+            CProbe.Result result;
+            try {
+                result = builder.build().run(ctxt.getAttachment(Driver.C_TOOL_CHAIN_KEY), ctxt.getAttachment(Driver.OBJ_PROVIDER_TOOL_KEY), ctxt.getAttachment(Driver.PROBE_CACHE_KEY), null);
+            } catch (IOException e) {
+                // the constants are undefined either way
+                failed.addAll(names);
+                return 1;
+            }
+            if (result != null) {
+                for (String name : names) {
+                    resolved.put(name, result.getConstantInfo(name));
+                }
+                return 1;
+            }
+            int size = names.size();
+            if (size == 1) {
+                failed.add(names.get(0));
+                return 1;
+            }
+            return 1 + run(names.subList(0, size >> 1), requests) + run(names.subList(size >> 1, size), requests);
+        }
+    }
+}
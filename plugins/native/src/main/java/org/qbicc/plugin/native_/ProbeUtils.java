@@ -107,25 +107,52 @@ final class ProbeUtils {
 
         @Override
         public void accept(CProbe.Builder builder) {
+            List<Directive> directives = new ArrayList<>();
+            appendDirectivesTo(directives);
+            applyDirectives(directives, builder);
+        }
+
+        /**
+         * Append the directives which are in effect for the processed annotations to the given list.
+         *
+         * @param directives the list to append to
+         */
+        public void appendDirectivesTo(List<Directive> directives) {
             // defines first, then undefs, then includes
-            for (Annotation define : defines) {
-                String str = ((StringAnnotationValue) define.getValue("value")).getString();
-                if (ConditionEvaluation.get(classContext.getCompilationContext()).evaluateConditions(classContext, locatable, define)) {
-                    builder.define(str);
-                }
-            }
-            for (Annotation undef : undefs) {
-                String str = ((StringAnnotationValue) undef.getValue("value")).getString();
-                if (ConditionEvaluation.get(classContext.getCompilationContext()).evaluateConditions(classContext, locatable, undef)) {
-                    builder.undef(str);
+            append(directives, Directive.Kind.DEFINE, defines);
+            append(directives, Directive.Kind.UNDEF, undefs);
+            append(directives, Directive.Kind.INCLUDE, includes);
+        }
+
+        private void append(List<Directive> directives, Directive.Kind kind, List<Annotation> annotations) {
+            for (Annotation annotation : annotations) {
+                String str = ((StringAnnotationValue) annotation.getValue("value")).getString();
+                if (ConditionEvaluation.get(classContext.getCompilationContext()).evaluateConditions(classContext, locatable, annotation)) {
+                    directives.add(new Directive(kind, str));
                 }
             }
-            for (Annotation include : includes) {
-                String str = ((StringAnnotationValue) include.getValue("value")).getString();
-                if (ConditionEvaluation.get(classContext.getCompilationContext()).evaluateConditions(classContext, locatable, include)) {
-                    builder.include(str);
-                }
+        }
+    }
+
+    static void applyDirectives(List<Directive> directives, CProbe.Builder builder) {
+        for (Directive directive : directives) {
+            switch (directive.kind()) {
+                case DEFINE -> builder.define(directive.value());
+                case UNDEF -> builder.undef(directive.value());
+                case INCLUDE -> builder.include(directive.value());
             }
         }
     }
+
+    /**
+     * A preprocessor directive which precedes the items of a probe.  Probes with equal directive lists can share a
+     * single compilation.
+     */
+    record Directive(Kind kind, String value) {
+        enum Kind {
+            DEFINE,
+            UNDEF,
+            INCLUDE,
+        }
+    }
 }
@@ -0,0 +1,217 @@
+package org.qbicc.plugin.native_;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.qbicc.context.ClassContext;
+import org.qbicc.context.CompilationContext;
+import org.qbicc.graph.BasicBlock;
+import org.qbicc.graph.BasicBlockBuilder;
+import org.qbicc.graph.BlockLabel;
+import org.qbicc.graph.CastValue;
+import org.qbicc.graph.DelegatingBasicBlockBuilder;
+import org.qbicc.graph.FunctionElementHandle;
+import org.qbicc.graph.ParameterValue;
+import org.qbicc.graph.Value;
+import org.qbicc.graph.ValueHandle;
+import org.qbicc.graph.schedule.Schedule;
+import org.qbicc.type.FunctionType;
+import org.qbicc.type.PointerType;
+import org.qbicc.type.ReferenceType;
+import org.qbicc.type.ValueType;
+import org.qbicc.type.VoidType;
+import org.qbicc.type.definition.MethodBody;
+import org.qbicc.type.definition.classfile.ClassFile;
+import org.qbicc.type.definition.element.ExecutableElement;
+import org.qbicc.type.definition.element.FunctionElement;
+import org.qbicc.type.descriptor.BaseTypeDescriptor;
+import org.qbicc.type.descriptor.ClassTypeDescriptor;
+import org.qbicc.type.descriptor.MethodDescriptor;
+import org.qbicc.type.descriptor.TypeDescriptor;
+import org.qbicc.type.generic.MethodSignature;
+
+/**
+ * A builder which makes calls to external functions safepoints for collectors which stop the world.  Each call is
+ * made through a wrapper function which captures its context for the stack walker, marks the thread as safe for the
+ * duration of the call, and waits for the world to be resumed on the way out.  The wrapper frame stays live for the
+ * duration of the call, so the roots of the calling Java frame are described by the statepoint of the call to the
+ * wrapper.  This must come before {@link NativeBasicBlockBuilder}.
+ * <p>
+ * Some calls are made directly:
+ * <ul>
+ *     <li>calls from the run time, which calls the blocking operations of {@code Safepoint} itself where it may block,
+ *     and which must not become safe while it manipulates the heap or the thread registry;</li>
+ *     <li>calls from functions, which includes the wrappers and functions which are exported to native code;</li>
+ *     <li>calls to variadic functions, which cannot be forwarded;</li>
+ *     <li>calls with an argument which points into the heap, because the object could be moved during the call.</li>
+ * </ul>
+ * Native code must not touch the heap, since a collection may move objects while it runs.
+ */
+public class SafepointNativeCallBasicBlockBuilder extends DelegatingBasicBlockBuilder {
+    private static final String WRAPPER_PREFIX = "qbicc_safepoint_";
+
+    private final CompilationContext ctxt;
+    private final NativeInfo nativeInfo;
+    private final boolean direct;
+
+    public SafepointNativeCallBasicBlockBuilder(final CompilationContext ctxt, final BasicBlockBuilder delegate) {
+        super(delegate);
+        this.ctxt = ctxt;
+        nativeInfo = NativeInfo.get(ctxt);
+        ExecutableElement rootElement = getRootElement();
+        direct = rootElement instanceof FunctionElement || rootElement.getEnclosingType().getInternalName().startsWith("org/qbicc/runtime/");
+    }
+
+    @Override
+    public ValueHandle staticMethod(TypeDescriptor owner, String name, MethodDescriptor descriptor) {
+        if (! direct && nativeInfo.getFunctionInfo(owner, name, descriptor) instanceof ExternalFunctionInfo info && ! info.getType().isVariadic()) {
+            return functionOf(getWrapper(owner, name, descriptor, info));
+        }
+        return super.staticMethod(owner, name, descriptor);
+    }
+
+    @Override
+    public Value call(ValueHandle target, List<Value> arguments) {
+        return super.call(mapTarget(target, arguments), arguments);
+    }
+
+    @Override
+    public Value callNoSideEffects(ValueHandle target, List<Value> arguments) {
+        return super.callNoSideEffects(mapTarget(target, arguments), arguments);
+    }
+
+    @Override
+    public BasicBlock callNoReturn(ValueHandle target, List<Value> arguments) {
+        return super.callNoReturn(mapTarget(target, arguments), arguments);
+    }
+
+    @Override
+    public BasicBlock invokeNoReturn(ValueHandle target, List<Value> arguments, BlockLabel catchLabel) {
+        return super.invokeNoReturn(mapTarget(target, arguments), arguments, catchLabel);
+    }
+
+    @Override
+    public BasicBlock tailCall(ValueHandle target, List<Value> arguments) {
+        return super.tailCall(mapTarget(target, arguments), arguments);
+    }
+
+    @Override
+    public BasicBlock tailInvoke(ValueHandle target, List<Value> arguments, BlockLabel catchLabel) {
+        return super.tailInvoke(mapTarget(target, arguments), arguments, catchLabel);
+    }
+
+    @Override
+    public Value invoke(ValueHandle target, List<Value> arguments, BlockLabel catchLabel, BlockLabel resumeLabel) {
+        return super.invoke(mapTarget(target, arguments), arguments, catchLabel, resumeLabel);
+    }
+
+    /**
+     * Call the wrapped function directly if one of the arguments points into the heap.
+     *
+     * @param target the call target (must not be {@code null})
+     * @param arguments the call arguments (must not be {@code null})
+     * @return the call target to use (not {@code null})
+     */
+    private ValueHandle mapTarget(ValueHandle target, List<Value> arguments) {
+        if (target instanceof FunctionElementHandle handle) {
+            ExternalFunctionInfo info = nativeInfo.safepointWrapped.get(handle.getExecutable());
+            if (info != null) {
+                for (Value argument : arguments) {
+                    if (pointsIntoHeap(argument)) {
+                        return pointerHandle(ctxt.getLiteralFactory().literalOf(ctxt.getImplicitSection(getRootElement())
+                            .declareFunction(null, info.getName(), info.getType())));
+                    }
+                }
+            }
+        }
+        return target;
+    }
+
+    private static boolean pointsIntoHeap(Value value) {
+        ValueType type = value.getType();
+        if (type instanceof ReferenceType || type instanceof PointerType pointerType && pointerType.isCollected()) {
+            return true;
+        }
+        return value instanceof CastValue cast && pointsIntoHeap(cast.getInput());
+    }
+
+    private FunctionElement getWrapper(TypeDescriptor owner, String name, MethodDescriptor descriptor, ExternalFunctionInfo info) {
+        Map<FunctionType, FunctionElement> wrappers = nativeInfo.safepointWrappers.computeIfAbsent(info.getName(), n -> new HashMap<>());
+        synchronized (wrappers) {
+            FunctionElement wrapper = wrappers.get(info.getType());
+            if (wrapper == null) {
+                // functions of the same name may be declared with different types
+                String wrapperName = WRAPPER_PREFIX + info.getName() + (wrappers.isEmpty() ? "" : "_" + wrappers.size());
+                wrapper = createWrapper(wrapperName, owner, name, descriptor, info);
+                wrappers.put(info.getType(), wrapper);
+                nativeInfo.safepointWrapped.put(wrapper, info);
+            }
+            return wrapper;
+        }
+    }
+
+    private FunctionElement createWrapper(String wrapperName, TypeDescriptor owner, String name, MethodDescriptor descriptor, ExternalFunctionInfo info) {
+        ClassContext classContext = info.getDeclaringClass().getContext();
+        FunctionElement.Builder builder = FunctionElement.builder(wrapperName, descriptor);
+        builder.setModifiers(ClassFile.ACC_STATIC | ClassFile.ACC_SYNTHETIC | ClassFile.I_ACC_NEVER_INLINE);
+        builder.setEnclosingType(info.getDeclaringClass());
+        builder.setSignature(MethodSignature.synthesize(classContext, descriptor));
+        builder.setType(info.getType());
+        builder.setMethodBodyFactory((index, e) -> {
+            BasicBlockBuilder bbb = classContext.newBasicBlockBuilder(e);
+            FunctionType type = info.getType();
+            int pcnt = type.getParameterCount();
+            List<ParameterValue> paramValues = new ArrayList<>(pcnt);
+            for (int i = 0; i < pcnt; i ++) {
+                paramValues.add(bbb.parameter(type.getParameterType(i), "p", i));
+            }
+            bbb.startMethod(paramValues);
+            //noinspection unchecked,rawtypes
+            List<Value> arguments = (List<Value>) (List) paramValues;
+            ClassContext bc = ctxt.getBootstrapClassContext();
+            ClassTypeDescriptor safepointDesc = ClassTypeDescriptor.synthesize(bc, "org/qbicc/runtime/main/Safepoint");
+            ClassTypeDescriptor recordPtrDesc = ClassTypeDescriptor.synthesize(bc, "org/qbicc/runtime/main/Safepoint$thread_record_ptr");
+            ClassTypeDescriptor unwindDesc = ClassTypeDescriptor.synthesize(bc, "org/qbicc/runtime/unwind/LibUnwind");
+            ClassTypeDescriptor contextPtrDesc = ClassTypeDescriptor.synthesize(bc, "org/qbicc/runtime/unwind/LibUnwind$unw_context_t_ptr");
+            ClassTypeDescriptor cIntDesc = ClassTypeDescriptor.synthesize(bc, "org/qbicc/runtime/CNative$c_int");
+            MethodDescriptor recordDesc = MethodDescriptor.synthesize(bc, recordPtrDesc, List.of());
+            MethodDescriptor contextDesc = MethodDescriptor.synthesize(bc, contextPtrDesc, List.of(recordPtrDesc));
+            MethodDescriptor stateDesc = MethodDescriptor.synthesize(bc, BaseTypeDescriptor.V, List.of(recordPtrDesc));
+            MethodDescriptor getContextDesc = MethodDescriptor.synthesize(bc, cIntDesc, List.of(contextPtrDesc));
+            // build the entry block
+            BlockLabel entryLabel = new BlockLabel();
+            BlockLabel attached = new BlockLabel();
+            BlockLabel detached = new BlockLabel();
+            bbb.begin(entryLabel);
+            Value record = bbb.call(bbb.staticMethod(safepointDesc, "currentRecord", recordDesc), List.of());
+            bbb.if_(bbb.isEq(record, ctxt.getLiteralFactory().zeroInitializerLiteralOfType(record.getType())), detached, attached);
+            // threads which are not attached do not take part in safepoints
+            bbb.begin(detached);
+            Value result = bbb.call(bbb.staticMethod(owner, name, descriptor), arguments);
+            returnResult(bbb, type, result);
+            // the context is captured in this frame, which stays live until the call returns
+            bbb.begin(attached);
+            Value context = bbb.call(bbb.staticMethod(safepointDesc, "contextOf", contextDesc), List.of(record));
+            bbb.call(bbb.staticMethod(unwindDesc, "unw_getcontext", getContextDesc), List.of(context));
+            bbb.call(bbb.staticMethod(safepointDesc, "enterNative", stateDesc), List.of(record));
+            result = bbb.call(bbb.staticMethod(owner, name, descriptor), arguments);
+            bbb.call(bbb.staticMethod(safepointDesc, "exitNative", stateDesc), List.of(record));
+            returnResult(bbb, type, result);
+            bbb.finish();
+            BasicBlock entryBlock = BlockLabel.getTargetOf(entryLabel);
+            Schedule schedule = Schedule.forMethod(entryBlock);
+            return MethodBody.of(entryBlock, schedule, null, paramValues);
+        }, 0);
+        return builder.build();
+    }
+
+    private static void returnResult(BasicBlockBuilder bbb, FunctionType type, Value result) {
+        if (type.getReturnType() instanceof VoidType) {
+            bbb.return_();
+        } else {
+            bbb.return_(result);
+        }
+    }
+}
@@ -6,7 +6,6 @@ import org.qbicc.graph.BasicBlockBuilder;
 import org.qbicc.graph.DelegatingBasicBlockBuilder;
 import org.qbicc.graph.Node;
 import org.qbicc.graph.Value;
-import org.qbicc.plugin.coreclasses.RuntimeMethodFinder;
 import org.qbicc.type.definition.element.MethodElement;
 
 /**
@@ -16,24 +15,20 @@ import org.qbicc.type.definition.element.MethodElement;
 public class ObjectMonitorBasicBlockBuilder extends DelegatingBasicBlockBuilder {
     private final CompilationContext ctxt;
 
-    private final String monitorEnterFunctionName = "monitorEnter";
-    private final String monitorExitFunctionName = "monitorExit";
-
     public ObjectMonitorBasicBlockBuilder(CompilationContext ctxt, BasicBlockBuilder delegate) {
         super(delegate);
         this.ctxt = ctxt;
     }
 
     public Node monitorEnter(final Value object) {
-        return generateObjectMonitorFunctionCall(object, monitorEnterFunctionName);
+        return generateObjectMonitorFunctionCall(object, ObjectMonitors.get(ctxt).getEnterMethod());
     }
 
     public Node monitorExit(final Value object) {
-        return generateObjectMonitorFunctionCall(object, monitorExitFunctionName);
+        return generateObjectMonitorFunctionCall(object, ObjectMonitors.get(ctxt).getExitMethod());
     }
     
-    private Value generateObjectMonitorFunctionCall(final Value object, String functionName) {
-        MethodElement methodElement = RuntimeMethodFinder.get(ctxt).getMethod(functionName);
+    private Value generateObjectMonitorFunctionCall(final Value object, MethodElement methodElement) {
         List<Value> args = List.of(object);
         return getFirstBuilder().call(getFirstBuilder().staticMethod(methodElement, methodElement.getDescriptor(), methodElement.getType()), args);
     }
@@ -0,0 +1,69 @@
+package org.qbicc.plugin.objectmonitor;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.qbicc.context.ClassContext;
+import org.qbicc.context.CompilationContext;
+import org.qbicc.graph.Value;
+import org.qbicc.plugin.intrinsics.InstanceIntrinsic;
+import org.qbicc.plugin.intrinsics.Intrinsics;
+import org.qbicc.type.descriptor.BaseTypeDescriptor;
+import org.qbicc.type.descriptor.ClassTypeDescriptor;
+import org.qbicc.type.descriptor.MethodDescriptor;
+import org.qbicc.type.definition.element.MethodElement;
+
+/**
+ * Select the object monitor implementation, register its runtime helpers, and register the intrinsics for
+ * {@code Object.wait}, {@code Object.notify} and {@code Thread.interrupt0}.
+ */
+public class ObjectMonitorSetupHook implements Consumer<CompilationContext> {
+    private final boolean futexMonitors;
+
+    public ObjectMonitorSetupHook(boolean futexMonitors) {
+        this.futexMonitors = futexMonitors;
+    }
+
+    public void accept(final CompilationContext ctxt) {
+        ObjectMonitors objectMonitors = ObjectMonitors.create(ctxt, futexMonitors);
+        ctxt.enqueue(objectMonitors.getEnterMethod());
+        ctxt.enqueue(objectMonitors.getExitMethod());
+
+        Intrinsics intrinsics = Intrinsics.get(ctxt);
+        ClassContext classContext = ctxt.getBootstrapClassContext();
+        ClassTypeDescriptor objDesc = ClassTypeDescriptor.synthesize(classContext, "java/lang/Object");
+        ClassTypeDescriptor jltDesc = ClassTypeDescriptor.synthesize(classContext, "java/lang/Thread");
+        MethodDescriptor voidDesc = MethodDescriptor.synthesize(classContext, BaseTypeDescriptor.V, List.of());
+        // public final native void wait(long timeoutMillis)
+        MethodDescriptor waitDesc = MethodDescriptor.synthesize(classContext, BaseTypeDescriptor.V, List.of(BaseTypeDescriptor.J));
+
+        if (objectMonitors.supportsWait()) {
+            ctxt.enqueue(objectMonitors.getWaitMethod());
+            ctxt.enqueue(objectMonitors.getNotifyMethod());
+            ctxt.enqueue(objectMonitors.getNotifyAllMethod());
+            ctxt.enqueue(objectMonitors.getInterruptMethod());
+
+            intrinsics.registerIntrinsic(objDesc, "wait", waitDesc, callHelper(objectMonitors.getWaitMethod()));
+            intrinsics.registerIntrinsic(objDesc, "notify", voidDesc, callHelper(objectMonitors.getNotifyMethod()));
+            intrinsics.registerIntrinsic(objDesc, "notifyAll", voidDesc, callHelper(objectMonitors.getNotifyAllMethod()));
+            // private native void interrupt0(), which is called after the interrupt status is set
+            intrinsics.registerIntrinsic(jltDesc, "interrupt0", voidDesc, callHelper(objectMonitors.getInterruptMethod()));
+        } else {
+            // without wait support, waiting is a spurious wakeup and notification does nothing
+            InstanceIntrinsic doNothing = (builder, instance, target, arguments) ->
+                ctxt.getLiteralFactory().zeroInitializerLiteralOfType(ctxt.getTypeSystem().getVoidType());
+            intrinsics.registerIntrinsic(objDesc, "wait", waitDesc, doNothing);
+            intrinsics.registerIntrinsic(objDesc, "notify", voidDesc, doNothing);
+            intrinsics.registerIntrinsic(objDesc, "notifyAll", voidDesc, doNothing);
+            // nobody is ever waiting, so there is nobody to wake
+            intrinsics.registerIntrinsic(jltDesc, "interrupt0", voidDesc, doNothing);
+        }
+    }
+
+    private static InstanceIntrinsic callHelper(MethodElement helper) {
+        return (builder, instance, target, arguments) -> {
+            List<Value> args = arguments.isEmpty() ? List.of(instance) : List.of(instance, arguments.get(0));
+            return builder.getFirstBuilder().call(builder.staticMethod(helper, helper.getDescriptor(), helper.getType()), args);
+        };
+    }
+}
@@ -0,0 +1,109 @@
+package org.qbicc.plugin.objectmonitor;
+
+import org.qbicc.context.AttachmentKey;
+import org.qbicc.context.CompilationContext;
+import org.qbicc.machine.arch.OS;
+import org.qbicc.plugin.coreclasses.RuntimeMethodFinder;
+import org.qbicc.type.definition.element.MethodElement;
+
+/**
+ * The object monitor implementation of the image.  On Linux, monitors are optionally implemented directly on futexes,
+ * which supports {@code wait}, {@code notify} and interrupting a waiting thread.  Otherwise, each monitor is a recursive pthread mutex, and {@code wait}
+ * and {@code notify} do nothing.
+ */
+public final class ObjectMonitors {
+    private static final AttachmentKey<ObjectMonitors> KEY = new AttachmentKey<>();
+    private static final String FUTEX_MONITOR = "org/qbicc/runtime/main/FutexMonitor";
+
+    private final MethodElement enterMethod;
+    private final MethodElement exitMethod;
+    private final MethodElement waitMethod;
+    private final MethodElement notifyMethod;
+    private final MethodElement notifyAllMethod;
+    private final MethodElement interruptMethod;
+
+    private ObjectMonitors(final CompilationContext ctxt, final boolean futex) {
+        RuntimeMethodFinder methodFinder = RuntimeMethodFinder.get(ctxt);
+        if (futex) {
+            enterMethod = methodFinder.getMethod(FUTEX_MONITOR, "monitorEnter");
+            exitMethod = methodFinder.getMethod(FUTEX_MONITOR, "monitorExit");
+            waitMethod = methodFinder.getMethod(FUTEX_MONITOR, "monitorWait");
+            notifyMethod = methodFinder.getMethod(FUTEX_MONITOR, "monitorNotify");
+            notifyAllMethod = methodFinder.getMethod(FUTEX_MONITOR, "monitorNotifyAll");
+            interruptMethod = methodFinder.getMethod(FUTEX_MONITOR, "interrupt");
+        } else {
+            enterMethod = methodFinder.getMethod("monitorEnter");
+            exitMethod = methodFinder.getMethod("monitorExit");
+            waitMethod = null;
+            notifyMethod = null;
+            notifyAllMethod = null;
+            interruptMethod = null;
+        }
+    }
+
+    /**
+     * Select the object monitor implementation.  This must be done before the first phase begins.
+     *
+     * @param ctxt the compilation context (must not be {@code null})
+     * @param futexMonitors {@code true} to use futex monitors if the target is Linux, or {@code false} to always use
+     *      pthread mutexes
+     * @return the object monitor implementation (not {@code null})
+     */
+    public static ObjectMonitors create(CompilationContext ctxt, boolean futexMonitors) {
+        boolean futex = futexMonitors && ctxt.getPlatform().getOs() == OS.LINUX;
+        return ctxt.computeAttachmentIfAbsent(KEY, () -> new ObjectMonitors(ctxt, futex));
+    }
+
+    /**
+     * Get the object monitor implementation.
+     *
+     * @param ctxt the compilation context (must not be {@code null})
+     * @return the object monitor implementation (not {@code null})
+     * @throws IllegalStateException if no implementation was selected
+     */
+    public static ObjectMonitors get(CompilationContext ctxt) {
+        ObjectMonitors objectMonitors = ctxt.getAttachment(KEY);
+        if (objectMonitors == null) {
+            throw new IllegalStateException("No object monitor implementation was selected");
+        }
+        return objectMonitors;
+    }
+
+    public MethodElement getEnterMethod() {
+        return enterMethod;
+    }
+
+    public MethodElement getExitMethod() {
+        return exitMethod;
+    }
+
+    /**
+     * Determine whether this implementation supports {@code wait} and {@code notify}.
+     *
+     * @return {@code true} if waiting is supported, or {@code false} if {@code wait} returns immediately
+     */
+    public boolean supportsWait() {
+        return waitMethod != null;
+    }
+
+    public MethodElement getWaitMethod() {
+        return waitMethod;
+    }
+
+    public MethodElement getNotifyMethod() {
+        return notifyMethod;
+    }
+
+    public MethodElement getNotifyAllMethod() {
+        return notifyAllMethod;
+    }
+
+    /**
+     * Get the helper which wakes a thread that is waiting when it is interrupted.
+     *
+     * @return the helper, or {@code null} if waiting is not supported
+     */
+    public MethodElement getInterruptMethod() {
+        return interruptMethod;
+    }
+}
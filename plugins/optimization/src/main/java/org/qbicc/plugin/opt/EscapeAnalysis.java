@@ -0,0 +1,581 @@
+package org.qbicc.plugin.opt;
+
+import static org.qbicc.graph.atomic.AccessModes.*;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.qbicc.context.AttachmentKey;
+import org.qbicc.context.CompilationContext;
+import org.qbicc.graph.BasicBlock;
+import org.qbicc.graph.BlockEntry;
+import org.qbicc.graph.Call;
+import org.qbicc.graph.CallNoReturn;
+import org.qbicc.graph.CallNoSideEffects;
+import org.qbicc.graph.CheckCast;
+import org.qbicc.graph.ConstructorElementHandle;
+import org.qbicc.graph.ExactMethodElementHandle;
+import org.qbicc.graph.Executable;
+import org.qbicc.graph.InstanceFieldOf;
+import org.qbicc.graph.InstanceOf;
+import org.qbicc.graph.Invoke;
+import org.qbicc.graph.InvokeNoReturn;
+import org.qbicc.graph.IsEq;
+import org.qbicc.graph.IsNe;
+import org.qbicc.graph.Load;
+import org.qbicc.graph.New;
+import org.qbicc.graph.Node;
+import org.qbicc.graph.NotNull;
+import org.qbicc.graph.OrderedNode;
+import org.qbicc.graph.ParameterValue;
+import org.qbicc.graph.ReferenceHandle;
+import org.qbicc.graph.Return;
+import org.qbicc.graph.StaticMethodElementHandle;
+import org.qbicc.graph.Store;
+import org.qbicc.graph.Terminator;
+import org.qbicc.graph.Value;
+import org.qbicc.graph.ValueHandle;
+import org.qbicc.graph.literal.Literal;
+import org.qbicc.graph.schedule.Schedule;
+import org.qbicc.type.ReferenceType;
+import org.qbicc.type.definition.MethodBody;
+import org.qbicc.type.definition.element.ConstructorElement;
+import org.qbicc.type.definition.element.ExecutableElement;
+import org.qbicc.type.definition.element.FieldElement;
+
+/**
+ * Escape information for object allocations and reference parameters.
+ * <p>
+ * A summary is computed for each method body once it is final (at the end of the {@code ADD} phase).  Each summary
+ * records, for every {@link New} allocation, the receiver, and every parameter, whether the value escapes the
+ * method outright or only flows into parameters of exactly-known callees.  Those callee dependencies are resolved
+ * lazily against the callee summaries, which yields the inter-procedural result.  Recursive cycles and missing
+ * callee bodies are conservatively treated as escaping.
+ */
+public final class EscapeAnalysis {
+    private static final AttachmentKey<EscapeAnalysis> KEY = new AttachmentKey<>();
+    // todo: this is arbitrary
+    private static final int MAX_DEPTH = 16;
+
+    private static final Escape NO_ESCAPE = new Escape(false, List.of());
+    private static final Escape ESCAPE = new Escape(true, List.of());
+
+    private final Map<ExecutableElement, MethodSummary> summaries = new ConcurrentHashMap<>();
+    private final Map<Dependency, Boolean> resolvedParameters = new ConcurrentHashMap<>();
+    private final Map<ConstructorElement, Boolean> resolvedConstructors = new ConcurrentHashMap<>();
+    private final Map<ExecutableElement, Set<New>> stackAllocations = new ConcurrentHashMap<>();
+
+    private EscapeAnalysis() {}
+
+    public static EscapeAnalysis get(CompilationContext ctxt) {
+        return ctxt.computeAttachmentIfAbsent(KEY, EscapeAnalysis::new);
+    }
+
+    /**
+     * Compute and record the local escape summary of the given element's body.
+     *
+     * @param element the element (must not be {@code null})
+     */
+    void summarize(ExecutableElement element) {
+        if (element.hasMethodBody()) {
+            summaries.put(element, new Summarizer(element.getMethodBody()).summarize());
+        }
+    }
+
+    /**
+     * Determine whether the given allocation, which must be a node of the summarized body of the given element,
+     * may escape the method which performs it.
+     *
+     * @param element the element whose body contains the allocation
+     * @param allocation the allocation node
+     * @return {@code true} if the allocation may escape, or {@code false} if it definitely does not
+     */
+    public boolean escapes(ExecutableElement element, New allocation) {
+        MethodSummary summary = summaries.get(element);
+        if (summary == null) {
+            return true;
+        }
+        Escape escape = summary.allocations().get(allocation);
+        return escape == null || escapes(escape, new HashSet<>(), new boolean[1], 0);
+    }
+
+    /**
+     * Determine whether the given allocation may be replaced by scalar values.  This is the case when the allocation
+     * does not escape and is only used for plain field accesses in its own block and for calls to constructors which
+     * do nothing but store their parameters or constants into fields of the new object.
+     *
+     * @param element the element whose body contains the allocation
+     * @param allocation the allocation node
+     * @return {@code true} if the allocation can be replaced by scalars
+     */
+    public boolean isScalarReplaceable(ExecutableElement element, New allocation) {
+        MethodSummary summary = summaries.get(element);
+        if (summary == null) {
+            return false;
+        }
+        List<ConstructorElement> constructors = summary.scalarReplaceable().get(allocation);
+        if (constructors == null) {
+            return false;
+        }
+        for (ConstructorElement constructor : constructors) {
+            if (! isFieldInitializer(constructor, 0)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Apply the effect of a call to a constructor of a {@linkplain #isScalarReplaceable scalar replaceable} allocation
+     * to the values of its fields.
+     *
+     * @param constructor the called constructor
+     * @param arguments the arguments of the call, as values of the body being built
+     * @param fields the field values of the allocation, which are updated with the values stored by the constructor
+     */
+    public void applyConstructor(ConstructorElement constructor, List<Value> arguments, Map<FieldElement, Value> fields) {
+        for (Initializer initializer : summaries.get(constructor).initializers()) {
+            if (initializer instanceof FieldInitializer fi) {
+                fields.put(fi.field(), argument(fi.value(), arguments));
+            } else if (initializer instanceof ConstructorInitializer ci) {
+                List<Value> nestedArguments = new ArrayList<>(ci.arguments().size());
+                for (Value value : ci.arguments()) {
+                    nestedArguments.add(argument(value, arguments));
+                }
+                applyConstructor(ci.constructor(), nestedArguments, fields);
+            }
+        }
+    }
+
+    private static Value argument(Value value, List<Value> arguments) {
+        return value instanceof ParameterValue pv ? arguments.get(pv.getIndex()) : value;
+    }
+
+    /**
+     * Register an allocation which does not escape the method whose body is being built.
+     *
+     * @param rootElement the root element of the body containing the allocation
+     * @param allocation the allocation node
+     */
+    public void registerStackAllocation(ExecutableElement rootElement, New allocation) {
+        // each body is built by a single thread, and the set is only read in a later phase
+        stackAllocations.computeIfAbsent(rootElement, e -> new LinkedHashSet<>()).add(allocation);
+    }
+
+    /**
+     * Get the allocations in the given element's body which have been found not to escape.
+     *
+     * @param rootElement the root element of the body
+     * @return the set of non-escaping allocation nodes (not {@code null})
+     */
+    public Set<New> getStackAllocations(ExecutableElement rootElement) {
+        return stackAllocations.getOrDefault(rootElement, Set.of());
+    }
+
+    private boolean escapes(Escape escape, Set<Dependency> inProgress, boolean[] inexact, int depth) {
+        if (escape.escapes()) {
+            return true;
+        }
+        for (Dependency dependency : escape.dependencies()) {
+            if (parameterEscapes(dependency, inProgress, inexact, depth + 1)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean parameterEscapes(Dependency dependency, Set<Dependency> inProgress, boolean[] inexact, int depth) {
+        Boolean resolved = resolvedParameters.get(dependency);
+        if (resolved != null) {
+            return resolved.booleanValue();
+        }
+        if (depth > MAX_DEPTH || ! inProgress.add(dependency)) {
+            // recursive or too deep; assume the worst but do not remember the answer
+            inexact[0] = true;
+            return true;
+        }
+        try {
+            MethodSummary summary = summaries.get(dependency.callee());
+            boolean result;
+            boolean[] nestedInexact = new boolean[1];
+            if (summary == null) {
+                result = true;
+            } else {
+                int index = dependency.index();
+                Escape escape = index == -1 ? summary.receiver() : index < summary.parameters().size() ? summary.parameters().get(index) : ESCAPE;
+                result = escapes(escape, inProgress, nestedInexact, depth);
+            }
+            if (nestedInexact[0]) {
+                inexact[0] = true;
+            } else {
+                resolvedParameters.put(dependency, Boolean.valueOf(result));
+            }
+            return result;
+        } finally {
+            inProgress.remove(dependency);
+        }
+    }
+
+    private boolean isFieldInitializer(ConstructorElement constructor, int depth) {
+        Boolean resolved = resolvedConstructors.get(constructor);
+        if (resolved != null) {
+            return resolved.booleanValue();
+        }
+        if (depth > MAX_DEPTH) {
+            return false;
+        }
+        MethodSummary summary = summaries.get(constructor);
+        boolean result = summary != null && summary.initializers() != null;
+        if (result) {
+            for (Initializer initializer : summary.initializers()) {
+                if (initializer instanceof ConstructorInitializer ci && ! isFieldInitializer(ci.constructor(), depth + 1)) {
+                    result = false;
+                    break;
+                }
+            }
+        }
+        resolvedConstructors.put(constructor, Boolean.valueOf(result));
+        return result;
+    }
+
+    /**
+     * A reference to a parameter of a callee; index {@code -1} is the receiver.
+     */
+    record Dependency(ExecutableElement callee, int index) {}
+
+    /**
+     * The local escape state of a value: either it escapes outright, or it escapes only if any of the dependencies does.
+     */
+    record Escape(boolean escapes, List<Dependency> dependencies) {}
+
+    /**
+     * One step of a field-initializing constructor body.  Each value is either a parameter of the constructor or a
+     * literal.
+     */
+    sealed interface Initializer permits FieldInitializer, ConstructorInitializer {}
+
+    /**
+     * A store of a value into a field of {@code this}.
+     */
+    record FieldInitializer(FieldElement field, Value value) implements Initializer {}
+
+    /**
+     * A call to another constructor on {@code this}.
+     */
+    record ConstructorInitializer(ConstructorElement constructor, List<Value> arguments) implements Initializer {}
+
+    /**
+     * The local summary of a method body.
+     *
+     * @param receiver the escape state of {@code this}
+     * @param parameters the escape state of each parameter
+     * @param allocations the escape state of each allocation
+     * @param scalarReplaceable the allocations which could be replaced by scalars, mapped to the constructors that
+     *      must be trivial for that to be possible
+     * @param initializers if the body consists only of calls to other constructors on {@code this} and stores of
+     *      parameters or literals into fields of {@code this}, those steps in program order; otherwise {@code null}
+     */
+    record MethodSummary(
+        Escape receiver,
+        List<Escape> parameters,
+        Map<New, Escape> allocations,
+        Map<New, List<ConstructorElement>> scalarReplaceable,
+        List<Initializer> initializers
+    ) {}
+
+    static final class Summarizer {
+        private final MethodBody body;
+        private final Schedule schedule;
+        private final Map<Node, List<Node>> users = new HashMap<>();
+        private final Set<Value> phiInputs = new HashSet<>();
+        private final List<New> allocations = new ArrayList<>();
+
+        Summarizer(MethodBody body) {
+            this.body = body;
+            this.schedule = body.getSchedule();
+        }
+
+        MethodSummary summarize() {
+            collectUses();
+            ParameterValue thisValue = body.getThisValue();
+            Escape receiver = thisValue == null ? ESCAPE : analyze(thisValue, null);
+            List<Escape> parameters = new ArrayList<>(body.getParameterCount());
+            for (ParameterValue parameter : body.getParameterValues()) {
+                parameters.add(parameter.getType() instanceof ReferenceType ? analyze(parameter, null) : NO_ESCAPE);
+            }
+            Map<New, Escape> allocationStates = new LinkedHashMap<>();
+            Map<New, List<ConstructorElement>> scalarReplaceable = new LinkedHashMap<>();
+            for (New allocation : allocations) {
+                List<ConstructorElement> constructors = new ArrayList<>();
+                Escape escape = analyze(allocation, constructors);
+                allocationStates.put(allocation, escape);
+                if (! escape.escapes() && isLocalOnly(allocation, constructors)) {
+                    scalarReplaceable.put(allocation, List.copyOf(constructors));
+                }
+            }
+            return new MethodSummary(receiver, List.copyOf(parameters), allocationStates, scalarReplaceable, findInitializers(thisValue));
+        }
+
+        private void collectUses() {
+            ArrayDeque<Node> worklist = new ArrayDeque<>();
+            Set<Node> visited = new HashSet<>();
+            Set<BasicBlock> visitedBlocks = new HashSet<>();
+            ArrayDeque<BasicBlock> blocks = new ArrayDeque<>();
+            blocks.add(body.getEntryBlock());
+            visitedBlocks.add(body.getEntryBlock());
+            while (! blocks.isEmpty()) {
+                BasicBlock block = blocks.poll();
+                Terminator terminator = block.getTerminator();
+                if (visited.add(terminator)) {
+                    worklist.add(terminator);
+                }
+                for (Value value : terminator.getOutboundValues().values()) {
+                    phiInputs.add(value);
+                    if (visited.add(value)) {
+                        worklist.add(value);
+                    }
+                }
+                int cnt = terminator.getSuccessorCount();
+                for (int i = 0; i < cnt; i ++) {
+                    BasicBlock successor = terminator.getSuccessor(i);
+                    if (visitedBlocks.add(successor)) {
+                        blocks.add(successor);
+                    }
+                }
+            }
+            while (! worklist.isEmpty()) {
+                Node node = worklist.poll();
+                if (node instanceof New allocation) {
+                    allocations.add(allocation);
+                }
+                if (node instanceof OrderedNode on) {
+                    Node dependency = on.getDependency();
+                    if (visited.add(dependency)) {
+                        worklist.add(dependency);
+                    }
+                }
+                int cnt = node.getValueDependencyCount();
+                for (int i = 0; i < cnt; i ++) {
+                    Value dependency = node.getValueDependency(i);
+                    users.computeIfAbsent(dependency, k -> new ArrayList<>()).add(node);
+                    if (visited.add(dependency)) {
+                        worklist.add(dependency);
+                    }
+                }
+                if (node.hasValueHandleDependency()) {
+                    ValueHandle handle = node.getValueHandle();
+                    users.computeIfAbsent(handle, k -> new ArrayList<>()).add(node);
+                    if (visited.add(handle)) {
+                        worklist.add(handle);
+                    }
+                }
+            }
+        }
+
+        private List<Node> usersOf(Node node) {
+            return users.getOrDefault(node, List.of());
+        }
+
+        /**
+         * Compute the local escape state of the given value.
+         *
+         * @param root the value to analyze
+         * @param constructors the list to which constructors called on the value are added, or {@code null} to
+         *      not collect them
+         * @return the escape state
+         */
+        private Escape analyze(Value root, List<ConstructorElement> constructors) {
+            List<Dependency> dependencies = new ArrayList<>();
+            ArrayDeque<Value> aliases = new ArrayDeque<>();
+            Set<Value> seen = new HashSet<>();
+            aliases.add(root);
+            seen.add(root);
+            while (! aliases.isEmpty()) {
+                Value value = aliases.poll();
+                if (phiInputs.contains(value)) {
+                    return ESCAPE;
+                }
+                for (Node user : usersOf(value)) {
+                    if (user instanceof NotNull || user instanceof CheckCast cc && cc.getInput() == value) {
+                        if (seen.add((Value) user)) {
+                            aliases.add((Value) user);
+                        }
+                    } else if (user instanceof IsEq || user instanceof IsNe || user instanceof InstanceOf) {
+                        // comparisons do not capture the reference
+                    } else if (user instanceof ReferenceHandle rh) {
+                        if (! isFieldAccessOnly(rh)) {
+                            return ESCAPE;
+                        }
+                    } else if (user instanceof ConstructorElementHandle ceh && ceh.getInstance() == value) {
+                        for (Node call : usersOf(ceh)) {
+                            if (! isSafeCall(call, ceh, value, dependencies)) {
+                                return ESCAPE;
+                            }
+                            if (constructors != null && call instanceof Call) {
+                                constructors.add(ceh.getExecutable());
+                            }
+                        }
+                        dependencies.add(new Dependency(ceh.getExecutable(), -1));
+                    } else if (user instanceof ExactMethodElementHandle emh && emh.getInstance() == value) {
+                        for (Node call : usersOf(emh)) {
+                            if (! isSafeCall(call, emh, value, dependencies)) {
+                                return ESCAPE;
+                            }
+                        }
+                        dependencies.add(new Dependency(emh.getExecutable(), -1));
+                    } else if (isCall(user) && user.getValueHandle() instanceof Executable target && isExact(target)) {
+                        if (! isSafeCall(user, target, value, dependencies)) {
+                            return ESCAPE;
+                        }
+                    } else {
+                        // stored as a value, returned, thrown, passed to an unknown target, or otherwise captured
+                        return ESCAPE;
+                    }
+                }
+            }
+            return dependencies.isEmpty() ? NO_ESCAPE : new Escape(false, List.copyOf(dependencies));
+        }
+
+        private boolean isFieldAccessOnly(ReferenceHandle rh) {
+            for (Node user : usersOf(rh)) {
+                if (! (user instanceof InstanceFieldOf field)) {
+                    return false;
+                }
+                for (Node access : usersOf(field)) {
+                    if (access instanceof Load load && load.getValueHandle() == field) {
+                        continue;
+                    }
+                    if (access instanceof Store store && store.getValueHandle() == field) {
+                        continue;
+                    }
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static boolean isCall(Node node) {
+            // tail calls are excluded because they release the caller's frame
+            return node instanceof Call || node instanceof CallNoSideEffects || node instanceof CallNoReturn || node instanceof Invoke || node instanceof InvokeNoReturn;
+        }
+
+        private static boolean isExact(Executable target) {
+            return target instanceof ConstructorElementHandle || target instanceof ExactMethodElementHandle || target instanceof StaticMethodElementHandle;
+        }
+
+        /**
+         * Check a call whose target is known, recording a dependency for every argument position at which the value
+         * is passed.
+         */
+        private boolean isSafeCall(Node call, Executable target, Value value, List<Dependency> dependencies) {
+            if (! isCall(call) || call.getValueHandle() != target) {
+                return false;
+            }
+            int cnt = call.getValueDependencyCount();
+            for (int i = 0; i < cnt; i ++) {
+                if (call.getValueDependency(i) == value) {
+                    dependencies.add(new Dependency(target.getExecutable(), i));
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Determine whether every use of the allocation is a plain field access in the allocating block or a
+         * constructor call on it (which must turn out to be trivial) in that block.
+         */
+        private boolean isLocalOnly(New allocation, List<ConstructorElement> constructors) {
+            if (phiInputs.contains(allocation)) {
+                return false;
+            }
+            BasicBlock block = schedule.getBlockForNode(allocation);
+            int constructorCalls = 0;
+            for (Node user : usersOf(allocation)) {
+                if (user instanceof ReferenceHandle rh) {
+                    for (Node fieldUser : usersOf(rh)) {
+                        if (! (fieldUser instanceof InstanceFieldOf field)) {
+                            return false;
+                        }
+                        for (Node access : usersOf(field)) {
+                            if (schedule.getBlockForNode(access) != block) {
+                                return false;
+                            }
+                            if (access instanceof Load load) {
+                                if (! GlobalPlain.includes(load.getAccessMode()) || ! load.getType().equals(field.getValueType())) {
+                                    return false;
+                                }
+                            } else if (access instanceof Store store) {
+                                if (! GlobalPlain.includes(store.getAccessMode()) || ! store.getValue().getType().equals(field.getValueType())) {
+                                    return false;
+                                }
+                            } else {
+                                return false;
+                            }
+                        }
+                    }
+                } else if (user instanceof ConstructorElementHandle ceh) {
+                    for (Node call : usersOf(ceh)) {
+                        if (! (call instanceof Call) || schedule.getBlockForNode(call) != block) {
+                            return false;
+                        }
+                        for (Value argument : ((Call) call).getArguments()) {
+                            if (argument == allocation) {
+                                return false;
+                            }
+                        }
+                        constructorCalls ++;
+                    }
+                } else {
+                    return false;
+                }
+            }
+            return constructorCalls == constructors.size();
+        }
+
+        /**
+         * If the body is a constructor body which does nothing but call other constructors on {@code this} and store
+         * parameters or literals into fields of {@code this}, return those steps in program order.
+         */
+        private List<Initializer> findInitializers(ParameterValue thisValue) {
+            if (thisValue == null || ! (body.getEntryBlock().getTerminator() instanceof Return ret)) {
+                return null;
+            }
+            List<Initializer> initializers = new ArrayList<>();
+            Node node = ret.getDependency();
+            while (! (node instanceof BlockEntry)) {
+                if (node instanceof Call call && call.getValueHandle() instanceof ConstructorElementHandle ceh && ceh.getInstance() == thisValue) {
+                    for (Value argument : call.getArguments()) {
+                        if (! isInitialValue(argument)) {
+                            return null;
+                        }
+                    }
+                    initializers.add(new ConstructorInitializer(ceh.getExecutable(), call.getArguments()));
+                    node = call.getDependency();
+                } else if (node instanceof Store store && store.getValueHandle() instanceof InstanceFieldOf field
+                    && field.getValueHandle() instanceof ReferenceHandle rh && rh.getReferenceValue() == thisValue
+                    && GlobalPlain.includes(store.getAccessMode()) && isInitialValue(store.getValue())
+                    && store.getValue().getType().equals(field.getValueType())) {
+                    initializers.add(new FieldInitializer(field.getVariableElement(), store.getValue()));
+                    node = store.getDependency();
+                } else {
+                    return null;
+                }
+            }
+            Collections.reverse(initializers);
+            return List.copyOf(initializers);
+        }
+
+        private boolean isInitialValue(Value value) {
+            return value instanceof Literal || value instanceof ParameterValue pv && body.getParameterValues().contains(pv);
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package org.qbicc.plugin.opt;
+
+import java.util.function.Consumer;
+
+import org.qbicc.type.definition.element.ExecutableElement;
+
+/**
+ * An element consumer which records the local escape summary of the element body, if any.
+ */
+public final class EscapeAnalysisElementHandler implements Consumer<ExecutableElement> {
+    /**
+     * Construct a new instance.
+     */
+    public EscapeAnalysisElementHandler() {
+    }
+
+    @Override
+    public void accept(ExecutableElement executableElement) {
+        EscapeAnalysis.get(executableElement.getEnclosingType().getContext().getCompilationContext()).summarize(executableElement);
+    }
+}
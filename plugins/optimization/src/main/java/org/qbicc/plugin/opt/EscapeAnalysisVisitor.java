@@ -0,0 +1,100 @@
+package org.qbicc.plugin.opt;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.qbicc.context.CompilationContext;
+import org.qbicc.graph.BasicBlock;
+import org.qbicc.graph.Call;
+import org.qbicc.graph.ConstructorElementHandle;
+import org.qbicc.graph.InstanceFieldOf;
+import org.qbicc.graph.Load;
+import org.qbicc.graph.New;
+import org.qbicc.graph.Node;
+import org.qbicc.graph.NodeVisitor;
+import org.qbicc.graph.ReferenceHandle;
+import org.qbicc.graph.Store;
+import org.qbicc.graph.Value;
+import org.qbicc.graph.ValueHandle;
+import org.qbicc.type.definition.element.ExecutableElement;
+import org.qbicc.type.definition.element.FieldElement;
+
+/**
+ * A copying visitor which applies the results of {@link EscapeAnalysis}.  Allocations which are only accessed
+ * locally are replaced by their field values, including the values stored by their constructors, and the copies of
+ * the remaining non-escaping allocations are registered so that they can be allocated on the stack when lowered.
+ */
+public class EscapeAnalysisVisitor implements NodeVisitor.Delegating<Node.Copier, Value, Node, BasicBlock, ValueHandle> {
+    private final CompilationContext context;
+    private final NodeVisitor<Node.Copier, Value, Node, BasicBlock, ValueHandle> delegate;
+    private final EscapeAnalysis escapeAnalysis;
+    private final Map<New, Map<FieldElement, Value>> replaced = new HashMap<>();
+
+    public EscapeAnalysisVisitor(final CompilationContext context, final NodeVisitor<Node.Copier, Value, Node, BasicBlock, ValueHandle> delegate) {
+        this.context = context;
+        this.delegate = delegate;
+        this.escapeAnalysis = EscapeAnalysis.get(context);
+    }
+
+    public NodeVisitor<Node.Copier, Value, Node, BasicBlock, ValueHandle> getDelegateNodeVisitor() {
+        return delegate;
+    }
+
+    public Value visit(final Node.Copier param, final New node) {
+        ExecutableElement rootElement = param.getBlockBuilder().getRootElement();
+        if (escapeAnalysis.isScalarReplaceable(rootElement, node)) {
+            param.copyNode(node.getDependency());
+            replaced.put(node, new HashMap<>());
+            // every use of the allocation is replaced, so this value is never consumed
+            return context.getLiteralFactory().zeroInitializerLiteralOfType(node.getType());
+        }
+        Value copy = NodeVisitor.Delegating.super.visit(param, node);
+        if (copy instanceof New copiedNew && ! escapeAnalysis.escapes(rootElement, node)) {
+            escapeAnalysis.registerStackAllocation(rootElement, copiedNew);
+        }
+        return copy;
+    }
+
+    public Value visit(final Node.Copier param, final Load node) {
+        Map<FieldElement, Value> fields = getReplacedFields(node.getValueHandle());
+        if (fields != null) {
+            param.copyNode(node.getDependency());
+            Value value = fields.get(((InstanceFieldOf) node.getValueHandle()).getVariableElement());
+            return value != null ? value : context.getLiteralFactory().zeroInitializerLiteralOfType(node.getType());
+        }
+        return NodeVisitor.Delegating.super.visit(param, node);
+    }
+
+    public Node visit(final Node.Copier param, final Store node) {
+        Map<FieldElement, Value> fields = getReplacedFields(node.getValueHandle());
+        if (fields != null) {
+            Node dependency = param.copyNode(node.getDependency());
+            fields.put(((InstanceFieldOf) node.getValueHandle()).getVariableElement(), param.copyValue(node.getValue()));
+            return dependency;
+        }
+        return NodeVisitor.Delegating.super.visit(param, node);
+    }
+
+    public Value visit(final Node.Copier param, final Call node) {
+        if (node.getValueHandle() instanceof ConstructorElementHandle ceh && ceh.getInstance() instanceof New n && replaced.containsKey(n)) {
+            // the constructor only initializes fields, so apply its stores to the replaced fields instead
+            param.copyNode(node.getDependency());
+            List<Value> arguments = new ArrayList<>(node.getArguments().size());
+            for (Value argument : node.getArguments()) {
+                arguments.add(param.copyValue(argument));
+            }
+            escapeAnalysis.applyConstructor(ceh.getExecutable(), arguments, replaced.get(n));
+            return context.getLiteralFactory().zeroInitializerLiteralOfType(node.getType());
+        }
+        return NodeVisitor.Delegating.super.visit(param, node);
+    }
+
+    private Map<FieldElement, Value> getReplacedFields(ValueHandle handle) {
+        if (handle instanceof InstanceFieldOf field && field.getValueHandle() instanceof ReferenceHandle rh && rh.getReferenceValue() instanceof New n) {
+            return replaced.get(n);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,275 @@
+package org.qbicc.plugin.opt;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.qbicc.context.AttachmentKey;
+import org.qbicc.context.CompilationContext;
+import org.qbicc.graph.BasicBlock;
+import org.qbicc.graph.BlockEntry;
+import org.qbicc.graph.Call;
+import org.qbicc.graph.CheckCast;
+import org.qbicc.graph.ConstructorElementHandle;
+import org.qbicc.graph.InstanceFieldOf;
+import org.qbicc.graph.Load;
+import org.qbicc.graph.New;
+import org.qbicc.graph.Node;
+import org.qbicc.graph.NotNull;
+import org.qbicc.graph.OrderedNode;
+import org.qbicc.graph.ParameterValue;
+import org.qbicc.graph.ReferenceHandle;
+import org.qbicc.graph.Return;
+import org.qbicc.graph.Store;
+import org.qbicc.graph.Terminator;
+import org.qbicc.graph.Value;
+import org.qbicc.graph.ValueHandle;
+import org.qbicc.type.definition.MethodBody;
+import org.qbicc.type.definition.element.ConstructorElement;
+import org.qbicc.type.definition.element.ExecutableElement;
+import org.qbicc.type.definition.element.FieldElement;
+
+/**
+ * Definite initialization information for object allocations.
+ * <p>
+ * A summary is computed for each constructor body once it is final (at the end of the {@code ANALYZE} phase).  The
+ * summary records the fields of {@code this} which the entry block of the constructor stores before {@code this} may be
+ * observed by any other code, and whether the constructor returns without {@code this} ever being observed.  The fields
+ * which are stored by an allocating block after an allocation and before the allocation may be observed are computed
+ * on demand, which includes the fields stored by the constructors that are called on it.  If every field of an
+ * allocation is stored before it may be observed, the allocation does not need to be zeroed.
+ * <p>
+ * Reading a field which was not yet stored, passing the object anywhere other than to a constructor of its own, storing
+ * it anywhere, or reaching the end of the block all end the search.  Recursive constructors and missing bodies are
+ * conservatively treated as storing nothing.
+ */
+public final class InitializationAnalysis {
+    private static final AttachmentKey<InitializationAnalysis> KEY = new AttachmentKey<>();
+    // the constructors which are followed form the super() and this() chain, so this is about the depth of the class
+    // hierarchy; a longer chain is treated as storing nothing, which only keeps the zeroing
+    private static final int MAX_DEPTH = 16;
+
+    private static final Initialization NONE = new Initialization(Set.of(), false);
+
+    private final Map<ConstructorElement, List<Step>> summaries = new ConcurrentHashMap<>();
+    private final Map<ConstructorElement, Initialization> resolved = new ConcurrentHashMap<>();
+
+    private InitializationAnalysis() {}
+
+    public static InitializationAnalysis get(CompilationContext ctxt) {
+        return ctxt.computeAttachmentIfAbsent(KEY, InitializationAnalysis::new);
+    }
+
+    /**
+     * Compute and record the initialization summary of the given element's body, if it is a constructor.
+     *
+     * @param element the element (must not be {@code null})
+     */
+    void summarize(ExecutableElement element) {
+        if (element instanceof ConstructorElement constructor && element.hasMethodBody()) {
+            MethodBody body = element.getMethodBody();
+            ParameterValue thisValue = body.getThisValue();
+            if (thisValue != null) {
+                summaries.put(constructor, scan(body.getEntryBlock(), thisValue));
+            }
+        }
+    }
+
+    /**
+     * Get the fields of the given allocation which are definitely stored before the allocation may be observed by any
+     * code other than its constructors.  The allocation must be a node of the final body of the given element.
+     *
+     * @param element the element whose body contains the allocation
+     * @param allocation the allocation node
+     * @return the set of initialized fields (not {@code null})
+     */
+    public Set<FieldElement> getInitializedFields(ExecutableElement element, New allocation) {
+        BasicBlock block = element.getMethodBody().getSchedule().getBlockForNode(allocation);
+        if (block == null) {
+            return Set.of();
+        }
+        return resolve(scan(block, allocation), new HashSet<>(), 0).fields();
+    }
+
+    private Initialization resolve(List<Step> steps, Set<ConstructorElement> inProgress, int depth) {
+        Set<FieldElement> fields = new HashSet<>();
+        for (Step step : steps) {
+            if (step instanceof Stored stored) {
+                fields.add(stored.field());
+            } else if (step instanceof Read read) {
+                if (! fields.contains(read.field())) {
+                    // the field would be observed before it is stored
+                    return new Initialization(fields, false);
+                }
+            } else if (step instanceof Constructed constructed) {
+                Initialization callee = resolve(constructed.constructor(), inProgress, depth + 1);
+                fields.addAll(callee.fields());
+                if (! callee.complete()) {
+                    return new Initialization(fields, false);
+                }
+            } else {
+                return new Initialization(fields, true);
+            }
+        }
+        return new Initialization(fields, false);
+    }
+
+    private Initialization resolve(ConstructorElement constructor, Set<ConstructorElement> inProgress, int depth) {
+        Initialization initialization = resolved.get(constructor);
+        if (initialization != null) {
+            return initialization;
+        }
+        List<Step> steps = summaries.get(constructor);
+        if (steps == null) {
+            return NONE;
+        }
+        if (depth > MAX_DEPTH || ! inProgress.add(constructor)) {
+            // recursive or too deep; assume the worst but do not remember the answer
+            return NONE;
+        }
+        try {
+            initialization = resolve(steps, inProgress, depth);
+        } finally {
+            inProgress.remove(constructor);
+        }
+        if (inProgress.isEmpty()) {
+            // inner answers depend on where a cycle was cut off, so only remember the outermost one
+            resolved.put(constructor, initialization);
+        }
+        return initialization;
+    }
+
+    /**
+     * Scan the ordered nodes of the given block which follow the given object (or all of them, if it is a parameter)
+     * until the object may be observed.
+     */
+    private static List<Step> scan(BasicBlock block, Value object) {
+        List<Node> nodes = new ArrayList<>();
+        Terminator terminator = block.getTerminator();
+        Node node = terminator;
+        while (node != object && ! (node instanceof BlockEntry)) {
+            nodes.add(node);
+            node = ((OrderedNode) node).getDependency();
+        }
+        if (object instanceof New && node != object) {
+            // not an ordered node of this block
+            return List.of();
+        }
+        Collections.reverse(nodes);
+        Scanner scanner = new Scanner(object);
+        List<Step> steps = new ArrayList<>();
+        for (Node current : nodes) {
+            if (current instanceof Store store && store.getValueHandle() instanceof InstanceFieldOf field && scanner.isObject(field)) {
+                if (scanner.dependsOnObject(store.getValue())) {
+                    break;
+                }
+                steps.add(new Stored(field.getVariableElement()));
+            } else if (current instanceof Load load && load.getValueHandle() instanceof InstanceFieldOf field && scanner.isObject(field)) {
+                steps.add(new Read(field.getVariableElement()));
+            } else if (current instanceof Call call && call.getValueHandle() instanceof ConstructorElementHandle ceh && scanner.isAlias(ceh.getInstance())) {
+                boolean escapes = false;
+                for (Value argument : call.getArguments()) {
+                    if (scanner.dependsOnObject(argument)) {
+                        escapes = true;
+                        break;
+                    }
+                }
+                if (escapes) {
+                    break;
+                }
+                steps.add(new Constructed(ceh.getExecutable()));
+            } else if (current == terminator) {
+                if (terminator instanceof Return && ! (object instanceof New)) {
+                    steps.add(Completed.INSTANCE);
+                }
+                break;
+            } else if (scanner.dependsOnObject(current)) {
+                break;
+            }
+        }
+        return List.copyOf(steps);
+    }
+
+    /**
+     * The fields which are definitely initialized, and whether the object is never observed at all.
+     */
+    record Initialization(Set<FieldElement> fields, boolean complete) {}
+
+    sealed interface Step permits Stored, Read, Constructed, Completed {}
+
+    record Stored(FieldElement field) implements Step {}
+
+    record Read(FieldElement field) implements Step {}
+
+    record Constructed(ConstructorElement constructor) implements Step {}
+
+    enum Completed implements Step {
+        INSTANCE
+    }
+
+    static final class Scanner {
+        private final Value object;
+        private final Map<Node, Boolean> dependencies = new HashMap<>();
+
+        Scanner(Value object) {
+            this.object = object;
+        }
+
+        boolean isAlias(Value value) {
+            if (value == object) {
+                return true;
+            } else if (value instanceof NotNull nn) {
+                return isAlias(nn.getInput());
+            } else if (value instanceof CheckCast cc) {
+                return isAlias(cc.getInput());
+            } else {
+                return false;
+            }
+        }
+
+        boolean isObject(InstanceFieldOf field) {
+            return field.getValueHandle() instanceof ReferenceHandle rh && isAlias(rh.getReferenceValue());
+        }
+
+        /**
+         * Determine whether the given node may use the object.  Loaded values and call results are not followed,
+         * because they can only yield the object if it was stored or passed somewhere before.
+         */
+        boolean dependsOnObject(Node node) {
+            if (node == null) {
+                return false;
+            }
+            if (node == object) {
+                return true;
+            }
+            Boolean known = dependencies.get(node);
+            if (known != null) {
+                return known.booleanValue();
+            }
+            // guard against cycles through phis
+            dependencies.put(node, Boolean.FALSE);
+            boolean result = false;
+            int cnt = node.getValueDependencyCount();
+            for (int i = 0; i < cnt && ! result; i ++) {
+                Value dependency = node.getValueDependency(i);
+                result = ! isOpaque(dependency) && dependsOnObject(dependency);
+            }
+            if (! result && node.hasValueHandleDependency()) {
+                ValueHandle handle = node.getValueHandle();
+                result = dependsOnObject(handle);
+            }
+            dependencies.put(node, Boolean.valueOf(result));
+            return result;
+        }
+
+        private static boolean isOpaque(Value value) {
+            // both are ordered, so the scan has already stopped at them if they use the object
+            return value instanceof Load || value instanceof Call;
+        }
+    }
+}
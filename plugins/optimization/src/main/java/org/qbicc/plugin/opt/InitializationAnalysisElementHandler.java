@@ -0,0 +1,21 @@
+package org.qbicc.plugin.opt;
+
+import java.util.function.Consumer;
+
+import org.qbicc.type.definition.element.ExecutableElement;
+
+/**
+ * An element consumer which records the initialization summary of the element body, if it is a constructor.
+ */
+public final class InitializationAnalysisElementHandler implements Consumer<ExecutableElement> {
+    /**
+     * Construct a new instance.
+     */
+    public InitializationAnalysisElementHandler() {
+    }
+
+    @Override
+    public void accept(ExecutableElement executableElement) {
+        InitializationAnalysis.get(executableElement.getEnclosingType().getContext().getCompilationContext()).summarize(executableElement);
+    }
+}
@@ -0,0 +1,347 @@
+package org.qbicc.plugin.opt;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import org.jboss.logging.Logger;
+import org.qbicc.context.CompilationContext;
+import org.qbicc.graph.BasicBlock;
+import org.qbicc.graph.BasicBlockBuilder;
+import org.qbicc.graph.BlockLabel;
+import org.qbicc.graph.CallNoReturn;
+import org.qbicc.graph.Goto;
+import org.qbicc.graph.If;
+import org.qbicc.graph.InitCheck;
+import org.qbicc.graph.Invoke;
+import org.qbicc.graph.InvokeNoReturn;
+import org.qbicc.graph.IsEq;
+import org.qbicc.graph.Load;
+import org.qbicc.graph.Node;
+import org.qbicc.graph.NodeVisitor;
+import org.qbicc.graph.OrderedNode;
+import org.qbicc.graph.PhiValue;
+import org.qbicc.graph.Return;
+import org.qbicc.graph.Switch;
+import org.qbicc.graph.Terminator;
+import org.qbicc.graph.Throw;
+import org.qbicc.graph.Unreachable;
+import org.qbicc.graph.Unschedulable;
+import org.qbicc.graph.Value;
+import org.qbicc.graph.ValueHandle;
+import org.qbicc.graph.ValueReturn;
+import org.qbicc.graph.literal.Literal;
+import org.qbicc.graph.literal.LiteralFactory;
+import org.qbicc.graph.literal.NullLiteral;
+import org.qbicc.graph.literal.ZeroInitializerLiteral;
+import org.qbicc.graph.schedule.Schedule;
+import org.qbicc.type.definition.MethodBody;
+import org.qbicc.type.definition.element.ExecutableElement;
+
+/**
+ * An element handler which restructures the innermost loops of the element body.
+ * <p>
+ * A loop which branches on a condition that does not change within the loop is <em>unswitched</em>: the condition is
+ * tested once before the loop, which is cloned for each outcome so that neither copy contains the branch.  Otherwise,
+ * a loop which contains a class initialization check or a null check of a loaded value is <em>peeled</em>: its first
+ * iteration is cloned ahead of the loop, so that the checks of the remaining iterations are dominated by those of the
+ * first iteration and may be removed by later passes.
+ * <p>
+ * Only small loops which are entered from a single block, and whose values are not used outside of the loop other than
+ * by phis, are transformed.  The body of the element is only replaced if at least one loop was transformed.
+ */
+public final class LoopOptimizer implements Consumer<ExecutableElement> {
+    private static final Logger slog = Logger.getLogger("org.qbicc.plugin.opt.loops.stats");
+
+    // todo: these are arbitrary
+    private static final int MAX_UNSWITCH_SIZE = 100;
+    private static final int MAX_PEEL_SIZE = 200;
+
+    /**
+     * Construct a new instance.
+     */
+    public LoopOptimizer() {
+    }
+
+    @Override
+    public void accept(ExecutableElement element) {
+        if (! element.hasMethodBody()) {
+            return;
+        }
+        MethodBody original = element.getMethodBody();
+        BasicBlock entryBlock = original.getEntryBlock();
+        // use the same schedule that the copier will use
+        Schedule schedule = Schedule.forMethod(entryBlock);
+        List<BasicBlock> blocks = findBlocks(entryBlock);
+        Map<Terminator, Plan> plans = new HashMap<>();
+        for (Map.Entry<BasicBlock, Set<BasicBlock>> entry : findInnermostLoops(blocks, schedule).entrySet()) {
+            Plan plan = planLoop(entry.getKey(), entry.getValue(), blocks, schedule);
+            if (plan != null) {
+                plans.put(plan.entry(), plan);
+            }
+        }
+        if (plans.isEmpty()) {
+            return;
+        }
+        CompilationContext ctxt = element.getEnclosingType().getContext().getCompilationContext();
+        BasicBlockBuilder builder = new SimpleOptBasicBlockBuilder(ctxt, BasicBlockBuilder.simpleBuilder(ctxt.getTypeSystem(), element));
+        builder.startMethod(original.getParameterValues());
+        BasicBlock copyBlock = Node.Copier.execute(entryBlock, builder, ctxt, (c, delegate) -> new Transformer(c, delegate, plans));
+        builder.finish();
+        Schedule copySchedule = Schedule.forMethod(copyBlock);
+        element.replaceMethodBody(MethodBody.of(copyBlock, copySchedule, original.getThisValue(), original.getParameterValues()));
+        if (slog.isDebugEnabled()) {
+            int unswitched = 0;
+            for (Plan plan : plans.values()) {
+                if (plan.condition() != null) {
+                    unswitched++;
+                }
+            }
+            slog.debugf("Loops of %s: %d unswitched, %d peeled; %d nodes before, %d nodes after", element,
+                Integer.valueOf(unswitched), Integer.valueOf(plans.size() - unswitched),
+                Integer.valueOf(countNodes(blocks, schedule)), Integer.valueOf(countNodes(findBlocks(copyBlock), copySchedule)));
+        }
+    }
+
+    private static List<BasicBlock> findBlocks(BasicBlock entryBlock) {
+        Set<BasicBlock> found = new LinkedHashSet<>();
+        ArrayDeque<BasicBlock> queue = new ArrayDeque<>();
+        found.add(entryBlock);
+        queue.add(entryBlock);
+        BasicBlock block;
+        while ((block = queue.poll()) != null) {
+            Terminator terminator = block.getTerminator();
+            int cnt = terminator.getSuccessorCount();
+            for (int i = 0; i < cnt; i ++) {
+                BasicBlock successor = terminator.getSuccessor(i);
+                if (found.add(successor)) {
+                    queue.add(successor);
+                }
+            }
+        }
+        return new ArrayList<>(found);
+    }
+
+    private static int countNodes(List<BasicBlock> blocks, Schedule schedule) {
+        int cnt = 0;
+        for (BasicBlock block : blocks) {
+            cnt += schedule.getNodesForBlock(block).size();
+        }
+        return cnt;
+    }
+
+    /**
+     * Find the natural loops of the method which do not contain another loop.
+     *
+     * @return a map of each loop header to the blocks of its loop
+     */
+    private static Map<BasicBlock, Set<BasicBlock>> findInnermostLoops(List<BasicBlock> blocks, Schedule schedule) {
+        Map<BasicBlock, Set<BasicBlock>> loops = new LinkedHashMap<>();
+        for (BasicBlock block : blocks) {
+            Terminator terminator = block.getTerminator();
+            int cnt = terminator.getSuccessorCount();
+            for (int i = 0; i < cnt; i ++) {
+                BasicBlock header = terminator.getSuccessor(i);
+                if (schedule.dominates(header, block)) {
+                    // back edge; collect every block which reaches the latch without passing through the header
+                    Set<BasicBlock> body = loops.computeIfAbsent(header, h -> new LinkedHashSet<>(List.of(h)));
+                    ArrayDeque<BasicBlock> queue = new ArrayDeque<>();
+                    if (body.add(block)) {
+                        queue.add(block);
+                    }
+                    BasicBlock current;
+                    while ((current = queue.poll()) != null) {
+                        for (BasicBlock incoming : current.getIncoming()) {
+                            if (incoming.isReachable() && body.add(incoming)) {
+                                queue.add(incoming);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        Set<BasicBlock> headers = Set.copyOf(loops.keySet());
+        loops.entrySet().removeIf(entry -> {
+            for (BasicBlock header : headers) {
+                if (header != entry.getKey() && entry.getValue().contains(header)) {
+                    return true;
+                }
+            }
+            return false;
+        });
+        return loops;
+    }
+
+    private static Plan planLoop(BasicBlock header, Set<BasicBlock> body, List<BasicBlock> blocks, Schedule schedule) {
+        BasicBlock preheader = null;
+        for (BasicBlock incoming : header.getIncoming()) {
+            if (incoming.isReachable() && ! body.contains(incoming)) {
+                if (preheader != null) {
+                    return null;
+                }
+                preheader = incoming;
+            }
+        }
+        if (preheader == null || ! (preheader.getTerminator() instanceof Goto)) {
+            return null;
+        }
+        int size = 0;
+        for (BasicBlock block : body) {
+            if (! isCloneable(block.getTerminator())) {
+                return null;
+            }
+            size += schedule.getNodesForBlock(block).size();
+        }
+        if (size > MAX_PEEL_SIZE || ! isConfined(body, blocks, schedule)) {
+            return null;
+        }
+        List<PhiValue> phis = new ArrayList<>();
+        for (Node node : schedule.getNodesForBlock(header)) {
+            if (node instanceof PhiValue phi && phi.getPinnedBlock() == header) {
+                phis.add(phi);
+            }
+        }
+        if (size <= MAX_UNSWITCH_SIZE) {
+            for (BasicBlock block : body) {
+                if (block.getTerminator() instanceof If if_ && ! (if_.getCondition() instanceof Literal) && isInvariant(if_.getCondition(), body, schedule)) {
+                    return new Plan(preheader.getTerminator(), header, body, phis, if_.getCondition());
+                }
+            }
+        }
+        for (BasicBlock block : body) {
+            if (block.getTerminator() instanceof If if_ && isNullCheckOfLoad(if_.getCondition())) {
+                return new Plan(preheader.getTerminator(), header, body, phis, null);
+            }
+            for (Node node : schedule.getNodesForBlock(block)) {
+                if (node instanceof InitCheck) {
+                    return new Plan(preheader.getTerminator(), header, body, phis, null);
+                }
+            }
+        }
+        return null;
+    }
+
+    private static boolean isCloneable(Terminator terminator) {
+        return terminator instanceof Goto
+            || terminator instanceof If
+            || terminator instanceof Switch
+            || terminator instanceof Invoke
+            || terminator instanceof InvokeNoReturn
+            || terminator instanceof CallNoReturn
+            || terminator instanceof Return
+            || terminator instanceof ValueReturn
+            || terminator instanceof Throw
+            || terminator instanceof Unreachable;
+    }
+
+    private static boolean isNullCheckOfLoad(Value condition) {
+        return condition instanceof IsEq isEq && isEq.getLeftInput() instanceof Load
+            && (isEq.getRightInput() instanceof NullLiteral || isEq.getRightInput() instanceof ZeroInitializerLiteral);
+    }
+
+    private static boolean isInvariant(Node node, Set<BasicBlock> body, Schedule schedule) {
+        if (node instanceof Unschedulable) {
+            return ! dependsOn(node, body, schedule);
+        }
+        return ! body.contains(schedule.getBlockForNode(node));
+    }
+
+    /**
+     * Determine whether the values computed within the loop are only used within the loop or by the phis of the blocks
+     * which are entered from the loop, so that the loop may be cloned.
+     */
+    private static boolean isConfined(Set<BasicBlock> body, List<BasicBlock> blocks, Schedule schedule) {
+        for (BasicBlock block : blocks) {
+            if (body.contains(block)) {
+                continue;
+            }
+            for (Node node : schedule.getNodesForBlock(block)) {
+                if (dependsOn(node, body, schedule)) {
+                    return false;
+                }
+                if (node instanceof Terminator terminator) {
+                    for (Value value : terminator.getOutboundValues().values()) {
+                        if (! isInvariant(value, body, schedule)) {
+                            return false;
+                        }
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    private static boolean dependsOn(Node node, Set<BasicBlock> body, Schedule schedule) {
+        if (node.hasValueHandleDependency() && ! isInvariant(node.getValueHandle(), body, schedule)) {
+            return true;
+        }
+        int cnt = node.getValueDependencyCount();
+        for (int i = 0; i < cnt; i ++) {
+            if (! isInvariant(node.getValueDependency(i), body, schedule)) {
+                return true;
+            }
+        }
+        return node instanceof OrderedNode ordered && ! isInvariant(ordered.getDependency(), body, schedule);
+    }
+
+    /**
+     * A planned loop transformation.
+     *
+     * @param entry the terminator of the single block which enters the loop
+     * @param header the loop header block
+     * @param body the blocks of the loop
+     * @param phis the phis of the loop header
+     * @param condition the loop-invariant condition to unswitch on, or {@code null} to peel the first iteration
+     */
+    record Plan(Terminator entry, BasicBlock header, Set<BasicBlock> body, List<PhiValue> phis, Value condition) {}
+
+    static final class Transformer implements NodeVisitor.Delegating<Node.Copier, Value, Node, BasicBlock, ValueHandle> {
+        private final CompilationContext ctxt;
+        private final NodeVisitor<Node.Copier, Value, Node, BasicBlock, ValueHandle> delegate;
+        private final Map<Terminator, Plan> plans;
+
+        Transformer(final CompilationContext ctxt, final NodeVisitor<Node.Copier, Value, Node, BasicBlock, ValueHandle> delegate, final Map<Terminator, Plan> plans) {
+            this.ctxt = ctxt;
+            this.delegate = delegate;
+            this.plans = plans;
+        }
+
+        public NodeVisitor<Node.Copier, Value, Node, BasicBlock, ValueHandle> getDelegateNodeVisitor() {
+            return delegate;
+        }
+
+        public BasicBlock visit(final Node.Copier param, final Goto node) {
+            Plan plan = plans.get(node);
+            if (plan == null || param.isCopyingRegion()) {
+                return getDelegateTerminatorVisitor().visit(param, node);
+            }
+            param.copyNode(node.getDependency());
+            BasicBlockBuilder bb = param.getBlockBuilder();
+            Value condition = plan.condition();
+            if (condition != null) {
+                // test the condition once, and enter a copy of the loop which is specialized for the outcome
+                LiteralFactory lf = ctxt.getLiteralFactory();
+                Value copiedCondition = param.copyValue(condition);
+                BlockLabel whenTrue = param.copyRegion(plan.header(), plan.body(), Map.of(condition, lf.literalOf(true)), false);
+                BlockLabel whenFalse = param.copyRegion(plan.header(), plan.body(), Map.of(condition, lf.literalOf(false)), false);
+                return bb.if_(copiedCondition, whenTrue, whenFalse);
+            } else {
+                // enter a copy of the first iteration, which continues with the original loop
+                Map<Node, Node> initialValues = new HashMap<>();
+                for (PhiValue phi : plan.phis()) {
+                    Value value = phi.getValueForInput(node);
+                    if (value != null) {
+                        initialValues.put(phi, param.copyValue(value));
+                    }
+                }
+                return bb.goto_(param.copyRegion(plan.header(), plan.body(), initialValues, true));
+            }
+        }
+    }
+}
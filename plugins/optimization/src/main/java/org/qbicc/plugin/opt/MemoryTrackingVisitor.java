@@ -0,0 +1,562 @@
+package org.qbicc.plugin.opt;
+
+import static org.qbicc.graph.atomic.AccessModes.*;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.qbicc.context.CompilationContext;
+import org.qbicc.graph.BasicBlock;
+import org.qbicc.graph.BasicBlockBuilder;
+import org.qbicc.graph.BlockEntry;
+import org.qbicc.graph.BlockLabel;
+import org.qbicc.graph.Call;
+import org.qbicc.graph.CallNoReturn;
+import org.qbicc.graph.CheckCast;
+import org.qbicc.graph.CmpAndSwap;
+import org.qbicc.graph.CurrentThreadRead;
+import org.qbicc.graph.DebugAddressDeclaration;
+import org.qbicc.graph.ElementOf;
+import org.qbicc.graph.Fence;
+import org.qbicc.graph.Field;
+import org.qbicc.graph.GetAndAdd;
+import org.qbicc.graph.GetAndBitwiseAnd;
+import org.qbicc.graph.GetAndBitwiseNand;
+import org.qbicc.graph.GetAndBitwiseOr;
+import org.qbicc.graph.GetAndBitwiseXor;
+import org.qbicc.graph.GetAndSet;
+import org.qbicc.graph.GetAndSetMax;
+import org.qbicc.graph.GetAndSetMin;
+import org.qbicc.graph.GetAndSub;
+import org.qbicc.graph.Goto;
+import org.qbicc.graph.If;
+import org.qbicc.graph.InitCheck;
+import org.qbicc.graph.InstanceFieldOf;
+import org.qbicc.graph.InstanceOf;
+import org.qbicc.graph.Invoke;
+import org.qbicc.graph.InvokeNoReturn;
+import org.qbicc.graph.Load;
+import org.qbicc.graph.MemberOf;
+import org.qbicc.graph.MonitorEnter;
+import org.qbicc.graph.MonitorExit;
+import org.qbicc.graph.MultiNewArray;
+import org.qbicc.graph.New;
+import org.qbicc.graph.NewArray;
+import org.qbicc.graph.NewReferenceArray;
+import org.qbicc.graph.Node;
+import org.qbicc.graph.NodeVisitor;
+import org.qbicc.graph.OrderedNode;
+import org.qbicc.graph.PhiValue;
+import org.qbicc.graph.ReferenceHandle;
+import org.qbicc.graph.Return;
+import org.qbicc.graph.StackAllocation;
+import org.qbicc.graph.StaticField;
+import org.qbicc.graph.Store;
+import org.qbicc.graph.Switch;
+import org.qbicc.graph.TailCall;
+import org.qbicc.graph.TailInvoke;
+import org.qbicc.graph.Terminator;
+import org.qbicc.graph.Throw;
+import org.qbicc.graph.Unreachable;
+import org.qbicc.graph.Value;
+import org.qbicc.graph.ValueHandle;
+import org.qbicc.graph.ValueReturn;
+import org.qbicc.graph.atomic.AccessMode;
+import org.qbicc.type.ReferenceType;
+import org.qbicc.type.ValueType;
+
+/**
+ * A copying visitor which forwards stored and loaded memory values to later loads of the same location.
+ * <p>
+ * Unlike {@link LocalMemoryTrackingBasicBlockBuilder}, the set of known values is carried across block
+ * boundaries: a block which has a single predecessor inherits the predecessor's known values, a block with several
+ * predecessors inherits the values that are known on every incoming edge (introducing a new phi where the values
+ * differ), and a loop header inherits the values which are not clobbered anywhere in the body of the loop.
+ * <p>
+ * Aliasing is field-based: accesses to distinct fields never alias, array elements only alias array elements of the
+ * same type, and any store through a location which cannot be classified (for example, a raw pointer) is assumed
+ * to alias everything.  Calls, fences, monitor operations, non-plain accesses and read-modify-write operations
+ * clear all known values.
+ */
+public class MemoryTrackingVisitor implements NodeVisitor.Delegating<Node.Copier, Value, Node, BasicBlock, ValueHandle> {
+    private final CompilationContext context;
+    private final NodeVisitor<Node.Copier, Value, Node, BasicBlock, ValueHandle> delegate;
+    // original terminator -> state on exit from its block
+    private final Map<Terminator, Exit> exits = new HashMap<>();
+    // original block -> set of original blocks reachable from the entry block without passing through it
+    private final Map<BasicBlock, Set<BasicBlock>> reachableAvoiding = new HashMap<>();
+    private BasicBlock entryBlock;
+    private Map<ValueHandle, Known> known = new LinkedHashMap<>();
+
+    public MemoryTrackingVisitor(final CompilationContext context, final NodeVisitor<Node.Copier, Value, Node, BasicBlock, ValueHandle> delegate) {
+        this.context = context;
+        this.delegate = delegate;
+    }
+
+    public NodeVisitor<Node.Copier, Value, Node, BasicBlock, ValueHandle> getDelegateNodeVisitor() {
+        return delegate;
+    }
+
+    // block entry
+
+    public Node visit(final Node.Copier param, final BlockEntry node) {
+        BasicBlock block = node.getPinnedBlock();
+        if (entryBlock == null) {
+            entryBlock = block;
+        }
+        known = computeEntryState(param, block);
+        return getDelegateActionVisitor().visit(param, node);
+    }
+
+    // memory accesses
+
+    public Value visit(final Node.Copier param, final Load node) {
+        param.copyNode(node.getDependency());
+        ValueHandle handle = param.copyValueHandle(node.getValueHandle());
+        BasicBlockBuilder bb = param.getBlockBuilder();
+        if (! isPlain(node.getAccessMode(), handle)) {
+            // acquire semantics; we cannot know what other threads have done
+            known.clear();
+            return bb.load(handle, node.getAccessMode());
+        }
+        Known existing = known.get(handle);
+        if (existing != null) {
+            return existing.getValue(context, bb);
+        }
+        Value loaded = bb.load(handle, node.getAccessMode());
+        if (loaded instanceof Load) {
+            known.put(handle, new Known(loaded));
+        }
+        return loaded;
+    }
+
+    public Node visit(final Node.Copier param, final Store node) {
+        param.copyNode(node.getDependency());
+        ValueHandle handle = param.copyValueHandle(node.getValueHandle());
+        Value value = param.copyValue(node.getValue());
+        Node result = param.getBlockBuilder().store(handle, value, node.getAccessMode());
+        if (! isPlain(node.getAccessMode(), handle)) {
+            known.clear();
+        } else {
+            kill(aliasKey(handle));
+            if (result instanceof Store && isForwardable(handle.getValueType(), ((Store) result).getValue().getType())) {
+                known.put(handle, new Known(((Store) result).getValue()));
+            }
+        }
+        return result;
+    }
+
+    // operations which clobber all of memory
+
+    public Value visit(final Node.Copier param, final Call node) {
+        clobber(param, node);
+        return getDelegateValueVisitor().visit(param, node);
+    }
+
+    public Value visit(final Node.Copier param, final CmpAndSwap node) {
+        clobber(param, node);
+        return getDelegateValueVisitor().visit(param, node);
+    }
+
+    public Value visit(final Node.Copier param, final GetAndAdd node) {
+        clobber(param, node);
+        return getDelegateValueVisitor().visit(param, node);
+    }
+
+    public Value visit(final Node.Copier param, final GetAndBitwiseAnd node) {
+        clobber(param, node);
+        return getDelegateValueVisitor().visit(param, node);
+    }
+
+    public Value visit(final Node.Copier param, final GetAndBitwiseNand node) {
+        clobber(param, node);
+        return getDelegateValueVisitor().visit(param, node);
+    }
+
+    public Value visit(final Node.Copier param, final GetAndBitwiseOr node) {
+        clobber(param, node);
+        return getDelegateValueVisitor().visit(param, node);
+    }
+
+    public Value visit(final Node.Copier param, final GetAndBitwiseXor node) {
+        clobber(param, node);
+        return getDelegateValueVisitor().visit(param, node);
+    }
+
+    public Value visit(final Node.Copier param, final GetAndSet node) {
+        clobber(param, node);
+        return getDelegateValueVisitor().visit(param, node);
+    }
+
+    public Value visit(final Node.Copier param, final GetAndSetMax node) {
+        clobber(param, node);
+        return getDelegateValueVisitor().visit(param, node);
+    }
+
+    public Value visit(final Node.Copier param, final GetAndSetMin node) {
+        clobber(param, node);
+        return getDelegateValueVisitor().visit(param, node);
+    }
+
+    public Value visit(final Node.Copier param, final GetAndSub node) {
+        clobber(param, node);
+        return getDelegateValueVisitor().visit(param, node);
+    }
+
+    public Node visit(final Node.Copier param, final Fence node) {
+        clobber(param, node);
+        return getDelegateActionVisitor().visit(param, node);
+    }
+
+    public Node visit(final Node.Copier param, final InitCheck node) {
+        clobber(param, node);
+        return getDelegateActionVisitor().visit(param, node);
+    }
+
+    public Node visit(final Node.Copier param, final MonitorEnter node) {
+        clobber(param, node);
+        return getDelegateActionVisitor().visit(param, node);
+    }
+
+    public Node visit(final Node.Copier param, final MonitorExit node) {
+        clobber(param, node);
+        return getDelegateActionVisitor().visit(param, node);
+    }
+
+    public BasicBlock visit(final Node.Copier param, final CallNoReturn node) {
+        clobber(param, node);
+        return getDelegateTerminatorVisitor().visit(param, node);
+    }
+
+    public BasicBlock visit(final Node.Copier param, final TailCall node) {
+        clobber(param, node);
+        return getDelegateTerminatorVisitor().visit(param, node);
+    }
+
+    public BasicBlock visit(final Node.Copier param, final TailInvoke node) {
+        clobber(param, node);
+        return exit(node, getDelegateTerminatorVisitor().visit(param, node));
+    }
+
+    public BasicBlock visit(final Node.Copier param, final Invoke node) {
+        clobber(param, node);
+        return exit(node, getDelegateTerminatorVisitor().visit(param, node));
+    }
+
+    public BasicBlock visit(final Node.Copier param, final InvokeNoReturn node) {
+        clobber(param, node);
+        return exit(node, getDelegateTerminatorVisitor().visit(param, node));
+    }
+
+    // control flow
+
+    public BasicBlock visit(final Node.Copier param, final Goto node) {
+        param.copyNode(node.getDependency());
+        return exit(node, getDelegateTerminatorVisitor().visit(param, node));
+    }
+
+    public BasicBlock visit(final Node.Copier param, final If node) {
+        param.copyNode(node.getDependency());
+        return exit(node, getDelegateTerminatorVisitor().visit(param, node));
+    }
+
+    public BasicBlock visit(final Node.Copier param, final Switch node) {
+        param.copyNode(node.getDependency());
+        return exit(node, getDelegateTerminatorVisitor().visit(param, node));
+    }
+
+    // implementation
+
+    private void clobber(final Node.Copier param, final OrderedNode node) {
+        param.copyNode(node.getDependency());
+        known.clear();
+    }
+
+    private BasicBlock exit(final Terminator original, final BasicBlock copy) {
+        exits.put(original, new Exit(copy, known));
+        return copy;
+    }
+
+    private void kill(final Object aliasKey) {
+        if (aliasKey == null) {
+            known.clear();
+        } else {
+            known.keySet().removeIf(k -> {
+                Object key = aliasKey(k);
+                return key == null || key.equals(aliasKey);
+            });
+        }
+    }
+
+    private Map<ValueHandle, Known> computeEntryState(final Node.Copier param, final BasicBlock block) {
+        List<BasicBlock> forward = new ArrayList<>();
+        List<BasicBlock> backward = new ArrayList<>();
+        for (BasicBlock incoming : block.getIncoming()) {
+            if (! incoming.isReachable()) {
+                continue;
+            }
+            if (exits.containsKey(incoming.getTerminator())) {
+                forward.add(incoming);
+            } else if (dominates(block, incoming)) {
+                backward.add(incoming);
+            } else {
+                // some path into this block has not been processed (or cannot be tracked)
+                return new LinkedHashMap<>();
+            }
+        }
+        if (forward.isEmpty()) {
+            return new LinkedHashMap<>();
+        }
+        // a phi in a loop header would need an input for each back edge as well
+        Map<ValueHandle, Known> state = merge(param, block, forward, backward.isEmpty());
+        if (! backward.isEmpty() && ! state.isEmpty()) {
+            removeLoopClobbers(block, backward, state);
+        }
+        return state;
+    }
+
+    private Map<ValueHandle, Known> merge(final Node.Copier param, final BasicBlock block, final List<BasicBlock> forward, final boolean allowPhis) {
+        Map<ValueHandle, Known> first = exits.get(forward.get(0).getTerminator()).known;
+        Map<ValueHandle, Known> state = new LinkedHashMap<>(first);
+        int cnt = forward.size();
+        if (cnt == 1 || state.isEmpty()) {
+            return state;
+        }
+        Exit[] inputs = new Exit[cnt];
+        Set<BasicBlock> copiedInputs = new HashSet<>();
+        boolean canMerge = allowPhis;
+        BlockLabel label = param.copyBlock(block);
+        for (int i = 0; i < cnt; i ++) {
+            inputs[i] = exits.get(forward.get(i).getTerminator());
+            canMerge &= copiedInputs.add(inputs[i].block) && flowsInto(inputs[i].block, label);
+        }
+        Iterator<Map.Entry<ValueHandle, Known>> iterator = state.entrySet().iterator();
+        outer: while (iterator.hasNext()) {
+            Map.Entry<ValueHandle, Known> entry = iterator.next();
+            ValueHandle handle = entry.getKey();
+            Known value = entry.getValue();
+            boolean same = true;
+            for (int i = 1; i < cnt; i ++) {
+                Known other = inputs[i].known.get(handle);
+                if (other == null) {
+                    iterator.remove();
+                    continue outer;
+                }
+                same &= other.isSameAs(value);
+            }
+            if (! same) {
+                if (canMerge) {
+                    Map<BasicBlock, Known> phiInputs = new LinkedHashMap<>(cnt);
+                    for (Exit input : inputs) {
+                        phiInputs.put(input.block, input.known.get(handle));
+                    }
+                    entry.setValue(new Known(handle.getValueType(), label, phiInputs));
+                } else {
+                    iterator.remove();
+                }
+            }
+        }
+        return state;
+    }
+
+    private void removeLoopClobbers(final BasicBlock header, final List<BasicBlock> backward, final Map<ValueHandle, Known> state) {
+        // find the natural loop body for all of the back edges
+        Set<BasicBlock> body = new HashSet<>();
+        body.add(header);
+        ArrayDeque<BasicBlock> queue = new ArrayDeque<>(backward);
+        BasicBlock current;
+        while ((current = queue.poll()) != null) {
+            if (body.add(current)) {
+                for (BasicBlock incoming : current.getIncoming()) {
+                    if (incoming.isReachable()) {
+                        queue.add(incoming);
+                    }
+                }
+            }
+        }
+        Set<Object> clobbered = new HashSet<>();
+        for (BasicBlock member : body) {
+            Node node = member.getTerminator();
+            while (node instanceof OrderedNode) {
+                if (! addClobbers(node, clobbered)) {
+                    state.clear();
+                    return;
+                }
+                node = ((OrderedNode) node).getDependency();
+            }
+        }
+        if (! clobbered.isEmpty()) {
+            state.keySet().removeIf(k -> {
+                Object key = aliasKey(k);
+                return key == null || clobbered.contains(key);
+            });
+        }
+    }
+
+    /**
+     * Add the alias key clobbered by the given node to the set.
+     *
+     * @param node the original node
+     * @param clobbered the set of clobbered alias keys
+     * @return {@code true} if the node clobbers a known set of locations, or {@code false} if it may clobber anything
+     */
+    private static boolean addClobbers(final Node node, final Set<Object> clobbered) {
+        if (node instanceof Store) {
+            Store store = (Store) node;
+            Object key = aliasKey(store.getValueHandle());
+            if (key == null || ! isPlain(store.getAccessMode(), store.getValueHandle())) {
+                return false;
+            }
+            clobbered.add(key);
+            return true;
+        } else if (node instanceof Load) {
+            return isPlain(((Load) node).getAccessMode(), node.getValueHandle());
+        } else {
+            return node instanceof Goto
+                || node instanceof If
+                || node instanceof Switch
+                || node instanceof Return
+                || node instanceof ValueReturn
+                || node instanceof Throw
+                || node instanceof Unreachable
+                || node instanceof New
+                || node instanceof NewArray
+                || node instanceof NewReferenceArray
+                || node instanceof MultiNewArray
+                || node instanceof InstanceOf
+                || node instanceof CheckCast
+                || node instanceof CurrentThreadRead
+                || node instanceof StackAllocation
+                || node instanceof DebugAddressDeclaration;
+        }
+    }
+
+    private boolean dominates(final BasicBlock dominator, final BasicBlock block) {
+        return ! reachableAvoiding.computeIfAbsent(dominator, this::findReachableAvoiding).contains(block);
+    }
+
+    private Set<BasicBlock> findReachableAvoiding(final BasicBlock avoided) {
+        Set<BasicBlock> reachable = new HashSet<>();
+        if (entryBlock == avoided) {
+            return reachable;
+        }
+        ArrayDeque<BasicBlock> queue = new ArrayDeque<>();
+        queue.add(entryBlock);
+        BasicBlock current;
+        while ((current = queue.poll()) != null) {
+            if (current != avoided && reachable.add(current)) {
+                Terminator terminator = current.getTerminator();
+                int cnt = terminator.getSuccessorCount();
+                for (int i = 0; i < cnt; i ++) {
+                    queue.add(terminator.getSuccessor(i));
+                }
+            }
+        }
+        return reachable;
+    }
+
+    private static boolean flowsInto(final BasicBlock copiedBlock, final BlockLabel label) {
+        Terminator terminator = copiedBlock.getTerminator();
+        if (terminator instanceof Goto) {
+            return ((Goto) terminator).getResumeTargetLabel() == label;
+        } else if (terminator instanceof If) {
+            If if_ = (If) terminator;
+            // a phi can only distinguish the two edges if they go to different places
+            return if_.getTrueBranchLabel() == label ^ if_.getFalseBranchLabel() == label;
+        } else {
+            return false;
+        }
+    }
+
+    private static boolean isPlain(final AccessMode mode, final ValueHandle handle) {
+        return GlobalPlain.includes(mode) && GlobalPlain.includes(handle.getDetectedMode());
+    }
+
+    private static boolean isForwardable(final ValueType handleType, final ValueType valueType) {
+        return handleType.equals(valueType) || handleType instanceof ReferenceType && valueType instanceof ReferenceType;
+    }
+
+    /**
+     * Get the alias class of the given handle.  Handles with different alias classes never refer to overlapping
+     * memory.
+     *
+     * @param handle the value handle
+     * @return the alias class, or {@code null} if the handle may alias anything
+     */
+    static Object aliasKey(final ValueHandle handle) {
+        if (handle instanceof InstanceFieldOf || handle instanceof StaticField) {
+            return ((Field) handle).getVariableElement();
+        } else if (handle instanceof ElementOf) {
+            ValueHandle arrayHandle = handle.getValueHandle();
+            return arrayHandle instanceof ReferenceHandle ? handle.getValueType() : aliasKey(arrayHandle);
+        } else if (handle instanceof MemberOf) {
+            return aliasKey(handle.getValueHandle());
+        } else {
+            return null;
+        }
+    }
+
+    static final class Exit {
+        final BasicBlock block;
+        final Map<ValueHandle, Known> known;
+
+        Exit(final BasicBlock block, final Map<ValueHandle, Known> known) {
+            this.block = block;
+            this.known = known;
+        }
+    }
+
+    /**
+     * A known value, which is either a specific value or a merge of the known values of each incoming edge
+     * that is materialized as a phi on first use.
+     */
+    static final class Known {
+        private final ValueType type;
+        private final BlockLabel owner;
+        private final Map<BasicBlock, Known> inputs;
+        private Value value;
+
+        Known(final Value value) {
+            this.value = value;
+            type = null;
+            owner = null;
+            inputs = Map.of();
+        }
+
+        Known(final ValueType type, final BlockLabel owner, final Map<BasicBlock, Known> inputs) {
+            this.type = type;
+            this.owner = owner;
+            this.inputs = inputs;
+        }
+
+        boolean isSameAs(Known other) {
+            return this == other || value != null && value.equals(other.value);
+        }
+
+        Value getValue(final CompilationContext ctxt, final BasicBlockBuilder bb) {
+            Value value = this.value;
+            if (value == null) {
+                Map<BasicBlock, Value> values = new LinkedHashMap<>(inputs.size());
+                boolean nullable = false;
+                for (Map.Entry<BasicBlock, Known> entry : inputs.entrySet()) {
+                    Value input = entry.getValue().getValue(ctxt, bb);
+                    nullable |= input.isNullable();
+                    values.put(entry.getKey(), input);
+                }
+                PhiValue phi = nullable ? bb.phi(type, owner) : bb.phi(type, owner, PhiValue.Flag.NOT_NULL);
+                for (Map.Entry<BasicBlock, Value> entry : values.entrySet()) {
+                    phi.setValueForBlock(ctxt, bb.getCurrentElement(), entry.getKey(), entry.getValue());
+                }
+                this.value = value = phi;
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package org.qbicc.plugin.opt;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.qbicc.graph.atomic.AccessModes.SingleUnshared;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiFunction;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.qbicc.context.CompilationContext;
+import org.qbicc.graph.Add;
+import org.qbicc.graph.BasicBlock;
+import org.qbicc.graph.BasicBlockBuilder;
+import org.qbicc.graph.BlockLabel;
+import org.qbicc.graph.Goto;
+import org.qbicc.graph.If;
+import org.qbicc.graph.Node;
+import org.qbicc.graph.NodeVisitor;
+import org.qbicc.graph.ParameterValue;
+import org.qbicc.graph.PhiValue;
+import org.qbicc.graph.Value;
+import org.qbicc.graph.ValueHandle;
+import org.qbicc.graph.ValueReturn;
+import org.qbicc.graph.literal.IntegerLiteral;
+import org.qbicc.test.AbstractCompilerTestCase;
+import org.qbicc.type.definition.DefinedTypeDefinition;
+import org.qbicc.type.definition.classfile.ClassFile;
+import org.qbicc.type.definition.element.LocalVariableElement;
+import org.qbicc.type.definition.element.MethodElement;
+import org.qbicc.type.descriptor.BaseTypeDescriptor;
+import org.qbicc.type.descriptor.ClassTypeDescriptor;
+import org.qbicc.type.descriptor.MethodDescriptor;
+import org.qbicc.type.generic.BaseTypeSignature;
+import org.qbicc.type.generic.ClassSignature;
+import org.qbicc.type.generic.MethodSignature;
+
+/**
+ * Tests for the cloning of regions by {@link Node.Copier#copyRegion}.
+ */
+public final class TestCopierRegions extends AbstractCompilerTestCase {
+
+    MethodElement element;
+    ParameterValue flag;
+    ParameterValue n;
+    BasicBlock entryBlock;
+    BasicBlock whenTrue;
+    Add sum;
+
+    /**
+     * Build {@code flag ? v + (n + 1) : n} as a diamond whose merge block has a phi.  The load of {@code v} and the
+     * sum are scheduled in the true block, while {@code n + 1} is scheduled in the entry block.
+     */
+    @BeforeEach
+    public void setUpEach() {
+        final DefinedTypeDefinition.Builder typeBuilder = DefinedTypeDefinition.Builder.basic();
+        typeBuilder.setContext(bootClassContext);
+        typeBuilder.setName("TestClass");
+        typeBuilder.setDescriptor(ClassTypeDescriptor.synthesize(bootClassContext, "TestClass"));
+        typeBuilder.setModifiers(ClassFile.ACC_SUPER | ClassFile.ACC_PUBLIC);
+        typeBuilder.setSignature(ClassSignature.synthesize(bootClassContext, null, List.of()));
+        typeBuilder.setSimpleName("TestClass");
+        typeBuilder.setInitializer((index, enclosing, builder) -> builder.build(), 0);
+        final DefinedTypeDefinition enclosingType = typeBuilder.build();
+        final MethodElement.Builder builder = MethodElement.builder("testMethod", MethodDescriptor.VOID_METHOD_DESCRIPTOR);
+        builder.setEnclosingType(enclosingType);
+        builder.setSignature(MethodSignature.VOID_METHOD_SIGNATURE);
+        builder.setModifiers(ClassFile.ACC_STATIC);
+        builder.setParameters(List.of());
+        element = builder.build();
+
+        BasicBlockBuilder bbb = BasicBlockBuilder.simpleBuilder(ts, element);
+        flag = bbb.parameter(ts.getBooleanType(), "p", 0);
+        n = bbb.parameter(ts.getSignedInteger32Type(), "p", 1);
+        bbb.startMethod(List.of(flag, n));
+        BlockLabel entry = new BlockLabel();
+        BlockLabel trueLabel = new BlockLabel();
+        BlockLabel falseLabel = new BlockLabel();
+        BlockLabel merge = new BlockLabel();
+        bbb.begin(entry);
+        bbb.if_(flag, trueLabel, falseLabel);
+        bbb.begin(trueLabel);
+        Value loaded = bbb.load(bbb.localVariable(createLocalVar("v")), SingleUnshared);
+        sum = (Add) bbb.add(loaded, bbb.add(n, lf.literalOf(1)));
+        BasicBlock fromTrue = bbb.goto_(merge);
+        bbb.begin(falseLabel);
+        BasicBlock fromFalse = bbb.goto_(merge);
+        bbb.begin(merge);
+        PhiValue phi = bbb.phi(ts.getSignedInteger32Type(), merge);
+        bbb.return_(phi);
+        bbb.finish();
+        phi.setValueForBlock(ctxt, element, fromTrue, sum);
+        phi.setValueForBlock(ctxt, element, fromFalse, n);
+        entryBlock = BlockLabel.getTargetOf(entry);
+        whenTrue = fromTrue;
+    }
+
+    @Test
+    public void testCopyWithoutRegions() {
+        BasicBlock copy = copy((c, delegate) -> delegate);
+        If if_ = (If) copy.getTerminator();
+        assertEquals(flag, if_.getCondition());
+        BasicBlock merge = if_.getTrueBranch().getTerminator().getSuccessor(0);
+        assertSame(merge, if_.getFalseBranch().getTerminator().getSuccessor(0));
+        PhiValue phi = (PhiValue) ((ValueReturn) merge.getTerminator()).getReturnValue();
+        assertTrue(phi.getValueForInput(if_.getTrueBranch().getTerminator()) instanceof Add);
+        assertEquals(n, phi.getValueForInput(if_.getFalseBranch().getTerminator()));
+    }
+
+    @Test
+    public void testCopyRegion() {
+        // both branches enter the true block; one enters its ordinary copy, the other a clone
+        BasicBlock copy = copy((c, delegate) -> new EntryRewriter(delegate, Map.of()));
+        If if_ = (If) copy.getTerminator();
+        BasicBlock clone = if_.getTrueBranch();
+        BasicBlock ordinary = if_.getFalseBranch();
+        assertNotSame(clone, ordinary);
+        // nodes scheduled in the region are copied again for the clone
+        BasicBlock merge = clone.getTerminator().getSuccessor(0);
+        assertSame(merge, ordinary.getTerminator().getSuccessor(0));
+        assertEquals(Set.of(clone, ordinary), merge.getIncoming());
+        PhiValue phi = (PhiValue) ((ValueReturn) merge.getTerminator()).getReturnValue();
+        Value fromClone = phi.getValueForInput(clone.getTerminator());
+        Value fromOrdinary = phi.getValueForInput(ordinary.getTerminator());
+        assertTrue(fromClone instanceof Add);
+        assertTrue(fromOrdinary instanceof Add);
+        assertNotSame(fromClone, fromOrdinary);
+        assertNotSame(((Add) fromClone).getLeftInput(), ((Add) fromOrdinary).getLeftInput());
+        // nodes scheduled outside of the region share their single copy
+        assertSame(((Add) fromClone).getRightInput(), ((Add) fromOrdinary).getRightInput());
+    }
+
+    @Test
+    public void testCopyRegionWithSubstitution() {
+        BasicBlock copy = copy((c, delegate) -> new EntryRewriter(delegate, Map.of(sum, lf.literalOf(5))));
+        If if_ = (If) copy.getTerminator();
+        BasicBlock clone = if_.getTrueBranch();
+        BasicBlock merge = clone.getTerminator().getSuccessor(0);
+        PhiValue phi = (PhiValue) ((ValueReturn) merge.getTerminator()).getReturnValue();
+        assertTrue(phi.getValueForInput(clone.getTerminator()) instanceof IntegerLiteral il && il.intValue() == 5);
+        assertTrue(phi.getValueForInput(if_.getFalseBranch().getTerminator()) instanceof Add);
+    }
+
+    @Test
+    public void testRegionWithoutHeader() {
+        assertThrows(IllegalArgumentException.class, () -> copy((c, delegate) -> new NodeVisitor.Delegating<Node.Copier, Value, Node, BasicBlock, ValueHandle>() {
+            public NodeVisitor<Node.Copier, Value, Node, BasicBlock, ValueHandle> getDelegateNodeVisitor() {
+                return delegate;
+            }
+
+            public BasicBlock visit(Node.Copier param, If node) {
+                param.copyRegion(whenTrue, Set.of(entryBlock), Map.of(), false);
+                return getDelegateTerminatorVisitor().visit(param, node);
+            }
+        }));
+    }
+
+    @Test
+    public void testIsCopyingRegion() {
+        boolean[] seen = new boolean[2];
+        copy((c, delegate) -> new EntryRewriter(delegate, Map.of()) {
+            public BasicBlock visit(Node.Copier param, Goto node) {
+                seen[param.isCopyingRegion() ? 1 : 0] = true;
+                return super.visit(param, node);
+            }
+        });
+        assertTrue(seen[0]);
+        assertTrue(seen[1]);
+    }
+
+    private LocalVariableElement createLocalVar(String name) {
+        final LocalVariableElement.Builder builder = LocalVariableElement.builder(name, BaseTypeDescriptor.I);
+        builder.setEnclosingType(element.getEnclosingType());
+        builder.setType(ts.getSignedInteger32Type());
+        builder.setSignature(BaseTypeSignature.I);
+        builder.setTypeParameterContext(element.getEnclosingType());
+        return builder.build();
+    }
+
+    private BasicBlock copy(BiFunction<CompilationContext, NodeVisitor<Node.Copier, Value, Node, BasicBlock, ValueHandle>, NodeVisitor<Node.Copier, Value, Node, BasicBlock, ValueHandle>> factory) {
+        BasicBlockBuilder builder = BasicBlockBuilder.simpleBuilder(ts, element);
+        builder.startMethod(List.of(flag, n));
+        BasicBlock copy = Node.Copier.execute(entryBlock, builder, ctxt, factory);
+        builder.finish();
+        return copy;
+    }
+
+    /**
+     * Rewrite the entry branch so that it enters a clone of the true block if the condition holds, and the ordinary
+     * copy of the true block otherwise.
+     */
+    class EntryRewriter implements NodeVisitor.Delegating<Node.Copier, Value, Node, BasicBlock, ValueHandle> {
+        private final NodeVisitor<Node.Copier, Value, Node, BasicBlock, ValueHandle> delegate;
+        private final Map<? extends Node, ? extends Node> substitutions;
+
+        EntryRewriter(NodeVisitor<Node.Copier, Value, Node, BasicBlock, ValueHandle> delegate, Map<? extends Node, ? extends Node> substitutions) {
+            this.delegate = delegate;
+            this.substitutions = substitutions;
+        }
+
+        public NodeVisitor<Node.Copier, Value, Node, BasicBlock, ValueHandle> getDelegateNodeVisitor() {
+            return delegate;
+        }
+
+        public BasicBlock visit(Node.Copier param, If node) {
+            param.copyNode(node.getDependency());
+            BlockLabel clone = param.copyRegion(whenTrue, Set.of(whenTrue), substitutions, false);
+            return param.getBlockBuilder().if_(param.copyValue(node.getCondition()), clone, param.copyBlock(whenTrue));
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package org.qbicc.plugin.opt;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.qbicc.graph.atomic.AccessModes.SingleUnshared;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.qbicc.graph.BasicBlock;
+import org.qbicc.graph.BasicBlockBuilder;
+import org.qbicc.graph.BlockLabel;
+import org.qbicc.graph.If;
+import org.qbicc.graph.IsEq;
+import org.qbicc.graph.IsLt;
+import org.qbicc.graph.ParameterValue;
+import org.qbicc.graph.PhiValue;
+import org.qbicc.graph.Terminator;
+import org.qbicc.graph.Value;
+import org.qbicc.graph.literal.IntegerLiteral;
+import org.qbicc.graph.schedule.Schedule;
+import org.qbicc.test.AbstractCompilerTestCase;
+import org.qbicc.type.PointerType;
+import org.qbicc.type.ValueType;
+import org.qbicc.type.definition.DefinedTypeDefinition;
+import org.qbicc.type.definition.MethodBody;
+import org.qbicc.type.definition.classfile.ClassFile;
+import org.qbicc.type.definition.element.LocalVariableElement;
+import org.qbicc.type.definition.element.MethodElement;
+import org.qbicc.type.descriptor.BaseTypeDescriptor;
+import org.qbicc.type.descriptor.ClassTypeDescriptor;
+import org.qbicc.type.descriptor.MethodDescriptor;
+import org.qbicc.type.generic.BaseTypeSignature;
+import org.qbicc.type.generic.ClassSignature;
+import org.qbicc.type.generic.MethodSignature;
+
+public final class TestLoopOptimizer extends AbstractCompilerTestCase {
+
+    @Test
+    public void testUnswitch() {
+        // for (int i = 0; i < n; i ++) { if (flag) { ... } else { ... } }
+        MethodElement element = createMethod((bbb, flag, n) -> {
+            BlockLabel header = new BlockLabel();
+            BlockLabel body = new BlockLabel();
+            BlockLabel whenTrue = new BlockLabel();
+            BlockLabel whenFalse = new BlockLabel();
+            BlockLabel exit = new BlockLabel();
+            BasicBlock entry = bbb.goto_(header);
+            bbb.begin(header);
+            PhiValue i = bbb.phi(ts.getSignedInteger32Type(), header);
+            bbb.if_(bbb.isLt(i, n), body, exit);
+            bbb.begin(body);
+            Value next = bbb.add(i, lf.literalOf(1));
+            bbb.if_(flag, whenTrue, whenFalse);
+            bbb.begin(whenTrue);
+            BasicBlock fromTrue = bbb.goto_(header);
+            bbb.begin(whenFalse);
+            BasicBlock fromFalse = bbb.goto_(header);
+            bbb.begin(exit);
+            bbb.return_();
+            return () -> {
+                i.setValueForBlock(ctxt, bbb.getRootElement(), entry, lf.literalOf(0));
+                i.setValueForBlock(ctxt, bbb.getRootElement(), fromTrue, next);
+                i.setValueForBlock(ctxt, bbb.getRootElement(), fromFalse, next);
+            };
+        });
+        ParameterValue flag = element.getMethodBody().getParameterValues().get(0);
+
+        new LoopOptimizer().accept(element);
+
+        BasicBlock entry = element.getMethodBody().getEntryBlock();
+        // the condition is tested once ahead of the loop...
+        If test = (If) entry.getTerminator();
+        assertEquals(flag, test.getCondition());
+        // ...and each outcome enters its own copy of the loop
+        BasicBlock trueHeader = test.getTrueBranch();
+        BasicBlock falseHeader = test.getFalseBranch();
+        assertNotSame(trueHeader, falseHeader);
+        assertTrue(trueHeader.getTerminator() instanceof If trueIf && trueIf.getCondition() instanceof IsLt);
+        assertTrue(falseHeader.getTerminator() instanceof If falseIf && falseIf.getCondition() instanceof IsLt);
+        // neither copy branches on the condition any more
+        int tests = 0;
+        for (BasicBlock block : findBlocks(entry)) {
+            if (block.getTerminator() instanceof If if_ && if_.getCondition().equals(flag)) {
+                tests ++;
+            }
+        }
+        assertEquals(1, tests);
+        // each copy loops back to its own header
+        assertTrue(loopsBackTo(trueHeader));
+        assertTrue(loopsBackTo(falseHeader));
+        assertFalse(findBlocks(trueHeader).contains(falseHeader));
+        assertFalse(findBlocks(falseHeader).contains(trueHeader));
+    }
+
+    @Test
+    public void testPeel() {
+        // for (int i = 0; i < n; i ++) { if (v == null) { ... } }
+        PointerType pointerType = ts.getSignedInteger8Type().getPointer();
+        MethodElement element = createMethod((bbb, flag, n) -> {
+            LocalVariableElement v = createLocalVar(bbb, "v", pointerType);
+            BlockLabel header = new BlockLabel();
+            BlockLabel body = new BlockLabel();
+            BlockLabel whenZero = new BlockLabel();
+            BlockLabel latch = new BlockLabel();
+            BlockLabel exit = new BlockLabel();
+            BasicBlock entry = bbb.goto_(header);
+            bbb.begin(header);
+            PhiValue i = bbb.phi(ts.getSignedInteger32Type(), header);
+            bbb.if_(bbb.isLt(i, n), body, exit);
+            bbb.begin(body);
+            Value loaded = bbb.load(bbb.localVariable(v), SingleUnshared);
+            bbb.if_(bbb.isEq(loaded, lf.nullLiteralOfType(pointerType)), whenZero, latch);
+            bbb.begin(whenZero);
+            bbb.goto_(latch);
+            bbb.begin(latch);
+            Value next = bbb.add(i, lf.literalOf(1));
+            BasicBlock fromLatch = bbb.goto_(header);
+            bbb.begin(exit);
+            bbb.return_();
+            return () -> {
+                i.setValueForBlock(ctxt, bbb.getRootElement(), entry, lf.literalOf(0));
+                i.setValueForBlock(ctxt, bbb.getRootElement(), fromLatch, next);
+            };
+        });
+
+        new LoopOptimizer().accept(element);
+
+        BasicBlock entry = element.getMethodBody().getEntryBlock();
+        List<BasicBlock> blocks = findBlocks(entry);
+        // the first iteration is entered directly, with the initial value of the induction variable
+        BasicBlock peeledHeader = entry.getTerminator().getSuccessor(0);
+        If peeledTest = (If) peeledHeader.getTerminator();
+        assertTrue(peeledTest.getCondition() instanceof IsLt isLt && isLt.getLeftInput() instanceof IntegerLiteral il && il.intValue() == 0);
+        assertEquals(Set.of(entry), peeledHeader.getIncoming());
+        assertFalse(loopsBackTo(peeledHeader));
+        // the check is present in both the first iteration and the loop
+        int checks = 0;
+        BasicBlock loopHeader = null;
+        for (BasicBlock block : blocks) {
+            if (block.getTerminator() instanceof If if_) {
+                if (if_.getCondition() instanceof IsEq) {
+                    checks ++;
+                } else if (block != peeledHeader && if_.getCondition() instanceof IsLt) {
+                    loopHeader = block;
+                }
+            }
+        }
+        assertEquals(2, checks);
+        // the first iteration continues with the remaining iterations of the loop
+        assertNotNull(loopHeader);
+        assertTrue(loopsBackTo(loopHeader));
+        assertTrue(findBlocks(peeledTest.getTrueBranch()).contains(loopHeader));
+        assertTrue(element.getMethodBody().getSchedule().getNodesForBlock(loopHeader).stream().anyMatch(PhiValue.class::isInstance));
+    }
+
+    @Test
+    public void testNoLoop() {
+        MethodElement element = createMethod((bbb, flag, n) -> {
+            BlockLabel whenTrue = new BlockLabel();
+            BlockLabel whenFalse = new BlockLabel();
+            bbb.if_(flag, whenTrue, whenFalse);
+            bbb.begin(whenTrue);
+            bbb.return_();
+            bbb.begin(whenFalse);
+            bbb.return_();
+            return () -> {};
+        });
+        MethodBody original = element.getMethodBody();
+
+        new LoopOptimizer().accept(element);
+
+        assertSame(original, element.getMethodBody());
+    }
+
+    interface BodyBuilder {
+        /**
+         * Build the body following the entry block, and return an action which sets the values of the phis.
+         */
+        Runnable build(BasicBlockBuilder bbb, ParameterValue flag, ParameterValue n);
+    }
+
+    private MethodElement createMethod(BodyBuilder bodyBuilder) {
+        final DefinedTypeDefinition.Builder typeBuilder = DefinedTypeDefinition.Builder.basic();
+        typeBuilder.setContext(bootClassContext);
+        typeBuilder.setName("TestClass");
+        typeBuilder.setDescriptor(ClassTypeDescriptor.synthesize(bootClassContext, "TestClass"));
+        typeBuilder.setModifiers(ClassFile.ACC_SUPER | ClassFile.ACC_PUBLIC);
+        typeBuilder.setSignature(ClassSignature.synthesize(bootClassContext, null, List.of()));
+        typeBuilder.setSimpleName("TestClass");
+        typeBuilder.setInitializer((index, enclosing, builder) -> builder.build(), 0);
+        final DefinedTypeDefinition enclosingType = typeBuilder.build();
+        final MethodElement.Builder builder = MethodElement.builder("testMethod", MethodDescriptor.VOID_METHOD_DESCRIPTOR);
+        builder.setEnclosingType(enclosingType);
+        builder.setSignature(MethodSignature.VOID_METHOD_SIGNATURE);
+        builder.setModifiers(ClassFile.ACC_STATIC);
+        builder.setParameters(List.of());
+        builder.setMethodBodyFactory((index, e) -> {
+            final BasicBlockBuilder bbb = BasicBlockBuilder.simpleBuilder(ts, e);
+            ParameterValue flag = bbb.parameter(ts.getBooleanType(), "p", 0);
+            ParameterValue n = bbb.parameter(ts.getSignedInteger32Type(), "p", 1);
+            List<ParameterValue> parameters = List.of(flag, n);
+            bbb.startMethod(parameters);
+            BlockLabel entryLabel = new BlockLabel();
+            bbb.begin(entryLabel);
+            Runnable setPhis = bodyBuilder.build(bbb, flag, n);
+            bbb.finish();
+            setPhis.run();
+            BasicBlock entryBlock = BlockLabel.getTargetOf(entryLabel);
+            return MethodBody.of(entryBlock, Schedule.forMethod(entryBlock), null, parameters);
+        }, 0);
+        MethodElement element = builder.build();
+        assertTrue(element.tryCreateMethodBody());
+        return element;
+    }
+
+    private static LocalVariableElement createLocalVar(BasicBlockBuilder bbb, String name, ValueType type) {
+        final LocalVariableElement.Builder builder = LocalVariableElement.builder(name, BaseTypeDescriptor.V);
+        builder.setEnclosingType(bbb.getRootElement().getEnclosingType());
+        builder.setType(type);
+        builder.setSignature(BaseTypeSignature.V);
+        builder.setTypeParameterContext(bbb.getRootElement().getEnclosingType());
+        return builder.build();
+    }
+
+    static boolean loopsBackTo(BasicBlock header) {
+        for (BasicBlock block : findBlocks(header)) {
+            if (block.isSucceededBy(header)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static List<BasicBlock> findBlocks(BasicBlock entryBlock) {
+        Set<BasicBlock> found = new LinkedHashSet<>();
+        ArrayDeque<BasicBlock> queue = new ArrayDeque<>();
+        found.add(entryBlock);
+        queue.add(entryBlock);
+        BasicBlock block;
+        while ((block = queue.poll()) != null) {
+            Terminator terminator = block.getTerminator();
+            int cnt = terminator.getSuccessorCount();
+            for (int i = 0; i < cnt; i ++) {
+                BasicBlock successor = terminator.getSuccessor(i);
+                if (found.add(successor)) {
+                    queue.add(successor);
+                }
+            }
+        }
+        return new ArrayList<>(found);
+    }
+}
@@ -65,7 +65,7 @@ class BuildtimeHeapAnalyzer {
             }
         }
 
-        Layout interpreterLayout = Layout.get(ctxt);
+        Layout interpreterLayout = Layout.getForInterpreter(ctxt);
         CoreClasses coreClasses = CoreClasses.get(ctxt);
         while (!worklist.isEmpty()) {
             VmObject cur = worklist.pop();
@@ -0,0 +1,136 @@
+package org.qbicc.plugin.reachability;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import org.qbicc.context.CompilationContext;
+import org.qbicc.plugin.coreclasses.CoreClasses;
+import org.qbicc.plugin.layout.CompressedReferences;
+import org.qbicc.plugin.layout.Layout;
+import org.qbicc.type.ReferenceType;
+import org.qbicc.type.definition.LoadedTypeDefinition;
+import org.qbicc.type.definition.classfile.ClassFile;
+import org.qbicc.type.definition.element.FieldElement;
+
+/**
+ * A post-ANALYZE hook which installs an optimized target layout.  Instance fields which are never read by a
+ * reachable method are optionally omitted, and the remaining fields are packed by size, or optionally by how often they
+ * are accessed so that hot fields share a cache line.  If {@linkplain CompressedReferences compressed references} are
+ * enabled, reference fields which are only ever loaded and stored are compressed.
+ * <p>
+ * Fields which are injected by the compiler and fields whose offset was observed at build time are always retained
+ * and never compressed.
+ * Types whose field offsets may have been observed at build time (pinned types, and types with a pinned field), along
+ * with their superclasses and the object and array header types, keep the interpreter layout.
+ */
+public final class FieldLayoutOptimizer implements Consumer<CompilationContext> {
+    private static final String[] ARRAY_TYPES = { "[Z", "[B", "[C", "[S", "[I", "[F", "[J", "[D", "[ref" };
+
+    private final boolean omitUnreadFields;
+    private final boolean hotFieldOrdering;
+
+    public FieldLayoutOptimizer(boolean omitUnreadFields, boolean hotFieldOrdering) {
+        this.omitUnreadFields = omitUnreadFields;
+        this.hotFieldOrdering = hotFieldOrdering;
+    }
+
+    @Override
+    public void accept(CompilationContext ctxt) {
+        ReachabilityInfo info = ReachabilityInfo.get(ctxt);
+        CoreClasses coreClasses = CoreClasses.get(ctxt);
+        Set<LoadedTypeDefinition> preserved = new HashSet<>();
+        preserve(preserved, ctxt.getBootstrapClassContext().findDefinedType("java/lang/Object").load());
+        for (String desc : ARRAY_TYPES) {
+            preserve(preserved, coreClasses.getArrayLoadedTypeDefinition(desc));
+        }
+        List<LoadedTypeDefinition> classes = new ArrayList<>();
+        info.visitReachableTypes(ltd -> {
+            if (! ltd.isInterface()) {
+                classes.add(ltd);
+                if (isLayoutObserved(ltd)) {
+                    preserve(preserved, ltd);
+                }
+            }
+        });
+        Layout interpreterLayout = Layout.getForInterpreter(ctxt);
+        Layout layout = Layout.installOptimizedLayout(ctxt,
+            omitUnreadFields ? field -> isRetained(info, field) : field -> true,
+            preserved::contains,
+            hotFieldOrdering ? info::getInstanceFieldAccessCount : null,
+            CompressedReferences.isEnabled(ctxt) ? field -> isCompressible(info, field) : null);
+
+        // report the savings
+        classes.sort(Comparator.comparing(LoadedTypeDefinition::getInternalName));
+        int fieldCount = 0;
+        int omittedCount = 0;
+        int compressedCount = 0;
+        int smallerClasses = 0;
+        long savedBytes = 0;
+        for (LoadedTypeDefinition ltd : classes) {
+            int cnt = ltd.getFieldCount();
+            for (int i = 0; i < cnt; i ++) {
+                FieldElement field = ltd.getField(i);
+                if (! field.isStatic()) {
+                    fieldCount ++;
+                    if (layout.getInstanceLayoutInfo(ltd).getMember(field) == null) {
+                        ReachabilityInfo.LOGGER.debugf("Omitting unread field %s.%s", ltd.getInternalName(), field.getName());
+                        omittedCount ++;
+                    } else if (layout.isCompressedReference(field)) {
+                        compressedCount ++;
+                    }
+                }
+            }
+            if (info.isInstantiatedClass(ltd)) {
+                long oldSize = interpreterLayout.getInstanceLayoutInfo(ltd).getCompoundType().getSize();
+                long newSize = layout.getInstanceLayoutInfo(ltd).getCompoundType().getSize();
+                if (newSize < oldSize) {
+                    ReachabilityInfo.LOGGER.debugf("Instance size of %s reduced from %d to %d bytes", ltd.getInternalName(), Long.valueOf(oldSize), Long.valueOf(newSize));
+                    smallerClasses ++;
+                    savedBytes += oldSize - newSize;
+                }
+            }
+        }
+        ReachabilityInfo.LOGGER.infof("Field layout optimization omitted %d and compressed %d of %d instance fields and reduced the instance size of %d classes by a total of %d bytes",
+            Integer.valueOf(omittedCount), Integer.valueOf(compressedCount), Integer.valueOf(fieldCount), Integer.valueOf(smallerClasses), Long.valueOf(savedBytes));
+    }
+
+    private static boolean isRetained(ReachabilityInfo info, FieldElement field) {
+        return info.isReadInstanceField(field)
+            || field.hasAllModifiersOf(ClassFile.I_ACC_PINNED)
+            || field.hasAllModifiersOf(ClassFile.I_ACC_NO_RESOLVE)
+            || field.getType().getSize() == 0;
+    }
+
+    private static boolean isCompressible(ReachabilityInfo info, FieldElement field) {
+        return field.getType() instanceof ReferenceType
+            && ! info.isExposedInstanceField(field)
+            && ! field.hasAllModifiersOf(ClassFile.I_ACC_PINNED)
+            && ! field.hasAllModifiersOf(ClassFile.I_ACC_NO_RESOLVE);
+    }
+
+    private static boolean isLayoutObserved(LoadedTypeDefinition ltd) {
+        if ((ltd.getModifiers() & ClassFile.I_ACC_PINNED) != 0) {
+            return true;
+        }
+        int cnt = ltd.getFieldCount();
+        for (int i = 0; i < cnt; i ++) {
+            FieldElement field = ltd.getField(i);
+            if (! field.isStatic() && field.hasAllModifiersOf(ClassFile.I_ACC_PINNED)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void preserve(Set<LoadedTypeDefinition> preserved, LoadedTypeDefinition ltd) {
+        // the layout of a type depends on the layout of its superclasses
+        LoadedTypeDefinition current = ltd;
+        while (current != null && preserved.add(current)) {
+            current = current.getSuperClass();
+        }
+    }
+}
@@ -11,15 +11,19 @@ import org.qbicc.graph.ConstructorElementHandle;
 import org.qbicc.graph.DelegatingBasicBlockBuilder;
 import org.qbicc.graph.ExactMethodElementHandle;
 import org.qbicc.graph.FunctionElementHandle;
+import org.qbicc.graph.InstanceFieldOf;
 import org.qbicc.graph.InterfaceMethodElementHandle;
+import org.qbicc.graph.Load;
 import org.qbicc.graph.MultiNewArray;
 import org.qbicc.graph.NewArray;
 import org.qbicc.graph.NewReferenceArray;
 import org.qbicc.graph.Node;
 import org.qbicc.graph.NodeVisitor;
+import org.qbicc.graph.OffsetOfField;
 import org.qbicc.graph.OrderedNode;
 import org.qbicc.graph.StaticField;
 import org.qbicc.graph.StaticMethodElementHandle;
+import org.qbicc.graph.Store;
 import org.qbicc.graph.Terminator;
 import org.qbicc.graph.Value;
 import org.qbicc.graph.ValueHandle;
@@ -60,13 +64,15 @@ public class ReachabilityBlockBuilder extends DelegatingBasicBlockBuilder implem
     static final class ReachabilityContext {
         final CompilationContext ctxt;
         private final ExecutableElement originalElement;
+        private final ReachabilityInfo info;
         private final ReachabilityAnalysis analysis;
         final HashSet<Node> visited = new HashSet<>();
 
         ReachabilityContext(CompilationContext ctxt, ExecutableElement originalElement) {
             this.ctxt = ctxt;
             this.originalElement = originalElement;
-            this.analysis = ReachabilityInfo.get(ctxt).getAnalysis();
+            this.info = ReachabilityInfo.get(ctxt);
+            this.analysis = info.getAnalysis();
         }
     }
 
@@ -104,7 +110,16 @@ public class ReachabilityBlockBuilder extends DelegatingBasicBlockBuilder implem
         boolean visitUnknown(ReachabilityContext param, Node node) {
             if (param.visited.add(node)) {
                 if (node.hasValueHandleDependency()) {
-                    node.getValueHandle().accept(this, param);
+                    ValueHandle handle = node.getValueHandle();
+                    if (handle instanceof InstanceFieldOf ifo) {
+                        // anything other than a plain store may observe the field value
+                        param.info.addInstanceFieldAccess(ifo.getVariableElement(), ! (node instanceof Store));
+                        if (! (node instanceof Load || node instanceof Store)) {
+                            // the field might be accessed through its address, or updated atomically
+                            param.info.addExposedInstanceField(ifo.getVariableElement());
+                        }
+                    }
+                    handle.accept(this, param);
                 }
                 int cnt = node.getValueDependencyCount();
                 for (int i = 0; i < cnt; i ++) {
@@ -209,6 +224,19 @@ public class ReachabilityBlockBuilder extends DelegatingBasicBlockBuilder implem
             return null;
         }
 
+        @Override
+        public Void visit(ReachabilityContext param, OffsetOfField node) {
+            if (visitUnknown(param, (Node)node)) {
+                FieldElement f = node.getFieldElement();
+                if (! f.isStatic()) {
+                    // the field may be accessed through its offset
+                    param.info.addInstanceFieldAccess(f, true);
+                    param.info.addExposedInstanceField(f);
+                }
+            }
+            return null;
+        }
+
         @Override
         public Void visit(ReachabilityContext param, ClassOf node) {
             if (visitUnknown(param, (Node)node)) {
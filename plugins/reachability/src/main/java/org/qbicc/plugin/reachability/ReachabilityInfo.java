@@ -10,7 +10,9 @@ import org.jboss.logging.Logger;
 import org.qbicc.context.AttachmentKey;
 import org.qbicc.context.CompilationContext;
 import org.qbicc.plugin.coreclasses.CoreClasses;
+import org.qbicc.type.definition.DefinedTypeDefinition;
 import org.qbicc.type.definition.LoadedTypeDefinition;
+import org.qbicc.type.definition.element.FieldElement;
 import org.qbicc.type.definition.element.MethodElement;
 
 /**
@@ -45,6 +47,10 @@ import org.qbicc.type.definition.element.MethodElement;
 public class ReachabilityInfo {
     static final Logger LOGGER = Logger.getLogger("org.qbicc.plugin.reachability");
     private static final AttachmentKey<ReachabilityInfo> KEY = new AttachmentKey<>();
+    private static final String[] GC_HELPERS = {
+        "org/qbicc/runtime/gc/nogc/NoGcHelpers",
+        "org/qbicc/runtime/gc/semispace/SemiSpaceHelpers",
+    };
 
     // Tracks reachable classes and their (direct) reachable subclasses
     private final Map<LoadedTypeDefinition, Set<LoadedTypeDefinition>> classHierarchy = new ConcurrentHashMap<>();
@@ -58,6 +64,13 @@ public class ReachabilityInfo {
     // Set of invokable instance methods
     private final Set<MethodElement> invokableMethods = ConcurrentHashMap.newKeySet();
 
+    // Tracks instance fields which could be read by an invokable method
+    private final Set<FieldElement> readInstanceFields = ConcurrentHashMap.newKeySet();
+    // Counts the accesses of each instance field in the code of invokable methods
+    private final Map<FieldElement, Integer> instanceFieldAccesses = new ConcurrentHashMap<>();
+    // Tracks instance fields whose address or offset is observed, or which are updated atomically, by an invokable method
+    private final Set<FieldElement> exposedInstanceFields = ConcurrentHashMap.newKeySet();
+
     private final ReachabilityAnalysis analysis;
 
     private final CompilationContext ctxt;
@@ -87,6 +100,9 @@ public class ReachabilityInfo {
         info.instantiatedClasses.clear();
         info.initializedTypes.clear();
         info.invokableMethods.clear();
+        info.readInstanceFields.clear();
+        info.instanceFieldAccesses.clear();
+        info.exposedInstanceFields.clear();
         info.analysis.clear();
     }
 
@@ -98,6 +114,9 @@ public class ReachabilityInfo {
         LOGGER.debugf("  Instantiated classes:       %s", info.instantiatedClasses.size());
         LOGGER.debugf("  Initialized types:          %s", info.initializedTypes.size());
         LOGGER.debugf("  Invokable instance methods: %s", info.invokableMethods.size());
+        LOGGER.debugf("  Accessed instance fields:   %s", info.instanceFieldAccesses.size());
+        LOGGER.debugf("  Read instance fields:       %s", info.readInstanceFields.size());
+        LOGGER.debugf("  Exposed instance fields:    %s", info.exposedInstanceFields.size());
         info.analysis.reportStats();
     }
 
@@ -133,10 +152,14 @@ public class ReachabilityInfo {
         info.analysis.processInstantiatedClass(unsafe, true, false,null);
         info.analysis.processClassInitialization(unsafe);
 
-        // Hack around the way NoGC entrypoints are registered and then not used until LOWERING PHASE...
-        LOGGER.debugf("Forcing org.qbicc.runtime.gc.nogc.NoGcHelpers reachable");
-        LoadedTypeDefinition nogc = ctxt.getBootstrapClassContext().findDefinedType("org/qbicc/runtime/gc/nogc/NoGcHelpers").load();
-        info.analysis.processClassInitialization(nogc);
+        // Hack around the way GC entrypoints are registered and then not used until LOWERING PHASE...
+        for (String helpers : GC_HELPERS) {
+            DefinedTypeDefinition defined = ctxt.getBootstrapClassContext().findDefinedType(helpers);
+            if (defined != null) {
+                LOGGER.debugf("Forcing %s reachable", helpers);
+                info.analysis.processClassInitialization(defined.load());
+            }
+        }
     }
 
     public boolean isInvokableMethod(MethodElement meth) {
@@ -159,6 +182,39 @@ public class ReachabilityInfo {
         return instantiatedClasses.contains(type);
     }
 
+    /**
+     * Determine whether the given instance field could be read by an invokable method.  A field whose address is
+     * taken or which is the target of an atomic operation is considered to be read.
+     *
+     * @param field the instance field (must not be {@code null})
+     * @return {@code true} if the field could be read, or {@code false} if it is only ever written (or not used at all)
+     */
+    public boolean isReadInstanceField(FieldElement field) {
+        return readInstanceFields.contains(field);
+    }
+
+    /**
+     * Get the number of places in the code of invokable methods which access the given instance field.  This is
+     * a static count which serves as an estimate of how hot the field is.
+     *
+     * @param field the instance field (must not be {@code null})
+     * @return the number of accesses
+     */
+    public int getInstanceFieldAccessCount(FieldElement field) {
+        return instanceFieldAccesses.getOrDefault(field, Integer.valueOf(0)).intValue();
+    }
+
+    /**
+     * Determine whether the given instance field may be accessed by an invokable method by means other than a load or
+     * store of the field itself, such as through its address or offset, or by an atomic read-modify-write operation.
+     *
+     * @param field the instance field (must not be {@code null})
+     * @return {@code true} if the field is exposed, or {@code false} if it is only ever loaded or stored
+     */
+    public boolean isExposedInstanceField(FieldElement field) {
+        return exposedInstanceFields.contains(field);
+    }
+
     public void visitReachableInterfaces(Consumer<LoadedTypeDefinition> function) {
         for (LoadedTypeDefinition i : interfaceHierarchy.keySet()) {
             function.accept(i);
@@ -291,4 +347,15 @@ public class ReachabilityInfo {
     void addInvokableMethod(MethodElement meth) {
         this.invokableMethods.add(meth);
     }
+
+    void addInstanceFieldAccess(FieldElement field, boolean read) {
+        instanceFieldAccesses.merge(field, Integer.valueOf(1), Integer::sum);
+        if (read) {
+            readInstanceFields.add(field);
+        }
+    }
+
+    void addExposedInstanceField(FieldElement field) {
+        exposedInstanceFields.add(field);
+    }
 }
@@ -5,9 +5,11 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.function.BiConsumer;
 import java.util.function.Supplier;
 
 import io.smallrye.common.constraint.Assert;
+import org.jboss.logging.Logger;
 import org.qbicc.context.AttachmentKey;
 import org.qbicc.context.CompilationContext;
 import org.qbicc.graph.literal.Literal;
@@ -22,6 +24,7 @@ import org.qbicc.object.DataDeclaration;
 import org.qbicc.object.Linkage;
 import org.qbicc.object.Section;
 import org.qbicc.plugin.coreclasses.CoreClasses;
+import org.qbicc.plugin.layout.CompressedReferences;
 import org.qbicc.plugin.layout.Layout;
 import org.qbicc.plugin.layout.LayoutInfo;
 import org.qbicc.type.ArrayType;
@@ -47,6 +50,7 @@ import org.qbicc.type.definition.element.GlobalVariableElement;
 import static org.qbicc.graph.atomic.AccessModes.SinglePlain;
 
 public class BuildtimeHeap {
+    private static final Logger LOGGER = Logger.getLogger("org.qbicc.plugin.serialization");
     private static final AttachmentKey<BuildtimeHeap> KEY = new AttachmentKey<>();
     private static final String prefix = "qbicc_initial_heap_obj_";
 
@@ -79,14 +83,31 @@ public class BuildtimeHeap {
     private GlobalVariableElement classArrayGlobal;
 
     private int literalCounter = 0;
+    /**
+     * The number of serialized objects, and the number of bytes which they would have occupied with the interpreter layout
+     * and with the target layout
+     */
+    private long objectCount;
+    private long interpreterLayoutBytes;
+    private long targetLayoutBytes;
+    private long compressedReferenceCount;
+    /**
+     * The heap base for compressed references, which is defined before the first object.
+     */
+    private Literal heapBase;
 
     private BuildtimeHeap(CompilationContext ctxt) {
         this.ctxt = ctxt;
-        this.interpreterLayout = Layout.get(ctxt);
+        this.interpreterLayout = Layout.getForInterpreter(ctxt);
         this.coreClasses = CoreClasses.get(ctxt);
 
         LoadedTypeDefinition ih = ctxt.getBootstrapClassContext().findDefinedType("org/qbicc/runtime/main/InitialHeap").load();
-        this.heapSection = ctxt.getOrAddProgramModule(ih).getOrAddSection(ctxt.IMPLICIT_SECTION_NAME); // TODO: use ctxt.INITIAL_HEAP_SECTION_NAME
+        if (CompressedReferences.isEnabled(ctxt)) {
+            // compressed references are differences between symbols, which can only be resolved within one section
+            this.heapSection = ctxt.getOrAddProgramModule(ih).getOrAddSection(ctxt.INITIAL_HEAP_SECTION_NAME);
+        } else {
+            this.heapSection = ctxt.getOrAddProgramModule(ih).getOrAddSection(ctxt.IMPLICIT_SECTION_NAME); // TODO: use ctxt.INITIAL_HEAP_SECTION_NAME
+        }
     }
 
     public static BuildtimeHeap get(CompilationContext ctxt) {
@@ -101,6 +122,34 @@ public class BuildtimeHeap {
         return heap;
     }
 
+    public static void reportStats(CompilationContext ctxt) {
+        BuildtimeHeap heap = get(ctxt);
+        LOGGER.debug("Initial heap statistics");
+        LOGGER.debugf("  Serialized objects:              %s", heap.objectCount);
+        LOGGER.debugf("  Object bytes (interpreter layout): %s", heap.interpreterLayoutBytes);
+        LOGGER.debugf("  Object bytes (target layout):      %s", heap.targetLayoutBytes);
+        if (Layout.get(ctxt).isOptimized()) {
+            LOGGER.infof("Field layout optimization saved %d bytes in the initial heap", Long.valueOf(heap.interpreterLayoutBytes - heap.targetLayoutBytes));
+        }
+        if (CompressedReferences.isEnabled(ctxt)) {
+            // compiled code refers to the heap base even if there are no objects
+            heap.getHeapBase();
+            LOGGER.debugf("  Compressed references:           %s", heap.compressedReferenceCount);
+        }
+    }
+
+    private synchronized Literal getHeapBase() {
+        Literal heapBase = this.heapBase;
+        if (heapBase == null) {
+            // the heap base occupies the zero offset, which represents null
+            CompressedReferences compressedReferences = CompressedReferences.get(ctxt);
+            Data data = heapSection.addData(null, CompressedReferences.HEAP_BASE, ctxt.getLiteralFactory().literalOf(compressedReferences.getHeapBaseType(), 0));
+            data.setLinkage(Linkage.EXTERNAL);
+            heapBase = this.heapBase = ctxt.getLiteralFactory().literalOf(data);
+        }
+        return heapBase;
+    }
+
     void setClassArrayGlobal(GlobalVariableElement g) {
         this.classArrayGlobal = g;
     }
@@ -118,10 +167,22 @@ public class BuildtimeHeap {
         return vmObjects.get(value);
     }
 
+    /**
+     * Visit every object which was serialized to the initial heap so far.
+     *
+     * @param visitor the visitor, which receives the type and the symbol of each object (must not be {@code null})
+     */
+    public synchronized void visitSerializedObjects(BiConsumer<PhysicalObjectType, ProgramObjectLiteral> visitor) {
+        vmObjects.forEach((vmObject, literal) -> visitor.accept(vmObject.getObjectType(), literal));
+    }
+
     public synchronized ProgramObjectLiteral serializeVmObject(VmObject value) {
         if (vmObjects.containsKey(value)) {
             return vmObjects.get(value);
         }
+        if (CompressedReferences.isEnabled(ctxt)) {
+            getHeapBase();
+        }
         Layout layout = Layout.get(ctxt);
         PhysicalObjectType ot = value.getObjectType();
         ProgramObjectLiteral sl;
@@ -140,7 +201,7 @@ public class BuildtimeHeap {
         } else if (ot instanceof ReferenceArrayObjectType) {
             // Could be part of a cyclic object graph; must record the symbol for this array before we serialize its elements
             FieldElement contentsField = coreClasses.getRefArrayContentField();
-            LayoutInfo info = layout.getInstanceLayoutInfo(contentsField.getEnclosingType());
+            LayoutInfo info = interpreterLayout.getInstanceLayoutInfo(contentsField.getEnclosingType());
             Memory memory = value.getMemory();
             int length = memory.load32(info.getMember(coreClasses.getArrayLengthField()).getOffset(), SinglePlain);
             CompoundType literalCT = arrayLiteralType(contentsField, length);
@@ -230,6 +291,21 @@ public class BuildtimeHeap {
         HashMap<CompoundType.Member, Literal> memberMap = new HashMap<>();
 
         populateMemberMap(concreteType, objType, objLayout, memLayout, memory, memberMap);
+        if (value instanceof VmClass vmClass && vmClass.getTypeDefinition() != null && ! vmClass.getTypeDefinition().isInterface()) {
+            Layout layout = Layout.get(ctxt);
+            if (layout.isOptimized()) {
+                // the instance size was recorded with the interpreter layout
+                CompoundType instanceType = layout.getInstanceLayoutInfo(vmClass.getTypeDefinition()).getCompoundType();
+                CompoundType.Member sizeMember = objLayout.getMember(coreClasses.getClassInstanceSizeField());
+                CompoundType.Member alignMember = objLayout.getMember(coreClasses.getClassInstanceAlignField());
+                LiteralFactory lf = ctxt.getLiteralFactory();
+                memberMap.put(sizeMember, lf.literalOf((IntegerType) sizeMember.getType(), instanceType.getSize()));
+                memberMap.put(alignMember, lf.literalOf((IntegerType) alignMember.getType(), instanceType.getAlign()));
+            }
+        }
+        objectCount ++;
+        interpreterLayoutBytes += memLayout.getCompoundType().getSize();
+        targetLayoutBytes += objType.getSize();
 
         // Define it!
         defineData(sl.getName(), ctxt.getLiteralFactory().literalOf(objType, memberMap));
@@ -260,6 +336,10 @@ public class BuildtimeHeap {
             }
             CompoundType.Member im = memLayout.getMember(f);
             CompoundType.Member om = objLayout.getMember(f);
+            if (om == null) {
+                // the field is not present in the target layout
+                continue;
+            }
             if (im.getType() instanceof IntegerType) {
                 IntegerType it = (IntegerType)im.getType();
                 if (it.getSize() == 1) {
@@ -289,6 +369,10 @@ public class BuildtimeHeap {
                 VmObject contents = memory.loadRef(im.getOffset(), SinglePlain);
                 if (contents == null) {
                     memberMap.put(om, lf.zeroInitializerLiteralOfType(om.getType()));
+                } else if (om.getType() instanceof IntegerType it) {
+                    // a compressed reference
+                    memberMap.put(om, lf.compressedReferenceLiteral(serializeVmObject(contents), getHeapBase(), it));
+                    compressedReferenceCount ++;
                 } else {
                     memberMap.put(om, lf.bitcastLiteral(serializeVmObject(contents), (WordType) om.getType()));
                 }
@@ -344,7 +428,7 @@ public class BuildtimeHeap {
         CompoundType objType = objLayout.getCompoundType();
 
         Memory memory = value.getMemory();
-        int length = memory.load32(objLayout.getMember(coreClasses.getArrayLengthField()).getOffset(), SinglePlain);
+        int length = memory.load32(memLayout.getMember(coreClasses.getArrayLengthField()).getOffset(), SinglePlain);
         CompoundType literalCT = arrayLiteralType(contentsField, length);
 
         Literal arrayContentsLiteral;
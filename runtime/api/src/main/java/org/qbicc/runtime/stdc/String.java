@@ -15,7 +15,11 @@ public class String {
 
     public static native void_ptr memcpy(void_ptr dest, const_void_ptr src, size_t n);
 
+    public static native void_ptr memmove(void_ptr dest, const_void_ptr src, size_t n);
+
     public static native void_ptr memset(void_ptr dest, c_int data, size_t len);
 
+    public static native void_ptr memchr(const_void_ptr s, c_int c, size_t n);
+
     public static native c_int memcmp(const_void_ptr src1, const_void_ptr src2, size_t len);
 }
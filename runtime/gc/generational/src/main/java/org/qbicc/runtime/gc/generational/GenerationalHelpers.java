@@ -0,0 +1,617 @@
+package org.qbicc.runtime.gc.generational;
+
+import static org.qbicc.runtime.CNative.*;
+import static org.qbicc.runtime.posix.SysMman.*;
+import static org.qbicc.runtime.posix.SysTypes.*;
+import static org.qbicc.runtime.posix.Time.*;
+import static org.qbicc.runtime.stdc.Stddef.*;
+import static org.qbicc.runtime.stdc.Stdint.*;
+import static org.qbicc.runtime.stdc.Stdlib.*;
+import static org.qbicc.runtime.stdc.String.*;
+import static org.qbicc.runtime.stdc.Time.*;
+
+import org.qbicc.runtime.Hidden;
+import org.qbicc.runtime.Inline;
+import org.qbicc.runtime.InlineCondition;
+import org.qbicc.runtime.gc.semispace.SemiSpaceTables;
+import org.qbicc.runtime.main.Safepoint;
+import org.qbicc.runtime.stackwalk.StackRoots;
+
+/**
+ * A precise, stop-the-world, generational copying collector.  Objects are bump allocated from a fixed size nursery;
+ * when the nursery is full, the world is stopped and a minor collection promotes the live objects of the nursery to the
+ * old generation.  The old generation is a pair of semispaces which are only allocated into by promotion, and by
+ * objects which are too large for the nursery; when promotion would overflow its allocation limit, a major collection
+ * evacuates the nursery and the current old space to the other old space instead.
+ * <p>
+ * The roots of a minor collection are those of a full collection (the stack slots, the static fields, and the
+ * objects of the initial heap and the pinned objects, none of which are ever moved) plus the old objects which were
+ * written to since the last collection.  The compiler emits a card marking write barrier after every store of a
+ * reference into memory: the card of the stored slot is marked if the slot lies in the old generation.  A minor
+ * collection scans the slots of the marked cards, and finds the objects which cover a card by way of the start table,
+ * which records the offset of the last object which starts in each card.  Objects which are allocated directly in the
+ * old generation have their cards marked up front, so that the stores into them which the compiler proved to need no
+ * barrier are scanned too.
+ * <p>
+ * Objects are forwarded as they are by the semispace collector, and the object layout tables are shared with it.
+ */
+@SuppressWarnings("unused")
+public final class GenerationalHelpers {
+    private GenerationalHelpers() {}
+
+    /**
+     * The size of the nursery.
+     */
+    private static final long NURSERY_SIZE = 0x100_0000L;
+    /**
+     * The size of each old space.
+     */
+    private static final long SPACE_SIZE = 0x4000_0000L;
+    /**
+     * The initial allocation limit of the old generation.
+     */
+    private static final long INITIAL_LIMIT = 0x200_0000L;
+    /**
+     * The largest allocation limit of the old generation, which leaves room to evacuate a full nursery along with it.
+     */
+    private static final long MAX_LIMIT = SPACE_SIZE - NURSERY_SIZE;
+    /**
+     * The size beyond which objects are allocated directly in the old generation.
+     */
+    private static final long LARGE_OBJECT_SIZE = NURSERY_SIZE >> 4;
+    /**
+     * The log2 of the number of bytes covered by a card; this must match the write barrier emitted by the compiler.
+     */
+    private static final int CARD_SHIFT = 9;
+    private static final long CARD_SIZE = 1L << CARD_SHIFT;
+    /**
+     * The tag bit of a forwarding address.
+     */
+    private static final long FORWARDED = 1;
+    /**
+     * The size of the header of a pinned allocation, which links it to the next one.
+     */
+    private static final long PINNED_HEADER_SIZE = 16;
+
+    /**
+     * The base of the nursery, or 0 if the heap was not reserved yet.
+     */
+    private static long nursery;
+    /**
+     * The allocation top of the nursery, which is 0 until the heap is reserved.
+     */
+    private static long nurseryTop;
+    /**
+     * The base of the reservation of both old spaces, which is also the address of the first card.
+     */
+    private static long heapBase;
+    /**
+     * The base of the old space which is promoted to.
+     */
+    private static long current;
+    /**
+     * The base of the other old space.
+     */
+    private static long reserve;
+    /**
+     * The allocation top of the old generation.
+     */
+    private static long top;
+    /**
+     * The allocation limit of the old generation.
+     */
+    private static long end;
+    /**
+     * The base of the old space which is evacuated by a major collection, or 0 during a minor collection.
+     */
+    private static long evacuating;
+    /**
+     * The most recent pinned allocation, or 0.
+     */
+    private static long pinned;
+
+    /**
+     * The card table, with one byte for every card of the old spaces, which is non-zero if the card is marked.
+     */
+    private static long cardTable;
+    /**
+     * The number of cards, which is 0 until the heap is reserved so that the write barrier does nothing until then.
+     */
+    private static long cardCount;
+    /**
+     * The start table, with one byte for every card of the old spaces, which holds one plus the offset in words of
+     * the last object which starts in the card, or 0 if no object starts in it.
+     */
+    private static long startTable;
+
+    /**
+     * Allocate zeroed storage for an object which may be moved.
+     *
+     * @param size the size of the object
+     * @param align the alignment of the object, which must not be greater than 8
+     * @return the storage
+     */
+    @Hidden
+    public static Object allocate(long size, int align) {
+        Safepoint.poll();
+        long rounded = (size + 7) & ~7L;
+        if (rounded > LARGE_OBJECT_SIZE) {
+            return allocateLarge(rounded);
+        }
+        int64_t_ptr topPtr = addr_of(nurseryTop);
+        for (;;) {
+            long start = topPtr.loadVolatile().longValue();
+            long next = start + rounded;
+            if (start != 0 && next <= addr_of(nursery).loadVolatile().longValue() + NURSERY_SIZE) {
+                if (topPtr.compareAndSet(word(start), word(next))) {
+                    void_ptr ptr = word(start);
+                    return ptrToRef(ptr);
+                }
+            } else {
+                collect(rounded);
+            }
+        }
+    }
+
+    /**
+     * Allocate zeroed storage for an object which is never moved or reclaimed.  Such objects are referred to from
+     * native memory.
+     *
+     * @param size the size of the object
+     * @param align the alignment of the object, which must not be greater than 16
+     * @return the storage
+     */
+    @Hidden
+    public static Object allocatePinned(long size, int align) {
+        void_ptr mem = calloc(word(1), word(size + PINNED_HEADER_SIZE));
+        if (mem.isNull()) {
+            throw new OutOfMemoryError(/*"Allocation failed"*/);
+        }
+        long node = mem.longValue();
+        int64_t_ptr next = word(node);
+        int64_t_ptr pinnedPtr = addr_of(pinned);
+        long head;
+        do {
+            head = pinnedPtr.loadVolatile().longValue();
+            next.storePlain(word(head));
+        } while (! pinnedPtr.compareAndSet(word(head), word(node)));
+        void_ptr ptr = word(node + PINNED_HEADER_SIZE);
+        return ptrToRef(ptr);
+    }
+
+    /**
+     * Allocate zeroed storage for an object whose type is only known at run time.
+     *
+     * @param typeId the type ID of the object
+     * @param size the size of the object
+     * @param align the alignment of the object
+     * @return the storage
+     */
+    @Hidden
+    public static Object allocateTyped(int typeId, long size, int align) {
+        if ((SemiSpaceTables.getFlags(typeId) & SemiSpaceTables.PINNED) != 0) {
+            return allocatePinned(size, align);
+        }
+        return allocate(size, align);
+    }
+
+    /**
+     * Mark the cards of a range of reference array elements which were written without a write barrier, such as by a
+     * bulk copy.
+     *
+     * @param array the array (must not be {@code null})
+     * @param start the index of the first element which was written
+     * @param length the number of elements which were written
+     */
+    @Hidden
+    public static void referenceArrayWritten(Object[] array, int start, int length) {
+        if (length == 0 || addr_of(cardCount).loadVolatile().longValue() == 0) {
+            return;
+        }
+        void_ptr arrayPtr = (void_ptr) (ptr<?>) refToPtr(array);
+        long address = arrayPtr.longValue() + SemiSpaceTables.getRefArrayContentOffset() + ((long) start << 3);
+        long base = addr_of(heapBase).loadVolatile().longValue();
+        if (address >= base && address < base + (SPACE_SIZE << 1)) {
+            markCards(address, (long) length << 3);
+        }
+    }
+
+    /**
+     * Get the current allocation limit of the old generation.
+     *
+     * @return the allocation limit in bytes
+     */
+    static long getOldGenerationLimit() {
+        long base = addr_of(current).loadVolatile().longValue();
+        return base == 0 ? INITIAL_LIMIT : addr_of(end).loadVolatile().longValue() - base;
+    }
+
+    /**
+     * Get the number of bytes held by the old generation.
+     *
+     * @return the number of bytes
+     */
+    static long getOldGenerationUsed() {
+        long base = addr_of(current).loadVolatile().longValue();
+        return base == 0 ? 0 : addr_of(top).loadVolatile().longValue() - base;
+    }
+
+    @Hidden
+    @Inline(InlineCondition.NEVER)
+    private static void collect(long size) {
+        boolean exhausted = false;
+        Safepoint.beginCollection();
+        try {
+            long base = addr_of(nursery).loadVolatile().longValue();
+            if (base == 0) {
+                reserveHeap();
+                return;
+            }
+            if (addr_of(nurseryTop).loadVolatile().longValue() + size <= base + NURSERY_SIZE) {
+                // another thread collected in the meantime
+                return;
+            }
+            exhausted = collectLocked(false, 0);
+        } finally {
+            Safepoint.endCollection();
+        }
+        if (exhausted) {
+            throw new OutOfMemoryError(/*"Java heap space"*/);
+        }
+    }
+
+    @Hidden
+    @Inline(InlineCondition.NEVER)
+    private static Object allocateLarge(long size) {
+        long object = 0;
+        Safepoint.beginCollection();
+        try {
+            if (addr_of(nursery).loadVolatile().longValue() == 0) {
+                reserveHeap();
+            }
+            if (addr_of(top).loadPlain().longValue() + size > addr_of(end).loadPlain().longValue()) {
+                collectLocked(true, size);
+            }
+            long start = addr_of(top).loadPlain().longValue();
+            if (start + size <= addr_of(end).loadPlain().longValue()) {
+                addr_of(top).storeVolatile(word(start + size));
+                recordStart(start);
+                // the object is old from the start, so the stores into it while it is fresh have no barrier
+                markCards(start, size);
+                GenerationalStats.recordAllocation(size);
+                object = start;
+            }
+        } finally {
+            Safepoint.endCollection();
+        }
+        if (object == 0) {
+            throw new OutOfMemoryError(/*"Java heap space"*/);
+        }
+        void_ptr ptr = word(object);
+        return ptrToRef(ptr);
+    }
+
+    /**
+     * Stop the world and collect.  The caller must have begun a collection.
+     *
+     * @param major {@code true} to collect the old generation as well
+     * @param request the number of bytes which must be free in the old generation afterwards
+     * @return {@code true} if the old generation is exhausted
+     */
+    private static boolean collectLocked(boolean major, long request) {
+        Safepoint.stopTheWorld();
+        long start = nanoTime();
+        long allocated = addr_of(nurseryTop).loadPlain().longValue() - addr_of(nursery).loadPlain().longValue();
+        long promotedFrom = addr_of(top).loadPlain().longValue();
+        // promotion must not overflow the old generation
+        if (promotedFrom + allocated + request > addr_of(end).loadPlain().longValue()) {
+            major = true;
+        }
+        if (major) {
+            evacuateAll();
+        } else {
+            promote();
+        }
+        long pause = nanoTime() - start;
+        Safepoint.resumeTheWorld();
+
+        long base = addr_of(current).loadPlain().longValue();
+        long live = addr_of(top).loadPlain().longValue() - base;
+        GenerationalStats.recordAllocation(allocated);
+        GenerationalStats.recordCollection(major, pause, addr_of(top).loadPlain().longValue() - (major ? base : promotedFrom));
+        if (! major) {
+            return false;
+        }
+        // keep at least half of the limit free for promotion
+        long limit = addr_of(end).loadPlain().longValue() - base;
+        while (limit < MAX_LIMIT && (live << 1) + request > limit) {
+            limit = Math.min(limit << 1, MAX_LIMIT);
+        }
+        addr_of(end).storeVolatile(word(base + limit));
+        return live + request > limit;
+    }
+
+    private static void reserveHeap() {
+        long cards = (SPACE_SIZE << 1) >>> CARD_SHIFT;
+        long base = mapRegion(SPACE_SIZE << 1);
+        addr_of(cardTable).storeVolatile(word(mapRegion(cards)));
+        addr_of(startTable).storeVolatile(word(mapRegion(cards)));
+        addr_of(heapBase).storeVolatile(word(base));
+        addr_of(cardCount).storeVolatile(word(cards));
+        addr_of(reserve).storeVolatile(word(base + SPACE_SIZE));
+        addr_of(end).storeVolatile(word(base + INITIAL_LIMIT));
+        addr_of(top).storeVolatile(word(base));
+        addr_of(current).storeVolatile(word(base));
+        long nurseryBase = mapRegion(NURSERY_SIZE);
+        addr_of(nursery).storeVolatile(word(nurseryBase));
+        addr_of(nurseryTop).storeVolatile(word(nurseryBase));
+    }
+
+    private static long mapRegion(long size) {
+        c_int prot = word(PROT_READ.intValue() | PROT_WRITE.intValue());
+        c_int flags = word(MAP_PRIVATE.intValue() | MAP_ANONYMOUS.intValue() | MAP_NORESERVE.intValue());
+        off_t offset = word(0L);
+        void_ptr ptr = mmap(zero(), word(size), prot, flags, word(-1), offset);
+        if (ptr.longValue() == -1) {
+            // there is no heap to allocate the error from
+            abort();
+        }
+        return ptr.longValue();
+    }
+
+    /**
+     * Copy the live objects of the nursery to the old generation.  The world must be stopped.
+     */
+    private static void promote() {
+        long scanned = addr_of(top).loadPlain().longValue();
+        visitRoots();
+        scanMarkedCards(addr_of(current).loadPlain().longValue(), scanned);
+        scanCopies(scanned);
+        clearNursery();
+    }
+
+    /**
+     * Copy the live objects of the nursery and of the current old space to the other old space and swap the old
+     * spaces.  The world must be stopped.
+     */
+    private static void evacuateAll() {
+        long from = addr_of(current).loadPlain().longValue();
+        long used = addr_of(top).loadPlain().longValue() - from;
+        long to = addr_of(reserve).loadPlain().longValue();
+        addr_of(top).storePlain(word(to));
+        addr_of(evacuating).storePlain(word(from));
+        visitRoots();
+        scanCopies(to);
+        addr_of(evacuating).storePlain(word(0L));
+        clearNursery();
+
+        // the evacuated space and its cards are zero again when they are next touched
+        void_ptr fromPtr = word(from);
+        madvise(fromPtr, word(used), MADV_DONTNEED);
+        long firstCard = (from - addr_of(heapBase).loadPlain().longValue()) >>> CARD_SHIFT;
+        long cards = (used >>> CARD_SHIFT) + 1;
+        void_ptr cardPtr = word(addr_of(cardTable).loadPlain().longValue() + firstCard);
+        madvise(cardPtr, word(cards), MADV_DONTNEED);
+        void_ptr startPtr = word(addr_of(startTable).loadPlain().longValue() + firstCard);
+        madvise(startPtr, word(cards), MADV_DONTNEED);
+        addr_of(reserve).storePlain(word(from));
+        addr_of(current).storePlain(word(to));
+        addr_of(end).storePlain(word(to + addr_of(end).loadPlain().longValue() - from));
+    }
+
+    /**
+     * Zero the part of the nursery which was allocated from.  The nursery is allocated from again right away, so
+     * it is cleared here rather than returned to the kernel.
+     */
+    private static void clearNursery() {
+        long base = addr_of(nursery).loadPlain().longValue();
+        long used = addr_of(nurseryTop).loadPlain().longValue() - base;
+        void_ptr nurseryPtr = word(base);
+        memset(nurseryPtr, word(0), word(used));
+        addr_of(nurseryTop).storeVolatile(word(base));
+    }
+
+    /**
+     * Forward the stack roots, the static fields, and the reference fields of the objects which are never moved.
+     */
+    private static void visitRoots() {
+        StackRoots.root_list list = auto();
+        list.slots = zero();
+        list.size = 0;
+        list.capacity = 0;
+        StackRoots.root_list_ptr listPtr = addr_of(list);
+        Safepoint.visitStackRoots(listPtr);
+        long count = StackRoots.size(listPtr);
+        int64_t_ptr triples = StackRoots.slots(listPtr);
+        for (long i = 0; i < count; i++) {
+            int64_t_ptr baseSlot = word(triples.plus((int) (i * 3)).loadPlain().longValue());
+            int64_t_ptr derivedSlot = word(triples.plus((int) (i * 3 + 1)).loadPlain().longValue());
+            long delta = triples.plus((int) (i * 3 + 2)).loadPlain().longValue();
+            long base = forward(baseSlot.loadPlain().longValue());
+            baseSlot.storePlain(word(base));
+            if (derivedSlot.longValue() != baseSlot.longValue()) {
+                derivedSlot.storePlain(word(base + delta));
+            }
+        }
+        StackRoots.clear(listPtr);
+
+        int staticCount = SemiSpaceTables.getStaticRootCount();
+        for (int i = 0; i < staticCount; i++) {
+            updateSlot(SemiSpaceTables.getStaticRoot(i));
+        }
+
+        // the write barrier ignores these objects, so they are scanned in full
+        int heapCount = SemiSpaceTables.getHeapObjectCount();
+        for (int i = 0; i < heapCount; i++) {
+            scan(SemiSpaceTables.getHeapObject(i));
+        }
+        long node = addr_of(pinned).loadVolatile().longValue();
+        while (node != 0) {
+            scan(node + PINNED_HEADER_SIZE);
+            int64_t_ptr next = word(node);
+            node = next.loadPlain().longValue();
+        }
+    }
+
+    /**
+     * Scan the copied objects, from the given address up to the allocation top.
+     */
+    private static void scanCopies(long scanned) {
+        int64_t_ptr topPtr = addr_of(top);
+        while (scanned < topPtr.loadPlain().longValue()) {
+            long size = SemiSpaceTables.sizeOf(scanned);
+            scan(scanned);
+            scanned += size;
+        }
+    }
+
+    /**
+     * Unmark the marked cards of the objects of an old space, and forward the slots which they cover.
+     */
+    private static void scanMarkedCards(long space, long limit) {
+        long base = addr_of(heapBase).loadPlain().longValue();
+        long cards = addr_of(cardTable).loadPlain().longValue();
+        long first = (space - base) >>> CARD_SHIFT;
+        long last = (limit - base + CARD_SIZE - 1) >>> CARD_SHIFT;
+        long card = first;
+        while (card < last) {
+            if ((card & 7) == 0 && card + 8 <= last) {
+                // skip runs of unmarked cards a word at a time
+                int64_t_ptr marks = word(cards + card);
+                if (marks.loadPlain().longValue() == 0) {
+                    card += 8;
+                    continue;
+                }
+            }
+            uint8_t_ptr mark = word(cards + card);
+            if (mark.loadPlain().intValue() != 0) {
+                mark.storePlain(word(0));
+                scanCard(card, first, limit);
+            }
+            card++;
+        }
+    }
+
+    /**
+     * Forward the slots of the objects which overlap a card.
+     */
+    private static void scanCard(long card, long first, long limit) {
+        long base = addr_of(heapBase).loadPlain().longValue();
+        long starts = addr_of(startTable).loadPlain().longValue();
+        long cardStart = base + (card << CARD_SHIFT);
+        long cardEnd = Math.min(cardStart + CARD_SIZE, limit);
+        // the last object which starts before the card covers the start of the card
+        long object = base + (first << CARD_SHIFT);
+        for (long prev = card - 1; prev >= first; prev--) {
+            uint8_t_ptr start = word(starts + prev);
+            int offset = start.loadPlain().intValue() & 0xFF;
+            if (offset != 0) {
+                object = base + (prev << CARD_SHIFT) + ((long) (offset - 1) << 3);
+                break;
+            }
+        }
+        while (object < cardEnd) {
+            long size = SemiSpaceTables.sizeOf(object);
+            if (object + size > cardStart) {
+                scanRange(object, cardStart, cardEnd);
+            }
+            object += size;
+        }
+    }
+
+    /**
+     * Record the start of an object which was placed in the old generation.
+     */
+    private static void recordStart(long object) {
+        long offset = object - addr_of(heapBase).loadPlain().longValue();
+        uint8_t_ptr start = word(addr_of(startTable).loadPlain().longValue() + (offset >>> CARD_SHIFT));
+        start.storePlain(word((int) ((offset & (CARD_SIZE - 1)) >>> 3) + 1));
+    }
+
+    private static void markCards(long address, long size) {
+        long base = addr_of(heapBase).loadVolatile().longValue();
+        long first = (address - base) >>> CARD_SHIFT;
+        long last = (address + size - 1 - base) >>> CARD_SHIFT;
+        void_ptr marks = word(addr_of(cardTable).loadVolatile().longValue() + first);
+        memset(marks, word(1), word(last - first + 1));
+    }
+
+    /**
+     * Get the new address of an object, copying it to the old generation first if it can be moved and was not
+     * copied yet.
+     */
+    private static long forward(long object) {
+        if (! isMovable(object)) {
+            return object;
+        }
+        int64_t_ptr monitor = word(object + SemiSpaceTables.getMonitorOffset());
+        long header = monitor.loadPlain().longValue();
+        if ((header & FORWARDED) != 0) {
+            return header & ~FORWARDED;
+        }
+        long size = SemiSpaceTables.sizeOf(object);
+        int64_t_ptr topPtr = addr_of(top);
+        long copy = topPtr.loadPlain().longValue();
+        topPtr.storePlain(word(copy + size));
+        void_ptr dest = word(copy);
+        const_void_ptr src = word(object);
+        memcpy(dest, src, word(size));
+        recordStart(copy);
+        monitor.storePlain(word(copy | FORWARDED));
+        return copy;
+    }
+
+    private static boolean isMovable(long object) {
+        long base = addr_of(nursery).loadPlain().longValue();
+        if (object >= base && object < base + NURSERY_SIZE) {
+            return true;
+        }
+        long from = addr_of(evacuating).loadPlain().longValue();
+        return from != 0 && object >= from && object < from + SPACE_SIZE;
+    }
+
+    private static void updateSlot(long address) {
+        int64_t_ptr slot = word(address);
+        long value = slot.loadPlain().longValue();
+        if (value != 0) {
+            slot.storePlain(word(forward(value)));
+        }
+    }
+
+    /**
+     * Update the reference fields of an object.
+     */
+    private static void scan(long object) {
+        scanRange(object, object, Long.MAX_VALUE);
+    }
+
+    /**
+     * Update the reference fields of an object which lie within the given range of addresses.
+     */
+    private static void scanRange(long object, long low, long high) {
+        int typeId = SemiSpaceTables.typeIdOf(object);
+        int index = SemiSpaceTables.getRefIndex(typeId);
+        int count = SemiSpaceTables.getRefCount(typeId);
+        for (int i = 0; i < count; i++) {
+            long slot = object + SemiSpaceTables.getRefOffset(index + i);
+            if (low <= slot && slot < high) {
+                updateSlot(slot);
+            }
+        }
+        if ((SemiSpaceTables.getFlags(typeId) & SemiSpaceTables.REF_ARRAY) != 0) {
+            long content = object + SemiSpaceTables.getRefArrayContentOffset();
+            long contentEnd = content + ((long) SemiSpaceTables.lengthOf(object) << 3);
+            long slotEnd = Math.min(contentEnd, high);
+            for (long slot = Math.max(content, low); slot < slotEnd; slot += 8) {
+                updateSlot(slot);
+            }
+        }
+    }
+
+    private static long nanoTime() {
+        struct_timespec now = auto();
+        struct_timespec_ptr nowPtr = addr_of(now);
+        clock_gettime(CLOCK_MONOTONIC, nowPtr);
+        return now.tv_sec.longValue() * 1_000_000_000L + now.tv_nsec.longValue();
+    }
+}
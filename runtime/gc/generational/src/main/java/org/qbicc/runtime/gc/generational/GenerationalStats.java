@@ -0,0 +1,194 @@
+package org.qbicc.runtime.gc.generational;
+
+import static org.qbicc.runtime.CNative.*;
+import static org.qbicc.runtime.stdc.Stdint.*;
+import static org.qbicc.runtime.stdc.Stdlib.*;
+
+/**
+ * The statistics of the generational collector.  Pause times are kept in histograms with one bucket per power of two
+ * microseconds: bucket {@code 0} counts the pauses shorter than two microseconds, and bucket {@code i} counts those of
+ * at least {@code 2^i} and less than {@code 2^(i+1)} microseconds, except for the last bucket which counts all
+ * longer pauses.  The statistics are updated by the collecting thread at the end of each collection, so that they may
+ * be slightly out of date while other threads are allocating.
+ */
+public final class GenerationalStats {
+    /**
+     * The number of buckets of each pause time histogram.
+     */
+    public static final int HISTOGRAM_BUCKETS = 32;
+
+    private GenerationalStats() {}
+
+    private static long minorCount;
+    private static long majorCount;
+    private static long pauseNanos;
+    private static long maxPauseNanos;
+    private static long promotedBytes;
+    private static long copiedBytes;
+    private static long allocatedBytes;
+    /**
+     * The minor pause histogram followed by the major pause histogram, or 0 until the first collection.
+     */
+    private static long histograms;
+
+    /**
+     * Get the number of minor collections so far.
+     *
+     * @return the number of minor collections
+     */
+    public static long getMinorCollectionCount() {
+        return addr_of(minorCount).loadVolatile().longValue();
+    }
+
+    /**
+     * Get the number of major collections so far.
+     *
+     * @return the number of major collections
+     */
+    public static long getMajorCollectionCount() {
+        return addr_of(majorCount).loadVolatile().longValue();
+    }
+
+    /**
+     * Get the total time for which the world was stopped.
+     *
+     * @return the total pause time in nanoseconds
+     */
+    public static long getTotalPauseNanos() {
+        return addr_of(pauseNanos).loadVolatile().longValue();
+    }
+
+    /**
+     * Get the longest time for which the world was stopped.
+     *
+     * @return the maximum pause time in nanoseconds
+     */
+    public static long getMaxPauseNanos() {
+        return addr_of(maxPauseNanos).loadVolatile().longValue();
+    }
+
+    /**
+     * Get the number of bytes which were promoted from the nursery by minor collections.
+     *
+     * @return the number of bytes promoted
+     */
+    public static long getPromotedBytes() {
+        return addr_of(promotedBytes).loadVolatile().longValue();
+    }
+
+    /**
+     * Get the number of bytes which were copied by major collections.
+     *
+     * @return the number of bytes copied
+     */
+    public static long getCopiedBytes() {
+        return addr_of(copiedBytes).loadVolatile().longValue();
+    }
+
+    /**
+     * Get the number of bytes which were allocated up to the last collection, not counting pinned objects.
+     *
+     * @return the number of bytes allocated
+     */
+    public static long getAllocatedBytes() {
+        return addr_of(allocatedBytes).loadVolatile().longValue();
+    }
+
+    /**
+     * Get the number of bytes held by the old generation.
+     *
+     * @return the number of bytes
+     */
+    public static long getOldGenerationUsed() {
+        return GenerationalHelpers.getOldGenerationUsed();
+    }
+
+    /**
+     * Get the current allocation limit of the old generation.
+     *
+     * @return the allocation limit in bytes
+     */
+    public static long getOldGenerationLimit() {
+        return GenerationalHelpers.getOldGenerationLimit();
+    }
+
+    /**
+     * Get the pause time histogram of the minor collections.
+     *
+     * @return a new array of {@link #HISTOGRAM_BUCKETS} pause counts
+     */
+    public static long[] getMinorPauseHistogram() {
+        return getHistogram(0);
+    }
+
+    /**
+     * Get the pause time histogram of the major collections.
+     *
+     * @return a new array of {@link #HISTOGRAM_BUCKETS} pause counts
+     */
+    public static long[] getMajorPauseHistogram() {
+        return getHistogram(HISTOGRAM_BUCKETS);
+    }
+
+    /**
+     * Get the shortest pause time which is counted by a histogram bucket.
+     *
+     * @param bucket the bucket index
+     * @return the lower bound of the bucket in microseconds
+     */
+    public static long getBucketLowerBoundMicros(int bucket) {
+        return bucket == 0 ? 0 : 1L << bucket;
+    }
+
+    private static long[] getHistogram(int first) {
+        long[] counts = new long[HISTOGRAM_BUCKETS];
+        long base = addr_of(histograms).loadVolatile().longValue();
+        if (base != 0) {
+            int64_t_ptr histogram = word(base);
+            for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+                counts[i] = histogram.plus(first + i).loadVolatile().longValue();
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Record a collection.  The caller must have begun a collection.
+     */
+    static void recordCollection(boolean major, long pause, long copied) {
+        long base = addr_of(histograms).loadPlain().longValue();
+        if (base == 0) {
+            void_ptr mem = calloc(word(HISTOGRAM_BUCKETS << 1), word(8));
+            if (mem.isNull()) {
+                // the statistics are not worth failing for
+                return;
+            }
+            base = mem.longValue();
+            addr_of(histograms).storeVolatile(word(base));
+        }
+        long micros = pause / 1_000;
+        int bucket = Math.min(63 - Long.numberOfLeadingZeros(micros | 1), HISTOGRAM_BUCKETS - 1);
+        int64_t_ptr histogram = word(base);
+        int64_t_ptr count = histogram.plus(major ? HISTOGRAM_BUCKETS + bucket : bucket);
+        count.storeVolatile(word(count.loadPlain().longValue() + 1));
+
+        if (major) {
+            addr_of(majorCount).storeVolatile(word(addr_of(majorCount).loadPlain().longValue() + 1));
+            addr_of(copiedBytes).storeVolatile(word(addr_of(copiedBytes).loadPlain().longValue() + copied));
+        } else {
+            addr_of(minorCount).storeVolatile(word(addr_of(minorCount).loadPlain().longValue() + 1));
+            addr_of(promotedBytes).storeVolatile(word(addr_of(promotedBytes).loadPlain().longValue() + copied));
+        }
+        addr_of(pauseNanos).storeVolatile(word(addr_of(pauseNanos).loadPlain().longValue() + pause));
+        if (pause > addr_of(maxPauseNanos).loadPlain().longValue()) {
+            addr_of(maxPauseNanos).storeVolatile(word(pause));
+        }
+    }
+
+    /**
+     * Record allocated bytes.  The caller must have begun a collection.
+     */
+    static void recordAllocation(long bytes) {
+        addr_of(allocatedBytes).storeVolatile(word(addr_of(allocatedBytes).loadPlain().longValue() + bytes));
+    }
+}
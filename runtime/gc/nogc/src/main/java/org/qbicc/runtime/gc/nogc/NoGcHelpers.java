@@ -1,8 +1,12 @@
 package org.qbicc.runtime.gc.nogc;
 
 import static org.qbicc.runtime.CNative.*;
+import static org.qbicc.runtime.posix.Sched.*;
 import static org.qbicc.runtime.posix.Stdlib.*;
+import static org.qbicc.runtime.posix.SysMman.*;
+import static org.qbicc.runtime.posix.SysTypes.*;
 import static org.qbicc.runtime.stdc.Stddef.*;
+import static org.qbicc.runtime.stdc.Stdint.*;
 import static org.qbicc.runtime.stdc.Stdlib.*;
 import static org.qbicc.runtime.stdc.String.*;
 
@@ -15,6 +19,31 @@ import org.qbicc.runtime.Hidden;
 public final class NoGcHelpers {
     private NoGcHelpers() {}
 
+    /**
+     * The size of the region which is reserved for objects when references are compressed.
+     */
+    private static final long COMPRESSED_REGION_SIZE = 0x8000_0000L;
+    /**
+     * The distance of the region from the heap base, which leaves room for the image.
+     */
+    private static final long COMPRESSED_REGION_OFFSET = 0x4000_0000L;
+    /**
+     * The highest address which is reachable by a compressed reference, relative to the heap base.
+     */
+    private static final long COMPRESSED_LIMIT = 0x1_0000_0000L;
+    /**
+     * The size of each arena chunk, which is reserved but only committed as it is touched.
+     */
+    private static final long ARENA_CHUNK_SIZE = 0x400_0000L;
+    /**
+     * The size of the chunk header, which holds the allocation top and the chunk end.
+     */
+    private static final long ARENA_HEADER_SIZE = 16;
+
+    private static long compressedRegionTop;
+    private static long compressedRegionEnd;
+    private static long arenaChunk;
+
     @Hidden
     public static Object allocate(long size, int align) {
         if (false && Build.Target.isPosix()) {
@@ -40,6 +69,112 @@ public final class NoGcHelpers {
         }
     }
 
+    @Hidden
+    public static Object allocateCompressed(long heapBase, long size, int align) {
+        int64_t_ptr topPtr = addr_of(compressedRegionTop);
+        long mask = align - 1;
+        for (;;) {
+            long top = topPtr.loadVolatile().longValue();
+            if (top == 0) {
+                top = reserveCompressedRegion(heapBase);
+            }
+            long start = (top + mask) & ~mask;
+            long end = start + size;
+            if (end > addr_of(compressedRegionEnd).loadVolatile().longValue()) {
+                throw new OutOfMemoryError(/*"Compressed heap region exhausted"*/);
+            }
+            if (topPtr.compareAndSet(word(top), word(end))) {
+                void_ptr ptr = word(start);
+                return ptrToRef(ptr);
+            }
+        }
+    }
+
+    /**
+     * Allocate from the arena, which consists of anonymous memory mappings.  The kernel zeroes mapped memory, and
+     * memory is never reused because nothing is ever freed, so the returned storage is always zero.
+     */
+    @Hidden
+    public static Object allocateZeroed(long size, int align) {
+        long mask = align - 1;
+        if (size > ARENA_CHUNK_SIZE >> 2) {
+            // large objects get a mapping of their own, which is page aligned
+            return ptrToRef(mapZeroed(size));
+        }
+        int64_t_ptr chunkPtr = addr_of(arenaChunk);
+        for (;;) {
+            long chunk = chunkPtr.loadVolatile().longValue();
+            if (chunk != 0) {
+                int64_t_ptr topPtr = word(chunk);
+                int64_t_ptr endPtr = word(chunk + 8);
+                long top = topPtr.loadVolatile().longValue();
+                long start = (top + mask) & ~mask;
+                long end = start + size;
+                if (end <= endPtr.loadPlain().longValue()) {
+                    if (topPtr.compareAndSet(word(top), word(end))) {
+                        void_ptr ptr = word(start);
+                        return ptrToRef(ptr);
+                    }
+                    // lost a race with another allocation; try again
+                    continue;
+                }
+            }
+            // the chunk is exhausted (or there is none yet); install a new one unless another thread already has
+            void_ptr mem = mapZeroed(ARENA_CHUNK_SIZE);
+            long newChunk = mem.longValue();
+            int64_t_ptr newTopPtr = word(newChunk);
+            int64_t_ptr newEndPtr = word(newChunk + 8);
+            newTopPtr.storePlain(word(newChunk + ARENA_HEADER_SIZE));
+            newEndPtr.storePlain(word(newChunk + ARENA_CHUNK_SIZE));
+            if (! chunkPtr.compareAndSet(word(chunk), word(newChunk))) {
+                munmap(mem, word(ARENA_CHUNK_SIZE));
+            }
+        }
+    }
+
+    private static void_ptr mapZeroed(long size) {
+        c_int prot = word(PROT_READ.intValue() | PROT_WRITE.intValue());
+        c_int flags = word(MAP_PRIVATE.intValue() | MAP_ANONYMOUS.intValue() | MAP_NORESERVE.intValue());
+        off_t offset = word(0L);
+        void_ptr ptr = mmap(zero(), word(size), prot, flags, word(-1), offset);
+        if (ptr.longValue() == -1) {
+            throw new OutOfMemoryError(/*"Allocation failed"*/);
+        }
+        return ptr;
+    }
+
+    private static long reserveCompressedRegion(long heapBase) {
+        // every object must be addressable by a 32-bit offset from the heap base
+        void_ptr hint = word(heapBase + COMPRESSED_REGION_OFFSET);
+        size_t regionSize = word(COMPRESSED_REGION_SIZE);
+        c_int prot = word(PROT_READ.intValue() | PROT_WRITE.intValue());
+        c_int flags = word(MAP_PRIVATE.intValue() | MAP_ANONYMOUS.intValue() | MAP_NORESERVE.intValue());
+        off_t offset = word(0L);
+        void_ptr ptr = mmap(hint, regionSize, prot, flags, word(-1), offset);
+        long start = ptr.longValue();
+        if (start == -1) {
+            abort();
+        }
+        if (start < heapBase || start + COMPRESSED_REGION_SIZE - heapBase > COMPRESSED_LIMIT) {
+            // the kernel did not honor the hint
+            munmap(ptr, regionSize);
+            abort();
+        }
+        int64_t_ptr endPtr = addr_of(compressedRegionEnd);
+        if (endPtr.compareAndSet(word(0L), word(start + COMPRESSED_REGION_SIZE))) {
+            addr_of(compressedRegionTop).storeVolatile(word(start));
+            return start;
+        }
+        // another thread won the race
+        munmap(ptr, regionSize);
+        int64_t_ptr topPtr = addr_of(compressedRegionTop);
+        long top;
+        while ((top = topPtr.loadVolatile().longValue()) == 0) {
+            sched_yield();
+        }
+        return top;
+    }
+
     @Hidden
     public static void clear(Object ptr, long size) { memset((void_ptr)(ptr<?>)refToPtr(ptr), word(0), word(size)); }
 
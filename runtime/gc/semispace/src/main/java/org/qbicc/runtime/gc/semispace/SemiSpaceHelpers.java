@@ -0,0 +1,400 @@
+package org.qbicc.runtime.gc.semispace;
+
+import static org.qbicc.runtime.CNative.*;
+import static org.qbicc.runtime.posix.SysMman.*;
+import static org.qbicc.runtime.posix.SysTypes.*;
+import static org.qbicc.runtime.posix.Time.*;
+import static org.qbicc.runtime.stdc.Stddef.*;
+import static org.qbicc.runtime.stdc.Stdint.*;
+import static org.qbicc.runtime.stdc.Stdlib.*;
+import static org.qbicc.runtime.stdc.String.*;
+import static org.qbicc.runtime.stdc.Time.*;
+
+import org.qbicc.runtime.Hidden;
+import org.qbicc.runtime.Inline;
+import org.qbicc.runtime.InlineCondition;
+import org.qbicc.runtime.main.Safepoint;
+import org.qbicc.runtime.stackwalk.StackRoots;
+
+/**
+ * A precise, stop-the-world, semispace copying collector.  Objects are bump allocated from one of two equally sized
+ * spaces; when the allocation limit of that space is reached, the world is stopped and the live objects are copied
+ * to the other space by a Cheney scan, after which the roles of the spaces are swapped.  The roots are the references
+ * held in stack slots at the current call site of each frame (as described by the stack maps), the static fields, and
+ * the reference fields of the objects of the initial heap and of the pinned objects, neither of which are ever moved or
+ * reclaimed.
+ * <p>
+ * An object which was copied is forwarded by storing the address of its copy, tagged in the low bit, in the native
+ * monitor slot of the original; the copy keeps the original value of the slot.
+ * <p>
+ * Both spaces are reserved up front but only committed as they are touched, and the space which was evacuated is
+ * returned to the kernel after each collection, so that the memory of either space is always zero beyond the allocation
+ * top.  The allocation limit starts small and grows with the amount of live data.
+ */
+@SuppressWarnings("unused")
+public final class SemiSpaceHelpers {
+    private SemiSpaceHelpers() {}
+
+    /**
+     * The size of each space.
+     */
+    private static final long SPACE_SIZE = 0x4000_0000L;
+    /**
+     * The initial allocation limit of each space.
+     */
+    private static final long INITIAL_LIMIT = 0x100_0000L;
+    /**
+     * The tag bit of a forwarding address.
+     */
+    private static final long FORWARDED = 1;
+    /**
+     * The size of the header of a pinned allocation, which links it to the next one.
+     */
+    private static final long PINNED_HEADER_SIZE = 16;
+
+    /**
+     * The base of the space which is allocated from, or 0 if the spaces were not reserved yet.
+     */
+    private static long current;
+    /**
+     * The base of the other space.
+     */
+    private static long reserve;
+    /**
+     * The allocation top, which is 0 until the spaces are reserved.
+     */
+    private static long top;
+    /**
+     * The allocation limit.
+     */
+    private static long end;
+    /**
+     * The most recent pinned allocation, or 0.
+     */
+    private static long pinned;
+
+    // statistics
+    private static long pauseNanos;
+    private static long maxPauseNanos;
+    private static long copiedBytes;
+    private static long allocatedBytes;
+    private static long liveBytes;
+
+    /**
+     * Allocate zeroed storage for an object which may be moved.
+     *
+     * @param size the size of the object
+     * @param align the alignment of the object, which must not be greater than 8
+     * @return the storage
+     */
+    @Hidden
+    public static Object allocate(long size, int align) {
+        Safepoint.poll();
+        long rounded = (size + 7) & ~7L;
+        int64_t_ptr topPtr = addr_of(top);
+        for (;;) {
+            long start = topPtr.loadVolatile().longValue();
+            long next = start + rounded;
+            // no collection can complete while this thread is running, so the limit belongs to the same space
+            if (start != 0 && next <= addr_of(end).loadVolatile().longValue()) {
+                if (topPtr.compareAndSet(word(start), word(next))) {
+                    void_ptr ptr = word(start);
+                    return ptrToRef(ptr);
+                }
+            } else {
+                collect(rounded);
+            }
+        }
+    }
+
+    /**
+     * Allocate zeroed storage for an object which is never moved or reclaimed.  Such objects are referred to from
+     * native memory.
+     *
+     * @param size the size of the object
+     * @param align the alignment of the object, which must not be greater than 16
+     * @return the storage
+     */
+    @Hidden
+    public static Object allocatePinned(long size, int align) {
+        void_ptr mem = calloc(word(1), word(size + PINNED_HEADER_SIZE));
+        if (mem.isNull()) {
+            throw new OutOfMemoryError(/*"Allocation failed"*/);
+        }
+        long node = mem.longValue();
+        int64_t_ptr next = word(node);
+        int64_t_ptr pinnedPtr = addr_of(pinned);
+        long head;
+        do {
+            head = pinnedPtr.loadVolatile().longValue();
+            next.storePlain(word(head));
+        } while (! pinnedPtr.compareAndSet(word(head), word(node)));
+        void_ptr ptr = word(node + PINNED_HEADER_SIZE);
+        return ptrToRef(ptr);
+    }
+
+    /**
+     * Allocate zeroed storage for an object whose type is only known at run time.
+     *
+     * @param typeId the type ID of the object
+     * @param size the size of the object
+     * @param align the alignment of the object
+     * @return the storage
+     */
+    @Hidden
+    public static Object allocateTyped(int typeId, long size, int align) {
+        if ((SemiSpaceTables.getFlags(typeId) & SemiSpaceTables.PINNED) != 0) {
+            return allocatePinned(size, align);
+        }
+        return allocate(size, align);
+    }
+
+    /**
+     * Get the number of collections so far.
+     *
+     * @return the number of collections
+     */
+    public static long getCollectionCount() {
+        return Safepoint.getCollectionCount();
+    }
+
+    /**
+     * Get the total time for which the world was stopped.
+     *
+     * @return the total pause time in nanoseconds
+     */
+    public static long getTotalPauseNanos() {
+        return addr_of(pauseNanos).loadVolatile().longValue();
+    }
+
+    /**
+     * Get the longest time for which the world was stopped.
+     *
+     * @return the maximum pause time in nanoseconds
+     */
+    public static long getMaxPauseNanos() {
+        return addr_of(maxPauseNanos).loadVolatile().longValue();
+    }
+
+    /**
+     * Get the number of bytes which were copied by all collections.
+     *
+     * @return the number of bytes copied
+     */
+    public static long getCopiedBytes() {
+        return addr_of(copiedBytes).loadVolatile().longValue();
+    }
+
+    /**
+     * Get the number of bytes which were allocated so far, not counting pinned objects.  The count is approximate
+     * while other threads are allocating.
+     *
+     * @return the number of bytes allocated
+     */
+    public static long getAllocatedBytes() {
+        long base = addr_of(current).loadVolatile().longValue();
+        long used = base == 0 ? 0 : addr_of(top).loadVolatile().longValue() - base;
+        return addr_of(allocatedBytes).loadVolatile().longValue() + used - addr_of(liveBytes).loadVolatile().longValue();
+    }
+
+    /**
+     * Get the current allocation limit of each space.
+     *
+     * @return the allocation limit in bytes
+     */
+    public static long getHeapLimit() {
+        long base = addr_of(current).loadVolatile().longValue();
+        return base == 0 ? INITIAL_LIMIT : addr_of(end).loadVolatile().longValue() - base;
+    }
+
+    @Hidden
+    @Inline(InlineCondition.NEVER)
+    private static void collect(long size) {
+        boolean exhausted = false;
+        Safepoint.beginCollection();
+        try {
+            long base = addr_of(current).loadVolatile().longValue();
+            if (base == 0) {
+                reserveSpaces();
+                return;
+            }
+            if (addr_of(top).loadVolatile().longValue() + size <= addr_of(end).loadVolatile().longValue()) {
+                // another thread collected in the meantime
+                return;
+            }
+            Safepoint.stopTheWorld();
+            long start = nanoTime();
+            long allocated = addr_of(top).loadPlain().longValue() - base - addr_of(liveBytes).loadPlain().longValue();
+            evacuate();
+            long pause = nanoTime() - start;
+            Safepoint.resumeTheWorld();
+
+            base = addr_of(current).loadPlain().longValue();
+            long live = addr_of(top).loadPlain().longValue() - base;
+            addr_of(liveBytes).storeVolatile(word(live));
+            addr_of(allocatedBytes).storeVolatile(word(addr_of(allocatedBytes).loadPlain().longValue() + allocated));
+            addr_of(copiedBytes).storeVolatile(word(addr_of(copiedBytes).loadPlain().longValue() + live));
+            addr_of(pauseNanos).storeVolatile(word(addr_of(pauseNanos).loadPlain().longValue() + pause));
+            if (pause > addr_of(maxPauseNanos).loadPlain().longValue()) {
+                addr_of(maxPauseNanos).storeVolatile(word(pause));
+            }
+
+            // keep at least half of the limit free for new objects
+            long limit = addr_of(end).loadPlain().longValue() - base;
+            while (limit < SPACE_SIZE && (live << 1) + size > limit) {
+                limit = Math.min(limit << 1, SPACE_SIZE);
+            }
+            addr_of(end).storeVolatile(word(base + limit));
+            exhausted = live + size > limit;
+        } finally {
+            Safepoint.endCollection();
+        }
+        if (exhausted) {
+            throw new OutOfMemoryError(/*"Java heap space"*/);
+        }
+    }
+
+    private static void reserveSpaces() {
+        long first = mapSpace();
+        long second = mapSpace();
+        addr_of(reserve).storeVolatile(word(second));
+        addr_of(end).storeVolatile(word(first + INITIAL_LIMIT));
+        addr_of(current).storeVolatile(word(first));
+        addr_of(top).storeVolatile(word(first));
+    }
+
+    private static long mapSpace() {
+        c_int prot = word(PROT_READ.intValue() | PROT_WRITE.intValue());
+        c_int flags = word(MAP_PRIVATE.intValue() | MAP_ANONYMOUS.intValue() | MAP_NORESERVE.intValue());
+        off_t offset = word(0L);
+        void_ptr ptr = mmap(zero(), word(SPACE_SIZE), prot, flags, word(-1), offset);
+        if (ptr.longValue() == -1) {
+            // there is no heap to allocate the error from
+            abort();
+        }
+        return ptr.longValue();
+    }
+
+    /**
+     * Copy the live objects of the current space to the other space and swap the spaces.  The world must be stopped.
+     */
+    private static void evacuate() {
+        long from = addr_of(current).loadPlain().longValue();
+        long used = addr_of(top).loadPlain().longValue() - from;
+        long to = addr_of(reserve).loadPlain().longValue();
+        int64_t_ptr topPtr = addr_of(top);
+        topPtr.storePlain(word(to));
+
+        // the stack roots
+        StackRoots.root_list list = auto();
+        list.slots = zero();
+        list.size = 0;
+        list.capacity = 0;
+        StackRoots.root_list_ptr listPtr = addr_of(list);
+        Safepoint.visitStackRoots(listPtr);
+        long count = StackRoots.size(listPtr);
+        int64_t_ptr triples = StackRoots.slots(listPtr);
+        for (long i = 0; i < count; i++) {
+            int64_t_ptr baseSlot = word(triples.plus((int) (i * 3)).loadPlain().longValue());
+            int64_t_ptr derivedSlot = word(triples.plus((int) (i * 3 + 1)).loadPlain().longValue());
+            long delta = triples.plus((int) (i * 3 + 2)).loadPlain().longValue();
+            long base = forward(baseSlot.loadPlain().longValue(), from);
+            baseSlot.storePlain(word(base));
+            if (derivedSlot.longValue() != baseSlot.longValue()) {
+                derivedSlot.storePlain(word(base + delta));
+            }
+        }
+        StackRoots.clear(listPtr);
+
+        // the static fields
+        int staticCount = SemiSpaceTables.getStaticRootCount();
+        for (int i = 0; i < staticCount; i++) {
+            updateSlot(SemiSpaceTables.getStaticRoot(i), from);
+        }
+
+        // the initial heap and the pinned objects stay where they are
+        int heapCount = SemiSpaceTables.getHeapObjectCount();
+        for (int i = 0; i < heapCount; i++) {
+            scan(SemiSpaceTables.getHeapObject(i), from);
+        }
+        long node = addr_of(pinned).loadVolatile().longValue();
+        while (node != 0) {
+            scan(node + PINNED_HEADER_SIZE, from);
+            int64_t_ptr next = word(node);
+            node = next.loadPlain().longValue();
+        }
+
+        // the copied objects
+        long scanned = to;
+        while (scanned < topPtr.loadPlain().longValue()) {
+            long size = SemiSpaceTables.sizeOf(scanned);
+            scan(scanned, from);
+            scanned += size;
+        }
+
+        // the evacuated space is zero again when it is next touched
+        void_ptr fromPtr = word(from);
+        madvise(fromPtr, word(used), MADV_DONTNEED);
+        addr_of(reserve).storePlain(word(from));
+        addr_of(current).storePlain(word(to));
+        addr_of(end).storePlain(word(to + addr_of(end).loadPlain().longValue() - from));
+    }
+
+    /**
+     * Get the new address of an object, copying it first if it was not copied yet.
+     */
+    private static long forward(long object, long from) {
+        if (object < from || object >= from + SPACE_SIZE) {
+            // null, or not a movable object
+            return object;
+        }
+        int64_t_ptr monitor = word(object + SemiSpaceTables.getMonitorOffset());
+        long header = monitor.loadPlain().longValue();
+        if ((header & FORWARDED) != 0) {
+            return header & ~FORWARDED;
+        }
+        long size = SemiSpaceTables.sizeOf(object);
+        int64_t_ptr topPtr = addr_of(top);
+        long copy = topPtr.loadPlain().longValue();
+        topPtr.storePlain(word(copy + size));
+        void_ptr dest = word(copy);
+        const_void_ptr src = word(object);
+        memcpy(dest, src, word(size));
+        monitor.storePlain(word(copy | FORWARDED));
+        return copy;
+    }
+
+    private static void updateSlot(long address, long from) {
+        int64_t_ptr slot = word(address);
+        long value = slot.loadPlain().longValue();
+        if (value != 0) {
+            slot.storePlain(word(forward(value, from)));
+        }
+    }
+
+    /**
+     * Update the reference fields of an object.
+     */
+    private static void scan(long object, long from) {
+        int typeId = SemiSpaceTables.typeIdOf(object);
+        int index = SemiSpaceTables.getRefIndex(typeId);
+        int count = SemiSpaceTables.getRefCount(typeId);
+        for (int i = 0; i < count; i++) {
+            updateSlot(object + SemiSpaceTables.getRefOffset(index + i), from);
+        }
+        if ((SemiSpaceTables.getFlags(typeId) & SemiSpaceTables.REF_ARRAY) != 0) {
+            long content = object + SemiSpaceTables.getRefArrayContentOffset();
+            int length = SemiSpaceTables.lengthOf(object);
+            for (int i = 0; i < length; i++) {
+                updateSlot(content + ((long) i << 3), from);
+            }
+        }
+    }
+
+    private static long nanoTime() {
+        struct_timespec now = auto();
+        struct_timespec_ptr nowPtr = addr_of(now);
+        clock_gettime(CLOCK_MONOTONIC, nowPtr);
+        return now.tv_sec.longValue() * 1_000_000_000L + now.tv_nsec.longValue();
+    }
+}
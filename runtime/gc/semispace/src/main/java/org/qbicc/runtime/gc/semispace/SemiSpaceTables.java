@@ -0,0 +1,96 @@
+package org.qbicc.runtime.gc.semispace;
+
+import static org.qbicc.runtime.CNative.*;
+import static org.qbicc.runtime.stdc.Stdint.*;
+
+/**
+ * The object layout tables which the compiler emits for the copying collectors.  Types are indexed by type ID, and the
+ * reference field offsets of type {@code t} are the entries from {@code getRefIndex(t)} up to
+ * {@code getRefIndex(t) + getRefCount(t)}.
+ */
+public final class SemiSpaceTables {
+    /**
+     * The type is an array, whose size depends on its length.
+     */
+    public static final int ARRAY = 1;
+    /**
+     * The type is an array of references.
+     */
+    public static final int REF_ARRAY = 2;
+    /**
+     * Instances of the type are referred to from native memory, and must never be moved.
+     */
+    public static final int PINNED = 4;
+
+    private SemiSpaceTables() {}
+
+    public static native int getTypeCount();
+    public static native int getInstanceSize(int typeId);
+    public static native int getRefIndex(int typeId);
+    public static native int getRefCount(int typeId);
+    public static native int getElementShift(int typeId);
+    public static native int getFlags(int typeId);
+
+    public static native int getRefOffset(int index);
+
+    // the addresses of the static fields which hold references
+    public static native int getStaticRootCount();
+    public static native long getStaticRoot(int index);
+
+    // the addresses of the objects of the initial heap which have reference fields
+    public static native int getHeapObjectCount();
+    public static native long getHeapObject(int index);
+
+    public static native int getTypeIdOffset();
+    public static native int getTypeIdSize();
+    public static native int getMonitorOffset();
+    public static native int getArrayLengthOffset();
+    public static native int getRefArrayContentOffset();
+
+    /**
+     * Get the size of an object, rounded up to the allocation granule of 8 bytes.
+     *
+     * @param object the address of the object
+     * @return the size of the object in bytes
+     */
+    public static long sizeOf(long object) {
+        int typeId = typeIdOf(object);
+        long size = getInstanceSize(typeId) & 0xFFFF_FFFFL;
+        if ((getFlags(typeId) & ARRAY) != 0) {
+            size += (long) lengthOf(object) << getElementShift(typeId);
+        }
+        return (size + 7) & ~7L;
+    }
+
+    /**
+     * Get the length of an array.
+     *
+     * @param object the address of the array
+     * @return the length of the array
+     */
+    public static int lengthOf(long object) {
+        int32_t_ptr length = word(object + getArrayLengthOffset());
+        return length.loadPlain().intValue();
+    }
+
+    /**
+     * Get the type ID of an object, whatever the size of the type ID field.
+     *
+     * @param object the address of the object
+     * @return the type ID
+     */
+    public static int typeIdOf(long object) {
+        long address = object + getTypeIdOffset();
+        int size = getTypeIdSize();
+        if (size == 1) {
+            uint8_t_ptr typeId = word(address);
+            return typeId.loadPlain().intValue() & 0xFF;
+        } else if (size == 2) {
+            uint16_t_ptr typeId = word(address);
+            return typeId.loadPlain().intValue() & 0xFFFF;
+        } else {
+            uint32_t_ptr typeId = word(address);
+            return typeId.loadPlain().intValue();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package org.qbicc.runtime.linux.nio;
+
+import static org.qbicc.runtime.CNative.*;
+import static org.qbicc.runtime.linux.EPoll.*;
+import static org.qbicc.runtime.posix.Errno.*;
+import static org.qbicc.runtime.stdc.Errno.*;
+import static org.qbicc.runtime.stdc.Stdint.*;
+
+import java.io.IOException;
+
+import org.qbicc.runtime.patcher.Patch;
+import org.qbicc.runtime.patcher.Replace;
+
+/**
+ * Native method implementations for {@code sun.nio.ch.EPoll}, which allows the JDK's own epoll-based
+ * {@code Selector} to be used on Linux.  The selector registers the wakeup {@code eventfd} in its epoll set and
+ * reuses a single event array, which it allocates when it is opened, for every {@code select} operation.
+ */
+@Patch("sun.nio.ch.EPoll")
+@SuppressWarnings("unused")
+final class EPoll$_patch {
+    @Replace
+    private static int eventSize() {
+        return sizeof(struct_epoll_event.class).intValue();
+    }
+
+    @Replace
+    private static int eventsOffset() {
+        struct_epoll_event event = auto();
+        struct_epoll_event_ptr eventPtr = addr_of(event);
+        ptr<uint32_t> eventsPtr = addr_of(eventPtr.sel().events);
+        return (int) (eventsPtr.longValue() - eventPtr.longValue());
+    }
+
+    @Replace
+    private static int dataOffset() {
+        struct_epoll_event event = auto();
+        struct_epoll_event_ptr eventPtr = addr_of(event);
+        ptr<epoll_data_t> dataPtr = addr_of(eventPtr.sel().data);
+        return (int) (dataPtr.longValue() - eventPtr.longValue());
+    }
+
+    @Replace
+    static int create() throws IOException {
+        c_int epfd = epoll_create1(EPOLL_CLOEXEC);
+        if (epfd.intValue() == -1) {
+            throw new IOException("epoll_create1 failed (errno " + errno.intValue() + ")");
+        }
+        return epfd.intValue();
+    }
+
+    @Replace
+    static int ctl(int epfd, int opcode, int fd, int events) {
+        struct_epoll_event event = auto();
+        event.events = word(events);
+        event.data.fd = word(fd);
+        c_int res = epoll_ctl(word(epfd), word(opcode), word(fd), addr_of(event));
+        return res.intValue() == 0 ? 0 : errno.intValue();
+    }
+
+    @Replace
+    static int wait(int epfd, long pollAddress, int numfds, int timeout) throws IOException {
+        struct_epoll_event_ptr events = word(pollAddress);
+        c_int res = epoll_wait(word(epfd), events, word(numfds), word(timeout));
+        if (res.intValue() == -1) {
+            if (errno.intValue() == EINTR.intValue()) {
+                // the selector recomputes the remaining timeout and tries again
+                return IOStatus.INTERRUPTED;
+            }
+            throw new IOException("epoll_wait failed (errno " + errno.intValue() + ")");
+        }
+        return res.intValue();
+    }
+}
@@ -0,0 +1,44 @@
+package org.qbicc.runtime.linux.nio;
+
+import static org.qbicc.runtime.CNative.*;
+import static org.qbicc.runtime.linux.EventFD.*;
+import static org.qbicc.runtime.posix.Errno.*;
+import static org.qbicc.runtime.posix.SysTypes.*;
+import static org.qbicc.runtime.posix.Unistd.*;
+import static org.qbicc.runtime.stdc.Errno.*;
+import static org.qbicc.runtime.stdc.Stdint.*;
+
+import java.io.IOException;
+
+import org.qbicc.runtime.patcher.Patch;
+import org.qbicc.runtime.patcher.Replace;
+
+/**
+ * Native method implementations for {@code sun.nio.ch.EventFD}, which the epoll-based {@code Selector} uses to wake
+ * up a thread that is blocked in {@code epoll_wait}.
+ */
+@Patch("sun.nio.ch.EventFD")
+@SuppressWarnings("unused")
+final class EventFD$_patch {
+    @Replace
+    private static int eventfd0() throws IOException {
+        c_int efd = eventfd(word(0), zero());
+        if (efd.intValue() == -1) {
+            throw new IOException("eventfd failed (errno " + errno.intValue() + ")");
+        }
+        return efd.intValue();
+    }
+
+    @Replace
+    private static int set0(int efd) throws IOException {
+        uint64_t one = auto();
+        uint64_t_ptr onePtr = addr_of(one);
+        onePtr.storePlain(word(1L));
+        ssize_t res = write(word(efd), onePtr.cast(), sizeof(one));
+        if (res.intValue() == -1 && errno.intValue() != EAGAIN.intValue()) {
+            // the counter is already non-zero if the write would block, so the selector will wake anyway
+            throw new IOException("eventfd write failed (errno " + errno.intValue() + ")");
+        }
+        return res.intValue();
+    }
+}
@@ -0,0 +1,45 @@
+package org.qbicc.runtime.linux.nio;
+
+import static org.qbicc.runtime.CNative.*;
+import static org.qbicc.runtime.linux.SysSendfile.*;
+import static org.qbicc.runtime.posix.Errno.*;
+import static org.qbicc.runtime.posix.SysTypes.*;
+import static org.qbicc.runtime.stdc.Errno.*;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+
+import org.qbicc.runtime.patcher.Patch;
+import org.qbicc.runtime.patcher.Replace;
+
+/**
+ * Native method implementations for {@code sun.nio.ch.FileChannelImpl}, so that {@code FileChannel.transferTo}
+ * copies from a file to a file or a socket with {@code sendfile(2)} instead of through a buffer.
+ */
+@Patch("sun.nio.ch.FileChannelImpl")
+@SuppressWarnings("unused")
+final class FileChannelImpl$_patch {
+    @Replace
+    private static int maxDirectTransferSize0() {
+        // the largest count which Linux transfers in one call
+        return 0x7ffff000;
+    }
+
+    @Replace
+    private long transferTo0(FileDescriptor src, long position, long count, FileDescriptor dst) throws IOException {
+        c_int srcFd = word(((FileDescriptor$_patch) (Object) src).fd);
+        c_int dstFd = word(((FileDescriptor$_patch) (Object) dst).fd);
+        off_t offset = auto();
+        off_t_ptr offsetPtr = addr_of(offset);
+        offsetPtr.storePlain(word(position));
+        ssize_t n = sendfile(dstFd, srcFd, offsetPtr, word(count));
+        if (n.longValue() < 0) {
+            int error = errno.intValue();
+            if (error == EINVAL.intValue() && count >= 0 || error == ENOSYS.intValue()) {
+                // the file system, the target or the kernel does not support it, so the channel falls back to copying
+                return IOStatus.UNSUPPORTED_CASE;
+            }
+        }
+        return IOStatus.normalize(n.longValue(), false, "Transfer failed");
+    }
+}
@@ -0,0 +1,12 @@
+package org.qbicc.runtime.linux.nio;
+
+import org.qbicc.runtime.patcher.Patch;
+
+/**
+ * An alias of {@code java.io.FileDescriptor}, through which the NIO natives read the file descriptor number.
+ */
+@Patch("java.io.FileDescriptor")
+@SuppressWarnings("unused")
+final class FileDescriptor$_patch {
+    int fd;
+}
@@ -0,0 +1,36 @@
+package org.qbicc.runtime.linux.nio;
+
+import static org.qbicc.runtime.CNative.*;
+import static org.qbicc.runtime.posix.SysTypes.*;
+import static org.qbicc.runtime.posix.SysUio.*;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+
+import org.qbicc.runtime.patcher.Patch;
+import org.qbicc.runtime.patcher.Replace;
+
+/**
+ * Native method implementations for {@code sun.nio.ch.FileDispatcherImpl}, so that scattering reads and gathering
+ * writes of files and sockets transfer all of the buffers with one {@code readv(2)} or {@code writev(2)} call.  The
+ * address is that of an array of {@code struct iovec} which the channel has already filled in.
+ */
+@Patch("sun.nio.ch.FileDispatcherImpl")
+@SuppressWarnings("unused")
+final class FileDispatcherImpl$_patch {
+    @Replace
+    static long readv0(FileDescriptor fdo, long address, int len) throws IOException {
+        c_int fd = word(((FileDescriptor$_patch) (Object) fdo).fd);
+        const_struct_iovec_ptr iov = word(address);
+        ssize_t n = readv(fd, iov, word(len));
+        return IOStatus.normalize(n.longValue(), true, "Read failed");
+    }
+
+    @Replace
+    static long writev0(FileDescriptor fdo, long address, int len) throws IOException {
+        c_int fd = word(((FileDescriptor$_patch) (Object) fdo).fd);
+        const_struct_iovec_ptr iov = word(address);
+        ssize_t n = writev(fd, iov, word(len));
+        return IOStatus.normalize(n.longValue(), false, "Write failed");
+    }
+}
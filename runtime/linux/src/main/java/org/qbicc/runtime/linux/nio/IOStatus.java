@@ -0,0 +1,42 @@
+package org.qbicc.runtime.linux.nio;
+
+import static org.qbicc.runtime.posix.Errno.*;
+import static org.qbicc.runtime.stdc.Errno.*;
+
+import java.io.IOException;
+
+/**
+ * The status codes of {@code sun.nio.ch.IOStatus}, which the NIO natives return in place of a byte count.
+ */
+final class IOStatus {
+    static final int EOF = -1;
+    static final int UNAVAILABLE = -2;
+    static final int INTERRUPTED = -3;
+    static final int UNSUPPORTED_CASE = -6;
+
+    private IOStatus() {}
+
+    /**
+     * Normalize the result of a system call which transfers bytes, in the same way as the JDK natives do.
+     *
+     * @param n the result of the system call
+     * @param reading {@code true} if the call read bytes, in which case zero means end of file
+     * @param message the exception message to use if the call failed
+     * @return the number of bytes transferred, or a status code
+     * @throws IOException if the call failed for a reason other than blocking or interruption
+     */
+    static long normalize(long n, boolean reading, String message) throws IOException {
+        if (n > 0) {
+            return n;
+        } else if (n == 0) {
+            return reading ? EOF : 0;
+        }
+        int error = errno.intValue();
+        if (error == EAGAIN.intValue() || error == EWOULDBLOCK.intValue()) {
+            return UNAVAILABLE;
+        } else if (error == EINTR.intValue()) {
+            return INTERRUPTED;
+        }
+        throw new IOException(message + " (errno " + error + ")");
+    }
+}
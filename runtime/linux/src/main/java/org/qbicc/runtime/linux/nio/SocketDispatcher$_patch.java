@@ -0,0 +1,27 @@
+package org.qbicc.runtime.linux.nio;
+
+import static org.qbicc.runtime.CNative.*;
+import static org.qbicc.runtime.posix.SysTypes.*;
+import static org.qbicc.runtime.posix.SysUio.*;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+
+import org.qbicc.runtime.patcher.Patch;
+import org.qbicc.runtime.patcher.Replace;
+
+/**
+ * Native method implementations for {@code sun.nio.ch.SocketDispatcher}.  Gathering writes to sockets go through
+ * {@code sun.nio.ch.FileDispatcherImpl}.
+ */
+@Patch("sun.nio.ch.SocketDispatcher")
+@SuppressWarnings("unused")
+final class SocketDispatcher$_patch {
+    @Replace
+    private static long readv0(FileDescriptor fdo, long address, int len) throws IOException {
+        c_int fd = word(((FileDescriptor$_patch) (Object) fdo).fd);
+        const_struct_iovec_ptr iov = word(address);
+        ssize_t n = readv(fd, iov, word(len));
+        return IOStatus.normalize(n.longValue(), true, "Read failed");
+    }
+}
@@ -0,0 +1,273 @@
+package org.qbicc.runtime.main;
+
+import static org.qbicc.runtime.CNative.*;
+import static org.qbicc.runtime.stdc.Stdint.*;
+import static org.qbicc.runtime.stdc.String.*;
+
+/**
+ * Bulk array operations which replace the scalar loops of selected JDK string and array methods.  Each operation
+ * checks its bounds once up front and then works on the array storage directly using the C library routines.
+ */
+public final class ArraySupport {
+    /**
+     * The size of the blocks that a mismatch search compares at once before looking for the differing byte.
+     */
+    private static final int MISMATCH_BLOCK_SIZE = 256;
+
+    private ArraySupport() {}
+
+    // StringLatin1
+
+    static boolean equals(byte[] value, byte[] other) {
+        int length = value.length;
+        if (length != other.length) {
+            return false;
+        }
+        return length == 0 || memcmp(addr_of(value[0]).cast(), addr_of(other[0]).cast(), word((long) length)).isZero();
+    }
+
+    static int hashCode(byte[] value) {
+        // unrolled by four to break the dependency chain on h
+        int h = 0;
+        int length = value.length;
+        int i = 0;
+        for (; i + 3 < length; i += 4) {
+            h = 31 * 31 * 31 * 31 * h
+                + 31 * 31 * 31 * (value[i] & 0xff)
+                + 31 * 31 * (value[i + 1] & 0xff)
+                + 31 * (value[i + 2] & 0xff)
+                + (value[i + 3] & 0xff);
+        }
+        for (; i < length; i ++) {
+            h = 31 * h + (value[i] & 0xff);
+        }
+        return h;
+    }
+
+    static int indexOf(byte[] value, int ch, int fromIndex) {
+        if (ch >>> 8 != 0) {
+            // not a Latin-1 character
+            return -1;
+        }
+        int length = value.length;
+        if (fromIndex < 0) {
+            fromIndex = 0;
+        } else if (fromIndex >= length) {
+            return -1;
+        }
+        int8_t_ptr start = addr_of(value[fromIndex]);
+        int8_t_ptr found = memchr(start.cast(), word(ch), word((long) (length - fromIndex))).cast();
+        return found.isNull() ? -1 : fromIndex + found.minus(start).intValue();
+    }
+
+    // Arrays
+
+    static void fill(boolean[] a, boolean val) {
+        fill(a, 0, a.length, val);
+    }
+
+    static void fill(boolean[] a, int fromIndex, int toIndex, boolean val) {
+        checkRange(a.length, fromIndex, toIndex);
+        if (fromIndex < toIndex) {
+            memset(addr_of(a[fromIndex]).cast(), word(val ? 1 : 0), word((long) (toIndex - fromIndex) * CompilerIntrinsics.getBooleanSize()));
+        }
+    }
+
+    static void fill(byte[] a, byte val) {
+        fill(a, 0, a.length, val);
+    }
+
+    static void fill(byte[] a, int fromIndex, int toIndex, byte val) {
+        checkRange(a.length, fromIndex, toIndex);
+        if (fromIndex < toIndex) {
+            memset(addr_of(a[fromIndex]).cast(), word(val), word((long) (toIndex - fromIndex) * Byte.BYTES));
+        }
+    }
+
+    static void fill(char[] a, char val) {
+        fill(a, 0, a.length, val);
+    }
+
+    static void fill(char[] a, int fromIndex, int toIndex, char val) {
+        checkRange(a.length, fromIndex, toIndex);
+        if (val == 0) {
+            if (fromIndex < toIndex) {
+                memset(addr_of(a[fromIndex]).cast(), word(0), word((long) (toIndex - fromIndex) * Character.BYTES));
+            }
+        } else {
+            for (int i = fromIndex; i < toIndex; i ++) {
+                a[i] = val;
+            }
+        }
+    }
+
+    static void fill(short[] a, short val) {
+        fill(a, 0, a.length, val);
+    }
+
+    static void fill(short[] a, int fromIndex, int toIndex, short val) {
+        checkRange(a.length, fromIndex, toIndex);
+        if (val == 0) {
+            if (fromIndex < toIndex) {
+                memset(addr_of(a[fromIndex]).cast(), word(0), word((long) (toIndex - fromIndex) * Short.BYTES));
+            }
+        } else {
+            for (int i = fromIndex; i < toIndex; i ++) {
+                a[i] = val;
+            }
+        }
+    }
+
+    static void fill(int[] a, int val) {
+        fill(a, 0, a.length, val);
+    }
+
+    static void fill(int[] a, int fromIndex, int toIndex, int val) {
+        checkRange(a.length, fromIndex, toIndex);
+        if (val == 0) {
+            if (fromIndex < toIndex) {
+                memset(addr_of(a[fromIndex]).cast(), word(0), word((long) (toIndex - fromIndex) * Integer.BYTES));
+            }
+        } else {
+            for (int i = fromIndex; i < toIndex; i ++) {
+                a[i] = val;
+            }
+        }
+    }
+
+    static void fill(long[] a, long val) {
+        fill(a, 0, a.length, val);
+    }
+
+    static void fill(long[] a, int fromIndex, int toIndex, long val) {
+        checkRange(a.length, fromIndex, toIndex);
+        if (val == 0) {
+            if (fromIndex < toIndex) {
+                memset(addr_of(a[fromIndex]).cast(), word(0), word((long) (toIndex - fromIndex) * Long.BYTES));
+            }
+        } else {
+            for (int i = fromIndex; i < toIndex; i ++) {
+                a[i] = val;
+            }
+        }
+    }
+
+    // ArraysSupport
+
+    static int mismatch(boolean[] a, boolean[] b, int length) {
+        return mismatch(a, 0, b, 0, length);
+    }
+
+    static int mismatch(boolean[] a, int aFromIndex, boolean[] b, int bFromIndex, int length) {
+        checkRange(a.length, aFromIndex, aFromIndex + length);
+        checkRange(b.length, bFromIndex, bFromIndex + length);
+        if (length == 0) {
+            return -1;
+        }
+        long idx = mismatch(addr_of(a[aFromIndex]).cast(), addr_of(b[bFromIndex]).cast(), length * (long) CompilerIntrinsics.getBooleanSize());
+        return idx == -1 ? -1 : (int) (idx / CompilerIntrinsics.getBooleanSize());
+    }
+
+    static int mismatch(byte[] a, byte[] b, int length) {
+        return mismatch(a, 0, b, 0, length);
+    }
+
+    static int mismatch(byte[] a, int aFromIndex, byte[] b, int bFromIndex, int length) {
+        checkRange(a.length, aFromIndex, aFromIndex + length);
+        checkRange(b.length, bFromIndex, bFromIndex + length);
+        if (length == 0) {
+            return -1;
+        }
+        long idx = mismatch(addr_of(a[aFromIndex]).cast(), addr_of(b[bFromIndex]).cast(), length * (long) Byte.BYTES);
+        return idx == -1 ? -1 : (int) (idx / Byte.BYTES);
+    }
+
+    static int mismatch(char[] a, char[] b, int length) {
+        return mismatch(a, 0, b, 0, length);
+    }
+
+    static int mismatch(char[] a, int aFromIndex, char[] b, int bFromIndex, int length) {
+        checkRange(a.length, aFromIndex, aFromIndex + length);
+        checkRange(b.length, bFromIndex, bFromIndex + length);
+        if (length == 0) {
+            return -1;
+        }
+        long idx = mismatch(addr_of(a[aFromIndex]).cast(), addr_of(b[bFromIndex]).cast(), length * (long) Character.BYTES);
+        return idx == -1 ? -1 : (int) (idx / Character.BYTES);
+    }
+
+    static int mismatch(short[] a, short[] b, int length) {
+        return mismatch(a, 0, b, 0, length);
+    }
+
+    static int mismatch(short[] a, int aFromIndex, short[] b, int bFromIndex, int length) {
+        checkRange(a.length, aFromIndex, aFromIndex + length);
+        checkRange(b.length, bFromIndex, bFromIndex + length);
+        if (length == 0) {
+            return -1;
+        }
+        long idx = mismatch(addr_of(a[aFromIndex]).cast(), addr_of(b[bFromIndex]).cast(), length * (long) Short.BYTES);
+        return idx == -1 ? -1 : (int) (idx / Short.BYTES);
+    }
+
+    static int mismatch(int[] a, int[] b, int length) {
+        return mismatch(a, 0, b, 0, length);
+    }
+
+    static int mismatch(int[] a, int aFromIndex, int[] b, int bFromIndex, int length) {
+        checkRange(a.length, aFromIndex, aFromIndex + length);
+        checkRange(b.length, bFromIndex, bFromIndex + length);
+        if (length == 0) {
+            return -1;
+        }
+        long idx = mismatch(addr_of(a[aFromIndex]).cast(), addr_of(b[bFromIndex]).cast(), length * (long) Integer.BYTES);
+        return idx == -1 ? -1 : (int) (idx / Integer.BYTES);
+    }
+
+    static int mismatch(long[] a, long[] b, int length) {
+        return mismatch(a, 0, b, 0, length);
+    }
+
+    static int mismatch(long[] a, int aFromIndex, long[] b, int bFromIndex, int length) {
+        checkRange(a.length, aFromIndex, aFromIndex + length);
+        checkRange(b.length, bFromIndex, bFromIndex + length);
+        if (length == 0) {
+            return -1;
+        }
+        long idx = mismatch(addr_of(a[aFromIndex]).cast(), addr_of(b[bFromIndex]).cast(), length * (long) Long.BYTES);
+        return idx == -1 ? -1 : (int) (idx / Long.BYTES);
+    }
+
+    /**
+     * Find the first differing byte of two memory regions.  The regions are compared a block at a time with
+     * {@code memcmp}, and only a block which is known to differ is scanned byte by byte.
+     *
+     * @param a the first region
+     * @param b the second region
+     * @param size the size of each region in bytes
+     * @return the offset of the first differing byte, or -1 if the regions are equal
+     */
+    private static long mismatch(int8_t_ptr a, int8_t_ptr b, long size) {
+        long offset = 0;
+        while (offset < size) {
+            long blockSize = Math.min(size - offset, MISMATCH_BLOCK_SIZE);
+            if (! memcmp(a.plus(offset).cast(), b.plus(offset).cast(), word(blockSize)).isZero()) {
+                while (a.plus(offset).loadUnshared().byteValue() == b.plus(offset).loadUnshared().byteValue()) {
+                    offset ++;
+                }
+                return offset;
+            }
+            offset += blockSize;
+        }
+        return -1;
+    }
+
+    private static void checkRange(int length, int fromIndex, int toIndex) {
+        if (fromIndex > toIndex) {
+            throw new IllegalArgumentException("fromIndex > toIndex");
+        }
+        if (fromIndex < 0 || toIndex > length) {
+            throw new ArrayIndexOutOfBoundsException();
+        }
+    }
+}
@@ -22,6 +22,27 @@ public class CompilerIntrinsics {
     @Hidden
     public static native void copyInstanceFields(Class<?> clazz, Object src, Object dst);
 
+    /**
+     * Tell the collector that elements of a reference array were written without a write barrier, such as by a bulk
+     * copy.  This does nothing unless the collector has a write barrier.
+     *
+     * @param array the array (must not be {@code null})
+     * @param start the index of the first element which was written
+     * @param length the number of elements which were written
+     */
+    @Hidden
+    public static native void referenceArrayWritten(Object[] array, int start, int length);
+
+    /**
+     * Determine whether the collector stops the world at {@linkplain Safepoint safepoints}, in which case threads must
+     * be registered with it and must become safe while they block.  This is a build time constant which is provided by
+     * the collector.
+     *
+     * @return {@code true} if threads must take part in safepoints, or {@code false} otherwise
+     */
+    @Hidden
+    public static native boolean hasSafepoints();
+
 
     /**
      * TODO
@@ -193,6 +214,18 @@ public class CompilerIntrinsics {
     @Hidden
     public static native int lengthOf(Object array);
 
+    /**
+     * Get the size in bytes of an object reference as stored in a reference array.
+     */
+    @Hidden
+    public static native int getReferenceSize();
+
+    /**
+     * Get the size in bytes of a {@code boolean} as stored in a {@code boolean[]}.
+     */
+    @Hidden
+    public static native int getBooleanSize();
+
     /**
      * Get the maxTypeId assigned to subclasses of the argument typeId
      */
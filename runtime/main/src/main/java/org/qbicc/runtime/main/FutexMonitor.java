@@ -0,0 +1,404 @@
+package org.qbicc.runtime.main;
+
+import static org.qbicc.runtime.CNative.*;
+import static org.qbicc.runtime.linux.Futex.*;
+import static org.qbicc.runtime.posix.PThread.*;
+import static org.qbicc.runtime.posix.Time.*;
+import static org.qbicc.runtime.stdc.Stdint.*;
+import static org.qbicc.runtime.stdc.Stdlib.*;
+import static org.qbicc.runtime.stdc.Time.*;
+
+import org.qbicc.runtime.Hidden;
+import org.qbicc.runtime.Inline;
+import org.qbicc.runtime.InlineCondition;
+
+/**
+ * An object monitor implementation for Linux which is built directly on {@code futex(2)}.  Each monitor is a native
+ * structure consisting of a lock word, the owning thread, a recursion count, and a FIFO queue of waiting threads.
+ * The monitor of an object is allocated on first use and installed in the native object monitor slot of the object.
+ * <p>
+ * The lock word is {@code 0} when the monitor is free, {@code 1} when it is held, and {@code 2} when it is held and
+ * other threads may be sleeping on it, so that an uncontended exit never enters the kernel.  Each waiting thread
+ * sleeps on a futex word of its own wait node, which lives on its stack, so that {@code notify} wakes exactly the
+ * longest waiting thread.  The wait queue is only ever modified by the owner of the monitor.
+ * <p>
+ * Every waiting thread is also registered, by its thread ID, in a global list of waiters, so that
+ * {@link Thread#interrupt()} can find the node of the thread and wake it.  The state of a node moves from waiting to
+ * either notified or interrupted exactly once; a notification which finds its waiter interrupted passes on to the next
+ * waiter, so that it is not lost.
+ */
+@SuppressWarnings("unused")
+public final class FutexMonitor {
+    private static final int FREE = 0;
+    private static final int HELD = 1;
+    private static final int CONTENDED = 2;
+
+    private static final int WAITING = 0;
+    private static final int NOTIFIED = 1;
+    private static final int INTERRUPTED = 2;
+
+    private static final int SPIN_LIMIT = 100;
+    private static final long MAX_MILLIS = Long.MAX_VALUE / 1_000_000L;
+
+    /**
+     * The first registered wait node, or 0.
+     */
+    private static long waiters;
+    /**
+     * The lock of the list of registered wait nodes.
+     */
+    private static int waitersLock;
+
+    private FutexMonitor() {}
+
+    @internal
+    public static final class futex_monitor extends object {
+        public uint32_t lock;
+        public long owner;
+        public int recursion;
+        public wait_node_ptr head;
+        public wait_node_ptr tail;
+    }
+
+    public static final class futex_monitor_ptr extends ptr<futex_monitor> {}
+
+    @internal
+    public static final class wait_node extends object {
+        public wait_node_ptr next;
+        public uint32_t signalled;
+        public long thread;
+        public wait_node_ptr nextWaiter;
+    }
+
+    public static final class wait_node_ptr extends ptr<wait_node> {}
+    public static final class wait_node_ptr_ptr extends ptr<wait_node_ptr> {}
+
+    @Hidden
+    @Inline(InlineCondition.NEVER)
+    static void monitorEnter(Object object) {
+        if (object == null) {
+            /* TODO skip for now, matching the pthread implementation */
+            return;
+        }
+        futex_monitor_ptr monitor = getOrCreateMonitor(object);
+        long self = pthread_self().longValue();
+        int64_t_ptr owner = addr_of(monitor.sel().owner);
+        if (owner.loadOpaque().longValue() == self) {
+            int32_t_ptr recursion = addr_of(monitor.sel().recursion);
+            recursion.storePlain(word(recursion.loadPlain().intValue() + 1));
+            return;
+        }
+        lock(addr_of(monitor.sel().lock));
+        owner.storeOpaque(word(self));
+    }
+
+    @Hidden
+    @Inline(InlineCondition.NEVER)
+    static void monitorExit(Object object) throws IllegalMonitorStateException {
+        if (object == null) {
+            /* TODO skip for now, matching the pthread implementation */
+            return;
+        }
+        futex_monitor_ptr monitor = getOwnedMonitor(object);
+        int32_t_ptr recursion = addr_of(monitor.sel().recursion);
+        int count = recursion.loadPlain().intValue();
+        if (count > 0) {
+            recursion.storePlain(word(count - 1));
+            return;
+        }
+        int64_t_ptr owner = addr_of(monitor.sel().owner);
+        owner.storeOpaque(word(0L));
+        unlock(addr_of(monitor.sel().lock));
+    }
+
+    @Hidden
+    @Inline(InlineCondition.NEVER)
+    static void monitorWait(Object object, long millis) throws IllegalMonitorStateException, InterruptedException {
+        if (millis < 0) {
+            throw new IllegalArgumentException("timeout value is negative");
+        }
+        futex_monitor_ptr monitor = getOwnedMonitor(object);
+        Thread thread = Thread.currentThread();
+
+        // join the wait set
+        wait_node node = auto();
+        wait_node_ptr nodePtr = addr_of(node);
+        wait_node_ptr_ptr next = addr_of(nodePtr.sel().next);
+        next.storePlain(zero());
+        uint32_t_ptr signalled = addr_of(nodePtr.sel().signalled);
+        signalled.storePlain(word(WAITING));
+        wait_node_ptr_ptr tail = addr_of(monitor.sel().tail);
+        wait_node_ptr last = tail.loadPlain();
+        if (last.isNull()) {
+            wait_node_ptr_ptr head = addr_of(monitor.sel().head);
+            head.storePlain(nodePtr);
+        } else {
+            wait_node_ptr_ptr lastNext = addr_of(last.sel().next);
+            lastNext.storePlain(nodePtr);
+        }
+        tail.storePlain(nodePtr);
+        register(nodePtr, thread.getId());
+        if (thread.isInterrupted()) {
+            // an interrupt which came before the node was registered did not find it
+            signalled.compareAndSet(word(WAITING), word(INTERRUPTED));
+        }
+
+        // release the monitor completely
+        int64_t_ptr owner = addr_of(monitor.sel().owner);
+        int32_t_ptr recursion = addr_of(monitor.sel().recursion);
+        long self = owner.loadOpaque().longValue();
+        int count = recursion.loadPlain().intValue();
+        recursion.storePlain(word(0));
+        owner.storeOpaque(word(0L));
+        uint32_t_ptr lock = addr_of(monitor.sel().lock);
+        unlock(lock);
+
+        // sleep until notified, interrupted or timed out; spurious wakeups just go around again
+        if (millis == 0) {
+            while (signalled.loadAcquire().intValue() == WAITING) {
+                sleep(signalled, word(WAITING), zero());
+            }
+        } else {
+            long deadline = nanoTime() + Math.min(millis, MAX_MILLIS) * 1_000_000L;
+            struct_timespec timeout = auto();
+            const_struct_timespec_ptr timeoutPtr = addr_of(timeout);
+            while (signalled.loadAcquire().intValue() == WAITING) {
+                long remaining = deadline - nanoTime();
+                if (remaining <= 0) {
+                    break;
+                }
+                timeout.tv_sec = word(remaining / 1_000_000_000L);
+                timeout.tv_nsec = word(remaining % 1_000_000_000L);
+                sleep(signalled, word(WAITING), timeoutPtr);
+            }
+        }
+
+        // reacquire the monitor with the original recursion count
+        lock(lock);
+        owner.storeOpaque(word(self));
+        recursion.storePlain(word(count));
+        // once the node is unregistered and the monitor is held again, its state cannot change
+        unregister(nodePtr);
+        int state = signalled.loadAcquire().intValue();
+        if (state != NOTIFIED) {
+            // timed out or interrupted; a notifier would have removed the node already
+            removeWaiter(monitor, nodePtr);
+            if (state == INTERRUPTED) {
+                Thread.interrupted();
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    @Hidden
+    @Inline(InlineCondition.NEVER)
+    static void monitorNotify(Object object) throws IllegalMonitorStateException {
+        futex_monitor_ptr monitor = getOwnedMonitor(object);
+        wait_node_ptr_ptr head = addr_of(monitor.sel().head);
+        wait_node_ptr first = head.loadPlain();
+        while (! first.isNull()) {
+            removeWaiter(monitor, first);
+            if (signal(first)) {
+                return;
+            }
+            // the waiter was interrupted, so the notification goes to the next one
+            first = head.loadPlain();
+        }
+    }
+
+    @Hidden
+    @Inline(InlineCondition.NEVER)
+    static void monitorNotifyAll(Object object) throws IllegalMonitorStateException {
+        futex_monitor_ptr monitor = getOwnedMonitor(object);
+        wait_node_ptr_ptr head = addr_of(monitor.sel().head);
+        wait_node_ptr_ptr tail = addr_of(monitor.sel().tail);
+        wait_node_ptr node = head.loadPlain();
+        head.storePlain(zero());
+        tail.storePlain(zero());
+        while (! node.isNull()) {
+            wait_node_ptr_ptr next = addr_of(node.sel().next);
+            wait_node_ptr following = next.loadPlain();
+            signal(node);
+            node = following;
+        }
+    }
+
+    /**
+     * Wake the thread of the given wait node if it is waiting, on behalf of {@link Thread#interrupt()}.  The interrupt
+     * status of the thread must already be set.
+     *
+     * @param thread the interrupted thread
+     */
+    @Hidden
+    @Inline(InlineCondition.NEVER)
+    static void interrupt(Thread thread) {
+        long id = thread.getId();
+        uint32_t_ptr lock = waitersLock();
+        lock(lock);
+        try {
+            wait_node_ptr node = firstWaiter();
+            while (! node.isNull()) {
+                int64_t_ptr nodeThread = addr_of(node.sel().thread);
+                if (nodeThread.loadPlain().longValue() == id) {
+                    // the waiter cannot return (and release its node) until we release the lock
+                    uint32_t_ptr signalled = addr_of(node.sel().signalled);
+                    if (signalled.compareAndSet(word(WAITING), word(INTERRUPTED))) {
+                        futex_wake_single(signalled);
+                    }
+                    return;
+                }
+                wait_node_ptr_ptr nextWaiter = addr_of(node.sel().nextWaiter);
+                node = nextWaiter.loadPlain();
+            }
+        } finally {
+            unlock(lock);
+        }
+    }
+
+    private static boolean signal(wait_node_ptr node) {
+        // the waiter cannot return (and release its node) until we release the monitor
+        uint32_t_ptr signalled = addr_of(node.sel().signalled);
+        if (! signalled.compareAndSet(word(WAITING), word(NOTIFIED))) {
+            return false;
+        }
+        futex_wake_single(signalled);
+        return true;
+    }
+
+    private static void register(wait_node_ptr node, long thread) {
+        int64_t_ptr nodeThread = addr_of(node.sel().thread);
+        nodeThread.storePlain(word(thread));
+        wait_node_ptr_ptr nextWaiter = addr_of(node.sel().nextWaiter);
+        uint32_t_ptr lock = waitersLock();
+        lock(lock);
+        nextWaiter.storePlain(firstWaiter());
+        addr_of(waiters).storePlain(word(node.longValue()));
+        unlock(lock);
+    }
+
+    private static void unregister(wait_node_ptr node) {
+        uint32_t_ptr lock = waitersLock();
+        lock(lock);
+        wait_node_ptr prev = zero();
+        wait_node_ptr current = firstWaiter();
+        while (! current.isNull()) {
+            wait_node_ptr_ptr currentNext = addr_of(current.sel().nextWaiter);
+            wait_node_ptr following = currentNext.loadPlain();
+            if (current.longValue() == node.longValue()) {
+                if (prev.isNull()) {
+                    addr_of(waiters).storePlain(word(following.longValue()));
+                } else {
+                    wait_node_ptr_ptr prevNext = addr_of(prev.sel().nextWaiter);
+                    prevNext.storePlain(following);
+                }
+                break;
+            }
+            prev = current;
+            current = following;
+        }
+        unlock(lock);
+    }
+
+    private static wait_node_ptr firstWaiter() {
+        return word(addr_of(waiters).loadPlain().longValue());
+    }
+
+    private static uint32_t_ptr waitersLock() {
+        return (uint32_t_ptr) castPtr(addr_of(waitersLock), uint32_t.class);
+    }
+
+    private static void removeWaiter(futex_monitor_ptr monitor, wait_node_ptr node) {
+        wait_node_ptr_ptr head = addr_of(monitor.sel().head);
+        wait_node_ptr_ptr tail = addr_of(monitor.sel().tail);
+        wait_node_ptr prev = zero();
+        wait_node_ptr current = head.loadPlain();
+        while (! current.isNull()) {
+            wait_node_ptr_ptr currentNext = addr_of(current.sel().next);
+            wait_node_ptr following = currentNext.loadPlain();
+            if (current.longValue() == node.longValue()) {
+                if (prev.isNull()) {
+                    head.storePlain(following);
+                } else {
+                    wait_node_ptr_ptr prevNext = addr_of(prev.sel().next);
+                    prevNext.storePlain(following);
+                }
+                if (tail.loadPlain().longValue() == node.longValue()) {
+                    tail.storePlain(prev);
+                }
+                currentNext.storePlain(zero());
+                return;
+            }
+            prev = current;
+            current = following;
+        }
+    }
+
+    private static void lock(uint32_t_ptr lock) {
+        if (lock.compareAndSet(word(FREE), word(HELD))) {
+            return;
+        }
+        // spin briefly in case the owner is about to exit
+        for (int i = 0; i < SPIN_LIMIT; i ++) {
+            if (lock.loadOpaque().intValue() == FREE && lock.compareAndSet(word(FREE), word(HELD))) {
+                return;
+            }
+        }
+        // mark the lock as contended so that the owner wakes us on exit
+        while (lock.getAndSet(word(CONTENDED)).intValue() != FREE) {
+            sleep(lock, word(CONTENDED), zero());
+        }
+    }
+
+    private static void sleep(uint32_t_ptr word, uint32_t expected, const_struct_timespec_ptr timeout) {
+        if (CompilerIntrinsics.hasSafepoints()) {
+            Safepoint.futexWait(word, expected, timeout);
+        } else {
+            futex_wait(word, expected, timeout);
+        }
+    }
+
+    private static void unlock(uint32_t_ptr lock) {
+        if (lock.getAndSet(word(FREE)).intValue() == CONTENDED) {
+            futex_wake_single(lock);
+        }
+    }
+
+    private static long nanoTime() {
+        struct_timespec now = auto();
+        struct_timespec_ptr nowPtr = addr_of(now);
+        clock_gettime(CLOCK_MONOTONIC, nowPtr);
+        return now.tv_sec.longValue() * 1_000_000_000L + now.tv_nsec.longValue();
+    }
+
+    private static futex_monitor_ptr getOwnedMonitor(Object object) throws IllegalMonitorStateException {
+        ptr<?> nom = CompilerIntrinsics.getNativeObjectMonitor(object);
+        if (nom.isNull()) {
+            throw new IllegalMonitorStateException("current thread is not owner");
+        }
+        futex_monitor_ptr monitor = (futex_monitor_ptr) castPtr(nom, futex_monitor.class);
+        int64_t_ptr owner = addr_of(monitor.sel().owner);
+        if (owner.loadOpaque().longValue() != pthread_self().longValue()) {
+            throw new IllegalMonitorStateException("current thread is not owner");
+        }
+        return monitor;
+    }
+
+    private static futex_monitor_ptr getOrCreateMonitor(Object object) {
+        ptr<?> nom = CompilerIntrinsics.getNativeObjectMonitor(object);
+        if (nom.isNull()) {
+            // the monitor slot is typed as a mutex pointer, but it only holds the address of the native monitor
+            ptr<?> mem = calloc(word(1), sizeof(futex_monitor.class));
+            if (mem.isNull()) {
+                throw new OutOfMemoryError(/*"Allocation failed"*/);
+            }
+            if (CompilerIntrinsics.setNativeObjectMonitor(object, (pthread_mutex_t_ptr) castPtr(mem, pthread_mutex_t.class))) {
+                nom = mem;
+            } else {
+                /* atomic assignment failed, another thread installed a monitor first */
+                free(mem);
+                nom = CompilerIntrinsics.getNativeObjectMonitor(object);
+            }
+        }
+        return (futex_monitor_ptr) castPtr(nom, futex_monitor.class);
+    }
+}
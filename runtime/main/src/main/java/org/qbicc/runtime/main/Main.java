@@ -31,6 +31,9 @@ public final class Main {
         // first set up VM
         // ...
         // next set up the initial thread
+        if (CompilerIntrinsics.hasSafepoints()) {
+            Safepoint.attach();
+        }
         attachNewThread("main", createSystemThreadGroup());
 
         // now cause the initial thread to invoke main
@@ -49,6 +52,9 @@ public final class Main {
             }
         }
         if (Build.Target.isPosix()) {
+            if (CompilerIntrinsics.hasSafepoints()) {
+                Safepoint.detach();
+            }
             pthread_exit(zero());
         }
         // todo: windows
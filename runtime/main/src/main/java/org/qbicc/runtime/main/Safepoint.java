@@ -0,0 +1,397 @@
+package org.qbicc.runtime.main;
+
+import static org.qbicc.runtime.CNative.*;
+import static org.qbicc.runtime.linux.Futex.*;
+import static org.qbicc.runtime.posix.PThread.*;
+import static org.qbicc.runtime.posix.Sched.*;
+import static org.qbicc.runtime.stdc.Errno.*;
+import static org.qbicc.runtime.stdc.Stdint.*;
+import static org.qbicc.runtime.stdc.Stdlib.*;
+import static org.qbicc.runtime.stdc.Time.*;
+import static org.qbicc.runtime.unwind.LibUnwind.*;
+
+import org.qbicc.runtime.Hidden;
+import org.qbicc.runtime.Inline;
+import org.qbicc.runtime.InlineCondition;
+import org.qbicc.runtime.stackwalk.StackRoots;
+
+/**
+ * Cooperative safepoints for stopping the world.  Every attached thread has a record in a global registry which holds
+ * its state and the context of its most recent safepoint.  A thread is {@code RUNNING} while it may access the heap,
+ * and {@code SAFE} while it is blocked in one of the blocking operations of this class, while it is in a native call,
+ * or while it waits for the world to be resumed.  Before a thread becomes safe, it captures its context in the frame of
+ * the blocking operation or of the native call wrapper, so that the frames of its callers stay intact and can be walked
+ * while it is stopped.
+ * <p>
+ * A collector stops the world by setting the request flag and waiting until no other thread is running.  Running
+ * threads reach a safepoint when they block, when they call a native function, or when they {@linkplain #poll() poll},
+ * and stay safe until the world is resumed.  The compiler polls on the back edges of loops, and the collector's
+ * allocator polls on every allocation, so that no thread can run for long without reaching a safepoint.  Calls to
+ * native functions outside of the run time are made through compiler generated wrappers which use
+ * {@link #currentRecord()}, {@link #contextOf}, {@link #enterNative} and {@link #exitNative}; the run time itself
+ * calls the blocking operations of this class where it may block.
+ * <p>
+ * Records are never freed; the records of exited threads are reused by new threads.
+ */
+@SuppressWarnings("unused")
+public final class Safepoint {
+    private static final int FREE = 0;
+    private static final int RUNNING = 1;
+    private static final int SAFE = 2;
+
+    private static final int UNLOCKED = 0;
+    private static final int LOCKED = 1;
+    private static final int CONTENDED = 2;
+
+    /**
+     * The first thread record, or 0.
+     */
+    private static long head;
+    /**
+     * The registry and collection lock.
+     */
+    private static int lock;
+    /**
+     * Non-zero while a collector is stopping the world.
+     */
+    private static int requested;
+    /**
+     * The number of completed collections.
+     */
+    private static long collections;
+
+    private Safepoint() {}
+
+    @internal
+    public static final class thread_record extends object {
+        public thread_record_ptr next;
+        public long owner;
+        public uint32_t state;
+        public unw_context_t_ptr context;
+    }
+
+    public static final class thread_record_ptr extends ptr<thread_record> {}
+    public static final class thread_record_ptr_ptr extends ptr<thread_record_ptr> {}
+
+    /**
+     * Register the current thread.  This must be done before the thread first touches the heap.
+     */
+    @Hidden
+    public static void attach() {
+        uint32_t_ptr lockWord = lockWord();
+        // the thread is not registered yet, so it may block without becoming safe
+        if (! lockWord.compareAndSet(word(UNLOCKED), word(LOCKED))) {
+            while (lockWord.getAndSet(word(CONTENDED)).intValue() != UNLOCKED) {
+                futex_wait(lockWord, word(CONTENDED), zero());
+            }
+        }
+        try {
+            thread_record_ptr record = first();
+            while (! record.isNull()) {
+                uint32_t_ptr state = addr_of(record.sel().state);
+                if (state.loadVolatile().intValue() == FREE) {
+                    break;
+                }
+                thread_record_ptr_ptr next = addr_of(record.sel().next);
+                record = next.loadAcquire();
+            }
+            if (record.isNull()) {
+                record = calloc(word(1), sizeof(thread_record.class));
+                unw_context_t_ptr context = malloc(sizeof(unw_context_t.class));
+                if (record.isNull() || context.isNull()) {
+                    abort();
+                }
+                unw_context_t_ptr_ptr contextPtr = addr_of(record.sel().context);
+                contextPtr.storePlain(context);
+                thread_record_ptr_ptr next = addr_of(record.sel().next);
+                next.storePlain(first());
+                // readers traverse the list without the lock
+                addr_of(head).storeRelease(word(record.longValue()));
+            }
+            int64_t_ptr owner = addr_of(record.sel().owner);
+            owner.storeVolatile(word(pthread_self().longValue()));
+            uint32_t_ptr state = addr_of(record.sel().state);
+            state.storeVolatile(word(RUNNING));
+        } finally {
+            unlock(lockWord);
+        }
+    }
+
+    /**
+     * Unregister the current thread.  The thread must not touch the heap afterwards.
+     */
+    @Hidden
+    public static void detach() {
+        thread_record_ptr self = current();
+        if (! self.isNull()) {
+            int64_t_ptr owner = addr_of(self.sel().owner);
+            owner.storeVolatile(word(0L));
+            uint32_t_ptr state = addr_of(self.sel().state);
+            state.storeVolatile(word(FREE));
+        }
+    }
+
+    /**
+     * Reach a safepoint if a collector is waiting for the world to stop.
+     */
+    @Hidden
+    @Inline(InlineCondition.ALWAYS)
+    public static void poll() {
+        if (addr_of(requested).loadVolatile().intValue() != 0) {
+            stop();
+        }
+    }
+
+    @Hidden
+    @Inline(InlineCondition.NEVER)
+    private static void stop() {
+        thread_record_ptr self = current();
+        if (self.isNull()) {
+            return;
+        }
+        unw_getcontext(addr_of(self.sel().context).loadPlain());
+        uint32_t_ptr state = addr_of(self.sel().state);
+        state.storeRelease(word(SAFE));
+        leave(self);
+    }
+
+    /**
+     * Wait on a futex as a safepoint.  See {@link org.qbicc.runtime.linux.Futex#futex_wait}.
+     */
+    @Hidden
+    @Inline(InlineCondition.NEVER)
+    public static boolean futexWait(uint32_t_ptr uaddr, uint32_t val, const_struct_timespec_ptr timeout) {
+        thread_record_ptr self = current();
+        if (self.isNull()) {
+            return futex_wait(uaddr, val, timeout);
+        }
+        unw_getcontext(addr_of(self.sel().context).loadPlain());
+        uint32_t_ptr state = addr_of(self.sel().state);
+        state.storeRelease(word(SAFE));
+        boolean result = futex_wait(uaddr, val, timeout);
+        leave(self);
+        return result;
+    }
+
+    /**
+     * Get the record of the current thread for a native call wrapper.
+     *
+     * @return the record, or {@code null} if the current thread is not attached
+     */
+    @Hidden
+    public static thread_record_ptr currentRecord() {
+        return current();
+    }
+
+    /**
+     * Get the context buffer of a thread record.  A native call wrapper captures its own context into it before it
+     * {@linkplain #enterNative enters} the native call, because the context must be captured in a frame which stays
+     * live for the duration of the call.
+     *
+     * @param self the record of the current thread
+     * @return the context buffer
+     */
+    @Hidden
+    public static unw_context_t_ptr contextOf(thread_record_ptr self) {
+        return addr_of(self.sel().context).loadPlain();
+    }
+
+    /**
+     * Become safe for the duration of a native call.  The context must have been captured.
+     *
+     * @param self the record of the current thread
+     */
+    @Hidden
+    public static void enterNative(thread_record_ptr self) {
+        uint32_t_ptr state = addr_of(self.sel().state);
+        state.storeRelease(word(SAFE));
+    }
+
+    /**
+     * Return from a native call, waiting for the world to be resumed first if it is being stopped.
+     *
+     * @param self the record of the current thread
+     */
+    @Hidden
+    public static void exitNative(thread_record_ptr self) {
+        leave(self);
+    }
+
+    /**
+     * Lock a mutex, blocking as a safepoint if it is contended.
+     */
+    @Hidden
+    @Inline(InlineCondition.NEVER)
+    public static c_int mutexLock(pthread_mutex_t_ptr mutex) {
+        c_int result = pthread_mutex_trylock(mutex);
+        if (result.intValue() == 0) {
+            return result;
+        }
+        thread_record_ptr self = current();
+        if (self.isNull()) {
+            return pthread_mutex_lock(mutex);
+        }
+        unw_getcontext(addr_of(self.sel().context).loadPlain());
+        uint32_t_ptr state = addr_of(self.sel().state);
+        state.storeRelease(word(SAFE));
+        result = pthread_mutex_lock(mutex);
+        leave(self);
+        return result;
+    }
+
+    /**
+     * Acquire exclusive access to the heap for a collection.  The calling thread is safe while it waits, so that
+     * another collection may proceed in the meantime; the caller should therefore check whether it still needs to
+     * collect once this method returns.
+     */
+    @Hidden
+    @Inline(InlineCondition.NEVER)
+    public static void beginCollection() {
+        uint32_t_ptr lockWord = lockWord();
+        if (lockWord.compareAndSet(word(UNLOCKED), word(LOCKED))) {
+            return;
+        }
+        thread_record_ptr self = current();
+        if (! self.isNull()) {
+            unw_getcontext(addr_of(self.sel().context).loadPlain());
+            uint32_t_ptr state = addr_of(self.sel().state);
+            state.storeRelease(word(SAFE));
+        }
+        while (lockWord.getAndSet(word(CONTENDED)).intValue() != UNLOCKED) {
+            futex_wait(lockWord, word(CONTENDED), zero());
+        }
+        if (! self.isNull()) {
+            leave(self);
+        }
+    }
+
+    /**
+     * Release exclusive access to the heap.
+     */
+    @Hidden
+    public static void endCollection() {
+        unlock(lockWord());
+    }
+
+    /**
+     * Stop every other attached thread at a safepoint.  The caller must have {@linkplain #beginCollection() begun} a
+     * collection.
+     */
+    @Hidden
+    public static void stopTheWorld() {
+        thread_record_ptr self = current();
+        addr_of(requested).storeVolatile(word(1));
+        thread_record_ptr record = first();
+        while (! record.isNull()) {
+            if (record.longValue() != self.longValue()) {
+                uint32_t_ptr state = addr_of(record.sel().state);
+                while (state.loadVolatile().intValue() == RUNNING) {
+                    sched_yield();
+                }
+            }
+            thread_record_ptr_ptr next = addr_of(record.sel().next);
+            record = next.loadAcquire();
+        }
+    }
+
+    /**
+     * Resume the threads which were stopped by {@link #stopTheWorld()}.
+     */
+    @Hidden
+    public static void resumeTheWorld() {
+        int64_t_ptr count = addr_of(collections);
+        count.storeVolatile(word(count.loadPlain().longValue() + 1));
+        uint32_t_ptr requestedWord = requestedWord();
+        requestedWord.storeVolatile(word(0));
+        futex_wake_all(requestedWord);
+    }
+
+    /**
+     * Get the number of times the world was stopped and resumed.
+     *
+     * @return the number of collections
+     */
+    public static long getCollectionCount() {
+        return addr_of(collections).loadVolatile().longValue();
+    }
+
+    /**
+     * Collect the stack roots of every thread.  The world must be stopped.
+     *
+     * @param list the list to append the roots to
+     */
+    @Hidden
+    @Inline(InlineCondition.NEVER)
+    public static void visitStackRoots(StackRoots.root_list_ptr list) {
+        thread_record_ptr self = current();
+        thread_record_ptr record = first();
+        while (! record.isNull()) {
+            uint32_t_ptr state = addr_of(record.sel().state);
+            // a stopped thread may be briefly running while it checks whether the world was resumed
+            if (record.longValue() != self.longValue() && state.loadVolatile().intValue() != FREE) {
+                StackRoots.collect(addr_of(record.sel().context).loadPlain(), list);
+            }
+            thread_record_ptr_ptr next = addr_of(record.sel().next);
+            record = next.loadAcquire();
+        }
+        // the frames of the current thread begin with the caller of this method
+        unw_context_t_ptr context = alloca(sizeof(unw_context_t.class));
+        unw_getcontext(context);
+        StackRoots.collect(context, list);
+    }
+
+    /**
+     * Return to the running state, waiting for the world to be resumed first if it is being stopped.
+     */
+    private static void leave(thread_record_ptr self) {
+        uint32_t_ptr state = addr_of(self.sel().state);
+        uint32_t_ptr requestedWord = requestedWord();
+        for (;;) {
+            state.storeVolatile(word(RUNNING));
+            if (requestedWord.loadVolatile().intValue() == 0) {
+                return;
+            }
+            // the context which was captured on the way in is still valid
+            state.storeVolatile(word(SAFE));
+            // the caller may still need the error of the blocking operation
+            c_int error = errno;
+            while (requestedWord.loadVolatile().intValue() != 0) {
+                futex_wait(requestedWord, word(1), zero());
+            }
+            errno = error;
+        }
+    }
+
+    private static thread_record_ptr current() {
+        long self = pthread_self().longValue();
+        thread_record_ptr record = first();
+        while (! record.isNull()) {
+            int64_t_ptr owner = addr_of(record.sel().owner);
+            uint32_t_ptr state = addr_of(record.sel().state);
+            if (owner.loadVolatile().longValue() == self && state.loadVolatile().intValue() != FREE) {
+                return record;
+            }
+            thread_record_ptr_ptr next = addr_of(record.sel().next);
+            record = next.loadAcquire();
+        }
+        return zero();
+    }
+
+    private static thread_record_ptr first() {
+        return word(addr_of(head).loadAcquire().longValue());
+    }
+
+    private static void unlock(uint32_t_ptr lockWord) {
+        if (lockWord.getAndSet(word(UNLOCKED)).intValue() == CONTENDED) {
+            futex_wake_single(lockWord);
+        }
+    }
+
+    private static uint32_t_ptr lockWord() {
+        return (uint32_t_ptr) castPtr(addr_of(lock), uint32_t.class);
+    }
+
+    private static uint32_t_ptr requestedWord() {
+        return (uint32_t_ptr) castPtr(addr_of(requested), uint32_t.class);
+    }
+}
@@ -1,6 +1,8 @@
 package org.qbicc.runtime.main;
 
 import static org.qbicc.runtime.CNative.*;
+import static org.qbicc.runtime.stdc.Stdint.*;
+import static org.qbicc.runtime.stdc.String.*;
 
 import org.qbicc.runtime.ThreadScoped;
 
@@ -20,65 +22,147 @@ public final class VM {
     @SuppressWarnings("unused")
     static Thread _qbicc_bound_thread;
 
-    // Temporary manual implementation
-    @SuppressWarnings("ManualArrayCopy")
+    /**
+     * Copy array elements, dispatching on the run time types of the arrays.  This entry point is only used when
+     * the component types of the arrays are not statically known; otherwise the {@code System.arraycopy} intrinsic
+     * calls the matching typed variant directly.
+     */
     static void arraycopy(Object src, int srcPos, Object dest, int destPos, int length) {
+        if (src == null || dest == null) {
+            throw new NullPointerException();
+        }
         if (src instanceof Object[] && dest instanceof Object[]) {
-            Object[] srcArray = (Object[]) src;
-            Object[] destArray = (Object[]) dest;
-            for (int i = 0; i < length; i ++) {
-                destArray[destPos + i] = srcArray[srcPos + i];
-            }
+            arraycopy((Object[]) src, srcPos, (Object[]) dest, destPos, length);
         } else if (src instanceof byte[] && dest instanceof byte[]) {
-            byte[] srcArray = (byte[]) src;
-            byte[] destArray = (byte[]) dest;
-            for (int i = 0; i < length; i ++) {
-                destArray[destPos + i] = srcArray[srcPos + i];
-            }
+            arraycopy((byte[]) src, srcPos, (byte[]) dest, destPos, length);
         } else if (src instanceof short[] && dest instanceof short[]) {
-            short[] srcArray = (short[]) src;
-            short[] destArray = (short[]) dest;
-            for (int i = 0; i < length; i ++) {
-                destArray[destPos + i] = srcArray[srcPos + i];
-            }
+            arraycopy((short[]) src, srcPos, (short[]) dest, destPos, length);
+        } else if (src instanceof char[] && dest instanceof char[]) {
+            arraycopy((char[]) src, srcPos, (char[]) dest, destPos, length);
         } else if (src instanceof int[] && dest instanceof int[]) {
-            int[] srcArray = (int[]) src;
-            int[] destArray = (int[]) dest;
-            for (int i = 0; i < length; i ++) {
-                destArray[destPos + i] = srcArray[srcPos + i];
-            }
+            arraycopy((int[]) src, srcPos, (int[]) dest, destPos, length);
         } else if (src instanceof long[] && dest instanceof long[]) {
-            long[] srcArray = (long[]) src;
-            long[] destArray = (long[]) dest;
-            for (int i = 0; i < length; i ++) {
-                destArray[destPos + i] = srcArray[srcPos + i];
-            }
-        } else if (src instanceof char[] && dest instanceof char[]) {
-            char[] srcArray = (char[]) src;
-            char[] destArray = (char[]) dest;
-            for (int i = 0; i < length; i ++) {
-                destArray[destPos + i] = srcArray[srcPos + i];
-            }
+            arraycopy((long[]) src, srcPos, (long[]) dest, destPos, length);
         } else if (src instanceof float[] && dest instanceof float[]) {
-            float[] srcArray = (float[]) src;
-            float[] destArray = (float[]) dest;
-            for (int i = 0; i < length; i ++) {
-                destArray[destPos + i] = srcArray[srcPos + i];
-            }
+            arraycopy((float[]) src, srcPos, (float[]) dest, destPos, length);
         } else if (src instanceof double[] && dest instanceof double[]) {
-            double[] srcArray = (double[]) src;
-            double[] destArray = (double[]) dest;
-            for (int i = 0; i < length; i ++) {
-                destArray[destPos + i] = srcArray[srcPos + i];
-            }
+            arraycopy((double[]) src, srcPos, (double[]) dest, destPos, length);
         } else if (src instanceof boolean[] && dest instanceof boolean[]) {
-            boolean[] srcArray = (boolean[]) src;
-            boolean[] destArray = (boolean[]) dest;
-            for (int i = 0; i < length; i ++) {
-                destArray[destPos + i] = srcArray[srcPos + i];
-            }
+            arraycopy((boolean[]) src, srcPos, (boolean[]) dest, destPos, length);
         } else {
-            throw new ClassCastException("Invalid array types for copy");
+            throw new ArrayStoreException("Invalid array types for copy");
+        }
+    }
+
+    static void arraycopy(byte[] src, int srcPos, byte[] dest, int destPos, int length) {
+        checkArrayCopyBounds(srcPos, src.length, destPos, dest.length, length);
+        if (length > 0) {
+            memmove(addr_of(dest[destPos]).cast(), addr_of(src[srcPos]).cast(), word(length * (long) Byte.BYTES));
+        }
+    }
+
+    static void arraycopy(short[] src, int srcPos, short[] dest, int destPos, int length) {
+        checkArrayCopyBounds(srcPos, src.length, destPos, dest.length, length);
+        if (length > 0) {
+            memmove(addr_of(dest[destPos]).cast(), addr_of(src[srcPos]).cast(), word(length * (long) Short.BYTES));
+        }
+    }
+
+    static void arraycopy(char[] src, int srcPos, char[] dest, int destPos, int length) {
+        checkArrayCopyBounds(srcPos, src.length, destPos, dest.length, length);
+        if (length > 0) {
+            memmove(addr_of(dest[destPos]).cast(), addr_of(src[srcPos]).cast(), word(length * (long) Character.BYTES));
+        }
+    }
+
+    static void arraycopy(int[] src, int srcPos, int[] dest, int destPos, int length) {
+        checkArrayCopyBounds(srcPos, src.length, destPos, dest.length, length);
+        if (length > 0) {
+            memmove(addr_of(dest[destPos]).cast(), addr_of(src[srcPos]).cast(), word(length * (long) Integer.BYTES));
+        }
+    }
+
+    static void arraycopy(long[] src, int srcPos, long[] dest, int destPos, int length) {
+        checkArrayCopyBounds(srcPos, src.length, destPos, dest.length, length);
+        if (length > 0) {
+            memmove(addr_of(dest[destPos]).cast(), addr_of(src[srcPos]).cast(), word(length * (long) Long.BYTES));
+        }
+    }
+
+    static void arraycopy(float[] src, int srcPos, float[] dest, int destPos, int length) {
+        checkArrayCopyBounds(srcPos, src.length, destPos, dest.length, length);
+        if (length > 0) {
+            memmove(addr_of(dest[destPos]).cast(), addr_of(src[srcPos]).cast(), word(length * (long) Float.BYTES));
+        }
+    }
+
+    static void arraycopy(double[] src, int srcPos, double[] dest, int destPos, int length) {
+        checkArrayCopyBounds(srcPos, src.length, destPos, dest.length, length);
+        if (length > 0) {
+            memmove(addr_of(dest[destPos]).cast(), addr_of(src[srcPos]).cast(), word(length * (long) Double.BYTES));
+        }
+    }
+
+    static void arraycopy(boolean[] src, int srcPos, boolean[] dest, int destPos, int length) {
+        checkArrayCopyBounds(srcPos, src.length, destPos, dest.length, length);
+        if (length > 0) {
+            memmove(addr_of(dest[destPos]).cast(), addr_of(src[srcPos]).cast(), word(length * (long) CompilerIntrinsics.getBooleanSize()));
+        }
+    }
+
+    /**
+     * Copy reference array elements.  If the source array type is assignable to the destination array type, no
+     * element can fail the store check and the range is moved in one step.  Otherwise the elements are checked
+     * up front in runs, consecutive elements of an already-checked type are not checked again, and each run is
+     * moved in bulk; on a failing element the preceding elements are copied before the exception is thrown.
+     */
+    static void arraycopy(Object[] src, int srcPos, Object[] dest, int destPos, int length) {
+        checkArrayCopyBounds(srcPos, src.length, destPos, dest.length, length);
+        if (length == 0) {
+            return;
+        }
+        int refSize = CompilerIntrinsics.getReferenceSize();
+        type_id destElemTypeId = CompilerIntrinsics.elementTypeIdOf(dest);
+        uint8_t destDims = CompilerIntrinsics.dimensionsOf(dest);
+        if (src == dest || VMHelpers.isTypeIdAssignableTo(CompilerIntrinsics.elementTypeIdOf(src), CompilerIntrinsics.dimensionsOf(src), destElemTypeId, destDims)) {
+            memmove(addr_of(dest[destPos]).cast(), addr_of(src[srcPos]).cast(), word(length * (long) refSize));
+            CompilerIntrinsics.referenceArrayWritten(dest, destPos, length);
+            return;
+        }
+        // the arrays are distinct, so they cannot overlap
+        uint8_t storeDims = word(destDims.intValue() - 1);
+        type_id checkedTypeId = word(0);
+        boolean haveChecked = false;
+        int cnt = 0;
+        while (cnt < length) {
+            Object item = src[srcPos + cnt];
+            if (item != null) {
+                type_id itemTypeId = CompilerIntrinsics.typeIdOf(item);
+                if (! haveChecked || itemTypeId != checkedTypeId) {
+                    if (! VMHelpers.isAssignableTo(item, destElemTypeId, storeDims)) {
+                        break;
+                    }
+                    // reference arrays share one type ID, so only cache the check for non-array elements
+                    if (! CompilerIntrinsics.isReferenceArray(itemTypeId)) {
+                        checkedTypeId = itemTypeId;
+                        haveChecked = true;
+                    }
+                }
+            }
+            cnt++;
+        }
+        if (cnt > 0) {
+            memcpy(addr_of(dest[destPos]).cast(), addr_of(src[srcPos]).cast(), word(cnt * (long) refSize));
+            CompilerIntrinsics.referenceArrayWritten(dest, destPos, cnt);
+        }
+        if (cnt < length) {
+            throw new ArrayStoreException();
+        }
+    }
+
+    private static void checkArrayCopyBounds(int srcPos, int srcLength, int destPos, int destLength, int length) {
+        if (srcPos < 0 || destPos < 0 || length < 0 || length > srcLength - srcPos || length > destLength - destPos) {
+            throw new ArrayIndexOutOfBoundsException();
         }
     }
 }
@@ -13,6 +13,7 @@ import static org.qbicc.runtime.CNative.*;
 import static org.qbicc.runtime.posix.PThread.*;
 import static org.qbicc.runtime.stdc.Stdint.*;
 import static org.qbicc.runtime.stdc.Stdlib.*;
+import static org.qbicc.runtime.stdc.String.*;
 
 /**
  * Runtime Helpers to support the operation of the compiled code.
@@ -20,6 +21,11 @@ import static org.qbicc.runtime.stdc.Stdlib.*;
 @SuppressWarnings("unused")
 public final class VMHelpers {
 
+    @Hidden
+    public static void copyInstanceFields(Object to, Object from, long size) {
+        memcpy((void_ptr) (ptr<?>) refToPtr(to), (const_void_ptr) (ptr<?>) refToPtr(from), word(size));
+    }
+
     @NoSideEffects
     @Hidden
     public static boolean instanceofClass(Object instance, Class<?> cls) {
@@ -181,7 +187,11 @@ public final class VMHelpers {
                 free(attrVoid);
             }
         }
-        result = pthread_mutex_lock(nom).intValue();
+        if (CompilerIntrinsics.hasSafepoints()) {
+            result = Safepoint.mutexLock(nom).intValue();
+        } else {
+            result = pthread_mutex_lock(nom).intValue();
+        }
         if (0 != result) {
             throw new IllegalMonitorStateException("error code: " + result);
         }
@@ -585,7 +595,15 @@ public final class VMHelpers {
             // TODO this is a workaround until addr_of_function is working
             return threadParam;
         }
-        return CompilerIntrinsics.threadWrapperNative(threadParam);
+        if (! CompilerIntrinsics.hasSafepoints()) {
+            return CompilerIntrinsics.threadWrapperNative(threadParam);
+        }
+        Safepoint.attach();
+        try {
+            return CompilerIntrinsics.threadWrapperNative(threadParam);
+        } finally {
+            Safepoint.detach();
+        }
     }
 
     /**
@@ -1,17 +1,15 @@
 package org.qbicc.runtime.stackwalk;
 
 import org.qbicc.runtime.Hidden;
+import org.qbicc.runtime.main.CompilerIntrinsics;
 
 public class JavaStackWalker implements StackFrameVisitor {
-    private static final int I_ACC_HIDDEN = 1 << 18;
-
-
-    private Throwable exceptionObject;
+    private int exceptionTypeId;
     private JavaStackFrameVisitor visitor;
     private int javaFrameCount;
 
     private JavaStackWalker(Throwable exceptionObject, JavaStackFrameVisitor visitor) {
-        this.exceptionObject = exceptionObject;
+        this.exceptionTypeId = CompilerIntrinsics.typeIdOf(exceptionObject).intValue();
         this.visitor = visitor;
         this.javaFrameCount = 0;
     }
@@ -31,18 +29,15 @@ public class JavaStackWalker implements StackFrameVisitor {
 
     private boolean skipFrame(int scIndex, boolean isTopFrame) {
         int minfoIndex = MethodData.getMethodInfoIndex(scIndex);
-        String methodName = MethodData.getMethodName(minfoIndex);
-        String className = MethodData.getClassName(minfoIndex);
+        int flags = MethodData.getFlags(minfoIndex);
 
-        if (isTopFrame) {
-            // if this is top frame, skip it if it is for excepption constructor or "fillInStackTrace" method
-            if (exceptionObject.getClass().getName().equals(className)) {
-                if (methodName.equals("<init>") || methodName.equals("fillInStackTrace")) {
-                    return true;
-                }
+        if (isTopFrame && (flags & MethodData.MI_FLAG_EXCEPTION_INIT) != 0) {
+            // if this is top frame, skip it if it is for exception constructor or "fillInStackTrace" method
+            if (MethodData.getTypeId(minfoIndex) == exceptionTypeId) {
+                return true;
             }
         }
-        return MethodData.hasAllModifiersOf(minfoIndex, I_ACC_HIDDEN);
+        return (flags & MethodData.MI_FLAG_HIDDEN) != 0;
     }
 
     public void visitFrame(int frameIndex, long ip, long sp) {
@@ -6,12 +6,16 @@ import org.qbicc.runtime.main.CompilerIntrinsics;
 import static org.qbicc.runtime.CNative.*;
 
 public final class MethodData {
+    // keep in sync with org.qbicc.plugin.methodinfo.MethodInfo
+    public static final int MI_FLAG_HIDDEN = 1 << 0;
+    public static final int MI_FLAG_EXCEPTION_INIT = 1 << 1;
 
     public static native String getFileName(int minfoIndex);
     public static native String getMethodName(int minfoIndex);
     public static native String getMethodDesc(int minfoIndex);
     public static native int getTypeId(int minfoIndex);
     public static native int getModifiers(int minfoIndex);
+    public static native int getFlags(int minfoIndex);
 
     public static String getClassName(int minfoIndex) {
         return getClass(minfoIndex).getName();
@@ -38,24 +42,59 @@ public final class MethodData {
     public static native int getInlinedAtIndex(int scIndex);
 
     public static native int getSourceCodeInfoIndex(int index);
-    public static native long getInstructionAddress(int index);
     public static native int getInstructionListSize();
 
+    public static native int getFunctionListSize();
+    public static native long getFunctionAddress(int fnIndex);
+    public static native int getFunctionInstructionIndex(int fnIndex);
+    public static native int getFunctionOffsetIndex(int fnIndex);
+    public static native int getInstructionOffsetByte(int index);
+
+    // GC roots are only present when the collector requires them
+    public static native int getGcRootIndex(int index);
+    public static native int getGcRootBaseRegister(int rootIndex);
+    public static native int getGcRootBaseOffset(int rootIndex);
+    public static native int getGcRootDerivedRegister(int rootIndex);
+    public static native int getGcRootDerivedOffset(int rootIndex);
+
     static int findInstructionIndex(long ip) {
-        // do a binary search in instruction table
-        int upper = MethodData.getInstructionListSize();
+        // do a binary search in function table for the last function starting at or before ip
+        int upper = MethodData.getFunctionListSize() - 1;
         int lower = 0;
+        int fnIndex = -1;
         while (upper >= lower) {
             int mid = ( upper + lower ) >>> 1;
-            long addr = MethodData.getInstructionAddress(mid);
-            if (ip == addr) {
-                return mid;
-            } else if (ip > addr) {
+            if (MethodData.getFunctionAddress(mid) <= ip) {
+                fnIndex = mid;
                 lower = mid+1;
             } else {
                 upper = mid-1;
             }
         }
+        if (fnIndex == -1) {
+            return -1;
+        }
+        // then scan the delta-encoded instruction offsets of the function
+        long offset = ip - MethodData.getFunctionAddress(fnIndex);
+        int end = fnIndex + 1 < MethodData.getFunctionListSize() ? MethodData.getFunctionInstructionIndex(fnIndex + 1) : MethodData.getInstructionListSize();
+        int pos = MethodData.getFunctionOffsetIndex(fnIndex);
+        long current = 0;
+        for (int index = MethodData.getFunctionInstructionIndex(fnIndex); index < end; index++) {
+            int delta = 0;
+            int shift = 0;
+            int b;
+            do {
+                b = MethodData.getInstructionOffsetByte(pos++);
+                delta |= (b & 0x7f) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            current += delta;
+            if (current == offset) {
+                return index;
+            } else if (current > offset) {
+                return -1;
+            }
+        }
         return -1;
     }
 
@@ -0,0 +1,131 @@
+package org.qbicc.runtime.stackwalk;
+
+import static org.qbicc.runtime.CNative.*;
+import static org.qbicc.runtime.stdc.Stdint.*;
+import static org.qbicc.runtime.stdc.Stdlib.*;
+import static org.qbicc.runtime.unwind.LibUnwind.*;
+
+/**
+ * Precise stack roots for collectors which move objects.  The roots of each frame are the stack slots which the
+ * statepoint record of its call site lists as holding references.  Each root is collected as a triple of the address
+ * of the slot which holds the base reference, the address of the slot which holds the (possibly identical) derived
+ * pointer, and the distance of the derived pointer from the base, so that the derived pointer can be recomputed after
+ * the base object was moved.
+ * <p>
+ * The world must be stopped while the roots are collected and used.
+ */
+public final class StackRoots {
+    private static final long INITIAL_CAPACITY = 256;
+
+    private StackRoots() {}
+
+    @internal
+    public static final class root_list extends object {
+        public int64_t_ptr slots;
+        public long size;
+        public long capacity;
+    }
+
+    public static final class root_list_ptr extends ptr<root_list> {}
+
+    /**
+     * Collect the roots of the frames of a stack, beginning with the caller of the frame in which the given context
+     * was captured.  Frames of native functions have no statepoint records and are skipped.
+     *
+     * @param context the captured context of a thread which is stopped or is the current thread
+     * @param list the list to append the root triples to
+     */
+    public static void collect(unw_context_t_ptr context, root_list_ptr list) {
+        unw_cursor_t_ptr cursor = alloca(sizeof(unw_cursor_t.class));
+        unw_word_t_ptr value = alloca(sizeof(unw_word_t.class));
+
+        unw_init_local(cursor, context);
+        while (unw_step(cursor).intValue() > 0) {
+            unw_get_reg(cursor, UNW_REG_IP, value);
+            int index = MethodData.findInstructionIndex(value.loadUnshared().longValue());
+            if (index == -1) {
+                continue;
+            }
+            int end = MethodData.getGcRootIndex(index + 1);
+            for (int root = MethodData.getGcRootIndex(index); root < end; root++) {
+                long baseSlot = slotAddress(cursor, value, MethodData.getGcRootBaseRegister(root), MethodData.getGcRootBaseOffset(root));
+                long derivedSlot = slotAddress(cursor, value, MethodData.getGcRootDerivedRegister(root), MethodData.getGcRootDerivedOffset(root));
+                int64_t_ptr basePtr = word(baseSlot);
+                int64_t_ptr derivedPtr = word(derivedSlot);
+                long base = basePtr.loadPlain().longValue();
+                if (base != 0) {
+                    add(list, baseSlot, derivedSlot, derivedPtr.loadPlain().longValue() - base);
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the number of root triples in the list.
+     *
+     * @param list the list
+     * @return the number of roots
+     */
+    public static long size(root_list_ptr list) {
+        int64_t_ptr size = addr_of(list.sel().size);
+        return size.loadPlain().longValue() / 3;
+    }
+
+    /**
+     * Get the root triples of the list.
+     *
+     * @param list the list
+     * @return the root triples, which are only valid until the list is modified
+     */
+    public static int64_t_ptr slots(root_list_ptr list) {
+        int64_t_ptr_ptr slots = addr_of(list.sel().slots);
+        return slots.loadPlain();
+    }
+
+    /**
+     * Release the storage of the list, leaving it empty.
+     *
+     * @param list the list
+     */
+    public static void clear(root_list_ptr list) {
+        int64_t_ptr_ptr slots = addr_of(list.sel().slots);
+        int64_t_ptr storage = slots.loadPlain();
+        if (! storage.isNull()) {
+            free(storage);
+        }
+        slots.storePlain(zero());
+        int64_t_ptr size = addr_of(list.sel().size);
+        size.storePlain(word(0L));
+        int64_t_ptr capacity = addr_of(list.sel().capacity);
+        capacity.storePlain(word(0L));
+    }
+
+    private static long slotAddress(unw_cursor_t_ptr cursor, unw_word_t_ptr value, int register, int offset) {
+        // the stack map uses DWARF register numbers, which are also the libunwind register numbers
+        unw_get_reg(cursor, word(register), value);
+        return value.loadUnshared().longValue() + offset;
+    }
+
+    private static void add(root_list_ptr list, long baseSlot, long derivedSlot, long delta) {
+        int64_t_ptr sizePtr = addr_of(list.sel().size);
+        int64_t_ptr capacityPtr = addr_of(list.sel().capacity);
+        int64_t_ptr_ptr slotsPtr = addr_of(list.sel().slots);
+        long size = sizePtr.loadPlain().longValue();
+        long capacity = capacityPtr.loadPlain().longValue();
+        int64_t_ptr slots = slotsPtr.loadPlain();
+        if (size + 3 > capacity) {
+            long newCapacity = capacity == 0 ? INITIAL_CAPACITY * 3 : capacity << 1;
+            slots = realloc(slots, word(newCapacity << 3));
+            if (slots.isNull()) {
+                // there is no way to recover from an incomplete set of roots
+                abort();
+            }
+            slotsPtr.storePlain(slots);
+            capacityPtr.storePlain(word(newCapacity));
+        }
+        slots.plus((int) size).storePlain(word(baseSlot));
+        slots.plus((int) size + 1).storePlain(word(derivedSlot));
+        slots.plus((int) size + 2).storePlain(word(delta));
+        sizePtr.storePlain(word(size + 3));
+    }
+}
@@ -93,6 +93,7 @@ public final class PThread {
 
     public static native c_int pthread_mutex_init(pthread_mutex_t_ptr mutex, const_pthread_mutexattr_t_ptr attr);
     public static native c_int pthread_mutex_lock(pthread_mutex_t_ptr mutex);
+    public static native c_int pthread_mutex_trylock(pthread_mutex_t_ptr mutex);
     public static native c_int pthread_mutex_unlock(pthread_mutex_t_ptr mutex);
     public static native c_int pthread_mutex_destroy(pthread_mutex_t_ptr mutex);
 
@@ -0,0 +1,37 @@
+package org.qbicc.runtime.posix;
+
+import static org.qbicc.runtime.CNative.*;
+import static org.qbicc.runtime.posix.SysTypes.*;
+import static org.qbicc.runtime.stdc.Stddef.*;
+
+import org.qbicc.runtime.Build.Target.IsGLibC;
+
+/**
+ *
+ */
+@include("<sys/mman.h>")
+@define(value = "_DEFAULT_SOURCE", when = IsGLibC.class)
+public final class SysMman {
+
+    public static native void_ptr mmap(void_ptr addr, size_t length, c_int prot, c_int flags, c_int fd, off_t offset);
+
+    public static native c_int munmap(void_ptr addr, size_t length);
+
+    public static native c_int mprotect(void_ptr addr, size_t length, c_int prot);
+
+    public static native c_int madvise(void_ptr addr, size_t length, c_int advice);
+
+    public static final c_int PROT_NONE = constant();
+    public static final c_int PROT_READ = constant();
+    public static final c_int PROT_WRITE = constant();
+    public static final c_int PROT_EXEC = constant();
+
+    public static final c_int MAP_SHARED = constant();
+    public static final c_int MAP_PRIVATE = constant();
+    public static final c_int MAP_FIXED = constant();
+    public static final c_int MAP_ANONYMOUS = constant();
+    public static final c_int MAP_NORESERVE = constant();
+
+    public static final c_int MADV_NORMAL = constant();
+    public static final c_int MADV_DONTNEED = constant();
+}